@@ -0,0 +1,278 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "EnvelopeBenchmark.h"
+
+#include <algorithm>
+#include <chrono>
+#include <climits>
+#include <cmath>
+#include <vector>
+
+#include "SignalEnvelope.h"
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        namespace {
+            // Window of the live signal that's scrolled the way draw buffers are scrolled while drawing live signal
+            class LiveSignal {
+            public:
+                LiveSignal(float sampleRate, int channelCount, int frameCount, float eventsPerSecond, int maxEventCount)
+                        : sampleRate(sampleRate), frameCount(frameCount), maxEventCount(maxEventCount) {
+                    buffers.resize(static_cast<size_t>(channelCount));
+                    samples.resize(static_cast<size_t>(channelCount));
+                    for (int i = 0; i < channelCount; i++) {
+                        buffers[i].resize(static_cast<size_t>(frameCount));
+                        samples[i] = buffers[i].data();
+                    }
+                    eventDistance = static_cast<int64_t>(sampleRate / eventsPerSecond);
+                }
+
+                // Appends specified number of frames to the end of the window, dropping the same number from the start
+                void append(int count) {
+                    const int kept = std::max(0, frameCount - count);
+                    const int64_t firstNew = position + count - (frameCount - kept);
+                    for (size_t i = 0; i < buffers.size(); i++) {
+                        short *buffer = buffers[i].data();
+                        std::copy(buffer + frameCount - kept, buffer + frameCount, buffer);
+                        for (int j = kept; j < frameCount; j++) {
+                            buffer[j] = createSample(static_cast<int>(i), firstNew + j - kept);
+                        }
+                    }
+                    position += count;
+
+                    // events move with the samples and new ones are added at the end
+                    for (auto &event : events) event -= count;
+                    events.erase(events.begin(), std::find_if(events.begin(), events.end(), [](int event) {
+                        return event >= 0;
+                    }));
+                    const int64_t windowStart = position - frameCount;
+                    for (int64_t event = std::max(firstNew, windowStart) / eventDistance * eventDistance;
+                         event < position; event += eventDistance) {
+                        if (event >= std::max(firstNew, windowStart)) {
+                            events.push_back(static_cast<int>(event - windowStart));
+                        }
+                    }
+                    if (static_cast<int>(events.size()) > maxEventCount) {
+                        events.erase(events.begin(), events.end() - maxEventCount);
+                    }
+                }
+
+                float sampleRate;
+                int frameCount;
+                std::vector<std::vector<short>> buffers;
+                std::vector<short *> samples;
+                std::vector<int> events;
+
+            private:
+                // spikes and 60 Hz line noise on top of white noise, with different offset for every channel
+                short createSample(int channel, int64_t index) {
+                    seed = seed * 1664525u + 1013904223u;
+                    const float noise = static_cast<float>(static_cast<int32_t>(seed >> 16) - 32768) / 32768.0f;
+                    const auto t = static_cast<float>(index / static_cast<double>(sampleRate));
+                    const bool spike = (index + channel * 97) % 1000 < 10;
+                    const float hum = std::sin(2.0f * static_cast<float>(M_PI) * 60.0f * t);
+                    const float sample =
+                            1000.0f * noise + 3000.0f * hum + (spike ? -12000.0f : 0.0f) + 500.0f * channel;
+                    return static_cast<short>(std::max(-32768.0f, std::min(32767.0f, sample)));
+                }
+
+                int maxEventCount;
+                int64_t position = 0;
+                int64_t eventDistance;
+                uint32_t seed = 42;
+            };
+        }
+
+        float EnvelopeBenchmark::nanosPerFrame(float sampleRate, int channelCount, int windowFrameCount,
+                                               int drawSurfaceWidth, int drawnFrameCount, int mode) {
+            if (channelCount <= 0 || windowFrameCount <= 0 || drawSurfaceWidth <= 0 || drawnFrameCount <= 0) {
+                return 0.0f;
+            }
+
+            LiveSignal signal(sampleRate, channelCount, windowFrameCount, EVENTS_PER_SECOND, MAX_EVENT_COUNT);
+            signal.append(windowFrameCount);
+            const int appendedFrameCount = std::max(1, static_cast<int>(sampleRate / FRAMES_PER_SECOND));
+
+            std::vector<std::vector<short>> legacySamples(static_cast<size_t>(channelCount),
+                                                          std::vector<short>(
+                                                                  static_cast<size_t>(drawSurfaceWidth) * 5));
+            std::vector<short *> legacySamplesPtrs(static_cast<size_t>(channelCount));
+            for (int i = 0; i < channelCount; i++) legacySamplesPtrs[i] = legacySamples[i].data();
+            std::vector<int> legacySampleCounts(static_cast<size_t>(channelCount));
+            std::vector<float> legacyEvents(MAX_EVENT_COUNT);
+            int legacyEventCount = 0;
+            SignalEnvelope envelope;
+            envelope.envelope(signal.samples.data(), channelCount, windowFrameCount, signal.events.data(),
+                              static_cast<int>(signal.events.size()), 0, windowFrameCount, drawSurfaceWidth, -1);
+
+            std::chrono::nanoseconds elapsed(0);
+            for (int f = 0; f < drawnFrameCount; f++) {
+                signal.append(appendedFrameCount);
+                const auto eventCount = static_cast<int>(signal.events.size());
+
+                // only enveloping is measured
+                const auto start = std::chrono::steady_clock::now();
+                switch (mode) {
+                    case MODE_LEGACY:
+                        legacyEnvelope(legacySamplesPtrs.data(), legacySampleCounts.data(), legacyEvents.data(),
+                                       legacyEventCount, signal.samples.data(), channelCount,
+                                       signal.events.data(), eventCount, 0, windowFrameCount, drawSurfaceWidth);
+                        break;
+                    default:
+                        envelope.envelope(signal.samples.data(), channelCount, windowFrameCount, signal.events.data(),
+                                          eventCount, 0, windowFrameCount, drawSurfaceWidth, appendedFrameCount);
+                        break;
+                }
+                elapsed += std::chrono::steady_clock::now() - start;
+            }
+
+            return static_cast<float>(elapsed.count()) / drawnFrameCount;
+        }
+
+        int EnvelopeBenchmark::mismatchCount(float sampleRate, int channelCount, int windowFrameCount,
+                                             int drawSurfaceWidth, int drawnFrameCount) {
+            if (channelCount <= 0 || windowFrameCount <= 0 || drawSurfaceWidth <= 0) return 0;
+
+            LiveSignal signal(sampleRate, channelCount, windowFrameCount, EVENTS_PER_SECOND, MAX_EVENT_COUNT);
+            signal.append(windowFrameCount);
+            const int appendedFrameCount = std::max(1, static_cast<int>(sampleRate / FRAMES_PER_SECOND));
+            // zoom levels from the whole window down to fewer samples than there are pixels
+            const int drawnSampleCounts[] = {windowFrameCount, windowFrameCount / 2, windowFrameCount / 3 + 7,
+                                             drawSurfaceWidth * 2 + 1, drawSurfaceWidth, drawSurfaceWidth / 2};
+
+            std::vector<std::vector<short>> legacySamples(static_cast<size_t>(channelCount),
+                                                          std::vector<short>(
+                                                                  static_cast<size_t>(drawSurfaceWidth) * 5));
+            std::vector<short *> legacySamplesPtrs(static_cast<size_t>(channelCount));
+            for (int i = 0; i < channelCount; i++) legacySamplesPtrs[i] = legacySamples[i].data();
+            std::vector<int> legacySampleCounts(static_cast<size_t>(channelCount));
+            std::vector<float> legacyEvents(MAX_EVENT_COUNT);
+            int legacyEventCount = 0;
+            SignalEnvelope envelope;
+
+            int mismatches = 0;
+            int appended = -1;
+            for (int f = 0; f < drawnFrameCount; f++) {
+                const int drawnSampleCount = std::min(windowFrameCount, std::max(1, drawnSampleCounts[f / 50 % 6]));
+                const int fromSample = windowFrameCount - drawnSampleCount;
+                const auto eventCount = static_cast<int>(signal.events.size());
+
+                envelope.envelope(signal.samples.data(), channelCount, windowFrameCount, signal.events.data(),
+                                  eventCount, fromSample, windowFrameCount, drawSurfaceWidth, appended);
+                legacyEnvelope(legacySamplesPtrs.data(), legacySampleCounts.data(), legacyEvents.data(),
+                               legacyEventCount, signal.samples.data(), channelCount, signal.events.data(),
+                               eventCount, fromSample, windowFrameCount, drawSurfaceWidth);
+
+                bool mismatch = false;
+                for (int i = 0; i < channelCount; i++) {
+                    mismatch |= legacySampleCounts[i] != envelope.getSampleCount() ||
+                                !std::equal(legacySamples[i].begin(), legacySamples[i].begin() + legacySampleCounts[i],
+                                            envelope.getSamples(i));
+                }
+                // legacy envelope lets events that fall after the last bucket of the first channel leak into the
+                // second channel and overwrite already enveloped events, so events are compared with the first
+                // channel enveloped alone
+                legacyEnvelope(legacySamplesPtrs.data(), legacySampleCounts.data(), legacyEvents.data(),
+                               legacyEventCount, signal.samples.data(), 1, signal.events.data(), eventCount,
+                               fromSample, windowFrameCount, drawSurfaceWidth);
+                mismatch |= legacyEventCount != envelope.getEventCount() ||
+                            !std::equal(legacyEvents.begin(), legacyEvents.begin() + legacyEventCount,
+                                        envelope.getEventIndices());
+                if (mismatch) mismatches++;
+
+                // scroll, pause, skip more than the whole window and restart the signal every once in a while
+                if (f % 211 == 100) {
+                    signal.append(windowFrameCount);
+                    appended = -1;
+                } else if (f % 97 == 13) {
+                    appended = 0;
+                } else if (f % 301 == 150) {
+                    appended = windowFrameCount + 5;
+                    signal.append(appended);
+                } else {
+                    appended = appendedFrameCount + f % 7;
+                    signal.append(appended);
+                }
+            }
+
+            return mismatches;
+        }
+
+        void EnvelopeBenchmark::legacyEnvelope(short **outSamples, int *outSampleCount, float *outEventIndices,
+                                               int &outEventIndicesCount, short **inSamples, int channelCount,
+                                               const int *inEventIndices, int inEventIndicesCount, int fromSample,
+                                               int toSample, int drawSurfaceWidth) {
+            int drawSamplesCount = toSample - fromSample;
+            if (drawSamplesCount < drawSurfaceWidth) drawSurfaceWidth = drawSamplesCount;
+
+            short sample;
+            short min = SHRT_MAX, max = SHRT_MIN;
+            int samplesPerPixel = drawSamplesCount / drawSurfaceWidth;
+            int samplesPerPixelRest = drawSamplesCount % drawSurfaceWidth;
+            int samplesPerEnvelope = samplesPerPixel * 2; // multiply by 2 because we save min and max
+            int envelopeCounter = 0, sampleIndex = 0, eventCounter = 0, eventIndex = 0;
+            bool eventsProcessed = false;
+
+            int from = fromSample;
+            int to = fromSample + drawSamplesCount;
+            for (int i = 0; i < channelCount; i++) {
+                for (int j = from; j < to; j++) {
+                    sample = inSamples[i][j];
+                    if (!eventsProcessed) {
+                        for (int k = 0; k < inEventIndicesCount; k++) {
+                            if (j == inEventIndices[k]) {
+                                eventCounter++;
+                            } else {
+                                if (j < inEventIndices[k]) break;
+                            }
+                        }
+                    }
+
+                    if (samplesPerPixel == 1 && samplesPerPixelRest == 0) {
+                        if (eventCounter > 0) {
+                            for (int k = 0; k < eventCounter; k++) {
+                                outEventIndices[eventIndex++] = sampleIndex;
+                            }
+                        }
+                        outSamples[i][sampleIndex++] = sample;
+
+                        eventCounter = 0;
+                    } else {
+                        if (sample > max) max = sample;
+                        if (sample < min) min = sample;
+                        if (envelopeCounter == samplesPerEnvelope) {
+                            if (eventCounter > 0) {
+                                for (int k = 0; k < eventCounter; k++) {
+                                    outEventIndices[eventIndex++] = sampleIndex;
+                                }
+                            }
+                            outSamples[i][sampleIndex++] = max;
+                            outSamples[i][sampleIndex++] = min;
+
+                            envelopeCounter = 0;
+                            min = SHRT_MAX;
+                            max = SHRT_MIN;
+                            eventCounter = 0;
+                        }
+
+                        envelopeCounter++;
+                    }
+                }
+
+                outSampleCount[i] = sampleIndex;
+                if (!eventsProcessed) outEventIndicesCount = eventIndex;
+
+                eventsProcessed = true;
+                sampleIndex = 0;
+                eventIndex = 0;
+                envelopeCounter = 0;
+                min = SHRT_MAX;
+                max = SHRT_MIN;
+            }
+        }
+    }
+}
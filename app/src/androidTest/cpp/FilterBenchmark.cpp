@@ -0,0 +1,150 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "FilterBenchmark.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cmath>
+#include <cstdlib>
+#include <memory>
+#include <vector>
+
+#include "FilterCascade.h"
+#include "HighPassFilter.h"
+#include "LowPassFilter.h"
+#include "NotchFilter.h"
+#include "WorkerPool.h"
+
+namespace backyardbrains {
+
+    namespace filters {
+
+        // Separate filters of a single channel
+        struct SeparateFilters {
+            LowPassFilter lowPass;
+            HighPassFilter highPass;
+            NotchFilter notch;
+        };
+
+        static void initFilters(SeparateFilters &filters, float sampleRate, float lowCutOff, float highCutOff,
+                                float centerFrequency) {
+            filters.lowPass.initWithSamplingRate(sampleRate);
+            filters.lowPass.setCornerFrequency(std::min(highCutOff, sampleRate / 2.0f));
+            filters.lowPass.setQ(0.5f);
+            filters.highPass.initWithSamplingRate(sampleRate);
+            filters.highPass.setCornerFrequency(lowCutOff);
+            filters.highPass.setQ(0.5f);
+            filters.notch.initWithSamplingRate(sampleRate);
+            filters.notch.setCenterFrequency(centerFrequency);
+            filters.notch.setQ(1.0);
+        }
+
+        static void initCascade(FilterCascade &cascade, const SeparateFilters &filters, int channelCount) {
+            float coefficients[3][5];
+            std::copy(filters.lowPass.getCoefficients(), filters.lowPass.getCoefficients() + 5, coefficients[0]);
+            std::copy(filters.highPass.getCoefficients(), filters.highPass.getCoefficients() + 5, coefficients[1]);
+            std::copy(filters.notch.getCoefficients(), filters.notch.getCoefficients() + 5, coefficients[2]);
+            cascade.setChannelCount(channelCount);
+            cascade.setSections(coefficients, 3);
+        }
+
+        float FilterBenchmark::nanosPerSample(float sampleRate, int channelCount, int frameCount, int batchCount,
+                                              int mode) {
+            if (channelCount <= 0 || frameCount <= 0 || batchCount <= 0) return 0.0f;
+
+            std::vector<SeparateFilters> separateFilters(static_cast<size_t>(channelCount));
+            for (auto &filters : separateFilters) {
+                initFilters(filters, sampleRate, LOW_CUT_OFF, HIGH_CUT_OFF, NOTCH_CENTER_FREQUENCY);
+            }
+            FilterCascade cascade;
+            initCascade(cascade, separateFilters[0], channelCount);
+            std::unique_ptr<backyardbrains::utils::WorkerPool> pool;
+            if (mode == MODE_FUSED_PARALLEL) pool.reset(new backyardbrains::utils::WorkerPool());
+
+            std::vector<std::vector<int16_t>> buffers(static_cast<size_t>(channelCount),
+                                                      std::vector<int16_t>(static_cast<size_t>(frameCount)));
+            std::vector<int16_t *> data(static_cast<size_t>(channelCount));
+            std::vector<int32_t> sampleCounts(static_cast<size_t>(channelCount), frameCount);
+            for (int i = 0; i < channelCount; i++) data[i] = buffers[i].data();
+
+            uint32_t seed = 42;
+            std::chrono::nanoseconds elapsed(0);
+            for (int b = 0; b < batchCount; b++) {
+                for (int i = 0; i < channelCount; i++) {
+                    createSignal(data[i], frameCount, i, static_cast<int64_t>(b) * frameCount, sampleRate, seed);
+                }
+
+                // only filtering is measured
+                const auto start = std::chrono::steady_clock::now();
+                switch (mode) {
+                    case MODE_SEPARATE:
+                        for (int i = 0; i < channelCount; i++) {
+                            separateFilters[i].lowPass.filter(data[i], frameCount);
+                            separateFilters[i].highPass.filter(data[i], frameCount);
+                            separateFilters[i].notch.filter(data[i], frameCount);
+                        }
+                        break;
+                    default:
+                        cascade.filter(data.data(), sampleCounts.data(), channelCount, pool.get());
+                        break;
+                }
+                elapsed += std::chrono::steady_clock::now() - start;
+            }
+
+            return static_cast<float>(elapsed.count()) / (static_cast<float>(batchCount) * frameCount * channelCount);
+        }
+
+        int FilterBenchmark::maxDeviation(float sampleRate, int channelCount, int frameCount, int batchCount) {
+            if (channelCount <= 0 || frameCount <= 0 || batchCount <= 0) return 0;
+
+            std::vector<SeparateFilters> separateFilters(static_cast<size_t>(channelCount));
+            for (auto &filters : separateFilters) {
+                initFilters(filters, sampleRate, LOW_CUT_OFF, HIGH_CUT_OFF, NOTCH_CENTER_FREQUENCY);
+            }
+            FilterCascade cascade;
+            initCascade(cascade, separateFilters[0], channelCount);
+
+            const auto length = static_cast<size_t>(batchCount) * frameCount;
+            std::vector<int16_t> separate(length);
+            std::vector<int16_t> fused(length);
+            int deviation = 0;
+            for (int i = 0; i < channelCount; i++) {
+                uint32_t seed = 42 + static_cast<uint32_t>(i);
+                for (int b = 0; b < batchCount; b++) {
+                    int16_t *separateBatch = &separate[static_cast<size_t>(b) * frameCount];
+                    int16_t *fusedBatch = &fused[static_cast<size_t>(b) * frameCount];
+                    createSignal(separateBatch, frameCount, i, static_cast<int64_t>(b) * frameCount, sampleRate, seed);
+                    std::copy(separateBatch, separateBatch + frameCount, fusedBatch);
+
+                    separateFilters[i].lowPass.filter(separateBatch, frameCount);
+                    separateFilters[i].highPass.filter(separateBatch, frameCount);
+                    separateFilters[i].notch.filter(separateBatch, frameCount);
+                    cascade.filter(i, fusedBatch, frameCount);
+                }
+
+                // separate filters delay the signal for two samples each
+                for (size_t j = 0; j + SEPARATE_FILTERS_DELAY < length; j++) {
+                    deviation = std::max(deviation, std::abs(separate[j + SEPARATE_FILTERS_DELAY] - fused[j]));
+                }
+            }
+
+            return deviation;
+        }
+
+        void FilterBenchmark::createSignal(int16_t *data, int32_t sampleCount, int channel, int64_t start,
+                                           float sampleRate, uint32_t &seed) {
+            // spikes and 60 Hz line noise on top of white noise, with different offset for every channel
+            for (int32_t i = 0; i < sampleCount; i++) {
+                seed = seed * 1664525u + 1013904223u;
+                const float noise = static_cast<float>(static_cast<int32_t>(seed >> 16) - 32768) / 32768.0f;
+                const auto t = static_cast<float>((start + i) / static_cast<double>(sampleRate));
+                const bool spike = (start + i + channel * 97) % 1000 < 10;
+                const float sample = 1000.0f * noise + 3000.0f * std::sin(2.0f * static_cast<float>(M_PI) * 60.0f * t)
+                                     + (spike ? -12000.0f : 0.0f) + 500.0f * channel;
+                data[i] = static_cast<int16_t>(std::max(-32768.0f, std::min(32767.0f, sample)));
+            }
+        }
+    }
+}
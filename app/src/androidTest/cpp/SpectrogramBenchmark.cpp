@@ -0,0 +1,57 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "SpectrogramBenchmark.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cmath>
+#include <vector>
+
+#include "StreamingSpectrogram.h"
+
+namespace backyardbrains {
+
+    namespace processing {
+
+        float SpectrogramBenchmark::columnsPerSecond(float sampleRate, int decimation, int windowSampleCount,
+                                                     int hopSampleCount, int windowFunction, int fftBinCount,
+                                                     int binCount, int columnCount, float seconds) {
+            const int batchSampleCount = std::max(1, static_cast<int>(sampleRate * BATCH_TIME));
+            const int batchCount = std::max(1, static_cast<int>(seconds / BATCH_TIME));
+
+            // tone sweeping through the whole band on top of some noise
+            std::vector<short> samples(static_cast<size_t>(batchSampleCount) * batchCount);
+            const double nyquist = sampleRate * .5;
+            double phase = 0;
+            unsigned int noise = 1;
+            for (size_t i = 0; i < samples.size(); i++) {
+                phase += 2.0 * M_PI * nyquist * i / samples.size() / sampleRate;
+                noise = noise * 1664525u + 1013904223u;
+                samples[i] = static_cast<short>(8000.0 * sin(phase) + static_cast<int>(noise >> 20u) - 2048);
+            }
+
+            StreamingSpectrogram spectrogram;
+            spectrogram.configure(decimation, windowSampleCount, hopSampleCount, windowFunction, fftBinCount,
+                                  binCount);
+            std::vector<std::vector<float>> columns(static_cast<size_t>(columnCount));
+            std::vector<float *> outColumns(static_cast<size_t>(columnCount));
+            for (int i = 0; i < columnCount; i++) {
+                columns[i].resize(static_cast<size_t>(spectrogram.getBinCount()));
+                outColumns[i] = columns[i].data();
+            }
+
+            long long total = 0;
+            const auto start = std::chrono::steady_clock::now();
+            for (int i = 0; i < batchCount; i++) {
+                total += spectrogram.process(outColumns.data(), columnCount,
+                                             samples.data() + static_cast<size_t>(i) * batchSampleCount,
+                                             batchSampleCount);
+            }
+            const auto elapsed = std::chrono::duration<double>(std::chrono::steady_clock::now() - start).count();
+
+            return elapsed > 0 ? static_cast<float>(total / elapsed) : 0.0f;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <jni.h>
+
+#include "FilterBenchmark.h"
+#include "EnvelopeBenchmark.h"
+#include "SpectrogramBenchmark.h"
+
+extern "C" {
+JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_NativeBenchmarks_benchmarkFilters(JNIEnv *env, jclass type, jfloat sampleRate,
+                                                                jint channelCount, jint frameCount, jint batchCount,
+                                                                jint mode);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_NativeBenchmarks_compareFilters(JNIEnv *env, jclass type, jfloat sampleRate,
+                                                              jint channelCount, jint frameCount, jint batchCount);
+JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_NativeBenchmarks_benchmarkEnvelope(JNIEnv *env, jclass type, jfloat sampleRate,
+                                                                 jint channelCount, jint windowFrameCount,
+                                                                 jint drawSurfaceWidth, jint drawnFrameCount,
+                                                                 jint mode);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_NativeBenchmarks_compareEnvelopes(JNIEnv *env, jclass type, jfloat sampleRate,
+                                                                jint channelCount, jint windowFrameCount,
+                                                                jint drawSurfaceWidth, jint drawnFrameCount);
+JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_NativeBenchmarks_benchmarkSpectrogram(JNIEnv *env, jclass type, jfloat sampleRate,
+                                                                    jint decimation, jint windowSampleCount,
+                                                                    jint hopSampleCount, jint windowFunction,
+                                                                    jint fftBinCount, jint binCount, jint columnCount,
+                                                                    jfloat seconds);
+}
+
+extern "C" JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_NativeBenchmarks_benchmarkFilters(JNIEnv *env, jclass type, jfloat sampleRate,
+                                                                jint channelCount, jint frameCount, jint batchCount,
+                                                                jint mode) {
+    return backyardbrains::filters::FilterBenchmark::nanosPerSample(sampleRate, channelCount, frameCount, batchCount,
+                                                                    mode);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_NativeBenchmarks_compareFilters(JNIEnv *env, jclass type, jfloat sampleRate,
+                                                              jint channelCount, jint frameCount, jint batchCount) {
+    return backyardbrains::filters::FilterBenchmark::maxDeviation(sampleRate, channelCount, frameCount, batchCount);
+}
+
+extern "C" JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_NativeBenchmarks_benchmarkEnvelope(JNIEnv *env, jclass type, jfloat sampleRate,
+                                                                 jint channelCount, jint windowFrameCount,
+                                                                 jint drawSurfaceWidth, jint drawnFrameCount,
+                                                                 jint mode) {
+    return backyardbrains::utils::EnvelopeBenchmark::nanosPerFrame(sampleRate, channelCount, windowFrameCount,
+                                                                   drawSurfaceWidth, drawnFrameCount, mode);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_NativeBenchmarks_compareEnvelopes(JNIEnv *env, jclass type, jfloat sampleRate,
+                                                                jint channelCount, jint windowFrameCount,
+                                                                jint drawSurfaceWidth, jint drawnFrameCount) {
+    return backyardbrains::utils::EnvelopeBenchmark::mismatchCount(sampleRate, channelCount, windowFrameCount,
+                                                                   drawSurfaceWidth, drawnFrameCount);
+}
+
+extern "C" JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_NativeBenchmarks_benchmarkSpectrogram(JNIEnv *env, jclass type, jfloat sampleRate,
+                                                                    jint decimation, jint windowSampleCount,
+                                                                    jint hopSampleCount, jint windowFunction,
+                                                                    jint fftBinCount, jint binCount, jint columnCount,
+                                                                    jfloat seconds) {
+    return backyardbrains::processing::SpectrogramBenchmark::columnsPerSecond(sampleRate, decimation,
+                                                                             windowSampleCount, hopSampleCount,
+                                                                             windowFunction, fftBinCount, binCount,
+                                                                             columnCount, seconds);
+}
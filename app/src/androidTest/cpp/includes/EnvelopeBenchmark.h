@@ -0,0 +1,57 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_ENVELOPEBENCHMARK_H
+#define SPIKE_RECORDER_ANDROID_ENVELOPEBENCHMARK_H
+
+#include <cstdint>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        /**
+         * Compares enveloping of the live signal with {@link SignalEnvelope} to enveloping it the way it was done
+         * before, by going through all the samples and all the events with every drawn frame. Signal is scrolled in
+         * the way it's scrolled while drawing live signal at 60 frames per second, with an event every 250 ms.
+         */
+        class EnvelopeBenchmark {
+        public:
+            // Every frame is enveloped from scratch, the way it was done before SignalEnvelope
+            static constexpr int MODE_LEGACY = 0;
+            // Frames are enveloped by SignalEnvelope
+            static constexpr int MODE_INCREMENTAL = 1;
+
+            /**
+             * Draws {@code drawnFrameCount} frames of {@code windowFrameCount} frames of synthetic signal with
+             * {@code channelCount} channels sampled at {@code sampleRate} to the surface {@code drawSurfaceWidth}
+             * pixels wide using specified {@code mode} and returns average number of nanoseconds spent enveloping a
+             * single frame.
+             */
+            static float nanosPerFrame(float sampleRate, int channelCount, int windowFrameCount, int drawSurfaceWidth,
+                                       int drawnFrameCount, int mode);
+
+            /**
+             * Draws the same synthetic signal as {@link #nanosPerFrame(float, int, int, int, int, int)} with both
+             * modes, occasionally zooming, pausing and restarting the signal, and returns number of drawn frames which
+             * envelopes differ.
+             */
+            static int mismatchCount(float sampleRate, int channelCount, int windowFrameCount, int drawSurfaceWidth,
+                                     int drawnFrameCount);
+
+        private:
+            static constexpr int FRAMES_PER_SECOND = 60;
+            static constexpr float EVENTS_PER_SECOND = 4.0f;
+            static constexpr int MAX_EVENT_COUNT = 100;
+
+            // Envelopes the signal the way DrawingUtils used to envelope it before SignalEnvelope
+            static void legacyEnvelope(short **outSamples, int *outSampleCount, float *outEventIndices,
+                                       int &outEventIndicesCount, short **inSamples, int channelCount,
+                                       const int *inEventIndices, int inEventIndicesCount, int fromSample,
+                                       int toSample, int drawSurfaceWidth);
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_ENVELOPEBENCHMARK_H
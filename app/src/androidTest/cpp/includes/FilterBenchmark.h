@@ -0,0 +1,57 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_FILTERBENCHMARK_H
+#define SPIKE_RECORDER_ANDROID_FILTERBENCHMARK_H
+
+#include <cstddef>
+#include <cstdint>
+
+namespace backyardbrains {
+
+    namespace filters {
+
+        /**
+         * Compares filtering with the separate low pass, high pass and notch filters to filtering with the fused
+         * cascade of the same filters. Filters are set up the way they are set up for the EMG signal: 70 Hz high pass,
+         * 2500 Hz low pass and 60 Hz notch.
+         */
+        class FilterBenchmark {
+        public:
+            // Every filter filters the samples separately, the way it was done before the cascade
+            static constexpr int MODE_SEPARATE = 0;
+            // All filters are fused into a single cascade
+            static constexpr int MODE_FUSED = 1;
+            // All filters are fused into a single cascade and channels are filtered in parallel
+            static constexpr int MODE_FUSED_PARALLEL = 2;
+
+            /**
+             * Filters {@code batchCount} batches of {@code frameCount} frames of synthetic signal with
+             * {@code channelCount} channels sampled at {@code sampleRate} using specified {@code mode} and returns
+             * average number of nanoseconds spent per sample.
+             */
+            static float nanosPerSample(float sampleRate, int channelCount, int frameCount, int batchCount, int mode);
+
+            /**
+             * Filters the same synthetic signal with separate filters and with the fused cascade and returns the
+             * largest difference between the filtered samples, once the delay of the separate filters is taken into
+             * account.
+             */
+            static int maxDeviation(float sampleRate, int channelCount, int frameCount, int batchCount);
+
+        private:
+            static constexpr float LOW_CUT_OFF = 70.0f;
+            static constexpr float HIGH_CUT_OFF = 2500.0f;
+            static constexpr float NOTCH_CENTER_FREQUENCY = 60.0f;
+            // FilterBase::filter returns output delayed for two samples so three separate filters delay it for six
+            static constexpr size_t SEPARATE_FILTERS_DELAY = 6;
+
+            // Fills specified buffer with the next batch of synthetic signal
+            static void createSignal(int16_t *data, int32_t sampleCount, int channel, int64_t start, float sampleRate,
+                                     uint32_t &seed);
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_FILTERBENCHMARK_H
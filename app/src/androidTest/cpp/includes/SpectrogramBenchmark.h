@@ -0,0 +1,33 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_SPECTROGRAMBENCHMARK_H
+#define SPIKE_RECORDER_ANDROID_SPECTROGRAMBENCHMARK_H
+
+namespace backyardbrains {
+
+    namespace processing {
+
+        /**
+         * Measures throughput of {@link StreamingSpectrogram} by streaming synthetic signal through it in 10 ms
+         * batches, the way live signal is passed to it by the processing thread.
+         */
+        class SpectrogramBenchmark {
+        public:
+            /**
+             * Streams {@code seconds} of synthetic signal sampled at {@code sampleRate} through the spectrogram with
+             * specified layout, keeping the last {@code columnCount} columns, and returns number of columns computed
+             * per second of processing time.
+             */
+            static float columnsPerSecond(float sampleRate, int decimation, int windowSampleCount, int hopSampleCount,
+                                          int windowFunction, int fftBinCount, int binCount, int columnCount,
+                                          float seconds);
+
+        private:
+            static constexpr float BATCH_TIME = .01f;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_SPECTROGRAMBENCHMARK_H
@@ -0,0 +1,97 @@
+package com.backyardbrains.analysis;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.backyardbrains.utils.JniUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Instrumented benchmark for the Average Spike analysis. Compares reading samples around every spike by seeking to it
+ * with reading the whole file in a single sequential pass, for 10 000 and 100 000 spikes randomly spread over 4 trains
+ * of a 10 minute long, 2 channel, 10 kHz recording, and verifies that both produce the same averages.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class AverageSpikeBenchmark {
+
+    private static final String TAG = "AverageSpikeBenchmark";
+
+    private static final int SAMPLE_RATE = 10000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int FRAME_COUNT = 10 * 60 * SAMPLE_RATE;
+    private static final int TRAIN_COUNT = 4;
+    private static final int BATCH_SPIKE_COUNT = 2 * (int) (SAMPLE_RATE * .002f) + 1;
+
+    @Test public void averageSpike10k() throws IOException {
+        benchmark(10000);
+    }
+
+    @Test public void averageSpike100k() throws IOException {
+        benchmark(100000);
+    }
+
+    private void benchmark(int spikeCount) throws IOException {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final File file = new File(context.getCacheDir(), "average_spike_benchmark.wav");
+        try {
+            SyntheticWav.write(file, SAMPLE_RATE, CHANNEL_COUNT, FRAME_COUNT, 42);
+
+            final int[][] trains = createTrains(spikeCount);
+            final int[] channels = new int[TRAIN_COUNT];
+            for (int i = 0; i < TRAIN_COUNT; i++) channels[i] = i % CHANNEL_COUNT;
+
+            final float[][][] bySeeking = run(file, trains, channels, spikeCount, false);
+            final float[][][] sequentially = run(file, trains, channels, spikeCount, true);
+            for (int i = 0; i < bySeeking.length; i++) {
+                for (int j = 0; j < TRAIN_COUNT; j++) {
+                    assertArrayEquals("Result " + i + ", train " + j, bySeeking[i][j], sequentially[i][j], 1e-4f);
+                }
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    // Creates sorted spike trains with specified total number of spikes, including spikes at the very edges of the file
+    private static int[][] createTrains(int spikeCount) {
+        final Random random = new Random(spikeCount);
+        final int[][] trains = new int[TRAIN_COUNT][spikeCount / TRAIN_COUNT];
+        for (int[] train : trains) {
+            for (int i = 0; i < train.length; i++) train[i] = random.nextInt(FRAME_COUNT);
+            train[0] = 0;
+            train[train.length - 1] = FRAME_COUNT - 1;
+            Arrays.sort(train);
+        }
+        return trains;
+    }
+
+    // Runs the analysis over the specified file, logs the duration and returns all four results
+    private static float[][][] run(File file, int[][] trains, int[] channels, int spikeCount, boolean sequential) {
+        final int[] spikeCounts = new int[TRAIN_COUNT];
+        for (int i = 0; i < TRAIN_COUNT; i++) spikeCounts[i] = trains[i].length;
+        final float[][][] result = new float[4][TRAIN_COUNT][BATCH_SPIKE_COUNT];
+
+        final long start = SystemClock.elapsedRealtime();
+        JniUtils.averageSpikeAnalysis(file.getAbsolutePath(), trains, TRAIN_COUNT, spikeCounts, channels, result[0],
+            result[1], result[2], result[3], BATCH_SPIKE_COUNT, sequential, 0);
+        final long duration = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, String.format(Locale.US, "%d spikes, %s: %d ms", spikeCount,
+            sequential ? "sequential" : "seeking", duration));
+
+        return result;
+    }
+}
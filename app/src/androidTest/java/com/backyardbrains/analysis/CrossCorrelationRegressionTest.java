@@ -0,0 +1,110 @@
+package com.backyardbrains.analysis;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.backyardbrains.utils.JniUtils;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented test which verifies that native cross-correlation analysis produces exactly the same histograms as the
+ * original nested loop implementation, which is kept here as reference. Spike trains are random, sorted, contain
+ * duplicate spike times and include trains with too few spikes to be analysed.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class CrossCorrelationRegressionTest {
+
+    private static final float MAX_TIME = 0.1f;
+    private static final float BIN_SIZE = 0.001f;
+    private static final float MIN_EDGE = -MAX_TIME - BIN_SIZE * 0.5f;
+    private static final float MAX_EDGE = MAX_TIME + BIN_SIZE * 0.5f;
+    private static final float DIVIDER = 1 / BIN_SIZE;
+    private static final int BIN_COUNT = (int) Math.ceil((2 * MAX_TIME + BIN_SIZE) / BIN_SIZE);
+
+    @Test public void matchesReferenceForFewTrains() {
+        verify(2, 2000, 1);
+    }
+
+    @Test public void matchesReferenceForManyTrains() {
+        verify(8, 5000, 2);
+    }
+
+    @Test public void matchesReferenceWithEmptyAndSingleSpikeTrains() {
+        final float[][] trains = createTrains(4, 1000, 3);
+        trains[1] = new float[0];
+        trains[2] = new float[] { 1f };
+        verify(trains);
+    }
+
+    private void verify(int trainCount, int spikeCount, long seed) {
+        verify(createTrains(trainCount, spikeCount, seed));
+    }
+
+    private void verify(float[][] trains) {
+        final int[] spikeCounts = new int[trains.length];
+        for (int i = 0; i < trains.length; i++) spikeCounts[i] = trains[i].length;
+
+        final int[][] expected = reference(trains, spikeCounts);
+        final int[][] actual = new int[trains.length * trains.length][BIN_COUNT];
+        JniUtils.crossCorrelationAnalysis(trains, trains.length, spikeCounts, actual, actual.length, BIN_COUNT);
+
+        long total = 0;
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals("Pair " + i, expected[i], actual[i]);
+            for (int count : expected[i]) total += count;
+        }
+        assertTrue(total > 0);
+    }
+
+    // Creates sorted spike trains with firing rates between 20 and 100 Hz, with every 13th spike duplicated
+    private static float[][] createTrains(int trainCount, int spikeCount, long seed) {
+        final Random random = new Random(seed);
+        final float[][] trains = new float[trainCount][spikeCount];
+        for (int i = 0; i < trainCount; i++) {
+            final double rate = 20 + random.nextInt(80);
+            double time = 0;
+            for (int k = 0; k < spikeCount; k++) {
+                if (k > 0 && k % 13 == 0) {
+                    trains[i][k] = trains[i][k - 1];
+                    continue;
+                }
+                time += -Math.log(1 - random.nextDouble()) / rate;
+                trains[i][k] = (int) (time * 44100) / 44100f;
+            }
+        }
+        return trains;
+    }
+
+    // Original implementation of the native cross-correlation analysis
+    private static int[][] reference(float[][] trains, int[] spikeCounts) {
+        final int trainCount = trains.length;
+        final int[][] result = new int[trainCount * trainCount][BIN_COUNT];
+        float diff;
+        for (int i = 0; i < trainCount; i++) {
+            for (int j = 0; j < trainCount; j++) {
+                final int[] histogram = result[i * trainCount + j];
+                if (spikeCounts[i] > 1 && spikeCounts[j] > 1) {
+                    boolean insideInterval;
+                    for (int k = 0; k < spikeCounts[i]; k++) {
+                        insideInterval = false;
+                        for (int l = 0; l < spikeCounts[j]; l++) {
+                            diff = trains[i][k] - trains[j][l];
+                            if (diff > MIN_EDGE && diff < MAX_EDGE) {
+                                insideInterval = true;
+                                histogram[(int) (((diff - MIN_EDGE) * DIVIDER))]++;
+                            } else if (insideInterval) {
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,161 @@
+package com.backyardbrains.analysis;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.backyardbrains.utils.JniUtils;
+import com.backyardbrains.utils.WavUtils;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented test for the Event Triggered Average analysis. Averages around 600 events of three types spread over a
+ * 5 minute long, 4 channel, 10 kHz recording are compared with averages computed here by reading every interval on
+ * its own, and confidence intervals are checked to surround their mean. Durations of the analysis are logged.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class EventTriggeredAverageTest {
+
+    private static final String TAG = "EventTriggeredAverageTest";
+
+    private static final int SAMPLE_RATE = 10000;
+    private static final int CHANNEL_COUNT = 4;
+    private static final int FRAME_COUNT = 5 * 60 * SAMPLE_RATE;
+    private static final String[] EVENTS = { "1", "2", "3" };
+    private static final int EVENT_COUNT = 600;
+    private static final int LEFT_OFFSET_SAMPLE_COUNT = (int) (SAMPLE_RATE * CHANNEL_COUNT * .7f);
+    private static final int RIGHT_OFFSET_SAMPLE_COUNT = (int) (SAMPLE_RATE * CHANNEL_COUNT * .7f);
+    private static final int INTERVAL_FRAME_COUNT =
+        (LEFT_OFFSET_SAMPLE_COUNT + RIGHT_OFFSET_SAMPLE_COUNT) / CHANNEL_COUNT;
+
+    private File file;
+    private File eventsFile;
+    private float[] eventTimes;
+    private String[] eventNames;
+
+    @Before public void setUp() throws IOException {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        file = new File(context.getCacheDir(), "event_triggered_average_test.wav");
+        eventsFile = new File(context.getCacheDir(), "event_triggered_average_test-events.txt");
+        SyntheticWav.write(file, SAMPLE_RATE, CHANNEL_COUNT, FRAME_COUNT, 7);
+
+        // events are written in the same format and with the same precision as the recorder writes them, including
+        // events too close to the edges of the file to be averaged
+        final Random random = new Random(EVENT_COUNT);
+        eventTimes = new float[EVENT_COUNT];
+        eventNames = new String[EVENT_COUNT];
+        try (Writer writer = new FileWriter(eventsFile)) {
+            writer.write("# Marker IDs can be arbitrary strings.\n# Marker ID,\tTime (in s)\n");
+            for (int i = 0; i < EVENT_COUNT; i++) {
+                final String time = String.format(Locale.US, "%.4f", (float) FRAME_COUNT * i / EVENT_COUNT / SAMPLE_RATE
+                    + random.nextFloat() * .4f);
+                eventTimes[i] = Float.parseFloat(time);
+                eventNames[i] = EVENTS[random.nextInt(EVENTS.length)];
+                writer.write(eventNames[i] + ",\t" + time + "\n");
+            }
+        }
+    }
+
+    @After public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        eventsFile.delete();
+    }
+
+    @Test public void averagesMatchReference() throws IOException {
+        final float[][][] averages = new float[EVENTS.length][CHANNEL_COUNT][INTERVAL_FRAME_COUNT];
+        run(averages, null);
+
+        final float[][][] expected = reference();
+        for (int i = 0; i < EVENTS.length; i++) {
+            for (int j = 0; j < CHANNEL_COUNT; j++) {
+                assertArrayEquals("Event " + EVENTS[i] + ", channel " + j, expected[i][j], averages[i][j], 1e-6f);
+            }
+        }
+    }
+
+    @Test public void confidenceIntervalsSurroundTheirMean() {
+        final float[][][] mc = run(new float[EVENTS.length][CHANNEL_COUNT][INTERVAL_FRAME_COUNT], EVENTS[1]);
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            for (int j = 0; j < INTERVAL_FRAME_COUNT; j++) {
+                assertTrue(mc[1][i][j] >= mc[0][i][j] && mc[0][i][j] >= mc[2][i][j]);
+                assertTrue(mc[1][i][j] <= 1f && mc[2][i][j] >= -1f);
+            }
+        }
+    }
+
+    // Runs the analysis, logs the duration and returns mean, top and bottom confidence intervals
+    private float[][][] run(float[][][] averages, String confidenceIntervalsEvent) {
+        final float[][][] normAverages = new float[EVENTS.length][CHANNEL_COUNT][INTERVAL_FRAME_COUNT];
+        final float[][][] mc = new float[3][CHANNEL_COUNT][INTERVAL_FRAME_COUNT];
+        final float[][] minMax = new float[CHANNEL_COUNT][2];
+
+        final long start = SystemClock.elapsedRealtime();
+        JniUtils.eventTriggeredAverageAnalysis(file.getAbsolutePath(), eventsFile.getAbsolutePath(), EVENTS,
+            EVENTS.length, averages, normAverages, mc[0], mc[1], mc[2], minMax, CHANNEL_COUNT, INTERVAL_FRAME_COUNT,
+            false, confidenceIntervalsEvent, 0);
+        final long duration = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, String.format(Locale.US, "%d events, confidence intervals %s: %d ms", EVENT_COUNT,
+            confidenceIntervalsEvent != null ? "on" : "off", duration));
+
+        return mc;
+    }
+
+    // Reads interval around every event on its own and averages intervals by event and channel
+    private float[][][] reference() throws IOException {
+        final int totalSamples = FRAME_COUNT * CHANNEL_COUNT;
+        final float[][][] sums = new float[EVENTS.length][CHANNEL_COUNT][INTERVAL_FRAME_COUNT];
+        final int[] counts = new int[EVENTS.length];
+        final byte[] bytes = new byte[INTERVAL_FRAME_COUNT * CHANNEL_COUNT * 2];
+        final short[] samples = new short[INTERVAL_FRAME_COUNT * CHANNEL_COUNT];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int i = 0; i < EVENT_COUNT; i++) {
+                final long sampleIndex = (long) (eventTimes[i] * SAMPLE_RATE * CHANNEL_COUNT);
+                if (sampleIndex < LEFT_OFFSET_SAMPLE_COUNT || sampleIndex + RIGHT_OFFSET_SAMPLE_COUNT > totalSamples) {
+                    continue;
+                }
+
+                raf.seek(WavUtils.HEADER_SIZE + (sampleIndex - LEFT_OFFSET_SAMPLE_COUNT) * 2);
+                raf.readFully(bytes);
+                ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+
+                int event = 0;
+                while (!EVENTS[event].equals(eventNames[i])) event++;
+                for (int j = 0; j < CHANNEL_COUNT; j++) {
+                    for (int k = 0; k < INTERVAL_FRAME_COUNT; k++) {
+                        sums[event][j][k] += samples[k * CHANNEL_COUNT + j] / (float) Short.MAX_VALUE;
+                    }
+                }
+                counts[event]++;
+            }
+        }
+
+        for (int i = 0; i < EVENTS.length; i++) {
+            assertTrue(counts[i] > 0);
+            for (int j = 0; j < CHANNEL_COUNT; j++) {
+                for (int k = 0; k < INTERVAL_FRAME_COUNT; k++) sums[i][j][k] /= counts[i];
+            }
+        }
+        return sums;
+    }
+}
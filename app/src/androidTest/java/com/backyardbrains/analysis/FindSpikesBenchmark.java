@@ -0,0 +1,92 @@
+package com.backyardbrains.analysis;
+
+import android.content.Context;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.backyardbrains.utils.JniUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented benchmark for the streaming Find Spikes analysis. Runs serial two pass, serial single pass and parallel
+ * single pass analysis over synthetic 1, 10 and 60 minute long, 2 channel, 10 kHz recordings and reports number of
+ * spikes found per second and peak java and native heap while analysis was running. Native analysis can't be run on
+ * JVM so this needs to be run on the device.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class FindSpikesBenchmark {
+
+    private static final String TAG = "FindSpikesBenchmark";
+
+    private static final int SAMPLE_RATE = 10000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int SPIKE_BATCH_SIZE = 4096;
+
+    @Test public void findSpikes1Min() throws IOException {
+        benchmark(1);
+    }
+
+    @Test public void findSpikes10Min() throws IOException {
+        benchmark(10);
+    }
+
+    @Test public void findSpikes60Min() throws IOException {
+        benchmark(60);
+    }
+
+    private void benchmark(int minutes) throws IOException {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final File file = new File(context.getCacheDir(), "find_spikes_benchmark_" + minutes + ".wav");
+        try {
+            SyntheticWav.write(file, SAMPLE_RATE, CHANNEL_COUNT, minutes * 60 * SAMPLE_RATE, 42);
+
+            run(file, minutes, false, false);
+            run(file, minutes, true, false);
+            run(file, minutes, true, true);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    // Runs the analysis over the specified file and logs the results
+    private static void run(File file, int minutes, boolean singlePass, boolean parallel) {
+        final Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        final long javaHeapBefore = runtime.totalMemory() - runtime.freeMemory();
+        final long nativeHeapBefore = Debug.getNativeHeapAllocatedSize();
+        final long[] peaks = new long[] { javaHeapBefore, nativeHeapBefore };
+        final long[] spikeCount = new long[1];
+
+        final int[] channels = new int[SPIKE_BATCH_SIZE];
+        final short[] values = new short[SPIKE_BATCH_SIZE];
+        final int[] indices = new int[SPIKE_BATCH_SIZE];
+        final float[] times = new float[SPIKE_BATCH_SIZE];
+        final long start = SystemClock.elapsedRealtime();
+        JniUtils.findSpikes(file.getAbsolutePath(), singlePass, parallel, count -> {
+            spikeCount[0] += count;
+            peaks[0] = Math.max(peaks[0], runtime.totalMemory() - runtime.freeMemory());
+            peaks[1] = Math.max(peaks[1], Debug.getNativeHeapAllocatedSize());
+        }, channels, values, indices, times, 0);
+        final long duration = Math.max(SystemClock.elapsedRealtime() - start, 1);
+
+        Log.i(TAG, String.format(Locale.US,
+            "%d min, %s, %s: %d spikes in %d ms (%.0f spikes/s), peak java heap +%.2f MB, peak native heap +%.2f MB",
+            minutes, singlePass ? "single pass" : "two passes", parallel ? "parallel" : "serial", spikeCount[0],
+            duration, spikeCount[0] * 1000f / duration, (peaks[0] - javaHeapBefore) / 1048576f,
+            (peaks[1] - nativeHeapBefore) / 1048576f));
+
+        assertTrue(spikeCount[0] > 0);
+    }
+
+}
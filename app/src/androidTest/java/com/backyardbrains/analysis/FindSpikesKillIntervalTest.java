@@ -0,0 +1,116 @@
+package com.backyardbrains.analysis;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.backyardbrains.utils.JniUtils;
+import com.backyardbrains.utils.WavUtils;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumented test which pins the kill interval boundary of the Find Spikes analysis. Spike is killed only if its
+ * closest surviving neighbour on either side is strictly stronger and less than 5 ms away. Spikes of the same value
+ * both survive, and the last spike of the recording is reported and filtered like all the others.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class FindSpikesKillIntervalTest {
+
+    private static final int SAMPLE_RATE = 10000;
+    private static final int FRAME_COUNT = 10 * SAMPLE_RATE;
+    private static final int SPIKE_BATCH_SIZE = 100;
+
+    private static final short WEAK = 3000;
+    private static final short MEDIUM = 4000;
+    private static final short STRONG = 6000;
+
+    // Spike positions and values, 49 samples is 4.9 ms and 51 samples is 5.1 ms at 10 kHz
+    private static final int[] POSITIONS = {
+        30000, 30049, // weaker spike 4.9 ms before the stronger one is killed
+        40000, 40051, // weaker spike 5.1 ms before the stronger one survives
+        50000, 50020, // spikes of the same value both survive
+        60000, 60049, // weaker spike 4.9 ms after the stronger one is killed
+        70000, 70051, // weaker spike 5.1 ms after the stronger one survives
+        FRAME_COUNT - 300, FRAME_COUNT - 270 // last spike of the recording is reported
+    };
+    private static final short[] VALUES = {
+        WEAK, STRONG, WEAK, STRONG, MEDIUM, MEDIUM, STRONG, WEAK, STRONG, WEAK, WEAK, STRONG
+    };
+    private static final int[] EXPECTED = {
+        30049, 40000, 40051, 50000, 50020, 60000, 70000, 70051, FRAME_COUNT - 270
+    };
+
+    @Test public void spikesAreKilledOnlyByStrongerNeighboursWithinInterval() throws IOException {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final File file = new File(context.getCacheDir(), "find_spikes_kill_interval.wav");
+        try {
+            write(file);
+
+            for (boolean singlePass : new boolean[] { false, true }) {
+                for (boolean parallel : new boolean[] { false, true }) {
+                    assertEquals("singlePass=" + singlePass + ", parallel=" + parallel, toString(EXPECTED),
+                        toString(findPositiveSpikes(file, singlePass, parallel)));
+                }
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    // Writes silent mono recording with spikes at the specified positions, every spike is followed by a negative
+    // sample which resets the positive trigger
+    private static void write(File file) throws IOException {
+        final short[] samples = new short[FRAME_COUNT];
+        for (int i = 0; i < POSITIONS.length; i++) {
+            samples[POSITIONS[i]] = VALUES[i];
+            samples[POSITIONS[i] + 1] = -1;
+        }
+        final ByteBuffer data = ByteBuffer.allocate(FRAME_COUNT * 2).order(ByteOrder.LITTLE_ENDIAN);
+        data.asShortBuffer().put(samples);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            out.write(WavUtils.writeHeader(WavUtils.HEADER_SIZE + data.capacity(), SAMPLE_RATE, 1,
+                AudioFormat.ENCODING_PCM_16BIT));
+            out.write(data.array());
+        }
+    }
+
+    // Returns sorted indices of all the found positive spikes
+    private static int[] findPositiveSpikes(File file, boolean singlePass, boolean parallel) {
+        final int[] channels = new int[SPIKE_BATCH_SIZE];
+        final short[] values = new short[SPIKE_BATCH_SIZE];
+        final int[] indices = new int[SPIKE_BATCH_SIZE];
+        final float[] times = new float[SPIKE_BATCH_SIZE];
+        final List<Integer> spikes = new ArrayList<>();
+        JniUtils.findSpikes(file.getAbsolutePath(), singlePass, parallel, count -> {
+            for (int i = 0; i < count; i++) {
+                if (values[i] > 0) spikes.add(indices[i]);
+            }
+        }, channels, values, indices, times, 0);
+
+        final int[] result = new int[spikes.size()];
+        for (int i = 0; i < result.length; i++) result[i] = spikes.get(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // Compared as strings so the failure message lists all the spikes
+    private static String toString(int[] indices) {
+        return Arrays.toString(indices);
+    }
+}
@@ -0,0 +1,84 @@
+package com.backyardbrains.analysis;
+
+import android.content.Context;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.backyardbrains.utils.JniUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented test which verifies that parallel Find Spikes analysis finds exactly the same spikes as the serial one
+ * on synthetic multichannel recordings, both when thresholds are found in a separate pass and when they are estimated
+ * while looking for spikes.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class FindSpikesParallelTest {
+
+    private static final int SAMPLE_RATE = 10000;
+    // Small batches so sink is invoked a lot
+    private static final int SPIKE_BATCH_SIZE = 100;
+
+    @Test public void parallelMatchesSerialFor4Channels() throws IOException {
+        verify(4, 5 * 60 * SAMPLE_RATE);
+    }
+
+    @Test public void parallelMatchesSerialFor6Channels() throws IOException {
+        verify(6, 10 * 60 * SAMPLE_RATE);
+    }
+
+    @Test public void parallelMatchesSerialForShortFile() throws IOException {
+        verify(6, 2 * SAMPLE_RATE + 123);
+    }
+
+    private void verify(int channelCount, int frameCount) throws IOException {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        final File file = new File(context.getCacheDir(), "find_spikes_parallel_" + channelCount + ".wav");
+        try {
+            SyntheticWav.write(file, SAMPLE_RATE, channelCount, frameCount, channelCount);
+
+            for (boolean singlePass : new boolean[] { false, true }) {
+                final long[] serial = findSpikes(file, singlePass, false);
+                final long[] parallel = findSpikes(file, singlePass, true);
+
+                assertTrue(serial.length > 0);
+                assertArrayEquals(serial, parallel);
+            }
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    // Returns all the found spikes, each one encoded as channel, index and value, sorted
+    private static long[] findSpikes(File file, boolean singlePass, boolean parallel) {
+        final int[] channels = new int[SPIKE_BATCH_SIZE];
+        final short[] values = new short[SPIKE_BATCH_SIZE];
+        final int[] indices = new int[SPIKE_BATCH_SIZE];
+        final float[] times = new float[SPIKE_BATCH_SIZE];
+        final long[][] spikes = new long[][] { new long[1024] };
+        final int[] spikeCount = new int[1];
+        JniUtils.findSpikes(file.getAbsolutePath(), singlePass, parallel, count -> {
+            if (spikeCount[0] + count > spikes[0].length) {
+                spikes[0] = Arrays.copyOf(spikes[0], Math.max(spikes[0].length * 2, spikeCount[0] + count));
+            }
+            for (int i = 0; i < count; i++) {
+                assertTrue(Math.abs(times[i] - indices[i] / (float) SAMPLE_RATE) < 1e-4f);
+                spikes[0][spikeCount[0]++] =
+                    ((long) channels[i] << 48) | ((long) indices[i] << 16) | (values[i] & 0xffffL);
+            }
+        }, channels, values, indices, times, 0);
+
+        final long[] result = Arrays.copyOf(spikes[0], spikeCount[0]);
+        Arrays.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,60 @@
+package com.backyardbrains.analysis;
+
+import android.media.AudioFormat;
+import com.backyardbrains.utils.WavUtils;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Writes synthetic 16 bit WAV recordings used by the spike analysis tests and benchmarks. Every channel holds noise
+ * riding on a slow sine wave with spikes of random amplitude and polarity at random moments and with bursts of
+ * stronger signal, so spikes are found close to each other and kill interval is exercised as well.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class SyntheticWav {
+
+    private static final int NOISE_AMPLITUDE = 300;
+    private static final int WAVE_AMPLITUDE = 900;
+    private static final int MIN_SPIKE_AMPLITUDE = 3000;
+    private static final int MAX_SPIKE_AMPLITUDE = 8000;
+    // Average number of samples between two spikes of the first channel
+    private static final int SPIKE_INTERVAL = 180;
+    // Number of samples within a single burst
+    private static final int BURST_LENGTH = 2000;
+    private static final float BURST_GAIN = 2.5f;
+
+    /**
+     * Writes {@code frameCount} frames of synthetic {@code channelCount} channel signal to {@code file}.
+     */
+    static void write(File file, int sampleRate, int channelCount, int frameCount, long seed) throws IOException {
+        final Random random = new Random(seed);
+        final byte[] frame = new byte[channelCount * 2];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)) {
+            out.write(WavUtils.writeHeader(WavUtils.HEADER_SIZE + (long) frameCount * frame.length, sampleRate,
+                channelCount, AudioFormat.ENCODING_PCM_16BIT));
+            for (int i = 0; i < frameCount; i++) {
+                for (int c = 0; c < channelCount; c++) {
+                    float sample = random.nextInt(2 * NOISE_AMPLITUDE) - NOISE_AMPLITUDE;
+                    sample += WAVE_AMPLITUDE * Math.sin(i * 0.0007 * (c + 1));
+                    // every channel fires at its own rate
+                    if (random.nextInt(SPIKE_INTERVAL + c * 20) == 0) {
+                        final int amplitude = MIN_SPIKE_AMPLITUDE + random.nextInt(
+                            MAX_SPIKE_AMPLITUDE - MIN_SPIKE_AMPLITUDE);
+                        sample += random.nextBoolean() ? amplitude : -amplitude;
+                    }
+                    if ((i / BURST_LENGTH) % (7 + c) == 0) sample *= BURST_GAIN;
+
+                    final int value = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+                    frame[c * 2] = (byte) (value & 0xff);
+                    frame[c * 2 + 1] = (byte) ((value >> 8) & 0xff);
+                }
+                out.write(frame);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.backyardbrains.db;
+
+import android.database.Cursor;
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented test which verifies that migration of the database from version 7 to version 8 keeps all the analyses,
+ * trains and not yet migrated spikes, and that migrated database matches the exported version 8 schema.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class SpikeRecorderDatabaseMigrationTest {
+
+    private static final String TEST_DB = "migration-test";
+
+    @Rule public MigrationTestHelper helper =
+        new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(), SpikeRecorderDatabase.class);
+
+    @Test public void migrate7To8() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 7);
+        db.execSQL("INSERT INTO spike_analysis (id, file_path) VALUES (1, '/recordings/test.wav')");
+        db.execSQL("INSERT INTO trains (id, analysis_id, channel, `order`, spike_count, lower_threshold, "
+            + "upper_threshold, lower_left) VALUES (1, 1, 0, 0, 2, -100, 100, 1)");
+        insertSpike(db, 0, 10, 50, .1f);
+        insertSpike(db, 1, 20, -50, .2f);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 8, true, SpikeRecorderDatabase.MIGRATION_7_8);
+
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM spike_analysis"));
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM trains"));
+        assertEquals(2, count(db, "SELECT COUNT(*) FROM spikes WHERE analysis_id = 1"));
+        // spikes are only looked up by analysis
+        assertTrue(indexExists(db, "index_spikes_analysis_id"));
+        assertFalse(indexExists(db, "index_spikes_train_id_channel_index_value_time"));
+        assertFalse(indexExists(db, "index_spikes_analysis_id_channel_index_value_time"));
+        db.close();
+    }
+
+    private static void insertSpike(SupportSQLiteDatabase db, int channel, int index, float value, float time) {
+        db.execSQL("INSERT INTO spikes (analysis_id, train_id, channel, `index`, value, time) "
+            + "VALUES (1, 0, ?, ?, ?, ?)", new Object[] { channel, index, value, time });
+    }
+
+    private static int count(SupportSQLiteDatabase db, String query) {
+        try (Cursor cursor = db.query(query)) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    private static boolean indexExists(SupportSQLiteDatabase db, String name) {
+        return count(db, "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = '" + name + "'") > 0;
+    }
+}
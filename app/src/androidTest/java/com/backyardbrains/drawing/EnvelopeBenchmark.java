@@ -0,0 +1,55 @@
+package com.backyardbrains.drawing;
+
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.backyardbrains.utils.NativeBenchmarks;
+import java.util.Locale;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented benchmark for enveloping of the live signal before it's drawn. Scrolls 12 seconds of 10 kHz signal with
+ * 6 channels through the draw window the way it's scrolled at 60 frames per second, and compares enveloping the whole
+ * window from scratch with every frame, the way it used to be enveloped, with incremental enveloping that reuses the
+ * previous frame. Incremental envelope needs to be identical to the envelope computed from scratch, while signal is
+ * zoomed, paused and restarted.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class EnvelopeBenchmark {
+
+    private static final String TAG = "EnvelopeBenchmark";
+
+    private static final int SAMPLE_RATE = 10000;
+    private static final int CHANNEL_COUNT = 6;
+    // 12 seconds of signal
+    private static final int WINDOW_FRAME_COUNT = 12 * SAMPLE_RATE;
+    private static final int[] SURFACE_WIDTHS = { 1080, 1920, 2560 };
+    // 10 seconds of drawing at 60 fps
+    private static final int DRAWN_FRAME_COUNT = 600;
+
+    @Test public void incrementalEnvelopeMatchesLegacyEnvelope() {
+        for (int surfaceWidth : SURFACE_WIDTHS) {
+            assertEquals(0, NativeBenchmarks.compareEnvelopes(SAMPLE_RATE, CHANNEL_COUNT, WINDOW_FRAME_COUNT,
+                surfaceWidth, DRAWN_FRAME_COUNT));
+        }
+    }
+
+    @Test public void envelope12Seconds10kHz6Channels() {
+        for (int surfaceWidth : SURFACE_WIDTHS) {
+            final float legacy = NativeBenchmarks.benchmarkEnvelope(SAMPLE_RATE, CHANNEL_COUNT, WINDOW_FRAME_COUNT,
+                surfaceWidth, DRAWN_FRAME_COUNT, NativeBenchmarks.ENVELOPE_BENCHMARK_MODE_LEGACY);
+            final float incremental = NativeBenchmarks.benchmarkEnvelope(SAMPLE_RATE, CHANNEL_COUNT, WINDOW_FRAME_COUNT,
+                surfaceWidth, DRAWN_FRAME_COUNT, NativeBenchmarks.ENVELOPE_BENCHMARK_MODE_INCREMENTAL);
+
+            Log.i(TAG, String.format(Locale.US, "%d px: legacy %.3f ms/frame, incremental %.3f ms/frame (%.1fx)",
+                surfaceWidth, legacy / 1000000f, incremental / 1000000f, legacy / incremental));
+
+            assertTrue(incremental < legacy);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.backyardbrains.dsp;
+
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.backyardbrains.utils.NativeBenchmarks;
+import java.util.Locale;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented benchmark for the native filters applied to the incoming signal. Compares low pass, high pass and
+ * notch filters applied one after another, the way they used to be applied, with the same filters fused into a single
+ * cascade, serial and with channels filtered in parallel, and reports time spent per sample for 10 kHz and 44.1 kHz
+ * signal with 1 to 8 channels, filtered in 20 ms batches. Filtered signal of the cascade needs to stay within few
+ * quantization steps of the separately filtered signal.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class FilterCascadeBenchmark {
+
+    private static final String TAG = "FilterCascadeBenchmark";
+
+    private static final int[] CHANNEL_COUNTS = { 1, 2, 4, 8 };
+    private static final int BATCHES_PER_SECOND = 50;
+    // 1 minute of signal
+    private static final int BATCH_COUNT = 60 * BATCHES_PER_SECOND;
+    // Separate filters convert samples to shorts after every filter so results are slightly different
+    private static final int MAX_DEVIATION = 8;
+
+    @Test public void filters10kHz() {
+        benchmark(10000);
+    }
+
+    @Test public void filters44kHz() {
+        benchmark(44100);
+    }
+
+    private static void benchmark(int sampleRate) {
+        final int frameCount = sampleRate / BATCHES_PER_SECOND;
+        for (int channelCount : CHANNEL_COUNTS) {
+            final int deviation = NativeBenchmarks.compareFilters(sampleRate, channelCount, frameCount, BATCH_COUNT);
+            final float separate = NativeBenchmarks.benchmarkFilters(sampleRate, channelCount, frameCount, BATCH_COUNT,
+                NativeBenchmarks.FILTER_BENCHMARK_MODE_SEPARATE);
+            final float fused = NativeBenchmarks.benchmarkFilters(sampleRate, channelCount, frameCount, BATCH_COUNT,
+                NativeBenchmarks.FILTER_BENCHMARK_MODE_FUSED);
+            final float parallel = NativeBenchmarks.benchmarkFilters(sampleRate, channelCount, frameCount, BATCH_COUNT,
+                NativeBenchmarks.FILTER_BENCHMARK_MODE_FUSED_PARALLEL);
+
+            Log.i(TAG, String.format(Locale.US,
+                "%d Hz, %d channels: separate %.2f ns/sample, fused %.2f ns/sample (%.1fx), fused parallel %.2f "
+                    + "ns/sample (%.1fx), max deviation %d", sampleRate, channelCount, separate, fused,
+                separate / fused, parallel, separate / parallel, deviation));
+
+            assertTrue(deviation <= MAX_DEVIATION);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.backyardbrains.dsp;
+
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.backyardbrains.utils.NativeBenchmarks;
+import java.util.Locale;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented benchmark for the native streaming spectrogram. Streams 10 kHz and 44.1 kHz signal in 10 ms batches
+ * through the default 0-32 Hz spectrogram and through the spectrogram that shows all the frequencies up to Nyquist
+ * frequency, and reports number of columns computed per second. Spectrogram needs to compute columns many times faster
+ * than they come in so it never holds back the processing thread.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class SpectrogramBenchmark {
+
+    private static final String TAG = "SpectrogramBenchmark";
+
+    // Time that's shown by the spectrogram
+    private static final float VIEW_TIME = 6f;
+    // 1 minute of signal
+    private static final float SIGNAL_TIME = 60f;
+    // Spectrogram should take less than 10% of real time
+    private static final float MIN_REAL_TIME_FACTOR = 10f;
+
+    @Test public void spectrogram10kHz() {
+        benchmark(10000);
+    }
+
+    @Test public void spectrogram44kHz() {
+        benchmark(44100);
+    }
+
+    private static void benchmark(int sampleRate) {
+        benchmark(sampleRate, "default", SpectrogramConfig.DEFAULT);
+        benchmark(sampleRate, "full band", SpectrogramConfig.FULL_BAND);
+    }
+
+    private static void benchmark(int sampleRate, String name, SpectrogramConfig config) {
+        final SpectrogramConfig.Layout layout = config.layout(sampleRate, VIEW_TIME);
+        final float columnsPerSecond =
+            NativeBenchmarks.benchmarkSpectrogram(sampleRate, layout.decimation, layout.windowSampleCount,
+                layout.hopSampleCount, config.getWindowFunction(), layout.fftBinCount, layout.binCount,
+                layout.columnCount, SIGNAL_TIME);
+
+        Log.i(TAG, String.format(Locale.US,
+            "%d Hz, %s (%d samples, hop %d, %d bins up to %.1f Hz): %.0f columns/s, real time needs %.1f columns/s "
+                + "(%.0fx)", sampleRate, name, layout.windowSampleCount, layout.hopSampleCount, layout.binCount,
+            layout.maxFrequency, columnsPerSecond, layout.columnsPerSecond,
+            columnsPerSecond / layout.columnsPerSecond));
+
+        assertTrue(columnsPerSecond >= layout.columnsPerSecond * MIN_REAL_TIME_FACTOR);
+    }
+}
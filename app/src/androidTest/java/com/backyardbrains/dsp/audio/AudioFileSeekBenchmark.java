@@ -0,0 +1,196 @@
+package com.backyardbrains.dsp.audio;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.MediaExtractor;
+import android.util.Log;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.backyardbrains.utils.BufferUtils;
+import com.backyardbrains.utils.WavUtils;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Instrumented benchmark that compares seeking through a 384 MB long, 2 channel, 10 kHz recording with
+ * {@link WavAudioFile} and {@link MappedWavAudioFile}. Every seek step fills the 12 seconds long buffer that ends at
+ * the seek position, the same way playback does while user scrubs the recording, and both implementations need to
+ * produce the same buffers. Steps are small moves back and forth, as when scrubbing, and jumps to random positions.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class AudioFileSeekBenchmark {
+
+    private static final String TAG = "AudioFileSeekBenchmark";
+
+    private static final int SAMPLE_RATE = 10000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int FRAME_SIZE = CHANNEL_COUNT * 2;
+    private static final int DATA_SIZE = 384 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 12 * SAMPLE_RATE * FRAME_SIZE;
+    // Max distance of a single scrub step
+    private static final int SCRUB_STEP = SAMPLE_RATE * FRAME_SIZE / 10;
+    private static final int STEP_COUNT = 300;
+
+    private File file;
+
+    @Before public void setUp() throws IOException {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        file = new File(context.getCacheDir(), "audio_file_seek_benchmark.wav");
+
+        final Random random = new Random(DATA_SIZE);
+        final byte[] block = new byte[1024 * 1024];
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), block.length)) {
+            out.write(WavUtils.writeHeader(WavUtils.HEADER_SIZE + (long) DATA_SIZE, SAMPLE_RATE, CHANNEL_COUNT,
+                AudioFormat.ENCODING_PCM_16BIT));
+            for (int i = 0; i < DATA_SIZE / block.length; i++) {
+                random.nextBytes(block);
+                out.write(block);
+            }
+        }
+    }
+
+    @After public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test public void scrubbing() throws IOException {
+        benchmark("scrubbing", createPositions(true));
+    }
+
+    @Test public void jumping() throws IOException {
+        benchmark("jumping", createPositions(false));
+    }
+
+    @Test public void viewsMatchReadData() throws IOException {
+        final MediaExtractor extractor = new MediaExtractor();
+        try (FileInputStream source = new FileInputStream(file)) {
+            extractor.setDataSource(source.getFD());
+            final MappedWavAudioFile mapped = new MappedWavAudioFile(file, extractor);
+            try {
+                final byte[] bytes = new byte[BUFFER_SIZE];
+                final short[] expected = new short[BUFFER_SIZE / 2];
+                final short[] actual = new short[BUFFER_SIZE / 2];
+                for (long position : createPositions(false)) {
+                    final long start = position - position % FRAME_SIZE;
+                    final int read = mapped.read(start, bytes, 0, bytes.length);
+                    ByteBuffer.wrap(bytes, 0, read).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(expected, 0,
+                        read / 2);
+
+                    final ShortBuffer view = mapped.asShortBuffer(start / 2, actual.length);
+                    assertEquals(read / 2, view.remaining());
+                    assertTrue(view.isReadOnly());
+                    view.get(actual, 0, view.remaining());
+                    assertArrayEquals(Arrays.copyOf(expected, read / 2), Arrays.copyOf(actual, read / 2));
+                }
+                // reads past the end of the data
+                assertEquals(-1, mapped.read(DATA_SIZE, bytes, 0, bytes.length));
+                assertEquals(0, mapped.asShortBuffer(DATA_SIZE / 2, actual.length).remaining());
+            } finally {
+                mapped.close();
+            }
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private void benchmark(String name, long[] positions) throws IOException {
+        final MediaExtractor extractor = new MediaExtractor();
+        try (FileInputStream source = new FileInputStream(file)) {
+            extractor.setDataSource(source.getFD());
+            final WavAudioFile wav = new WavAudioFile(file, extractor);
+            final MappedWavAudioFile mapped = new MappedWavAudioFile(file, extractor);
+            try {
+                final byte[] expected = new byte[BUFFER_SIZE];
+                final byte[] actual = new byte[BUFFER_SIZE];
+                final long[] wavTimes = new long[positions.length];
+                final long[] mappedTimes = new long[positions.length];
+                for (int i = 0; i < positions.length; i++) {
+                    long start = System.nanoTime();
+                    seekWithCopy(wav, positions[i], expected);
+                    wavTimes[i] = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    seekWithSlice(mapped, positions[i], actual);
+                    mappedTimes[i] = System.nanoTime() - start;
+
+                    assertArrayEquals("Position " + positions[i], expected, actual);
+                }
+
+                log(name, "WavAudioFile", wavTimes);
+                log(name, "MappedWavAudioFile", mappedTimes);
+            } finally {
+                wav.close();
+                mapped.close();
+            }
+        } finally {
+            extractor.release();
+        }
+    }
+
+    // Same as the seek step of the playback before memory-mapped files, reads whole buffer and shifts it right if
+    // zeros need to be prepended
+    private static void seekWithCopy(AudioFile audioFile, long position, byte[] buffer) throws IOException {
+        final long zerosPrependCount = position - BUFFER_SIZE;
+        audioFile.seek(Math.max(0, zerosPrependCount));
+        if (audioFile.read(buffer) > 0 && zerosPrependCount < 0) {
+            BufferUtils.shiftRight(buffer, (int) -zerosPrependCount);
+        }
+    }
+
+    // Same as the seek step of the playback, reads data after the zeros that need to be prepended
+    private static void seekWithSlice(AudioFile audioFile, long position, byte[] buffer) throws IOException {
+        final long zerosPrependCount = position - BUFFER_SIZE;
+        audioFile.seek(Math.max(0, zerosPrependCount));
+        final int prependByteCount = (int) Math.max(0, -zerosPrependCount);
+        final int len = BUFFER_SIZE - prependByteCount;
+        if (len == 0 || audioFile.read(buffer, prependByteCount, len) > 0) {
+            Arrays.fill(buffer, 0, prependByteCount, (byte) 0);
+        }
+    }
+
+    // Creates frame aligned seek positions, including the start of the file and the ones that need zeros prepended
+    private static long[] createPositions(boolean scrubbing) {
+        final Random random = new Random(scrubbing ? 1 : 2);
+        final long[] positions = new long[STEP_COUNT];
+        long position = BUFFER_SIZE / 2;
+        for (int i = 0; i < STEP_COUNT; i++) {
+            if (scrubbing) {
+                position = Math.max(0, Math.min(DATA_SIZE, position + random.nextInt(2 * SCRUB_STEP) - SCRUB_STEP));
+            } else {
+                position = i == 0 ? 0 : (long) (random.nextDouble() * DATA_SIZE);
+            }
+            positions[i] = position - position % FRAME_SIZE;
+        }
+        return positions;
+    }
+
+    private static void log(String name, String implementation, long[] times) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long time : sorted) total += time;
+        Log.i(TAG, String.format(Locale.US, "%s, %s: mean %.3f ms, median %.3f ms, p95 %.3f ms", name, implementation,
+            total / 1e6 / sorted.length, sorted[sorted.length / 2] / 1e6, sorted[sorted.length * 95 / 100] / 1e6));
+    }
+}
@@ -0,0 +1,184 @@
+package com.backyardbrains.dsp.audio;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.util.Log;
+import androidx.test.InstrumentationRegistry;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.backyardbrains.utils.WavUtils;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.greenrobot.essentials.io.CircularByteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumented benchmark that compares recording through a {@link FileOutputStream}, the way {@link Recorder} used to
+ * record, with recording through {@link WavWriter}, with and without preallocation.
+ * <p/>
+ * Sustained throughput is measured by writing 256 MB in 4 KB batches. Effect on the processing thread is measured by
+ * timing the part of every batch that runs on the processing thread while a separate thread writes the batches to
+ * the file, the same way {@code Recorder.WriteThread} does: previously every batch needed length of the file to
+ * position the events, now the number of recorded frames is kept in memory.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@RunWith(AndroidJUnit4.class)
+public class WavWriterBenchmark {
+
+    private static final String TAG = "WavWriterBenchmark";
+
+    private static final int SAMPLE_RATE = 10000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int FRAME_SIZE = CHANNEL_COUNT * 2;
+    private static final int BATCH_SIZE = 4096;
+    private static final int THROUGHPUT_DATA_SIZE = 256 * 1024 * 1024;
+    // 10 minutes of recording
+    private static final int PROCESSING_BATCH_COUNT = 10 * 60 * SAMPLE_RATE * FRAME_SIZE / BATCH_SIZE;
+    private static final long COMMIT_INTERVAL = 2 * SAMPLE_RATE * FRAME_SIZE;
+    private static final long PREALLOCATION_SIZE = 16 * 1024 * 1024;
+
+    private File file;
+    private byte[] batch;
+
+    @Before public void setUp() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        file = new File(context.getCacheDir(), "wav_writer_benchmark.wav");
+        batch = new byte[BATCH_SIZE];
+        new Random(BATCH_SIZE).nextBytes(batch);
+    }
+
+    @After public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test public void sustainedThroughput() throws IOException {
+        long start = System.nanoTime();
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < THROUGHPUT_DATA_SIZE / BATCH_SIZE; i++) out.write(batch);
+        }
+        logThroughput("FileOutputStream", System.nanoTime() - start);
+
+        for (long preallocationSize : new long[] { 0, PREALLOCATION_SIZE }) {
+            start = System.nanoTime();
+            try (WavWriter writer = createWriter(preallocationSize)) {
+                for (int i = 0; i < THROUGHPUT_DATA_SIZE / BATCH_SIZE; i++) writer.write(batch, 0, batch.length);
+            }
+            logThroughput("WavWriter, preallocation " + preallocationSize, System.nanoTime() - start);
+            assertEquals(THROUGHPUT_DATA_SIZE, readDataSize());
+        }
+    }
+
+    @Test public void processingThreadCost() throws Exception {
+        final long[] statTimes = new long[PROCESSING_BATCH_COUNT];
+        final long[] counterTimes = new long[PROCESSING_BATCH_COUNT];
+
+        // previous recording, writes through output stream and reads file length for every batch
+        final OutputStream out = new FileOutputStream(file);
+        record(new BatchWriter() {
+            @Override public void write(byte[] b, int len) throws IOException {
+                out.write(b, 0, len);
+            }
+
+            @Override public long frameCount(long writtenFrameCount) {
+                return file.length() / FRAME_SIZE;
+            }
+        }, statTimes);
+        out.close();
+
+        // current recording, writes through wav writer and counts frames in memory
+        final WavWriter writer = createWriter(0);
+        record(new BatchWriter() {
+            @Override public void write(byte[] b, int len) throws IOException {
+                writer.write(b, 0, len);
+            }
+
+            @Override public long frameCount(long writtenFrameCount) {
+                return writtenFrameCount;
+            }
+        }, counterTimes);
+        writer.close();
+        assertEquals((long) PROCESSING_BATCH_COUNT * BATCH_SIZE, readDataSize());
+
+        log("Processing thread, file length", statTimes);
+        log("Processing thread, frame counter", counterTimes);
+    }
+
+    private interface BatchWriter {
+        void write(byte[] b, int len) throws IOException;
+
+        long frameCount(long writtenFrameCount);
+    }
+
+    // Passes batches from the calling thread, which stands for the processing thread, to the writing thread through a
+    // circular buffer and saves time spent on the calling thread for every batch
+    private void record(final BatchWriter batchWriter, long[] times) throws Exception {
+        final CircularByteBuffer buffer = new CircularByteBuffer(SAMPLE_RATE * 2);
+        final AtomicBoolean working = new AtomicBoolean(true);
+        final IOException[] error = new IOException[1];
+        final Thread writeThread = new Thread(new Runnable() {
+            @Override public void run() {
+                final byte[] bytes = new byte[SAMPLE_RATE * 2];
+                try {
+                    int size;
+                    while ((size = buffer.get(bytes)) > 0 || working.get()) {
+                        if (size > 0) batchWriter.write(bytes, size);
+                    }
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            }
+        });
+        writeThread.start();
+
+        long frameCount = 0;
+        long sum = 0;
+        for (int i = 0; i < times.length; i++) {
+            final long start = System.nanoTime();
+            sum += batchWriter.frameCount(frameCount);
+            while (buffer.put(batch) == 0) Thread.yield();
+            frameCount += BATCH_SIZE / FRAME_SIZE;
+            times[i] = System.nanoTime() - start;
+        }
+        working.set(false);
+        writeThread.join();
+        if (error[0] != null) throw error[0];
+        Log.d(TAG, "Frame count checksum " + sum);
+    }
+
+    private WavWriter createWriter(long preallocationSize) throws IOException {
+        return new WavWriter(file, SAMPLE_RATE, CHANNEL_COUNT, AudioFormat.ENCODING_PCM_16BIT, COMMIT_INTERVAL,
+            preallocationSize);
+    }
+
+    private int readDataSize() throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            return WavUtils.readHeader(in).getDataSize();
+        }
+    }
+
+    private static void logThroughput(String name, long time) {
+        Log.i(TAG, String.format(Locale.US, "%s: %.1f MB/s", name, THROUGHPUT_DATA_SIZE / 1048576. / (time / 1e9)));
+    }
+
+    private static void log(String name, long[] times) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long time : sorted) total += time;
+        Log.i(TAG, String.format(Locale.US, "%s: mean %.2f us, median %.2f us, p99 %.2f us", name,
+            total / 1e3 / sorted.length, sorted[sorted.length / 2] / 1e3, sorted[sorted.length * 99 / 100] / 1e3));
+    }
+}
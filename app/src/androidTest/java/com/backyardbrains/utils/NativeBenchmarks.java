@@ -0,0 +1,76 @@
+package com.backyardbrains.utils;
+
+/**
+ * Native benchmarks run by the instrumented tests. They are built into a separate library together with the native
+ * code they measure, and only for debug builds, so they don't ship with the app.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class NativeBenchmarks {
+
+    /**
+     * Every filter filters the signal separately.
+     */
+    public static final int FILTER_BENCHMARK_MODE_SEPARATE = 0;
+    /**
+     * All filters are fused into a single cascade.
+     */
+    public static final int FILTER_BENCHMARK_MODE_FUSED = 1;
+    /**
+     * All filters are fused into a single cascade and channels are filtered in parallel.
+     */
+    public static final int FILTER_BENCHMARK_MODE_FUSED_PARALLEL = 2;
+
+    /**
+     * Signal is enveloped from scratch with every frame.
+     */
+    public static final int ENVELOPE_BENCHMARK_MODE_LEGACY = 0;
+    /**
+     * Only newly appended samples are enveloped, the rest is reused from the previous frame.
+     */
+    public static final int ENVELOPE_BENCHMARK_MODE_INCREMENTAL = 1;
+
+    /**
+     * Filters {@code batchCount} batches of {@code frameCount} frames of synthetic signal with {@code channelCount}
+     * channels through 70 Hz high pass, 2500 Hz low pass and 60 Hz notch filter, the way specified by {@code mode}
+     * (one of {@code FILTER_BENCHMARK_MODE_*} constants), and returns average number of nanoseconds spent per sample.
+     */
+    public static native float benchmarkFilters(float sampleRate, int channelCount, int frameCount, int batchCount,
+                                                int mode);
+
+    /**
+     * Filters the same synthetic signal as {@link #benchmarkFilters(float, int, int, int, int)} with separate filters
+     * and with the fused cascade and returns the largest difference between the filtered samples.
+     */
+    public static native int compareFilters(float sampleRate, int channelCount, int frameCount, int batchCount);
+
+    /**
+     * Scrolls synthetic live signal with {@code channelCount} channels through the window of {@code windowFrameCount}
+     * frames, as it's scrolled while drawn at 60 frames per second, envelopes the whole window for the surface
+     * {@code drawSurfaceWidth} pixels wide {@code drawnFrameCount} times the way specified by {@code mode} (one of
+     * {@code ENVELOPE_BENCHMARK_MODE_*} constants), and returns average number of nanoseconds spent per frame.
+     */
+    public static native float benchmarkEnvelope(float sampleRate, int channelCount, int windowFrameCount,
+                                                 int drawSurfaceWidth, int drawnFrameCount, int mode);
+
+    /**
+     * Envelopes the same synthetic signal as {@link #benchmarkEnvelope(float, int, int, int, int, int)} both from
+     * scratch and incrementally, while zooming, pausing and restarting it, and returns number of frames which
+     * envelopes differ.
+     */
+    public static native int compareEnvelopes(float sampleRate, int channelCount, int windowFrameCount,
+                                              int drawSurfaceWidth, int drawnFrameCount);
+
+    /**
+     * Streams {@code seconds} of synthetic signal sampled at {@code sampleRate} through the spectrogram with specified
+     * layout in 10 ms batches, keeping the last {@code columnCount} columns, and returns number of columns computed per
+     * second of processing time.
+     */
+    public static native float benchmarkSpectrogram(float sampleRate, int decimation, int windowSampleCount,
+                                                    int hopSampleCount, int windowFunction, int fftBinCount,
+                                                    int binCount, int columnCount, float seconds);
+
+    static {
+        System.loadLibrary("byb-benchmarks");
+    }
+}
@@ -3,7 +3,9 @@
 //
 
 #include <tgmath.h>
+#include <cstring>
 #include "AverageSpikeAnalysis.h"
+#include "WavMapping.h"
 
 namespace backyardbrains {
 
@@ -11,14 +13,18 @@ namespace backyardbrains {
 
         const char *AverageSpikeAnalysis::TAG = "AverageSpikeAnalysis";
 
+        // Out-of-class definition is needed because the constant is passed to std::max by reference
+        constexpr int AverageSpikeAnalysis::CHUNK_FRAME_COUNT;
+
         AverageSpikeAnalysis::AverageSpikeAnalysis() = default;
 
         AverageSpikeAnalysis::~AverageSpikeAnalysis() = default;
 
         void AverageSpikeAnalysis::process(const char *filePath, int **inSpikeTrains, const int spikeTrainCount,
-                                           const int *spikeCounts, float **outAverageSpike, float **outNormAverageSpike,
-                                           float **outNormTopSTDLine, float **outNormBottomSTDLine,
-                                           int batchSpikeCount) {
+                                           const int *spikeCounts, const int *channels, float **outAverageSpike,
+                                           float **outNormAverageSpike, float **outNormTopSTDLine,
+                                           float **outNormBottomSTDLine, int batchSpikeCount, bool sequential,
+                                           AnalysisToken *token) {
             // open audio file we need to analyze
             drwav *wavPtr = drwav_open_file(filePath);
             if (wavPtr == nullptr) {
@@ -26,43 +32,35 @@ namespace backyardbrains {
                 return;
             }
 
-            // check whether file is long enough for processing
-            drwav_uint64 totalSamples = wavPtr->totalSampleCount;
-            auto batchSpikeHalfCount = static_cast<drwav_uint64>(batchSpikeCount / 2);
-            auto bsc = static_cast<drwav_uint64>(batchSpikeCount);
+            this->batchSpikeCount = batchSpikeCount;
+            batchSpikeHalfCount = batchSpikeCount / 2;
+            frameCount = wavPtr->totalSampleCount / wavPtr->channels;
+            sums.assign(static_cast<size_t>(spikeTrainCount), std::vector<double>(batchSpikeCount, 0.0));
+            squareSums.assign(static_cast<size_t>(spikeTrainCount), std::vector<double>(batchSpikeCount, 0.0));
+            counts.assign(static_cast<size_t>(spikeTrainCount), 0);
+
+            if (sequential) {
+                processSequentially(wavPtr, filePath, inSpikeTrains, spikeTrainCount, spikeCounts, channels, token);
+            } else {
+                processBySeeking(wavPtr, inSpikeTrains, spikeTrainCount, spikeCounts, channels, token);
+            }
+
+            // close audio file
+            drwav_close(wavPtr);
 
+            auto bsc = static_cast<drwav_uint64>(batchSpikeCount);
             auto *tmpAvr = new AverageSpikeData[spikeTrainCount];
             allocateAverageSpikeData(tmpAvr, spikeTrainCount, bsc);
-
-            int sampleIndex;
-            drwav_uint64 read;
-            drwav_uint64 spikeIndexBatchHead;
-            auto *samples = new drwav_int16[batchSpikeCount];
             for (int i = 0; i < spikeTrainCount; i++) {
-                for (int j = 0; j < spikeCounts[i]; j++) {
-                    sampleIndex = inSpikeTrains[i][j];
-                    // if we cannot make a batch of 4ms go to next sample
-                    if ((sampleIndex + batchSpikeHalfCount) >= totalSamples ||
-                        static_cast<int>(sampleIndex - batchSpikeHalfCount) < 0) {
-                        continue;
-                    }
-
-                    // add spike to average buffer
-                    spikeIndexBatchHead = sampleIndex - batchSpikeHalfCount;
-                    drwav_seek_to_sample(wavPtr, spikeIndexBatchHead);
-                    if ((read = drwav_read_s16(wavPtr, bsc, samples)) > 0) {
-                        for (int k = 0; k < read; k++) {
-                            tmpAvr[i].averageSpike[k] += samples[k];
-                            tmpAvr[i].topSTDLine[k] += pow(samples[k], 2);
-                        }
-                    }
-                    tmpAvr[i].countOfSpikes++;
+                for (int k = 0; k < batchSpikeCount; k++) {
+                    tmpAvr[i].averageSpike[k] = static_cast<float>(sums[i][k]);
+                    tmpAvr[i].topSTDLine[k] = static_cast<float>(squareSums[i][k]);
                 }
+                tmpAvr[i].countOfSpikes = counts[i];
             }
-            delete[] samples;
-
-            // close audio file
-            drwav_close(wavPtr);
+            sums.clear();
+            squareSums.clear();
+            counts.clear();
 
             float min;
             float max;
@@ -135,6 +133,124 @@ namespace backyardbrains {
             delete[] tmpAvr;
         }
 
+        void AverageSpikeAnalysis::accumulate(int train, const drwav_int16 *frame, int channel, int channelCount) {
+            double *sum = sums[train].data();
+            double *squareSum = squareSums[train].data();
+            const drwav_int16 *sample = frame + channel;
+            for (int k = 0; k < batchSpikeCount; k++, sample += channelCount) {
+                const double value = *sample;
+                sum[k] += value;
+                squareSum[k] += value * value;
+            }
+            counts[train]++;
+        }
+
+        void AverageSpikeAnalysis::processBySeeking(drwav *wavPtr, int **inSpikeTrains, int spikeTrainCount,
+                                                    const int *spikeCounts, const int *channels,
+                                                    AnalysisToken *token) {
+            const int channelCount = wavPtr->channels;
+            auto *samples = new drwav_int16[batchSpikeCount * channelCount];
+            int spike = 0, spikeCount = 0;
+            for (int i = 0; i < spikeTrainCount; i++) spikeCount += spikeCounts[i];
+            for (int i = 0; i < spikeTrainCount; i++) {
+                for (int j = 0; j < spikeCounts[i]; j++) {
+                    if (!proceed(token, spike++, spikeCount)) {
+                        delete[] samples;
+                        return;
+                    }
+
+                    const drwav_int64 first = static_cast<drwav_int64>(inSpikeTrains[i][j]) - batchSpikeHalfCount;
+                    // if we cannot make a batch of 4ms go to next sample
+                    if (first < 0 || static_cast<drwav_uint64>(first + batchSpikeCount) > frameCount) continue;
+
+                    drwav_seek_to_sample(wavPtr, static_cast<drwav_uint64>(first * channelCount));
+                    const drwav_uint64 toRead = static_cast<drwav_uint64>(batchSpikeCount * channelCount);
+                    if (drwav_read_s16(wavPtr, toRead, samples) == toRead) {
+                        accumulate(i, samples, channels[i], channelCount);
+                    }
+                }
+            }
+            delete[] samples;
+        }
+
+        void AverageSpikeAnalysis::processSequentially(drwav *wavPtr, const char *filePath, int **inSpikeTrains,
+                                                       int spikeTrainCount, const int *spikeCounts,
+                                                       const int *channels, AnalysisToken *token) {
+            const int channelCount = wavPtr->channels;
+
+            // if samples are stored as 16-bit PCM we can use them directly from memory-mapped data chunk
+            const backyardbrains::utils::WavMapping mapping(filePath, wavPtr, true);
+            const drwav_int16 *data = mapping.getSamples();
+            if (data != nullptr) {
+                frameCount = std::min(frameCount, mapping.getSampleCount() / channelCount);
+                forEachSpike(inSpikeTrains, spikeTrainCount, spikeCounts, token, [&](int train, int index) {
+                    const drwav_int64 first = static_cast<drwav_int64>(index) - batchSpikeHalfCount;
+                    if (first < 0 || static_cast<drwav_uint64>(first + batchSpikeCount) > frameCount) return;
+
+                    accumulate(train, data + first * channelCount, channels[train], channelCount);
+                });
+                return;
+            }
+
+            // otherwise we read the file chunk by chunk and keep the frames needed by the upcoming spikes
+            const int bufferFrameCount = std::max(CHUNK_FRAME_COUNT, batchSpikeCount);
+            auto *buffer = new drwav_int16[bufferFrameCount * channelCount];
+            drwav_int64 bufferStart = 0, bufferEnd = 0; // frames held by the buffer
+            forEachSpike(inSpikeTrains, spikeTrainCount, spikeCounts, token, [&](int train, int index) {
+                const drwav_int64 first = static_cast<drwav_int64>(index) - batchSpikeHalfCount;
+                const drwav_int64 last = first + batchSpikeCount;
+                if (first < 0 || static_cast<drwav_uint64>(last) > frameCount) return;
+
+                if (last > bufferEnd) {
+                    drwav_int64 kept = 0;
+                    if (first < bufferEnd) {
+                        // keep frames we still need and append new ones
+                        kept = bufferEnd - first;
+                        memmove(buffer, buffer + (first - bufferStart) * channelCount,
+                                static_cast<size_t>(kept * channelCount) * sizeof(drwav_int16));
+                    } else if (first != bufferEnd) {
+                        drwav_seek_to_sample(wavPtr, static_cast<drwav_uint64>(first * channelCount));
+                    }
+                    const auto toRead = static_cast<drwav_uint64>((bufferFrameCount - kept) * channelCount);
+                    const drwav_uint64 read = drwav_read_s16(wavPtr, toRead, buffer + kept * channelCount);
+                    bufferStart = first;
+                    bufferEnd = first + kept + static_cast<drwav_int64>(read / channelCount);
+                    if (last > bufferEnd) return;
+                }
+
+                accumulate(train, buffer + (first - bufferStart) * channelCount, channels[train], channelCount);
+            });
+            delete[] buffer;
+        }
+
+        void AverageSpikeAnalysis::forEachSpike(int **inSpikeTrains, int spikeTrainCount, const int *spikeCounts,
+                                                AnalysisToken *token, const std::function<void(int, int)> &f) {
+            // k-way merge of the sorted spike trains, ties are resolved by the train order
+            typedef std::pair<int, int> Head; // (spike index, train)
+            std::priority_queue<Head, std::vector<Head>, std::greater<Head>> heads;
+            std::vector<int> positions(static_cast<size_t>(spikeTrainCount), 0);
+            int spike = 0, spikeCount = 0;
+            for (int i = 0; i < spikeTrainCount; i++) {
+                if (spikeCounts[i] > 0) heads.push(Head(inSpikeTrains[i][0], i));
+                spikeCount += spikeCounts[i];
+            }
+            while (!heads.empty() && proceed(token, spike++, spikeCount)) {
+                const Head head = heads.top();
+                heads.pop();
+                f(head.second, head.first);
+
+                const int next = ++positions[head.second];
+                if (next < spikeCounts[head.second]) heads.push(Head(inSpikeTrains[head.second][next], head.second));
+            }
+        }
+
+        bool AverageSpikeAnalysis::proceed(AnalysisToken *token, int spike, int spikeCount) {
+            if (spike % PROGRESS_SPIKE_COUNT != 0) return true;
+
+            AnalysisToken::setProgress(token, static_cast<float>(spike) / spikeCount);
+            return !AnalysisToken::isCancelled(token);
+        }
+
         void AverageSpikeAnalysis::allocateAverageSpikeData(AverageSpikeData *averageSpikeData, const int length,
                                                             drwav_uint64 batchSpikeCount) {
             for (int i = 0; i < length; i++) {
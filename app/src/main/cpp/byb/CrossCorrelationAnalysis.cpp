@@ -16,37 +16,44 @@ namespace backyardbrains {
 
         void
         CrossCorrelationAnalysis::process(float **inSpikeTrains, int spikeTrainCount, const int *spikeCounts,
-                                          int **outAnalysis,
-                                          int analysisBinCount) {
+                                          int *outAnalysis, int analysisBinCount) {
+            std::fill(outAnalysis, outAnalysis + spikeTrainCount * spikeTrainCount * analysisBinCount, 0);
+
+            const std::function<void(int)> task = [&](int pair) {
+                const int i = pair / spikeTrainCount;
+                const int j = pair % spikeTrainCount;
+                if (spikeCounts[i] > 1 && spikeCounts[j] > 1) {
+                    correlate(inSpikeTrains[i], spikeCounts[i], inSpikeTrains[j], spikeCounts[j],
+                              outAnalysis + pair * analysisBinCount);
+                }
+            };
+
+            const int pairCount = spikeTrainCount * spikeTrainCount;
+            if (pairCount > 1) {
+                if (!pool) pool.reset(new backyardbrains::utils::WorkerPool());
+                pool->run(pairCount, task);
+            } else {
+                for (int pair = 0; pair < pairCount; pair++) task(pair);
+            }
+        }
+
+        void CrossCorrelationAnalysis::correlate(const float *first, int firstCount, const float *second,
+                                                 int secondCount, int *histogram) {
+            // both trains are sorted so difference between spike times decreases as we move through the second train
+            // and increases as we move through the first one, which means spikes of the second train that fall
+            // inside the window of the current spike of the first train are always between [from, to)
+            int from = 0, to = 0;
             float diff;
-            for (int i = 0; i < spikeTrainCount; i++) {
-                for (int j = 0; j < spikeTrainCount; j++) {
-                    int *histogram = new int[analysisBinCount]{0};
-
-                    if (spikeCounts[i] > 1 && spikeCounts[j] > 1) {
-                        bool insideInterval;
-                        // go through first spike train
-                        for (int k = 0; k < spikeCounts[i]; k++) {
-                            // check on left of spike
-                            insideInterval = false;
-                            // go through second spike train
-                            for (int l = 0; l < spikeCounts[j]; l++) {
-                                diff = inSpikeTrains[i][k] - inSpikeTrains[j][l];
-                                if (diff > MIN_EDGE && diff < MAX_EDGE) {
-                                    insideInterval = true;
-                                    histogram[(int) (((diff - MIN_EDGE) * DIVIDER))]++;
-                                } else if (insideInterval) { //we pass last spike that is in interval of interest
-                                    break;
-                                }
-                            }
-                        }
-                    }
-
-                    std::copy(histogram, histogram + analysisBinCount, outAnalysis[i * spikeTrainCount + j]);
-
-                    delete[] histogram;
+            for (int k = 0; k < firstCount; k++) {
+                while (from < secondCount && first[k] - second[from] >= MAX_EDGE) from++;
+                if (to < from) to = from;
+                while (to < secondCount && first[k] - second[to] > MIN_EDGE) to++;
+
+                for (int l = from; l < to; l++) {
+                    diff = first[k] - second[l];
+                    histogram[(int) (((diff - MIN_EDGE) * DIVIDER))]++;
                 }
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -9,33 +9,56 @@ namespace backyardbrains {
     namespace utils {
 
         void DrawingUtils::prepareSignalForDrawing(float **outSamples, int *outSampleCounts, float *outEventIndices,
-                                                   int &outEventCount, short **inSamples, int channelCount,
-                                                   const int *inEventIndices, int inEventCount, int fromSample,
-                                                   int toSample, int drawSurfaceWidth) {
-            auto **envelopedSamples = new short *[channelCount];
-            for (int i = 0; i < channelCount; i++) {
-                envelopedSamples[i] = new short[drawSurfaceWidth * 5];
-            }
-            envelope(envelopedSamples, outSampleCounts, outEventIndices, outEventCount, inSamples, channelCount,
-                     inEventIndices, inEventCount, fromSample, toSample, drawSurfaceWidth);
-
-            float xStep = (float) drawSurfaceWidth / (outSampleCounts[0] - 1);
-            int sampleIndex = 0;
-            for (int i = 0; i < inEventCount; i++)
-                outEventIndices[i] *= xStep;
+                                                   int &outEventCount, SignalEnvelope &envelope, short **inSamples,
+                                                   int channelCount, int inFrameCount, const int *inEventIndices,
+                                                   int inEventCount, int fromSample, int toSample,
+                                                   int drawSurfaceWidth, int appendedFrameCount) {
+            envelope.envelope(inSamples, channelCount, inFrameCount, inEventIndices, inEventCount, fromSample,
+                              toSample, drawSurfaceWidth, appendedFrameCount);
+
+            const int sampleCount = envelope.getSampleCount();
+            float xStep = (float) drawSurfaceWidth / (sampleCount - 1);
+            const float *eventIndices = envelope.getEventIndices();
+            outEventCount = envelope.getEventCount();
+            for (int i = 0; i < outEventCount; i++)
+                outEventIndices[i] = eventIndices[i] * xStep;
             for (int i = 0; i < channelCount; i++) {
-                for (int j = 0; j < outSampleCounts[i]; j++) {
+                const short *envelopedSamples = envelope.getSamples(i);
+                int sampleIndex = 0;
+                for (int j = 0; j < sampleCount; j++) {
                     outSamples[i][sampleIndex++] = xStep * j;
-                    outSamples[i][sampleIndex++] = (float) envelopedSamples[i][j];
+                    outSamples[i][sampleIndex++] = (float) envelopedSamples[j];
                 }
                 outSampleCounts[i] = sampleIndex;
-                sampleIndex = 0;
             }
+        }
 
-            for (int i = 0; i < channelCount; i++) {
-                delete[] envelopedSamples[i];
+        void DrawingUtils::prepareChannelForDrawing(float *outSamples, int &outSampleCount, SignalEnvelope &envelope,
+                                                    short *inSamples, int inFrameCount, int fromSample, int toSample,
+                                                    int drawSurfaceWidth, int appendedFrameCount) {
+            envelope.envelope(&inSamples, 1, inFrameCount, nullptr, 0, fromSample, toSample, drawSurfaceWidth,
+                              appendedFrameCount);
+
+            const int sampleCount = envelope.getSampleCount();
+            float xStep = (float) drawSurfaceWidth / (sampleCount - 1);
+            const short *envelopedSamples = envelope.getSamples(0);
+            int sampleIndex = 0;
+            for (int j = 0; j < sampleCount; j++) {
+                outSamples[sampleIndex++] = xStep * j;
+                outSamples[sampleIndex++] = (float) envelopedSamples[j];
             }
-            delete[] envelopedSamples;
+            outSampleCount = sampleIndex;
+        }
+
+        void DrawingUtils::prepareEventsForDrawing(float *outEventIndices, int &outEventCount,
+                                                   const int *inEventIndices, int inEventCount, int fromSample,
+                                                   int toSample, int drawSurfaceWidth) {
+            const int sampleCount = SignalEnvelope::envelopedSampleCount(fromSample, toSample, drawSurfaceWidth);
+            float xStep = (float) drawSurfaceWidth / (sampleCount - 1);
+            outEventCount = SignalEnvelope::envelopeEvents(outEventIndices, inEventIndices, inEventCount, fromSample,
+                                                           toSample, drawSurfaceWidth);
+            for (int i = 0; i < outEventCount; i++)
+                outEventIndices[i] *= xStep;
         }
 
         void
@@ -117,79 +140,6 @@ namespace backyardbrains {
             }
         }
 
-        void DrawingUtils::envelope(short **outSamples, int *outSampleCount, float *outEventIndices,
-                                    int &outEventIndicesCount, short **inSamples, int channelCount,
-                                    const int *inEventIndices, int inEventIndicesCount, int fromSample, int toSample,
-                                    int drawSurfaceWidth) {
-            int drawSamplesCount = toSample - fromSample;
-            if (drawSamplesCount < drawSurfaceWidth) drawSurfaceWidth = drawSamplesCount;
-
-            short sample;
-            short min = SHRT_MAX, max = SHRT_MIN;
-            int samplesPerPixel = drawSamplesCount / drawSurfaceWidth;
-            int samplesPerPixelRest = drawSamplesCount % drawSurfaceWidth;
-            int samplesPerEnvelope = samplesPerPixel * 2; // multiply by 2 because we save min and max
-            int envelopeCounter = 0, sampleIndex = 0, eventCounter = 0, eventIndex = 0;
-            bool eventsProcessed = false;
-
-            int from = fromSample;
-            int to = fromSample + drawSamplesCount;
-            for (int i = 0; i < channelCount; i++) {
-                for (int j = from; j < to; j++) {
-                    sample = inSamples[i][j];
-                    if (!eventsProcessed) {
-                        for (int k = 0; k < inEventIndicesCount; k++) {
-                            if (j == inEventIndices[k]) {
-                                eventCounter++;
-                            } else {
-                                if (j < inEventIndices[k]) break;
-                            }
-                        }
-                    }
-
-                    if (samplesPerPixel == 1 && samplesPerPixelRest == 0) {
-                        if (eventCounter > 0) {
-                            for (int k = 0; k < eventCounter; k++) {
-                                outEventIndices[eventIndex++] = sampleIndex;
-                            }
-                        }
-                        outSamples[i][sampleIndex++] = sample;
-
-                        eventCounter = 0;
-                    } else {
-                        if (sample > max) max = sample;
-                        if (sample < min) min = sample;
-                        if (envelopeCounter == samplesPerEnvelope) {
-                            if (eventCounter > 0) {
-                                for (int k = 0; k < eventCounter; k++) {
-                                    outEventIndices[eventIndex++] = sampleIndex;
-                                }
-                            }
-                            outSamples[i][sampleIndex++] = max;
-                            outSamples[i][sampleIndex++] = min;
-
-                            envelopeCounter = 0;
-                            min = SHRT_MAX;
-                            max = SHRT_MIN;
-                            eventCounter = 0;
-                        }
-
-                        envelopeCounter++;
-                    }
-                }
-
-                outSampleCount[i] = sampleIndex;
-                if (!eventsProcessed) outEventIndicesCount = eventIndex;
-
-                eventsProcessed = true;
-                sampleIndex = 0;
-                eventIndex = 0;
-                envelopeCounter = 0;
-                min = SHRT_MAX;
-                max = SHRT_MIN;
-            }
-        }
-
         float DrawingUtils::red(float gray) {
             return base(gray - .5f);
         }
@@ -2,6 +2,7 @@
 // Created by Tihomir Leka <tihomir at backyardbrains.com>
 //
 
+#include <cstring>
 #include <EventTriggeredAverageAnalysis.h>
 
 namespace backyardbrains {
@@ -25,7 +26,8 @@ namespace backyardbrains {
                                                     const bool removeNoiseIntervals,
                                                     const char *confidenceIntervalsEvent, float ***averages,
                                                     float ***normAverages, float **normMcAverages, float **normMcTop,
-                                                    float **normMcBottom, float *min, float *max) {
+                                                    float **normMcBottom, float *min, float *max,
+                                                    AnalysisToken *token) {
             long long milliseconds = currentTimeInMilliseconds();
 
             // we need to process at least one event
@@ -52,26 +54,28 @@ namespace backyardbrains {
             if (totalSamples < sampleRate * channelCount *
                                backyardbrains::utils::AnalysisUtils::MIN_VALID_FILE_LENGTH_IN_SECS) {
                 __android_log_print(ANDROID_LOG_DEBUG, TAG, "File too short! Don't process!");
+                drwav_close(wavPtr);
                 return;
             }
 
+            // if samples are stored as 16-bit PCM we can use them directly from memory-mapped data chunk
+            const backyardbrains::utils::WavMapping mapping(signalFilePath, wavPtr, false);
+            const drwav_int16 *mappedSamples = mapping.getSamples();
+            if (mappedSamples != nullptr) totalSamples = mapping.getSampleCount();
+
             // determine buffer size
             leftOffsetSampleCount = static_cast<drwav_uint64>(sampleRate * channelCount * EVENT_LEFT_OFFSET_IN_SECS);
             rightOffsetSampleCount = static_cast<drwav_uint64>(sampleRate * channelCount * EVENT_RIGHT_OFFSET_IN_SECS);
             bufferSize = leftOffsetSampleCount + rightOffsetSampleCount;
             sampleCount = static_cast<int>(bufferSize);
             frameCount = sampleCount / channelCount;
+            // number of sums kept for a single interval
+            const int intervalLength = channelCount * frameCount;
 
             // 1. FIND STD AND MEAN OF FULL SIGNAL IF WE NEED TO REMOVE INTERVALS THAT CONTAIN NOISE
 
-            // holds standard deviation for the complete file
-            double std = 0.0F;
-            // holds mean for the complete file
-            double mean = 0.0F;
             // holds index of first interval sample
             drwav_uint64 start;
-            // index of the currently processed event
-            int processedEventIndex = 0;
             // min and max values of the computed intervals that will be used
             // for normalization after all computations by channels
             for (int i = 0; i < channelCount; i++) {
@@ -82,71 +86,81 @@ namespace backyardbrains {
             // if intervals that contain noise need to be removed we should find standard deviation and mean
             // of the complete file because none of the samples in the processed batches should go above or below
             // mean + 2.5 STDs
-            if (removeNoiseIntervals) findStdAndMean(wavPtr, std, mean);
+            if (removeNoiseIntervals) findStdAndMean(wavPtr, mappedSamples);
+            drwav_close(wavPtr);
 
             // 2. FIND ALL INTERVALS SURROUNDING THE EVENTS NEEDED TO BE PROCESSED
             // AND SUM THEM BY INDEX SO WE CAN AVERAGE LATER
 
-            // holds the sums of samples by processed events and channels from all intervals by their respectful index
-            auto ***sums = new float **[processedEventCount];
-            for (int i = 0; i < processedEventCount; i++) {
-                sums[i] = new float *[channelCount];
-                for (int j = 0; j < channelCount; j++) {
-                    sums[i][j] = new float[frameCount]{0};
-                }
-            }
-            // holds event counts per processed event
-            auto *eventCounts = new int[processedEventCount]{0};
-
             // calculate approx. number of events (we can have max 5 events/s)
-            int maxEventCount = static_cast<const int>(totalSamples / (sampleRate * channelCount * 0.2F));
+            int maxEventCount = static_cast<int>(totalSamples / (sampleRate * channelCount * 0.2F));
             auto *eventTimes = new float[maxEventCount];
             auto *eventNames = new std::string[maxEventCount];
             int eventCount = 0;
             // get events from the events file
             backyardbrains::utils::EventUtils::parseEvents(eventsFilePath, eventTimes, eventNames, eventCount);
 
-            // loop through all the events and collect sample intervals surrounding those events
+            // collect start indices of the intervals surrounding the events by processed event
+            std::vector<std::vector<drwav_uint64>> intervalStarts(static_cast<size_t>(processedEventCount));
+            int intervalCount = 0;
             for (int i = 0; i < eventCount; i++) {
-                bool shouldProcess = false;
+                int processedEventIndex = -1;
                 for (int j = 0; j < processedEventCount; j++) {
-                    if (processedEvents[j] == eventNames[i]) { // current event should be processed
-                        shouldProcess = true;
-                        processedEventIndex = j;
-                    }
+                    if (processedEvents[j] == eventNames[i]) processedEventIndex = j;
                 }
-                if (!shouldProcess) continue; // if we don't have to process current event move to next
+                if (processedEventIndex < 0) continue; // if we don't have to process current event move to next
 
                 auto sampleIndex = static_cast<drwav_uint64>(eventTimes[i] * sampleRate * channelCount);
                 // validate whether we can construct the interval for the sample with specified sampleIndex
-                bool isValid = validateIntervalBounds(start, sampleIndex);
-                if (!isValid) continue;
-
-                bool added = addInterval(wavPtr, sums[processedEventIndex], start, bufferSize, removeNoiseIntervals,
-                                         std, mean);
+                if (!validateIntervalBounds(start, sampleIndex)) continue;
 
-                if (added) eventCounts[processedEventIndex]++;
+                intervalStarts[processedEventIndex].push_back(start);
+                intervalCount++;
             }
+            delete[] eventTimes;
+            delete[] eventNames;
+
+            // holds the sums of samples by processed events and channels from all intervals by their respectful index
+            std::vector<float> sums(static_cast<size_t>(processedEventCount * intervalLength), 0.0f);
+            // holds event counts per processed event
+            std::vector<int> eventCounts(static_cast<size_t>(processedEventCount), 0);
+
+            // collecting intervals is the first half of the progress if confidence intervals need to be computed
+            const float eventsProgress = confidenceIntervalsEvent != nullptr ? .5f : 1.0f;
+            std::atomic<int> collectedIntervalCount{0};
+            backyardbrains::utils::WorkerPool pool;
+            // every processed event is summed on its own thread, reading its intervals from start to end of the file
+            pool.run(processedEventCount, [&](int event) {
+                std::vector<drwav_uint64> &starts = intervalStarts[event];
+                if (starts.empty()) return;
+
+                std::sort(starts.begin(), starts.end());
+                WindowReader reader(signalFilePath, mappedSamples, bufferSize);
+                float *eventSums = sums.data() + event * intervalLength;
+                for (drwav_uint64 intervalStart : starts) {
+                    if (AnalysisToken::isCancelled(token)) return;
+                    AnalysisToken::setProgress(token, eventsProgress * collectedIntervalCount++ / intervalCount);
+
+                    const drwav_int16 *samples = reader.read(intervalStart);
+                    // check for noise and skip this interval if necessary
+                    if (samples == nullptr || (removeNoiseIntervals && isNoisy(samples))) continue;
+
+                    addInterval(eventSums, samples);
+                    eventCounts[event]++;
+                }
+            });
 
             // 3. AVERAGE THE SUMS
 
             // calculate means for every processed event
             for (int i = 0; i < processedEventCount; i++) {
-                averageInterval(averages[i], sums[i], eventCounts[i], min, max);
+                averageInterval(averages[i], sums.data() + i * intervalLength, eventCounts[i], min, max);
             }
 
             // 4. COMPUTE CONFIDENCE INTERVALS IF NECESSARY
 
-            // holds the sums of samples by processed events and channels from all intervals by their respectful index
-            auto ***confidenceIntervalsAverages = new float **[CONFIDENCE_INTERVALS_COMPUTATION_REPETITION];
-            for (int i = 0; i < CONFIDENCE_INTERVALS_COMPUTATION_REPETITION; i++) {
-                confidenceIntervalsAverages[i] = new float *[channelCount];
-                for (int j = 0; j < channelCount; j++) {
-                    confidenceIntervalsAverages[i][j] = new float[frameCount]{0};
-                }
-            }
-            if (confidenceIntervalsEvent != nullptr) {
-                processedEventIndex = -1;
+            if (confidenceIntervalsEvent != nullptr && !AnalysisToken::isCancelled(token)) {
+                int processedEventIndex = -1;
                 for (int i = 0; i < processedEventCount; i++) {
                     // find the index of the event we need to compute the confidence intervals for
                     if (processedEvents[i] == confidenceIntervalsEvent) {
@@ -155,44 +169,30 @@ namespace backyardbrains {
                     }
                 }
                 if (processedEventIndex > 0 && eventCounts[processedEventIndex] > 0) {
-                    // fields responsible for selecting a random sample
-                    std::random_device rd;
-                    std::mt19937 mt(rd());
-                    std::uniform_int_distribution<drwav_uint64> dist(0, totalSamples);
-                    // counts intervals of averages
-                    int counter;
                     // total number of needed average intervals per computation repetition
-                    int total = eventCounts[processedEventIndex];
-                    // counts repetitions
-                    int avgRepetitionCounter = 0;
-                    float *mcMin = new float[2];
-                    float *mcMax = new float[2];
-                    while (avgRepetitionCounter < CONFIDENCE_INTERVALS_COMPUTATION_REPETITION) {
-                        counter = 0;
-                        for (int i = 0; i < channelCount; i++) {
-                            std::fill(sums[0][i], sums[0][i] + frameCount, 0);
-                        }
-                        while (counter < total) {
-                            auto sampleIndex = static_cast<drwav_uint64>(dist(mt));
-
-                            // validate whether we can construct the interval for the sample with specified sampleIndex
-                            bool isValid = validateIntervalBounds(start, sampleIndex);
-                            if (!isValid) continue;
-
-                            bool added = addInterval(wavPtr, sums[0], start, bufferSize, removeNoiseIntervals, std,
-                                                     mean);
-                            if (added) counter++;
-                        }
-
-                        averageInterval(confidenceIntervalsAverages[avgRepetitionCounter], sums[0], total, mcMin,
-                                        mcMax);
-
-                        avgRepetitionCounter++;
-                    }
+                    const int total = eventCounts[processedEventIndex];
+                    // holds averages of all the computation repetitions
+                    std::vector<float> mcAverages(
+                            static_cast<size_t>(CONFIDENCE_INTERVALS_COMPUTATION_REPETITION * intervalLength));
+                    // repetitions are split evenly between the threads and every thread draws its own random samples
+                    const int taskCount = std::min(pool.getThreadCount(),
+                                                   static_cast<int>(CONFIDENCE_INTERVALS_COMPUTATION_REPETITION));
+                    std::random_device rd;
+                    std::vector<std::random_device::result_type> seeds(static_cast<size_t>(taskCount));
+                    for (auto &seed : seeds) seed = rd();
+                    std::atomic<int> repetitionCount{0};
+                    pool.run(taskCount, [&](int task) {
+                        std::mt19937 mt(seeds[task]);
+                        WindowReader reader(signalFilePath, mappedSamples, bufferSize);
+                        collectMonteCarloAverages(reader, mt, total,
+                                                  task * CONFIDENCE_INTERVALS_COMPUTATION_REPETITION / taskCount,
+                                                  (task + 1) * CONFIDENCE_INTERVALS_COMPUTATION_REPETITION / taskCount,
+                                                  removeNoiseIntervals, mcAverages.data(), repetitionCount, token);
+                    });
 
                     // 5. COMPUTE STANDARD DEVIATIONS FOR ALL COLLECTED MONTE CARLO INTERVALS
 
-                    auto *tmp = new float[CONFIDENCE_INTERVALS_COMPUTATION_REPETITION];
+                    std::vector<float> tmp(CONFIDENCE_INTERVALS_COMPUTATION_REPETITION);
                     float tmpSum;
                     float tmpStd;
                     float tmpMean;
@@ -202,13 +202,13 @@ namespace backyardbrains {
                         for (int k = 0; k < frameCount; k++) {
                             tmpSum = 0;
                             for (int i = 0; i < CONFIDENCE_INTERVALS_COMPUTATION_REPETITION; i++) {
-                                tmp[i] = confidenceIntervalsAverages[i][j][k];
+                                tmp[i] = mcAverages[i * intervalLength + j * frameCount + k];
                                 tmpSum += tmp[i];
                             }
 
                             tmpMean = tmpSum / CONFIDENCE_INTERVALS_COMPUTATION_REPETITION;
-                            tmpStd = backyardbrains::utils::AnalysisUtils::SD(tmp,
-                                                                              CONFIDENCE_INTERVALS_COMPUTATION_REPETITION);
+                            tmpStd = backyardbrains::utils::AnalysisUtils::SD(
+                                    tmp.data(), CONFIDENCE_INTERVALS_COMPUTATION_REPETITION);
                             tmpTop = tmpMean + tmpStd * SIGNAL_STD_MULTIPLYER;
                             tmpBottom = tmpMean - tmpStd * SIGNAL_STD_MULTIPLYER;
 
@@ -219,7 +219,6 @@ namespace backyardbrains {
                             if (tmpBottom < min[j]) min[j] = tmpBottom;
                             if (tmpTop > max[j]) max[j] = tmpTop;
                         }
-                        delete[] tmp;
                     }
 
                     // map all averages, top and bottom MC intervals between -1 and 1
@@ -242,23 +241,8 @@ namespace backyardbrains {
                 }
             }
 
-            delete[] eventTimes;
-            delete[] eventNames;
-            for (int i = 0; i < processedEventCount; i++) {
-                for (int j = 0; j < channelCount; j++) {
-                    delete[] sums[i][j];
-                }
-                delete[] sums[i];
-            }
-            delete[] sums;
-            delete[] eventCounts;
-            for (int i = 0; i < CONFIDENCE_INTERVALS_COMPUTATION_REPETITION; i++) {
-                for (int j = 0; j < channelCount; j++) {
-                    delete[] confidenceIntervalsAverages[i][j];
-                }
-                delete[] confidenceIntervalsAverages[i];
-            }
-            delete[] confidenceIntervalsAverages;
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "%d intervals averaged in %lld ms", intervalCount,
+                                currentTimeInMilliseconds() - milliseconds);
         }
 
         bool EventTriggeredAverageAnalysis::validateIntervalBounds(drwav_uint64 &start, drwav_uint64 sampleIndex) {
@@ -271,78 +255,39 @@ namespace backyardbrains {
             return end <= totalSamples; // discard event if we can't fill batch on the right
         }
 
-        bool EventTriggeredAverageAnalysis::addInterval(drwav *wavPtr, float **sums, drwav_uint64 start,
-                                                        drwav_uint64 size, bool checkNoise, double std,
-                                                        double mean) {
-            const drwav_uint16 channelCount = wavPtr->channels;
-            int sampleCount = static_cast<int>(size);
-            int frameCount = sampleCount / channelCount;
-
-            // holds batch of currently processed samples
-            auto *samples = new drwav_int16[size];
-            // holds deinterleaved samples of the currently processed batch
-            auto **deinterleavedSamples = new drwav_int16 *[channelCount];
-            for (int i = 0; i < channelCount; i++) {
-                deinterleavedSamples[i] = new drwav_int16[frameCount]{0};
+        bool EventTriggeredAverageAnalysis::isNoisy(const drwav_int16 *samples) {
+            // normalization preserves the order of the samples so it's enough to check the lowest and the highest one
+            drwav_int16 lowest = samples[0];
+            drwav_int16 highest = samples[0];
+            for (int i = 1; i < sampleCount; i++) {
+                if (samples[i] < lowest) lowest = samples[i];
+                if (samples[i] > highest) highest = samples[i];
             }
+            auto shrtMax = (float) SHRT_MAX;
+            float normalizedLowest = lowest / shrtMax;
+            float normalizedHighest = highest / shrtMax;
+            return normalizedLowest < signalMean - signalStd * NOISE_DETECTION_STD_THRESHOLD ||
+                   normalizedHighest > signalMean + signalStd * NOISE_DETECTION_STD_THRESHOLD;
+        }
 
-            bool added = true;
-
-            // number of read samples in single read loop
-            drwav_uint64 read;
-            int i;
-            int j;
-            if (drwav_seek_to_sample(wavPtr, start)) { // seek to the batch start
-                read = drwav_read_s16(wavPtr, size, samples); // read the whole batch
-                if (read == size) {
-                    // check for noise and skip this batch if necessary
-                    if (checkNoise) {
-                        auto *normalized = new float[sampleCount]{0};
-                        backyardbrains::utils::SignalUtils::normalizeSignalToFloat(normalized, samples,
-                                                                                   sampleCount);
-                        for (i = 0; i < sampleCount; i++) {
-                            if (normalized[i] < mean - std * NOISE_DETECTION_STD_THRESHOLD ||
-                                normalized[i] > mean + std * NOISE_DETECTION_STD_THRESHOLD) {
-                                added = false;
-                            }
-                        }
-                        delete[] normalized;
-                    }
-
-                    if (added) {
-                        // we didn't skip this batch add it to the sums
-                        backyardbrains::utils::SignalUtils::deinterleaveSignal(deinterleavedSamples, samples,
-                                                                               sampleCount,
-                                                                               channelCount);
-                        for (i = 0; i < channelCount; i++) {
-                            auto *normalized = new float[frameCount]{0};
-                            backyardbrains::utils::SignalUtils::normalizeSignalToFloat(normalized,
-                                                                                       deinterleavedSamples[i],
-                                                                                       frameCount);
-                            for (j = 0; j < frameCount; j++) {
-                                sums[i][j] += normalized[j];
-                            }
-                            delete[] normalized;
-                        }
-                    }
-                } else added = false;
-            } else added = false;
-
-            delete[] samples;
-            for (i = 0; i < channelCount; i++) {
-                delete[] deinterleavedSamples[i];
+        void EventTriggeredAverageAnalysis::addInterval(float *sums, const drwav_int16 *samples) {
+            auto shrtMax = (float) SHRT_MAX;
+            for (int i = 0; i < channelCount; i++) {
+                float *channelSums = sums + i * frameCount;
+                const drwav_int16 *sample = samples + i;
+                for (int j = 0; j < frameCount; j++, sample += channelCount) {
+                    channelSums[j] += *sample / shrtMax;
+                }
             }
-            delete[] deinterleavedSamples;
-
-            return added;
         }
 
-        void EventTriggeredAverageAnalysis::averageInterval(float **averages, float **sums, int divider, float *min,
-                                                            float *max) {
+        void EventTriggeredAverageAnalysis::averageInterval(float **averages, const float *sums, int divider,
+                                                            float *min, float *max) {
             for (int i = 0; i < channelCount; i++) {
                 if (divider > 0) {
+                    const float *channelSums = sums + i * frameCount;
                     for (int j = 0; j < frameCount; j++) {
-                        averages[i][j] = sums[i][j] / divider;
+                        averages[i][j] = channelSums[j] / divider;
                         if (averages[i][j] > max[i]) max[i] = averages[i][j];
                         if (averages[i][j] < min[i]) min[i] = averages[i][j];
                     }
@@ -350,49 +295,132 @@ namespace backyardbrains {
             }
         }
 
-        void
-        EventTriggeredAverageAnalysis::findStdAndMean(drwav *wavPtr, double &std, double &mean) {
-            // determine sample batch size
-            auto batchSize = static_cast<drwav_uint64>(ceil(
-                    totalSamples / backyardbrains::utils::AnalysisUtils::BIN_COUNT));
-            // max size of the currently processed sample batch
-            auto maxBatchSize = static_cast<drwav_uint64>(ceil(
-                    (sampleRate * backyardbrains::utils::AnalysisUtils::BUFFER_SIZE_IN_SECS) / channelCount));
-            if (batchSize > maxBatchSize) batchSize = maxBatchSize;
-            // holds batch of currently processed samples
-            auto *samples = new drwav_int16[batchSize];
-            // cast batch size to avoid multiple casting
-            int sampleCount = static_cast<int>(batchSize);
-            // number of read samples in single read loop
-            drwav_uint64 read;
-            // used for calculation of std and mean
-            double squares = 0.0F;
-            double number;
+        void EventTriggeredAverageAnalysis::collectMonteCarloAverages(WindowReader &reader, std::mt19937 &mt,
+                                                                      int total, int first, int last,
+                                                                      bool removeNoiseIntervals, float *mcAverages,
+                                                                      std::atomic<int> &repetitionCount,
+                                                                      AnalysisToken *token) {
+            const int intervalLength = channelCount * frameCount;
+            // fields responsible for selecting a random sample
+            std::uniform_int_distribution<drwav_uint64> dist(0, totalSamples);
+            // holds the sums of the currently processed repetition
+            std::vector<float> sums(static_cast<size_t>(intervalLength));
+            // holds start indices of the randomly selected intervals
+            std::vector<drwav_uint64> starts;
+            starts.reserve(static_cast<size_t>(total));
+            drwav_uint64 start;
+            for (int i = first; i < last && !AnalysisToken::isCancelled(token); i++) {
+                std::fill(sums.begin(), sums.end(), 0.0f);
+                // counts intervals of averages
+                int counter = 0;
+                while (counter < total && !AnalysisToken::isCancelled(token)) {
+                    // select all the missing intervals at once so they can be read from start to end of the file
+                    starts.clear();
+                    while (static_cast<int>(starts.size()) < total - counter) {
+                        // validate whether we can construct the interval for the randomly selected sample
+                        if (validateIntervalBounds(start, dist(mt))) starts.push_back(start);
+                    }
+                    std::sort(starts.begin(), starts.end());
+
+                    for (drwav_uint64 intervalStart : starts) {
+                        const drwav_int16 *samples = reader.read(intervalStart);
+                        if (samples == nullptr || (removeNoiseIntervals && isNoisy(samples))) continue;
+
+                        addInterval(sums.data(), samples);
+                        counter++;
+                    }
+                }
 
-            // run through file and find standard deviation
-            while ((read = drwav_read_s16(wavPtr, batchSize, samples)) > 0) {
-                if (batchSize != read) sampleCount = static_cast<int>(read);
+                float *averages = mcAverages + i * intervalLength;
+                for (int j = 0; j < intervalLength; j++) averages[j] = sums[j] / total;
 
-                auto *normalized = new float[sampleCount];
-                // divide all samples with SHRT_MAX so we get values between -1.0 and 1.0
-                backyardbrains::utils::SignalUtils::normalizeSignalToFloat(normalized, samples, sampleCount);
+                AnalysisToken::setProgress(token, .5f + .5f * ++repetitionCount /
+                                                          CONFIDENCE_INTERVALS_COMPUTATION_REPETITION);
+            }
+        }
 
-                for (int i = 0; i < sampleCount; i++) {
-                    number = normalized[i];
-                    mean += number;
+        void EventTriggeredAverageAnalysis::findStdAndMean(drwav *wavPtr, const drwav_int16 *mappedSamples) {
+            // used for calculation of std and mean
+            double squares = 0.0F;
+            double number;
+            auto shrtMax = (float) SHRT_MAX;
+
+            if (mappedSamples != nullptr) {
+                // run through the memory-mapped file and find standard deviation
+                for (drwav_uint64 i = 0; i < totalSamples; i++) {
+                    // divide all samples with SHRT_MAX so we get values between -1.0 and 1.0
+                    number = mappedSamples[i] / shrtMax;
+                    signalMean += number;
                     squares += number * number;
                 }
-
-                delete[] normalized;
+            } else {
+                // determine sample batch size
+                auto batchSize = static_cast<drwav_uint64>(ceil(
+                        totalSamples / backyardbrains::utils::AnalysisUtils::BIN_COUNT));
+                // max size of the currently processed sample batch
+                auto maxBatchSize = static_cast<drwav_uint64>(ceil(
+                        (sampleRate * backyardbrains::utils::AnalysisUtils::BUFFER_SIZE_IN_SECS) / channelCount));
+                if (batchSize > maxBatchSize) batchSize = maxBatchSize;
+                // holds batch of currently processed samples
+                std::vector<drwav_int16> samples(batchSize);
+                // number of read samples in single read loop
+                drwav_uint64 read;
+
+                // run through file and find standard deviation
+                while ((read = drwav_read_s16(wavPtr, batchSize, samples.data())) > 0) {
+                    for (drwav_uint64 i = 0; i < read; i++) {
+                        // divide all samples with SHRT_MAX so we get values between -1.0 and 1.0
+                        number = samples[i] / shrtMax;
+                        signalMean += number;
+                        squares += number * number;
+                    }
+                }
             }
 
             // save standard deviation and mean for the complete file
-            mean /= totalSamples;
+            signalMean /= totalSamples;
             squares /= totalSamples;
-            std = sqrt(squares - mean * mean);
+            signalStd = sqrt(squares - signalMean * signalMean);
+        }
+
+        EventTriggeredAverageAnalysis::WindowReader::WindowReader(const char *filePath,
+                                                                  const drwav_int16 *mappedSamples,
+                                                                  drwav_uint64 windowSize)
+                : mappedSamples(mappedSamples), windowSize(windowSize) {
+            if (mappedSamples != nullptr) return;
+
+            wavPtr = drwav_open_file(filePath);
+            buffer.resize(static_cast<size_t>(std::max(static_cast<drwav_uint64>(CHUNK_SAMPLE_COUNT), windowSize)));
+        }
+
+        EventTriggeredAverageAnalysis::WindowReader::~WindowReader() {
+            if (wavPtr != nullptr) drwav_close(wavPtr);
+        }
+
+        const drwav_int16 *EventTriggeredAverageAnalysis::WindowReader::read(drwav_uint64 start) {
+            if (mappedSamples != nullptr) return mappedSamples + start;
+            if (wavPtr == nullptr) return nullptr;
+
+            const drwav_uint64 end = start + windowSize;
+            if (start < bufferStart || end > bufferEnd) {
+                drwav_uint64 kept = 0;
+                if (start >= bufferStart && start < bufferEnd) {
+                    // keep samples we still need and append new ones
+                    kept = bufferEnd - start;
+                    memmove(buffer.data(), buffer.data() + (start - bufferStart),
+                            static_cast<size_t>(kept) * sizeof(drwav_int16));
+                } else if (start != bufferEnd && !drwav_seek_to_sample(wavPtr, start)) {
+                    // position is unknown so we'll need to seek next time
+                    bufferStart = bufferEnd = std::numeric_limits<drwav_uint64>::max();
+                    return nullptr;
+                }
+                const drwav_uint64 read = drwav_read_s16(wavPtr, buffer.size() - kept, buffer.data() + kept);
+                bufferStart = start;
+                bufferEnd = start + kept + read;
+                if (end > bufferEnd) return nullptr;
+            }
 
-            // release resources
-            delete[] samples;
+            return buffer.data() + (start - bufferStart);
         }
     }
-}
\ No newline at end of file
+}
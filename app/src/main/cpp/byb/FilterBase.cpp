@@ -37,6 +37,10 @@ namespace backyardbrains {
             coefficients[4] = a2;
         }
 
+        const float *FilterBase::getCoefficients() const {
+            return coefficients;
+        }
+
 //
 // Filter integer data buffer
 //
@@ -0,0 +1,153 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "FilterCascade.h"
+
+#include <algorithm>
+#include <chrono>
+
+namespace backyardbrains {
+
+    namespace filters {
+
+        // Out-of-class definition is needed because the constant is passed to std::min by reference
+        constexpr int FilterCascade::MAX_SECTION_COUNT;
+
+        // Converts filtered sample back to short the same way FilterBase does, but saturates instead of wrapping
+        static inline int16_t toShort(float sample) {
+            return static_cast<int16_t>(std::max(-32768.0f, std::min(32767.0f, sample)));
+        }
+
+        void FilterCascade::setChannelCount(int channelCount) {
+            FilterCascade::channelCount = std::max(0, channelCount);
+            states.assign(static_cast<size_t>(FilterCascade::channelCount) * MAX_SECTION_COUNT, State{});
+        }
+
+        void FilterCascade::setSections(const float (*coefficients)[5], int sectionCount) {
+            FilterCascade::sectionCount = std::max(0, std::min(sectionCount, MAX_SECTION_COUNT));
+            for (int i = 0; i < FilterCascade::sectionCount; i++) {
+                sections[i] = {coefficients[i][0], coefficients[i][1], coefficients[i][2], coefficients[i][3],
+                               coefficients[i][4]};
+            }
+            reset();
+        }
+
+        int FilterCascade::getSectionCount() const {
+            return sectionCount;
+        }
+
+        void FilterCascade::reset() {
+            std::fill(states.begin(), states.end(), State{});
+        }
+
+        void FilterCascade::filter(int channel, int16_t *data, int32_t sampleCount) {
+            if (sectionCount == 0 || channel < 0 || channel >= channelCount || sampleCount <= 0) return;
+
+            State *channelStates = &states[static_cast<size_t>(channel) * MAX_SECTION_COUNT];
+            // the most common cascades are unrolled so the state stays in registers
+            switch (sectionCount) {
+                case 1:
+                    filter<1>(sections, channelStates, data, sampleCount);
+                    break;
+                case 2:
+                    filter<2>(sections, channelStates, data, sampleCount);
+                    break;
+                case 3:
+                    filter<3>(sections, channelStates, data, sampleCount);
+                    break;
+                default:
+                    filter(sections, sectionCount, channelStates, data, sampleCount);
+                    break;
+            }
+        }
+
+        void FilterCascade::filter(int16_t **data, const int32_t *sampleCounts, int channelCount,
+                                   backyardbrains::utils::WorkerPool *pool) {
+            if (sectionCount == 0) return;
+
+            channelCount = std::min(channelCount, FilterCascade::channelCount);
+            if (pool != nullptr && channelCount > 1) {
+                // every channel has its own state so channels are independent
+                pool->run(channelCount, [this, data, sampleCounts](int channel) {
+                    filter(channel, data[channel], sampleCounts[channel]);
+                });
+            } else {
+                for (int i = 0; i < channelCount; i++) filter(i, data[i], sampleCounts[i]);
+            }
+        }
+
+        float FilterCascade::measureLoad(const float (*coefficients)[5], int sectionCount, float sampleRate,
+                                         int channelCount) {
+            if (sectionCount <= 0 || sampleRate <= 0 || channelCount <= 0) return 0.0f;
+
+            FilterCascade cascade;
+            cascade.setChannelCount(channelCount);
+            cascade.setSections(coefficients, sectionCount);
+
+            // 100 ms of white noise
+            const auto frameCount = std::max(1, static_cast<int>(sampleRate / 10));
+            std::vector<int16_t> samples(static_cast<size_t>(frameCount));
+            uint32_t seed = 42;
+            std::chrono::nanoseconds elapsed(0);
+            for (int i = 0; i < channelCount; i++) {
+                for (auto &sample : samples) {
+                    seed = seed * 1664525u + 1013904223u;
+                    sample = static_cast<int16_t>(seed >> 16);
+                }
+                const auto start = std::chrono::steady_clock::now();
+                cascade.filter(i, samples.data(), frameCount);
+                elapsed += std::chrono::steady_clock::now() - start;
+            }
+
+            return static_cast<float>(elapsed.count()) * sampleRate / (frameCount * 1e9f);
+        }
+
+        template<int N>
+        void FilterCascade::filter(const Section *sections, State *states, int16_t *data, int32_t sampleCount) {
+            Section s[N];
+            float x1[N], x2[N], y1[N], y2[N];
+            for (int k = 0; k < N; k++) {
+                s[k] = sections[k];
+                x1[k] = states[k].x1;
+                x2[k] = states[k].x2;
+                y1[k] = states[k].y1;
+                y2[k] = states[k].y2;
+            }
+
+            for (int32_t i = 0; i < sampleCount; i++) {
+                float x = data[i];
+                for (int k = 0; k < N; k++) {
+                    // same order of operations as FilterBase::filterContiguousData
+                    const float y = x * s[k].b0 + x1[k] * s[k].b1 + x2[k] * s[k].b2 - y1[k] * s[k].a1 - y2[k] * s[k].a2;
+                    x2[k] = x1[k];
+                    x1[k] = x;
+                    y2[k] = y1[k];
+                    y1[k] = y;
+                    x = y;
+                }
+                data[i] = toShort(x);
+            }
+
+            for (int k = 0; k < N; k++) states[k] = {x1[k], x2[k], y1[k], y2[k]};
+        }
+
+        void FilterCascade::filter(const Section *sections, int sectionCount, State *states, int16_t *data,
+                                   int32_t sampleCount) {
+            for (int32_t i = 0; i < sampleCount; i++) {
+                float x = data[i];
+                for (int k = 0; k < sectionCount; k++) {
+                    const Section &s = sections[k];
+                    State &st = states[k];
+                    const float y = x * s.b0 + st.x1 * s.b1 + st.x2 * s.b2 - st.y1 * s.a1 - st.y2 * s.a2;
+                    st.x2 = st.x1;
+                    st.x1 = x;
+                    st.y2 = st.y1;
+                    st.y1 = y;
+                    x = y;
+                }
+                data[i] = toShort(x);
+            }
+        }
+    }
+}
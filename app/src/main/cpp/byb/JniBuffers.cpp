@@ -0,0 +1,35 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "JniBuffers.h"
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        std::atomic<long long> JniCounters::copiedByteCount(0);
+        std::atomic<long long> JniCounters::allocationCount(0);
+
+        void JniCounters::countCopiedBytes(long long byteCount) {
+            copiedByteCount.fetch_add(byteCount, std::memory_order_relaxed);
+        }
+
+        void JniCounters::countAllocations(int allocationCount) {
+            if (allocationCount > 0) JniCounters::allocationCount.fetch_add(allocationCount, std::memory_order_relaxed);
+        }
+
+        long long JniCounters::getCopiedByteCount() {
+            return copiedByteCount.load(std::memory_order_relaxed);
+        }
+
+        long long JniCounters::getAllocationCount() {
+            return allocationCount.load(std::memory_order_relaxed);
+        }
+
+        void JniCounters::reset() {
+            copiedByteCount.store(0, std::memory_order_relaxed);
+            allocationCount.store(0, std::memory_order_relaxed);
+        }
+    }
+}
@@ -4,6 +4,8 @@
 
 #include <Processor.h>
 
+#include <algorithm>
+
 namespace backyardbrains {
 
     namespace processing {
@@ -14,19 +16,23 @@ namespace backyardbrains {
             Processor::bitsPerSample = bitsPerSample;
 
             createFilters(0, channelCount);
-
-            initialized = true;
         }
 
-        Processor::~Processor() = default;
+        Processor::~Processor() {
+            delete pendingCascade;
+        }
 
         float Processor::getSampleRate() {
             return sampleRate;
         }
 
         void Processor::setSampleRate(float sampleRate) {
-            if (initialized) deleteFilters(channelCount);
             Processor::sampleRate = sampleRate;
+            {
+                // chain was designed for the previous sample rate
+                std::lock_guard<std::mutex> lock(cascadeMutex);
+                chainCoefficients.clear();
+            }
 
             createFilters(sampleRate, channelCount);
         }
@@ -36,7 +42,6 @@ namespace backyardbrains {
         }
 
         void Processor::setChannelCount(int channelCount) {
-            if (initialized) deleteFilters(Processor::channelCount);
             Processor::channelCount = channelCount;
 
             createFilters(Processor::sampleRate, channelCount);
@@ -47,7 +52,6 @@ namespace backyardbrains {
         }
 
         void Processor::setBitsPerSample(int bitsPerSample) {
-            if (initialized) deleteFilters(Processor::channelCount);
             Processor::bitsPerSample = bitsPerSample;
 
             createFilters(Processor::sampleRate, channelCount);
@@ -65,17 +69,20 @@ namespace backyardbrains {
             __android_log_print(ANDROID_LOG_DEBUG, typeid(*this).name(), "SAMPLE RATE: %1f, CHANNEL COUNT: %1d",
                                 sampleRate, channelCount);
 
-            if (initialized) deleteFilters(Processor::channelCount);
             Processor::channelCount = channelCount;
 
             createFilters(Processor::sampleRate, channelCount);
         }
 
         void Processor::applyFilters(int channel, short *data, int sampleCount) {
-            if (lowPassFilteringEnabled) lowPassFilter[channel]->filter(data, sampleCount);
-            if (highPassFilteringEnabled) highPassFilter[channel]->filter(data, sampleCount);
-            if (notchFilteringEnabled) notchFilter[channel]->filter(data, sampleCount);
+            // channels of the same batch need to be filtered by the same cascade
+            if (channel == 0) swapCascade();
+            if (activeCascade) activeCascade->filter(channel, data, sampleCount);
+        }
 
+        void Processor::applyFilters(short **data, int *sampleCounts, int channelCount) {
+            swapCascade();
+            if (activeCascade) activeCascade->filter(data, sampleCounts, channelCount, filterPool.get());
         }
 
         void Processor::setBandFilter(float lowCutOffFreq, float highCutOffFreq) {
@@ -85,7 +92,6 @@ namespace backyardbrains {
             Processor::lowCutOff = lowCutOffFreq;
             Processor::highCutOff = highCutOffFreq;
 
-            if (initialized) deleteFilters(channelCount);
             createFilters(Processor::sampleRate, channelCount);
         }
 
@@ -94,44 +100,97 @@ namespace backyardbrains {
 
             Processor::centerFrequency = centerFreq;
 
-            if (initialized) deleteFilters(channelCount);
             createFilters(Processor::sampleRate, channelCount);
         }
 
-        void Processor::createFilters(float sampleRate, int channelCount) {
-            lowPassFilter = new LowPassFilterPtr[channelCount];
-            highPassFilter = new HighPassFilterPtr[channelCount];
-            notchFilter = new NotchFilterPtr[channelCount];
-            for (int i = 0; i < channelCount; i++) {
-                // low pass filters
-                lowPassFilter[i] = new LowPassFilter();
-                lowPassFilter[i]->initWithSamplingRate(sampleRate);
-                if (highCutOff > sampleRate / 2.0f) highCutOff = sampleRate / 2.0f;
-                lowPassFilter[i]->setCornerFrequency(highCutOff);
-                lowPassFilter[i]->setQ(0.5f);
-                // high pass filters
-                highPassFilter[i] = new HighPassFilter();
-                highPassFilter[i]->initWithSamplingRate(sampleRate);
-                if (lowCutOff < 0) lowCutOff = 0;
-                highPassFilter[i]->setCornerFrequency(lowCutOff);
-                highPassFilter[i]->setQ(0.5f);
-                // notch filter
-                notchFilter[i] = new NotchFilter();
-                notchFilter[i]->initWithSamplingRate(sampleRate);
-                notchFilter[i]->setCenterFrequency(centerFrequency);
-                notchFilter[i]->setQ(1.0);
+        void Processor::setFilterChain(const float *coefficients, int sectionCount) {
+            sectionCount = std::max(0, std::min(sectionCount, FilterCascade::MAX_SECTION_COUNT));
+            {
+                std::lock_guard<std::mutex> lock(cascadeMutex);
+                chainCoefficients.assign(coefficients, coefficients + sectionCount * 5);
+            }
+
+            createFilters(Processor::sampleRate, channelCount);
+        }
+
+        void Processor::setParallelFiltering(bool parallelFiltering) {
+            if (parallelFiltering && !filterPool) {
+                filterPool.reset(new backyardbrains::utils::WorkerPool());
+            } else if (!parallelFiltering) {
+                filterPool.reset();
             }
         }
 
-        void Processor::deleteFilters(int channelCount) {
-            for (int i = 0; i < channelCount; i++) {
-                delete lowPassFilter[i];
-                delete highPassFilter[i];
-                delete notchFilter[i];
+        void Processor::swapCascade() {
+            // processing thread never waits for the cascade to be created, it just picks it up with the next batch
+            std::unique_lock<std::mutex> lock(cascadeMutex, std::try_to_lock);
+            if (!lock.owns_lock() || pendingCascade == nullptr) return;
+
+            retiredCascade = std::move(activeCascade);
+            activeCascade.reset(pendingCascade);
+            pendingCascade = nullptr;
+        }
+
+        void Processor::createFilters(float sampleRate, int channelCount) {
+            // coefficients are the same for all channels, only the state of the cascade is kept per channel
+            float coefficients[3][5];
+            int sectionCount = 0;
+            // low pass filter
+            LowPassFilter lowPassFilter;
+            lowPassFilter.initWithSamplingRate(sampleRate);
+            if (highCutOff > sampleRate / 2.0f) highCutOff = sampleRate / 2.0f;
+            lowPassFilter.setCornerFrequency(highCutOff);
+            lowPassFilter.setQ(0.5f);
+            if (lowPassFilteringEnabled) {
+                std::copy(lowPassFilter.getCoefficients(), lowPassFilter.getCoefficients() + 5,
+                          coefficients[sectionCount++]);
+            }
+            // high pass filter
+            HighPassFilter highPassFilter;
+            highPassFilter.initWithSamplingRate(sampleRate);
+            if (lowCutOff < 0) lowCutOff = 0;
+            highPassFilter.setCornerFrequency(lowCutOff);
+            highPassFilter.setQ(0.5f);
+            if (highPassFilteringEnabled) {
+                std::copy(highPassFilter.getCoefficients(), highPassFilter.getCoefficients() + 5,
+                          coefficients[sectionCount++]);
+            }
+            // notch filter
+            NotchFilter notchFilter;
+            notchFilter.initWithSamplingRate(sampleRate);
+            notchFilter.setCenterFrequency(centerFrequency);
+            notchFilter.setQ(1.0);
+            if (notchFilteringEnabled) {
+                std::copy(notchFilter.getCoefficients(), notchFilter.getCoefficients() + 5,
+                          coefficients[sectionCount++]);
+            }
+
+            // chain can be changed from another thread while the cascade is created so it's copied first
+            std::vector<float> chain;
+            {
+                std::lock_guard<std::mutex> lock(cascadeMutex);
+                chain = chainCoefficients;
+            }
+
+            // cascade is created on the calling thread and picked up by the processing thread with the next batch
+            auto *cascade = new FilterCascade();
+            cascade->setChannelCount(channelCount);
+            if (!chain.empty()) {
+                // user defined chain replaces band and notch filters
+                cascade->setSections(reinterpret_cast<const float (*)[5]>(chain.data()),
+                                     static_cast<int>(chain.size() / 5));
+            } else {
+                cascade->setSections(coefficients, sectionCount);
+            }
+
+            std::unique_ptr<FilterCascade> retired;
+            {
+                std::lock_guard<std::mutex> lock(cascadeMutex);
+                // cascade that's been replaced, or the one that's never been picked up, is deleted on this thread
+                retired = std::move(retiredCascade);
+                delete pendingCascade;
+                pendingCascade = cascade;
             }
-            delete[] lowPassFilter;
-            delete[] highPassFilter;
-            delete[] notchFilter;
         }
     }
 }
\ No newline at end of file
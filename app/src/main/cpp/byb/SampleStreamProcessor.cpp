@@ -30,7 +30,8 @@ namespace backyardbrains {
 
         void SampleStreamProcessor::process(const unsigned char *inData, const int length,
                                             short **outSamples,
-                                            int *outSampleCounts, int *outEventIndices,
+                                            int *outSampleCounts, const int outMaxSampleCount,
+                                            int *outEventIndices,
                                             std::string *outEventLabels,
                                             int &outEventCount, const int channelCount,
                                             int hardwareType) {
@@ -100,10 +101,10 @@ namespace backyardbrains {
                         continue;
                     }
 
-                    auto *sequence = new unsigned char[escapeSequenceIndex];
-                    std::copy(escapeSequence, escapeSequence + escapeSequenceIndex, sequence);
-                    for (int j = 0; j < escapeSequenceIndex; j++) {
-                        b = sequence[j];
+                    // escape sequence isn't modified while we process it so we can read it in place
+                    const int sequenceLength = escapeSequenceIndex;
+                    for (int j = 0; j < sequenceLength; j++) {
+                        b = escapeSequence[j];
                         // check if we have unfinished frame
                         if (frameStarted) {
                             // check if we have unfinished sample
@@ -205,8 +206,6 @@ namespace backyardbrains {
                         }
                     }
 
-                    delete[] sequence;
-
                     reset();
                 }
             }
@@ -215,15 +214,18 @@ namespace backyardbrains {
 //            inDataPrevLength = length;
 
             bool avoidFilteringOfChannels = stopFilteringAfterChannelIndex >= 0;
+            // apply additional filtering if necessary, all filtered channels at once
+            if (avoidFilteringOfChannels) {
+                short *filteredChannels[MAX_CHANNELS];
+                const int filteredChannelCount = std::min(channelCount, stopFilteringAfterChannelIndex + 1);
+                for (int i = 0; i < filteredChannelCount; i++) filteredChannels[i] = channels[i];
+                applyFilters(filteredChannels, sampleCounters, filteredChannelCount);
+            }
             for (int i = 0; i < channelCount; i++) {
-                // apply additional filtering if necessary
-                if (avoidFilteringOfChannels && i <= stopFilteringAfterChannelIndex) {
-                    applyFilters(i, channels[i], sampleCounters[i]);
-                }
-
-                outSamples[i] = new short[sampleCounters[i]];
-                std::copy(channels[i], channels[i] + sampleCounters[i], outSamples[i]);
-                outSampleCounts[i] = sampleCounters[i];
+                // output buffers are provided by the caller so we don't allocate on every batch
+                const int sampleCount = std::min(sampleCounters[i], outMaxSampleCount);
+                std::copy(channels[i], channels[i] + sampleCount, outSamples[i]);
+                outSampleCounts[i] = sampleCount;
             }
             std::copy(eventIndices, eventIndices + eventCounter, outEventIndices);
             std::copy(eventLabels, eventLabels + eventCounter, outEventLabels);
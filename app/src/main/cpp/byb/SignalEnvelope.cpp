@@ -0,0 +1,266 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "SignalEnvelope.h"
+
+#include <algorithm>
+#include <climits>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        // Updates min and max with specified samples, kept simple so the loop can be vectorized
+        static inline void scan(const short *data, int64_t count, short &min, short &max) {
+            short tmpMin = min, tmpMax = max;
+            for (int64_t i = 0; i < count; i++) {
+                tmpMin = std::min(tmpMin, data[i]);
+                tmpMax = std::max(tmpMax, data[i]);
+            }
+            min = tmpMin;
+            max = tmpMax;
+        }
+
+        static inline int64_t ceilDiv(int64_t a, int64_t b) {
+            return (a + b - 1) / b;
+        }
+
+        void SignalEnvelope::envelope(short **inSamples, int channelCount, int frameCount, const int *inEventIndices,
+                                      int inEventCount, int fromSample, int toSample, int drawSurfaceWidth,
+                                      int appendedFrameCount) {
+            if (appendedFrameCount < 0 || channelCount != SignalEnvelope::channelCount ||
+                streamEnd + appendedFrameCount < frameCount) {
+                // signal doesn't continue the previous one so nothing can be reused
+                reset();
+                SignalEnvelope::channelCount = channelCount;
+                samples.resize(static_cast<size_t>(channelCount));
+                blockMax.resize(static_cast<size_t>(channelCount));
+                blockMin.resize(static_cast<size_t>(channelCount));
+                streamEnd = frameCount;
+            } else {
+                streamEnd += appendedFrameCount;
+            }
+
+            // envelope of the same signal drawn to the same surface stays the same
+            const bool reusable = valid && appendedFrameCount == 0 && frameCount == SignalEnvelope::frameCount &&
+                                  fromSample == SignalEnvelope::fromSample && toSample == SignalEnvelope::toSample &&
+                                  drawSurfaceWidth == SignalEnvelope::drawSurfaceWidth;
+            SignalEnvelope::frameCount = frameCount;
+            SignalEnvelope::fromSample = fromSample;
+            SignalEnvelope::toSample = toSample;
+            SignalEnvelope::drawSurfaceWidth = drawSurfaceWidth;
+
+            const int drawSamplesCount = toSample - fromSample;
+            if (drawSamplesCount <= 0 || drawSurfaceWidth <= 0) {
+                sampleCount = 0;
+                eventCount = 0;
+                valid = false;
+                return;
+            }
+            const int bucketSize = SignalEnvelope::bucketSize(drawSamplesCount, drawSurfaceWidth);
+            if (bucketSize == 0) {
+                // every sample is drawn as is
+                if (!reusable) {
+                    sampleCount = drawSamplesCount;
+                    for (int i = 0; i < channelCount; i++) {
+                        samples[i].assign(inSamples[i] + fromSample, inSamples[i] + toSample);
+                    }
+                }
+                envelopeEvents(inEventIndices, inEventCount);
+                valid = true;
+                return;
+            }
+
+            // every bucket is saved as max and min so it covers two pixels, first bucket also covers the first sample
+            const int bucketCount = (drawSamplesCount - 1) / bucketSize;
+            if (!reusable) {
+                sampleCount = bucketCount * 2;
+                // stream positions of the first sample of the signal and the first drawn sample
+                const int64_t base = streamEnd - frameCount;
+                const int64_t start = base + fromSample;
+                const bool useBlocks = bucketSize >= MIN_BLOCK_BUCKET_SIZE;
+                if (useBlocks) {
+                    // blocks of roughly square root of the bucket size keep both the blocks and the rest short
+                    int size = 1;
+                    while (size * size * 4 <= bucketSize) size *= 2;
+                    updateBlocks(inSamples, base, ceilDiv(start, size), (start + drawSamplesCount) / size, size);
+                }
+
+                for (int i = 0; i < channelCount; i++) {
+                    if (samples[i].size() < static_cast<size_t>(sampleCount)) samples[i].resize(sampleCount);
+                    short *out = samples[i].data();
+                    const short *in = inSamples[i];
+                    int64_t from = start;
+                    for (int j = 0; j < bucketCount; j++) {
+                        const int64_t to = start + static_cast<int64_t>(j + 1) * bucketSize + 1;
+                        short min = SHRT_MAX, max = SHRT_MIN;
+                        if (useBlocks) {
+                            minMax(in, base, i, from, to, min, max);
+                        } else {
+                            scan(in + (from - base), to - from, min, max);
+                        }
+                        out[j * 2] = max;
+                        out[j * 2 + 1] = min;
+                        from = to;
+                    }
+                }
+            }
+            envelopeEvents(inEventIndices, inEventCount);
+            valid = true;
+        }
+
+        const short *SignalEnvelope::getSamples(int channel) const {
+            return samples[channel].data();
+        }
+
+        int SignalEnvelope::getSampleCount() const {
+            return sampleCount;
+        }
+
+        const float *SignalEnvelope::getEventIndices() const {
+            return eventIndices.data();
+        }
+
+        int SignalEnvelope::getEventCount() const {
+            return eventCount;
+        }
+
+        void SignalEnvelope::reset() {
+            valid = false;
+            streamEnd = 0;
+            sampleCount = 0;
+            eventCount = 0;
+            blockSize = 0;
+            blockCapacity = 0;
+            firstBlock = 0;
+            endBlock = 0;
+        }
+
+        void SignalEnvelope::updateBlocks(short **inSamples, int64_t base, int64_t firstBlock, int64_t endBlock,
+                                          int blockSize) {
+            if (endBlock <= firstBlock) return;
+
+            const int64_t blockCount = endBlock - firstBlock;
+            if (blockSize != SignalEnvelope::blockSize || blockCount > blockCapacity) {
+                // allocates only when zoom or surface changes
+                SignalEnvelope::blockSize = blockSize;
+                blockCapacity = blockCount + blockCount / 2;
+                for (int i = 0; i < channelCount; i++) {
+                    blockMax[i].resize(static_cast<size_t>(blockCapacity));
+                    blockMin[i].resize(static_cast<size_t>(blockCapacity));
+                }
+                SignalEnvelope::firstBlock = SignalEnvelope::endBlock = firstBlock;
+            } else if (SignalEnvelope::endBlock <= firstBlock || SignalEnvelope::firstBlock >= endBlock) {
+                // none of the computed blocks are needed
+                SignalEnvelope::firstBlock = SignalEnvelope::endBlock = firstBlock;
+            }
+
+            // only blocks that haven't been computed before are computed
+            if (firstBlock < SignalEnvelope::firstBlock) {
+                computeBlocks(inSamples, base, firstBlock, SignalEnvelope::firstBlock);
+            }
+            if (SignalEnvelope::endBlock < endBlock) {
+                computeBlocks(inSamples, base, std::max(SignalEnvelope::endBlock, firstBlock), endBlock);
+            }
+            SignalEnvelope::firstBlock = firstBlock;
+            SignalEnvelope::endBlock = endBlock;
+        }
+
+        void SignalEnvelope::computeBlocks(short **inSamples, int64_t base, int64_t firstBlock, int64_t endBlock) {
+            for (int i = 0; i < channelCount; i++) {
+                const short *in = inSamples[i];
+                short *max = blockMax[i].data();
+                short *min = blockMin[i].data();
+                for (int64_t j = firstBlock; j < endBlock; j++) {
+                    const auto index = static_cast<size_t>(j % blockCapacity);
+                    min[index] = SHRT_MAX;
+                    max[index] = SHRT_MIN;
+                    scan(in + (j * blockSize - base), blockSize, min[index], max[index]);
+                }
+            }
+        }
+
+        void SignalEnvelope::minMax(const short *samples, int64_t base, int channel, int64_t from, int64_t to,
+                                    short &min, short &max) const {
+            const int64_t first = ceilDiv(from, blockSize);
+            const int64_t end = to / blockSize;
+            if (end <= first) {
+                scan(samples + (from - base), to - from, min, max);
+                return;
+            }
+
+            // samples before the first block, blocks and samples after the last block
+            scan(samples + (from - base), first * blockSize - from, min, max);
+            const short *blockMax = SignalEnvelope::blockMax[channel].data();
+            const short *blockMin = SignalEnvelope::blockMin[channel].data();
+            int64_t index = first % blockCapacity;
+            int64_t count = end - first;
+            while (count > 0) {
+                // blocks are stored in a ring so they are read in at most two runs
+                const int64_t run = std::min(count, blockCapacity - index);
+                short tmpMin = min, tmpMax = max;
+                for (int64_t i = index; i < index + run; i++) {
+                    tmpMin = std::min(tmpMin, blockMin[i]);
+                    tmpMax = std::max(tmpMax, blockMax[i]);
+                }
+                min = tmpMin;
+                max = tmpMax;
+                count -= run;
+                index = 0;
+            }
+            scan(samples + (end * blockSize - base), to - end * blockSize, min, max);
+        }
+
+        int SignalEnvelope::envelopeEvents(float *outEventIndices, const int *inEventIndices, int inEventCount,
+                                           int fromSample, int toSample, int drawSurfaceWidth) {
+            const int drawSamplesCount = toSample - fromSample;
+            if (drawSamplesCount <= 0 || drawSurfaceWidth <= 0) return 0;
+
+            // events are sorted so a single pass is enough
+            const int bucketSize = SignalEnvelope::bucketSize(drawSamplesCount, drawSurfaceWidth);
+            const int bucketCount = envelopedSampleCount(fromSample, toSample, drawSurfaceWidth) / 2;
+            int eventCount = 0;
+            for (int i = 0; i < inEventCount; i++) {
+                const int event = inEventIndices[i];
+                if (event < fromSample) continue;
+                if (event >= toSample) break;
+
+                const int offset = event - fromSample;
+                if (bucketSize == 0) {
+                    outEventIndices[eventCount++] = offset;
+                } else {
+                    // first bucket also covers the first sample
+                    const int bucket = offset == 0 ? 0 : (offset - 1) / bucketSize;
+                    // samples after the last full bucket are not drawn
+                    if (bucket >= bucketCount) break;
+                    outEventIndices[eventCount++] = bucket * 2;
+                }
+            }
+            return eventCount;
+        }
+
+        int SignalEnvelope::envelopedSampleCount(int fromSample, int toSample, int drawSurfaceWidth) {
+            const int drawSamplesCount = toSample - fromSample;
+            if (drawSamplesCount <= 0 || drawSurfaceWidth <= 0) return 0;
+
+            const int bucketSize = SignalEnvelope::bucketSize(drawSamplesCount, drawSurfaceWidth);
+            return bucketSize == 0 ? drawSamplesCount : (drawSamplesCount - 1) / bucketSize * 2;
+        }
+
+        int SignalEnvelope::bucketSize(int drawSamplesCount, int drawSurfaceWidth) {
+            if (drawSamplesCount < drawSurfaceWidth) drawSurfaceWidth = drawSamplesCount;
+
+            const int samplesPerPixel = drawSamplesCount / drawSurfaceWidth;
+            const int samplesPerPixelRest = drawSamplesCount % drawSurfaceWidth;
+            // every bucket is saved as max and min so it covers two pixels
+            return samplesPerPixel == 1 && samplesPerPixelRest == 0 ? 0 : samplesPerPixel * 2;
+        }
+
+        void SignalEnvelope::envelopeEvents(const int *inEventIndices, int inEventCount) {
+            if (eventIndices.size() < static_cast<size_t>(inEventCount)) eventIndices.resize(inEventCount);
+            eventCount = envelopeEvents(eventIndices.data(), inEventIndices, inEventCount, fromSample, toSample,
+                                        drawSurfaceWidth);
+        }
+    }
+}
@@ -20,29 +20,53 @@ namespace backyardbrains {
             return ((tv.tv_sec * 1000) + (tv.tv_usec / 1000));
         }
 
-        void
-        SpikeAnalysis::findSpikes(const char *filePath, short **outValuesPos, int **outIndicesPos, float **outTimesPos,
-                                  short **outValuesNeg, int **outIndicesNeg, float **outTimesNeg, int *outPosCounts,
-                                  int *outNegCounts) {
-            long long start = currentTimeInMilliseconds();
+        SpikeAnalysis::KillIntervalFilter::KillIntervalFilter(int channel, bool positive,
+                                                              const SpikeListener &listener) : channel(channel),
+                                                                                               positive(positive),
+                                                                                               listener(listener) {
+        }
 
-            // open audio file we need to analyze
-            drwav *wavPtr = drwav_open_file(filePath);
-            if (wavPtr == nullptr) {
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to open file: %s", filePath);
-                return;
+        bool SpikeAnalysis::KillIntervalFilter::weaker(short a, short b) const {
+            return positive ? a < b : a > b;
+        }
+
+        bool SpikeAnalysis::KillIntervalFilter::push(short value, int index, float time) {
+            bool result = true;
+            if (hasPending) {
+                // look on the right, pending spike is killed if the new one is stronger and close enough
+                if (!weaker(pendingValue, value) || (time - pendingTime) >= KILL_INTERVAL) {
+                    result = pushLeft(pendingValue, pendingIndex, pendingTime);
+                }
             }
+            hasPending = true;
+            pendingValue = value;
+            pendingIndex = index;
+            pendingTime = time;
 
-            // check whether file is long enough for processing
+            return result;
+        }
+
+        bool SpikeAnalysis::KillIntervalFilter::flush() {
+            if (!hasPending) return true;
+
+            hasPending = false;
+            return pushLeft(pendingValue, pendingIndex, pendingTime);
+        }
+
+        bool SpikeAnalysis::KillIntervalFilter::pushLeft(short value, int index, float time) {
+            // look on the left, spike is killed if the last surviving one is stronger and close enough
+            if (hasKept && weaker(value, keptValue) && (time - keptTime) < KILL_INTERVAL) return true;
+
+            hasKept = true;
+            keptValue = value;
+            keptTime = time;
+
+            return listener(channel, value, index, time);
+        }
+
+        void SpikeAnalysis::findThresholds(drwav *wavPtr, short *outSig, short *outNegSig, AnalysisToken *token) {
             drwav_uint64 totalSamples = wavPtr->totalSampleCount;
             drwav_uint16 channelCount = wavPtr->channels;
-            __android_log_print(ANDROID_LOG_DEBUG, TAG, "Audio file sample count is: %ld",
-                                static_cast<long>(totalSamples));
-            if (totalSamples < wavPtr->sampleRate * channelCount *
-                               backyardbrains::utils::AnalysisUtils::MIN_VALID_FILE_LENGTH_IN_SECS) {
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "File to short! Don't process!");
-                return;
-            }
 
             // determine buffer size
             auto bufferSize = static_cast<drwav_uint64>(ceil(
@@ -64,14 +88,16 @@ namespace backyardbrains {
             // 1. FIRST LET'S FIND STANDARD DEVIATIONS FOR EVERY CHUNK and
             int *deviationCounters = new int[channelCount]{0};
 
-            drwav_uint64 read;
+            drwav_uint64 read, totalRead = 0;
             int sampleCount = static_cast<int>(bufferSize);
             int frameCount = sampleCount / channelCount;
-            while ((read = drwav_read_s16(wavPtr, bufferSize, samples)) > 0) {
+            while (!AnalysisToken::isCancelled(token) && (read = drwav_read_s16(wavPtr, bufferSize, samples)) > 0) {
                 if (sampleCount != static_cast<int>(read)) {
                     sampleCount = static_cast<int>(read);
                     frameCount = sampleCount / channelCount;
                 }
+                totalRead += read;
+                AnalysisToken::setProgress(token, .5f * totalRead / totalSamples);
                 backyardbrains::utils::SignalUtils::deinterleaveSignal(deinterleavedSamples, samples, sampleCount,
                                                                        channelCount);
                 for (int i = 0; i < channelCount; i++) {
@@ -79,26 +105,18 @@ namespace backyardbrains {
                             deinterleavedSamples[i], frameCount);
                 }
             }
-            __android_log_print(ANDROID_LOG_DEBUG, TAG, "%ld - AFTER FINDING DEVIATIONS",
-                                static_cast<long>(currentTimeInMilliseconds() - start));
 
             // 2. SORT DEVIATIONS ASCENDING
             for (int i = 0; i < channelCount; i++) {
                 std::sort(standardDeviations[i], standardDeviations[i] + deviationCounters[i], std::greater<>());
             }
-            __android_log_print(ANDROID_LOG_DEBUG, TAG, "%ld - AFTER SORTING AND REVERSING DEVIATIONS",
-                                static_cast<long>(currentTimeInMilliseconds() - start));
-
 
             // 3. DETERMINE ACCEPTABLE SPIKE VALUES WHICH ARE VALUES GRATER THEN 40% OF SDTs MULTIPLIED BY 2
-            auto *sig = new short[channelCount]{0};
-            auto *negSig = new short[channelCount]{0};
             for (int i = 0; i < channelCount; i++) {
-                float tmpSig = 2 * standardDeviations[i][(int) ceil(deviationCounters[i] * 0.4f)];
-                sig[i] = static_cast<short>(tmpSig > SHRT_MAX ? SHRT_MAX : tmpSig);
-                float tmpNegSig = -1 * sig[i]; // we need it for negative values as well
-                negSig[i] = static_cast<short>(tmpNegSig < SHRT_MIN ? SHRT_MIN : tmpNegSig);
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "SIG: %d, NEG_SIG: %d", sig[i], negSig[i]);
+                // analysis that's been cancelled before reading anything won't use the thresholds
+                if (deviationCounters[i] == 0) continue;
+                toThresholds(standardDeviations[i][(int) ceil(deviationCounters[i] * 0.4f)], outSig[i], outNegSig[i]);
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "SIG: %d, NEG_SIG: %d", outSig[i], outNegSig[i]);
             }
 
             delete[] samples;
@@ -109,97 +127,253 @@ namespace backyardbrains {
             delete[] deinterleavedSamples;
             delete[] standardDeviations;
             delete[] deviationCounters;
+        }
+
+        void SpikeAnalysis::toThresholds(float sd, short &outSig, short &outNegSig) {
+            float tmpSig = 2 * sd;
+            outSig = static_cast<short>(tmpSig > SHRT_MAX ? SHRT_MAX : tmpSig);
+            float tmpNegSig = -1 * outSig; // we need it for negative values as well
+            outNegSig = static_cast<short>(tmpNegSig < SHRT_MIN ? SHRT_MIN : tmpNegSig);
+        }
+
+        SpikeAnalysis::SpikeDetector::SpikeDetector(int channelCount, unsigned int sampleRate,
+                                                    const SpikeListener &listener,
+                                                    backyardbrains::utils::WorkerPool *pool)
+                : channelCount(channelCount), sampleRateDivider(1.0 / sampleRate), pool(pool),
+                  triggers(static_cast<size_t>(channelCount * 2)), spikeCounters(channelCount * 2, 0),
+                  lastIndices(channelCount * 2, 0) {
+            filters.reserve(static_cast<size_t>(channelCount * 2));
+            for (int i = 0; i < channelCount; i++) {
+                filters.emplace_back(i, true, listener);
+                filters.emplace_back(i, false, listener);
+            }
+        }
 
-            // 4. FIND THE SPIKES IMPLEMENTING SCHMITT TRIGGER
-            float sampleRateDivider = (float) 1 / wavPtr->sampleRate;
+        bool SpikeAnalysis::SpikeDetector::detect(short **samples, int frameCount, const short *sig,
+                                                  const short *negSig) {
+            // split every channel and orientation into segments so there's enough work for all the workers
+            int triggerCount = channelCount * 2;
+            int segmentCount = 1;
+            if (pool != nullptr) {
+                segmentCount = (pool->getThreadCount() + triggerCount - 1) / triggerCount;
+                segmentCount = std::max(1, std::min(segmentCount, frameCount / MIN_SEGMENT_FRAME_COUNT));
+            }
+            segments.resize(static_cast<size_t>(triggerCount * segmentCount));
+            for (int t = 0; t < triggerCount; t++) {
+                for (int s = 0; s < segmentCount; s++) {
+                    Segment &segment = segments[t * segmentCount + s];
+                    segment.channel = t / 2;
+                    segment.positive = t % 2 == 0;
+                    segment.first = s == 0;
+                    segment.from = static_cast<int>(static_cast<long long>(frameCount) * s / segmentCount);
+                    segment.to = static_cast<int>(static_cast<long long>(frameCount) * (s + 1) / segmentCount);
+                    if (segment.first) segment.trigger = triggers[t];
+                }
+            }
+
+            // scan the segments
+            auto task = [&](int i) { scan(segments[i], samples, frameCount, sig, negSig); };
+            int taskCount = static_cast<int>(segments.size());
+            if (pool != nullptr && taskCount > 1) {
+                pool->run(taskCount, task);
+            } else {
+                for (int i = 0; i < taskCount; i++) task(i);
+            }
+
+            // pass found spikes through kill interval filters in order
+            bool proceed = true;
+            for (int t = 0; t < triggerCount && proceed; t++) {
+                for (int s = 0; s < segmentCount && proceed; s++) {
+                    Segment &segment = segments[t * segmentCount + s];
+                    if (!segment.active) continue;
+
+                    for (RawSpike &spike : segment.spikes) {
+                        // trigger that went off without passing any peak reports the last known peak
+                        int index = spike.index < 0 ? lastIndices[t] : spike.index;
+                        lastIndices[t] = index;
+                        spikeCounters[t]++;
+                        proceed = filters[t].push(spike.value, index, static_cast<float>(index * sampleRateDivider));
+                        if (!proceed) break;
+                    }
+                    // last active segment always reaches the end of the chunk
+                    triggers[t] = segment.trigger;
+                    if (triggers[t].peakIndex < 0) triggers[t].peakIndex = lastIndices[t];
+                }
+            }
+            baseIndex += frameCount;
+
+            return proceed;
+        }
+
+        void SpikeAnalysis::SpikeDetector::scan(Segment &segment, short **samples, int frameCount, const short *sig,
+                                                const short *negSig) {
+            const short *channelSamples = samples[segment.channel];
+            bool positive = segment.positive;
+            segment.spikes.clear();
+
+            int from = segment.from;
+            if (!segment.first) {
+                // state of the trigger is not known until the first reset, previous segment scans until that point
+                from = findReset(channelSamples, segment.from, frameCount, positive);
+                segment.active = from < segment.to;
+                if (!segment.active) return;
+
+                segment.trigger = Trigger();
+                segment.trigger.peakIndex = -1;
+            }
+            segment.active = true;
+            // continue past the end of the segment until trigger is reset so the next segment can take over
+            int to = segment.to < frameCount ? std::min(findReset(channelSamples, segment.to, frameCount, positive) + 1,
+                                                        frameCount) : frameCount;
+
+            Trigger &trigger = segment.trigger;
+            short threshold = positive ? sig[segment.channel] : negSig[segment.channel];
             short sample;
+            for (int i = from; i < to; i++) {
+                sample = channelSamples[i];
+                if (positive) {
+                    // determine state of positive schmitt trigger
+                    if (!trigger.on) {
+                        if (sample > threshold) {
+                            trigger.on = true;
+                            trigger.peakValue = SHRT_MIN;
+                        }
+                    } else {
+                        if (sample < 0) {
+                            trigger.on = false;
+                            segment.spikes.push_back({trigger.peakValue, trigger.peakIndex});
+                        } else if (sample > trigger.peakValue) {
+                            trigger.peakValue = sample;
+                            trigger.peakIndex = baseIndex + i;
+                        }
+                    }
+                } else {
+                    // determine state of negative schmitt trigger
+                    if (!trigger.on) {
+                        if (sample < threshold) {
+                            trigger.on = true;
+                            trigger.peakValue = SHRT_MAX;
+                        }
+                    } else {
+                        if (sample > 0) {
+                            trigger.on = false;
+                            segment.spikes.push_back({trigger.peakValue, trigger.peakIndex});
+                        } else if (sample < trigger.peakValue) {
+                            trigger.peakValue = sample;
+                            trigger.peakIndex = baseIndex + i;
+                        }
+                    }
+                }
+            }
+        }
+
+        int SpikeAnalysis::SpikeDetector::findReset(const short *samples, int from, int frameCount, bool positive) {
+            int i = from;
+            if (positive) {
+                while (i < frameCount && samples[i] >= 0) i++;
+            } else {
+                while (i < frameCount && samples[i] <= 0) i++;
+            }
+            return i;
+        }
+
+        bool SpikeAnalysis::SpikeDetector::flush() {
+            bool proceed = true;
+            for (int i = 0; i < channelCount * 2 && proceed; i++) {
+                proceed = filters[i].flush();
+            }
+            return proceed;
+        }
+
+        void SpikeAnalysis::SpikeDetector::log() const {
+            for (int channel = 0; channel < channelCount; channel++) {
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND POSITIVE: %d", spikeCounters[channel * 2]);
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND NEGATIVE: %d", spikeCounters[channel * 2 + 1]);
+            }
+        }
+
+        bool SpikeAnalysis::findSpikes(const char *filePath, bool singlePass, bool parallel,
+                                       const SpikeListener &listener, AnalysisToken *token) {
+            long long start = currentTimeInMilliseconds();
+
+            // open audio file we need to analyze
+            drwav *wavPtr = drwav_open_file(filePath);
+            if (wavPtr == nullptr) {
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "Unable to open file: %s", filePath);
+                return true;
+            }
+
+            // check whether file is long enough for processing
+            drwav_uint64 totalSamples = wavPtr->totalSampleCount;
+            drwav_uint16 channelCount = wavPtr->channels;
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "Audio file sample count is: %ld",
+                                static_cast<long>(totalSamples));
+            if (totalSamples < wavPtr->sampleRate * channelCount *
+                               backyardbrains::utils::AnalysisUtils::MIN_VALID_FILE_LENGTH_IN_SECS) {
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "File to short! Don't process!");
+                drwav_close(wavPtr);
+                return true;
+            }
+
+            // spikes are searched for on all available cores in parallel mode
+            backyardbrains::utils::WorkerPool *pool = parallel ? new backyardbrains::utils::WorkerPool() : nullptr;
+            SpikeDetector detector(channelCount, wavPtr->sampleRate, listener, pool);
+            bool result = singlePass ? findSpikesSinglePass(wavPtr, detector, token)
+                                     : findSpikesTwoPass(wavPtr, detector, token);
+            delete pool;
+            __android_log_print(ANDROID_LOG_DEBUG, TAG, "%ld - AFTER FINDING AND FILTERING SPIKES",
+                                static_cast<long>(currentTimeInMilliseconds() - start));
+
+            // close audio file
+            drwav_close(wavPtr);
+
+            return result;
+        }
+
+        bool SpikeAnalysis::findSpikesTwoPass(drwav *wavPtr, SpikeDetector &detector, AnalysisToken *token) {
+            drwav_uint64 totalSamples = wavPtr->totalSampleCount;
+            drwav_uint16 channelCount = wavPtr->channels;
 
-            int *schmittPosState = new int[channelCount];
-            int *schmittNegState = new int[channelCount];
-            auto *maxPeakValue = new short[channelCount];
-            auto *minPeakValue = new short[channelCount];
-            int *maxPeakIndex = new int[channelCount]{0};
-            int *minPeakIndex = new int[channelCount]{0};
-            auto *maxPeakTime = new float[channelCount]{0.0f};
-            auto *minPeakTime = new float[channelCount]{0.0f};
-            auto *currentTime = new float[channelCount]{0.0f};
-            int *currentIndex = new int[channelCount]{0};
-            int *spikeCounter = new int[channelCount]{0};
-            int *spikeNegCounter = new int[channelCount]{0};
-
-            bufferSize = maxBufferSize; // let's use max buffer size
-
-            samples = new short[bufferSize];
-            deinterleavedSamples = new drwav_int16 *[channelCount];
+            // 1. - 3. DETERMINE THRESHOLDS FOR EVERY CHANNEL
+            auto *sig = new short[channelCount]{0};
+            auto *negSig = new short[channelCount]{0};
+            findThresholds(wavPtr, sig, negSig, token);
+
+            // 4. FIND THE SPIKES IMPLEMENTING SCHMITT TRIGGER AND
+            // 5. FILTER FOUND SPIKES BY APPLYING KILL INTERVAL OF 5ms AS THEY COME
+
+            auto bufferSize = static_cast<drwav_uint64>(ceil(
+                    (wavPtr->sampleRate * backyardbrains::utils::AnalysisUtils::BUFFER_SIZE_IN_SECS) / channelCount));
+
+            auto *samples = new short[bufferSize];
+            auto **deinterleavedSamples = new drwav_int16 *[channelCount];
             for (int i = 0; i < channelCount; i++) {
                 deinterleavedSamples[i] = new drwav_int16[bufferSize]{0};
-                schmittPosState[i] = SCHMITT_OFF;
-                schmittNegState[i] = SCHMITT_OFF;
-                maxPeakValue[i] = SHRT_MIN;
-                minPeakValue[i] = SHRT_MAX;
             }
 
             // go to beginning of the file cause we need to run through the file again to find spikes
             drwav_seek_to_sample(wavPtr, 0);
 
-            sampleCount = static_cast<int>(bufferSize);
-            frameCount = sampleCount / channelCount;
-            while ((read = drwav_read_s16(wavPtr, bufferSize, samples)) > 0) {
+            bool proceed = !AnalysisToken::isCancelled(token);
+            drwav_uint64 read, totalRead = 0;
+            int sampleCount = static_cast<int>(bufferSize);
+            int frameCount = sampleCount / channelCount;
+            while (proceed && (read = drwav_read_s16(wavPtr, bufferSize, samples)) > 0) {
                 if (sampleCount != static_cast<int>(read)) {
                     sampleCount = static_cast<int>(read);
                     frameCount = sampleCount / channelCount;
                 }
+                totalRead += read;
+                AnalysisToken::setProgress(token, .5f + .5f * totalRead / totalSamples);
                 backyardbrains::utils::SignalUtils::deinterleaveSignal(deinterleavedSamples, samples, sampleCount,
                                                                        channelCount);
-                for (int channel = 0; channel < channelCount; channel++) {
-                    // find peaks
-                    for (int i = 0; i < frameCount; i++) {
-                        sample = deinterleavedSamples[channel][i];
-                        // determine state of positive schmitt trigger
-                        if (schmittPosState[channel] == SCHMITT_OFF) {
-                            if (sample > sig[channel]) {
-                                schmittPosState[channel] = SCHMITT_ON;
-                                maxPeakValue[channel] = SHRT_MIN;
-                            }
-                        } else {
-                            if (sample < 0) {
-                                schmittPosState[channel] = SCHMITT_OFF;
-                                outValuesPos[channel][spikeCounter[channel]] = maxPeakValue[channel];
-                                outIndicesPos[channel][spikeCounter[channel]] = maxPeakIndex[channel];
-                                outTimesPos[channel][spikeCounter[channel]] = maxPeakTime[channel];
-                                spikeCounter[channel]++;
-                            } else if (sample > maxPeakValue[channel]) {
-                                maxPeakValue[channel] = sample;
-                                maxPeakIndex[channel] = currentIndex[channel];
-                                maxPeakTime[channel] = currentTime[channel];
-                            }
-                        }
-
-                        // determine state of negative schmitt trigger
-                        if (schmittNegState[channel] == SCHMITT_OFF) {
-                            if (sample < negSig[channel]) {
-                                schmittNegState[channel] = SCHMITT_ON;
-                                minPeakValue[channel] = SHRT_MAX;
-                            }
-                        } else {
-                            if (sample > 0) {
-                                schmittNegState[channel] = SCHMITT_OFF;
-                                outValuesNeg[channel][spikeNegCounter[channel]] = minPeakValue[channel];
-                                outIndicesNeg[channel][spikeNegCounter[channel]] = minPeakIndex[channel];
-                                outTimesNeg[channel][spikeNegCounter[channel]] = minPeakTime[channel];
-                                spikeNegCounter[channel]++;
-                            } else if (sample < minPeakValue[channel]) {
-                                minPeakValue[channel] = sample;
-                                minPeakIndex[channel] = currentIndex[channel];
-                                minPeakTime[channel] = currentTime[channel];
-                            }
-                        }
-
-                        currentIndex[channel]++;
-                        currentTime[channel] += sampleRateDivider;
-                    }
-                }
+                proceed = detector.detect(deinterleavedSamples, frameCount, sig, negSig) &&
+                          !AnalysisToken::isCancelled(token);
             }
+            // release spikes still held by the filters
+            if (proceed) proceed = detector.flush();
+            detector.log();
+
             delete[] samples;
             for (int i = 0; i < channelCount; i++) {
                 delete[] deinterleavedSamples[i];
@@ -207,128 +381,91 @@ namespace backyardbrains {
             delete[] deinterleavedSamples;
             delete[] sig;
             delete[] negSig;
-            delete[] schmittPosState;
-            delete[] schmittNegState;
-            delete[] maxPeakValue;
-            delete[] minPeakValue;
-            delete[] maxPeakIndex;
-            delete[] minPeakIndex;
-            delete[] maxPeakTime;
-            delete[] minPeakTime;
-            delete[] currentTime;
-            delete[] currentIndex;
-            __android_log_print(ANDROID_LOG_DEBUG, TAG, "%ld - AFTER FINDING SPIKES",
-                                static_cast<long>(currentTimeInMilliseconds() - start));
-            for (int channel = 0; channel < channelCount; channel++) {
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND POSITIVE: %d", spikeCounter[channel]);
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND NEGATIVE: %d", spikeNegCounter[channel]);
-            }
 
-            // close audio file
-            drwav_close(wavPtr);
+            return proceed;
+        }
 
-            // 5. FINALLY WE SHOULD FILTER FOUND SPIKES BY APPLYING KILL INTERVAL OF 5ms
-            int i;
-            int len;
-            int *removedCounter = new int[channelCount]{0};
-            int *removedNegCounter = new int[channelCount]{0};
-            for (int channel = 0; channel < channelCount; channel++) {
-                len = spikeCounter[channel];
-                if (len > 0) { // Filter positive spikes using kill interval
-                    for (i = 0; i < len - 1; i++) { // look on the right
-                        if (outValuesPos[channel][i] < outValuesPos[channel][i + 1]) {
-                            if ((outTimesPos[channel][i + 1] - outTimesPos[channel][i]) < KILL_INTERVAL) {
-                                int numMoved = len - i - 1;
-                                if (numMoved > 0) {
-                                    std::move(outValuesPos[channel] + i + 1, outValuesPos[channel] + i + numMoved,
-                                              outValuesPos[channel] + i);
-                                    std::move(outIndicesPos[channel] + i + 1, outIndicesPos[channel] + i + numMoved,
-                                              outIndicesPos[channel] + i);
-                                    std::move(outTimesPos[channel] + i + 1, outTimesPos[channel] + i + numMoved,
-                                              outTimesPos[channel] + i);
-                                }
-                                len--;
-                                removedCounter[channel]++;
-                                i--;
-                            }
-                        }
-                    }
-                    len = i;
-                    for (i = 1; i < len; i++) { // look on the left neighbor
-                        if (outValuesPos[channel][i] < outValuesPos[channel][i - 1]) {
-                            if ((outTimesPos[channel][i] - outTimesPos[channel][i - 1]) < KILL_INTERVAL) {
-                                int numMoved = len - i - 1;
-                                if (numMoved > 0) {
-                                    std::move(outValuesPos[channel] + i + 1, outValuesPos[channel] + i + numMoved,
-                                              outValuesPos[channel] + i);
-                                    std::move(outIndicesPos[channel] + i + 1, outIndicesPos[channel] + i + numMoved,
-                                              outIndicesPos[channel] + i);
-                                    std::move(outTimesPos[channel] + i + 1, outTimesPos[channel] + i + numMoved,
-                                              outTimesPos[channel] + i);
-                                }
-                                len--;
-                                removedCounter[channel]++;
-                                i--;
-                            }
-                        }
-                    }
+        bool SpikeAnalysis::findSpikesSinglePass(drwav *wavPtr, SpikeDetector &detector, AnalysisToken *token) {
+            drwav_uint64 totalSamples = wavPtr->totalSampleCount;
+            drwav_uint16 channelCount = wavPtr->channels;
+
+            // determine buffer size the same way it's determined when looking for thresholds in a separate pass, but
+            // make sure chunks always hold whole frames
+            auto bufferSize = static_cast<drwav_uint64>(ceil(
+                    totalSamples / backyardbrains::utils::AnalysisUtils::BIN_COUNT));
+            auto maxBufferSize = static_cast<drwav_uint64>(ceil(
+                    (wavPtr->sampleRate * backyardbrains::utils::AnalysisUtils::BUFFER_SIZE_IN_SECS) / channelCount));
+            if (bufferSize > maxBufferSize) bufferSize = maxBufferSize;
+            int maxFrameCount = static_cast<int>((bufferSize + channelCount - 1) / channelCount);
+            bufferSize = static_cast<drwav_uint64>(maxFrameCount) * channelCount;
+
+            // chunks are kept in a ring until thresholds are estimated from the chunks that come after them
+            auto *samples = new short[bufferSize];
+            auto ***chunks = new drwav_int16 **[LOOK_BACK_CHUNK_COUNT];
+            auto *chunkFrameCounts = new int[LOOK_BACK_CHUNK_COUNT]{0};
+            for (int i = 0; i < LOOK_BACK_CHUNK_COUNT; i++) {
+                chunks[i] = new drwav_int16 *[channelCount];
+                for (int j = 0; j < channelCount; j++) {
+                    chunks[i][j] = new drwav_int16[maxFrameCount]{0};
                 }
-                len = spikeNegCounter[channel];
-                if (len > 0) { // Filter negative spikes using kill interval
-                    for (i = 0; i < len - 1; i++) { // look on the right
-                        if (outValuesNeg[channel][i] > outValuesNeg[channel][i + 1]) {
-                            if ((outTimesNeg[channel][i + 1] - outTimesNeg[channel][i]) < KILL_INTERVAL) {
-                                int numMoved = len - i - 1;
-                                if (numMoved > 0) {
-                                    std::move(outValuesNeg[channel] + i + 1, outValuesNeg[channel] + i + numMoved,
-                                              outValuesNeg[channel] + i);
-                                    std::move(outIndicesNeg[channel] + i + 1, outIndicesNeg[channel] + i + numMoved,
-                                              outIndicesNeg[channel] + i);
-                                    std::move(outTimesNeg[channel] + i + 1, outTimesNeg[channel] + i + numMoved,
-                                              outTimesNeg[channel] + i);
-                                }
-                                len--;
-                                removedNegCounter[channel]++;
-                                i--;
-                            }
-                        }
-                    }
-                    len = i;
-                    for (i = 1; i < len; i++) { // look on the left neighbor
-                        if (outValuesNeg[channel][i] > outValuesNeg[channel][i - 1]) {
-                            if ((outTimesNeg[channel][i] - outTimesNeg[channel][i - 1]) < KILL_INTERVAL) {
-                                int numMoved = len - i - 1;
-                                if (numMoved > 0) {
-                                    std::move(outValuesNeg[channel] + i + 1, outValuesNeg[channel] + i + numMoved,
-                                              outValuesNeg[channel] + i);
-                                    std::move(outIndicesNeg[channel] + i + 1, outIndicesNeg[channel] + i + numMoved,
-                                              outIndicesNeg[channel] + i);
-                                    std::move(outTimesNeg[channel] + i + 1, outTimesNeg[channel] + i + numMoved,
-                                              outTimesNeg[channel] + i);
-                                }
-                                len--;
-                                removedNegCounter[channel]++;
-                                i--;
-                            }
-                        }
-                    }
+            }
+            // standard deviations are not stored, only the estimate of their quantile is kept
+            backyardbrains::utils::StreamingQuantile deviation(SD_QUANTILE);
+            std::vector<backyardbrains::utils::StreamingQuantile> deviations(channelCount, deviation);
+            auto *sig = new short[channelCount]{0};
+            auto *negSig = new short[channelCount]{0};
+
+            bool proceed = !AnalysisToken::isCancelled(token);
+            drwav_uint64 read, totalRead = 0;
+            int chunkCount = 0;
+            while (proceed && (read = drwav_read_s16(wavPtr, bufferSize, samples)) > 0) {
+                int slot = chunkCount % LOOK_BACK_CHUNK_COUNT;
+                // before reusing the slot find spikes in the chunk that's stored in it
+                if (chunkCount >= LOOK_BACK_CHUNK_COUNT) {
+                    proceed = detector.detect(chunks[slot], chunkFrameCounts[slot], sig, negSig);
                 }
-                outPosCounts[channel] = spikeCounter[channel] - removedCounter[channel];
-                outNegCounts[channel] = spikeNegCounter[channel] - removedNegCounter[channel];
+
+                int sampleCount = static_cast<int>(read);
+                int frameCount = sampleCount / channelCount;
+                backyardbrains::utils::SignalUtils::deinterleaveSignal(chunks[slot], samples, sampleCount,
+                                                                       channelCount);
+                chunkFrameCounts[slot] = frameCount;
+                // update thresholds with standard deviations of the new chunk
+                for (int i = 0; i < channelCount; i++) {
+                    deviations[i].add(backyardbrains::utils::AnalysisUtils::SD(chunks[slot][i], frameCount));
+                    toThresholds(deviations[i].get(), sig[i], negSig[i]);
+                }
+                chunkCount++;
+                totalRead += read;
+                AnalysisToken::setProgress(token, static_cast<float>(totalRead) / totalSamples);
+                if (proceed) proceed = !AnalysisToken::isCancelled(token);
             }
-            __android_log_print(ANDROID_LOG_DEBUG, TAG, "%ld - AFTER FILTERING SPIKES",
-                                static_cast<long>(currentTimeInMilliseconds() - start));
-            for (int channel = 0; channel < channelCount; channel++) {
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND POSITIVE: %d",
-                                    (spikeCounter[channel] - removedCounter[channel]));
-                __android_log_print(ANDROID_LOG_DEBUG, TAG, "FOUND NEGATIVE: %d",
-                                    (spikeNegCounter[channel] - removedNegCounter[channel]));
+            // find spikes in the chunks that are still in the ring
+            int first = chunkCount > LOOK_BACK_CHUNK_COUNT ? chunkCount - LOOK_BACK_CHUNK_COUNT : 0;
+            for (int i = first; i < chunkCount && proceed; i++) {
+                int slot = i % LOOK_BACK_CHUNK_COUNT;
+                proceed = detector.detect(chunks[slot], chunkFrameCounts[slot], sig, negSig);
+            }
+            // release spikes still held by the filters
+            if (proceed) proceed = detector.flush();
+            for (int i = 0; i < channelCount; i++) {
+                __android_log_print(ANDROID_LOG_DEBUG, TAG, "SIG: %d, NEG_SIG: %d", sig[i], negSig[i]);
+            }
+            detector.log();
+
+            delete[] samples;
+            for (int i = 0; i < LOOK_BACK_CHUNK_COUNT; i++) {
+                for (int j = 0; j < channelCount; j++) {
+                    delete[] chunks[i][j];
+                }
+                delete[] chunks[i];
             }
+            delete[] chunks;
+            delete[] chunkFrameCounts;
+            delete[] sig;
+            delete[] negSig;
 
-            delete[] spikeCounter;
-            delete[] spikeNegCounter;
-            delete[] removedCounter;
-            delete[] removedNegCounter;
+            return proceed;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,96 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "StreamingQuantile.h"
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        StreamingQuantile::StreamingQuantile(float p) : p(p) {
+            dn[0] = 0;
+            dn[1] = p / 2;
+            dn[2] = p;
+            dn[3] = (1 + p) / 2;
+            dn[4] = 1;
+        }
+
+        void StreamingQuantile::add(float value) {
+            if (count < MARKER_COUNT) {
+                // just collect first five values
+                q[count++] = value;
+                if (count == MARKER_COUNT) {
+                    std::sort(q, q + MARKER_COUNT);
+                    for (int i = 0; i < MARKER_COUNT; i++) n[i] = i;
+                    np[0] = 0;
+                    np[1] = 2 * p;
+                    np[2] = 4 * p;
+                    np[3] = 2 + 2 * p;
+                    np[4] = 4;
+                }
+                return;
+            }
+            count++;
+
+            // find cell the value falls in and update extreme markers if necessary
+            int k;
+            if (value < q[0]) {
+                q[0] = value;
+                k = 0;
+            } else if (value >= q[4]) {
+                q[4] = value;
+                k = 3;
+            } else {
+                k = 0;
+                while (k < 3 && value >= q[k + 1]) k++;
+            }
+
+            // increment positions of markers above the cell and all desired positions
+            for (int i = k + 1; i < MARKER_COUNT; i++) n[i]++;
+            for (int i = 0; i < MARKER_COUNT; i++) np[i] += dn[i];
+
+            // adjust heights of the middle markers if they are off their desired positions
+            for (int i = 1; i < MARKER_COUNT - 1; i++) {
+                float d = np[i] - n[i];
+                if ((d >= 1 && n[i + 1] - n[i] > 1) || (d <= -1 && n[i - 1] - n[i] < -1)) {
+                    int sign = d >= 0 ? 1 : -1;
+                    float qp = parabolic(i, sign);
+                    if (q[i - 1] < qp && qp < q[i + 1]) {
+                        q[i] = qp;
+                    } else {
+                        q[i] = linear(i, sign);
+                    }
+                    n[i] += sign;
+                }
+            }
+        }
+
+        float StreamingQuantile::get() const {
+            if (count == 0) return 0;
+            if (count >= MARKER_COUNT) return q[2];
+
+            // not enough values for the markers, calculate exact quantile the same way it's calculated from the
+            // sorted array of all the values
+            float sorted[MARKER_COUNT];
+            std::copy(q, q + count, sorted);
+            std::sort(sorted, sorted + count);
+            int index = count - 1 - static_cast<int>(ceil(count * (1 - p)));
+            return sorted[index < 0 ? 0 : index];
+        }
+
+        int StreamingQuantile::getCount() const {
+            return count;
+        }
+
+        float StreamingQuantile::parabolic(int i, int d) const {
+            return q[i] + d / static_cast<float>(n[i + 1] - n[i - 1]) *
+                          ((n[i] - n[i - 1] + d) * (q[i + 1] - q[i]) / (n[i + 1] - n[i]) +
+                           (n[i + 1] - n[i] - d) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+        }
+
+        float StreamingQuantile::linear(int i, int d) const {
+            return q[i] + d * (q[i + d] - q[i]) / (n[i + d] - n[i]);
+        }
+    }
+}
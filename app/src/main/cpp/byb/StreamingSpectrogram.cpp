@@ -0,0 +1,152 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "StreamingSpectrogram.h"
+
+#include <algorithm>
+#include <cmath>
+#include <cstdint>
+
+namespace backyardbrains {
+
+    namespace processing {
+
+        StreamingSpectrogram::StreamingSpectrogram() = default;
+
+        void StreamingSpectrogram::configure(int decimation, int windowSampleCount, int hopSampleCount,
+                                             int windowFunction, int fftBinCount, int binCount) {
+            // FFT can only be computed for power of 2 number of samples
+            int size = 2;
+            while (size * 2 <= windowSampleCount) size *= 2;
+
+            StreamingSpectrogram::decimation = std::max(1, decimation);
+            StreamingSpectrogram::windowSampleCount = size;
+            StreamingSpectrogram::hopSampleCount = std::max(1, hopSampleCount);
+            StreamingSpectrogram::fftBinCount = std::max(1, std::min(fftBinCount, size / 2 + 1));
+            StreamingSpectrogram::binCount = std::max(1, std::min(binCount, StreamingSpectrogram::fftBinCount));
+
+            // FFT plan is reused as long as the window size stays the same
+            if (size != fftSize) {
+                fft.init(static_cast<size_t>(size));
+                fftSize = size;
+                input.resize(static_cast<size_t>(size));
+                outReal.resize(audiofft::AudioFFT::ComplexSize(static_cast<size_t>(size)));
+                outImaginary.resize(audiofft::AudioFFT::ComplexSize(static_cast<size_t>(size)));
+                ring.resize(static_cast<size_t>(size));
+            }
+            if (size != static_cast<int>(window.size()) || windowFunction != StreamingSpectrogram::windowFunction) {
+                StreamingSpectrogram::windowFunction = windowFunction;
+                window.resize(static_cast<size_t>(size));
+                const double step = 2.0 * M_PI / size;
+                for (int i = 0; i < size; i++) {
+                    switch (windowFunction) {
+                        case WINDOW_HANN:
+                            window[i] = static_cast<float>(.5 - .5 * cos(step * i));
+                            break;
+                        case WINDOW_HAMMING:
+                            window[i] = static_cast<float>(.54 - .46 * cos(step * i));
+                            break;
+                        case WINDOW_BLACKMAN:
+                            window[i] = static_cast<float>(.42 - .5 * cos(step * i) + .08 * cos(2.0 * step * i));
+                            break;
+                        default:
+                            window[i] = 1.0f;
+                            break;
+                    }
+                }
+            }
+
+            // every bin of the column takes the largest of the FFT bins that fall into it
+            binEdges.resize(static_cast<size_t>(StreamingSpectrogram::binCount + 1));
+            for (int i = 0; i <= StreamingSpectrogram::binCount; i++) {
+                binEdges[i] = static_cast<int>(static_cast<int64_t>(i) * StreamingSpectrogram::fftBinCount /
+                                               StreamingSpectrogram::binCount);
+            }
+
+            reset();
+        }
+
+        void StreamingSpectrogram::reset() {
+            std::fill(ring.begin(), ring.end(), 0.0f);
+            ringPosition = 0;
+            decimationPhase = 0;
+            hopCounter = 0;
+        }
+
+        void StreamingSpectrogram::resetNormalization() {
+            maxMagnitude = INITIAL_MAX_MAGNITUDE;
+            halfMaxMagnitude = maxMagnitude * .5f;
+        }
+
+        int StreamingSpectrogram::process(float **outColumns, int maxColumnCount, const short *inSamples,
+                                          int sampleCount) {
+            if (fftSize == 0 || maxColumnCount <= 0 || sampleCount <= 0) return 0;
+
+            const int columnCount = (hopCounter + decimatedCount(sampleCount)) / hopSampleCount;
+            if (columnCount < maxColumnCount) return append(outColumns, inSamples, sampleCount, 0);
+
+            // samples cover all the columns (signal has been sought), so there's no point in continuing
+            reset();
+            const int maxSampleCount = ((maxColumnCount - 1) * hopSampleCount + windowSampleCount) * decimation;
+            // last sample needs to be kept so the last column ends with it
+            int count = std::min(sampleCount, maxSampleCount);
+            count = (count - 1) / decimation * decimation + 1;
+            const int keptCount = (count - 1) / decimation + 1;
+            hopCounter = (hopSampleCount - keptCount % hopSampleCount) % hopSampleCount;
+
+            const int completedCount = (hopCounter + keptCount) / hopSampleCount;
+            const int emptyCount = std::max(0, maxColumnCount - completedCount);
+            for (int i = 0; i < emptyCount; i++) std::fill(outColumns[i], outColumns[i] + binCount, -1.0f);
+
+            return emptyCount + append(outColumns + emptyCount, inSamples + sampleCount - count, count,
+                                       std::max(0, completedCount - maxColumnCount));
+        }
+
+        int StreamingSpectrogram::append(float **outColumns, const short *inSamples, int sampleCount,
+                                         int skipColumnCount) {
+            int columnCounter = 0;
+            int outCounter = 0;
+            int i = decimationPhase;
+            for (; i < sampleCount; i += decimation) {
+                ring[ringPosition] = inSamples[i];
+                if (++ringPosition == windowSampleCount) ringPosition = 0;
+
+                if (++hopCounter == hopSampleCount) {
+                    hopCounter = 0;
+                    // columns that would be overwritten by the later ones are not computed at all
+                    if (columnCounter++ >= skipColumnCount) computeColumn(outColumns[outCounter++]);
+                }
+            }
+            decimationPhase = i - sampleCount;
+
+            return outCounter;
+        }
+
+        void StreamingSpectrogram::computeColumn(float *outColumn) {
+            // oldest sample is the one at the current ring position
+            const int olderCount = windowSampleCount - ringPosition;
+            for (int i = 0; i < olderCount; i++) input[i] = ring[ringPosition + i] * window[i];
+            for (int i = 0; i < ringPosition; i++) input[olderCount + i] = ring[i] * window[olderCount + i];
+
+            fft.fft(input.data(), outReal.data(), outImaginary.data());
+
+            for (int i = 0; i < binCount; i++) {
+                float magnitude = 0.0f;
+                for (int j = binEdges[i]; j < binEdges[i + 1]; j++) {
+                    magnitude = std::max(magnitude, sqrtf(outReal[j] * outReal[j] + outImaginary[j] * outImaginary[j]));
+                }
+                // DC component doesn't take part in normalization
+                if (i > 0 && magnitude > maxMagnitude) {
+                    maxMagnitude = magnitude;
+                    halfMaxMagnitude = maxMagnitude * .5f;
+                }
+                outColumn[i] = magnitude / halfMaxMagnitude - 1.0f;
+            }
+        }
+
+        int StreamingSpectrogram::decimatedCount(int sampleCount) const {
+            return sampleCount > decimationPhase ? (sampleCount - decimationPhase - 1) / decimation + 1 : 0;
+        }
+    }
+}
@@ -144,8 +144,8 @@ namespace backyardbrains {
         }
 
         void
-        ThresholdProcessor::process(short **outSamples, int *outSamplesCounts, short **inSamples,
-                                    const int *inSampleCounts,
+        ThresholdProcessor::process(short **outSamples, int *outSamplesCounts, const int outMaxSampleCount,
+                                    short **inSamples, const int *inSampleCounts,
                                     const int *inEventIndices, const int *inEvents, const int inEventCount) {
             if (paused) return;
 
@@ -317,7 +317,8 @@ namespace backyardbrains {
                           buffer[i] + bufferSampleCount - copyFromIncoming);
             }
 
-            int *counts = new int[averagedSampleCount]{0};
+            // output buffers are provided by the caller so we can't write more than they can hold
+            const int outSampleCount = std::min(sampleCount, outMaxSampleCount);
             for (i = 0; i < channelCount; i++) {
                 tmpSummedSampleCounts = summedSamplesCounts[i];
                 tmpSummedSamples = summedSamples[i];
@@ -329,10 +330,9 @@ namespace backyardbrains {
                         tmpAveragedSamples[j] = (short) (tmpSummedSamples[j] / tmpSummedSampleCounts[j]);
                     else
                         tmpAveragedSamples[j] = 0;
-                std::copy(tmpAveragedSamples, tmpAveragedSamples + sampleCount, outSamples[i]);
-                outSamplesCounts[i] = sampleCount;
+                std::copy(tmpAveragedSamples, tmpAveragedSamples + outSampleCount, outSamples[i]);
+                outSamplesCounts[i] = outSampleCount;
             }
-            delete[] counts;
         }
 
         void
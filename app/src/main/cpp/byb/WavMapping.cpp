@@ -0,0 +1,47 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include <algorithm>
+#include <fcntl.h>
+#include <sys/stat.h>
+#include <sys/mman.h>
+#include <unistd.h>
+#include "WavMapping.h"
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        WavMapping::WavMapping(const char *filePath, const drwav *wavPtr, bool sequential) : map(MAP_FAILED) {
+            if (wavPtr->translatedFormatTag != DR_WAVE_FORMAT_PCM || wavPtr->bitsPerSample != 16) return;
+
+            const int fd = open(filePath, O_RDONLY);
+            if (fd < 0) return;
+
+            struct stat st{};
+            if (fstat(fd, &st) == 0 && static_cast<drwav_uint64>(st.st_size) > wavPtr->dataChunkDataPos) {
+                // don't map past the end of the file in case header says there's more data than there is
+                const drwav_uint64 available =
+                        (static_cast<drwav_uint64>(st.st_size) - wavPtr->dataChunkDataPos) / sizeof(drwav_int16);
+                const drwav_uint64 count = std::min(wavPtr->totalSampleCount, available);
+
+                const auto pageSize = static_cast<drwav_uint64>(sysconf(_SC_PAGESIZE));
+                const drwav_uint64 mapOffset = wavPtr->dataChunkDataPos / pageSize * pageSize;
+                mapLength = static_cast<size_t>(wavPtr->dataChunkDataPos - mapOffset + count * sizeof(drwav_int16));
+                map = mmap(nullptr, mapLength, PROT_READ, MAP_PRIVATE, fd, static_cast<off_t>(mapOffset));
+                if (map != MAP_FAILED) {
+                    if (sequential) madvise(map, mapLength, MADV_SEQUENTIAL);
+                    samples = reinterpret_cast<const drwav_int16 *>(static_cast<const char *>(map) +
+                                                                     (wavPtr->dataChunkDataPos - mapOffset));
+                    sampleCount = count;
+                }
+            }
+            close(fd);
+        }
+
+        WavMapping::~WavMapping() {
+            if (map != MAP_FAILED) munmap(map, mapLength);
+        }
+    }
+}
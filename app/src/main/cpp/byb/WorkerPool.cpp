@@ -0,0 +1,91 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "WorkerPool.h"
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        WorkerPool::WorkerPool(int threadCount) {
+            if (threadCount <= 0) threadCount = static_cast<int>(std::thread::hardware_concurrency());
+            // thread that submits the tasks works on them as well
+            for (int i = 1; i < threadCount; i++) {
+                threads.emplace_back(&WorkerPool::work, this);
+            }
+        }
+
+        WorkerPool::~WorkerPool() {
+            {
+                std::lock_guard<std::mutex> lock(mutex);
+                stopped = true;
+            }
+            batchAvailable.notify_all();
+            for (auto &thread : threads) thread.join();
+        }
+
+        void WorkerPool::run(int taskCount, const std::function<void(int)> &task) {
+            if (taskCount <= 0) return;
+
+            {
+                std::lock_guard<std::mutex> lock(mutex);
+                this->task = &task;
+                this->taskCount = taskCount;
+                nextTask = 0;
+                remainingTaskCount = taskCount;
+                generation++;
+            }
+            batchAvailable.notify_all();
+
+            runTasks(&task, taskCount);
+
+            // wait until all the tasks are finished and none of the workers is touching the batch
+            std::unique_lock<std::mutex> lock(mutex);
+            batchDone.wait(lock, [this] { return remainingTaskCount == 0 && activeWorkerCount == 0; });
+            this->task = nullptr;
+        }
+
+        int WorkerPool::getThreadCount() const {
+            return static_cast<int>(threads.size()) + 1;
+        }
+
+        void WorkerPool::work() {
+            long seenGeneration = 0;
+            while (true) {
+                const std::function<void(int)> *batchTask;
+                int batchTaskCount;
+                {
+                    std::unique_lock<std::mutex> lock(mutex);
+                    batchAvailable.wait(lock, [&] {
+                        return stopped || (task != nullptr && generation != seenGeneration);
+                    });
+                    if (stopped) return;
+
+                    seenGeneration = generation;
+                    batchTask = task;
+                    batchTaskCount = taskCount;
+                    activeWorkerCount++;
+                }
+
+                runTasks(batchTask, batchTaskCount);
+
+                {
+                    std::lock_guard<std::mutex> lock(mutex);
+                    activeWorkerCount--;
+                }
+                batchDone.notify_all();
+            }
+        }
+
+        void WorkerPool::runTasks(const std::function<void(int)> *batchTask, int batchTaskCount) {
+            int i;
+            while ((i = nextTask++) < batchTaskCount) {
+                (*batchTask)(i);
+
+                std::lock_guard<std::mutex> lock(mutex);
+                if (--remainingTaskCount == 0) batchDone.notify_all();
+            }
+        }
+    }
+}
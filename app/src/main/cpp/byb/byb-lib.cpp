@@ -4,7 +4,10 @@
 
 #include <jni.h>
 #include <algorithm>
+#include <memory>
+#include <mutex>
 #include <string>
+#include <vector>
 
 #include "SignalUtils.h"
 #include "AmModulationProcessor.h"
@@ -18,12 +21,18 @@
 #include "CrossCorrelationAnalysis.h"
 #include "IsiAnalysis.h"
 #include "AverageSpikeAnalysis.h"
+#include "AnalysisToken.h"
 #include "AnalysisUtils.h"
 #include "EventUtils.h"
 #include "JniHelper.h"
+#include "JniBuffers.h"
+#include "FilterCascade.h"
 
 using namespace backyardbrains::processing;
 using namespace backyardbrains::analysis;
+using backyardbrains::utils::ChannelBuffers;
+using backyardbrains::utils::JniCounters;
+using backyardbrains::utils::ensureSize;
 
 #pragma clang diagnostic push
 #pragma clang diagnostic ignored "-Wunused-parameter"
@@ -64,6 +73,11 @@ Java_com_backyardbrains_utils_JniUtils_setBandFilter(JNIEnv *env, jclass type, j
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_setNotchFilter(JNIEnv *env, jclass type, jfloat centerFreq);
 JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_setFilterChain(JNIEnv *env, jclass type, jfloatArray coefficients);
+JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_JniUtils_measureFilterLoad(JNIEnv *env, jclass type, jfloatArray coefficients,
+                                                         jfloat sampleRate, jint channelCount);
+JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jclass type,
                                                            jint hardwareType, jobject out,
                                                            jbyteArray inBytes,
@@ -107,21 +121,30 @@ Java_com_backyardbrains_utils_JniUtils_processThreshold(JNIEnv *env, jclass type
                                                         jobject in,
                                                         jboolean averageSamples);
 JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_setSpectrogramLayout(JNIEnv *env, jclass type, jint decimation,
+                                                            jint windowSampleCount, jint hopSampleCount,
+                                                            jint windowFunction, jint fftBinCount, jint binCount);
+JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_resetFftNormalization(JNIEnv *env, jclass type);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_processFft(JNIEnv *env, jclass type, jobject out,
                                                   jobject in);
+JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_getCopiedByteCount(JNIEnv *env, jclass type);
+JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_getAllocationCount(JNIEnv *env, jclass type);
 JNIEXPORT void JNICALL
-Java_com_backyardbrains_utils_JniUtils_prepareForSignalDrawing(JNIEnv *env, jclass type,
-                                                               jobject outSignal,
-                                                               jobject outEvents,
-                                                               jobjectArray inSignal,
-                                                               jint inFrameCount,
-                                                               jintArray inEventIndices,
-                                                               jint inEventCount,
-                                                               jint drawStartIndex,
-                                                               jint drawEndIndex,
-                                                               jint drawSurfaceWidth);
+Java_com_backyardbrains_utils_JniUtils_resetCounters(JNIEnv *env, jclass type);
+JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_setupPipeline(JNIEnv *env, jclass type, jobject signalData,
+                                                     jobject visibleSignalData, jobject averagedSignalData,
+                                                     jobject fftData, jintArray visibleChannels);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_releasePipeline(JNIEnv *env, jclass type);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_processPipeline(JNIEnv *env, jclass type, jint decoder,
+                                                       jint hardwareType, jbyteArray inBytes, jint length,
+                                                       jobject sampleSourceObject, jboolean signalAveraging);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_prepareForThresholdDrawing(JNIEnv *env, jclass type,
                                                                   jobject outSignal,
@@ -133,6 +156,16 @@ Java_com_backyardbrains_utils_JniUtils_prepareForThresholdDrawing(JNIEnv *env, j
                                                                   jint drawStartIndex,
                                                                   jint rawEndIndex,
                                                                   jint drawSurfaceWidth);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_prepareForChannelDrawing(JNIEnv *env, jclass type, jfloatArray outSamples,
+                                                                jshortArray inSamples, jint inFrameCount,
+                                                                jint channel, jint drawStartIndex, jint drawEndIndex,
+                                                                jint drawSurfaceWidth, jint appendedFrameCount);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_prepareForEventsDrawing(JNIEnv *env, jclass type, jfloatArray outEventIndices,
+                                                               jintArray inEventIndices, jint inEventCount,
+                                                               jint drawStartIndex, jint drawEndIndex,
+                                                               jint drawSurfaceWidth);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_prepareForFftDrawing(JNIEnv *env, jclass type, jobject out,
                                                             jobjectArray in,
@@ -143,7 +176,9 @@ Java_com_backyardbrains_utils_JniUtils_prepareForFftDrawing(JNIEnv *env, jclass
                                                             jfloat fftScaleFactor);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_prepareForSpikesDrawing(JNIEnv *env, jclass type,
-                                                               jobject out, jobjectArray in,
+                                                               jobject out, jfloatArray spikeValues,
+                                                               jintArray spikeIndices,
+                                                               jint spikeCount,
                                                                jfloatArray colorInRange,
                                                                jfloatArray colorOutOfRange,
                                                                jint rangeStart, jint rangeEnd,
@@ -174,14 +209,13 @@ Java_com_backyardbrains_utils_JniUtils_eventTriggeredAverageAnalysis(JNIEnv *env
                                                                      jint channelCount,
                                                                      jint frameCount,
                                                                      jboolean removeNoiseIntervals,
-                                                                     jstring confidenceIntervalsEvent);
-JNIEXPORT jobjectArray JNICALL
-Java_com_backyardbrains_utils_JniUtils_findSpikes(JNIEnv *env, jclass type, jstring filePath,
-                                                  jobjectArray valuesPos,
-                                                  jobjectArray indicesPos, jobjectArray timesPos,
-                                                  jobjectArray valuesNeg, jobjectArray indicesNeg,
-                                                  jobjectArray timesNeg, jint channelCount,
-                                                  jint maxSpikes);
+                                                                     jstring confidenceIntervalsEvent,
+                                                                     jlong token);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_findSpikes(JNIEnv *env, jclass type, jstring filePath, jboolean singlePass,
+                                                  jboolean parallel, jobject sink, jintArray channels,
+                                                  jshortArray values, jintArray indices, jfloatArray times,
+                                                  jlong token);
 
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_autocorrelationAnalysis(JNIEnv *env, jclass type,
@@ -210,11 +244,22 @@ Java_com_backyardbrains_utils_JniUtils_averageSpikeAnalysis(JNIEnv *env, jclass
                                                             jobjectArray spikeTrains,
                                                             jint spikeTrainCount,
                                                             jintArray spikeCounts,
+                                                            jintArray channels,
                                                             jobjectArray averageSpike,
                                                             jobjectArray normAverageSpike,
                                                             jobjectArray normTopStdLine,
                                                             jobjectArray normBottomStdLine,
-                                                            jint batchSpikeCount);
+                                                            jint batchSpikeCount,
+                                                            jboolean sequential,
+                                                            jlong token);
+JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_createAnalysisToken(JNIEnv *env, jclass type);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_cancelAnalysisToken(JNIEnv *env, jclass type, jlong token);
+JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_JniUtils_getAnalysisTokenProgress(JNIEnv *env, jclass type, jlong token);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_releaseAnalysisToken(JNIEnv *env, jclass type, jlong token);
 }
 
 const char *TAG = "BybLib";
@@ -223,11 +268,9 @@ AmModulationProcessor *amModulationProcessor;
 SampleStreamProcessor *sampleStreamProcessor;
 ThresholdProcessor *thresholdProcessor;
 FftProcessor *fftProcessor;
-EventTriggeredAverageAnalysis *eventTriggeredAverageAnalysis;
 SpikeAnalysis *spikeAnalysis;
 AutocorrelationAnalysis *autocorrelationAnalysis;
 IsiAnalysis *isiAnalysis;
-AverageSpikeAnalysis *averageSpikeAnalysis;
 CrossCorrelationAnalysis *crossCorrelationAnalysis;
 
 JavaVM *vm = nullptr;
@@ -241,6 +284,8 @@ jfieldID sdEventIndicesFid;
 jfieldID sdEventNamesFid;
 jfieldID sdEventCountFid;
 jfieldID sdLastSampleIndexFid;
+jfieldID sdDirectFid;
+jfieldID sdDirectSamplesFid;
 // SignalDrawData
 jfieldID sddSamplesFid;
 jfieldID sddSampleCountsFid;
@@ -254,6 +299,8 @@ jfieldID fdMaxWindowSizeFid;
 jfieldID fdFftFid;
 jfieldID fdWindowCountFid;
 jfieldID fdWindowSizeFid;
+jfieldID fdDirectFid;
+jfieldID fdDirectFftFid;
 // FftDrawData field IDs
 jfieldID fddVerticesFid;
 jfieldID fddIndicesFid;
@@ -263,9 +310,6 @@ jfieldID fddIndexCountFid;
 jfieldID fddColorCountFid;
 jfieldID fddScaleXFid;
 jfieldID fddScaleYFid;
-// SpikeIndexValue field IDs
-jfieldID sivValueFid;
-jfieldID sivIndexFid;
 // SpikesDrawData field IDs
 jfieldID spddVerticesFid;
 jfieldID spddColorsFid;
@@ -344,6 +388,117 @@ static jboolean exception_check(JNIEnv *env) {
     return (JNI_FALSE);
 }
 
+// Scratch buffers reused by the signal processing entry points so that processing doesn't allocate with every batch.
+// Processing is triggered from more than one thread (processing thread, USB device detection) so each thread gets
+// its own set of buffers
+static thread_local ChannelBuffers<jshort> inSamplesBuffers;
+static thread_local ChannelBuffers<jshort> outSamplesBuffers;
+static thread_local ChannelBuffers<jfloat> outFftBuffers;
+static thread_local std::vector<jshort *> inDirectSamplesPtrs;
+static thread_local std::vector<jshort *> outDirectSamplesPtrs;
+static thread_local std::vector<jfloat *> outDirectFftPtrs;
+static thread_local std::vector<jbyte> inBytesBuffer;
+static thread_local std::vector<jshort> outInterleavedBuffer;
+static thread_local std::vector<jint> inSampleCountsBuffer;
+static thread_local std::vector<jint> outSampleCountsBuffer;
+static thread_local std::vector<jint> inEventIndicesBuffer;
+static thread_local std::vector<jint> inEventsBuffer;
+static thread_local std::vector<jint> outEventIndicesBuffer;
+static thread_local std::vector<std::string> outEventNamesBuffer;
+// Threshold signal is drawn on the GL thread and doesn't scroll, so its envelope is built from scratch with every
+// frame
+static thread_local ChannelBuffers<jfloat> outDrawSamplesBuffers;
+static thread_local std::vector<jfloat> outDrawEventIndicesBuffer;
+static thread_local std::vector<jshort> inChannelSamplesBuffer;
+static thread_local std::vector<jfloat> outChannelSamplesBuffer;
+static thread_local backyardbrains::utils::SignalEnvelope thresholdEnvelope;
+// Channels drawn in parallel are enveloped on different threads so every channel has its own envelope. The same
+// channel is never enveloped by two threads at the same time
+static std::vector<std::unique_ptr<backyardbrains::utils::SignalEnvelope>> channelEnvelopes;
+static std::mutex channelEnvelopesMutex;
+
+// Channel count threshold processor is currently set up for
+static jint thresholdChannelCount = -1;
+
+// Decoders supported by the processing pipeline, need to match JniUtils.PIPELINE_DECODER_* constants
+static constexpr jint PIPELINE_DECODER_NONE = 0;
+static constexpr jint PIPELINE_DECODER_SAMPLE_STREAM = 1;
+static constexpr jint PIPELINE_DECODER_MICROPHONE = 2;
+
+static bool isDirect(JNIEnv *env, jobject signalData) {
+    return env->GetBooleanField(signalData, sdDirectFid) == JNI_TRUE;
+}
+
+// Returns addresses of the direct sample buffers of the specified SignalData
+static jshort **getDirectSamples(JNIEnv *env, jobject signalData, jint channelCount, std::vector<jshort *> &ptrs) {
+    auto directSamples = reinterpret_cast<jobjectArray>(env->GetObjectField(signalData, sdDirectSamplesFid));
+    jshort **directSamplesPtr = ensureSize(ptrs, channelCount);
+    for (int i = 0; i < channelCount; i++) {
+        jobject channelSamples = env->GetObjectArrayElement(directSamples, i);
+        directSamplesPtr[i] = static_cast<jshort *>(env->GetDirectBufferAddress(channelSamples));
+        env->DeleteLocalRef(channelSamples);
+    }
+    env->DeleteLocalRef(directSamples);
+
+    return directSamplesPtr;
+}
+
+// Returns samples of the specified SignalData. Samples held by direct buffers are accessed in place while samples held
+// by java arrays are copied to the scratch buffers.
+static jshort **readSamples(JNIEnv *env, jobject signalData, jint channelCount, const jint *sampleCounts) {
+    if (isDirect(env, signalData)) return getDirectSamples(env, signalData, channelCount, inDirectSamplesPtrs);
+
+    jint maxSampleCount = 0;
+    for (int i = 0; i < channelCount; i++) maxSampleCount = std::max(maxSampleCount, sampleCounts[i]);
+    jshort **samplesPtr = inSamplesBuffers.get(channelCount, maxSampleCount);
+    auto samples = reinterpret_cast<jobjectArray>(env->GetObjectField(signalData, sdSamplesFid));
+    for (int i = 0; i < channelCount; i++) {
+        auto channelSamples = reinterpret_cast<jshortArray>(env->GetObjectArrayElement(samples, i));
+        env->GetShortArrayRegion(channelSamples, 0, sampleCounts[i], samplesPtr[i]);
+        env->DeleteLocalRef(channelSamples);
+        JniCounters::countCopiedBytes(sampleCounts[i] * sizeof(jshort));
+    }
+    env->DeleteLocalRef(samples);
+
+    return samplesPtr;
+}
+
+// Returns buffers processed samples should be written to. Those are direct buffers of the specified SignalData if it
+// has them or scratch buffers that are copied to the SignalData once processing is done.
+static jshort **prepareSamples(JNIEnv *env, jobject signalData, jint channelCount, jint maxSamplesPerChannel,
+                               bool direct) {
+    if (direct) return getDirectSamples(env, signalData, channelCount, outDirectSamplesPtrs);
+
+    return outSamplesBuffers.get(channelCount, maxSamplesPerChannel);
+}
+
+// Publishes processed samples to the specified SignalData. Samples only need to be copied if SignalData isn't direct.
+static void writeSamples(JNIEnv *env, jobject signalData, jint channelCount, jshort **samplesPtr,
+                         const jint *sampleCounts, bool direct) {
+    if (!direct) {
+        auto samples = reinterpret_cast<jobjectArray>(env->GetObjectField(signalData, sdSamplesFid));
+        for (int i = 0; i < channelCount; i++) {
+            auto channelSamples = reinterpret_cast<jshortArray>(env->GetObjectArrayElement(samples, i));
+            env->SetShortArrayRegion(channelSamples, 0, sampleCounts[i], samplesPtr[i]);
+            env->DeleteLocalRef(channelSamples);
+            JniCounters::countCopiedBytes(sampleCounts[i] * sizeof(jshort));
+        }
+        env->DeleteLocalRef(samples);
+    }
+    auto outSampleCounts = reinterpret_cast<jintArray>(env->GetObjectField(signalData, sdSampleCountsFid));
+    env->SetIntArrayRegion(outSampleCounts, 0, channelCount, sampleCounts);
+    env->DeleteLocalRef(outSampleCounts);
+}
+
+// Copies specified number of bytes from the java array to the scratch buffer
+static jbyte *readBytes(JNIEnv *env, jbyteArray inBytes, jint length) {
+    jbyte *inBytesPtr = ensureSize(inBytesBuffer, length);
+    env->GetByteArrayRegion(inBytes, 0, length, inBytesPtr);
+    JniCounters::countCopiedBytes(length);
+
+    return inBytesPtr;
+}
+
 JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
     // save VM for later reference
     ::vm = vm;
@@ -358,11 +513,9 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
     sampleStreamProcessor = new SampleStreamProcessor(eventListener);
     thresholdProcessor = new ThresholdProcessor(new HeartbeatListener());
     fftProcessor = new FftProcessor();
-    eventTriggeredAverageAnalysis = new EventTriggeredAverageAnalysis();
     spikeAnalysis = new SpikeAnalysis();
     autocorrelationAnalysis = new AutocorrelationAnalysis();
     isiAnalysis = new IsiAnalysis();
-    averageSpikeAnalysis = new AverageSpikeAnalysis();
     crossCorrelationAnalysis = new CrossCorrelationAnalysis();
 
     // let's cache fields of the SignalData java object
@@ -376,6 +529,8 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
     sdEventNamesFid = env->GetFieldID(cls, "eventNames", "[Ljava/lang/String;");
     sdEventCountFid = env->GetFieldID(cls, "eventCount", "I");
     sdLastSampleIndexFid = env->GetFieldID(cls, "lastSampleIndex", "J");
+    sdDirectFid = env->GetFieldID(cls, "direct", "Z");
+    sdDirectSamplesFid = env->GetFieldID(cls, "directSamples", "[Ljava/nio/ShortBuffer;");
 
     // let's cache fields of the SignalDrawData java object
     cls = env->FindClass("com/backyardbrains/drawing/SignalDrawData");
@@ -395,6 +550,8 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
     fdFftFid = env->GetFieldID(cls, "fft", "[[F");
     fdWindowCountFid = env->GetFieldID(cls, "windowCount", "I");;
     fdWindowSizeFid = env->GetFieldID(cls, "windowSize", "I");
+    fdDirectFid = env->GetFieldID(cls, "direct", "Z");
+    fdDirectFftFid = env->GetFieldID(cls, "directFft", "Ljava/nio/FloatBuffer;");
 
     // let's cache fields of the FftDrawData java object
     cls = env->FindClass("com/backyardbrains/drawing/FftDrawData");
@@ -407,11 +564,6 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
     fddScaleXFid = env->GetFieldID(cls, "scaleX", "F");
     fddScaleYFid = env->GetFieldID(cls, "scaleY", "F");
 
-    // let's cache fields of the SpikeIndexValue java object
-    cls = env->FindClass("com/backyardbrains/vo/SpikeIndexValue");
-    sivValueFid = env->GetFieldID(cls, "value", "F");
-    sivIndexFid = env->GetFieldID(cls, "index", "I");
-
     // let's cache fields of the SpikesDrawData java object
     cls = env->FindClass("com/backyardbrains/drawing/SpikesDrawData");
     spddVerticesFid = env->GetFieldID(cls, "vertices", "[F");
@@ -452,10 +604,9 @@ extern "C" JNIEXPORT jint JNICALL
 Java_com_backyardbrains_utils_JniUtils_interleaveSignal(JNIEnv *env, jclass type, jshortArray out,
                                                         jobject in) {
     jint channelCount = env->GetIntField(in, sdChannelCountFid);
-    auto samples = reinterpret_cast<jobjectArray>(env->GetObjectField(in, sdSamplesFid));
     auto inSampleCounts = reinterpret_cast<jintArray>(env->GetObjectField(in, sdSampleCountsFid));
 
-    jint *inSampleCountsPtr = new jint[channelCount];
+    jint *inSampleCountsPtr = ensureSize(inSampleCountsBuffer, channelCount);
     env->GetIntArrayRegion(inSampleCounts, 0, channelCount, inSampleCountsPtr);
 
     // check if we didn't get any samples... in that case we can return
@@ -464,47 +615,23 @@ Java_com_backyardbrains_utils_JniUtils_interleaveSignal(JNIEnv *env, jclass type
         if (inSampleCountsPtr[i] == 0) return 0;
         if (inSampleCountsPtr[i] < frameCount) frameCount = inSampleCountsPtr[i];
     }
-    auto **inSamplesPtr = new jshort *[channelCount];
-    for (int i = 0; i < channelCount; i++) {
-        inSamplesPtr[i] = new jshort[frameCount]{0};
-        env->GetShortArrayRegion(
-                reinterpret_cast<jshortArray>(env->GetObjectArrayElement(samples, i)), 0,
-                frameCount, inSamplesPtr[i]);
-    }
+    for (int i = 0; i < channelCount; i++) inSampleCountsPtr[i] = frameCount;
+    jshort **inSamplesPtr = readSamples(env, in, channelCount, inSampleCountsPtr);
 
     // exception check
-    if (exception_check(env)) {
-        for (int i = 0; i < channelCount; i++) {
-            delete[] inSamplesPtr[i];
-        }
-        delete[] inSamplesPtr;
-        delete[] inSampleCountsPtr;
-        return 0;
-    }
+    if (exception_check(env)) return 0;
 
     jint sampleCount = channelCount * frameCount;
-    jshort *outSamplesPtr = new jshort[sampleCount];
+    jshort *outSamplesPtr = ensureSize(outInterleavedBuffer, sampleCount);
     backyardbrains::utils::SignalUtils::interleaveSignal(outSamplesPtr, inSamplesPtr, frameCount,
                                                          channelCount);
 
-    if (exception_check(env)) {
-        for (int i = 0; i < channelCount; i++) {
-            delete[] inSamplesPtr[i];
-        }
-        delete[] inSamplesPtr;
-        delete[] inSampleCountsPtr;
-        delete[] outSamplesPtr;
-        return 0;
-    }
-
     env->SetShortArrayRegion(out, 0, sampleCount, outSamplesPtr);
+    JniCounters::countCopiedBytes(sampleCount * sizeof(jshort));
+
+    // exception check
+    if (exception_check(env)) return 0;
 
-    for (int i = 0; i < channelCount; i++) {
-        delete[] inSamplesPtr[i];
-    }
-    delete[] inSamplesPtr;
-    delete[] inSampleCountsPtr;
-    delete[] outSamplesPtr;
     return sampleCount;
 }
 
@@ -589,6 +716,7 @@ Java_com_backyardbrains_utils_JniUtils_setChannelCount(JNIEnv *env, jclass type,
     amModulationProcessor->setChannelCount(channelCount);
     sampleStreamProcessor->setChannelCount(channelCount);
     thresholdProcessor->setChannelCount(channelCount);
+    thresholdChannelCount = channelCount;
     fftProcessor->setChannelCount(channelCount);
 }
 
@@ -636,6 +764,34 @@ Java_com_backyardbrains_utils_JniUtils_setNotchFilter(JNIEnv *env, jclass type,
     fftProcessor->setNotchFilter(centerFreq);
 }
 
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_setFilterChain(JNIEnv *env, jclass type, jfloatArray coefficients) {
+    // coefficients are copied here so processing thread never touches java array
+    std::vector<float> sections;
+    if (coefficients != nullptr) {
+        sections.resize(static_cast<size_t>(env->GetArrayLength(coefficients)));
+        env->GetFloatArrayRegion(coefficients, 0, static_cast<jsize>(sections.size()), sections.data());
+    }
+    const auto sectionCount = static_cast<int>(sections.size() / 5);
+    __android_log_print(ANDROID_LOG_DEBUG, TAG, "FILTER CHAIN: %d sections", sectionCount);
+
+    amModulationProcessor->setFilterChain(sections.data(), sectionCount);
+    sampleStreamProcessor->setFilterChain(sections.data(), sectionCount);
+    thresholdProcessor->setFilterChain(sections.data(), sectionCount);
+    fftProcessor->setFilterChain(sections.data(), sectionCount);
+}
+
+extern "C" JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_JniUtils_measureFilterLoad(JNIEnv *env, jclass type, jfloatArray coefficients,
+                                                         jfloat sampleRate, jint channelCount) {
+    std::vector<float> sections(static_cast<size_t>(env->GetArrayLength(coefficients)));
+    env->GetFloatArrayRegion(coefficients, 0, static_cast<jsize>(sections.size()), sections.data());
+
+    return backyardbrains::filters::FilterCascade::measureLoad(
+            reinterpret_cast<const float (*)[5]>(sections.data()), static_cast<int>(sections.size() / 5), sampleRate,
+            channelCount);
+}
+
 extern "C" JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jclass type,
                                                            jint hardwareType, jobject out,
@@ -643,76 +799,43 @@ Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jclass t
                                                            jint length,
                                                            jobject sampleSourceObject) {
     jint channelCount = env->GetIntField(out, sdChannelCountFid);
-    auto samples = reinterpret_cast<jobjectArray>(env->GetObjectField(out, sdSamplesFid));
-    auto sampleCounts = reinterpret_cast<jintArray>(env->GetObjectField(out, sdSampleCountsFid));
+    jint maxSamplesPerChannel = env->GetIntField(out, sdMaxSamplesPerChannel);
+    bool direct = isDirect(env, out);
     auto eventIndices = reinterpret_cast<jintArray>(env->GetObjectField(out, sdEventIndicesFid));
     auto eventNames = reinterpret_cast<jobjectArray>(env->GetObjectField(out, sdEventNamesFid));
 
     jint eventCount = env->GetArrayLength(eventIndices);
 
-    auto *inBytesPtr = new jbyte[length];
-    env->GetByteArrayRegion(inBytes, 0, length, inBytesPtr);
+    jbyte *inBytesPtr = readBytes(env, inBytes, length);
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inBytesPtr;
-        return;
-    }
-
-    auto *uInBytesPtr = new unsigned char[length];
-    std::copy(inBytesPtr, inBytesPtr + length, uInBytesPtr);
+    if (exception_check(env)) return;
 
     // pass sample source object to event listener so proper method can be triggered on it when necessary
     eventListener->setSampleSourceObj(sampleSourceObject);
 
-    auto **outSamplesPtr = new jshort *[channelCount];
-    auto *outSampleCounts = new jint[channelCount];
-    auto *outEventIndicesPtr = new jint[eventCount];
-    auto *outEventNamesPtr = new std::string[eventCount];
+    jshort **outSamplesPtr = prepareSamples(env, out, channelCount, maxSamplesPerChannel, direct);
+    jint *outSampleCounts = ensureSize(outSampleCountsBuffer, channelCount);
+    jint *outEventIndicesPtr = ensureSize(outEventIndicesBuffer, eventCount);
+    std::string *outEventNamesPtr = ensureSize(outEventNamesBuffer, eventCount);
     jint outEventCount;
-    sampleStreamProcessor->process(uInBytesPtr, length, outSamplesPtr, outSampleCounts,
-                                   outEventIndicesPtr,
-                                   outEventNamesPtr, outEventCount, channelCount, hardwareType);
+    sampleStreamProcessor->process(reinterpret_cast<const unsigned char *>(inBytesPtr), length, outSamplesPtr,
+                                   outSampleCounts, maxSamplesPerChannel, outEventIndicesPtr, outEventNamesPtr,
+                                   outEventCount, channelCount, hardwareType);
 
     // if we did get some events create array of strings that represent event names and populate it
     for (int i = 0; i < outEventCount; i++) {
-        env->SetObjectArrayElement(eventNames, i, env->NewStringUTF(outEventNamesPtr[i].c_str()));
+        jstring eventName = env->NewStringUTF(outEventNamesPtr[i].c_str());
+        env->SetObjectArrayElement(eventNames, i, eventName);
+        env->DeleteLocalRef(eventName);
     }
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inBytesPtr;
-        delete[] uInBytesPtr;
-        for (int i = 0; i < channelCount; i++) {
-            delete[] outSamplesPtr[i];
-        }
-        delete[] outSamplesPtr;
-        delete[] outSampleCounts;
-        delete[] outEventIndicesPtr;
-        delete[] outEventNamesPtr;
-        return;
-    }
+    if (exception_check(env)) return;
 
-    jint *channelSampleCounts = new jint[channelCount];
-    for (int i = 0; i < channelCount; i++) {
-        auto channelSamples = reinterpret_cast<jshortArray>(env->GetObjectArrayElement(samples, i));
-        env->SetShortArrayRegion(channelSamples, 0, outSampleCounts[i], outSamplesPtr[i]);
-        env->SetObjectArrayElement(samples, i, channelSamples);
-        channelSampleCounts[i] = outSampleCounts[i];
-    }
-    env->SetIntArrayRegion(sampleCounts, 0, channelCount, channelSampleCounts);
+    writeSamples(env, out, channelCount, outSamplesPtr, outSampleCounts, direct);
     env->SetIntArrayRegion(eventIndices, 0, outEventCount, outEventIndicesPtr);
     env->SetIntField(out, sdEventCountFid, outEventCount);
-    delete[] inBytesPtr;
-    delete[] uInBytesPtr;
-    for (int i = 0; i < channelCount; i++) {
-        delete[] outSamplesPtr[i];
-    }
-    delete[] outSamplesPtr;
-    delete[] outSampleCounts;
-    delete[] outEventIndicesPtr;
-    delete[] outEventNamesPtr;
-    delete[] channelSampleCounts;
 }
 
 extern "C" JNIEXPORT jboolean JNICALL
@@ -725,24 +848,19 @@ Java_com_backyardbrains_utils_JniUtils_processMicrophoneStream(JNIEnv *env, jcla
                                                                jobject out,
                                                                jbyteArray inBytes, jint length) {
     jint channelCount = env->GetIntField(out, sdChannelCountFid);
+    jint maxSamplesPerChannel = env->GetIntField(out, sdMaxSamplesPerChannel);
     jint bitsPerSample = env->GetIntField(out, sdBitsPerSample);
-    auto samples = reinterpret_cast<jobjectArray>(env->GetObjectField(out, sdSamplesFid));
-    auto sampleCounts = reinterpret_cast<jintArray>(env->GetObjectField(out, sdSampleCountsFid));
+    bool direct = isDirect(env, out);
 
-    auto *inBytesPtr = new jbyte[length];
-    env->GetByteArrayRegion(inBytes, 0, length, inBytesPtr);
+    jbyte *inBytesPtr = readBytes(env, inBytes, length);
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inBytesPtr;
-        return;
-    }
+    if (exception_check(env)) return;
 
-    jint sampleCount = length * 8 / bitsPerSample;
-    jint frameCount = sampleCount / channelCount;
-    auto **outSamplesPtr = new jshort *[channelCount];
-    for (int i = 0; i < channelCount; i++)
-        outSamplesPtr[i] = new jshort[frameCount]{0};
+    // we can't write more samples than output buffers can hold
+    jint frameCount = std::min(length * 8 / bitsPerSample / channelCount, maxSamplesPerChannel);
+    jint sampleCount = frameCount * channelCount;
+    jshort **outSamplesPtr = prepareSamples(env, out, channelCount, maxSamplesPerChannel, direct);
     auto isReceivingAmSignalBefore = static_cast<jboolean>(amModulationProcessor->isReceivingAmSignal());
     amModulationProcessor->process(reinterpret_cast<short *>(inBytesPtr), outSamplesPtr,
                                    sampleCount, frameCount);
@@ -754,28 +872,11 @@ Java_com_backyardbrains_utils_JniUtils_processMicrophoneStream(JNIEnv *env, jcla
     }
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inBytesPtr;
-        for (int i = 0; i < channelCount; i++)
-            delete[] outSamplesPtr[i];
-        delete[] outSamplesPtr;
-        return;
-    }
+    if (exception_check(env)) return;
 
-    jint *deinterleavedSampleCounts = new jint[channelCount];
-    for (int i = 0; i < channelCount; i++) {
-        auto deinterleavedSamples = reinterpret_cast<jshortArray>(env->GetObjectArrayElement(
-                samples, i));
-        env->SetShortArrayRegion(deinterleavedSamples, 0, frameCount, outSamplesPtr[i]);
-        deinterleavedSampleCounts[i] = frameCount;
-    }
-    env->SetIntArrayRegion(sampleCounts, 0, channelCount, deinterleavedSampleCounts);
-
-    delete[] inBytesPtr;
-    for (int i = 0; i < channelCount; i++)
-        delete[] outSamplesPtr[i];
-    delete[] outSamplesPtr;
-    delete[] deinterleavedSampleCounts;
+    jint *deinterleavedSampleCounts = ensureSize(outSampleCountsBuffer, channelCount);
+    for (int i = 0; i < channelCount; i++) deinterleavedSampleCounts[i] = frameCount;
+    writeSamples(env, out, channelCount, outSamplesPtr, deinterleavedSampleCounts, direct);
 }
 
 extern "C" JNIEXPORT void JNICALL
@@ -788,30 +889,22 @@ Java_com_backyardbrains_utils_JniUtils_processPlaybackStream(JNIEnv *env, jclass
     jint channelCount = env->GetIntField(out, sdChannelCountFid);
     jint maxSamplesPerChannel = env->GetIntField(out, sdMaxSamplesPerChannel);
     jint bitsPerSample = env->GetIntField(out, sdBitsPerSample);
-    auto samples = reinterpret_cast<jobjectArray>(env->GetObjectField(out, sdSamplesFid));
-    auto sampleCounts = reinterpret_cast<jintArray>(env->GetObjectField(out, sdSampleCountsFid));
+    bool direct = isDirect(env, out);
     auto eventIndices = reinterpret_cast<jintArray>(env->GetObjectField(out, sdEventIndicesFid));
     auto eventNames = reinterpret_cast<jobjectArray>(env->GetObjectField(out, sdEventNamesFid));
 
-    auto *inBytesPtr = new jbyte[length];
-    env->GetByteArrayRegion(inBytes, 0, length, inBytesPtr);
+    jbyte *inBytesPtr = readBytes(env, inBytes, length);
 
-    jint *inEventIndicesPtr = new jint[inEventCount];
+    jint *inEventIndicesPtr = ensureSize(inEventIndicesBuffer, inEventCount);
     env->GetIntArrayRegion(inEventIndices, 0, inEventCount, inEventIndicesPtr);
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inBytesPtr;
-        delete[] inEventIndicesPtr;
-        return;
-    }
+    if (exception_check(env)) return;
 
-    jint sampleCount = length * 8 / bitsPerSample;
-    jint frameCount = sampleCount / channelCount;
-    auto **outSamplesPtr = new jshort *[channelCount];
-    for (int i = 0; i < channelCount; i++) {
-        outSamplesPtr[i] = new jshort[frameCount]{0};
-    }
+    // we can't write more samples than output buffers can hold
+    jint frameCount = std::min(length * 8 / bitsPerSample / channelCount, maxSamplesPerChannel);
+    jint sampleCount = frameCount * channelCount;
+    jshort **outSamplesPtr = prepareSamples(env, out, channelCount, maxSamplesPerChannel, direct);
     if (bitsPerSample == backyardbrains::utils::SignalUtils::ENCODING_FLOAT) {
         backyardbrains::utils::SignalUtils::deinterleaveSignal1(outSamplesPtr,
                                                                 reinterpret_cast<const float *>(inBytesPtr),
@@ -822,7 +915,7 @@ Java_com_backyardbrains_utils_JniUtils_processPlaybackStream(JNIEnv *env, jclass
                                                                sampleCount, channelCount);
     }
 
-    jint *outEventIndicesPtr = new jint[inEventCount];
+    jint *outEventIndicesPtr = ensureSize(outEventIndicesBuffer, inEventCount);
 
     jint eventCounter = 0;
     jint prepend = std::min(0, prependSamples);
@@ -833,42 +926,23 @@ Java_com_backyardbrains_utils_JniUtils_processPlaybackStream(JNIEnv *env, jclass
 
             auto string = (jstring) (env->GetObjectArrayElement(inEventNames, i));
             const char *rawString = env->GetStringUTFChars(string, JNI_FALSE);
-            env->SetObjectArrayElement(eventNames, eventCounter++, env->NewStringUTF(rawString));
+            jstring eventName = env->NewStringUTF(rawString);
+            env->SetObjectArrayElement(eventNames, eventCounter++, eventName);
             env->ReleaseStringUTFChars(string, rawString);
+            env->DeleteLocalRef(eventName);
+            env->DeleteLocalRef(string);
         }
     }
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inBytesPtr;
-        for (int i = 0; i < channelCount; i++)
-            delete[] outSamplesPtr[i];
-        delete[] outSamplesPtr;
-        delete[] inEventIndicesPtr;
-        delete[] outEventIndicesPtr;
-        return;
-    }
+    if (exception_check(env)) return;
 
-    jint *deinterleavedSampleCounts = new jint[channelCount];
-    jint samplesToCopy = std::min(maxSamplesPerChannel, frameCount);
-    jint count = std::min(frameCount, samplesToCopy);
-    for (int i = 0; i < channelCount; i++) {
-        auto deinterleavedSamples = reinterpret_cast<jshortArray>(env->GetObjectArrayElement(
-                samples, i));
-        env->SetShortArrayRegion(deinterleavedSamples, 0, count, outSamplesPtr[i]);
-        deinterleavedSampleCounts[i] = count;
-    }
-    env->SetIntArrayRegion(sampleCounts, 0, channelCount, deinterleavedSampleCounts);
+    jint *deinterleavedSampleCounts = ensureSize(outSampleCountsBuffer, channelCount);
+    for (int i = 0; i < channelCount; i++) deinterleavedSampleCounts[i] = frameCount;
+    writeSamples(env, out, channelCount, outSamplesPtr, deinterleavedSampleCounts, direct);
     env->SetIntArrayRegion(eventIndices, 0, eventCounter, outEventIndicesPtr);
     env->SetIntField(out, sdEventCountFid, eventCounter);
     env->SetLongField(out, sdLastSampleIndexFid, prepend + end);
-    delete[] inBytesPtr;
-    for (int i = 0; i < channelCount; i++)
-        delete[] outSamplesPtr[i];
-    delete[] outSamplesPtr;
-    delete[] deinterleavedSampleCounts;
-    delete[] inEventIndicesPtr;
-    delete[] outEventIndicesPtr;
 }
 
 extern "C" JNIEXPORT jint JNICALL
@@ -924,10 +998,9 @@ Java_com_backyardbrains_utils_JniUtils_processThreshold(JNIEnv *env, jclass type
                                                         jobject in,
                                                         jboolean averageSamples) {
     jint channelCount = env->GetIntField(out, sdChannelCountFid);
-    auto samples = reinterpret_cast<jobjectArray>(env->GetObjectField(in, sdSamplesFid));
     auto sampleCounts = reinterpret_cast<jintArray>(env->GetObjectField(in, sdSampleCountsFid));
 
-    jint *inSampleCountsPtr = new jint[channelCount];
+    jint *inSampleCountsPtr = ensureSize(inSampleCountsBuffer, channelCount);
     env->GetIntArrayRegion(sampleCounts, 0, channelCount, inSampleCountsPtr);
 
     // check if we didn't get any samples... in that case we can return
@@ -935,113 +1008,58 @@ Java_com_backyardbrains_utils_JniUtils_processThreshold(JNIEnv *env, jclass type
         if (inSampleCountsPtr[i] == 0) return;
     }
 
-    auto **inSamplesPtr = new jshort *[channelCount];
-    for (int i = 0; i < channelCount; i++) {
-        inSamplesPtr[i] = new jshort[inSampleCountsPtr[i]]{0};
-        env->GetShortArrayRegion(
-                reinterpret_cast<jshortArray>(env->GetObjectArrayElement(samples, i)), 0,
-                inSampleCountsPtr[i], inSamplesPtr[i]);
-    }
+    jshort **inSamplesPtr = readSamples(env, in, channelCount, inSampleCountsPtr);
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inSampleCountsPtr;
-        for (int i = 0; i < channelCount; i++) {
-            delete[] inSamplesPtr[i];
-        }
-        delete[] inSamplesPtr;
-        return;
-    }
+    if (exception_check(env)) return;
 
-    thresholdProcessor->setChannelCount(channelCount);
+    // changing channel count recreates filters so we only do it when channel count actually changes
+    if (thresholdChannelCount != channelCount) {
+        thresholdProcessor->setChannelCount(channelCount);
+        thresholdChannelCount = channelCount;
+    }
     if (!averageSamples) {
         thresholdProcessor->appendIncomingSamples(inSamplesPtr, inSampleCountsPtr);
-
-        delete[] inSampleCountsPtr;
-        for (int i = 0; i < channelCount; i++) {
-            delete[] inSamplesPtr[i];
-        }
-        delete[] inSamplesPtr;
-
         return;
     }
 
-    auto outSamples = reinterpret_cast<jobjectArray>(env->GetObjectField(out, sdSamplesFid));
-    auto outSampleCounts = reinterpret_cast<jintArray>(env->GetObjectField(out, sdSampleCountsFid));
     auto inEventIndices = reinterpret_cast<jintArray>(env->GetObjectField(in, sdEventIndicesFid));
     auto inEventNames = reinterpret_cast<jobjectArray>(env->GetObjectField(in, sdEventNamesFid));
     jint inEventCount = env->GetIntField(in, sdEventCountFid);
 
-    jint *inEventIndicesPtr = new jint[inEventCount];
+    jint *inEventIndicesPtr = ensureSize(inEventIndicesBuffer, inEventCount);
     env->GetIntArrayRegion(inEventIndices, 0, inEventCount, inEventIndicesPtr);
-    jint *inEventsPtr = new jint[inEventCount];
+    jint *inEventsPtr = ensureSize(inEventsBuffer, inEventCount);
     for (int i = 0; i < inEventCount; i++) {
         auto string = (jstring) (env->GetObjectArrayElement(inEventNames, i));
         const char *rawString = env->GetStringUTFChars(string, JNI_FALSE);
         inEventsPtr[i] = std::stoi(rawString);
         env->ReleaseStringUTFChars(string, rawString);
+        env->DeleteLocalRef(string);
     }
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inSampleCountsPtr;
-        for (int i = 0; i < channelCount; i++) {
-            delete[] inSamplesPtr[i];
-        }
-        delete[] inSamplesPtr;
-        delete[] inEventIndicesPtr;
-        delete[] inEventsPtr;
-        return;
-    }
+    if (exception_check(env)) return;
 
-    auto **outSamplesPtr = new jshort *[channelCount];
-    for (int i = 0; i < channelCount; i++)
-        outSamplesPtr[i] = new jshort[ThresholdProcessor::DEFAULT_SAMPLE_COUNT]{0};
-    jint *averagedSampleCount = new jint[channelCount]{0};
-    thresholdProcessor->process(outSamplesPtr, averagedSampleCount, inSamplesPtr, inSampleCountsPtr,
-                                inEventIndicesPtr,
-                                inEventsPtr, inEventCount);
+    jint maxSamplesPerChannel = env->GetIntField(out, sdMaxSamplesPerChannel);
+    bool direct = isDirect(env, out);
+    jshort **outSamplesPtr = prepareSamples(env, out, channelCount, maxSamplesPerChannel, direct);
+    jint *averagedSampleCount = ensureSize(outSampleCountsBuffer, channelCount);
+    std::fill(averagedSampleCount, averagedSampleCount + channelCount, 0);
+    thresholdProcessor->process(outSamplesPtr, averagedSampleCount, maxSamplesPerChannel, inSamplesPtr,
+                                inSampleCountsPtr, inEventIndicesPtr, inEventsPtr, inEventCount);
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inSampleCountsPtr;
-        for (int i = 0; i < channelCount; i++) {
-            delete[] inSamplesPtr[i];
-        }
-        delete[] inSamplesPtr;
-        delete[] inEventIndicesPtr;
-        delete[] inEventsPtr;
-        for (int i = 0; i < channelCount; i++) {
-            delete[] outSamplesPtr[i];
-        }
-        delete[] outSamplesPtr;
-        return;
-    }
-
-    jint *channelSampleCounts = new jint[channelCount];
-    for (int i = 0; i < channelCount; i++) {
-        auto channelSamples = reinterpret_cast<jshortArray>(env->GetObjectArrayElement(outSamples,
-                                                                                       i));
-        env->SetShortArrayRegion(channelSamples, 0, averagedSampleCount[i], outSamplesPtr[i]);
-        env->SetObjectArrayElement(outSamples, i, channelSamples);
-        env->DeleteLocalRef(channelSamples);
+    if (exception_check(env)) return;
 
-        channelSampleCounts[i] = averagedSampleCount[i];
-    }
-    env->SetIntArrayRegion(outSampleCounts, 0, channelCount, channelSampleCounts);
+    writeSamples(env, out, channelCount, outSamplesPtr, averagedSampleCount, direct);
+}
 
-    delete[] inSampleCountsPtr;
-    for (int i = 0; i < channelCount; i++) {
-        delete[] inSamplesPtr[i];
-    }
-    delete[] inSamplesPtr;
-    delete[] inEventIndicesPtr;
-    delete[] inEventsPtr;
-    for (int i = 0; i < channelCount; i++) {
-        delete[] outSamplesPtr[i];
-    }
-    delete[] outSamplesPtr;
-    delete[] channelSampleCounts;
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_setSpectrogramLayout(JNIEnv *env, jclass type, jint decimation,
+                                                            jint windowSampleCount, jint hopSampleCount,
+                                                            jint windowFunction, jint fftBinCount, jint binCount) {
+    fftProcessor->setLayout(decimation, windowSampleCount, hopSampleCount, windowFunction, fftBinCount, binCount);
 }
 
 extern "C" JNIEXPORT void JNICALL
@@ -1053,10 +1071,9 @@ extern "C" JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_processFft(JNIEnv *env, jclass type, jobject out,
                                                   jobject in) {
     jint channelCount = env->GetIntField(in, sdChannelCountFid);
-    auto samples = reinterpret_cast<jobjectArray>(env->GetObjectField(in, sdSamplesFid));
     auto sampleCounts = reinterpret_cast<jintArray>(env->GetObjectField(in, sdSampleCountsFid));
 
-    jint *inSampleCountsPtr = new jint[channelCount];
+    jint *inSampleCountsPtr = ensureSize(inSampleCountsBuffer, channelCount);
     env->GetIntArrayRegion(sampleCounts, 0, channelCount, inSampleCountsPtr);
 
     // check if we didn't get any samples... in that case we can return
@@ -1064,30 +1081,26 @@ Java_com_backyardbrains_utils_JniUtils_processFft(JNIEnv *env, jclass type, jobj
         if (inSampleCountsPtr[i] == 0) return;
     }
 
-    auto **inSamplesPtr = new jshort *[channelCount];
-    for (int i = 0; i < channelCount; i++) {
-        inSamplesPtr[i] = new jshort[inSampleCountsPtr[i]]{0};
-        env->GetShortArrayRegion(
-                reinterpret_cast<jshortArray>(env->GetObjectArrayElement(samples, i)), 0,
-                inSampleCountsPtr[i], inSamplesPtr[i]);
-    }
+    jshort **inSamplesPtr = readSamples(env, in, channelCount, inSampleCountsPtr);
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inSampleCountsPtr;
-        for (int i = 0; i < channelCount; i++) {
-            delete[] inSamplesPtr[i];
-        }
-        delete[] inSamplesPtr;
-        return;
-    }
+    if (exception_check(env)) return;
 
     auto maxWindowCount = env->GetIntField(out, fdMaxWindowCountFid);
     auto maxWindowSize = env->GetIntField(out, fdMaxWindowSizeFid);
-    auto outFft = reinterpret_cast<jobjectArray>(env->GetObjectField(out, fdFftFid));
-
-    auto **outFftPtr = new jfloat *[maxWindowCount];
-    for (int i = 0; i < maxWindowCount; i++) outFftPtr[i] = new jfloat[maxWindowSize]{0};
+    bool direct = env->GetBooleanField(out, fdDirectFid) == JNI_TRUE;
+
+    jfloat **outFftPtr;
+    if (direct) {
+        // windows are laid out one after another in a single direct buffer
+        auto directFft = env->GetObjectField(out, fdDirectFftFid);
+        auto *directFftPtr = static_cast<jfloat *>(env->GetDirectBufferAddress(directFft));
+        env->DeleteLocalRef(directFft);
+        outFftPtr = ensureSize(outDirectFftPtrs, maxWindowCount);
+        for (int i = 0; i < maxWindowCount; i++) outFftPtr[i] = directFftPtr + i * maxWindowSize;
+    } else {
+        outFftPtr = outFftBuffers.get(maxWindowCount, maxWindowSize);
+    }
     jint windowCounter = 0;
     jint frequencyCounter = 0;
     fftProcessor->process(outFftPtr, maxWindowCount, windowCounter, frequencyCounter, channelCount,
@@ -1095,88 +1108,333 @@ Java_com_backyardbrains_utils_JniUtils_processFft(JNIEnv *env, jclass type, jobj
                           inSampleCountsPtr);
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inSampleCountsPtr;
-        for (int i = 0; i < channelCount; i++) {
-            delete[] inSamplesPtr[i];
+    if (exception_check(env)) return;
+
+    if (!direct) {
+        auto outFft = reinterpret_cast<jobjectArray>(env->GetObjectField(out, fdFftFid));
+        for (int i = 0; i < windowCounter; i++) {
+            auto fft = reinterpret_cast<jfloatArray >(env->GetObjectArrayElement(outFft, i));
+            env->SetFloatArrayRegion(fft, 0, frequencyCounter, outFftPtr[i]);
+            env->DeleteLocalRef(fft);
+            JniCounters::countCopiedBytes(frequencyCounter * sizeof(jfloat));
         }
-        delete[] inSamplesPtr;
-        for (int i = 0; i < maxWindowCount; i++) {
-            delete[] outFftPtr[i];
-        }
-        delete[] outFftPtr;
-        return;
-    }
-
-    for (int i = 0; i < windowCounter; i++) {
-        auto fft = reinterpret_cast<jfloatArray >(env->GetObjectArrayElement(outFft, i));
-        env->SetFloatArrayRegion(fft, 0, frequencyCounter, outFftPtr[i]);
-        env->SetObjectArrayElement(outFft, i, fft);
-        env->DeleteLocalRef(fft);
+        env->DeleteLocalRef(outFft);
     }
     env->SetIntField(out, fdWindowCountFid, windowCounter);
     env->SetIntField(out, fdWindowSizeFid, frequencyCounter);
+}
 
-    delete[] inSampleCountsPtr;
-    for (int i = 0; i < channelCount; i++) {
-        delete[] inSamplesPtr[i];
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_getCopiedByteCount(JNIEnv *env, jclass type) {
+    return static_cast<jlong>(JniCounters::getCopiedByteCount());
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_getAllocationCount(JNIEnv *env, jclass type) {
+    return static_cast<jlong>(JniCounters::getAllocationCount());
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_resetCounters(JNIEnv *env, jclass type) {
+    JniCounters::reset();
+}
+
+// Native-owned state of the processing pipeline. It's set up once per signal configuration change so that processing
+// a batch doesn't need to resolve any java objects. Access is serialized by the caller (SignalProcessor's lock).
+static struct {
+    bool ready = false;
+    jobject signalData = nullptr;
+    jobject visibleSignalData = nullptr;
+    jobject averagedSignalData = nullptr;
+    jobject fftData = nullptr;
+    jintArray sampleCountsArray = nullptr;
+    jintArray visibleSampleCountsArray = nullptr;
+    jintArray averagedSampleCountsArray = nullptr;
+    jintArray eventIndicesArray = nullptr;
+    jobjectArray eventNamesArray = nullptr;
+    jint channelCount = 0;
+    jint visibleChannelCount = 0;
+    jint maxSamplesPerChannel = 0;
+    jint maxAveragedSamplesPerChannel = 0;
+    jint maxEventCount = 0;
+    jint maxWindowCount = 0;
+    std::vector<jint> visibleChannels;
+    std::vector<jshort *> samples;
+    std::vector<jshort *> visibleSamples;
+    std::vector<jshort *> averagedSamples;
+    std::vector<jfloat *> fft;
+    std::vector<jint> sampleCounts;
+    std::vector<jint> visibleSampleCounts;
+    std::vector<jint> averagedSampleCounts;
+    std::vector<jint> eventIndices;
+    std::vector<jint> events;
+    std::vector<std::string> eventNames;
+} pipeline;
+
+static void releasePipeline(JNIEnv *env) {
+    jobject refs[] = {pipeline.signalData, pipeline.visibleSignalData, pipeline.averagedSignalData,
+                      pipeline.fftData, pipeline.sampleCountsArray, pipeline.visibleSampleCountsArray,
+                      pipeline.averagedSampleCountsArray, pipeline.eventIndicesArray, pipeline.eventNamesArray};
+    for (jobject ref : refs) if (ref != nullptr) env->DeleteGlobalRef(ref);
+
+    pipeline.signalData = pipeline.visibleSignalData = pipeline.averagedSignalData = pipeline.fftData = nullptr;
+    pipeline.sampleCountsArray = pipeline.visibleSampleCountsArray = pipeline.averagedSampleCountsArray = nullptr;
+    pipeline.eventIndicesArray = nullptr;
+    pipeline.eventNamesArray = nullptr;
+    pipeline.ready = false;
+}
+
+// Caches global reference to the int[] field of the specified object
+static jintArray newGlobalIntArray(JNIEnv *env, jobject obj, jfieldID fid) {
+    jobject array = env->GetObjectField(obj, fid);
+    auto globalArray = reinterpret_cast<jintArray>(env->NewGlobalRef(array));
+    env->DeleteLocalRef(array);
+
+    return globalArray;
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_setupPipeline(JNIEnv *env, jclass type, jobject signalData,
+                                                     jobject visibleSignalData, jobject averagedSignalData,
+                                                     jobject fftData, jintArray visibleChannels) {
+    releasePipeline(env);
+
+    // pipeline writes directly to signal data memory so it only works with direct buffers
+    if (!isDirect(env, signalData) || !isDirect(env, visibleSignalData) || !isDirect(env, averagedSignalData) ||
+        env->GetBooleanField(fftData, fdDirectFid) != JNI_TRUE) {
+        return JNI_FALSE;
+    }
+
+    jint channelCount = env->GetIntField(signalData, sdChannelCountFid);
+    jint visibleChannelCount = env->GetArrayLength(visibleChannels);
+    pipeline.channelCount = channelCount;
+    pipeline.visibleChannelCount = visibleChannelCount;
+    pipeline.maxSamplesPerChannel = env->GetIntField(signalData, sdMaxSamplesPerChannel);
+    pipeline.maxAveragedSamplesPerChannel = env->GetIntField(averagedSignalData, sdMaxSamplesPerChannel);
+    pipeline.maxWindowCount = env->GetIntField(fftData, fdMaxWindowCountFid);
+
+    pipeline.visibleChannels.resize(static_cast<size_t>(visibleChannelCount));
+    env->GetIntArrayRegion(visibleChannels, 0, visibleChannelCount, pipeline.visibleChannels.data());
+    for (jint channel : pipeline.visibleChannels) if (channel < 0 || channel >= channelCount) return JNI_FALSE;
+
+    // resolve addresses of all the direct buffers
+    pipeline.samples.resize(static_cast<size_t>(channelCount));
+    std::copy_n(getDirectSamples(env, signalData, channelCount, outDirectSamplesPtrs), channelCount,
+                pipeline.samples.begin());
+    pipeline.visibleSamples.resize(static_cast<size_t>(visibleChannelCount));
+    for (int i = 0; i < visibleChannelCount; i++) {
+        pipeline.visibleSamples[i] = pipeline.samples[pipeline.visibleChannels[i]];
+    }
+    pipeline.averagedSamples.resize(static_cast<size_t>(visibleChannelCount));
+    std::copy_n(getDirectSamples(env, averagedSignalData, visibleChannelCount, outDirectSamplesPtrs),
+                visibleChannelCount, pipeline.averagedSamples.begin());
+    jint maxWindowSize = env->GetIntField(fftData, fdMaxWindowSizeFid);
+    jobject directFft = env->GetObjectField(fftData, fdDirectFftFid);
+    auto *directFftPtr = static_cast<jfloat *>(env->GetDirectBufferAddress(directFft));
+    env->DeleteLocalRef(directFft);
+    pipeline.fft.resize(static_cast<size_t>(pipeline.maxWindowCount));
+    for (int i = 0; i < pipeline.maxWindowCount; i++) pipeline.fft[i] = directFftPtr + i * maxWindowSize;
+
+    // cache references to java objects that need to be updated with every batch
+    pipeline.signalData = env->NewGlobalRef(signalData);
+    pipeline.visibleSignalData = env->NewGlobalRef(visibleSignalData);
+    pipeline.averagedSignalData = env->NewGlobalRef(averagedSignalData);
+    pipeline.fftData = env->NewGlobalRef(fftData);
+    pipeline.sampleCountsArray = newGlobalIntArray(env, signalData, sdSampleCountsFid);
+    pipeline.visibleSampleCountsArray = newGlobalIntArray(env, visibleSignalData, sdSampleCountsFid);
+    pipeline.averagedSampleCountsArray = newGlobalIntArray(env, averagedSignalData, sdSampleCountsFid);
+    pipeline.eventIndicesArray = newGlobalIntArray(env, signalData, sdEventIndicesFid);
+    jobject eventNames = env->GetObjectField(signalData, sdEventNamesFid);
+    pipeline.eventNamesArray = reinterpret_cast<jobjectArray>(env->NewGlobalRef(eventNames));
+    env->DeleteLocalRef(eventNames);
+    pipeline.maxEventCount = env->GetArrayLength(pipeline.eventIndicesArray);
+
+    // allocate all the buffers needed for processing up front
+    pipeline.sampleCounts.assign(static_cast<size_t>(channelCount), 0);
+    pipeline.visibleSampleCounts.assign(static_cast<size_t>(visibleChannelCount), 0);
+    pipeline.averagedSampleCounts.assign(static_cast<size_t>(visibleChannelCount), 0);
+    pipeline.eventIndices.assign(static_cast<size_t>(pipeline.maxEventCount), 0);
+    pipeline.events.assign(static_cast<size_t>(pipeline.maxEventCount), 0);
+    pipeline.eventNames.assign(static_cast<size_t>(pipeline.maxEventCount), std::string());
+
+    if (exception_check(env)) {
+        releasePipeline(env);
+        return JNI_FALSE;
     }
-    delete[] inSamplesPtr;
-    for (int i = 0; i < maxWindowCount; i++) {
-        delete[] outFftPtr[i];
+
+    pipeline.ready = true;
+
+    return JNI_TRUE;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_releasePipeline(JNIEnv *env, jclass type) {
+    releasePipeline(env);
+}
+
+// Decodes incoming bytes into pipeline's signal data. Returns number of decoded events or -1 if decoding failed.
+static jint decodePipelineInput(JNIEnv *env, jint decoder, jint hardwareType, jbyteArray inBytes, jint length,
+                                jobject sampleSourceObject) {
+    jint channelCount = pipeline.channelCount;
+    jint eventCount = 0;
+    switch (decoder) {
+        case PIPELINE_DECODER_SAMPLE_STREAM: {
+            jbyte *inBytesPtr = readBytes(env, inBytes, length);
+            if (exception_check(env)) return -1;
+
+            // pass sample source object to event listener so proper method can be triggered on it when necessary
+            eventListener->setSampleSourceObj(sampleSourceObject);
+            sampleStreamProcessor->process(reinterpret_cast<const unsigned char *>(inBytesPtr), length,
+                                           pipeline.samples.data(), pipeline.sampleCounts.data(),
+                                           pipeline.maxSamplesPerChannel, pipeline.eventIndices.data(),
+                                           pipeline.eventNames.data(), eventCount, channelCount, hardwareType);
+            eventCount = std::min(eventCount, pipeline.maxEventCount);
+            for (int i = 0; i < eventCount; i++) {
+                jstring eventName = env->NewStringUTF(pipeline.eventNames[i].c_str());
+                env->SetObjectArrayElement(pipeline.eventNamesArray, i, eventName);
+                env->DeleteLocalRef(eventName);
+            }
+            env->SetIntArrayRegion(pipeline.sampleCountsArray, 0, channelCount, pipeline.sampleCounts.data());
+            env->SetIntArrayRegion(pipeline.eventIndicesArray, 0, eventCount, pipeline.eventIndices.data());
+            env->SetIntField(pipeline.signalData, sdEventCountFid, eventCount);
+            break;
+        }
+        case PIPELINE_DECODER_MICROPHONE: {
+            jbyte *inBytesPtr = readBytes(env, inBytes, length);
+            if (exception_check(env)) return -1;
+
+            jint bitsPerSample = env->GetIntField(pipeline.signalData, sdBitsPerSample);
+            // we can't write more samples than output buffers can hold
+            jint frameCount = std::min(length * 8 / bitsPerSample / channelCount, pipeline.maxSamplesPerChannel);
+            auto isReceivingAmSignalBefore = amModulationProcessor->isReceivingAmSignal();
+            amModulationProcessor->process(reinterpret_cast<short *>(inBytesPtr), pipeline.samples.data(),
+                                           frameCount * channelCount, frameCount);
+            auto isReceivingAmSignalAfter = amModulationProcessor->isReceivingAmSignal();
+            // if we detected that AM modulation started/ended java code needs to be informed
+            if (isReceivingAmSignalBefore != isReceivingAmSignalAfter) {
+                backyardbrains::utils::JniHelper::invokeStaticVoid(vm, "onAmDemodulationChange", "(Z)V",
+                                                                   static_cast<jboolean>(isReceivingAmSignalAfter));
+            }
+            std::fill(pipeline.sampleCounts.begin(), pipeline.sampleCounts.end(), frameCount);
+            env->SetIntArrayRegion(pipeline.sampleCountsArray, 0, channelCount, pipeline.sampleCounts.data());
+            break;
+        }
+        default: {
+            // signal has already been decoded into signal data so we just need to pick up the counts
+            env->GetIntArrayRegion(pipeline.sampleCountsArray, 0, channelCount, pipeline.sampleCounts.data());
+            eventCount = std::min(env->GetIntField(pipeline.signalData, sdEventCountFid), pipeline.maxEventCount);
+            env->GetIntArrayRegion(pipeline.eventIndicesArray, 0, eventCount, pipeline.eventIndices.data());
+            for (int i = 0; i < eventCount; i++) {
+                auto string = (jstring) (env->GetObjectArrayElement(pipeline.eventNamesArray, i));
+                const char *rawString = env->GetStringUTFChars(string, JNI_FALSE);
+                pipeline.eventNames[i] = rawString;
+                env->ReleaseStringUTFChars(string, rawString);
+                env->DeleteLocalRef(string);
+            }
+            break;
+        }
     }
-    delete[] outFftPtr;
+
+    if (exception_check(env)) return -1;
+
+    return eventCount;
 }
 
 extern "C" JNIEXPORT void JNICALL
-Java_com_backyardbrains_utils_JniUtils_prepareForSignalDrawing(JNIEnv *env, jclass type,
-                                                               jobject outSignal,
-                                                               jobject outEvents,
-                                                               jobjectArray inSignal,
-                                                               jint inFrameCount,
-                                                               jintArray inEventIndices,
-                                                               jint inEventCount,
-                                                               jint drawStartIndex,
-                                                               jint drawEndIndex,
-                                                               jint drawSurfaceWidth) {
+Java_com_backyardbrains_utils_JniUtils_processPipeline(JNIEnv *env, jclass type, jint decoder,
+                                                       jint hardwareType, jbyteArray inBytes, jint length,
+                                                       jobject sampleSourceObject, jboolean signalAveraging) {
+    if (!pipeline.ready) return;
+
+    // 1. decode incoming signal
+    jint eventCount = decodePipelineInput(env, decoder, hardwareType, inBytes, length, sampleSourceObject);
+    if (eventCount < 0) return;
+
+    // 2. configure channels of processed signal, visible channels already point to the samples of all channels
+    jint visibleChannelCount = pipeline.visibleChannelCount;
+    if (visibleChannelCount == 0) return;
+    bool hasSamples = true;
+    for (int i = 0; i < visibleChannelCount; i++) {
+        pipeline.visibleSampleCounts[i] = pipeline.sampleCounts[pipeline.visibleChannels[i]];
+        if (pipeline.visibleSampleCounts[i] == 0) hasSamples = false;
+    }
+    env->SetIntArrayRegion(pipeline.visibleSampleCountsArray, 0, visibleChannelCount,
+                           pipeline.visibleSampleCounts.data());
+    env->SetIntField(pipeline.visibleSignalData, sdEventCountFid, eventCount);
+    env->SetLongField(pipeline.visibleSignalData, sdLastSampleIndexFid,
+                      env->GetLongField(pipeline.signalData, sdLastSampleIndexFid));
+
+    // there is nothing to average or analyze if we didn't get any samples
+    if (!hasSamples) return;
+
+    // 3. average processed signal
+    // changing channel count recreates filters so we only do it when channel count actually changes
+    if (thresholdChannelCount != visibleChannelCount) {
+        thresholdProcessor->setChannelCount(visibleChannelCount);
+        thresholdChannelCount = visibleChannelCount;
+    }
+    if (!signalAveraging) {
+        thresholdProcessor->appendIncomingSamples(pipeline.visibleSamples.data(), pipeline.visibleSampleCounts.data());
+    } else {
+        for (int i = 0; i < eventCount; i++) pipeline.events[i] = std::stoi(pipeline.eventNames[i]);
+        std::fill(pipeline.averagedSampleCounts.begin(), pipeline.averagedSampleCounts.end(), 0);
+        thresholdProcessor->process(pipeline.averagedSamples.data(), pipeline.averagedSampleCounts.data(),
+                                    pipeline.maxAveragedSamplesPerChannel, pipeline.visibleSamples.data(),
+                                    pipeline.visibleSampleCounts.data(), pipeline.eventIndices.data(),
+                                    pipeline.events.data(), eventCount);
+        env->SetIntArrayRegion(pipeline.averagedSampleCountsArray, 0, visibleChannelCount,
+                               pipeline.averagedSampleCounts.data());
+
+        exception_check(env);
+        return;
+    }
+
+    // 4. analyze processed signal
+    jint windowCounter = 0;
+    jint frequencyCounter = 0;
+    fftProcessor->process(pipeline.fft.data(), pipeline.maxWindowCount, windowCounter, frequencyCounter,
+                          visibleChannelCount, pipeline.visibleSamples.data(), pipeline.visibleSampleCounts.data());
+    env->SetIntField(pipeline.fftData, fdWindowCountFid, windowCounter);
+    env->SetIntField(pipeline.fftData, fdWindowSizeFid, frequencyCounter);
+
+    exception_check(env);
+}
+
+// Envelopes specified signal with specified envelope and passes (x, y) vertices and event positions to the renderer
+static void prepareSignalForDrawing(JNIEnv *env, backyardbrains::utils::SignalEnvelope &envelope, jobject outSignal,
+                                    jobject outEvents, jobjectArray inSignal, jint inFrameCount,
+                                    jintArray inEventIndices, jint inEventCount, jint drawStartIndex,
+                                    jint drawEndIndex, jint drawSurfaceWidth, jint appendedFrameCount) {
     jint channelCount = env->GetArrayLength(inSignal);
-    auto **inSamplesPtr = new jshort *[channelCount];
+    jshort **inSamplesPtr = inSamplesBuffers.get(channelCount, inFrameCount);
     for (int i = 0; i < channelCount; ++i) {
         auto tmpSamples = (jshortArray) env->GetObjectArrayElement(inSignal, i);
-        inSamplesPtr[i] = new jshort[inFrameCount];
         env->GetShortArrayRegion(tmpSamples, 0, inFrameCount, inSamplesPtr[i]);
         env->DeleteLocalRef(tmpSamples);
     }
 
-    jint *inEventIndicesPtr = new jint[inEventCount];
+    jint *inEventIndicesPtr = ensureSize(inEventIndicesBuffer, inEventCount);
     env->GetIntArrayRegion(inEventIndices, 0, inEventCount, inEventIndicesPtr);
 
     // exception check
     if (exception_check(env)) {
-        for (int i = 0; i < channelCount; i++) {
-            delete[] inSamplesPtr[i];
-        }
-        delete[] inSamplesPtr;
-        delete[] inEventIndicesPtr;
+        // signal passed with the next frame can't continue this one
+        envelope.reset();
         return;
     }
 
     jint maxSampleCount =
             drawSurfaceWidth * 5; // can't be more than x5 when enveloping (deducted from testing)
-    jint maxEventCount = 100;
-    auto **outSamplesPtr = new jfloat *[channelCount];
-    for (int i = 0; i < channelCount; i++)
-        outSamplesPtr[i] = new jfloat[maxSampleCount]{0};
-    auto *outSampleCountsPtr = new jint[channelCount]{0};
-    auto *outEventIndicesPtr = new jfloat[maxEventCount];
+    jfloat **outSamplesPtr = outDrawSamplesBuffers.get(channelCount, maxSampleCount);
+    jint *outSampleCountsPtr = ensureSize(outSampleCountsBuffer, channelCount);
+    jfloat *outEventIndicesPtr = ensureSize(outDrawEventIndicesBuffer, inEventCount);
     jint outEventCount = 0;
     backyardbrains::utils::DrawingUtils::prepareSignalForDrawing(outSamplesPtr, outSampleCountsPtr,
-                                                                 outEventIndicesPtr,
-                                                                 outEventCount, inSamplesPtr,
-                                                                 channelCount,
-                                                                 inEventIndicesPtr, inEventCount,
-                                                                 drawStartIndex,
-                                                                 drawEndIndex, drawSurfaceWidth);
+                                                                 outEventIndicesPtr, outEventCount, envelope,
+                                                                 inSamplesPtr, channelCount, inFrameCount,
+                                                                 inEventIndicesPtr, inEventCount, drawStartIndex,
+                                                                 drawEndIndex, drawSurfaceWidth,
+                                                                 appendedFrameCount);
 
     auto samples = reinterpret_cast<jobjectArray>(env->GetObjectField(outSignal, sddSamplesFid));
     auto sampleCounts = reinterpret_cast<jintArray>(env->GetObjectField(outSignal,
@@ -1184,32 +1442,19 @@ Java_com_backyardbrains_utils_JniUtils_prepareForSignalDrawing(JNIEnv *env, jcla
     auto eventIndices = reinterpret_cast<jfloatArray>(env->GetObjectField(outEvents,
                                                                           eddEventIndicesFid));
 
-    jint *channelSampleCounts = new jint[channelCount];
     for (int i = 0; i < channelCount; i++) {
         auto channelSamples = reinterpret_cast<jfloatArray >(env->GetObjectArrayElement(samples,
                                                                                         i));
         env->SetFloatArrayRegion(channelSamples, 0, outSampleCountsPtr[i], outSamplesPtr[i]);
-        env->SetObjectArrayElement(samples, i, channelSamples);
         env->DeleteLocalRef(channelSamples);
-
-        channelSampleCounts[i] = outSampleCountsPtr[i];
     }
-    env->SetIntArrayRegion(sampleCounts, 0, channelCount, channelSampleCounts);
+    env->SetIntArrayRegion(sampleCounts, 0, channelCount, outSampleCountsPtr);
     env->SetFloatArrayRegion(eventIndices, 0, outEventCount, outEventIndicesPtr);
     env->SetIntField(outEvents, eddEventCountFid, outEventCount);
 
-    for (int i = 0; i < channelCount; i++) {
-        delete[] inSamplesPtr[i];
-    }
-    delete[] inSamplesPtr;
-    delete[] inEventIndicesPtr;
-    for (int i = 0; i < channelCount; i++) {
-        delete[] outSamplesPtr[i];
-    }
-    delete[] outSamplesPtr;
-    delete[] outSampleCountsPtr;
-    delete[] outEventIndicesPtr;
-    delete[] channelSampleCounts;
+    env->DeleteLocalRef(samples);
+    env->DeleteLocalRef(sampleCounts);
+    env->DeleteLocalRef(eventIndices);
 }
 
 extern "C" JNIEXPORT void JNICALL
@@ -1227,11 +1472,64 @@ Java_com_backyardbrains_utils_JniUtils_prepareForThresholdDrawing(JNIEnv *env, j
     int from = (int) ((inFrameCount - drawSamplesCount) * .5);
     int to = (int) ((inFrameCount + drawSamplesCount) * .5);
 
-    Java_com_backyardbrains_utils_JniUtils_prepareForSignalDrawing(env, type, outSignal, outEvents,
-                                                                   inSignal,
-                                                                   inFrameCount, inEventIndices,
-                                                                   inEventCount, from, to,
-                                                                   drawSurfaceWidth);
+    // averaged signal changes as a whole so it's enveloped from scratch
+    prepareSignalForDrawing(env, thresholdEnvelope, outSignal, outEvents, inSignal, inFrameCount, inEventIndices,
+                            inEventCount, from, to, drawSurfaceWidth, -1);
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_prepareForChannelDrawing(JNIEnv *env, jclass type, jfloatArray outSamples,
+                                                                jshortArray inSamples, jint inFrameCount,
+                                                                jint channel, jint drawStartIndex, jint drawEndIndex,
+                                                                jint drawSurfaceWidth, jint appendedFrameCount) {
+    backyardbrains::utils::SignalEnvelope *envelope;
+    {
+        std::lock_guard<std::mutex> lock(channelEnvelopesMutex);
+        while (static_cast<int>(channelEnvelopes.size()) <= channel) {
+            channelEnvelopes.emplace_back(new backyardbrains::utils::SignalEnvelope());
+        }
+        envelope = channelEnvelopes[channel].get();
+    }
+
+    jshort *inSamplesPtr = ensureSize(inChannelSamplesBuffer, inFrameCount);
+    env->GetShortArrayRegion(inSamples, 0, inFrameCount, inSamplesPtr);
+    if (exception_check(env)) {
+        // signal passed with the next frame can't continue this one
+        envelope->reset();
+        return 0;
+    }
+
+    jint maxSampleCount = drawSurfaceWidth * 5; // can't be more than x5 when enveloping (deducted from testing)
+    jfloat *outSamplesPtr = ensureSize(outChannelSamplesBuffer, maxSampleCount);
+    jint outSampleCount = 0;
+    backyardbrains::utils::DrawingUtils::prepareChannelForDrawing(outSamplesPtr, outSampleCount, *envelope,
+                                                                  inSamplesPtr, inFrameCount, drawStartIndex,
+                                                                  drawEndIndex, drawSurfaceWidth,
+                                                                  appendedFrameCount);
+    outSampleCount = std::min(outSampleCount, env->GetArrayLength(outSamples));
+    env->SetFloatArrayRegion(outSamples, 0, outSampleCount, outSamplesPtr);
+
+    return outSampleCount;
+}
+
+extern "C" JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_prepareForEventsDrawing(JNIEnv *env, jclass type, jfloatArray outEventIndices,
+                                                               jintArray inEventIndices, jint inEventCount,
+                                                               jint drawStartIndex, jint drawEndIndex,
+                                                               jint drawSurfaceWidth) {
+    jint *inEventIndicesPtr = ensureSize(inEventIndicesBuffer, inEventCount);
+    env->GetIntArrayRegion(inEventIndices, 0, inEventCount, inEventIndicesPtr);
+    if (exception_check(env)) return 0;
+
+    jfloat *outEventIndicesPtr = ensureSize(outDrawEventIndicesBuffer, inEventCount);
+    jint outEventCount = 0;
+    backyardbrains::utils::DrawingUtils::prepareEventsForDrawing(outEventIndicesPtr, outEventCount,
+                                                                 inEventIndicesPtr, inEventCount, drawStartIndex,
+                                                                 drawEndIndex, drawSurfaceWidth);
+    outEventCount = std::min(outEventCount, env->GetArrayLength(outEventIndices));
+    env->SetFloatArrayRegion(outEventIndices, 0, outEventCount, outEventIndicesPtr);
+
+    return outEventCount;
 }
 
 extern "C" JNIEXPORT void JNICALL
@@ -1316,7 +1614,9 @@ Java_com_backyardbrains_utils_JniUtils_prepareForFftDrawing(JNIEnv *env, jclass
 
 extern "C" JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_prepareForSpikesDrawing(JNIEnv *env, jclass type,
-                                                               jobject out, jobjectArray in,
+                                                               jobject out, jfloatArray spikeValues,
+                                                               jintArray spikeIndices,
+                                                               jint spikeCount,
                                                                jfloatArray colorInRange,
                                                                jfloatArray colorOutOfRange,
                                                                jint rangeStart, jint rangeEnd,
@@ -1325,23 +1625,17 @@ Java_com_backyardbrains_utils_JniUtils_prepareForSpikesDrawing(JNIEnv *env, jcla
                                                                jint drawStartIndex,
                                                                jint drawEndIndex, jint sampleCount,
                                                                jint drawSurfaceWidth) {
-    jint spikeCount = env->GetArrayLength(in);
-
     // if there is no spikes just return
-    if (spikeCount == 0) {
+    if (spikeCount <= 0) {
         env->SetIntField(out, spddVertexCountFid, 0);
         env->SetIntField(out, spddColorCountFid, 0);
         return;
     }
 
     auto *inSpikeValuesPtr = new jfloat[spikeCount];
+    env->GetFloatArrayRegion(spikeValues, 0, spikeCount, inSpikeValuesPtr);
     auto *inSpikeIndicesPtr = new jint[spikeCount];
-    for (int i = 0; i < spikeCount; ++i) {
-        auto tmpSpike = (jobject) env->GetObjectArrayElement(in, i);
-        inSpikeValuesPtr[i] = env->GetFloatField(tmpSpike, sivValueFid);
-        inSpikeIndicesPtr[i] = env->GetIntField(tmpSpike, sivIndexFid);
-        env->DeleteLocalRef(tmpSpike);
-    }
+    env->GetIntArrayRegion(spikeIndices, 0, spikeCount, inSpikeIndicesPtr);
     auto *colorInPtr = new jfloat[4]; // (rgba)
     env->GetFloatArrayRegion(colorInRange, 0, 4, colorInPtr);
     auto *colorOutPtr = new jfloat[4]; // (rgba)
@@ -1460,7 +1754,8 @@ Java_com_backyardbrains_utils_JniUtils_eventTriggeredAverageAnalysis(JNIEnv *env
                                                                      jint channelCount,
                                                                      jint frameCount,
                                                                      jboolean removeNoiseIntervals,
-                                                                     jstring confidenceIntervalsEvent) {
+                                                                     jstring confidenceIntervalsEvent,
+                                                                     jlong token) {
     const char *filePathPtr = env->GetStringUTFChars(filePath, JNI_FALSE);
     const char *eventsFilePathPtr = env->GetStringUTFChars(eventsFilePath, JNI_FALSE);
     auto *eventNamesPtr = new std::string[eventCount];
@@ -1499,16 +1794,15 @@ Java_com_backyardbrains_utils_JniUtils_eventTriggeredAverageAnalysis(JNIEnv *env
         normMcTopPtr[i] = new jfloat[frameCount];
         normMcBottomPtr[i] = new jfloat[frameCount];
     }
-    auto *minPtr = new jfloat[2];
-    auto *maxPtr = new jfloat[2];
+    auto *minPtr = new jfloat[channelCount];
+    auto *maxPtr = new jfloat[channelCount];
 
-    eventTriggeredAverageAnalysis->process(filePathPtr, eventsFilePathPtr, eventNamesPtr,
-                                           eventCount,
-                                           removeNoiseIntervals, confidenceIntervalsEventPtr,
-                                           averagesPtr,
-                                           normAveragesPtr, normMcAveragesPtr, normMcTopPtr,
-                                           normMcBottomPtr, minPtr,
-                                           maxPtr);
+    // analysis keeps its state while running so every run needs its own instance
+    EventTriggeredAverageAnalysis eventTriggeredAverageAnalysis;
+    eventTriggeredAverageAnalysis.process(filePathPtr, eventsFilePathPtr, eventNamesPtr, eventCount,
+                                          removeNoiseIntervals, confidenceIntervalsEventPtr, averagesPtr,
+                                          normAveragesPtr, normMcAveragesPtr, normMcTopPtr, normMcBottomPtr, minPtr,
+                                          maxPtr, reinterpret_cast<AnalysisToken *>(token));
 
     for (int i = 0; i < eventCount; i++) {
         auto channelEventAverages = reinterpret_cast<jobjectArray>(env->GetObjectArrayElement(
@@ -1582,126 +1876,63 @@ Java_com_backyardbrains_utils_JniUtils_eventTriggeredAverageAnalysis(JNIEnv *env
     delete[] minMaxPtr;
 }
 
-extern "C" JNIEXPORT jobjectArray JNICALL
-Java_com_backyardbrains_utils_JniUtils_findSpikes(JNIEnv *env, jclass type, jstring filePath,
-                                                  jobjectArray valuesPos,
-                                                  jobjectArray indicesPos, jobjectArray timesPos,
-                                                  jobjectArray valuesNeg, jobjectArray indicesNeg,
-                                                  jobjectArray timesNeg, jint channelCount,
-                                                  jint maxSpikes) {
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_findSpikes(JNIEnv *env, jclass type, jstring filePath, jboolean singlePass,
+                                                  jboolean parallel, jobject sink, jintArray channels,
+                                                  jshortArray values, jintArray indices, jfloatArray times,
+                                                  jlong token) {
+    jclass sinkClass = env->GetObjectClass(sink);
+    jmethodID onSpikesMethodId = env->GetMethodID(sinkClass, "onSpikes", "(I)V");
+    env->DeleteLocalRef(sinkClass);
+
+    // exception check
+    if (exception_check(env)) return;
+
+    // spikes are passed to java in chunks as big as the passed arrays
+    jsize capacity = env->GetArrayLength(channels);
+    if (capacity <= 0) return;
+
     // get pointer to file path string
     const char *filePathPtr = env->GetStringUTFChars(filePath, JNI_FALSE);
-    // get pointer to positive values array
-    auto **valuesPosPtr = new jshort *[channelCount];
-    jint **indicesPosPtr = new jint *[channelCount];
-    auto **timesPosPtr = new jfloat *[channelCount];
-    auto **valuesNegPtr = new jshort *[channelCount];
-    jint **indicesNegPtr = new jint *[channelCount];
-    auto **timesNegPtr = new jfloat *[channelCount];
-    for (int i = 0; i < channelCount; ++i) {
-        valuesPosPtr[i] = new jshort[maxSpikes];
-        indicesPosPtr[i] = new jint[maxSpikes];
-        timesPosPtr[i] = new jfloat[maxSpikes];
-        valuesNegPtr[i] = new jshort[maxSpikes];
-        indicesNegPtr[i] = new jint[maxSpikes];
-        timesNegPtr[i] = new jfloat[maxSpikes];
-    }
-
-    jclass intArrayClass = env->FindClass("[I");
-    jobjectArray result = env->NewObjectArray(channelCount, intArrayClass, nullptr);
-    for (int i = 0; i < channelCount; i++) {
-        jintArray tmpResult = env->NewIntArray(2);
-        env->SetIntArrayRegion(tmpResult, 0, 2, new int[2]{0});
-        env->SetObjectArrayElement(result, i, tmpResult);
-        env->DeleteLocalRef(tmpResult);
-    }
+    auto *channelsPtr = new jint[capacity];
+    auto *valuesPtr = new jshort[capacity];
+    auto *indicesPtr = new jint[capacity];
+    auto *timesPtr = new jfloat[capacity];
+    jsize count = 0;
+
+    // copies collected spikes to java arrays and notifies the sink
+    auto flush = [&]() -> bool {
+        if (count == 0) return true;
+
+        env->SetIntArrayRegion(channels, 0, count, channelsPtr);
+        env->SetShortArrayRegion(values, 0, count, valuesPtr);
+        env->SetIntArrayRegion(indices, 0, count, indicesPtr);
+        env->SetFloatArrayRegion(times, 0, count, timesPtr);
+        env->CallVoidMethod(sink, onSpikesMethodId, count);
+        count = 0;
+
+        return !exception_check(env);
+    };
 
-    // exception check
-    if (exception_check(env)) {
-        env->ReleaseStringUTFChars(filePath, filePathPtr);
-        for (int i = 0; i < channelCount; ++i) {
-            delete[] valuesPosPtr[i];
-            delete[] indicesPosPtr[i];
-            delete[] timesPosPtr[i];
-            delete[] valuesNegPtr[i];
-            delete[] indicesNegPtr[i];
-            delete[] timesNegPtr[i];
-        }
-        delete[] valuesPosPtr;
-        delete[] indicesPosPtr;
-        delete[] timesPosPtr;
-        delete[] valuesNegPtr;
-        delete[] indicesNegPtr;
-        delete[] timesNegPtr;
-        return result;
-    }
+    // collects found spikes and flushes them once the arrays are full
+    auto collect = [&](int channel, short value, int index, float time) -> bool {
+        channelsPtr[count] = channel;
+        valuesPtr[count] = value;
+        indicesPtr[count] = index;
+        timesPtr[count] = time;
 
-    jint *outPosCount = new jint[channelCount];
-    jint *outNegCount = new jint[channelCount];
-    spikeAnalysis->findSpikes(filePathPtr, valuesPosPtr, indicesPosPtr, timesPosPtr, valuesNegPtr,
-                              indicesNegPtr,
-                              timesNegPtr, outPosCount, outNegCount);
+        return ++count < capacity || flush();
+    };
 
-    for (int i = 0; i < channelCount; i++) {
-        auto tmpResult = reinterpret_cast<jintArray>(env->GetObjectArrayElement(result, i));
-        env->SetIntArrayRegion(tmpResult, 0, 2, new int[2]{outPosCount[i], outNegCount[i]});
-        env->SetObjectArrayElement(result, i, tmpResult);
-        env->DeleteLocalRef(tmpResult);
-
-        auto tempValuesPos = reinterpret_cast<jshortArray>(env->GetObjectArrayElement(valuesPos,
-                                                                                      i));
-        env->SetShortArrayRegion(tempValuesPos, 0, outPosCount[i], valuesPosPtr[i]);
-        env->SetObjectArrayElement(valuesPos, i, tempValuesPos);
-        env->DeleteLocalRef(tempValuesPos);
-
-        auto tempIndicesPos = reinterpret_cast<jintArray>(env->GetObjectArrayElement(indicesPos,
-                                                                                     i));
-        env->SetIntArrayRegion(tempIndicesPos, 0, outPosCount[i], indicesPosPtr[i]);
-        env->SetObjectArrayElement(indicesPos, i, tempIndicesPos);
-        env->DeleteLocalRef(tempIndicesPos);
-
-        auto tempTimesPos = reinterpret_cast<jfloatArray>(env->GetObjectArrayElement(timesPos, i));
-        env->SetFloatArrayRegion(tempTimesPos, 0, outPosCount[i], timesPosPtr[i]);
-        env->SetObjectArrayElement(timesPos, i, tempTimesPos);
-        env->DeleteLocalRef(tempTimesPos);
-
-        auto tempValuesNeg = reinterpret_cast<jshortArray>(env->GetObjectArrayElement(valuesNeg,
-                                                                                      i));
-        env->SetShortArrayRegion(tempValuesNeg, 0, outNegCount[i], valuesNegPtr[i]);
-        env->SetObjectArrayElement(valuesNeg, i, tempValuesNeg);
-        env->DeleteLocalRef(tempValuesNeg);
-
-        auto tempIndicesNeg = reinterpret_cast<jintArray>(env->GetObjectArrayElement(indicesNeg,
-                                                                                     i));
-        env->SetIntArrayRegion(tempIndicesNeg, 0, outNegCount[i], indicesNegPtr[i]);
-        env->SetObjectArrayElement(indicesNeg, i, tempIndicesNeg);
-        env->DeleteLocalRef(tempIndicesNeg);
-
-        auto tempTimesNeg = reinterpret_cast<jfloatArray>(env->GetObjectArrayElement(timesNeg, i));
-        env->SetFloatArrayRegion(tempTimesNeg, 0, outNegCount[i], timesNegPtr[i]);
-        env->SetObjectArrayElement(timesNeg, i, tempTimesNeg);
-        env->DeleteLocalRef(tempTimesNeg);
-    }
+    bool finished = spikeAnalysis->findSpikes(filePathPtr, singlePass, parallel, collect,
+                                              reinterpret_cast<AnalysisToken *>(token));
+    if (finished) flush();
 
     env->ReleaseStringUTFChars(filePath, filePathPtr);
-    for (int i = 0; i < channelCount; ++i) {
-        delete[] valuesPosPtr[i];
-        delete[] indicesPosPtr[i];
-        delete[] timesPosPtr[i];
-        delete[] valuesNegPtr[i];
-        delete[] indicesNegPtr[i];
-        delete[] timesNegPtr[i];
-    }
-    delete[] valuesPosPtr;
-    delete[] indicesPosPtr;
-    delete[] timesPosPtr;
-    delete[] valuesNegPtr;
-    delete[] indicesNegPtr;
-    delete[] timesNegPtr;
-    delete[] outPosCount;
-    delete[] outNegCount;
-
-    return result;
+    delete[] channelsPtr;
+    delete[] valuesPtr;
+    delete[] indicesPtr;
+    delete[] timesPtr;
 }
 
 extern "C" JNIEXPORT void JNICALL
@@ -1845,20 +2076,12 @@ Java_com_backyardbrains_utils_JniUtils_crossCorrelationAnalysis(JNIEnv *env, jcl
 
         env->DeleteLocalRef(spikeTrain);
     }
-    jint **analysisPtr = new jint *[analysisCount];
-    for (int i = 0; i < analysisCount; ++i) {
-        auto trainAnalysis = (jintArray) env->GetObjectArrayElement(analysis, i);
-
-        analysisPtr[i] = new jint[analysisBinCount];
-        env->GetIntArrayRegion(trainAnalysis, 0, analysisBinCount, analysisPtr[i]);
-
-        env->DeleteLocalRef(trainAnalysis);
-    }
+    // histograms of all the pairs of trains are written to a single buffer
+    auto *analysisPtr = new jint[analysisCount * analysisBinCount];
 
     // exception check
     if (exception_check(env)) {
         for (int i = 0; i < spikeTrainCount; i++) delete[] spikeTrainsPtr[i];
-        for (int i = 0; i < analysisCount; i++) delete[] analysisPtr[i];
         delete[] spikeCountsPtr;
         delete[] spikeTrainsPtr;
         delete[] analysisPtr;
@@ -1871,13 +2094,11 @@ Java_com_backyardbrains_utils_JniUtils_crossCorrelationAnalysis(JNIEnv *env, jcl
     for (int i = 0; i < analysisCount; ++i) {
         auto trainAnalysis = (jintArray) env->GetObjectArrayElement(analysis, i);
 
-        env->SetIntArrayRegion(trainAnalysis, 0, analysisBinCount, analysisPtr[i]);
-        env->SetObjectArrayElement(analysis, i, trainAnalysis);
+        env->SetIntArrayRegion(trainAnalysis, 0, analysisBinCount, analysisPtr + i * analysisBinCount);
 
         env->DeleteLocalRef(trainAnalysis);
     }
     for (int i = 0; i < spikeTrainCount; i++) delete[] spikeTrainsPtr[i];
-    for (int i = 0; i < analysisCount; i++) delete[] analysisPtr[i];
     delete[] spikeCountsPtr;
     delete[] spikeTrainsPtr;
     delete[] analysisPtr;
@@ -1889,16 +2110,21 @@ Java_com_backyardbrains_utils_JniUtils_averageSpikeAnalysis(JNIEnv *env, jclass
                                                             jobjectArray spikeTrains,
                                                             jint spikeTrainCount,
                                                             jintArray spikeCounts,
+                                                            jintArray channels,
                                                             jobjectArray averageSpike,
                                                             jobjectArray normAverageSpike,
                                                             jobjectArray normTopStdLine,
                                                             jobjectArray normBottomStdLine,
-                                                            jint batchSpikeCount) {
+                                                            jint batchSpikeCount,
+                                                            jboolean sequential,
+                                                            jlong token) {
     // get pointer to file path string
     const char *filePathPtr = env->GetStringUTFChars(filePath, JNI_FALSE);
 
     jint *spikeCountsPtr = new jint[spikeTrainCount];
     env->GetIntArrayRegion(spikeCounts, 0, spikeTrainCount, spikeCountsPtr);
+    jint *channelsPtr = new jint[spikeTrainCount];
+    env->GetIntArrayRegion(channels, 0, spikeTrainCount, channelsPtr);
 
     jint **spikeTrainsPtr = new jint *[spikeTrainCount];
     for (int i = 0; i < spikeTrainCount; ++i) {
@@ -1960,6 +2186,7 @@ Java_com_backyardbrains_utils_JniUtils_averageSpikeAnalysis(JNIEnv *env, jclass
             delete[] normBottomStdLinePtr[i];
         }
         delete[] spikeCountsPtr;
+        delete[] channelsPtr;
         delete[] spikeTrainsPtr;
         delete[] averageSpikePtr;
         delete[] normAverageSpikePtr;
@@ -1968,10 +2195,11 @@ Java_com_backyardbrains_utils_JniUtils_averageSpikeAnalysis(JNIEnv *env, jclass
         return;
     }
 
-    averageSpikeAnalysis->process(filePathPtr, spikeTrainsPtr, spikeTrainCount, spikeCountsPtr,
-                                  averageSpikePtr,
-                                  normAverageSpikePtr, normTopStdLinePtr, normBottomStdLinePtr,
-                                  batchSpikeCount);
+    // analysis keeps its state while running so every run needs its own instance
+    AverageSpikeAnalysis averageSpikeAnalysis;
+    averageSpikeAnalysis.process(filePathPtr, spikeTrainsPtr, spikeTrainCount, spikeCountsPtr, channelsPtr,
+                                 averageSpikePtr, normAverageSpikePtr, normTopStdLinePtr, normBottomStdLinePtr,
+                                 batchSpikeCount, sequential, reinterpret_cast<AnalysisToken *>(token));
 
     for (int i = 0; i < spikeTrainCount; ++i) {
         auto trainAnalysis = (jfloatArray) env->GetObjectArrayElement(averageSpike, i);
@@ -2014,4 +2242,30 @@ Java_com_backyardbrains_utils_JniUtils_averageSpikeAnalysis(JNIEnv *env, jclass
         delete[] normBottomStdLinePtr[i];
     }
     delete[] spikeCountsPtr;
+    delete[] channelsPtr;
+    delete[] spikeTrainsPtr;
+    delete[] averageSpikePtr;
+    delete[] normAverageSpikePtr;
+    delete[] normTopStdLinePtr;
+    delete[] normBottomStdLinePtr;
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_createAnalysisToken(JNIEnv *env, jclass type) {
+    return reinterpret_cast<jlong>(new AnalysisToken());
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_cancelAnalysisToken(JNIEnv *env, jclass type, jlong token) {
+    if (token != 0) reinterpret_cast<AnalysisToken *>(token)->cancel();
+}
+
+extern "C" JNIEXPORT jfloat JNICALL
+Java_com_backyardbrains_utils_JniUtils_getAnalysisTokenProgress(JNIEnv *env, jclass type, jlong token) {
+    return token != 0 ? reinterpret_cast<AnalysisToken *>(token)->getProgress() : 0.0f;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_releaseAnalysisToken(JNIEnv *env, jclass type, jlong token) {
+    delete reinterpret_cast<AnalysisToken *>(token);
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_ANALYSISTOKEN_H
+#define SPIKE_RECORDER_ANDROID_ANALYSISTOKEN_H
+
+#include <atomic>
+
+namespace backyardbrains {
+
+    namespace analysis {
+
+        /**
+         * Shared between the analysis running in native code and the code that started it. Analysis regularly reports
+         * its progress through the token and checks whether it's been cancelled, in which case it stops as soon as
+         * possible. Static helpers accept {@code nullptr}, in which case analysis can't be cancelled.
+         */
+        class AnalysisToken {
+        public:
+            /**
+             * Requests the analysis to stop.
+             */
+            void cancel() {
+                cancelled.store(true, std::memory_order_relaxed);
+            }
+
+            /**
+             * Returns progress of the analysis, between {@code 0} and {@code 1}.
+             */
+            float getProgress() const {
+                return progress.load(std::memory_order_relaxed);
+            }
+
+            /**
+             * Whether analysis that uses specified {@code token} should stop.
+             */
+            static bool isCancelled(const AnalysisToken *token) {
+                return token != nullptr && token->cancelled.load(std::memory_order_relaxed);
+            }
+
+            /**
+             * Sets progress of the analysis that uses specified {@code token}.
+             */
+            static void setProgress(AnalysisToken *token, float progress) {
+                if (token != nullptr) token->progress.store(progress, std::memory_order_relaxed);
+            }
+
+        private:
+            std::atomic<bool> cancelled{false};
+            std::atomic<float> progress{0.0f};
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_ANALYSISTOKEN_H
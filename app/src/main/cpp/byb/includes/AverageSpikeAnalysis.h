@@ -7,9 +7,13 @@
 
 #include <dr_wav.h>
 #include <algorithm>
+#include <functional>
+#include <queue>
+#include <vector>
 #include <android/log.h>
 
 #include "AnalysisUtils.h"
+#include "AnalysisToken.h"
 
 namespace backyardbrains {
 
@@ -38,16 +42,61 @@ namespace backyardbrains {
 
             ~AverageSpikeAnalysis();
 
+            /**
+             * Averages {@code batchSpikeCount} samples around every spike of every spike train. Spike indices of every
+             * train need to be sorted ascending and {@code channels} holds the channel every train belongs to.
+             *
+             * If {@code sequential} is {@code true} spikes of all the trains are merged into a single stream and the
+             * file is read only once, from start to end, otherwise file is read once for every spike. Progress is
+             * reported through {@code token} and spikes stop being collected once it's cancelled.
+             */
             void process(const char *filePath, int **inSpikeTrains, int spikeTrainCount, const int *spikeCounts,
-                         float **outAverageSpike, float **outNormAverageSpike, float **outNormTopSTDLine,
-                         float **outNormBottomSTDLine, int batchSpikeCount);
+                         const int *channels, float **outAverageSpike, float **outNormAverageSpike,
+                         float **outNormTopSTDLine, float **outNormBottomSTDLine, int batchSpikeCount,
+                         bool sequential, AnalysisToken *token = nullptr);
 
         private:
             static const char *TAG;
 
+            // Number of frames read at once when audio data can't be memory-mapped
+            static constexpr int CHUNK_FRAME_COUNT = 64 * 1024;
+            // Number of spikes collected between two progress reports and cancellation checks
+            static constexpr int PROGRESS_SPIKE_COUNT = 4096;
+
+            // Adds samples around the spike of the train with specified index to the sums of the train. First
+            // sample of the spike is at {@code frame} and samples of specified {@code channel} are picked from it
+            // stepping by {@code channelCount}.
+            void accumulate(int train, const drwav_int16 *frame, int channel, int channelCount);
+
+            // Reads samples around every spike by seeking to it
+            void processBySeeking(drwav *wavPtr, int **inSpikeTrains, int spikeTrainCount, const int *spikeCounts,
+                                  const int *channels, AnalysisToken *token);
+
+            // Reads samples around every spike in a single pass through the file
+            void processSequentially(drwav *wavPtr, const char *filePath, int **inSpikeTrains, int spikeTrainCount,
+                                     const int *spikeCounts, const int *channels, AnalysisToken *token);
+
+            // Invokes specified function for every spike in the order of their indices, until token is cancelled
+            static void forEachSpike(int **inSpikeTrains, int spikeTrainCount, const int *spikeCounts,
+                                     AnalysisToken *token, const std::function<void(int train, int index)> &f);
+
+            // Reports progress once every PROGRESS_SPIKE_COUNT spikes and returns whether spikes should be collected
+            // further
+            static bool proceed(AnalysisToken *token, int spike, int spikeCount);
+
             void allocateAverageSpikeData(AverageSpikeData *averageSpikeData, int length, drwav_uint64 batchSpikeCount);
 
             void deallocateAverageSpikeData(AverageSpikeData *averageSpikeData, int length);
+
+            // Number of samples averaged around every spike and half of it
+            int batchSpikeCount = 0;
+            int batchSpikeHalfCount = 0;
+            // Total number of frames in the file
+            drwav_uint64 frameCount = 0;
+            // Sums and sums of squares of samples around spikes and spike counts, by train
+            std::vector<std::vector<double>> sums;
+            std::vector<std::vector<double>> squareSums;
+            std::vector<int> counts;
         };
     }
 }
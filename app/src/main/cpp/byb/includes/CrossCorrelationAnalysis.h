@@ -6,6 +6,8 @@
 #define SPIKE_RECORDER_ANDROID_CROSSCORRELATIONANALYSIS_H
 
 #include <algorithm>
+#include <memory>
+#include "WorkerPool.h"
 
 namespace backyardbrains {
 
@@ -17,8 +19,13 @@ namespace backyardbrains {
 
             ~CrossCorrelationAnalysis();
 
-            void process(float **inSpikeTrains, int spikeTrainCount, const int *spikeCounts,
-                         int **outAnalysis, int analysisBinCount);
+            /**
+             * Calculates cross-correlation histograms of every pair of passed spike trains. Spike times of every train
+             * need to be sorted ascending. Histogram of the pair (i, j) is written to {@code outAnalysis} starting at
+             * {@code (i * spikeTrainCount + j) * analysisBinCount}. Pairs are processed in parallel.
+             */
+            void process(float **inSpikeTrains, int spikeTrainCount, const int *spikeCounts, int *outAnalysis,
+                         int analysisBinCount);
 
         private:
             static const char *TAG;
@@ -29,6 +36,14 @@ namespace backyardbrains {
             static constexpr float MAX_EDGE = MAX_TIME + BIN_SIZE * 0.5f;
             static constexpr float DIVIDER = 1 / BIN_SIZE;
 
+            // Adds differences between spike times of the first and the second train that fall inside the window to
+            // specified histogram. Spikes of the second train inside the window are tracked with two pointers that
+            // only move forward as spikes of the first train advance.
+            static void correlate(const float *first, int firstCount, const float *second, int secondCount,
+                                  int *histogram);
+
+            // Pool that processes pairs of trains, created on first use
+            std::unique_ptr<backyardbrains::utils::WorkerPool> pool;
         };
     }
 }
@@ -6,6 +6,7 @@
 #define SPIKE_RECORDER_ANDROID_DRAWINGUTILS_H
 
 #include <AnalysisUtils.h>
+#include <SignalEnvelope.h>
 #include <climits>
 #include <algorithm>
 
@@ -17,9 +18,19 @@ namespace backyardbrains {
         public:
             static void
             prepareSignalForDrawing(float **outSamples, int *outSampleCounts, float *outEventIndices,
-                                    int &outEventCount,
-                                    short **inSamples, int channelCount, const int *inEventIndices, int inEventCount,
-                                    int fromSample, int toSample, int drawSurfaceWidth);
+                                    int &outEventCount, SignalEnvelope &envelope,
+                                    short **inSamples, int channelCount, int inFrameCount, const int *inEventIndices,
+                                    int inEventCount, int fromSample, int toSample, int drawSurfaceWidth,
+                                    int appendedFrameCount);
+
+            static void
+            prepareChannelForDrawing(float *outSamples, int &outSampleCount, SignalEnvelope &envelope,
+                                     short *inSamples, int inFrameCount, int fromSample, int toSample,
+                                     int drawSurfaceWidth, int appendedFrameCount);
+
+            static void
+            prepareEventsForDrawing(float *outEventIndices, int &outEventCount, const int *inEventIndices,
+                                    int inEventCount, int fromSample, int toSample, int drawSurfaceWidth);
 
             static void
             prepareFftForDrawing(float *outVertices, short *outIndices, float *outColors, int &outVertexCount,
@@ -33,11 +44,6 @@ namespace backyardbrains {
                                     int sampleEnd, int drawStart, int drawEnd, int sampleCount, int width);
 
         private:
-            static void
-            envelope(short **outSamples, int *outSampleCount, float *outEventIndices, int &outEventIndicesCount,
-                     short **inSamples, int channelCount, const int *inEventIndices, int inEventIndicesCount,
-                     int fromSample, int toSample, int drawSurfaceWidth);
-
             static float red(float gray);
 
             static float green(float gray);
@@ -11,11 +11,16 @@
 #include <limits>
 #include <random>
 #include <algorithm>
+#include <atomic>
+#include <vector>
 
 #include "dr_wav.h"
 #include "AnalysisUtils.h"
 #include "SignalUtils.h"
 #include "EventUtils.h"
+#include "AnalysisToken.h"
+#include "WavMapping.h"
+#include "WorkerPool.h"
 
 using namespace std;
 
@@ -29,10 +34,18 @@ namespace backyardbrains {
 
             ~EventTriggeredAverageAnalysis();
 
+            /**
+             * Averages signal around every processed event. Windows around the events are sorted and read in a single
+             * pass through the file, and every processed event is averaged on its own thread. Confidence intervals
+             * repetitions are split between the threads as well. Progress is reported through {@code token} after
+             * every window and every confidence intervals repetition, and results are left incomplete once it's
+             * cancelled.
+             */
             void process(const char *signalFilePath, const char *eventsFilePath, const string *processedEvents,
                          const int processedEventCount, const bool removeNoiseIntervals,
                          const char *confidenceIntervalsEvent, float ***averages, float ***normAverages,
-                         float **normMcAverages, float **normMcTop, float **normMcBottom, float *min, float *max);
+                         float **normMcAverages, float **normMcTop, float **normMcBottom, float *min, float *max,
+                         AnalysisToken *token = nullptr);
 
         private:
             static const char *TAG;
@@ -43,6 +56,39 @@ namespace backyardbrains {
             static constexpr float SIGNAL_STD_MULTIPLYER = 2.0f;
             static constexpr int CONFIDENCE_INTERVALS_COMPUTATION_REPETITION = 100;
 
+            // Number of samples read at once when audio data can't be memory-mapped
+            static constexpr int CHUNK_SAMPLE_COUNT = 256 * 1024;
+
+            /**
+             * Returns samples of the windows around the events. Windows are expected to be requested in ascending
+             * order so consecutive and overlapping windows are served from the same buffer. Every thread needs its
+             * own reader.
+             */
+            class WindowReader {
+            public:
+                WindowReader(const char *filePath, const drwav_int16 *mappedSamples, drwav_uint64 windowSize);
+
+                ~WindowReader();
+
+                WindowReader(const WindowReader &) = delete;
+
+                WindowReader &operator=(const WindowReader &) = delete;
+
+                // Returns interleaved samples of the window that starts at specified sample, or nullptr if the whole
+                // window can't be read
+                const drwav_int16 *read(drwav_uint64 start);
+
+            private:
+                // Samples of the memory-mapped file, nullptr if file is read through dr_wav
+                const drwav_int16 *mappedSamples;
+                drwav *wavPtr = nullptr;
+                drwav_uint64 windowSize;
+                std::vector<drwav_int16> buffer;
+                // Samples held by the buffer, file is positioned at the end of the buffer
+                drwav_uint64 bufferStart = 0;
+                drwav_uint64 bufferEnd = 0;
+            };
+
             // total number of samples
             drwav_uint64 totalSamples;
             // sample rate
@@ -59,6 +105,9 @@ namespace backyardbrains {
             int sampleCount;
             // number of frames in the currently processed sample batch
             int frameCount;
+            // standard deviation and mean of the complete file, used to detect noise
+            double signalStd = 0.0;
+            double signalMean = 0.0;
 
 
             long long currentTimeInMilliseconds();
@@ -67,13 +116,21 @@ namespace backyardbrains {
             // if interval has valid bounds, or -1 if it's not
             bool validateIntervalBounds(drwav_uint64 &start, drwav_uint64 sampleIndex);
 
-            bool
-            addInterval(drwav *wavPtr, float **sums, drwav_uint64 start, drwav_uint64 size, bool checkNoise, double std,
-                        double mean);
+            // Whether any of the samples of the interval goes above or below mean + 2.5 STDs
+            bool isNoisy(const drwav_int16 *samples);
+
+            // Adds interleaved samples of the interval to the sums, which hold frameCount sums for every channel
+            void addInterval(float *sums, const drwav_int16 *samples);
+
+            void averageInterval(float **averages, const float *sums, int divider, float *min, float *max);
 
-            void averageInterval(float **averages, float **sums, int divider, float *min, float *max);
+            // Sums random intervals of the file for every confidence intervals repetition between first and last and
+            // saves their averages in {@code mcAverages}
+            void collectMonteCarloAverages(WindowReader &reader, std::mt19937 &mt, int total, int first, int last,
+                                           bool removeNoiseIntervals, float *mcAverages,
+                                           std::atomic<int> &repetitionCount, AnalysisToken *token);
 
-            void findStdAndMean(drwav *wavPtr, double &std, double &mean);
+            void findStdAndMean(drwav *wavPtr, const drwav_int16 *mappedSamples);
         };
     }
 }
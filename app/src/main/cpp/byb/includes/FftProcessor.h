@@ -5,14 +5,8 @@
 #ifndef SPIKE_RECORDER_ANDROID_FFTPROCESSOR_H
 #define SPIKE_RECORDER_ANDROID_FFTPROCESSOR_H
 
-#include <algorithm>
-#include <cmath>
-#include <vector>
-#include <algorithm>
-
-#include "AudioFFT.h"
-#include "AnalysisUtils.h"
 #include "Processor.h"
+#include "StreamingSpectrogram.h"
 
 namespace backyardbrains {
 
@@ -27,8 +21,21 @@ namespace backyardbrains {
 
             void setSampleRate(float sampleRate) override;
 
+            /**
+             * Sets layout of the spectrogram, as computed for the current sample rate. See
+             * {@link StreamingSpectrogram#configure(int, int, int, int, int, int)}. Layout is applied before the next
+             * batch of samples is processed.
+             */
+            void setLayout(int decimation, int windowSampleCount, int hopSampleCount, int windowFunction,
+                           int fftBinCount, int binCount);
+
             void resetNormalization();
 
+            /**
+             * Passes samples of the selected channel to the spectrogram and writes completed columns to
+             * {@code outData}. Only columns that are completed by the samples are computed. If samples complete all
+             * {@code windowCount} columns (signal has been sought) spectrogram starts over from the samples.
+             */
             void
             process(float **outData, int windowCount, int &windowCounter, int &frequencyCounter, int channelCount,
                     short **inSamples, const int *inSampleCount);
@@ -36,72 +43,26 @@ namespace backyardbrains {
         private:
             static const char *TAG;
 
-            //
-            static constexpr float FFT_PROCESSING_TIME = 6.0f;
-            // Percentage of overlap between to consecutive FFT windows
-            static constexpr int FFT_WINDOW_OVERLAP_PERCENT = 99;
-            // We only look at approx. 30% of the fft data cause we only want to analyze low frequency
-            static constexpr int FFT_30HZ_LENGTH = 32; // ~30%
-            //
-            static constexpr int FFT_WINDOW_TIME_LENGTH = 4; // 2^2
-            //
-            static constexpr float FFT_SAMPLE_RATE = 128; // 2^7
-            //
-            static constexpr uint32_t FFT_WINDOW_SAMPLE_COUNT = static_cast<const uint32_t>(FFT_WINDOW_TIME_LENGTH *
-                                                                                            FFT_SAMPLE_RATE); // 2^9
-            //
-            static constexpr int FFT_WINDOW_30HZ_DATA_SIZE = static_cast<const int>(FFT_30HZ_LENGTH /
-                                                                                    (FFT_SAMPLE_RATE /
-                                                                                     (float) FFT_WINDOW_SAMPLE_COUNT));
-            // Number of samples between two FFT windows
-            static constexpr int FFT_WINDOW_SAMPLE_DIFF_COUNT =
-                    (int) (FFT_WINDOW_SAMPLE_COUNT * (1.0f - (FFT_WINDOW_OVERLAP_PERCENT / 100.0f)));
-            // Number of FFT windows needed to render 6s of signal
-            static constexpr int FFT_WINDOW_COUNT =
-                    (int) ((FFT_PROCESSING_TIME * FFT_SAMPLE_RATE) / FFT_WINDOW_SAMPLE_DIFF_COUNT);
-
-            void
-            processSeek(float **outData, int windowCount, int &windowCounter, int &frequencyCounter, int channelCount,
-                        short **inSamples, const int *inSampleCount);
-
-//            long long currentTimeInMilliseconds();
-
-            void init(float sampleRate);
+            // Layout of the 4 s window at 128 Hz with 99% overlap that shows up to 32 Hz, at default sample rate
+            static constexpr int DEFAULT_DECIMATION = 344;
+            static constexpr int DEFAULT_WINDOW_SAMPLE_COUNT = 512;
+            static constexpr int DEFAULT_HOP_SAMPLE_COUNT = 5;
+            static constexpr int DEFAULT_BIN_COUNT = 128;
 
-            void initNormalizationParams();
+            StreamingSpectrogram spectrogram;
 
-            void clean();
+            // Layout that's applied with the next batch
+            int decimation = DEFAULT_DECIMATION;
+            int windowSampleCount = DEFAULT_WINDOW_SAMPLE_COUNT;
+            int hopSampleCount = DEFAULT_HOP_SAMPLE_COUNT;
+            int windowFunction = StreamingSpectrogram::WINDOW_RECTANGULAR;
+            int fftBinCount = DEFAULT_BIN_COUNT;
+            int binCount = DEFAULT_BIN_COUNT;
 
-            audiofft::AudioFFT fft;
-
-            std::vector<float> input;
-            std::vector<float> outReal;
-            std::vector<float> outImaginary;
-
-            // Size of single window of samples - must be 2^N
-            int oWindowSampleCount;
-            // Number of samples needed to be collected before starting new sample window
-            int oWindowSampleDiffCount;
-            //
-            int oMaxWindowsSampleCount;
-
-            // Whether buffers need to be reset before processing
-            bool resetOnNextCycle = false;
+            // Whether spectrogram needs to be reconfigured before processing
+            bool resetOnNextCycle = true;
             // Whether normalization need to be reset before processing
             bool resetNormalizationOnNextCycle = false;
-
-            // Holds all unanalyzed samples left from the latest sample batch
-            float *unanalyzedSamples;
-            int unanalyzedSampleCount;
-            // Holds latest oWindowSampleCount number of samples
-            float *sampleBuffer;
-
-            // Holds indices for the downsampled samples so we don't have to calculate them with every new batch
-            int *dsIndices;
-            int dsIndexCount;
-
-            float maxMagnitude = 4.83;
-            float halfMaxMagnitude = maxMagnitude * .5f;
         };
     }
 }
@@ -26,6 +26,9 @@ namespace backyardbrains {
 
             void filterContiguousData(float *data, int32_t numFrames);
 
+            // Returns b0, b1, b2, a1 and a2 coefficients of the filter
+            const float *getCoefficients() const;
+
         protected:
 
             void intermediateVariables(float Fc, float Q);
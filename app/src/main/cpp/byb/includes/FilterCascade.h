@@ -0,0 +1,101 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_FILTERCASCADE_H
+#define SPIKE_RECORDER_ANDROID_FILTERCASCADE_H
+
+#include <cstdint>
+#include <vector>
+
+#include "WorkerPool.h"
+
+namespace backyardbrains {
+
+    namespace filters {
+
+        /**
+         * Cascade of second-order sections (biquads) that filters all the channels of the signal. Samples are converted
+         * to float once, passed through all the sections in a single pass and converted back, so nothing is allocated
+         * while filtering. Every channel keeps its own state of every section between the batches.
+         */
+        class FilterCascade {
+        public:
+            /**
+             * Max number of sections in the cascade.
+             */
+            static constexpr int MAX_SECTION_COUNT = 32;
+
+            FilterCascade() = default;
+
+            /**
+             * Sets number of channels that are filtered and resets state of all the sections.
+             */
+            void setChannelCount(int channelCount);
+
+            /**
+             * Replaces sections of the cascade with {@code sectionCount} sections described by the specified
+             * {@code coefficients} and resets state of all the sections. Coefficients of every section are ordered the
+             * same way as {@code FilterBase} coefficients: b0, b1, b2, a1, a2.
+             */
+            void setSections(const float (*coefficients)[5], int sectionCount);
+
+            /**
+             * Returns number of sections in the cascade.
+             */
+            int getSectionCount() const;
+
+            /**
+             * Resets state of all the sections of all the channels.
+             */
+            void reset();
+
+            /**
+             * Filters {@code sampleCount} samples of the specified {@code channel} in place.
+             */
+            void filter(int channel, int16_t *data, int32_t sampleCount);
+
+            /**
+             * Filters first {@code channelCount} channels of specified {@code data} in place, every one of them
+             * holding number of samples specified by {@code sampleCounts}. If {@code pool} is not null channels are
+             * filtered in parallel.
+             */
+            void filter(int16_t **data, const int32_t *sampleCounts, int channelCount,
+                        backyardbrains::utils::WorkerPool *pool = nullptr);
+
+            /**
+             * Filters 100 ms of synthetic signal with {@code channelCount} channels sampled at {@code sampleRate}
+             * through the cascade of {@code sectionCount} sections described by the specified {@code coefficients}
+             * and returns the share of real time filtering takes on the calling thread.
+             */
+            static float measureLoad(const float (*coefficients)[5], int sectionCount, float sampleRate,
+                                     int channelCount);
+
+        private:
+            struct Section {
+                float b0, b1, b2, a1, a2;
+            };
+
+            // Last two inputs and outputs of a single section
+            struct State {
+                float x1, x2, y1, y2;
+            };
+
+            // Filters samples through all the sections, with number of sections known at compile time
+            template<int N>
+            static void filter(const Section *sections, State *states, int16_t *data, int32_t sampleCount);
+
+            // Filters samples through any number of sections
+            static void filter(const Section *sections, int sectionCount, State *states, int16_t *data,
+                               int32_t sampleCount);
+
+            Section sections[MAX_SECTION_COUNT]{};
+            int sectionCount = 0;
+            int channelCount = 0;
+            // State of every section of every channel, MAX_SECTION_COUNT states per channel
+            std::vector<State> states;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_FILTERCASCADE_H
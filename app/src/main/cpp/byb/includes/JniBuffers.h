@@ -0,0 +1,86 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_JNIBUFFERS_H
+#define SPIKE_RECORDER_ANDROID_JNIBUFFERS_H
+
+#include <algorithm>
+#include <atomic>
+#include <vector>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        /**
+         * Counts number of bytes copied between java and native heap and number of native allocations made by the JNI
+         * processing entry points.
+         */
+        class JniCounters {
+        public:
+            static void countCopiedBytes(long long byteCount);
+
+            static void countAllocations(int allocationCount);
+
+            static long long getCopiedByteCount();
+
+            static long long getAllocationCount();
+
+            static void reset();
+
+        private:
+            static std::atomic<long long> copiedByteCount;
+            static std::atomic<long long> allocationCount;
+        };
+
+        /**
+         * Makes sure specified buffer can hold at least size elements and returns pointer to its data. Buffer only grows
+         * so once it's big enough retrieving the pointer doesn't allocate.
+         */
+        template<typename T>
+        T *ensureSize(std::vector<T> &buffer, int size) {
+            if (size > static_cast<int>(buffer.size())) {
+                buffer.resize(static_cast<size_t>(size));
+                JniCounters::countAllocations(1);
+            }
+            return buffer.data();
+        }
+
+        /**
+         * Per-channel native buffers that are reused between JNI calls. Buffers only grow so once they are big enough
+         * for the current signal configuration retrieving them doesn't allocate.
+         */
+        template<typename T>
+        class ChannelBuffers {
+        public:
+            /**
+             * Returns pointers to at least channelCount buffers, each holding at least samplesPerChannel elements.
+             */
+            T **get(int channelCount, int samplesPerChannel) {
+                if (channelCount > static_cast<int>(channels.size()) || samplesPerChannel > capacity) {
+                    capacity = std::max(capacity, samplesPerChannel);
+                    if (channelCount > static_cast<int>(channels.size())) channels.resize(channelCount);
+                    pointers.resize(channels.size());
+                    int allocations = 0;
+                    for (size_t i = 0; i < channels.size(); i++) {
+                        if (static_cast<int>(channels[i].size()) < capacity) {
+                            channels[i].resize(capacity);
+                            allocations++;
+                        }
+                        pointers[i] = channels[i].data();
+                    }
+                    JniCounters::countAllocations(allocations);
+                }
+                return pointers.data();
+            }
+
+        private:
+            std::vector<std::vector<T>> channels;
+            std::vector<T *> pointers;
+            int capacity = 0;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_JNIBUFFERS_H
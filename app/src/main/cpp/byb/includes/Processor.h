@@ -8,9 +8,15 @@
 #include <typeinfo>
 #include <android/log.h>
 
+#include <memory>
+#include <mutex>
+#include <vector>
+
 #include "LowPassFilter.h"
 #include "HighPassFilter.h"
 #include "NotchFilter.h"
+#include "FilterCascade.h"
+#include "WorkerPool.h"
 
 using namespace backyardbrains::filters;
 
@@ -38,6 +44,19 @@ namespace backyardbrains {
 
             void setNotchFilter(float centerFreq);
 
+            /**
+             * Sets user defined chain of {@code sectionCount} second-order sections, described by the specified
+             * {@code coefficients} (b0, b1, b2, a1, a2 for every section), that replaces band and notch filters while
+             * it's set. Chain is designed for the current sample rate so it's cleared whenever sample rate changes.
+             * Passing {@code 0} sections clears the chain.
+             */
+            void setFilterChain(const float *coefficients, int sectionCount);
+
+            /**
+             * Sets whether channels that are filtered together are filtered in parallel.
+             */
+            void setParallelFiltering(bool parallelFiltering);
+
         protected:
             float getSampleRate();
 
@@ -51,6 +70,8 @@ namespace backyardbrains {
 
             void applyFilters(int channel, short *data, int sampleCount);
 
+            void applyFilters(short **data, int *sampleCounts, int channelCount);
+
         private:
             // Minimum cut-off frequency
             static constexpr float MIN_FILTER_CUT_OFF = 0.0f;
@@ -65,14 +86,9 @@ namespace backyardbrains {
 
             void createFilters(float sampleRate, int channelCount);
 
-            void deleteFilters(int channelCount);
-
-            typedef LowPassFilter *LowPassFilterPtr;
-            typedef HighPassFilter *HighPassFilterPtr;
-            typedef NotchFilter *NotchFilterPtr;
+            // Replaces active cascade with the pending one, if there is one. Called only by the processing thread.
+            void swapCascade();
 
-            // Flag that is set to true after initialization
-            bool initialized = false;
             // Current sample rate
             float sampleRate = DEFAULT_SAMPLE_RATE;
             // Current channel count
@@ -85,20 +101,27 @@ namespace backyardbrains {
             float highCutOff = MAX_FILTER_CUT_OFF;
             // Whether low pass filters should be applied
             bool lowPassFilteringEnabled = false;
-            // Low pass filters for all channels
-            LowPassFilterPtr *lowPassFilter;
             // Current high pass filter low cutoff frequency
             float lowCutOff = MIN_FILTER_CUT_OFF;
             // Whether high pass filters should be applied
             bool highPassFilteringEnabled = false;
-            // High pass filters for all channels
-            HighPassFilterPtr *highPassFilter;
             // Current notch filter center freq
             float centerFrequency = MIN_FILTER_CUT_OFF;
             // Whether notch filters should be applied
             bool notchFilteringEnabled = false;
-            // Notch filters for all channels
-            NotchFilterPtr *notchFilter;
+            // Coefficients of the user defined filter chain, 5 per section, empty if the chain is not set
+            std::vector<float> chainCoefficients;
+            // All enabled filters fused into a single cascade with the state of every channel, used by processing
+            // thread only
+            std::unique_ptr<FilterCascade> activeCascade;
+            // Newly created cascade that replaces the active one before the next batch is filtered
+            FilterCascade *pendingCascade = nullptr;
+            // Cascade replaced by the pending one, deleted outside the processing thread when the next one is created
+            std::unique_ptr<FilterCascade> retiredCascade;
+            // Guards chain coefficients and pending and retired cascades
+            std::mutex cascadeMutex;
+            // Pool that filters channels in parallel, null if channels are filtered one after another
+            std::unique_ptr<backyardbrains::utils::WorkerPool> filterPool;
         };
     }
 }
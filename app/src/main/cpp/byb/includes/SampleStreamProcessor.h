@@ -23,9 +23,13 @@ namespace backyardbrains {
 
             ~SampleStreamProcessor() override;
 
+            /**
+             * Processes incoming sample stream bytes and writes deinterleaved samples to outSamples. Buffers pointed by
+             * outSamples are provided by the caller and each needs to be able to hold outMaxSampleCount samples.
+             */
             void
             process(const unsigned char *inData, int length, short **outSamples, int *outSampleCounts,
-                    int *outEventIndices,
+                    int outMaxSampleCount, int *outEventIndices,
                     std::string *outEventLabels, int &outEventCount, int channelCount,int hardwareType);
 
         private:
@@ -0,0 +1,135 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_SIGNALENVELOPE_H
+#define SPIKE_RECORDER_ANDROID_SIGNALENVELOPE_H
+
+#include <cstdint>
+#include <vector>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        /**
+         * Envelopes signal so it can be drawn to the surface of specified width. Every two pixels of the surface get
+         * the max and min of the samples they cover, and events are moved to the envelope sample that covers them.
+         *
+         * Min and max of every block of few samples is kept between the calls so when only new samples are appended to
+         * the end of the signal, only the blocks that haven't been seen before are computed and the envelope is put
+         * together from the blocks. When signal hasn't changed at all, previous envelope is reused as is. Events are
+         * merged with the envelope in a single pass.
+         */
+        class SignalEnvelope {
+        public:
+            SignalEnvelope() = default;
+
+            /**
+             * Envelopes samples of all {@code channelCount} channels of {@code inSamples}, each holding
+             * {@code frameCount} frames, from {@code fromSample} (inclusive) to {@code toSample} (exclusive) for the
+             * surface {@code drawSurfaceWidth} pixels wide, together with {@code inEventCount} events which indices
+             * are sorted in ascending order. {@code appendedFrameCount} is number of frames that have been appended to
+             * the end of {@code inSamples} since the previous call, or a negative number if {@code inSamples} doesn't
+             * continue the signal passed with the previous call.
+             */
+            void envelope(short **inSamples, int channelCount, int frameCount, const int *inEventIndices,
+                          int inEventCount, int fromSample, int toSample, int drawSurfaceWidth,
+                          int appendedFrameCount);
+
+            /**
+             * Returns enveloped samples of the specified {@code channel}.
+             */
+            const short *getSamples(int channel) const;
+
+            /**
+             * Returns number of enveloped samples, same for every channel.
+             */
+            int getSampleCount() const;
+
+            /**
+             * Returns indices of enveloped samples events have been moved to.
+             */
+            const float *getEventIndices() const;
+
+            /**
+             * Returns number of enveloped events.
+             */
+            int getEventCount() const;
+
+            /**
+             * Drops envelope and all the blocks so next envelope is computed from scratch.
+             */
+            void reset();
+
+            /**
+             * Puts {@code inEventCount} events which indices are sorted in ascending order at the indices of the
+             * envelope samples that cover them when signal is enveloped from {@code fromSample} (inclusive) to
+             * {@code toSample} (exclusive) for the surface {@code drawSurfaceWidth} pixels wide, and returns number of
+             * enveloped events. Envelope doesn't need to be computed, only its dimensions are used.
+             */
+            static int envelopeEvents(float *outEventIndices, const int *inEventIndices, int inEventCount,
+                                      int fromSample, int toSample, int drawSurfaceWidth);
+
+            /**
+             * Returns number of envelope samples of the signal enveloped from {@code fromSample} (inclusive) to
+             * {@code toSample} (exclusive) for the surface {@code drawSurfaceWidth} pixels wide.
+             */
+            static int envelopedSampleCount(int fromSample, int toSample, int drawSurfaceWidth);
+
+        private:
+            // Envelope is put together from blocks only when bucket covers at least this many samples
+            static constexpr int MIN_BLOCK_BUCKET_SIZE = 32;
+
+            // Makes sure min and max of all the blocks between the specified blocks are computed, base is stream
+            // position of the first sample of the signal
+            void updateBlocks(short **inSamples, int64_t base, int64_t firstBlock, int64_t endBlock, int blockSize);
+
+            // Computes min and max of the blocks between the specified blocks
+            void computeBlocks(short **inSamples, int64_t base, int64_t firstBlock, int64_t endBlock);
+
+            // Computes min and max of the samples between specified stream positions using the blocks
+            void minMax(const short *samples, int64_t base, int channel, int64_t from, int64_t to, short &min,
+                        short &max) const;
+
+            // Number of samples every envelope sample pair covers, 0 if every sample is drawn as is
+            static int bucketSize(int drawSamplesCount, int drawSurfaceWidth);
+
+            // Puts events of the last envelope at the envelope samples that cover them
+            void envelopeEvents(const int *inEventIndices, int inEventCount);
+
+            // Number of channels of the last envelope
+            int channelCount = 0;
+            // Parameters of the last envelope, used to check whether it can be reused
+            int frameCount = 0;
+            int fromSample = 0;
+            int toSample = 0;
+            int drawSurfaceWidth = 0;
+            // Whether last envelope can be reused if the signal doesn't change
+            bool valid = false;
+            // Position of the end of the last passed signal in the stream of all the appended frames
+            int64_t streamEnd = 0;
+            // Enveloped samples of every channel
+            std::vector<std::vector<short>> samples;
+            // Number of enveloped samples
+            int sampleCount = 0;
+            // Envelope sample indices of enveloped events
+            std::vector<float> eventIndices;
+            // Number of enveloped events
+            int eventCount = 0;
+
+            // Number of samples in a single block, 0 if there are no blocks
+            int blockSize = 0;
+            // Number of blocks that fit into block buffers, blocks are stored at their stream position modulo capacity
+            int64_t blockCapacity = 0;
+            // Stream positions of the first block and the block after the last block that have been computed
+            int64_t firstBlock = 0;
+            int64_t endBlock = 0;
+            // Max and min of every block of every channel
+            std::vector<std::vector<short>> blockMax;
+            std::vector<std::vector<short>> blockMin;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_SIGNALENVELOPE_H
@@ -7,11 +7,15 @@
 
 #include <functional>
 #include <algorithm>
+#include <vector>
 #include <android/log.h>
 
 #include "dr_wav.h"
 #include "AnalysisUtils.h"
 #include "SignalUtils.h"
+#include "StreamingQuantile.h"
+#include "WorkerPool.h"
+#include "AnalysisToken.h"
 
 namespace backyardbrains {
 
@@ -19,13 +23,31 @@ namespace backyardbrains {
 
         class SpikeAnalysis {
         public:
+            /**
+             * Invoked for every spike found. Spikes of the same channel and orientation are passed in the order they
+             * occur in. Returning {@code false} stops the analysis.
+             */
+            typedef std::function<bool(int channel, short value, int index, float time)> SpikeListener;
+
             SpikeAnalysis();
 
             ~SpikeAnalysis();
 
-            void findSpikes(const char *filePath, short **outValuesPos, int **outIndicesPos, float **outTimesPos,
-                            short **outValuesNeg, int **outIndicesNeg, float **outTimesNeg, int *outPosCounts,
-                            int *outNegCounts);
+            /**
+             * Finds spikes in the audio file located at {@code filePath} and passes them to {@code listener} as soon
+             * as they pass the kill interval filter. Memory used by the analysis doesn't depend on the file length.
+             *
+             * If {@code singlePass} is {@code false} file is read twice, first to find the thresholds and then to find
+             * the spikes. If it's {@code true} thresholds are estimated while reading the file and spikes are found
+             * during the same pass, {@code LOOK_BACK_CHUNK_COUNT} chunks behind the estimation. If {@code parallel}
+             * is {@code true} spikes are searched for on all available cores. Listener is always invoked on the calling
+             * thread and results don't depend on {@code parallel}. Progress is reported through {@code token} after every
+             * read chunk, and analysis stops once the token is cancelled.
+             *
+             * @return {@code false} if analysis was stopped by the listener or cancelled, {@code true} otherwise
+             */
+            bool findSpikes(const char *filePath, bool singlePass, bool parallel, const SpikeListener &listener,
+                            AnalysisToken *token = nullptr);
 
         private:
             static const char *TAG;
@@ -33,6 +55,146 @@ namespace backyardbrains {
             static constexpr int SCHMITT_ON = 1;
             static constexpr int SCHMITT_OFF = 2;
             static constexpr float KILL_INTERVAL = 0.005f; // 5ms
+            // Threshold is calculated from the standard deviation of the chunk that's stronger then 60% of chunks
+            static constexpr float SD_QUANTILE = 0.6f;
+            // Number of chunks spike detection lags behind threshold estimation during single pass analysis
+            static constexpr int LOOK_BACK_CHUNK_COUNT = 16;
+
+            /**
+             * Applies kill interval to the stream of spikes of a single channel and orientation. Spike is killed if
+             * the next spike within the kill interval is stronger, or if the previous one that survived is stronger.
+             * Only the last spike in each of the two steps is held, so the filter runs in constant memory.
+             */
+            class KillIntervalFilter {
+            public:
+                KillIntervalFilter(int channel, bool positive, const SpikeListener &listener);
+
+                /**
+                 * Passes next spike through the filter. Returns {@code false} if listener stopped the analysis.
+                 */
+                bool push(short value, int index, float time);
+
+                /**
+                 * Releases the spike held by the filter. Returns {@code false} if listener stopped the analysis.
+                 */
+                bool flush();
+
+            private:
+                // Whether spike with value a is weaker than spike with value b
+                bool weaker(short a, short b) const;
+
+                // Passes spike that survived look to the right through the look to the left
+                bool pushLeft(short value, int index, float time);
+
+                int channel;
+                bool positive;
+                const SpikeListener &listener;
+                // Spike waiting for the next one so we can look to the right
+                bool hasPending = false;
+                short pendingValue = 0;
+                int pendingIndex = 0;
+                float pendingTime = 0;
+                // Last spike that survived the filter
+                bool hasKept = false;
+                short keptValue = 0;
+                float keptTime = 0;
+            };
+
+            // State of the Schmitt trigger of a single channel and orientation
+            struct Trigger {
+                bool on = false;
+                short peakValue = 0;
+                // Index of the last peak, -1 if it's not known because trigger was started in the middle of the signal
+                int peakIndex = 0;
+            };
+
+            // Spike found by the Schmitt trigger before kill interval is applied
+            struct RawSpike {
+                short value;
+                int index;
+            };
+
+            // Part of the chunk of a single channel scanned by a single Schmitt trigger
+            struct Segment {
+                int channel = 0;
+                bool positive = true;
+                // Whether segment continues the previous chunk
+                bool first = true;
+                int from = 0;
+                int to = 0;
+                // Whether segment has been scanned, segment is skipped if trigger couldn't be synced within it
+                bool active = false;
+                Trigger trigger;
+                std::vector<RawSpike> spikes;
+            };
+
+            /**
+             * Finds spikes in the deinterleaved signal by running positive and negative Schmitt trigger on every
+             * channel and passes them through kill interval filters. Signal is passed in consecutive chunks.
+             *
+             * If worker pool is passed every chunk is split by channel, orientation and time segment and segments are
+             * scanned in parallel. Trigger is reset every time signal crosses zero, so segment scanning starts at the
+             * first zero crossing within the segment and continues past the segment end until the first zero crossing
+             * after it. Spikes found in the segments are then passed through kill interval filters in order, on the
+             * calling thread, so results are identical to the serial scan.
+             */
+            class SpikeDetector {
+            public:
+                SpikeDetector(int channelCount, unsigned int sampleRate, const SpikeListener &listener,
+                              backyardbrains::utils::WorkerPool *pool);
+
+                /**
+                 * Finds spikes in the next chunk of signal. Returns {@code false} if listener stopped the analysis.
+                 */
+                bool detect(short **samples, int frameCount, const short *sig, const short *negSig);
+
+                /**
+                 * Releases spikes held by kill interval filters. Returns {@code false} if listener stopped the
+                 * analysis.
+                 */
+                bool flush();
+
+                /**
+                 * Logs number of positive and negative spikes found in every channel.
+                 */
+                void log() const;
+
+            private:
+                // Min number of frames in a segment scanned by a single worker
+                static constexpr int MIN_SEGMENT_FRAME_COUNT = 4096;
+
+                // Scans specified segment of the chunk
+                void scan(Segment &segment, short **samples, int frameCount, const short *sig, const short *negSig);
+
+                // Returns index of the first sample starting from "from" that resets the trigger, or "frameCount"
+                static int findReset(const short *samples, int from, int frameCount, bool positive);
+
+                int channelCount;
+                double sampleRateDivider;
+                backyardbrains::utils::WorkerPool *pool;
+                // Index of the first sample of the chunk
+                int baseIndex = 0;
+                // Triggers, filters, counters and indices of the last found spikes by channel and orientation
+                std::vector<Trigger> triggers;
+                std::vector<KillIntervalFilter> filters;
+                std::vector<int> spikeCounters;
+                std::vector<int> lastIndices;
+                std::vector<Segment> segments;
+            };
+
+            // Reads the file twice, first to find the thresholds and then to find the spikes
+            bool findSpikesTwoPass(drwav *wavPtr, SpikeDetector &detector, AnalysisToken *token);
+
+            // Reads the file once, estimating the thresholds and finding spikes with a lag of LOOK_BACK_CHUNK_COUNT
+            // chunks
+            bool findSpikesSinglePass(drwav *wavPtr, SpikeDetector &detector, AnalysisToken *token);
+
+            // Finds positive and negative spike thresholds for all the channels, reading the file counts as the first
+            // half of the analysis progress
+            void findThresholds(drwav *wavPtr, short *outSig, short *outNegSig, AnalysisToken *token);
+
+            // Converts standard deviation into positive and negative spike thresholds
+            static void toThresholds(float sd, short &outSig, short &outNegSig);
 
             long long currentTimeInMilliseconds();
         };
@@ -0,0 +1,62 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_STREAMINGQUANTILE_H
+#define SPIKE_RECORDER_ANDROID_STREAMINGQUANTILE_H
+
+#include <algorithm>
+#include <cmath>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        /**
+         * Estimates the p-quantile of a stream of values in constant memory using the P² algorithm (Jain and
+         * Chlamtac). The first five values are kept as they are so the estimate is exact until the sixth value
+         * arrives.
+         */
+        class StreamingQuantile {
+        public:
+            explicit StreamingQuantile(float p);
+
+            /**
+             * Adds next value of the stream.
+             */
+            void add(float value);
+
+            /**
+             * Returns current estimate of the quantile, or {@code 0} if no values have been added.
+             */
+            float get() const;
+
+            /**
+             * Returns number of values added so far.
+             */
+            int getCount() const;
+
+        private:
+            static constexpr int MARKER_COUNT = 5;
+
+            // Parabolic prediction of the marker height after it's moved by d (-1 or 1)
+            float parabolic(int i, int d) const;
+
+            // Linear prediction of the marker height after it's moved by d (-1 or 1)
+            float linear(int i, int d) const;
+
+            float p;
+            int count = 0;
+            // Marker heights
+            float q[MARKER_COUNT]{0};
+            // Actual marker positions
+            int n[MARKER_COUNT]{0};
+            // Desired marker positions
+            float np[MARKER_COUNT]{0};
+            // Desired marker position increments
+            float dn[MARKER_COUNT]{0};
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_STREAMINGQUANTILE_H
@@ -0,0 +1,115 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_STREAMINGSPECTROGRAM_H
+#define SPIKE_RECORDER_ANDROID_STREAMINGSPECTROGRAM_H
+
+#include <vector>
+
+#include "AudioFFT.h"
+
+namespace backyardbrains {
+
+    namespace processing {
+
+        /**
+         * Short-time Fourier transform of a single channel that's computed incrementally, as the samples come in.
+         * Incoming samples are decimated, kept in a ring as long as a single window, and a new column is computed
+         * every time hop number of decimated samples is added. Every column holds magnitudes of the lowest FFT bins
+         * max-pooled into the configured number of bins and normalized to [-1, 1] by the largest magnitude seen so
+         * far. FFT plan and window coefficients are only recreated when configuration changes.
+         */
+        class StreamingSpectrogram {
+        public:
+            static constexpr int WINDOW_RECTANGULAR = 0;
+            static constexpr int WINDOW_HANN = 1;
+            static constexpr int WINDOW_HAMMING = 2;
+            static constexpr int WINDOW_BLACKMAN = 3;
+
+            StreamingSpectrogram();
+
+            /**
+             * Configures the spectrogram and resets it. Every {@code decimation}-th sample is kept, columns are
+             * computed from {@code windowSampleCount} (power of 2) decimated samples weighted by {@code windowFunction}
+             * and are {@code hopSampleCount} decimated samples apart. Lowest {@code fftBinCount} FFT bins are
+             * max-pooled into {@code binCount} bins of every column.
+             */
+            void configure(int decimation, int windowSampleCount, int hopSampleCount, int windowFunction,
+                           int fftBinCount, int binCount);
+
+            /**
+             * Drops all the samples added so far. Normalization is kept.
+             */
+            void reset();
+
+            /**
+             * Resets normalization to the initial largest magnitude.
+             */
+            void resetNormalization();
+
+            /**
+             * Adds {@code sampleCount} samples to the spectrogram and writes columns completed by them to
+             * {@code outColumns}, {@link #getBinCount()} values per column. If samples complete more than
+             * {@code maxColumnCount} columns only the most recent ones are computed. If they complete at least
+             * {@code maxColumnCount} columns spectrogram starts over from the samples and exactly
+             * {@code maxColumnCount} columns are written, columns before the first sample filled with -1.
+             *
+             * @return Number of written columns.
+             */
+            int process(float **outColumns, int maxColumnCount, const short *inSamples, int sampleCount);
+
+            /**
+             * Returns number of values in every column.
+             */
+            int getBinCount() const { return binCount; }
+
+        private:
+            // Largest magnitude normalization starts from
+            static constexpr float INITIAL_MAX_MAGNITUDE = 4.83f;
+
+            // Appends specified number of samples, computing only columns after the first skipColumnCount ones
+            int append(float **outColumns, const short *inSamples, int sampleCount, int skipColumnCount);
+
+            // Computes single column from the samples in the ring
+            void computeColumn(float *outColumn);
+
+            // Returns number of decimated samples within the first sampleCount samples that are yet to be added
+            int decimatedCount(int sampleCount) const;
+
+            audiofft::AudioFFT fft;
+            // Window size FFT plan was created for
+            int fftSize = 0;
+
+            int decimation = 1;
+            int windowSampleCount = 0;
+            int hopSampleCount = 1;
+            int windowFunction = WINDOW_RECTANGULAR;
+            int fftBinCount = 0;
+            int binCount = 0;
+
+            // Window coefficients
+            std::vector<float> window;
+            // First FFT bin of every bin of the column, followed by the number of FFT bins
+            std::vector<int> binEdges;
+
+            // Ring of the last windowSampleCount decimated samples
+            std::vector<float> ring;
+            int ringPosition = 0;
+            // Number of incoming samples to skip before the next one is kept
+            int decimationPhase = 0;
+            // Number of decimated samples added since the last column
+            int hopCounter = 0;
+
+            // FFT input and output
+            std::vector<float> input;
+            std::vector<float> outReal;
+            std::vector<float> outImaginary;
+
+            float maxMagnitude = INITIAL_MAX_MAGNITUDE;
+            float halfMaxMagnitude = INITIAL_MAX_MAGNITUDE * .5f;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_STREAMINGSPECTROGRAM_H
@@ -46,8 +46,12 @@ namespace backyardbrains {
             // Starts/stops processing heartbeat
             void setBpmProcessing(bool processBpm);
 
-            void process(short **outSamples, int *outSamplesCounts, short **inSamples, const int *inSampleCounts,
-                         const int *inEventIndices, const int *inEvents, int inEventCount);
+            /**
+             * Processes incoming samples and writes averaged samples to outSamples. Buffers pointed by outSamples are
+             * provided by the caller and each needs to be able to hold outMaxSampleCount samples.
+             */
+            void process(short **outSamples, int *outSamplesCounts, int outMaxSampleCount, short **inSamples,
+                         const int *inSampleCounts, const int *inEventIndices, const int *inEvents, int inEventCount);
 
             void appendIncomingSamples(short **inSamples, int *inSampleCounts);
 
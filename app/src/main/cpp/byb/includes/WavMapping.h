@@ -0,0 +1,57 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_WAVMAPPING_H
+#define SPIKE_RECORDER_ANDROID_WAVMAPPING_H
+
+#include <dr_wav.h>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        /**
+         * Read-only memory mapping of the data chunk of a 16-bit PCM WAV file, so samples can be used directly from
+         * memory instead of being read and copied. If file is not 16-bit PCM or it can't be mapped there are no
+         * samples and caller should read the file through dr_wav.
+         */
+        class WavMapping {
+        public:
+            /**
+             * Maps data chunk of the file at {@code filePath} which is already opened through {@code wavPtr}.
+             * {@code sequential} tells the kernel samples will be accessed from start to end.
+             */
+            WavMapping(const char *filePath, const drwav *wavPtr, bool sequential);
+
+            ~WavMapping();
+
+            WavMapping(const WavMapping &) = delete;
+
+            WavMapping &operator=(const WavMapping &) = delete;
+
+            /**
+             * Returns interleaved samples of the mapped data chunk, or {@code nullptr} if file couldn't be mapped.
+             */
+            const drwav_int16 *getSamples() const {
+                return samples;
+            }
+
+            /**
+             * Returns number of mapped samples. It's smaller than the sample count declared by the header if file is
+             * shorter than header says.
+             */
+            drwav_uint64 getSampleCount() const {
+                return sampleCount;
+            }
+
+        private:
+            void *map;
+            size_t mapLength = 0;
+            const drwav_int16 *samples = nullptr;
+            drwav_uint64 sampleCount = 0;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_WAVMAPPING_H
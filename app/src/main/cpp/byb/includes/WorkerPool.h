@@ -0,0 +1,70 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_WORKERPOOL_H
+#define SPIKE_RECORDER_ANDROID_WORKERPOOL_H
+
+#include <atomic>
+#include <condition_variable>
+#include <functional>
+#include <mutex>
+#include <thread>
+#include <vector>
+
+namespace backyardbrains {
+
+    namespace utils {
+
+        /**
+         * Fixed pool of worker threads that runs batches of independent tasks. Thread that submits the batch works on
+         * the tasks as well and waits until all of them are finished.
+         */
+        class WorkerPool {
+        public:
+            /**
+             * Creates pool that runs tasks on {@code threadCount} threads including the one that submits the tasks.
+             * If {@code threadCount} is {@code 0} the pool is sized to the number of available cores.
+             */
+            explicit WorkerPool(int threadCount = 0);
+
+            ~WorkerPool();
+
+            /**
+             * Runs {@code task} for every index between {@code 0} and {@code taskCount} and blocks until all of them
+             * are finished.
+             */
+            void run(int taskCount, const std::function<void(int)> &task);
+
+            /**
+             * Returns number of threads tasks are run on, including the one that submits the tasks.
+             */
+            int getThreadCount() const;
+
+        private:
+            // Loop of the worker thread
+            void work();
+
+            // Runs tasks of the current batch until there's none left
+            void runTasks(const std::function<void(int)> *batchTask, int batchTaskCount);
+
+            std::vector<std::thread> threads;
+            std::mutex mutex;
+            std::condition_variable batchAvailable;
+            std::condition_variable batchDone;
+            // Task of the current batch, null if there's no batch running
+            const std::function<void(int)> *task = nullptr;
+            int taskCount = 0;
+            std::atomic<int> nextTask{0};
+            // Number of tasks of the current batch that haven't finished yet
+            int remainingTaskCount = 0;
+            // Number of workers currently working on the batch
+            int activeWorkerCount = 0;
+            // Incremented with every submitted batch
+            long generation = 0;
+            bool stopped = false;
+        };
+    }
+}
+
+#endif //SPIKE_RECORDER_ANDROID_WORKERPOOL_H
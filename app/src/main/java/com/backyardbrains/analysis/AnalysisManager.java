@@ -7,8 +7,8 @@ import androidx.annotation.Nullable;
 import com.backyardbrains.db.AnalysisDataSource;
 import com.backyardbrains.db.AnalysisRepository;
 import com.backyardbrains.db.SpikeRecorderDatabase;
-import com.backyardbrains.db.entity.Spike;
 import com.backyardbrains.db.entity.Train;
+import com.backyardbrains.db.source.SpikeStore;
 import com.backyardbrains.dsp.audio.AudioFile;
 import com.backyardbrains.dsp.audio.BaseAudioFile;
 import com.backyardbrains.dsp.audio.WavAudioFile;
@@ -18,6 +18,7 @@ import com.backyardbrains.utils.ThresholdOrientation;
 import com.backyardbrains.vo.AverageSpike;
 import com.backyardbrains.vo.EventTriggeredAverages;
 import com.backyardbrains.vo.SpikeIndexValue;
+import com.backyardbrains.vo.SpikeRange;
 import com.backyardbrains.vo.Threshold;
 import com.google.firebase.crashlytics.FirebaseCrashlytics;
 import java.io.File;
@@ -38,6 +39,12 @@ public class AnalysisManager {
 
     // Reference to the data manager that stores and processes the data
     @SuppressWarnings("WeakerAccess") final AnalysisRepository analysisRepository;
+    // Spikes queried by the renderers on every frame
+    @SuppressWarnings("WeakerAccess") final SpikeRangeCache spikeRangeCache;
+    // ISI, autocorrelation and cross-correlation histograms by train
+    @SuppressWarnings("WeakerAccess") final SpikeHistogramCache histogramCache;
+    // Runs all the analyses on a shared pool of threads
+    private final AnalysisScheduler analysisScheduler;
 
     @SuppressWarnings("WeakerAccess") EventTriggeredAverages[] eventTriggeredAverages;
     @SuppressWarnings("WeakerAccess") int[][] autocorrelation;
@@ -46,7 +53,48 @@ public class AnalysisManager {
     @SuppressWarnings("WeakerAccess") AverageSpike[] averageSpikes;
 
     public AnalysisManager(@NonNull Context context) {
-        analysisRepository = AnalysisRepository.get(SpikeRecorderDatabase.get(context));
+        analysisRepository =
+            AnalysisRepository.get(SpikeRecorderDatabase.get(context), new File(context.getFilesDir(), "spikes"));
+        spikeRangeCache = new SpikeRangeCache(new SpikeRangeCache.Loader() {
+            @Nullable @Override public SpikeIndexValue[] loadChannelSpikes(long analysisId, int channel) {
+                return analysisRepository.getSpikeAnalysisValuesAndIndicesForRange(analysisId, channel, 0,
+                    Integer.MAX_VALUE);
+            }
+
+            @Nullable @Override public SpikeIndexValue[] loadTrainSpikes(long trainId, int channel) {
+                return analysisRepository.getSpikesByTrainForRange(trainId, channel, 0, Integer.MAX_VALUE);
+            }
+        });
+        histogramCache = new SpikeHistogramCache(new SpikeHistogramCache.Loader() {
+            @Nullable @Override public SpikeStore.Channel loadChannel(long analysisId, int channel) {
+                return analysisRepository.getSpikeAnalysisChannel(analysisId, channel);
+            }
+
+            @NonNull @Override public File getCacheFile(long analysisId, @NonNull String name) {
+                return analysisRepository.getSpikeAnalysisCacheFile(analysisId, name);
+            }
+        }, new SpikeHistogramCache.Calculator() {
+            @NonNull @Override public int[][] isi(@NonNull float[][] trains) {
+                return IsiAnalysis.calculate(trains);
+            }
+
+            @NonNull @Override public int[][] autocorrelation(@NonNull float[][] trains) {
+                return AutocorrelationAnalysis.calculate(trains);
+            }
+
+            @NonNull @Override public int[][] crossCorrelation(@NonNull float[][] trains) {
+                return CrossCorrelationAnalysis.calculate(trains);
+            }
+        });
+        analysisScheduler = new AnalysisScheduler(AnalysisScheduler.DEFAULT_THREAD_COUNT,
+            (filePath, type, progress) -> EventBus.getDefault().post(new AnalysisDoneEvent(type, progress)));
+    }
+
+    /**
+     * Sets listener that receives queue wait and run time of every analysis.
+     */
+    public void setAnalysisMetricsListener(@Nullable AnalysisScheduler.MetricsListener listener) {
+        analysisScheduler.setMetricsListener(listener);
     }
 
     //=================================================
@@ -120,22 +168,27 @@ public class AnalysisManager {
      * otherwise.
      */
     public void deleteSpikeAnalysis(@NonNull String filePath) {
+        spikeRangeCache.invalidate();
+        histogramCache.invalidate();
         analysisRepository.deleteSpikeAnalysis(filePath);
     }
 
     /**
-     * Returns array of spike values and indexes belonging to spike analysis with specified {@code analysisId} for the specified range.
+     * Populates {@code out} with spike values and indexes belonging to spike analysis with specified {@code analysisId}
+     * for the specified range.
      */
-    public SpikeIndexValue[] getSpikesForRange(long analysisId, int channel, int startIndex, int endIndex) {
-        return analysisRepository.getSpikeAnalysisValuesAndIndicesForRange(analysisId, channel, startIndex, endIndex);
+    public void getSpikesForRange(long analysisId, int channel, int startIndex, int endIndex,
+        @NonNull SpikeRange out) {
+        spikeRangeCache.getSpikesForRange(analysisId, channel, startIndex, endIndex, out);
     }
 
     /**
-     * Returns array of spike values and indexes belonging to train with specified {@code trainId} for specified {@code
-     * channel} for the specified range.
+     * Populates {@code out} with spike values and indexes belonging to train with specified {@code trainId} for
+     * specified {@code channel} for the specified range.
      */
-    public SpikeIndexValue[] getSpikesByTrainForRange(long trainId, int channel, int startIndex, int endIndex) {
-        return analysisRepository.getSpikesByTrainForRange(trainId, channel, startIndex, endIndex);
+    public void getSpikesByTrainForRange(long trainId, int channel, int startIndex, int endIndex,
+        @NonNull SpikeRange out) {
+        spikeRangeCache.getSpikesByTrainForRange(trainId, channel, startIndex, endIndex, out);
     }
 
     // Loads file with specified file path into WavAudioFile for further processing
@@ -166,25 +219,34 @@ public class AnalysisManager {
 
     // Clears current spike analysis and triggers the new one
     @SuppressWarnings("WeakerAccess") void findSpikes() {
-        new FindSpikesAnalysis(audioFile, new BaseAnalysis.AnalysisListener<Spike[]>() {
-            @Override public void onAnalysisDone(@NonNull String filePath, @Nullable Spike[] results) {
-                analysisRepository.saveSpikeAnalysis(filePath, results != null ? results : new Spike[0]);
-
-                // post event that audio file analysis successfully finished
-                EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.FIND_SPIKES));
-            }
+        // thresholds are estimated while looking for spikes so file is read only once, and spikes are looked for on
+        // all available cores
+        final AnalysisDataSource.SpikeAnalysisWriter writer =
+            analysisRepository.createSpikeAnalysisWriter(audioFile.getAbsolutePath());
+        final FindSpikesAnalysis analysis =
+            new FindSpikesAnalysis(audioFile, writer, true, true, new BaseAnalysis.AnalysisListener<Integer>() {
+                @Override public void onAnalysisDone(@NonNull String filePath, @Nullable Integer results) {
+                    spikeRangeCache.invalidate();
+                    histogramCache.invalidate();
+                    // spikes are saved while analysis is running so there's nothing else to do but to
+                    // post event that audio file analysis successfully finished
+                    EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.FIND_SPIKES));
+                }
 
-            @Override public void onAnalysisFailed(@NonNull String filePath) {
-                // post event that audio file analysis failed
-                EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.FIND_SPIKES));
-            }
-        }).startAnalysis();
+                @Override public void onAnalysisFailed(@NonNull String filePath) {
+                    // post event that audio file analysis failed
+                    EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.FIND_SPIKES));
+                }
+            });
+        analysisScheduler.submit(analysis, true, null);
     }
 
     // Resets all the flags and clears all resources before loading new audio file.
     private void reset() {
         LOGD(TAG, "RESET");
         if (audioFile != null) {
+            // results of the analyses of the previous file are not needed anymore
+            analysisScheduler.cancel(audioFile.getAbsolutePath());
             try {
                 audioFile.close();
                 LOGD(TAG, "RandomAccessFile closed");
@@ -256,6 +318,7 @@ public class AnalysisManager {
     public void addSpikeTrain(@NonNull String filePath, int channelCount,
         @Nullable final AnalysisDataSource.AddSpikeAnalysisTrainCallback callback) {
         analysisRepository.addSpikeAnalysisTrain(filePath, channelCount, order -> {
+            spikeRangeCache.invalidateTrains();
             if (callback != null) callback.onSpikeAnalysisTrainAdded(order);
         });
     }
@@ -266,6 +329,7 @@ public class AnalysisManager {
     public void removeSpikeTrain(int index, @NonNull String filePath,
         @Nullable final AnalysisDataSource.RemoveSpikeAnalysisTrainCallback callback) {
         analysisRepository.removeSpikeAnalysisTrain(filePath, index, newTrainCount -> {
+            spikeRangeCache.invalidateTrains();
             if (callback != null) callback.onSpikeAnalysisTrainRemoved(newTrainCount);
         });
     }
@@ -276,11 +340,14 @@ public class AnalysisManager {
      */
     public void setThreshold(@NonNull String filePath, int channel, int index, @ThresholdOrientation int orientation,
         int value) {
-        analysisRepository.saveSpikeAnalysisTrain(filePath, channel, index, orientation, value);
+        // drop stale spikes right away and once more when new thresholds are saved in case they were reloaded meanwhile
+        spikeRangeCache.invalidateTrains();
+        analysisRepository.saveSpikeAnalysisTrain(filePath, channel, index, orientation, value,
+            spikeRangeCache::invalidateTrains);
     }
 
-    // Callback to be invoked when spike analysis (by trains) is retrieved from the analysis repository
-    private class GetSpikeAnalysisByTrainsCallback implements AnalysisDataSource.GetAnalysisCallback<float[][]> {
+    // Callback to be invoked when spike trains are retrieved from the analysis repository
+    private class GetSpikeAnalysisByTrainsCallback implements AnalysisDataSource.GetAnalysisCallback<Train[]> {
 
         private final String filePath;
         private final @AnalysisType int analysisType;
@@ -290,7 +357,7 @@ public class AnalysisManager {
             this.analysisType = analysisType;
         }
 
-        @SuppressLint("SwitchIntDef") @Override public void onAnalysisLoaded(@NonNull float[][] result) {
+        @SuppressLint("SwitchIntDef") @Override public void onAnalysisLoaded(@NonNull Train[] result) {
             switch (analysisType) {
                 case AnalysisType.AUTOCORRELATION:
                     autocorrelationAnalysis(filePath, result);
@@ -325,20 +392,35 @@ public class AnalysisManager {
     @SuppressWarnings("WeakerAccess") void getSpikeAnalysisByTrains(@NonNull String filePath,
         @AnalysisType int analysisType) {
         if (analysisType == AnalysisType.AVERAGE_SPIKE) {
-            analysisRepository.getSpikeAnalysisIndicesByTrains(filePath,
-                new AnalysisDataSource.GetAnalysisCallback<int[][]>() {
-                    @Override public void onAnalysisLoaded(@NonNull int[][] result) {
-                        averageSpikeAnalysis(result);
+            final AnalysisDataSource.GetAnalysisCallback<Train[]> trainsCallback =
+                new AnalysisDataSource.GetAnalysisCallback<Train[]>() {
+                    @Override public void onAnalysisLoaded(@NonNull Train[] trains) {
+                        // trains and their spike indices are loaded in the same order
+                        final int[] channels = new int[trains.length];
+                        for (int i = 0; i < trains.length; i++) channels[i] = trains[i].getChannel();
+                        analysisRepository.getSpikeAnalysisIndicesByTrains(filePath,
+                            new AnalysisDataSource.GetAnalysisCallback<int[][]>() {
+                                @Override public void onAnalysisLoaded(@NonNull int[][] result) {
+                                    if (result.length == channels.length) {
+                                        averageSpikeAnalysis(result, channels);
+                                    } else {
+                                        onDataNotAvailable();
+                                    }
+                                }
+
+                                @Override public void onDataNotAvailable() {
+                                    averageSpikeAnalysisNotAvailable();
+                                }
+                            });
                     }
 
                     @Override public void onDataNotAvailable() {
-                        averageSpikes = null;
-                        // post event that audio file analysis failed
-                        EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.AVERAGE_SPIKE));
+                        averageSpikeAnalysisNotAvailable();
                     }
-                });
+                };
+            analysisRepository.getSpikeAnalysisTrains(filePath, trainsCallback);
         } else {
-            analysisRepository.getSpikeAnalysisTimesByTrains(filePath,
+            analysisRepository.getSpikeAnalysisTrains(filePath,
                 new GetSpikeAnalysisByTrainsCallback(filePath, analysisType));
         }
     }
@@ -410,19 +492,23 @@ public class AnalysisManager {
     private void eventTriggeredAverageAnalysis(@Nullable EventTriggeredAveragesConfig etaConfig) {
         LOGD(TAG, "eventTriggeredAverageAnalysis()");
         if (audioFile != null && etaConfig != null) {
-            new EventTriggeredAverageAnalysis(audioFile, new BaseAnalysis.AnalysisListener<EventTriggeredAverages[]>() {
-                @Override
-                public void onAnalysisDone(@NonNull String filePath, @Nullable EventTriggeredAverages[] result) {
-                    eventTriggeredAverages = result;
-                    // post event that audio file analysis successfully finished
-                    EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.EVENT_TRIGGERED_AVERAGE));
-                }
+            final EventTriggeredAverageAnalysis analysis = new EventTriggeredAverageAnalysis(audioFile,
+                new BaseAnalysis.AnalysisListener<EventTriggeredAverages[]>() {
+                    @Override
+                    public void onAnalysisDone(@NonNull String filePath, @Nullable EventTriggeredAverages[] result) {
+                        eventTriggeredAverages = result;
+                        // post event that audio file analysis successfully finished
+                        EventBus.getDefault()
+                            .post(new AnalysisDoneEvent(true, AnalysisType.EVENT_TRIGGERED_AVERAGE));
+                    }
 
-                @Override public void onAnalysisFailed(@NonNull String filePath) {
-                    // post event that audio file analysis failed
-                    EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.EVENT_TRIGGERED_AVERAGE));
-                }
-            }).startAnalysis(etaConfig);
+                    @Override public void onAnalysisFailed(@NonNull String filePath) {
+                        // post event that audio file analysis failed
+                        EventBus.getDefault()
+                            .post(new AnalysisDoneEvent(false, AnalysisType.EVENT_TRIGGERED_AVERAGE));
+                    }
+                });
+            analysisScheduler.submit(analysis, true, etaConfig);
         }
     }
 
@@ -439,20 +525,22 @@ public class AnalysisManager {
 
     // Starts Autocorrelation analysis depending on the set flags.
     @SuppressWarnings("WeakerAccess") void autocorrelationAnalysis(final @NonNull String filePath,
-        @NonNull float[][] spikeAnalysisByTrains) {
+        @NonNull Train[] trains) {
         LOGD(TAG, "autocorrelationAnalysis()");
-        new AutocorrelationAnalysis(filePath, new BaseAnalysis.AnalysisListener<int[][]>() {
-            @Override public void onAnalysisDone(@NonNull String filePath, @Nullable int[][] result) {
-                autocorrelation = result;
-                // post event that audio file analysis successfully finished
-                EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.AUTOCORRELATION));
-            }
+        final AutocorrelationAnalysis analysis =
+            new AutocorrelationAnalysis(filePath, histogramCache, new BaseAnalysis.AnalysisListener<int[][]>() {
+                @Override public void onAnalysisDone(@NonNull String filePath, @Nullable int[][] result) {
+                    autocorrelation = result;
+                    // post event that audio file analysis successfully finished
+                    EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.AUTOCORRELATION));
+                }
 
-            @Override public void onAnalysisFailed(@NonNull String filePath) {
-                // post event that audio file analysis failed
-                EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.AUTOCORRELATION));
-            }
-        }).startAnalysis(spikeAnalysisByTrains);
+                @Override public void onAnalysisFailed(@NonNull String filePath) {
+                    // post event that audio file analysis failed
+                    EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.AUTOCORRELATION));
+                }
+            });
+        analysisScheduler.submit(analysis, true, trains);
     }
 
     //=================================================
@@ -468,20 +556,22 @@ public class AnalysisManager {
 
     // Starts Inter Spike Interval analysis depending on the set flags.
     @SuppressWarnings("WeakerAccess") void isiAnalysis(final @NonNull String filePath,
-        @NonNull float[][] spikeAnalysisByTrains) {
+        @NonNull Train[] trains) {
         LOGD(TAG, "isiAnalysis()");
-        new IsiAnalysis(filePath, new BaseAnalysis.AnalysisListener<int[][]>() {
-            @Override public void onAnalysisDone(@NonNull String filePath, @Nullable int[][] result) {
-                isi = result;
-                // post event that audio file analysis successfully finished
-                EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.ISI));
-            }
+        final IsiAnalysis analysis =
+            new IsiAnalysis(filePath, histogramCache, new BaseAnalysis.AnalysisListener<int[][]>() {
+                @Override public void onAnalysisDone(@NonNull String filePath, @Nullable int[][] result) {
+                    isi = result;
+                    // post event that audio file analysis successfully finished
+                    EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.ISI));
+                }
 
-            @Override public void onAnalysisFailed(@NonNull String filePath) {
-                // post event that audio file analysis failed
-                EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.ISI));
-            }
-        }).startAnalysis(spikeAnalysisByTrains);
+                @Override public void onAnalysisFailed(@NonNull String filePath) {
+                    // post event that audio file analysis failed
+                    EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.ISI));
+                }
+            });
+        analysisScheduler.submit(analysis, true, trains);
     }
 
     //=================================================
@@ -497,20 +587,22 @@ public class AnalysisManager {
 
     // Starts Cross-Correlation analysis depending on the set flags.
     @SuppressWarnings("WeakerAccess") void crossCorrelationAnalysis(final @NonNull String filePath,
-        @NonNull float[][] spikeAnalysisByTrains) {
+        @NonNull Train[] trains) {
         LOGD(TAG, "crossCorrelationAnalysis()");
-        new CrossCorrelationAnalysis(filePath, new BaseAnalysis.AnalysisListener<int[][]>() {
-            @Override public void onAnalysisDone(@NonNull String filePath, @Nullable int[][] result) {
-                crossCorrelation = result;
-                // post event that audio file analysis successfully finished
-                EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.CROSS_CORRELATION));
-            }
+        final CrossCorrelationAnalysis analysis =
+            new CrossCorrelationAnalysis(filePath, histogramCache, new BaseAnalysis.AnalysisListener<int[][]>() {
+                @Override public void onAnalysisDone(@NonNull String filePath, @Nullable int[][] result) {
+                    crossCorrelation = result;
+                    // post event that audio file analysis successfully finished
+                    EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.CROSS_CORRELATION));
+                }
 
-            @Override public void onAnalysisFailed(@NonNull String filePath) {
-                // post event that audio file analysis failed
-                EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.CROSS_CORRELATION));
-            }
-        }).startAnalysis(spikeAnalysisByTrains);
+                @Override public void onAnalysisFailed(@NonNull String filePath) {
+                    // post event that audio file analysis failed
+                    EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.CROSS_CORRELATION));
+                }
+            });
+        analysisScheduler.submit(analysis, true, trains);
     }
 
     //=================================================
@@ -546,21 +638,31 @@ public class AnalysisManager {
     }
 
     // Starts the actual Average Spike analysis.
-    @SuppressWarnings("WeakerAccess") void averageSpikeAnalysis(@NonNull int[][] spikeAnalysisByTrains) {
+    @SuppressWarnings("WeakerAccess") void averageSpikeAnalysis(@NonNull int[][] spikeAnalysisByTrains,
+        @NonNull int[] channels) {
         LOGD(TAG, "averageSpikeAnalysis()");
         if (audioFile != null) {
-            new AverageSpikeAnalysis(audioFile, new BaseAnalysis.AnalysisListener<AverageSpike[]>() {
-                @Override public void onAnalysisDone(@NonNull String filePath, @Nullable AverageSpike[] result) {
-                    averageSpikes = result;
-                    // post event that audio file analysis is successfully finished
-                    EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.AVERAGE_SPIKE));
-                }
+            final AverageSpikeAnalysis analysis =
+                new AverageSpikeAnalysis(audioFile, channels, new BaseAnalysis.AnalysisListener<AverageSpike[]>() {
+                    @Override public void onAnalysisDone(@NonNull String filePath, @Nullable AverageSpike[] result) {
+                        averageSpikes = result;
+                        // post event that audio file analysis is successfully finished
+                        EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.AVERAGE_SPIKE));
+                    }
 
-                @Override public void onAnalysisFailed(@NonNull String filePath) {
-                    // post event that audio file analysis is successfully finished
-                    EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.AVERAGE_SPIKE));
-                }
-            }).startAnalysis(spikeAnalysisByTrains);
+                    @Override public void onAnalysisFailed(@NonNull String filePath) {
+                        // post event that audio file analysis is successfully finished
+                        EventBus.getDefault().post(new AnalysisDoneEvent(false, AnalysisType.AVERAGE_SPIKE));
+                    }
+                });
+            analysisScheduler.submit(analysis, true, spikeAnalysisByTrains);
         }
     }
+
+    // Clears Average Spike analysis results and informs listeners that analysis failed.
+    @SuppressWarnings("WeakerAccess") void averageSpikeAnalysisNotAvailable() {
+        averageSpikes = null;
+        // post event that audio file analysis failed
+        EventBus.getDefault().post(new AnalysisDoneEvent(true, AnalysisType.AVERAGE_SPIKE));
+    }
 }
@@ -0,0 +1,330 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.firebase.crashlytics.FirebaseCrashlytics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Runs analyses on a bounded pool of threads shared by all analyses.
+ * <p/>
+ * Only one analysis of the same type runs for the same file at a time. If the same analysis is requested again while
+ * the previous request is still pending the two are coalesced, and if it's requested with different params previous
+ * request is cancelled so only the latest result is delivered. Latest request doesn't start until the cancelled one
+ * exits, so two runs never save results of the same analysis at the same time. Analyses requested for the visible
+ * screen run before the background ones, and the most recent request runs first. Analyses that run in native code
+ * report their progress and check whether they've been cancelled through the {@link AnalysisToken}.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class AnalysisScheduler {
+
+    private static final String TAG = makeLogTag(AnalysisScheduler.class);
+
+    // Default number of analyses that run at the same time
+    static final int DEFAULT_THREAD_COUNT = 2;
+    // How often progress of the running analyses is reported
+    private static final long PROGRESS_INTERVAL_MILLIS = 250;
+    // Min progress change that's reported
+    private static final float MIN_PROGRESS_CHANGE = .01f;
+    // Time idle threads are kept alive
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Receives queue wait and run time of every scheduled analysis.
+     */
+    public interface MetricsListener {
+        /**
+         * Invoked once analysis of specified {@code type} is finished, failed or cancelled. {@code queueWaitMillis} is
+         * the time analysis waited for a free thread and {@code runMillis} is the time it ran, which is {@code 0} if
+         * it was cancelled before it started.
+         */
+        void onAnalysisMetrics(@AnalysisType int type, long queueWaitMillis, long runMillis, boolean cancelled);
+    }
+
+    /**
+     * Receives progress of the running analyses.
+     */
+    interface ProgressListener {
+        /**
+         * Invoked periodically, on a background thread, while analysis of specified {@code type} is running for the
+         * file located at specified {@code filePath}.
+         */
+        void onAnalysisProgress(@NonNull String filePath, @AnalysisType int type, float progress);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor progressExecutor;
+    private final ProgressListener progressListener;
+
+    // Pending and running analyses by file path and type
+    private final Map<String, Task<?, ?>> tasks = new HashMap<>();
+    private final Set<Task<?, ?>> running = new HashSet<>();
+    // Cancelled analyses that are still running, and analyses that wait for them to exit, by file path and type
+    private final Map<String, Task<?, ?>> exiting = new HashMap<>();
+    private final Map<String, Task<?, ?>> waiting = new HashMap<>();
+    private ScheduledFuture<?> progressFuture;
+    private long sequence;
+
+    private volatile MetricsListener metricsListener;
+
+    AnalysisScheduler(int threadCount, @Nullable ProgressListener progressListener) {
+        this.progressListener = progressListener;
+
+        executor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(), new NamedThreadFactory("analysis"));
+        executor.allowCoreThreadTimeOut(true);
+        progressExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("analysis-progress"));
+        progressExecutor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        progressExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets listener that receives queue wait and run time of every scheduled analysis.
+     */
+    public void setMetricsListener(@Nullable MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Schedules specified {@code analysis} with specified {@code params}. If {@code visible} is {@code true} analysis
+     * is requested by the screen user is looking at, so it runs before all the analyses that are already waiting.
+     */
+    <P, R> void submit(@NonNull BaseAnalysis<P, R> analysis, boolean visible, @Nullable P params) {
+        final Task<P, R> task = new Task<>(analysis, params);
+        final List<Task<?, ?>> discarded = new ArrayList<>();
+        final boolean deferred;
+        synchronized (this) {
+            final Task<?, ?> existing = tasks.get(task.key);
+            if (existing != null) {
+                if (existing.isSameRequest(task)) {
+                    LOGD(TAG, "Analysis " + task.key + " is already scheduled");
+                    if (visible) {
+                        demote(existing);
+                        requeue(existing, true, ++sequence);
+                    }
+                    return;
+                }
+                // latest request wins
+                if (cancel(existing)) discarded.add(existing);
+            }
+            if (visible) demote(null);
+            task.visible = visible;
+            task.order = ++sequence;
+            tasks.put(task.key, task);
+            // cancelled run could still be saving its results so this one is executed once that one exits
+            deferred = exiting.containsKey(task.key);
+            if (deferred) waiting.put(task.key, task);
+        }
+        for (Task<?, ?> t : discarded) finish(t, 0, false);
+        if (!deferred) executor.execute(task);
+    }
+
+    /**
+     * Cancels all pending and running analyses of the file located at specified {@code filePath}.
+     */
+    void cancel(@NonNull String filePath) {
+        final List<Task<?, ?>> discarded = new ArrayList<>();
+        synchronized (this) {
+            for (Task<?, ?> task : new ArrayList<>(tasks.values())) {
+                if (filePath.equals(task.analysis.getFilePath()) && cancel(task)) discarded.add(task);
+            }
+        }
+        for (Task<?, ?> task : discarded) finish(task, 0, false);
+    }
+
+    // Cancels specified task and removes it from the queue if it hasn't started yet, in which case true is returned
+    private synchronized boolean cancel(@NonNull Task<?, ?> task) {
+        LOGD(TAG, "Cancelling analysis " + task.key);
+        task.token.cancel();
+        tasks.remove(task.key);
+        if (task.started) {
+            if (running.contains(task)) exiting.put(task.key, task);
+            return false;
+        }
+        if (waiting.get(task.key) == task) {
+            waiting.remove(task.key);
+            return true;
+        }
+        return executor.remove(task);
+    }
+
+    // Moves all waiting visible tasks, except the specified one, behind the background ones
+    private synchronized void demote(@Nullable Task<?, ?> except) {
+        for (Task<?, ?> task : tasks.values()) {
+            if (task != except && task.visible) requeue(task, false, task.order);
+        }
+    }
+
+    // Changes priority of the waiting task, queue doesn't reorder the tasks it already holds so the task is taken out
+    // and put back in
+    private synchronized void requeue(@NonNull Task<?, ?> task, boolean visible, long order) {
+        if (task.started || !executor.remove(task)) return;
+
+        task.visible = visible;
+        task.order = order;
+        executor.execute(task);
+    }
+
+    // Called on the pool thread before the task is processed, returns whether task should be processed
+    private synchronized boolean onStarted(@NonNull Task<?, ?> task) {
+        if (task.token.isCancelled()) return false;
+
+        task.started = true;
+        running.add(task);
+        if (progressListener != null && progressFuture == null) {
+            progressFuture = progressExecutor.scheduleAtFixedRate(this::reportProgress, PROGRESS_INTERVAL_MILLIS,
+                PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    // Called on the pool thread after the task is processed, returns whether result should be delivered
+    private synchronized boolean onProcessed(@NonNull Task<?, ?> task) {
+        running.remove(task);
+        if (running.isEmpty() && progressFuture != null) {
+            progressFuture.cancel(false);
+            progressFuture = null;
+        }
+        if (tasks.get(task.key) == task) tasks.remove(task.key);
+        if (exiting.get(task.key) == task) {
+            exiting.remove(task.key);
+            final Task<?, ?> next = waiting.remove(task.key);
+            if (next != null) executor.execute(next);
+        }
+
+        return !task.token.isCancelled();
+    }
+
+    // Releases resources held by the finished task and reports its metrics
+    private void finish(@NonNull Task<?, ?> task, long start, boolean delivered) {
+        task.token.release();
+
+        final MetricsListener listener = metricsListener;
+        if (listener != null) {
+            final long now = System.nanoTime();
+            final long queueWait = TimeUnit.NANOSECONDS.toMillis((start > 0 ? start : now) - task.submitTime);
+            final long run = start > 0 ? TimeUnit.NANOSECONDS.toMillis(now - start) : 0;
+            listener.onAnalysisMetrics(task.analysis.getType(), queueWait, run, !delivered);
+        }
+    }
+
+    // Reports progress of all the running tasks
+    private void reportProgress() {
+        final List<Task<?, ?>> tasks;
+        synchronized (this) {
+            tasks = new ArrayList<>(running);
+        }
+        for (Task<?, ?> task : tasks) {
+            if (task.token.isCancelled()) continue;
+
+            final float progress = task.token.getProgress();
+            if (progress - task.reportedProgress >= MIN_PROGRESS_CHANGE) {
+                task.reportedProgress = progress;
+                progressListener.onAnalysisProgress(task.analysis.getFilePath(), task.analysis.getType(), progress);
+            }
+        }
+    }
+
+    /**
+     * Single scheduled analysis. Tasks with higher priority come first in the queue.
+     */
+    private final class Task<P, R> implements Runnable, Comparable<Task<?, ?>> {
+
+        final String key;
+        final BaseAnalysis<P, R> analysis;
+        final P params;
+        final AnalysisToken token = new AnalysisToken();
+        final long submitTime = System.nanoTime();
+
+        // Priority of the task, guarded by the scheduler
+        boolean visible;
+        long order;
+        boolean started;
+        // Last reported progress, accessed only by the progress thread
+        float reportedProgress;
+
+        Task(@NonNull BaseAnalysis<P, R> analysis, @Nullable P params) {
+            this.key = analysis.getFilePath() + ":" + analysis.getType();
+            this.analysis = analysis;
+            this.params = params;
+
+            analysis.setToken(token);
+        }
+
+        // Whether task will produce the same result as the specified task
+        boolean isSameRequest(@NonNull Task<?, ?> other) {
+            return analysis.getClass() == other.analysis.getClass() && analysis.hasSameSetup(other.analysis)
+                && Arrays.deepEquals(new Object[] { params }, new Object[] { other.params });
+        }
+
+        @Override public void run() {
+            if (!onStarted(this)) {
+                finish(this, 0, false);
+                return;
+            }
+
+            final long start = System.nanoTime();
+            R result = null;
+            boolean failed = false;
+            try {
+                result = analysis.process(params);
+            } catch (Exception e) {
+                LOGE(TAG, "Analysis " + key + " failed", e);
+                FirebaseCrashlytics.getInstance().recordException(e);
+                failed = true;
+            }
+            final boolean deliver = onProcessed(this);
+            finish(this, start, deliver);
+
+            if (!deliver) {
+                LOGD(TAG, "Analysis " + key + " was cancelled");
+            } else if (failed) {
+                analysis.asyncOnFailed();
+            } else {
+                analysis.asyncOnResult(result);
+            }
+        }
+
+        @Override public int compareTo(@NonNull Task<?, ?> other) {
+            if (visible != other.visible) return visible ? -1 : 1;
+            return Long.compare(other.order, order);
+        }
+    }
+
+    /**
+     * Creates daemon threads with names that make them easy to find while profiling.
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String name;
+
+        NamedThreadFactory(@NonNull String name) {
+            this.name = name;
+        }
+
+        @Override public Thread newThread(@NonNull Runnable r) {
+            final Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.backyardbrains.analysis;
+
+import com.backyardbrains.utils.JniUtils;
+
+/**
+ * Cancellation flag and progress of a single scheduled analysis. Native token, which is passed to the analyses that
+ * run in native code, is only created if analysis asks for it and it's released once analysis is finished.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+final class AnalysisToken {
+
+    // Handle of the native token, 0 if it's not created or it's already released
+    private long handle;
+    // Whether native token has been released
+    private boolean released;
+    private volatile boolean cancelled;
+    private volatile float progress;
+
+    /**
+     * Returns handle of the native token that should be passed to native analysis, or {@code 0} if analysis has
+     * already finished.
+     */
+    synchronized long getHandle() {
+        if (handle == 0 && !released) {
+            handle = JniUtils.createAnalysisToken();
+            if (cancelled) JniUtils.cancelAnalysisToken(handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Requests the analysis to stop.
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        if (handle != 0) JniUtils.cancelAnalysisToken(handle);
+    }
+
+    /**
+     * Whether analysis has been cancelled.
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Sets progress of the analysis that runs in java.
+     */
+    void setProgress(float progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Returns progress of the analysis, between {@code 0} and {@code 1}.
+     */
+    synchronized float getProgress() {
+        return handle != 0 ? Math.max(progress, JniUtils.getAnalysisTokenProgress(handle)) : progress;
+    }
+
+    /**
+     * Releases native token. Analysis that runs in native code needs to be finished before this is called.
+     */
+    synchronized void release() {
+        released = true;
+        if (handle != 0) {
+            JniUtils.releaseAnalysisToken(handle);
+            handle = 0;
+        }
+    }
+}
@@ -2,25 +2,37 @@ package com.backyardbrains.analysis;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.backyardbrains.db.entity.Train;
 import com.backyardbrains.utils.JniUtils;
 
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
-class AutocorrelationAnalysis extends BaseAnalysis<float[][], int[][]> {
+class AutocorrelationAnalysis extends BaseAnalysis<Train[], int[][]> {
 
     private static final String TAG = makeLogTag(AutocorrelationAnalysis.class);
 
     private static final float MAX_TIME = 0.1f; // 100ms
     private static final float BIN_SIZE = 0.001f; // 1ms
 
-    AutocorrelationAnalysis(@NonNull String filePath, @NonNull AnalysisListener<int[][]> listener) {
-        super(filePath, listener);
+    private final SpikeHistogramCache histogramCache;
+
+    AutocorrelationAnalysis(@NonNull String filePath, @NonNull SpikeHistogramCache histogramCache,
+        @NonNull AnalysisListener<int[][]> listener) {
+        super(filePath, AnalysisType.AUTOCORRELATION, listener);
+
+        this.histogramCache = histogramCache;
     }
 
-    @Nullable @Override protected int[][] process(float[][]... params) {
-        if (params.length <= 0) return new int[0][0];
+    @Nullable @Override protected int[][] process(@Nullable Train[] trains) {
+        if (trains == null) return new int[0][0];
+
+        return histogramCache.getAutocorrelation(trains);
+    }
 
-        final float[][] trains = params[0];
+    /**
+     * Calculates autocorrelation histograms of specified spike trains from scratch.
+     */
+    @NonNull static int[][] calculate(@NonNull float[][] trains) {
         int binCount = (int) Math.ceil((MAX_TIME + BIN_SIZE) / BIN_SIZE);
         final int[][] autoCorrelation = new int[trains.length][binCount];
         final int[] spikeCounts = new int[trains.length];
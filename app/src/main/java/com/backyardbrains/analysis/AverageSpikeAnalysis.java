@@ -1,9 +1,12 @@
 package com.backyardbrains.analysis;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.backyardbrains.dsp.audio.AudioFile;
 import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.vo.AverageSpike;
+import java.io.IOException;
+import java.util.Arrays;
 
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
@@ -14,17 +17,24 @@ class AverageSpikeAnalysis extends BaseAnalysis<int[][], AverageSpike[]> {
     private static final float BATCH_SPIKE_HALF_IN_SECS = 0.002f;
 
     private final AudioFile audioFile;
+    // Channel of every analysed train
+    private final int[] channels;
 
-    AverageSpikeAnalysis(@NonNull AudioFile audioFile, @NonNull AnalysisListener<AverageSpike[]> listener) {
-        super(audioFile.getAbsolutePath(), listener);
+    AverageSpikeAnalysis(@NonNull AudioFile audioFile, @NonNull int[] channels,
+        @NonNull AnalysisListener<AverageSpike[]> listener) {
+        super(audioFile.getAbsolutePath(), AnalysisType.AVERAGE_SPIKE, listener);
 
         this.audioFile = audioFile;
+        this.channels = channels;
     }
 
-    @Override protected AverageSpike[] process(int[][]... params) {
-        if (params.length <= 0) return new AverageSpike[0];
+    @Override boolean hasSameSetup(@NonNull BaseAnalysis<?, ?> other) {
+        return Arrays.equals(channels, ((AverageSpikeAnalysis) other).channels);
+    }
+
+    @Override protected AverageSpike[] process(@Nullable int[][] trains) throws IOException {
+        if (trains == null) return new AverageSpike[0];
 
-        final int[][] trains = params[0];
         final int trainCount = trains.length;
         final int sampleRate = audioFile.sampleRate();
         final int batchSpikeHalfCount = (int) (sampleRate * BATCH_SPIKE_HALF_IN_SECS);
@@ -36,8 +46,14 @@ class AverageSpikeAnalysis extends BaseAnalysis<int[][], AverageSpike[]> {
         final int[] spikeCounts = new int[trainCount];
         for (int i = 0; i < trainCount; i++) spikeCounts[i] = trains[i].length;
 
-        JniUtils.averageSpikeAnalysis(audioFile.getAbsolutePath(), trains, trainCount, spikeCounts, averageSpike,
-            normAverageSpike, normTopStdLine, normBottomStdLine, batchSpikeCount);
+        // spikes of all trains are collected in a single sequential pass through the file
+        final String wavPath = audioFile.getWavPath();
+        try {
+            JniUtils.averageSpikeAnalysis(wavPath, trains, trainCount, spikeCounts, channels, averageSpike,
+                normAverageSpike, normTopStdLine, normBottomStdLine, batchSpikeCount, true, getToken().getHandle());
+        } finally {
+            audioFile.releaseWavPath();
+        }
 
         // let's populate avr array
         final AverageSpike[] averageSpikes = new AverageSpike[trainCount];
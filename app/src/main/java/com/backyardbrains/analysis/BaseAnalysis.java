@@ -2,8 +2,6 @@ package com.backyardbrains.analysis;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import com.backyardbrains.utils.Benchmark;
-import java.lang.ref.WeakReference;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
@@ -13,8 +11,11 @@ abstract class BaseAnalysis<Params, Result> {
     private static final String TAG = makeLogTag(BaseAnalysis.class);
 
     private final String filePath;
+    private final @AnalysisType int type;
     private final AnalysisListener<Result> listener;
-    private final AnalysisThread<Params, Result> analysisThread;
+
+    // Token of the scheduled run, set by the scheduler once analysis is submitted
+    private volatile AnalysisToken token = new AnalysisToken();
 
     /**
      *
@@ -32,23 +33,55 @@ abstract class BaseAnalysis<Params, Result> {
         void onAnalysisFailed(@NonNull String filePath);
     }
 
-    BaseAnalysis(@NonNull String filePath, @NonNull AnalysisListener<Result> listener) {
+    BaseAnalysis(@NonNull String filePath, @AnalysisType int type, @NonNull AnalysisListener<Result> listener) {
         this.filePath = filePath;
+        this.type = type;
         this.listener = listener;
+    }
+
+    /**
+     * Runs the analysis with specified {@code params} on a background thread and returns its result.
+     */
+    @Nullable protected abstract Result process(@Nullable Params params) throws Exception;
 
-        analysisThread = new AnalysisThread<>(this);
+    /**
+     * Returns path of the analysed file.
+     */
+    @NonNull String getFilePath() {
+        return filePath;
     }
 
     /**
-     *
+     * Returns type of the analysis.
      */
-    @Nullable protected abstract Result process(Params... params) throws Exception;
+    @AnalysisType int getType() {
+        return type;
+    }
 
     /**
-     * Triggers the analysis process.
+     * Whether this analysis is set up the same way as specified analysis of the same class, so with equal params both
+     * produce the same result. Params are compared by the scheduler.
      */
-    @SafeVarargs final void startAnalysis(Params... params) {
-        analysisThread.start(params);
+    boolean hasSameSetup(@NonNull BaseAnalysis<?, ?> other) {
+        return true;
+    }
+
+    /**
+     * Returns token through which analysis reports progress and checks whether it's been cancelled.
+     */
+    @NonNull final AnalysisToken getToken() {
+        return token;
+    }
+
+    void setToken(@NonNull AnalysisToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Whether analysis has been cancelled, in which case its result is discarded.
+     */
+    final boolean isCancelled() {
+        return token.isCancelled();
     }
 
     /**
@@ -81,44 +114,4 @@ abstract class BaseAnalysis<Params, Result> {
 
         onFailed();
     }
-
-    /**
-     * Background thread that initializes the analysis process.
-     */
-    private static class AnalysisThread<Params, Result> extends Thread {
-
-        private final Benchmark benchmark;
-
-        private WeakReference<BaseAnalysis<Params, Result>> analysisRef;
-        private Params[] params;
-
-        AnalysisThread(BaseAnalysis<Params, Result> analysis) {
-            analysisRef = new WeakReference<>(analysis);
-            benchmark = new Benchmark("ANALYSIS_" + analysis.getClass().getName()).sessions(1)
-                .measuresPerSession(1)
-                .logBySession(true)
-                .listener(() -> {
-                    //EventBus.getDefault().post(new ShowToastEvent("PRESS BACK BUTTON!!!!"));
-                });
-        }
-
-        @SafeVarargs public synchronized final void start(Params... params) {
-            this.params = params;
-
-            start();
-        }
-
-        @Override public void run() {
-            final BaseAnalysis<Params, Result> analysis;
-            if ((analysis = analysisRef.get()) != null) {
-                try {
-                    //benchmark.start();
-                    analysis.asyncOnResult(analysis.process(params));
-                    //benchmark.end();
-                } catch (Exception e) {
-                    analysis.asyncOnFailed();
-                }
-            }
-        }
-    }
 }
@@ -7,6 +7,7 @@ import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.RecordingUtils;
 import com.backyardbrains.vo.EventTriggeredAverages;
 import java.io.File;
+import java.io.IOException;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
@@ -21,13 +22,13 @@ public class EventTriggeredAverageAnalysis
 
     EventTriggeredAverageAnalysis(@NonNull AudioFile audioFile,
         @NonNull AnalysisListener<EventTriggeredAverages[]> listener) {
-        super(audioFile.getAbsolutePath(), listener);
+        super(audioFile.getAbsolutePath(), AnalysisType.EVENT_TRIGGERED_AVERAGE, listener);
 
         this.audioFile = audioFile;
     }
 
-    @Nullable @Override protected EventTriggeredAverages[] process(EventTriggeredAveragesConfig... params) {
-        final EventTriggeredAveragesConfig config = params != null && params.length > 0 ? params[0] : null;
+    @Nullable @Override protected EventTriggeredAverages[] process(@Nullable EventTriggeredAveragesConfig config)
+        throws IOException {
         if (config == null) return new EventTriggeredAverages[0];
 
         final File eventsFile = RecordingUtils.getEventFile(new File(audioFile.getAbsolutePath()));
@@ -63,9 +64,15 @@ public class EventTriggeredAverageAnalysis
                 minMax[i] = new float[2];
             }
 
-            JniUtils.eventTriggeredAverageAnalysis(audioFile.getAbsolutePath(), eventsFile.getAbsolutePath(),
-                config.getEvents(), eventCount, averages, normAverages, normMcAverages, normMcTop, normMcBottom, minMax,
-                channelCount, frameCount, config.isRemoveNoiseIntervals(), config.getConfidenceIntervalsEvent());
+            final String wavPath = audioFile.getWavPath();
+            try {
+                JniUtils.eventTriggeredAverageAnalysis(wavPath, eventsFile.getAbsolutePath(), config.getEvents(),
+                    eventCount, averages, normAverages, normMcAverages, normMcTop, normMcBottom, minMax, channelCount,
+                    frameCount, config.isRemoveNoiseIntervals(), config.getConfidenceIntervalsEvent(),
+                    getToken().getHandle());
+            } finally {
+                audioFile.releaseWavPath();
+            }
 
             // let's populate avr array
             final EventTriggeredAverages[] eventTriggeredAverages = new EventTriggeredAverages[channelCount];
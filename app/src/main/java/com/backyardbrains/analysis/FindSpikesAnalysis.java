@@ -2,54 +2,97 @@ package com.backyardbrains.analysis;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import com.backyardbrains.db.entity.Spike;
+import com.backyardbrains.db.AnalysisDataSource;
 import com.backyardbrains.dsp.audio.AudioFile;
-import com.backyardbrains.utils.AudioUtils;
 import com.backyardbrains.utils.JniUtils;
-import java.util.ArrayList;
-import java.util.List;
 
+import static com.backyardbrains.utils.LogUtils.LOGD;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
-class FindSpikesAnalysis extends BaseAnalysis<Void, Spike[]> {
+class FindSpikesAnalysis extends BaseAnalysis<Void, Integer> {
 
     private static final String TAG = makeLogTag(FindSpikesAnalysis.class);
 
+    // Max number of spikes passed from native code and saved to database at once
+    private static final int SPIKE_BATCH_SIZE = 4096;
+
     private final AudioFile audioFile;
+    private final AnalysisDataSource.SpikeAnalysisWriter writer;
+    private final boolean singlePass;
+    private final boolean parallel;
 
-    FindSpikesAnalysis(@NonNull AudioFile audioFile, @NonNull AnalysisListener<Spike[]> listener) {
-        super(audioFile.getAbsolutePath(), listener);
+    FindSpikesAnalysis(@NonNull AudioFile audioFile, @NonNull AnalysisDataSource.SpikeAnalysisWriter writer,
+        boolean singlePass, boolean parallel, @NonNull AnalysisListener<Integer> listener) {
+        super(audioFile.getAbsolutePath(), AnalysisType.FIND_SPIKES, listener);
 
         this.audioFile = audioFile;
+        this.writer = writer;
+        this.singlePass = singlePass;
+        this.parallel = parallel;
+    }
+
+    @Override boolean hasSameSetup(@NonNull BaseAnalysis<?, ?> other) {
+        final FindSpikesAnalysis analysis = (FindSpikesAnalysis) other;
+        return singlePass == analysis.singlePass && parallel == analysis.parallel;
     }
 
-    @Nullable @Override public Spike[] process(Void... params) throws Exception {
-        final long totalSamples = AudioUtils.getSampleCount(audioFile.length(), audioFile.bitsPerSample());
-        final int channelCount = audioFile.channelCount();
-        int maxSpikes = (int) (totalSamples / 10);
-
-        short[][] valuesPos = new short[channelCount][maxSpikes];
-        int[][] indicesPos = new int[channelCount][maxSpikes];
-        float[][] timesPos = new float[channelCount][maxSpikes];
-        short[][] valuesNeg = new short[channelCount][maxSpikes];
-        int[][] indicesNeg = new int[channelCount][maxSpikes];
-        float[][] timesNeg = new float[channelCount][maxSpikes];
-
-        int[][] counts =
-            JniUtils.findSpikes(audioFile.getAbsolutePath(), valuesPos, indicesPos, timesPos, valuesNeg, indicesNeg,
-                timesNeg, channelCount, maxSpikes);
-
-        List<Spike> spikeList = new ArrayList<>();
-        for (int channel = 0; channel < channelCount; channel++) {
-            for (int i = 0; i < counts[channel][0]; i++) {
-                spikeList.add(new Spike(channel, valuesPos[channel][i], indicesPos[channel][i], timesPos[channel][i]));
+    @Nullable @Override public Integer process(@Nullable Void params) throws Exception {
+        final SpikeBatchSink sink = new SpikeBatchSink(writer);
+        try {
+            final String wavPath = audioFile.getWavPath();
+            try {
+                JniUtils.findSpikes(wavPath, singlePass, parallel, sink, sink.channels, sink.values, sink.indices,
+                    sink.times, getToken().getHandle());
+            } finally {
+                audioFile.releaseWavPath();
             }
-            for (int i = 0; i < counts[channel][1]; i++) {
-                spikeList.add(new Spike(channel, valuesNeg[channel][i], indicesNeg[channel][i], timesNeg[channel][i]));
+            // native code stops the analysis if saving of any of the batches fails
+            if (sink.error != null) throw sink.error;
+            // spikes found before analysis was cancelled are incomplete so we don't keep them
+            if (isCancelled()) {
+                writer.abort();
+                return null;
             }
+            writer.finish();
+        } catch (Exception e) {
+            writer.abort();
+            throw e;
+        }
+
+        LOGD(TAG, "Found and saved " + sink.spikeCount + " spikes");
+
+        return sink.spikeCount;
+    }
+
+    /**
+     * Passes spikes from native code to the writer.
+     */
+    private static class SpikeBatchSink implements JniUtils.SpikeSink {
+
+        final int[] channels = new int[SPIKE_BATCH_SIZE];
+        final short[] values = new short[SPIKE_BATCH_SIZE];
+        final int[] indices = new int[SPIKE_BATCH_SIZE];
+        final float[] times = new float[SPIKE_BATCH_SIZE];
+
+        private final AnalysisDataSource.SpikeAnalysisWriter writer;
+
+        // Total number of saved spikes
+        int spikeCount;
+        // Exception thrown while saving spikes
+        Exception error;
+
+        SpikeBatchSink(@NonNull AnalysisDataSource.SpikeAnalysisWriter writer) {
+            this.writer = writer;
         }
 
-        Spike[] allSpikes = new Spike[spikeList.size()];
-        return spikeList.toArray(allSpikes);
+        @Override public void onSpikes(int count) {
+            try {
+                writer.saveSpikes(channels, values, indices, times, count);
+                spikeCount += count;
+            } catch (Exception e) {
+                error = e;
+                throw new RuntimeException(e);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,24 +1,37 @@
 package com.backyardbrains.analysis;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.db.entity.Train;
 import com.backyardbrains.utils.JniUtils;
 
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
-class IsiAnalysis extends BaseAnalysis<float[][], int[][]> {
+class IsiAnalysis extends BaseAnalysis<Train[], int[][]> {
 
     private static final String TAG = makeLogTag(IsiAnalysis.class);
 
     private static final int BIN_COUNT = 100;
 
-    IsiAnalysis(@NonNull String filePath, @NonNull AnalysisListener<int[][]> listener) {
-        super(filePath, listener);
+    private final SpikeHistogramCache histogramCache;
+
+    IsiAnalysis(@NonNull String filePath, @NonNull SpikeHistogramCache histogramCache,
+        @NonNull AnalysisListener<int[][]> listener) {
+        super(filePath, AnalysisType.ISI, listener);
+
+        this.histogramCache = histogramCache;
     }
 
-    @Override protected int[][] process(float[][]... params) {
-        if (params.length <= 0) return new int[0][0];
+    @Override protected int[][] process(@Nullable Train[] trains) {
+        if (trains == null) return new int[0][0];
+
+        return histogramCache.getIsi(trains);
+    }
 
-        final float[][] trains = params[0];
+    /**
+     * Calculates ISI histograms of specified spike trains from scratch.
+     */
+    @NonNull static int[][] calculate(@NonNull float[][] trains) {
         final int[][] isi = new int[trains.length][BIN_COUNT];
         final int[] spikeCounts = new int[trains.length];
         for (int i = 0; i < trains.length; i++) spikeCounts[i] = trains[i].length;
@@ -0,0 +1,445 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.db.entity.Train;
+import com.backyardbrains.db.source.SpikeStore;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Keeps ISI, autocorrelation and cross-correlation histograms of spike trains in memory and on disk together with the
+ * version of the trains they were calculated for. Version of a train is its channel and its thresholds, which fully
+ * determine the spikes of the train. When histogram is requested for a train that didn't change it's returned right
+ * away. When train thresholds moved histogram is updated using only the spikes that were added to or removed from the
+ * train, and it's calculated from scratch only when it doesn't exist or when updating it would be more expensive.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeHistogramCache {
+
+    private static final String TAG = makeLogTag(SpikeHistogramCache.class);
+
+    private static final int MAGIC = 0x42594248; // "BYBH"
+    private static final int FORMAT_VERSION = 1;
+    private static final String FILE_EXTENSION = ".hst";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    /**
+     * Loads spikes of the analysis channels and provides files in which histograms of the analysis are saved.
+     */
+    public interface Loader {
+        @Nullable SpikeStore.Channel loadChannel(long analysisId, int channel);
+
+        @NonNull File getCacheFile(long analysisId, @NonNull String name);
+    }
+
+    /**
+     * Calculates histograms of the specified spike trains from scratch.
+     */
+    public interface Calculator {
+        @NonNull int[][] isi(@NonNull float[][] trains);
+
+        @NonNull int[][] autocorrelation(@NonNull float[][] trains);
+
+        /**
+         * Histogram of the pair (i, j) needs to be at index {@code i * trains.length + j} of the returned array.
+         */
+        @NonNull int[][] crossCorrelation(@NonNull float[][] trains);
+    }
+
+    // Spikes of a train at a specific point in time
+    private static final class Version {
+        final long trainId;
+        final int channel;
+        final int lowerThreshold;
+        final int upperThreshold;
+
+        Version(long trainId, int channel, int lowerThreshold, int upperThreshold) {
+            this.trainId = trainId;
+            this.channel = channel;
+            this.lowerThreshold = lowerThreshold;
+            this.upperThreshold = upperThreshold;
+        }
+
+        Version(@NonNull Train train) {
+            this(train.getId(), train.getChannel(), train.getLowerThreshold(), train.getUpperThreshold());
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Version)) return false;
+            final Version version = (Version) o;
+            return trainId == version.trainId && channel == version.channel
+                && lowerThreshold == version.lowerThreshold && upperThreshold == version.upperThreshold;
+        }
+
+        @Override public int hashCode() {
+            int result = (int) (trainId ^ (trainId >>> 32));
+            result = 31 * result + channel;
+            result = 31 * result + lowerThreshold;
+            result = 31 * result + upperThreshold;
+            return result;
+        }
+    }
+
+    // Histogram together with versions of the trains it was calculated for
+    private static final class Entry {
+        final Version[] versions;
+        final int[] bins;
+
+        Entry(@NonNull Version[] versions, @NonNull int[] bins) {
+            this.versions = versions;
+            this.bins = bins;
+        }
+    }
+
+    private final Loader loader;
+    private final Calculator calculator;
+
+    // Id of the analysis whose histograms are currently cached
+    private long analysisId;
+    // Histograms of the currently cached analysis by name
+    private final Map<String, Entry> entries = new HashMap<>();
+    // Spikes of train versions used while processing a single request
+    private final Map<Version, BitSet> bits = new HashMap<>();
+
+    public SpikeHistogramCache(@NonNull Loader loader, @NonNull Calculator calculator) {
+        this.loader = loader;
+        this.calculator = calculator;
+    }
+
+    /**
+     * Returns ISI histograms of specified trains.
+     */
+    @NonNull public synchronized int[][] getIsi(@NonNull Train[] trains) {
+        return getSelf(SpikeHistograms.SelfHistogram.ISI, trains);
+    }
+
+    /**
+     * Returns autocorrelation histograms of specified trains.
+     */
+    @NonNull public synchronized int[][] getAutocorrelation(@NonNull Train[] trains) {
+        return getSelf(SpikeHistograms.SelfHistogram.AUTOCORRELATION, trains);
+    }
+
+    /**
+     * Returns cross-correlation histograms of every pair of specified trains. Histogram of the pair (i, j) is at index
+     * {@code i * trains.length + j}.
+     */
+    @NonNull public synchronized int[][] getCrossCorrelation(@NonNull Train[] trains) {
+        if (trains.length == 0) return new int[0][];
+
+        select(trains[0].getAnalysisId());
+        try {
+            return getCrossCorrelationInternal(trains);
+        } finally {
+            bits.clear();
+        }
+    }
+
+    /**
+     * Clears cached histograms. Should be called when spikes of the cached analysis are found again or deleted.
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+    }
+
+    // Returns histograms of the specified type for every train, updating or calculating the ones that are stale
+    private int[][] getSelf(SpikeHistograms.SelfHistogram type, Train[] trains) {
+        final int trainCount = trains.length;
+        final int[][] result = new int[trainCount][];
+        if (trainCount == 0) return result;
+
+        select(trains[0].getAnalysisId());
+        try {
+            int missCount = 0;
+            final boolean[] misses = new boolean[trainCount];
+            for (int i = 0; i < trainCount; i++) {
+                final Version version = new Version(trains[i]);
+                final String name = selfName(type, version.trainId);
+                final Entry entry = getEntry(name);
+                if (entry == null || !entry.versions[0].equals(version) && !updateSelf(type, entry, version)) {
+                    misses[i] = true;
+                    missCount++;
+                    continue;
+                }
+                if (!entry.versions[0].equals(version)) {
+                    putEntry(name, new Entry(new Version[] { version }, entry.bins));
+                }
+                result[i] = entry.bins.clone();
+            }
+
+            if (missCount > 0) {
+                LOGD(TAG, "Calculating " + type + " of " + missCount + " trains");
+                final float[][] times = new float[missCount][];
+                int j = 0;
+                for (int i = 0; i < trainCount; i++) if (misses[i]) times[j++] = getTimes(new Version(trains[i]));
+
+                final int[][] calculated;
+                if (type == SpikeHistograms.SelfHistogram.ISI) {
+                    calculated = calculator.isi(times);
+                } else {
+                    calculated = calculator.autocorrelation(times);
+                }
+
+                j = 0;
+                for (int i = 0; i < trainCount; i++) {
+                    if (!misses[i]) continue;
+
+                    final Version version = new Version(trains[i]);
+                    final int[] bins = calculated[j++];
+                    putEntry(selfName(type, version.trainId), new Entry(new Version[] { version }, bins));
+                    result[i] = bins.clone();
+                }
+            }
+        } finally {
+            bits.clear();
+        }
+
+        return result;
+    }
+
+    // Updates bins of specified entry for the new version of the train, returns false if update isn't possible or
+    // calculating histogram from scratch is cheaper
+    private boolean updateSelf(SpikeHistograms.SelfHistogram type, Entry entry, Version version) {
+        final Version old = entry.versions[0];
+        if (old.channel != version.channel) return false;
+
+        final SpikeStore.Channel channel = loader.loadChannel(analysisId, version.channel);
+        if (channel == null) return false;
+
+        final BitSet from = (BitSet) getBits(old).clone();
+        final BitSet to = getBits(version);
+        if (changedCount(from, to) > to.cardinality()) return false;
+
+        LOGD(TAG, "Updating " + type + " of train " + version.trainId);
+        SpikeHistograms.updateSelf(type, channel, from, to, entry.bins);
+        return true;
+    }
+
+    private int[][] getCrossCorrelationInternal(Train[] trains) {
+        final int trainCount = trains.length;
+        final int pairCount = trainCount * trainCount;
+        final Version[] versions = new Version[trainCount];
+        for (int i = 0; i < trainCount; i++) versions[i] = new Version(trains[i]);
+
+        // histograms are updated only if all of them exist and updating them is cheaper than calculating them
+        boolean calculate = false;
+        final Entry[] pairEntries = new Entry[pairCount];
+        for (int pair = 0; pair < pairCount; pair++) {
+            final Version first = versions[pair / trainCount];
+            final Version second = versions[pair % trainCount];
+            final Entry entry = getEntry(crossName(first.trainId, second.trainId));
+            if (entry == null || entry.versions[0].channel != first.channel
+                || entry.versions[1].channel != second.channel
+                || loader.loadChannel(analysisId, first.channel) == null) {
+                calculate = true;
+                break;
+            }
+            pairEntries[pair] = entry;
+        }
+        if (!calculate) {
+            long changed = 0, total = 0;
+            for (Version version : versions) total += getBits(version).cardinality();
+            for (int pair = 0; pair < pairCount && changed <= total; pair++) {
+                final Entry entry = pairEntries[pair];
+                changed += changedCount(getBits(entry.versions[0]), getBits(versions[pair / trainCount]));
+                changed += changedCount(getBits(entry.versions[1]), getBits(versions[pair % trainCount]));
+            }
+            calculate = changed > total;
+        }
+
+        if (calculate) {
+            LOGD(TAG, "Calculating cross-correlation of " + trainCount + " trains");
+            calculateCrossCorrelation(versions);
+        } else {
+            for (int pair = 0; pair < pairCount; pair++) {
+                final Entry entry = pairEntries[pair];
+                final Version first = versions[pair / trainCount];
+                final Version second = versions[pair % trainCount];
+                if (entry.versions[0].equals(first) && entry.versions[1].equals(second)) continue;
+
+                LOGD(TAG, "Updating cross-correlation of trains " + first.trainId + " and " + second.trainId);
+                final SpikeStore.Channel firstChannel = loader.loadChannel(analysisId, first.channel);
+                final SpikeStore.Channel secondChannel = loader.loadChannel(analysisId, second.channel);
+                // channels of all the trains were checked above so they can't be null
+                //noinspection ConstantConditions
+                if (first.trainId == second.trainId) {
+                    SpikeHistograms.updateSelf(SpikeHistograms.SelfHistogram.CROSS_CORRELATION, firstChannel,
+                        (BitSet) getBits(entry.versions[0]).clone(), getBits(first), entry.bins);
+                } else {
+                    // first train is moved to its new version while the second one stays old, then the second one
+                    // is moved against the already updated first train
+                    if (!entry.versions[0].equals(first)) {
+                        SpikeHistograms.updateCrossCorrelation(firstChannel,
+                            (BitSet) getBits(entry.versions[0]).clone(), getBits(first), getTimes(entry.versions[1]),
+                            true, entry.bins);
+                    }
+                    if (!entry.versions[1].equals(second)) {
+                        SpikeHistograms.updateCrossCorrelation(secondChannel,
+                            (BitSet) getBits(entry.versions[1]).clone(), getBits(second), getTimes(first), false,
+                            entry.bins);
+                    }
+                }
+                putEntry(crossName(first.trainId, second.trainId),
+                    new Entry(new Version[] { first, second }, entry.bins));
+            }
+        }
+
+        // native analysis leaves histograms of trains with less than two spikes empty
+        final int[][] result = new int[pairCount][];
+        for (int pair = 0; pair < pairCount; pair++) {
+            final Version first = versions[pair / trainCount];
+            final Version second = versions[pair % trainCount];
+            if (getBits(first).cardinality() > 1 && getBits(second).cardinality() > 1) {
+                //noinspection ConstantConditions
+                result[pair] = getEntry(crossName(first.trainId, second.trainId)).bins.clone();
+            } else {
+                result[pair] = new int[SpikeHistograms.CROSS_CORRELATION_BIN_COUNT];
+            }
+        }
+        return result;
+    }
+
+    // Calculates cross-correlation histograms of all the pairs of specified train versions from scratch
+    private void calculateCrossCorrelation(Version[] versions) {
+        final int trainCount = versions.length;
+        final float[][] times = new float[trainCount][];
+        for (int i = 0; i < trainCount; i++) times[i] = getTimes(versions[i]);
+
+        final int[][] calculated = calculator.crossCorrelation(times);
+        for (int i = 0; i < trainCount; i++) {
+            for (int j = 0; j < trainCount; j++) {
+                final int[] bins = calculated[i * trainCount + j];
+                // histograms that native analysis leaves empty are needed for later updates so we calculate them
+                // here, one of the trains has at most one spike so it's cheap
+                final SpikeStore.Channel channel = loader.loadChannel(analysisId, versions[i].channel);
+                if ((times[i].length <= 1 || times[j].length <= 1) && channel != null) {
+                    if (i == j) {
+                        SpikeHistograms.updateSelf(SpikeHistograms.SelfHistogram.CROSS_CORRELATION, channel,
+                            new BitSet(), getBits(versions[i]), bins);
+                    } else {
+                        SpikeHistograms.updateCrossCorrelation(channel, new BitSet(), getBits(versions[i]), times[j],
+                            true, bins);
+                    }
+                }
+                putEntry(crossName(versions[i].trainId, versions[j].trainId),
+                    new Entry(new Version[] { versions[i], versions[j] }, bins));
+            }
+        }
+    }
+
+    // Switches to the analysis with specified id dropping histograms of the previous one
+    private void select(long analysisId) {
+        if (this.analysisId != analysisId) {
+            entries.clear();
+            this.analysisId = analysisId;
+        }
+    }
+
+    // Returns spikes of the specified train version as bitmap over the channel spikes
+    private BitSet getBits(Version version) {
+        BitSet result = bits.get(version);
+        if (result == null) {
+            final SpikeStore.Channel channel = loader.loadChannel(analysisId, version.channel);
+            result = channel != null ? SpikeHistograms.trainBits(channel, version.lowerThreshold,
+                version.upperThreshold) : new BitSet();
+            bits.put(version, result);
+        }
+        return result;
+    }
+
+    // Returns spike times of the specified train version
+    private float[] getTimes(Version version) {
+        final SpikeStore.Channel channel = loader.loadChannel(analysisId, version.channel);
+        return channel != null ? SpikeHistograms.trainTimes(channel, getBits(version)) : new float[0];
+    }
+
+    // Returns number of spikes that are in only one of the specified bitmaps
+    private static int changedCount(BitSet from, BitSet to) {
+        final BitSet changed = (BitSet) from.clone();
+        changed.xor(to);
+        return changed.cardinality();
+    }
+
+    // Returns entry with specified name from memory, or from disk if it's not in memory
+    @Nullable private Entry getEntry(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = read(loader.getCacheFile(analysisId, name + FILE_EXTENSION));
+            if (entry != null) entries.put(name, entry);
+        }
+        return entry;
+    }
+
+    // Saves specified entry to memory and to disk
+    private void putEntry(String name, Entry entry) {
+        entries.put(name, entry);
+        final File file = loader.getCacheFile(analysisId, name + FILE_EXTENSION);
+        final File tempFile = new File(file.getPath() + TEMP_FILE_EXTENSION);
+        try {
+            write(tempFile, entry);
+            if (!tempFile.renameTo(file)) throw new IOException("Couldn't rename " + tempFile);
+        } catch (IOException e) {
+            // histogram stays in memory and is calculated again next time
+            LOGD(TAG, "Couldn't save " + name + ": " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    @Nullable private static Entry read(File file) {
+        if (!file.exists()) return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return null;
+
+            final Version[] versions = new Version[in.readInt()];
+            for (int i = 0; i < versions.length; i++) {
+                versions[i] = new Version(in.readLong(), in.readInt(), in.readInt(), in.readInt());
+            }
+            final int[] bins = new int[in.readInt()];
+            for (int i = 0; i < bins.length; i++) bins[i] = in.readInt();
+            return new Entry(versions, bins);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void write(File file, Entry entry) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entry.versions.length);
+            for (Version version : entry.versions) {
+                out.writeLong(version.trainId);
+                out.writeInt(version.channel);
+                out.writeInt(version.lowerThreshold);
+                out.writeInt(version.upperThreshold);
+            }
+            out.writeInt(entry.bins.length);
+            for (int bin : entry.bins) out.writeInt(bin);
+        }
+    }
+
+    private static String selfName(SpikeHistograms.SelfHistogram type, long trainId) {
+        return (type == SpikeHistograms.SelfHistogram.ISI ? "isi_" : "autocorrelation_") + trainId;
+    }
+
+    private static String crossName(long firstTrainId, long secondTrainId) {
+        return "cross_correlation_" + firstTrainId + "_" + secondTrainId;
+    }
+}
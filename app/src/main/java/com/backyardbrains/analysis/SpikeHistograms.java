@@ -0,0 +1,233 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import com.backyardbrains.db.source.SpikeStore;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Incremental updates of the ISI, autocorrelation and cross-correlation histograms. Histograms are updated spike by
+ * spike as spikes are added to or removed from a train, so only the spikes whose membership changed are processed.
+ * Bins are calculated with exactly the same float arithmetic as the native analyses so updated histograms are equal
+ * to the ones calculated from scratch.
+ * <p/>
+ * Train spikes are kept as bitmaps over the spikes of the train channel, same as in {@link SpikeStore}.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+final class SpikeHistograms {
+
+    static final int ISI_BIN_COUNT = 100;
+
+    private static final float AUTOCORRELATION_MAX_TIME = 0.1f; // 100ms
+    private static final float AUTOCORRELATION_BIN_SIZE = 0.001f; // 1ms
+    private static final float AUTOCORRELATION_MIN_EDGE = -AUTOCORRELATION_BIN_SIZE * 0.5f; // -.5ms
+    private static final float AUTOCORRELATION_MAX_EDGE =
+        AUTOCORRELATION_MAX_TIME + AUTOCORRELATION_BIN_SIZE * 0.5f; // 100.5ms
+    static final int AUTOCORRELATION_BIN_COUNT =
+        (int) Math.ceil((AUTOCORRELATION_MAX_TIME + AUTOCORRELATION_BIN_SIZE) / AUTOCORRELATION_BIN_SIZE);
+
+    private static final float CROSS_CORRELATION_MAX_TIME = 0.1f;
+    private static final float CROSS_CORRELATION_BIN_SIZE = 0.001f;
+    private static final float CROSS_CORRELATION_MIN_EDGE =
+        -CROSS_CORRELATION_MAX_TIME - CROSS_CORRELATION_BIN_SIZE * 0.5f;
+    private static final float CROSS_CORRELATION_MAX_EDGE =
+        CROSS_CORRELATION_MAX_TIME + CROSS_CORRELATION_BIN_SIZE * 0.5f;
+    private static final float CROSS_CORRELATION_DIVIDER = 1 / CROSS_CORRELATION_BIN_SIZE;
+    static final int CROSS_CORRELATION_BIN_COUNT = (int) Math.ceil(
+        (2 * CROSS_CORRELATION_MAX_TIME + CROSS_CORRELATION_BIN_SIZE) / CROSS_CORRELATION_BIN_SIZE);
+
+    // Logarithmically spaced ISI bin edges, from 1ms to 10s, generated the same way native analysis does it
+    private static final float[] ISI_EDGES = logSpace(-3, 1, ISI_BIN_COUNT - 1);
+
+    /**
+     * Type of histogram of time differences between spikes of the same train.
+     */
+    enum SelfHistogram {
+        ISI, AUTOCORRELATION, CROSS_CORRELATION
+    }
+
+    private SpikeHistograms() {
+    }
+
+    /**
+     * Returns bitmap of the spikes of specified {@code channel} with values between {@code lowerThreshold} and {@code
+     * upperThreshold} (inclusive).
+     */
+    @NonNull static BitSet trainBits(@NonNull SpikeStore.Channel channel, int lowerThreshold, int upperThreshold) {
+        final int size = channel.size();
+        final BitSet bits = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+            final short value = channel.getValue(i);
+            if (value >= lowerThreshold && value <= upperThreshold) bits.set(i);
+        }
+        return bits;
+    }
+
+    /**
+     * Returns times of the spikes of specified {@code channel} that are set in specified {@code bits}.
+     */
+    @NonNull static float[] trainTimes(@NonNull SpikeStore.Channel channel, @NonNull BitSet bits) {
+        final float[] result = new float[bits.cardinality()];
+        int j = 0;
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) result[j++] = channel.getTime(i);
+        return result;
+    }
+
+    /**
+     * Updates {@code histogram} of the specified {@code type} calculated for the train with spikes {@code from} so it
+     * becomes the histogram of the train with spikes {@code to}. Both bitmaps are over the spikes of specified {@code
+     * channel}, and {@code from} is modified so it ends up equal to {@code to}.
+     */
+    static void updateSelf(@NonNull SelfHistogram type, @NonNull SpikeStore.Channel channel, @NonNull BitSet from,
+        @NonNull BitSet to, @NonNull int[] histogram) {
+        final BitSet changed = (BitSet) from.clone();
+        changed.xor(to);
+        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+            final boolean added = to.get(i);
+            // removed spike is taken out before its pairs are counted so it's not paired with itself twice
+            if (!added) from.clear(i);
+            if (type == SelfHistogram.ISI) {
+                updateIsi(channel, from, i, added ? 1 : -1, histogram);
+            } else {
+                updateSelfPairs(type, channel, from, i, added ? 1 : -1, histogram);
+            }
+            if (added) from.set(i);
+        }
+    }
+
+    /**
+     * Updates cross-correlation {@code histogram} of a pair of trains in which train with spikes {@code from}, over the
+     * spikes of the specified {@code channel}, changes to train with spikes {@code to}. The other train of the pair
+     * doesn't change and its spike times are {@code otherTimes}. If {@code changingFirst} is {@code true} changing
+     * train is the first train of the pair, otherwise it's the second one. {@code from} is modified so it ends up equal
+     * to {@code to}.
+     */
+    static void updateCrossCorrelation(@NonNull SpikeStore.Channel channel, @NonNull BitSet from, @NonNull BitSet to,
+        @NonNull float[] otherTimes, boolean changingFirst, @NonNull int[] histogram) {
+        final BitSet changed = (BitSet) from.clone();
+        changed.xor(to);
+        for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+            final int delta = to.get(i) ? 1 : -1;
+            final float time = channel.getTime(i);
+            // other train is sorted so we only need to check spikes around the changed one
+            int k = lowerBound(otherTimes, time - 2 * CROSS_CORRELATION_MAX_EDGE);
+            for (; k < otherTimes.length; k++) {
+                final float diff = changingFirst ? time - otherTimes[k] : otherTimes[k] - time;
+                final int bin = crossCorrelationBin(diff, histogram.length);
+                if (bin >= 0) {
+                    histogram[bin] += delta;
+                } else if (otherTimes[k] > time) {
+                    break;
+                }
+            }
+            if (delta > 0) from.set(i);
+            else from.clear(i);
+        }
+    }
+
+    // Adds or removes (depending on the delta) intervals to the neighbours of the spike at specified position
+    private static void updateIsi(SpikeStore.Channel channel, BitSet bits, int position, int delta, int[] histogram) {
+        final int previous = position > 0 ? bits.previousSetBit(position - 1) : -1;
+        final int next = bits.nextSetBit(position + 1);
+        final float time = channel.getTime(position);
+        if (previous >= 0 && next >= 0) {
+            addToBin(histogram, isiBin(channel.getTime(next) - channel.getTime(previous)), -delta);
+        }
+        if (previous >= 0) addToBin(histogram, isiBin(time - channel.getTime(previous)), delta);
+        if (next >= 0) addToBin(histogram, isiBin(channel.getTime(next) - time), delta);
+    }
+
+    // Adds or removes (depending on the delta) differences between the spike at specified position and every spike of
+    // the train within the analysis window, in both directions, together with the spike paired with itself
+    private static void updateSelfPairs(SelfHistogram type, SpikeStore.Channel channel, BitSet bits, int position,
+        int delta, int[] histogram) {
+        final float time = channel.getTime(position);
+        addToBin(histogram, pairBin(type, 0f, histogram.length), delta);
+        // on the left differences only grow so we can stop as soon as both fall outside the window
+        for (int k = bits.previousSetBit(position - 1); k >= 0; k = bits.previousSetBit(k - 1)) {
+            if (!addPair(type, time, channel.getTime(k), delta, histogram)) break;
+        }
+        for (int k = bits.nextSetBit(position + 1); k >= 0; k = bits.nextSetBit(k + 1)) {
+            if (!addPair(type, time, channel.getTime(k), delta, histogram)) break;
+        }
+    }
+
+    // Adds differences between specified times in both directions to the histogram, returns whether any of them
+    // was inside the window
+    private static boolean addPair(SelfHistogram type, float time, float otherTime, int delta, int[] histogram) {
+        final int first = pairBin(type, time - otherTime, histogram.length);
+        final int second = pairBin(type, otherTime - time, histogram.length);
+        addToBin(histogram, first, delta);
+        addToBin(histogram, second, delta);
+        return first >= 0 || second >= 0;
+    }
+
+    private static int pairBin(SelfHistogram type, float diff, int binCount) {
+        return type == SelfHistogram.AUTOCORRELATION ? autocorrelationBin(diff, binCount)
+            : crossCorrelationBin(diff, binCount);
+    }
+
+    private static void addToBin(int[] histogram, int bin, int delta) {
+        if (bin >= 0) histogram[bin] += delta;
+    }
+
+    // Returns ISI bin of specified interval, or -1 if it's outside of all bins
+    static int isiBin(float diff) {
+        if (diff < ISI_EDGES[0] || diff >= ISI_EDGES[ISI_EDGES.length - 1]) return -1;
+
+        int bin = Arrays.binarySearch(ISI_EDGES, diff);
+        // exact match belongs to the bin the edge starts, otherwise bin is the one before the insertion point
+        if (bin < 0) bin = -bin - 2;
+        // edges can repeat so we need to go to the last bin with that starting edge
+        while (bin + 1 < ISI_EDGES.length - 1 && ISI_EDGES[bin + 1] <= diff) bin++;
+        return bin;
+    }
+
+    // Returns autocorrelation bin of specified difference, or -1 if it's outside of the window
+    static int autocorrelationBin(float diff, int binCount) {
+        if (diff > AUTOCORRELATION_MIN_EDGE && diff < AUTOCORRELATION_MAX_EDGE) {
+            final int bin = (int) ((diff - AUTOCORRELATION_MIN_EDGE) / AUTOCORRELATION_BIN_SIZE);
+            return bin < binCount ? bin : -1;
+        }
+        return -1;
+    }
+
+    // Returns cross-correlation bin of specified difference, or -1 if it's outside of the window
+    static int crossCorrelationBin(float diff, int binCount) {
+        if (diff > CROSS_CORRELATION_MIN_EDGE && diff < CROSS_CORRELATION_MAX_EDGE) {
+            final int bin = (int) ((diff - CROSS_CORRELATION_MIN_EDGE) * CROSS_CORRELATION_DIVIDER);
+            return bin < binCount ? bin : -1;
+        }
+        return -1;
+    }
+
+    // Returns position of the first time that's not lower than specified time
+    private static int lowerBound(float[] times, float time) {
+        int low = 0, high = times.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Same as AnalysisUtils::generateLogSpace()
+    private static float[] logSpace(int min, int max, int size) {
+        final double logMin = Math.log(Math.pow(10.0, min));
+        final double logMax = Math.log(Math.pow(10.0, max));
+        final double delta = (logMax - logMin) / size;
+
+        double accDelta = 0;
+        final float[] result = new float[size + 1];
+        for (int i = 0; i <= size; i++) {
+            result[i] = (float) Math.pow(Math.E, logMin + accDelta);
+            accDelta += delta;
+        }
+        return result;
+    }
+}
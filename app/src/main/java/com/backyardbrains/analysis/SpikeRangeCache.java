@@ -0,0 +1,136 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.vo.SpikeIndexValue;
+import com.backyardbrains.vo.SpikeRange;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps spikes of the channels of a single spike analysis and spikes of the spike trains in sorted primitive arrays
+ * so renderers can query spikes within a sample range on every frame without hitting the storage and without
+ * allocating. Spikes are loaded from storage the first time they are queried.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeRangeCache {
+
+    /**
+     * Loads all the spikes of an analysis channel or a spike train sorted by sample index.
+     */
+    public interface Loader {
+        @Nullable SpikeIndexValue[] loadChannelSpikes(long analysisId, int channel);
+
+        @Nullable SpikeIndexValue[] loadTrainSpikes(long trainId, int channel);
+    }
+
+    // Spikes of a single channel or spike train
+    private static final class Spikes {
+        final float[] values;
+        final int[] indices;
+
+        Spikes(@NonNull SpikeIndexValue[] spikes) {
+            values = new float[spikes.length];
+            indices = new int[spikes.length];
+            for (int i = 0; i < spikes.length; i++) {
+                values[i] = spikes[i].value;
+                indices[i] = spikes[i].index;
+            }
+        }
+    }
+
+    private static final Spikes EMPTY = new Spikes(new SpikeIndexValue[0]);
+
+    private final Loader loader;
+
+    // Id of the analysis whose channel spikes are currently cached
+    private volatile long analysisId;
+    // Channel spikes of the currently cached analysis by channel
+    private final Map<Integer, Spikes> channels = new ConcurrentHashMap<>();
+    // Spike train spikes by train id
+    private final Map<Long, Spikes> trains = new ConcurrentHashMap<>();
+
+    public SpikeRangeCache(@NonNull Loader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Populates {@code out} with values and indices of the spikes of the specified {@code channel} of the analysis
+     * with specified {@code analysisId} located between {@code startIndex} and {@code endIndex} (inclusive).
+     */
+    public void getSpikesForRange(long analysisId, int channel, int startIndex, int endIndex, @NonNull SpikeRange out) {
+        if (this.analysisId != analysisId) {
+            channels.clear();
+            this.analysisId = analysisId;
+        }
+        Spikes spikes = channels.get(channel);
+        if (spikes == null) {
+            spikes = create(loader.loadChannelSpikes(analysisId, channel));
+            channels.put(channel, spikes);
+        }
+        copyRange(spikes, startIndex, endIndex, out);
+    }
+
+    /**
+     * Populates {@code out} with values and indices of the spikes of the train with specified {@code trainId} located
+     * between {@code startIndex} and {@code endIndex} (inclusive).
+     */
+    public void getSpikesByTrainForRange(long trainId, int channel, int startIndex, int endIndex,
+        @NonNull SpikeRange out) {
+        Spikes spikes = trains.get(trainId);
+        if (spikes == null) {
+            spikes = create(loader.loadTrainSpikes(trainId, channel));
+            trains.put(trainId, spikes);
+        }
+        copyRange(spikes, startIndex, endIndex, out);
+    }
+
+    /**
+     * Clears cached spikes of all spike trains. Should be invoked whenever spike trains or their thresholds change.
+     */
+    public void invalidateTrains() {
+        trains.clear();
+    }
+
+    /**
+     * Clears all cached spikes.
+     */
+    public void invalidate() {
+        channels.clear();
+        trains.clear();
+        analysisId = 0;
+    }
+
+    private static Spikes create(@Nullable SpikeIndexValue[] spikes) {
+        return spikes != null && spikes.length > 0 ? new Spikes(spikes) : EMPTY;
+    }
+
+    // Copies spikes located between specified start and end index to specified output holder
+    private static void copyRange(@NonNull Spikes spikes, int startIndex, int endIndex, @NonNull SpikeRange out) {
+        final int from = lowerBound(spikes.indices, startIndex);
+        final int to = endIndex == Integer.MAX_VALUE ? spikes.indices.length : lowerBound(spikes.indices, endIndex + 1);
+        final int count = Math.max(0, to - from);
+        out.reset(count);
+        if (count > 0) {
+            System.arraycopy(spikes.values, from, out.values, 0, count);
+            System.arraycopy(spikes.indices, from, out.indices, 0, count);
+        }
+        out.count = count;
+    }
+
+    // Returns position of the first element that's greater than or equal to specified value
+    private static int lowerBound(@NonNull int[] array, int value) {
+        int low = 0;
+        int high = array.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (array[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -5,8 +5,11 @@ import androidx.annotation.Nullable;
 import com.backyardbrains.db.entity.Spike;
 import com.backyardbrains.db.entity.SpikeAnalysis;
 import com.backyardbrains.db.entity.Train;
+import com.backyardbrains.db.source.SpikeStore;
 import com.backyardbrains.utils.ThresholdOrientation;
 import com.backyardbrains.vo.SpikeIndexValue;
+import java.io.File;
+import java.io.IOException;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
@@ -34,6 +37,32 @@ public interface AnalysisDataSource {
 
     void saveSpikeAnalysis(@NonNull String filePath, @NonNull Spike[] spikesAnalysis);
 
+    /**
+     * Saves spikes of a single spike analysis in batches, as they are found. All the methods are invoked on the
+     * thread that runs the analysis and block until data is written. Saved spikes become visible once writer is
+     * finished.
+     */
+    interface SpikeAnalysisWriter {
+        /**
+         * Saves first {@code count} spikes described by the passed arrays. Arrays can be reused once the method
+         * returns.
+         */
+        void saveSpikes(@NonNull int[] channels, @NonNull short[] values, @NonNull int[] indices,
+            @NonNull float[] times, int count) throws IOException;
+
+        /**
+         * Makes all the spikes saved so far visible.
+         */
+        void finish() throws IOException;
+
+        /**
+         * Deletes all the spikes saved so far together with the analysis.
+         */
+        void abort();
+    }
+
+    @NonNull SpikeAnalysisWriter createSpikeAnalysisWriter(@NonNull String filePath);
+
     void updateSpikeAnalysisFilePath(String oldFilePath, String newFilePath);
 
     void deleteSpikeAnalysis(String filePath);
@@ -42,6 +71,10 @@ public interface AnalysisDataSource {
 
     SpikeIndexValue[] getSpikeAnalysisByTrainForIndexRange(long trainId, int channel, int startIndex, int endIndex);
 
+    @Nullable SpikeStore.Channel getSpikeAnalysisChannel(long analysisId, int channel);
+
+    @NonNull File getSpikeAnalysisCacheFile(long analysisId, @NonNull String name);
+
     void getSpikeAnalysisTimesByTrains(@NonNull final String filePath,
         @Nullable final GetAnalysisCallback<float[][]> callback);
 
@@ -55,6 +88,10 @@ public interface AnalysisDataSource {
         void onSpikeAnalysisTrainAdded(int order);
     }
 
+    interface SaveSpikeAnalysisTrainCallback {
+        void onSpikeAnalysisTrainSaved();
+    }
+
     interface RemoveSpikeAnalysisTrainCallback {
         void onSpikeAnalysisTrainRemoved(int newTrainCount);
     }
@@ -68,7 +105,7 @@ public interface AnalysisDataSource {
         @Nullable AddSpikeAnalysisTrainCallback callback);
 
     void saveSpikeAnalysisTrain(@NonNull String filePath, int channel, int order, @ThresholdOrientation int orientation,
-        int value);
+        int value, @Nullable SaveSpikeAnalysisTrainCallback callback);
 
     void removeSpikeAnalysisTrain(@NonNull String filePath, int order,
         @Nullable RemoveSpikeAnalysisTrainCallback callback);
@@ -6,9 +6,11 @@ import com.backyardbrains.db.entity.Spike;
 import com.backyardbrains.db.entity.SpikeAnalysis;
 import com.backyardbrains.db.entity.Train;
 import com.backyardbrains.db.source.AnalysisLocalDataSource;
+import com.backyardbrains.db.source.SpikeStore;
 import com.backyardbrains.utils.AppExecutors;
 import com.backyardbrains.utils.ThresholdOrientation;
 import com.backyardbrains.vo.SpikeIndexValue;
+import java.io.File;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
@@ -20,28 +22,29 @@ public class AnalysisRepository {
     private final AnalysisDataSource analysisDataSource;
 
     // Prevent direct instantiation.
-    private AnalysisRepository(@NonNull SpikeRecorderDatabase db) {
-        analysisDataSource =
-            AnalysisLocalDataSource.get(db.spikeAnalysisDao(), db.spikeDao(), db.trainDao(), new AppExecutors());
+    private AnalysisRepository(@NonNull SpikeRecorderDatabase db, @NonNull File spikeStoreDir) {
+        analysisDataSource = AnalysisLocalDataSource.get(db.spikeAnalysisDao(), db.spikeDao(), db.trainDao(),
+            new SpikeStore(spikeStoreDir), new AppExecutors());
     }
 
     /**
      * Returns the single instance of this class, creating it if necessary.
      *
      * @param db Application database
+     * @param spikeStoreDir Directory in which spikes of the spike analysis are stored
      * @return Singleton instance of the {@link AnalysisRepository}
      */
-    public static AnalysisRepository get(@NonNull SpikeRecorderDatabase db) {
+    public static AnalysisRepository get(@NonNull SpikeRecorderDatabase db, @NonNull File spikeStoreDir) {
         if (INSTANCE == null) {
             synchronized (AnalysisRepository.class) {
-                if (INSTANCE == null) INSTANCE = new AnalysisRepository(db);
+                if (INSTANCE == null) INSTANCE = new AnalysisRepository(db, spikeStoreDir);
             }
         }
         return INSTANCE;
     }
 
     /**
-     * Used to force {@link #get(SpikeRecorderDatabase)}  to create a new instance next time it's called.
+     * Used to force {@link #get(SpikeRecorderDatabase, File)}  to create a new instance next time it's called.
      */
     @SuppressWarnings("unused") public static void destroy() {
         INSTANCE = null;
@@ -74,6 +77,16 @@ public class AnalysisRepository {
         analysisDataSource.saveSpikeAnalysis(filePath, spikesAnalysis);
     }
 
+    /**
+     * Creates writer through which spikes found by the spike analysis of the file with specified {@code filePath} are
+     * saved in batches, as they are found.
+     *
+     * @param filePath Path to the file for which analysis is being saved.
+     */
+    @NonNull public AnalysisDataSource.SpikeAnalysisWriter createSpikeAnalysisWriter(@NonNull String filePath) {
+        return analysisDataSource.createSpikeAnalysisWriter(filePath);
+    }
+
     /**
      * Returns id of the {@link SpikeAnalysis} for audio file located at specified {@code filePath}.
      *
@@ -131,6 +144,28 @@ public class AnalysisRepository {
         return analysisDataSource.getSpikeAnalysisByTrainForIndexRange(trainId, channel, startIndex, endIndex);
     }
 
+    /**
+     * Returns all the spikes of the specified {@code channel} of the {@link SpikeAnalysis} with specified {@code
+     * analysisId}, or {@code null} if they are not available.
+     *
+     * @param analysisId Id of the spike analysis returned spikes belong to.
+     * @param channel Channel for which spikes should be returned.
+     */
+    @Nullable public SpikeStore.Channel getSpikeAnalysisChannel(long analysisId, int channel) {
+        return analysisDataSource.getSpikeAnalysisChannel(analysisId, channel);
+    }
+
+    /**
+     * Returns file with specified {@code name} in which data derived from the spikes of the {@link SpikeAnalysis} with
+     * specified {@code analysisId} can be cached. File is deleted together with the spikes.
+     *
+     * @param analysisId Id of the spike analysis cached data is derived from.
+     * @param name Name of the file.
+     */
+    @NonNull public File getSpikeAnalysisCacheFile(long analysisId, @NonNull String name) {
+        return analysisDataSource.getSpikeAnalysisCacheFile(analysisId, name);
+    }
+
     /**
      * Returns collection of spike times collections sorted by the spike analysis train they belong to. Result is
      * returned by invoking specified {@code callback} and passing it in.
@@ -205,10 +240,12 @@ public class AnalysisRepository {
      * @param order Order of the spike train that needs to be updated.
      * @param orientation {@link ThresholdOrientation} of the threshold that was updated.
      * @param value New threshold value.
+     * @param callback Callback that's invoked when spike train is saved to database.
      */
     public void saveSpikeAnalysisTrain(@NonNull String filePath, int channel, int order,
-        @ThresholdOrientation int orientation, int value) {
-        analysisDataSource.saveSpikeAnalysisTrain(filePath, channel, order, orientation, value);
+        @ThresholdOrientation int orientation, int value,
+        @Nullable AnalysisDataSource.SaveSpikeAnalysisTrainCallback callback) {
+        analysisDataSource.saveSpikeAnalysisTrain(filePath, channel, order, orientation, value, callback);
     }
 
     /**
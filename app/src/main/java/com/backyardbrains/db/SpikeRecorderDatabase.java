@@ -20,7 +20,7 @@ import com.backyardbrains.db.entity.Train;
  */
 @Database(entities = {
     SpikeAnalysis.class, Spike.class, Train.class
-}, version = 7) public abstract class SpikeRecorderDatabase extends RoomDatabase {
+}, version = 8) public abstract class SpikeRecorderDatabase extends RoomDatabase {
 
     private static SpikeRecorderDatabase INSTANCE;
 
@@ -30,7 +30,7 @@ import com.backyardbrains.db.entity.Train;
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(), SpikeRecorderDatabase.class,
                         "byb-spike-recorder")
-                        .addMigrations(MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_5_7)
+                        .addMigrations(MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_5_7, MIGRATION_7_8)
                         .fallbackToDestructiveMigration()
                         .build();
                 }
@@ -124,6 +124,21 @@ import com.backyardbrains.db.entity.Train;
         }
     };
 
+    /**
+     * Migrate from:
+     * version 7 - spikes and train spikes saved in the spikes table
+     * to
+     * version 8 - spikes saved in the spike store, spikes table only holds not yet migrated spikes
+     */
+    @VisibleForTesting static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // spikes are no longer queried from the database so we only need index for lookup by analysis
+            database.execSQL("DROP INDEX IF EXISTS `index_spikes_train_id_channel_index_value_time`");
+            database.execSQL("DROP INDEX IF EXISTS `index_spikes_analysis_id_channel_index_value_time`");
+            database.execSQL("CREATE  INDEX `index_spikes_analysis_id` ON `spikes` (`analysis_id`)");
+        }
+    };
+
     public abstract SpikeAnalysisDao spikeAnalysisDao();
 
     public abstract SpikeDao spikeDao();
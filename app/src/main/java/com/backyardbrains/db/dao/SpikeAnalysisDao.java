@@ -19,4 +19,6 @@ import com.backyardbrains.db.entity.SpikeAnalysis;
     void updateSpikeAnalysisFilePath(String oldFilePath, String newFilePath);
 
     @Query("DELETE FROM spike_analysis WHERE file_path = :filePath") void deleteSpikeAnalysis(String filePath);
+
+    @Query("DELETE FROM spike_analysis WHERE id = :analysisId") void deleteSpikeAnalysisById(long analysisId);
 }
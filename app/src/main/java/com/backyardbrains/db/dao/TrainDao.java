@@ -4,6 +4,7 @@ import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.Update;
 import com.backyardbrains.db.entity.Train;
 
 /**
@@ -15,15 +16,19 @@ import com.backyardbrains.db.entity.Train;
 
     @Insert void insertTrains(Train[] trains);
 
+    @Update void updateTrain(Train train);
+
     @Delete void deleteTrain(Train train);
 
+    @Query("SELECT * FROM trains WHERE id = :id") Train loadTrain(long id);
+
     @Query("SELECT * FROM trains WHERE analysis_id = :analysisId AND channel = :channel AND `order` = :order")
     Train loadTrain(long analysisId, int channel, int order);
 
     @Query("SELECT * FROM trains WHERE analysis_id = :analysisId AND `order` = :order ORDER BY `order`")
     Train[] loadTrains(long analysisId, int order);
 
-    @Query("SELECT DISTINCT * FROM trains WHERE analysis_id = :analysisId AND spike_count != 0 ORDER BY `order`")
+    @Query("SELECT DISTINCT * FROM trains WHERE analysis_id = :analysisId AND spike_count != 0 ORDER BY `order`, channel")
     Train[] loadTrains(long analysisId);
 
     @Query("SELECT * FROM trains WHERE analysis_id = :analysisId AND channel = :channel ORDER BY `order`")
@@ -10,11 +10,7 @@ import androidx.room.PrimaryKey;
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
-@Entity(tableName = "spikes", indices = {
-    @Index(value = { "train_id", "channel", "index", "value", "time" }), @Index(value = {
-    "analysis_id", "channel", "index", "value", "time"
-})
-}, foreignKeys = @ForeignKey(entity = SpikeAnalysis.class, parentColumns = "id", childColumns = "analysis_id", onDelete = ForeignKey.CASCADE))
+@Entity(tableName = "spikes", indices = @Index(value = "analysis_id"), foreignKeys = @ForeignKey(entity = SpikeAnalysis.class, parentColumns = "id", childColumns = "analysis_id", onDelete = ForeignKey.CASCADE))
 public class Spike {
 
     @PrimaryKey(autoGenerate = true) private long id;
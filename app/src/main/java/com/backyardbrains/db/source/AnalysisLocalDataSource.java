@@ -12,28 +12,42 @@ import com.backyardbrains.db.entity.Train;
 import com.backyardbrains.utils.AppExecutors;
 import com.backyardbrains.utils.ThresholdOrientation;
 import com.backyardbrains.vo.SpikeIndexValue;
-import com.backyardbrains.vo.SpikeIndexValueTime;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
 public class AnalysisLocalDataSource implements AnalysisDataSource {
 
+    private static final String TAG = makeLogTag(AnalysisLocalDataSource.class);
+
+    private static final SpikeIndexValue[] EMPTY_SPIKES = new SpikeIndexValue[0];
+
     private static AnalysisLocalDataSource INSTANCE;
 
     @SuppressWarnings("WeakerAccess") SpikeAnalysisDao spikeAnalysisDao;
     @SuppressWarnings("WeakerAccess") SpikeDao spikeDao;
     @SuppressWarnings("WeakerAccess") TrainDao trainDao;
+    @SuppressWarnings("WeakerAccess") SpikeStore spikeStore;
     @SuppressWarnings("WeakerAccess") AppExecutors appExecutors;
 
+    // Paths of the files which analyses are being saved mapped to the saves that marked them. Analysis is inserted
+    // before its spikes are in the spike store so it shouldn't be migrated or deleted while it's still being saved
+    @SuppressWarnings("WeakerAccess") final ConcurrentMap<String, Object> savingFilePaths = new ConcurrentHashMap<>();
+
     // Private constructor through which we create singleton instance
     private AnalysisLocalDataSource(@NonNull SpikeAnalysisDao spikeAnalysisDao, @NonNull SpikeDao spikeDao,
-        @NonNull TrainDao trainDao, @NonNull AppExecutors appExecutors) {
+        @NonNull TrainDao trainDao, @NonNull SpikeStore spikeStore, @NonNull AppExecutors appExecutors) {
         this.spikeAnalysisDao = spikeAnalysisDao;
         this.spikeDao = spikeDao;
         this.trainDao = trainDao;
+        this.spikeStore = spikeStore;
         this.appExecutors = appExecutors;
     }
 
@@ -41,11 +55,12 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
      * Returns singleton instance of {@link AnalysisLocalDataSource} with default configuration.
      */
     public static AnalysisLocalDataSource get(@NonNull SpikeAnalysisDao spikeAnalysisDao, @NonNull SpikeDao spikeDao,
-        @NonNull TrainDao trainDao, @NonNull AppExecutors appExecutors) {
+        @NonNull TrainDao trainDao, @NonNull SpikeStore spikeStore, @NonNull AppExecutors appExecutors) {
         if (INSTANCE == null) {
             synchronized (AnalysisLocalDataSource.class) {
                 if (INSTANCE == null) {
-                    INSTANCE = new AnalysisLocalDataSource(spikeAnalysisDao, spikeDao, trainDao, appExecutors);
+                    INSTANCE =
+                        new AnalysisLocalDataSource(spikeAnalysisDao, spikeDao, trainDao, spikeStore, appExecutors);
                 }
             }
         }
@@ -67,7 +82,7 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
         @Nullable final SpikeAnalysisCheckCallback callback) {
         final Runnable runnable = () -> {
             final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
-            if (analysis != null) {
+            if (analysis != null && ensureSpikeStore(analysis)) {
                 final int trainCount;
                 if (countNonEmptyTrains) {
                     trainCount = trainDao.loadTrainCount(analysis.getId());
@@ -96,16 +111,24 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
     @Override public void saveSpikeAnalysis(@NonNull final String filePath, @NonNull final Spike[] spikesAnalysis) {
         final Runnable runnable = () -> {
             if (spikesAnalysis.length > 0) {
-                // save spike analysis
-                final SpikeAnalysis analysis = new SpikeAnalysis(filePath);
-                final long analysisId = spikeAnalysisDao.insertSpikeAnalysis(analysis);
-
-                if (analysisId > 0) {
-                    // save spikes
-                    for (Spike spike : spikesAnalysis) {
-                        spike.setAnalysisId(analysisId);
+                final Object mark = new Object();
+                savingFilePaths.put(filePath, mark);
+                try {
+                    // save spike analysis
+                    final SpikeAnalysis analysis = new SpikeAnalysis(filePath);
+                    final long analysisId = spikeAnalysisDao.insertSpikeAnalysis(analysis);
+
+                    if (analysisId > 0) {
+                        // save spikes
+                        try {
+                            saveSpikes(analysisId, spikesAnalysis);
+                        } catch (IOException e) {
+                            LOGE(TAG, "Failed to save spikes", e);
+                            spikeAnalysisDao.deleteSpikeAnalysisById(analysisId);
+                        }
                     }
-                    spikeDao.insertSpikes(spikesAnalysis);
+                } finally {
+                    savingFilePaths.remove(filePath, mark);
                 }
             }
         };
@@ -113,6 +136,58 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
         appExecutors.diskIO().execute(runnable);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @param filePath Path to the file for which analysis is being saved.
+     */
+    @NonNull @Override public SpikeAnalysisWriter createSpikeAnalysisWriter(@NonNull final String filePath) {
+        return new SpikeAnalysisWriter() {
+            // Id of the analysis to which spikes are saved, saved together with the first batch of spikes
+            private long analysisId;
+            // Writer that saves spikes to spike store
+            private SpikeStore.Writer storeWriter;
+
+            @Override public void saveSpikes(@NonNull int[] channels, @NonNull short[] values, @NonNull int[] indices,
+                @NonNull float[] times, int count) throws IOException {
+                if (count <= 0) return;
+
+                if (analysisId <= 0) {
+                    // save spike analysis, it's marked as being saved until writer is finished or aborted
+                    savingFilePaths.put(filePath, this);
+                    analysisId = spikeAnalysisDao.insertSpikeAnalysis(new SpikeAnalysis(filePath));
+                    if (analysisId <= 0) return;
+
+                    storeWriter = spikeStore.createWriter(analysisId);
+                }
+
+                // save spikes
+                storeWriter.append(channels, values, indices, times, count);
+            }
+
+            @Override public void finish() throws IOException {
+                try {
+                    if (storeWriter != null) storeWriter.commit();
+                } finally {
+                    storeWriter = null;
+                    savingFilePaths.remove(filePath, this);
+                }
+            }
+
+            @Override public void abort() {
+                if (storeWriter != null) storeWriter.abort();
+                storeWriter = null;
+                // only the analysis this writer inserted is deleted, file could already be analysed again
+                if (analysisId > 0) {
+                    spikeStore.delete(analysisId);
+                    spikeAnalysisDao.deleteSpikeAnalysisById(analysisId);
+                }
+                analysisId = 0;
+                savingFilePaths.remove(filePath, this);
+            }
+        };
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -134,7 +209,11 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
      * @param filePath Path to the file for which analysis, all trains and spikes should be deleted.
      */
     @Override public void deleteSpikeAnalysis(String filePath) {
-        final Runnable runnable = () -> spikeAnalysisDao.deleteSpikeAnalysis(filePath);
+        final Runnable runnable = () -> {
+            final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
+            if (analysis != null) spikeStore.delete(analysis.getId());
+            spikeAnalysisDao.deleteSpikeAnalysis(filePath);
+        };
 
         appExecutors.diskIO().execute(runnable);
     }
@@ -160,7 +239,8 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
      */
     @Override public SpikeIndexValue[] getSpikeAnalysisForIndexRange(long analysisId, int channel, int startIndex,
         int endIndex) {
-        return spikeDao.loadSpikesForIndexRange(analysisId, channel, startIndex, endIndex);
+        final SpikeStore.Channel spikes = spikeStore.getChannel(analysisId, channel);
+        return spikes != null ? spikes.slice(startIndex, endIndex) : EMPTY_SPIKES;
     }
 
     /**
@@ -174,7 +254,36 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
      */
     @Override public SpikeIndexValue[] getSpikeAnalysisByTrainForIndexRange(long trainId, int channel, int startIndex,
         int endIndex) {
-        return spikeDao.loadSpikesByTrainForIndexRange(trainId, channel, startIndex, endIndex);
+        SpikeStore.TrainSpikes spikes = spikeStore.getCachedTrain(trainId);
+        if (spikes == null) {
+            final Train train = trainDao.loadTrain(trainId);
+            if (train == null || train.getSpikeCount() == 0) return EMPTY_SPIKES;
+
+            spikes = getTrainSpikes(train);
+        }
+        return spikes != null ? spikes.slice(startIndex, endIndex) : EMPTY_SPIKES;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param analysisId Id of the spike analysis returned spikes belong to.
+     * @param channel Channel for which spikes should be returned.
+     * @return Spikes of the specified channel, or {@code null} if they are not saved.
+     */
+    @Nullable @Override public SpikeStore.Channel getSpikeAnalysisChannel(long analysisId, int channel) {
+        return spikeStore.getChannel(analysisId, channel);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param analysisId Id of the spike analysis cached data is derived from.
+     * @param name Name of the file.
+     * @return File within the spike store directory of the analysis.
+     */
+    @NonNull @Override public File getSpikeAnalysisCacheFile(long analysisId, @NonNull String name) {
+        return spikeStore.getAnalysisFile(analysisId, name);
     }
 
     /**
@@ -187,13 +296,14 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
         @Nullable final GetAnalysisCallback<float[][]> callback) {
         final Runnable runnable = () -> {
             final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
-            if (analysis != null) {
+            if (analysis != null && ensureSpikeStore(analysis)) {
                 final Train[] trains = trainDao.loadTrains(analysis.getId());
                 final int trainCount = trains.length;
                 if (trainCount > 0) {
                     final float[][] spikeAnalysisTrains = new float[trainCount][];
                     for (int i = 0; i < trainCount; i++) {
-                        spikeAnalysisTrains[i] = spikeDao.loadSpikeTimes(trains[i].getId());
+                        final SpikeStore.TrainSpikes spikes = getTrainSpikes(trains[i]);
+                        spikeAnalysisTrains[i] = spikes != null ? spikes.getTimes() : new float[0];
                     }
                     appExecutors.mainThread().execute(() -> {
                         if (callback != null) {
@@ -225,13 +335,14 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
         @Nullable final GetAnalysisCallback<int[][]> callback) {
         final Runnable runnable = () -> {
             final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
-            if (analysis != null) {
+            if (analysis != null && ensureSpikeStore(analysis)) {
                 final Train[] trains = trainDao.loadTrains(analysis.getId());
                 final int trainCount = trains.length;
                 if (trainCount > 0) {
                     final int[][] spikeAnalysisTrains = new int[trainCount][];
                     for (int i = 0; i < trainCount; i++) {
-                        spikeAnalysisTrains[i] = spikeDao.loadSpikeIndices(trains[i].getId());
+                        final SpikeStore.TrainSpikes spikes = getTrainSpikes(trains[i]);
+                        spikeAnalysisTrains[i] = spikes != null ? spikes.getIndices() : new int[0];
                     }
                     appExecutors.mainThread().execute(() -> {
                         if (callback != null) {
@@ -267,7 +378,8 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
         @Nullable final GetAnalysisCallback<Train[]> callback) {
         final Runnable runnable = () -> {
             final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
-            if (analysis != null) {
+            // spikes need to be in the spike store because histograms of the trains are calculated from there
+            if (analysis != null && ensureSpikeStore(analysis)) {
                 final Train[] trains = trainDao.loadTrains(analysis.getId());
                 if (trains.length > 0) {
                     appExecutors.mainThread().execute(() -> {
@@ -357,9 +469,11 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
      * @param order Order of the spike train that needs to be updated.
      * @param orientation {@link ThresholdOrientation} of the threshold that was updated.
      * @param value New threshold value.
+     * @param callback Callback that's invoked when spike train is saved to database.
      */
     @Override public void saveSpikeAnalysisTrain(@NonNull final String filePath, int channel, final int order,
-        @ThresholdOrientation final int orientation, final int value) {
+        @ThresholdOrientation final int orientation, final int value,
+        @Nullable final SaveSpikeAnalysisTrainCallback callback) {
         final Runnable runnable = () -> {
             final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
             if (analysis != null) {
@@ -373,32 +487,18 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
                         : train.isLowerLeft() ? train.getUpperThreshold() : train.getLowerThreshold();
                     final int lower = Math.min(left, right);
                     final int upper = Math.max(left, right);
-                    final long trainId = train.getId();
-
-                    // remove old train and all linked spike trains (cascade delete)
-                    trainDao.deleteTrain(train);
-
-                    // remove all linked spikes
-                    spikeDao.deleteSpikes(trainId);
-
-                    // save newly configured train
-                    trainDao.insertTrain(new Train(analysisId, channel, order, 0, lower, upper, left < right));
-
-                    // save new entries to spike_trains table linked to this train
-                    final SpikeIndexValueTime[] spikes =
-                        spikeDao.loadSpikesForValueRange(analysisId, channel, lower, upper);
-                    final Train savedTrain = trainDao.loadTrain(analysisId, channel, order);
-                    final List<Spike> newSpikes = new ArrayList<>();
-                    for (SpikeIndexValueTime spike : spikes) {
-                        newSpikes.add(
-                            new Spike(savedTrain.getAnalysisId(), savedTrain.getId(), channel, spike.getValue(),
-                                spike.getIndex(), spike.getTime()));
-                    }
-                    final int len = newSpikes.size();
-                    if (len > 0) {
-                        spikeDao.insertSpikes(newSpikes);
-                        trainDao.updateTrainSpikeCount(savedTrain.getId(), len);
-                    }
+                    // update train and calculate its spikes
+                    train.setLowerThreshold(lower);
+                    train.setUpperThreshold(upper);
+                    train.setLowerLeft(left < right);
+                    spikeStore.invalidateTrain(train.getId());
+                    final SpikeStore.TrainSpikes spikes = getTrainSpikes(train);
+                    train.setSpikeCount(spikes != null ? spikes.size() : 0);
+                    trainDao.updateTrain(train);
+
+                    appExecutors.mainThread().execute(() -> {
+                        if (callback != null) callback.onSpikeAnalysisTrainSaved();
+                    });
                 }
             }
         };
@@ -423,13 +523,9 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
                 /*final Train train = trainDao.loadTrain(analysisId, , order); */
                 if (trains != null && trains.length > 0) {
                     for (Train train : trains) {
-                        final long trainId = train.getId();
-
-                        // remove train
+                        // remove train and its cached spikes
                         trainDao.deleteTrain(train);
-
-                        // remove all linked spikes
-                        spikeDao.deleteSpikes(trainId);
+                        spikeStore.invalidateTrain(train.getId());
                     }
 
                     // update order of all trains after deleted one
@@ -447,4 +543,63 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
 
         appExecutors.diskIO().execute(runnable);
     }
+
+    //=================================================
+    //  SPIKE STORE
+    //=================================================
+
+    // Returns spikes of the specified train, or null if spikes of the train analysis are not available
+    @Nullable private SpikeStore.TrainSpikes getTrainSpikes(@NonNull Train train) {
+        return spikeStore.getTrain(train.getId(), train.getAnalysisId(), train.getChannel(), train.getLowerThreshold(),
+            train.getUpperThreshold());
+    }
+
+    // Saves specified spikes of the analysis with specified id to spike store
+    private void saveSpikes(long analysisId, @NonNull Spike[] spikes) throws IOException {
+        final int count = spikes.length;
+        final int[] channels = new int[count];
+        final short[] values = new short[count];
+        final int[] indices = new int[count];
+        final float[] times = new float[count];
+        for (int i = 0; i < count; i++) {
+            channels[i] = spikes[i].getChannel();
+            values[i] = (short) spikes[i].getValue();
+            indices[i] = spikes[i].getIndex();
+            times[i] = spikes[i].getTime();
+        }
+
+        final SpikeStore.Writer writer = spikeStore.createWriter(analysisId);
+        try {
+            writer.append(channels, values, indices, times, count);
+            writer.commit();
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        }
+    }
+
+    // Makes sure spikes of the specified analysis are in the spike store by moving spikes saved to database by older
+    // versions of the app to the store. Returns false if analysis has no spikes, in which case analysis is deleted, or
+    // if analysis is still being saved, in which case it's left as is.
+    @SuppressWarnings("WeakerAccess") boolean ensureSpikeStore(@NonNull SpikeAnalysis analysis) {
+        final long analysisId = analysis.getId();
+        if (spikeStore.exists(analysisId)) return true;
+        if (savingFilePaths.containsKey(analysis.getFilePath())) return false;
+
+        final Spike[] spikes = spikeDao.loadSpikes(analysisId);
+        if (spikes.length == 0) {
+            spikeAnalysisDao.deleteSpikeAnalysis(analysis.getFilePath());
+            return false;
+        }
+
+        try {
+            saveSpikes(analysisId, spikes);
+        } catch (IOException e) {
+            LOGE(TAG, "Failed to move spikes to spike store", e);
+            return false;
+        }
+        spikeDao.deleteSpikes(analysisId);
+
+        return true;
+    }
 }
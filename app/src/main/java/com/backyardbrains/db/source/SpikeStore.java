@@ -0,0 +1,571 @@
+package com.backyardbrains.db.source;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.vo.SpikeIndexValue;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Columnar store of the spikes found by the spike analysis. Spikes of every analysis channel are kept in a separate
+ * file, sorted by sample index, as three columns: sample indices, values and times. Files are memory-mapped when read
+ * so index range queries are a binary search followed by a slice of the columns.
+ * <p/>
+ * Spikes of a spike train are the spikes of the train channel with values between train thresholds, so trains are
+ * kept as bitmaps over the channel spikes which are calculated when needed and cached until thresholds change.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeStore {
+
+    private static final int MAGIC = 0x42594253; // "BYBS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    // Size of a single spike record within the temporary run files (index, value and time)
+    private static final int RECORD_SIZE = 10;
+    private static final String CHANNEL_FILE_PREFIX = "channel_";
+    private static final String CHANNEL_FILE_EXTENSION = ".spk";
+    private static final String TEMP_DIR_EXTENSION = ".tmp";
+
+    private final File dir;
+    // Opened channels by analysis id
+    private final Map<Long, Channel[]> channels = new ConcurrentHashMap<>();
+    // Cached train bitmaps by train id
+    private final Map<Long, TrainSpikes> trains = new ConcurrentHashMap<>();
+
+    public SpikeStore(@NonNull File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns whether spikes of the analysis with specified {@code analysisId} are saved.
+     */
+    public boolean exists(long analysisId) {
+        return getAnalysisDir(analysisId).isDirectory();
+    }
+
+    /**
+     * Creates writer that saves spikes of the analysis with specified {@code analysisId}. Spikes become visible only
+     * once writer is committed.
+     */
+    @NonNull public Writer createWriter(long analysisId) throws IOException {
+        return new Writer(analysisId);
+    }
+
+    /**
+     * Deletes all the spikes of the analysis with specified {@code analysisId}.
+     */
+    public void delete(long analysisId) {
+        channels.remove(analysisId);
+        invalidateTrains(analysisId);
+        deleteDir(getAnalysisDir(analysisId));
+        deleteDir(getTempDir(analysisId));
+    }
+
+    /**
+     * Returns spikes of the specified {@code channel} of the analysis with specified {@code analysisId}, or {@code
+     * null} if they are not saved.
+     */
+    @Nullable public Channel getChannel(long analysisId, int channel) {
+        Channel[] analysisChannels = channels.get(analysisId);
+        if (analysisChannels == null) {
+            try {
+                analysisChannels = open(analysisId);
+            } catch (IOException ignored) {
+                return null;
+            }
+            if (analysisChannels == null) return null;
+
+            channels.put(analysisId, analysisChannels);
+        }
+        return channel >= 0 && channel < analysisChannels.length ? analysisChannels[channel] : null;
+    }
+
+    /**
+     * Returns spikes of the specified {@code channel} of the analysis with specified {@code analysisId} that have
+     * values between {@code lowerThreshold} and {@code upperThreshold} (inclusive), or {@code null} if channel spikes
+     * are not saved. Result is cached under specified {@code trainId} until thresholds change or train is invalidated.
+     */
+    @Nullable public TrainSpikes getTrain(long trainId, long analysisId, int channel, int lowerThreshold,
+        int upperThreshold) {
+        final TrainSpikes train = trains.get(trainId);
+        if (train != null && train.analysisId == analysisId && train.lowerThreshold == lowerThreshold
+            && train.upperThreshold == upperThreshold) {
+            return train;
+        }
+
+        final Channel spikes = getChannel(analysisId, channel);
+        if (spikes == null) return null;
+
+        final TrainSpikes newTrain = new TrainSpikes(analysisId, spikes, lowerThreshold, upperThreshold);
+        trains.put(trainId, newTrain);
+        return newTrain;
+    }
+
+    /**
+     * Returns bitmap of the train with specified {@code trainId} if it's cached, {@code null} otherwise.
+     */
+    @Nullable public TrainSpikes getCachedTrain(long trainId) {
+        return trains.get(trainId);
+    }
+
+    /**
+     * Removes cached bitmap of the train with specified {@code trainId}.
+     */
+    public void invalidateTrain(long trainId) {
+        trains.remove(trainId);
+    }
+
+    /**
+     * Returns file with specified {@code name} within the directory that holds spikes of the analysis with specified
+     * {@code analysisId}. Data derived from the spikes can be kept there so it's deleted together with the spikes.
+     */
+    @NonNull public File getAnalysisFile(long analysisId, @NonNull String name) {
+        return new File(getAnalysisDir(analysisId), name);
+    }
+
+    // Removes cached bitmaps of all the trains of the analysis with specified analysis id
+    private void invalidateTrains(long analysisId) {
+        for (Map.Entry<Long, TrainSpikes> entry : trains.entrySet()) {
+            if (entry.getValue().analysisId == analysisId) trains.remove(entry.getKey());
+        }
+    }
+
+    // Maps all the channel files of the analysis with specified id, returns null if there are none
+    @Nullable private Channel[] open(long analysisId) throws IOException {
+        final File analysisDir = getAnalysisDir(analysisId);
+        if (!analysisDir.isDirectory()) return null;
+
+        final List<Channel> result = new ArrayList<>();
+        File file;
+        while ((file = getChannelFile(analysisDir, result.size())).exists()) {
+            result.add(Channel.map(file));
+        }
+        return result.toArray(new Channel[0]);
+    }
+
+    private File getAnalysisDir(long analysisId) {
+        return new File(dir, String.valueOf(analysisId));
+    }
+
+    private File getTempDir(long analysisId) {
+        return new File(dir, analysisId + TEMP_DIR_EXTENSION);
+    }
+
+    private static File getChannelFile(File analysisDir, int channel) {
+        return new File(analysisDir, CHANNEL_FILE_PREFIX + channel + CHANNEL_FILE_EXTENSION);
+    }
+
+    // Offset of the values column within channel file holding specified number of spikes
+    private static int valuesOffset(int count) {
+        return HEADER_SIZE + count * 4;
+    }
+
+    // Offset of the times column within channel file holding specified number of spikes (aligned to 4 bytes)
+    private static int timesOffset(int count) {
+        return valuesOffset(count) + ((count * 2 + 3) & ~3);
+    }
+
+    private static void deleteDir(File dir) {
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    /**
+     * Memory-mapped spikes of a single analysis channel sorted by sample index.
+     */
+    public static final class Channel {
+
+        private final IntBuffer indices;
+        private final ShortBuffer values;
+        private final FloatBuffer times;
+        private final int size;
+
+        private Channel(@NonNull ByteBuffer buffer) {
+            size = buffer.getInt(8);
+            indices = slice(buffer, HEADER_SIZE).asIntBuffer();
+            values = slice(buffer, valuesOffset(size)).asShortBuffer();
+            times = slice(buffer, timesOffset(size)).asFloatBuffer();
+        }
+
+        static Channel map(@NonNull File file) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel fc = raf.getChannel()) {
+                final MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                    throw new IOException("Unsupported spike file " + file.getName());
+                }
+                return new Channel(buffer);
+            }
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, int offset) {
+            final ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(offset);
+            return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Returns number of spikes.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns sample index of the spike at specified {@code position}.
+         */
+        public int getIndex(int position) {
+            return indices.get(position);
+        }
+
+        /**
+         * Returns value of the spike at specified {@code position}.
+         */
+        public short getValue(int position) {
+            return values.get(position);
+        }
+
+        /**
+         * Returns time of the spike at specified {@code position}.
+         */
+        public float getTime(int position) {
+            return times.get(position);
+        }
+
+        /**
+         * Returns position of the first spike with sample index greater than or equal to specified {@code index}.
+         */
+        public int lowerBound(int index) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (indices.get(mid) < index) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Returns values and indices of the spikes with sample indices between {@code startIndex} and {@code
+         * endIndex} (inclusive).
+         */
+        @NonNull public SpikeIndexValue[] slice(int startIndex, int endIndex) {
+            final int from = lowerBound(startIndex);
+            final int to = endIndex == Integer.MAX_VALUE ? size : lowerBound(endIndex + 1);
+            final SpikeIndexValue[] result = new SpikeIndexValue[Math.max(0, to - from)];
+            for (int i = from; i < to; i++) {
+                result[i - from] = new SpikeIndexValue(values.get(i), indices.get(i));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Spikes of a single spike train kept as a bitmap over the spikes of the train channel.
+     */
+    public static final class TrainSpikes {
+
+        final long analysisId;
+        final int lowerThreshold;
+        final int upperThreshold;
+        private final Channel channel;
+        private final BitSet bits;
+        private final int count;
+
+        TrainSpikes(long analysisId, @NonNull Channel channel, int lowerThreshold, int upperThreshold) {
+            this.analysisId = analysisId;
+            this.channel = channel;
+            this.lowerThreshold = lowerThreshold;
+            this.upperThreshold = upperThreshold;
+
+            final int size = channel.size();
+            bits = new BitSet(size);
+            for (int i = 0; i < size; i++) {
+                final short value = channel.getValue(i);
+                if (value >= lowerThreshold && value <= upperThreshold) bits.set(i);
+            }
+            count = bits.cardinality();
+        }
+
+        /**
+         * Returns number of spikes in the train.
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Returns sample indices of all the spikes in the train sorted ascending.
+         */
+        @NonNull public int[] getIndices() {
+            final int[] result = new int[count];
+            int j = 0;
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) result[j++] = channel.getIndex(i);
+            return result;
+        }
+
+        /**
+         * Returns times of all the spikes in the train sorted ascending.
+         */
+        @NonNull public float[] getTimes() {
+            final float[] result = new float[count];
+            int j = 0;
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) result[j++] = channel.getTime(i);
+            return result;
+        }
+
+        /**
+         * Returns values and indices of the train spikes with sample indices between {@code startIndex} and {@code
+         * endIndex} (inclusive).
+         */
+        @NonNull public SpikeIndexValue[] slice(int startIndex, int endIndex) {
+            final int from = channel.lowerBound(startIndex);
+            final int to = endIndex == Integer.MAX_VALUE ? channel.size() : channel.lowerBound(endIndex + 1);
+            final int length = from < to ? bits.get(from, to).cardinality() : 0;
+            final SpikeIndexValue[] result = new SpikeIndexValue[length];
+            int j = 0;
+            for (int i = bits.nextSetBit(from); i >= 0 && i < to; i = bits.nextSetBit(i + 1)) {
+                result[j++] = new SpikeIndexValue(channel.getValue(i), channel.getIndex(i));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Saves spikes of a single analysis. Spikes can be passed in any order. They are appended to temporary run files,
+     * one per channel and spike polarity, and a new run is started whenever the index of the spike is lower than the
+     * index of the previous one. Spikes found by the analysis come ordered by channel and polarity so there's usually
+     * only a few runs, and on commit runs are merged into the channel files. Memory used doesn't depend on the number
+     * of spikes.
+     */
+    public final class Writer {
+
+        private final long analysisId;
+        private final File tempDir;
+        private final List<RunFile> runFiles = new ArrayList<>();
+
+        Writer(long analysisId) throws IOException {
+            this.analysisId = analysisId;
+            tempDir = getTempDir(analysisId);
+            deleteDir(tempDir);
+            if (!tempDir.mkdirs()) throw new IOException("Unable to create " + tempDir);
+        }
+
+        /**
+         * Appends first {@code count} spikes from the passed arrays.
+         */
+        public void append(@NonNull int[] channels, @NonNull short[] values, @NonNull int[] indices,
+            @NonNull float[] times, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                getRunFile(channels[i], values[i] >= 0).append(values[i], indices[i], times[i]);
+            }
+        }
+
+        /**
+         * Merges all appended spikes into channel files and makes them visible.
+         */
+        public void commit() throws IOException {
+            int channelCount = 0;
+            for (RunFile runFile : runFiles) {
+                if (runFile != null) {
+                    runFile.close();
+                    channelCount = Math.max(channelCount, runFile.channel + 1);
+                }
+            }
+            for (int channel = 0; channel < channelCount; channel++) {
+                merge(channel);
+            }
+            for (RunFile runFile : runFiles) {
+                //noinspection ResultOfMethodCallIgnored
+                if (runFile != null) runFile.file.delete();
+            }
+
+            // publish the analysis
+            channels.remove(analysisId);
+            invalidateTrains(analysisId);
+            deleteDir(getAnalysisDir(analysisId));
+            if (!tempDir.renameTo(getAnalysisDir(analysisId))) {
+                throw new IOException("Unable to publish spikes of analysis " + analysisId);
+            }
+        }
+
+        /**
+         * Discards all appended spikes.
+         */
+        public void abort() {
+            for (RunFile runFile : runFiles) {
+                if (runFile == null) continue;
+                try {
+                    runFile.close();
+                } catch (IOException ignored) {
+                }
+            }
+            deleteDir(tempDir);
+        }
+
+        private RunFile getRunFile(int channel, boolean positive) throws IOException {
+            final int key = channel * 2 + (positive ? 0 : 1);
+            while (runFiles.size() <= key) runFiles.add(null);
+            RunFile runFile = runFiles.get(key);
+            if (runFile == null) {
+                runFile = new RunFile(new File(tempDir, "run_" + key), channel);
+                runFiles.set(key, runFile);
+            }
+            return runFile;
+        }
+
+        // Merges runs of both polarities of the specified channel into the channel file
+        private void merge(int channel) throws IOException {
+            final List<Run> runs = new ArrayList<>();
+            final List<RandomAccessFile> files = new ArrayList<>();
+            int count = 0;
+            try {
+                for (int i = channel * 2; i < Math.min(channel * 2 + 2, runFiles.size()); i++) {
+                    final RunFile runFile = runFiles.get(i);
+                    if (runFile == null || runFile.count == 0) continue;
+
+                    final RandomAccessFile raf = new RandomAccessFile(runFile.file, "r");
+                    files.add(raf);
+                    final MappedByteBuffer buffer =
+                        raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                    for (int r = 0; r < runFile.runStarts.size(); r++) {
+                        final int start = runFile.runStarts.get(r);
+                        final int end = r + 1 < runFile.runStarts.size() ? runFile.runStarts.get(r + 1) : runFile.count;
+                        runs.add(new Run(buffer, start, end, runs.size()));
+                    }
+                    count += runFile.count;
+                }
+
+                final File file = getChannelFile(tempDir, channel);
+                try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                    final int length = timesOffset(count) + count * 4;
+                    out.setLength(length);
+                    final MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+                    buffer.order(ByteOrder.LITTLE_ENDIAN);
+                    buffer.putInt(0, MAGIC);
+                    buffer.putInt(4, VERSION);
+                    buffer.putInt(8, count);
+
+                    // k-way merge of the sorted runs
+                    final PriorityQueue<Run> queue = new PriorityQueue<>(Math.max(1, runs.size()));
+                    for (Run run : runs) if (run.hasNext()) queue.add(run);
+                    final int valuesOffset = valuesOffset(count);
+                    final int timesOffset = timesOffset(count);
+                    int i = 0;
+                    while (!queue.isEmpty()) {
+                        final Run run = queue.poll();
+                        buffer.putInt(HEADER_SIZE + i * 4, run.index());
+                        buffer.putShort(valuesOffset + i * 2, run.value());
+                        buffer.putFloat(timesOffset + i * 4, run.time());
+                        i++;
+                        run.next();
+                        if (run.hasNext()) queue.add(run);
+                    }
+                    buffer.force();
+                }
+            } finally {
+                for (RandomAccessFile raf : files) raf.close();
+            }
+        }
+    }
+
+    // Temporary file holding one or more sorted runs of spikes of a single channel and polarity
+    private static final class RunFile {
+
+        final File file;
+        final int channel;
+        final List<Integer> runStarts = new ArrayList<>();
+        private final DataOutputStream out;
+        int count;
+        private int lastIndex = Integer.MIN_VALUE;
+
+        RunFile(@NonNull File file, int channel) throws IOException {
+            this.file = file;
+            this.channel = channel;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        }
+
+        void append(short value, int index, float time) throws IOException {
+            if (index < lastIndex || count == 0) runStarts.add(count);
+            lastIndex = index;
+            out.writeInt(index);
+            out.writeShort(value);
+            out.writeFloat(time);
+            count++;
+        }
+
+        void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // Cursor over a single sorted run of spikes within a mapped run file
+    private static final class Run implements Comparable<Run> {
+
+        private final ByteBuffer buffer;
+        private final int end;
+        private final int order;
+        private int position;
+
+        Run(@NonNull ByteBuffer buffer, int start, int end, int order) {
+            this.buffer = buffer;
+            this.position = start;
+            this.end = end;
+            this.order = order;
+        }
+
+        boolean hasNext() {
+            return position < end;
+        }
+
+        void next() {
+            position++;
+        }
+
+        int index() {
+            return buffer.getInt(position * RECORD_SIZE);
+        }
+
+        short value() {
+            return buffer.getShort(position * RECORD_SIZE + 4);
+        }
+
+        float time() {
+            return buffer.getFloat(position * RECORD_SIZE + 6);
+        }
+
+        @Override public int compareTo(@NonNull Run o) {
+            final int result = Integer.compare(index(), o.index());
+            return result != 0 ? result : Integer.compare(order, o.order);
+        }
+    }
+}
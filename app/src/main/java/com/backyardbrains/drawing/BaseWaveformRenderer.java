@@ -59,6 +59,8 @@ public abstract class BaseWaveformRenderer extends BaseRenderer
             SignalProcessor.DEFAULT_PROCESSED_AVERAGED_SAMPLES_PER_CHANNEL_COUNT);
     private FftDrawBuffer fftDrawBuffer =
         new FftDrawBuffer(SignalProcessor.FFT_WINDOW_COUNT, SignalProcessor.FFT_WINDOW_SIZE);
+    // Whether signal drawn with the next frame continues the signal drawn with the previous one
+    private boolean signalContinuous;
 
     private SignalDrawData signalDrawData;
     private EventsDrawData eventsDrawData = new EventsDrawData(EventUtils.MAX_EVENT_COUNT);
@@ -405,6 +407,15 @@ public abstract class BaseWaveformRenderer extends BaseRenderer
     public void resetAveragedSignal() {
         averagedSignalDrawBuffer = new MultichannelSignalDrawBuffer(signalConfiguration.getVisibleChannelCount(),
             (int) Math.floor((float) SignalProcessor.getProcessedAveragedSamplesPerChannelCount()));
+        signalContinuous = false;
+    }
+
+    /**
+     * Should be called by subclasses when signal passed to {@link #prepareSignalForDrawing} isn't enveloped, so that
+     * the envelope of the previously drawn signal is not reused with the next frame.
+     */
+    void discontinueSignal() {
+        signalContinuous = false;
     }
 
     //==============================================
@@ -465,6 +476,14 @@ public abstract class BaseWaveformRenderer extends BaseRenderer
         return glWindowWidth;
     }
 
+    /**
+     * Returns max width of the OpenGl drawing surface. By default it's the number of processed samples that can be
+     * drawn.
+     */
+    protected float getMaxGlWindowWidth() {
+        return SignalProcessor.getDrawnSamplesCount();
+    }
+
     // Sets width of the OpenGl drawing surface.
     private void setGlWindowWidth(float width) {
         if (width < 0) return;
@@ -472,7 +491,7 @@ public abstract class BaseWaveformRenderer extends BaseRenderer
         final float minGlWindowWidthInSeconds =
             signalConfiguration.isFftProcessing() ? MIN_GL_WINDOW_WIDTH_FFT_IN_SECONDS : MIN_GL_WINDOW_WIDTH_IN_SECONDS;
         final float minGlWindowWidth = (int) (signalConfiguration.getSampleRate() * minGlWindowWidthInSeconds);
-        final float maxGlWindowWidth = SignalProcessor.getDrawnSamplesCount();
+        final float maxGlWindowWidth = getMaxGlWindowWidth();
 
         if (width < minGlWindowWidth) width = minGlWindowWidth;
         if (width > maxGlWindowWidth) width = maxGlWindowWidth;
@@ -642,6 +661,11 @@ public abstract class BaseWaveformRenderer extends BaseRenderer
 
             signalDrawBuffer.copyReconfigured(visibleSignalDrawBuffer, signalConfiguration);
 
+            // spectrogram layout might have changed with the copied fft data
+            final int fftValueCount = fftDrawBuffer.getWindowCount() * fftDrawBuffer.getWindowSize();
+            if (fftDrawData.colors.length < fftValueCount * 4) fftDrawData = new FftDrawData(fftValueCount);
+            fftDrawData.maxFrequency = processingBuffer.getFftMaxFrequency();
+
             // select buffer for drawing
             MultichannelSignalDrawBuffer tmpSampleDrawBuffer =
                 signalAveraging ? averagedSignalDrawBuffer : visibleSignalDrawBuffer;
@@ -663,6 +687,9 @@ public abstract class BaseWaveformRenderer extends BaseRenderer
 
             final int frameCount = tmpSampleDrawBuffer.getFrameCount();
             final long lastSampleIndex = processingBuffer.getLastSampleIndex();
+            // envelope of the previous frame can be reused only if new samples were just appended to the same buffer
+            final int appendedFrameCount = signalContinuous ? processingBuffer.getCopiedFrameCount() : -1;
+            signalContinuous = true;
 
             // calculate necessary drawing parameters
             int drawStartIndex = (int) Math.max(frameCount - glWindowWidth, -glWindowWidth);
@@ -672,10 +699,12 @@ public abstract class BaseWaveformRenderer extends BaseRenderer
             // prepare signal data for drawing
             prepareSignalForDrawing(signalDrawData, eventsDrawData, tmpSampleDrawBuffer.getBuffer(), frameCount,
                 eventIndices, eventNames, copiedEventsCount, drawStartIndex, drawEndIndex, surfaceWidth,
-                lastSampleIndex);
-            // prepare FFT data for drawing
+                appendedFrameCount, lastSampleIndex);
+            // prepare FFT data for drawing, window can be wider than FFT data when subclasses draw more than processed
+            // signal, so it's limited to the max drawn window
             //if (fftProcessing) {
-            prepareFftForDrawing(fftDrawData, fftDrawBuffer.getBuffer(), drawStartIndex, drawEndIndex, glWindowWidthMax,
+            prepareFftForDrawing(fftDrawData, fftDrawBuffer.getBuffer(),
+                (int) Math.max(drawStartIndex, drawEndIndex - glWindowWidthMax), drawEndIndex, glWindowWidthMax,
                 surfaceWidth);
             //}
 
@@ -725,11 +754,14 @@ public abstract class BaseWaveformRenderer extends BaseRenderer
      * @param drawStartIndex Index of the first signal sample to take into account.
      * @param drawEndIndex Index of the last signal sample to take into account.
      * @param drawSurfaceWidth Width of the surface signal is being drawn to.
+     * @param appendedFrameCount Number of frames appended to the end of incoming signal data since the previous frame,
+     * or a negative number if incoming signal data doesn't continue the previously drawn signal.
      * @param lastFrameIndex Index of the last incoming signal frame that should be drawn (used only during playback)
      */
     abstract protected void prepareSignalForDrawing(SignalDrawData signalDrawData, EventsDrawData eventsDrawData,
         @NonNull short[][] inSamples, int inFrameCount, @NonNull int[] inEventIndices, @NonNull String[] eventNames,
-        int inEventCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth, long lastFrameIndex);
+        int inEventCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth, int appendedFrameCount,
+        long lastFrameIndex);
 
     /**
      * Prepares incoming signal FFT data for FFT drawing.
@@ -793,6 +825,7 @@ public abstract class BaseWaveformRenderer extends BaseRenderer
                 (int) Math.floor((float) SignalProcessor.getProcessedSamplesPerChannelCount()));
             averagedSignalDrawBuffer = new MultichannelSignalDrawBuffer(visibleChannelCount,
                 (int) Math.floor((float) SignalProcessor.getProcessedAveragedSamplesPerChannelCount()));
+            signalContinuous = false;
         }
     }
 
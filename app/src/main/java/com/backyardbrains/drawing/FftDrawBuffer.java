@@ -29,8 +29,8 @@ public class FftDrawBuffer {
 
     private static final String TAG = makeLogTag(FftDrawBuffer.class);
 
-    private final int windowCount;
-    private final int windowSize;
+    private int windowCount;
+    private int windowSize;
 
     private float[][] buffer;
 
@@ -71,6 +71,20 @@ public class FftDrawBuffer {
         return buffer;
     }
 
+    /**
+     * Resizes the buffer so it holds {@code windowCount} windows of {@code windowSize} values each. Buffer is cleared
+     * only if its size changes.
+     */
+    public void resize(int windowCount, int windowSize) {
+        if (this.windowCount == windowCount && this.windowSize == windowSize) return;
+
+        this.windowCount = windowCount;
+        this.windowSize = windowSize;
+
+        buffer = new float[windowCount][windowSize];
+        clear();
+    }
+
     /**
      * Adds new {@code incoming} samples to the buffer.
      */
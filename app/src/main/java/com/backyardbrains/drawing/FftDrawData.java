@@ -16,6 +16,9 @@ public class FftDrawData {
     public float scaleX;
     public float scaleY;
 
+    // Frequency shown at the top of the spectrogram
+    public float maxFrequency;
+
     public FftDrawData(int maxSegments) {
         vertices = new float[maxSegments * 2];
         indices = new short[maxSegments * 6];
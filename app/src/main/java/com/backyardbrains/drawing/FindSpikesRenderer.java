@@ -12,7 +12,7 @@ import com.backyardbrains.ui.BaseFragment;
 import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.ThresholdOrientation;
 import com.backyardbrains.utils.ViewUtils;
-import com.backyardbrains.vo.SpikeIndexValue;
+import com.backyardbrains.vo.SpikeRange;
 import com.backyardbrains.vo.Threshold;
 import com.google.firebase.crashlytics.FirebaseCrashlytics;
 import javax.microedition.khronos.opengles.GL10;
@@ -48,7 +48,7 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
     private long spikeAnalysisId = -1;
     private int selectedSpikeTrain;
     private int prevChannel, prevFromSample, prevToSample;
-    private SpikeIndexValue[] valuesAndIndices;
+    private final SpikeRange valuesAndIndices = new SpikeRange();
 
     public FindSpikesRenderer(@NonNull BaseFragment fragment, @NonNull String filePath) {
         super(filePath, fragment);
@@ -160,16 +160,17 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
             boolean shouldQuerySamples =
                 prevChannel != selectedChannel || prevFromSample != fromSample || prevToSample != toSample;
             //benchmark.start();
-            if (valuesAndIndices == null || valuesAndIndices.length == 0 || shouldQuerySamples) {
-                valuesAndIndices =
-                    getAnalysisManager().getSpikesForRange(spikeAnalysisId, selectedChannel, fromSample, toSample);
+            if (valuesAndIndices.count == 0 || shouldQuerySamples) {
+                getAnalysisManager().getSpikesForRange(spikeAnalysisId, selectedChannel, fromSample, toSample,
+                    valuesAndIndices);
             }
             //benchmark.end();
             final int min = Math.min(thresholds[ThresholdOrientation.LEFT], thresholds[ThresholdOrientation.RIGHT]);
             final int max = Math.max(thresholds[ThresholdOrientation.LEFT], thresholds[ThresholdOrientation.RIGHT]);
             try {
-                JniUtils.prepareForSpikesDrawing(spikesDrawData, valuesAndIndices, currentColor, whiteColor, min, max,
-                    fromSample, toSample, drawStartIndex, drawEndIndex, samplesToDraw, surfaceWidth);
+                JniUtils.prepareForSpikesDrawing(spikesDrawData, valuesAndIndices.values, valuesAndIndices.indices,
+                    valuesAndIndices.count, currentColor, whiteColor, min, max, fromSample, toSample, drawStartIndex,
+                    drawEndIndex, samplesToDraw, surfaceWidth);
             } catch (Exception e) {
                 LOGE(TAG, e.getMessage());
                 FirebaseCrashlytics.getInstance().recordException(e);
@@ -10,13 +10,17 @@ import com.backyardbrains.drawing.gl.GlLabel;
 import com.backyardbrains.drawing.gl.GlLabelWithCircle;
 import com.backyardbrains.drawing.gl.GlMeasurementArea;
 import com.backyardbrains.drawing.gl.GlSpikes;
+import com.backyardbrains.dsp.audio.EnvelopeIndex;
 import com.backyardbrains.ui.BaseFragment;
 import com.backyardbrains.utils.BYBUtils;
 import com.backyardbrains.utils.Formats;
 import com.backyardbrains.utils.JniUtils;
+import com.backyardbrains.utils.RecordingUtils;
 import com.backyardbrains.utils.ViewUtils;
-import com.backyardbrains.vo.SpikeIndexValue;
+import com.backyardbrains.vo.SpikeRange;
 import com.google.firebase.crashlytics.FirebaseCrashlytics;
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -65,6 +69,13 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
 
     private SpikesDrawData[] spikesDrawData;
 
+    // Envelope of the whole recording, null until it's loaded
+    @SuppressWarnings("WeakerAccess") volatile EnvelopeIndex envelopeIndex;
+    // Holds max and min samples of the envelope of a single channel
+    private short[] envelope = new short[0];
+    // Whether signal is drawn from the envelope because drawn window is wider than the processed signal
+    private boolean drawingEnvelope;
+
     private float rms;
     private int measureSampleCount;
     private final int[] spikeCounts = new int[] { -1, -1, -1 };
@@ -80,7 +91,7 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
     private boolean prevShouldDraw;
 
     @SuppressWarnings("WeakerAccess") Train[][] spikeTrains;
-    @SuppressWarnings("WeakerAccess") SpikeIndexValue[][][] valuesAndIndexes;
+    @SuppressWarnings("WeakerAccess") SpikeRange[][] valuesAndIndexes;
 
     public SeekableWaveformRenderer(@NonNull String filePath, @NonNull BaseFragment fragment) {
         super(fragment);
@@ -104,6 +115,17 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
         rmsTimeHeight = ViewUtils.dpToPx(context.getResources(), RMS_TIME_LABEL_HEIGHT_DP);
         rmsTimeBottomMargin = ViewUtils.dpToPx(context.getResources(), RMS_TIME_LABEL_BOTTOM_MARGIN_DPI);
 
+        // envelope is built on first open if recorder didn't build it, so we load it in background
+        final File file = new File(filePath);
+        new Thread(() -> {
+            try {
+                envelopeIndex = EnvelopeIndex.open(file, RecordingUtils.getEnvelopeFile(file));
+            } catch (IOException e) {
+                LOGE(TAG, "Error while loading envelope of " + filePath);
+                FirebaseCrashlytics.getInstance().recordException(e);
+            }
+        }).start();
+
         if (getAnalysisManager() != null) {
             getAnalysisManager().getSpikeTrains(filePath, new AnalysisDataSource.GetAnalysisCallback<Train[]>() {
                 @Override public void onAnalysisLoaded(@NonNull Train[] result) {
@@ -151,6 +173,51 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
         measurementEndX = width * measurementEndX / oldWidth;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Once the envelope of the recording is loaded the whole recording can be drawn.
+     */
+    @Override protected float getMaxGlWindowWidth() {
+        final float maxGlWindowWidth = super.getMaxGlWindowWidth();
+        final EnvelopeIndex envelopeIndex = this.envelopeIndex;
+        if (envelopeIndex == null || isSignalAveraging() || isFftProcessing()) return maxGlWindowWidth;
+
+        return Math.max(maxGlWindowWidth, envelopeIndex.getFrameCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Spikes, measurements and playback position are drawn for the current frame so drawn signal can't lag behind.
+     */
+    @Override protected boolean awaitSignalDrawData() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * When drawn window is wider than the processed signal, signal is drawn from the envelope of the recording.
+     */
+    @Override protected void prepareSignalForDrawing(@NonNull SignalDrawData signalDrawData,
+        @NonNull EventsDrawData eventsDrawData, @NonNull short[][] inSamples, int inFrameCount,
+        @NonNull int[] inEventIndices, @NonNull String[] inEventNames, int inEventCount, int drawStartIndex,
+        int drawEndIndex, int drawSurfaceWidth, int appendedFrameCount, long lastFrameIndex) {
+        final EnvelopeIndex envelopeIndex = this.envelopeIndex;
+        drawingEnvelope = envelopeIndex != null && drawEndIndex - drawStartIndex > inFrameCount && !isSignalAveraging()
+            && !isFftProcessing();
+        if (drawingEnvelope) {
+            prepareEnvelopeForDrawing(envelopeIndex, signalDrawData, eventsDrawData, inEventIndices, inEventNames,
+                inEventCount, drawStartIndex, drawEndIndex, drawSurfaceWidth, lastFrameIndex);
+            discontinueSignal();
+        } else {
+            super.prepareSignalForDrawing(signalDrawData, eventsDrawData, inSamples, inFrameCount, inEventIndices,
+                inEventNames, inEventCount, drawStartIndex, drawEndIndex, drawSurfaceWidth, appendedFrameCount,
+                lastFrameIndex);
+        }
+    }
+
     //private final Benchmark benchmark =
     //    new Benchmark("SPIKES_RETRIEVAL").warmUp(200).sessions(10).measuresPerSession(200).logBySession(false);
 
@@ -165,7 +232,8 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
         final int toSample = (int) lastFrameIndex;
         final int fromSample = (int) Math.max(0, toSample - glWindowWidth);
         final boolean shouldQuerySamples = prevFromSample != fromSample || prevToSample != toSample;
-        final boolean shouldDraw = !isSignalAveraging() && !isFftProcessing();
+        // spikes and measurements are only available for the processed signal
+        final boolean shouldDraw = !isSignalAveraging() && !isFftProcessing() && !drawingEnvelope;
         final int sampleRate = getSampleRate();
 
         if (prevShouldDraw && !shouldDraw) onMeasureEnd();
@@ -177,9 +245,8 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
                         for (int j = 0; j < spikeTrains[i].length; j++) {
                             //benchmark.start();
                             if (spikeTrains[i][j] != null && shouldQuerySamples) {
-                                valuesAndIndexes[i][j] =
-                                    getAnalysisManager().getSpikesByTrainForRange(spikeTrains[i][j].getId(),
-                                        spikeTrains[i][j].getChannel(), fromSample, toSample);
+                                getAnalysisManager().getSpikesByTrainForRange(spikeTrains[i][j].getId(),
+                                    spikeTrains[i][j].getChannel(), fromSample, toSample, valuesAndIndexes[i][j]);
                             }
                             //benchmark.end();
                         }
@@ -221,11 +288,10 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
                         for (int trainIndex = 0; trainIndex < valuesAndIndexes[selectedChannel].length; trainIndex++) {
                             if (valuesAndIndexes[selectedChannel][trainIndex] != null) {
                                 spikeCounts[trainIndex] = 0;
-                                for (int spikeIndex = 0;
-                                    spikeIndex < valuesAndIndexes[selectedChannel][trainIndex].length; spikeIndex++) {
-                                    if (startIndex <= valuesAndIndexes[selectedChannel][trainIndex][spikeIndex].index
-                                        && valuesAndIndexes[selectedChannel][trainIndex][spikeIndex].index
-                                        <= startIndex + measureSampleCount) {
+                                final SpikeRange spikes = valuesAndIndexes[selectedChannel][trainIndex];
+                                for (int spikeIndex = 0; spikeIndex < spikes.count; spikeIndex++) {
+                                    if (startIndex <= spikes.indices[spikeIndex]
+                                        && spikes.indices[spikeIndex] <= startIndex + measureSampleCount) {
                                         spikeCounts[trainIndex]++;
                                     }
                                 }
@@ -270,8 +336,9 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
                             if (valuesAndIndexes[i][j] != null) {
                                 color = Colors.SPIKE_TRAIN_COLORS[j];
                                 try {
-                                    JniUtils.prepareForSpikesDrawing(spikesDrawData[j], valuesAndIndexes[i][j], color,
-                                        color, Integer.MIN_VALUE, Integer.MAX_VALUE, fromSample, toSample,
+                                    JniUtils.prepareForSpikesDrawing(spikesDrawData[j], valuesAndIndexes[i][j].values,
+                                        valuesAndIndexes[i][j].indices, valuesAndIndexes[i][j].count, color, color,
+                                        Integer.MIN_VALUE, Integer.MAX_VALUE, fromSample, toSample,
                                         drawStartIndex, drawEndIndex, samplesToDraw, surfaceWidth);
                                 } catch (Exception e) {
                                     LOGE(TAG, e.getMessage());
@@ -390,6 +457,41 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
     //  PRIVATE METHODS
     //==============================================
 
+    // Envelopes every visible channel of the recording within the drawn window, the same way processed signal is
+    // enveloped, and positions the events of the processed signal within the window
+    private void prepareEnvelopeForDrawing(@NonNull EnvelopeIndex envelopeIndex, @NonNull SignalDrawData signalDrawData,
+        @NonNull EventsDrawData eventsDrawData, @NonNull int[] inEventIndices, @NonNull String[] inEventNames,
+        int inEventCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth, long lastFrameIndex) {
+        final int drawWidth = drawEndIndex - drawStartIndex;
+        // every bucket is enveloped with max and min sample
+        final int bucketCount = Math.max(1, drawSurfaceWidth / 2);
+        if (envelope.length < bucketCount * 2) envelope = new short[bucketCount * 2];
+
+        final float xStep = (float) drawSurfaceWidth / Math.max(1, bucketCount * 2 - 1);
+        final int channelCount = Math.min(getChannelCount(), envelopeIndex.getChannelCount());
+        int channel = 0;
+        for (int i = 0; i < channelCount && channel < signalDrawData.channelCount; i++) {
+            if (!isChannelVisible(i)) continue;
+
+            final int sampleCount =
+                envelopeIndex.envelope(i, lastFrameIndex - drawWidth, lastFrameIndex, bucketCount, envelope);
+            final float[] samples = signalDrawData.samples[channel];
+            for (int j = 0; j < sampleCount; j++) {
+                samples[j * 2] = xStep * j;
+                samples[j * 2 + 1] = envelope[j];
+            }
+            signalDrawData.sampleCounts[channel++] = sampleCount * 2;
+        }
+
+        int eventCount = 0;
+        for (int i = 0; i < inEventCount && eventCount < eventsDrawData.eventIndices.length; i++) {
+            eventsDrawData.eventIndices[eventCount] =
+                (inEventIndices[i] - drawStartIndex) * drawSurfaceWidth / (float) drawWidth;
+            eventsDrawData.eventNames[eventCount++] = inEventNames[i];
+        }
+        eventsDrawData.eventCount = eventCount;
+    }
+
     // Initializes arrays that will hold spike trains and spike data
     @SuppressWarnings("WeakerAccess") void init(Train[] trains) {
         int channelCount = -1;
@@ -412,8 +514,11 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
             spikeTrains[train.getChannel()][train.getOrder()] = train;
         }
 
-        // create arrays that holds spike data
-        valuesAndIndexes = new SpikeIndexValue[channelCount][trainCount][];
+        // create holders of spike data, one for each spike train
+        valuesAndIndexes = new SpikeRange[channelCount][trainCount];
+        for (Train train : trains) {
+            valuesAndIndexes[train.getChannel()][train.getOrder()] = new SpikeRange();
+        }
         // create
         spikesDrawData = new SpikesDrawData[trainCount];
         for (int i = 0; i < trainCount; i++) spikesDrawData[i] = new SpikesDrawData(GlSpikes.MAX_SPIKES);
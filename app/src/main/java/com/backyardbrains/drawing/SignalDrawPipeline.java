@@ -0,0 +1,361 @@
+package com.backyardbrains.drawing;
+
+import androidx.annotation.NonNull;
+import com.backyardbrains.utils.JniUtils;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.backyardbrains.utils.LogUtils.LOGE;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Prepares signal for drawing on a pool of threads, all the channels in parallel, so that GL thread only needs to
+ * upload and draw already prepared vertices.
+ * <p/>
+ * With every frame GL thread hands over the samples that should be drawn, together with events and drawing params. If
+ * previously handed over samples are still being prepared new ones are skipped and only the number of frames appended
+ * in the meantime is kept, so the next handed over samples are still known to continue the previous ones. Prepared
+ * frames are passed to GL thread the same way {@link com.backyardbrains.dsp.ProcessingBuffer} passes its snapshots:
+ * preparing threads publish the frame by swapping it with the previously published one, and GL thread picks up the
+ * newest published frame by swapping it with the one it copied last, so neither side ever waits for the other. GL
+ * thread can still wait for the samples it just handed over if it draws other data that needs to match them.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SignalDrawPipeline {
+
+    private static final String TAG = makeLogTag(SignalDrawPipeline.class);
+
+    // Default number of channels that are prepared at the same time
+    static final int DEFAULT_THREAD_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    // Time idle threads are kept alive
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    // Logs preparation errors by default
+    private static final OnErrorListener LOG_ERROR =
+        (part, e) -> LOGE(TAG, "Preparing " + part + " failed: " + e.getMessage());
+
+    /**
+     * Prepares channels and events of the signal for drawing. Channels are prepared on different threads, but the same
+     * channel is never prepared by two threads at the same time.
+     */
+    public interface Preparer {
+        /**
+         * Prepares samples of the specified {@code channel} for drawing and returns number of values written to
+         * {@code outSamples}. {@code appendedFrameCount} is number of frames appended to the end of {@code inSamples}
+         * since the channel was last prepared, or a negative number if {@code inSamples} doesn't continue previously
+         * prepared samples.
+         */
+        int prepareChannel(int channel, @NonNull float[] outSamples, @NonNull short[] inSamples, int inFrameCount,
+            int drawStartIndex, int drawEndIndex, int drawSurfaceWidth, int appendedFrameCount);
+
+        /**
+         * Prepares events of the signal for drawing and returns number of event positions written to
+         * {@code outEventIndices}.
+         */
+        int prepareEvents(@NonNull float[] outEventIndices, @NonNull int[] inEventIndices, int inEventCount,
+            int drawStartIndex, int drawEndIndex, int drawSurfaceWidth);
+    }
+
+    /**
+     * Receives errors thrown while signal is being prepared.
+     */
+    public interface OnErrorListener {
+        /**
+         * Invoked on the preparing thread when preparing specified {@code part} of the signal throws specified
+         * {@code e}. Frame the part belongs to is dropped and the next frame is prepared from scratch.
+         */
+        void onError(@NonNull String part, @NonNull Exception e);
+    }
+
+    /**
+     * Envelopes the signal in native code.
+     */
+    public static class NativePreparer implements Preparer {
+
+        @Override public int prepareChannel(int channel, @NonNull float[] outSamples, @NonNull short[] inSamples,
+            int inFrameCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth, int appendedFrameCount) {
+            return JniUtils.prepareForChannelDrawing(outSamples, inSamples, inFrameCount, channel, drawStartIndex,
+                drawEndIndex, drawSurfaceWidth, appendedFrameCount);
+        }
+
+        @Override public int prepareEvents(@NonNull float[] outEventIndices, @NonNull int[] inEventIndices,
+            int inEventCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth) {
+            return JniUtils.prepareForEventsDrawing(outEventIndices, inEventIndices, inEventCount, drawStartIndex,
+                drawEndIndex, drawSurfaceWidth);
+        }
+    }
+
+    private final Preparer preparer;
+    private final OnErrorListener errorListener;
+    private final ThreadPoolExecutor executor;
+    // Used to wait for the handed over samples to be prepared
+    private final Object monitor = new Object();
+
+    //
+    // Accessed by GL thread while nothing is being prepared and by preparing threads while job is being prepared
+    //
+
+    // Samples, events and params that are being prepared
+    private final Job job = new Job();
+    // Frame that's being prepared
+    private Frame back = new Frame();
+    // Sequence number of the last published frame
+    private long sequence;
+
+    // Whether handed over job is still being prepared
+    private final AtomicBoolean preparing = new AtomicBoolean();
+    // Number of channels and events of the job that are still being prepared
+    private final AtomicInteger remaining = new AtomicInteger();
+    // Whether preparation of any part of the last job failed
+    private volatile boolean failed;
+    // Frame that's last been published and that can be picked up by GL thread
+    private final AtomicReference<Frame> published = new AtomicReference<>(new Frame());
+
+    //
+    // Accessed only by GL thread
+    //
+
+    // Frame that GL thread copied last
+    private Frame front = new Frame();
+    // Number of frames appended since the last handed over job, negative if signal didn't continue in the meantime
+    private int pendingAppendedFrameCount = -1;
+
+    public SignalDrawPipeline(@NonNull Preparer preparer) {
+        this(DEFAULT_THREAD_COUNT, preparer);
+    }
+
+    SignalDrawPipeline(int threadCount, @NonNull Preparer preparer) {
+        this(threadCount, preparer, LOG_ERROR);
+    }
+
+    SignalDrawPipeline(int threadCount, @NonNull Preparer preparer, @NonNull OnErrorListener errorListener) {
+        this.preparer = preparer;
+        this.errorListener = errorListener;
+
+        executor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new NamedThreadFactory("signal-draw"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Hands over specified signal to the preparing threads, unless previously handed over signal is still being
+     * prepared, and copies the most recently prepared frame to {@code outSignal} and {@code outEvents}. If {@code
+     * await} is {@code true} waits for the specified signal to be prepared and copies it. This method should always be
+     * called from the same thread.
+     *
+     * @param appendedFrameCount Number of frames appended to the end of {@code inSamples} since the previous call, or
+     * a negative number if {@code inSamples} doesn't continue the previously handed over signal.
+     * @return Whether prepared frame has been copied.
+     */
+    public boolean prepare(@NonNull SignalDrawData outSignal, @NonNull EventsDrawData outEvents,
+        @NonNull short[][] inSamples, int inFrameCount, @NonNull int[] inEventIndices, @NonNull String[] inEventNames,
+        int inEventCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth, int appendedFrameCount,
+        boolean await) {
+        pendingAppendedFrameCount = pendingAppendedFrameCount < 0 || appendedFrameCount < 0 ? -1
+            : pendingAppendedFrameCount + appendedFrameCount;
+
+        if (executor.isShutdown()) return false;
+        if (await && !awaitPrepared()) return false;
+        if (!preparing.get()) {
+            handOver(outSignal, outEvents, inSamples, inFrameCount, inEventIndices, inEventNames, inEventCount,
+                drawStartIndex, drawEndIndex, drawSurfaceWidth);
+            if (await && !awaitPrepared()) return false;
+        }
+
+        // pick up the newest prepared frame
+        if (published.get().sequence > front.sequence) front = published.getAndSet(front);
+        if (front.sequence == 0) return false;
+
+        front.copyTo(outSignal, outEvents);
+        return true;
+    }
+
+    /**
+     * Stops preparing threads once signal that's being prepared is prepared. Signal handed over afterwards is ignored.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // Copies signal to the job and starts preparing it
+    private void handOver(@NonNull SignalDrawData outSignal, @NonNull EventsDrawData outEvents,
+        @NonNull short[][] inSamples, int inFrameCount, @NonNull int[] inEventIndices, @NonNull String[] inEventNames,
+        int inEventCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth) {
+        // samples before the first drawn one are not needed, signal still ends at the same sample
+        final int offset = Math.max(0, Math.min(drawStartIndex, inFrameCount));
+        final int channelCount = Math.min(inSamples.length, outSignal.channelCount);
+        job.set(inSamples, channelCount, offset, inFrameCount - offset, inEventIndices, inEventNames, inEventCount,
+            drawStartIndex - offset, drawEndIndex - offset, drawSurfaceWidth,
+            failed ? -1 : pendingAppendedFrameCount);
+        back.ensureCapacity(channelCount, outSignal.maxSamplesPerChannel, outEvents.eventIndices.length);
+        pendingAppendedFrameCount = 0;
+        failed = false;
+
+        preparing.set(true);
+        remaining.set(channelCount + 1);
+        for (int i = 0; i < channelCount; i++) executor.execute(job.channelTasks[i]);
+        executor.execute(job.eventsTask);
+    }
+
+    // Waits until handed over job is prepared, returns false if waiting was interrupted
+    private boolean awaitPrepared() {
+        synchronized (monitor) {
+            try {
+                while (preparing.get()) monitor.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Invoked by preparing threads once channel or events are prepared, last one publishes the frame
+    private void onPrepared() {
+        if (remaining.decrementAndGet() > 0) return;
+
+        if (!failed) {
+            back.sequence = ++sequence;
+            back = published.getAndSet(back);
+        }
+        synchronized (monitor) {
+            preparing.set(false);
+            monitor.notifyAll();
+        }
+    }
+
+    // Prepares specified channel of the job
+    private void prepareChannel(int channel) {
+        try {
+            back.signal.sampleCounts[channel] =
+                preparer.prepareChannel(channel, back.signal.samples[channel], job.samples[channel], job.frameCount,
+                    job.drawStartIndex, job.drawEndIndex, job.drawSurfaceWidth, job.appendedFrameCount);
+        } catch (Exception e) {
+            failed = true;
+            errorListener.onError("channel " + channel, e);
+        } finally {
+            onPrepared();
+        }
+    }
+
+    // Prepares events of the job
+    private void prepareEvents() {
+        try {
+            final EventsDrawData events = back.events;
+            events.eventCount = preparer.prepareEvents(events.eventIndices, job.eventIndices, job.eventCount,
+                job.drawStartIndex, job.drawEndIndex, job.drawSurfaceWidth);
+            // events that are not drawn are the ones at the start of the signal
+            final int indexBase = job.eventCount - events.eventCount;
+            if (indexBase >= 0) System.arraycopy(job.eventNames, indexBase, events.eventNames, 0, events.eventCount);
+        } catch (Exception e) {
+            failed = true;
+            errorListener.onError("events", e);
+        } finally {
+            onPrepared();
+        }
+    }
+
+    /**
+     * Samples, events and params handed over to preparing threads.
+     */
+    private class Job {
+        short[][] samples = new short[0][];
+        int frameCount;
+        int[] eventIndices = new int[0];
+        String[] eventNames = new String[0];
+        int eventCount;
+        int drawStartIndex;
+        int drawEndIndex;
+        int drawSurfaceWidth;
+        int appendedFrameCount;
+        Runnable[] channelTasks = new Runnable[0];
+        final Runnable eventsTask = SignalDrawPipeline.this::prepareEvents;
+
+        void set(@NonNull short[][] inSamples, int channelCount, int offset, int frameCount,
+            @NonNull int[] inEventIndices, @NonNull String[] inEventNames, int inEventCount, int drawStartIndex,
+            int drawEndIndex, int drawSurfaceWidth, int appendedFrameCount) {
+            if (samples.length != channelCount || (channelCount > 0 && samples[0].length < frameCount)) {
+                samples = new short[channelCount][frameCount];
+            }
+            for (int i = 0; i < channelCount; i++) System.arraycopy(inSamples[i], offset, samples[i], 0, frameCount);
+            if (channelTasks.length != channelCount) {
+                channelTasks = new Runnable[channelCount];
+                for (int i = 0; i < channelCount; i++) {
+                    final int channel = i;
+                    channelTasks[i] = () -> prepareChannel(channel);
+                }
+            }
+            this.frameCount = frameCount;
+
+            if (eventIndices.length < inEventCount) {
+                eventIndices = new int[inEventCount];
+                eventNames = new String[inEventCount];
+            }
+            for (int i = 0; i < inEventCount; i++) eventIndices[i] = inEventIndices[i] - offset;
+            System.arraycopy(inEventNames, 0, eventNames, 0, inEventCount);
+            eventCount = inEventCount;
+
+            this.drawStartIndex = drawStartIndex;
+            this.drawEndIndex = drawEndIndex;
+            this.drawSurfaceWidth = drawSurfaceWidth;
+            this.appendedFrameCount = appendedFrameCount;
+        }
+    }
+
+    /**
+     * Prepared signal and events.
+     */
+    private static class Frame {
+        SignalDrawData signal = new SignalDrawData(0, 0);
+        EventsDrawData events = new EventsDrawData(0);
+        long sequence;
+
+        void ensureCapacity(int channelCount, int maxSamplesPerChannel, int maxEventCount) {
+            if (signal.channelCount != channelCount || signal.maxSamplesPerChannel < maxSamplesPerChannel) {
+                signal = new SignalDrawData(channelCount, maxSamplesPerChannel);
+            }
+            if (events.eventIndices.length < maxEventCount) events = new EventsDrawData(maxEventCount);
+        }
+
+        void copyTo(@NonNull SignalDrawData outSignal, @NonNull EventsDrawData outEvents) {
+            for (int i = 0; i < outSignal.channelCount; i++) {
+                // channels that haven't been prepared yet are not drawn
+                if (i >= signal.channelCount) {
+                    outSignal.sampleCounts[i] = 0;
+                    continue;
+                }
+                final int count = Math.min(signal.sampleCounts[i], outSignal.samples[i].length);
+                System.arraycopy(signal.samples[i], 0, outSignal.samples[i], 0, count);
+                outSignal.sampleCounts[i] = count;
+            }
+            final int eventCount = Math.min(events.eventCount, outEvents.eventIndices.length);
+            System.arraycopy(events.eventIndices, 0, outEvents.eventIndices, 0, eventCount);
+            System.arraycopy(events.eventNames, 0, outEvents.eventNames, 0, eventCount);
+            outEvents.eventCount = eventCount;
+        }
+    }
+
+    /**
+     * Creates daemon threads with names that make them easy to find while profiling.
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String name;
+
+        NamedThreadFactory(@NonNull String name) {
+            this.name = name;
+        }
+
+        @Override public Thread newThread(@NonNull Runnable r) {
+            final Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -76,6 +76,8 @@ public class WaveformRenderer extends BaseWaveformRenderer {
     private static final float HANDLE_BASE_RADIUS_DP = 10f;
 
     private final Rect rect = new Rect();
+    private final SignalDrawPipeline signalDrawPipeline =
+        new SignalDrawPipeline(new SignalDrawPipeline.NativePreparer());
     private final GlHandleDragHelper waveformHandleDragHelper;
     private final GlHandleDragHelper thresholdHandleDragHelper;
 
@@ -367,6 +369,24 @@ public class WaveformRenderer extends BaseWaveformRenderer {
         PrefUtils.setThreshold(context, getClass(), threshold);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        super.close();
+
+        signalDrawPipeline.shutdown();
+    }
+
+    /**
+     * Whether drawing should wait for the signal to be prepared for drawing with the same frame it's passed with. By
+     * default signal prepared with one of the previous frames is drawn so drawing never waits for the preparation.
+     */
+    protected boolean awaitSignalDrawData() {
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -374,32 +394,27 @@ public class WaveformRenderer extends BaseWaveformRenderer {
     protected void prepareSignalForDrawing(@NonNull SignalDrawData signalDrawData,
                                            @NonNull EventsDrawData eventsDrawData, @NonNull short[][] inSamples, int inFrameCount,
                                            @NonNull int[] inEventIndices, @NonNull String[] inEventNames, int inEventCount, int drawStartIndex,
-                                           int drawEndIndex, int drawSurfaceWidth, long lastFrameIndex) {
+                                           int drawEndIndex, int drawSurfaceWidth, int appendedFrameCount,
+                                           long lastFrameIndex) {
         //benchmark.start();
         try {
             // process signal
             if (isSignalAveraging()) {
                 JniUtils.prepareForThresholdDrawing(signalDrawData, eventsDrawData, inSamples, inFrameCount,
                         inEventIndices, inEventCount, drawStartIndex, drawEndIndex, drawSurfaceWidth);
+                discontinueSignal();
             } else {
-                JniUtils.prepareForSignalDrawing(signalDrawData, eventsDrawData, inSamples, inFrameCount,
-                        inEventIndices, inEventCount, drawStartIndex, drawEndIndex, drawSurfaceWidth);
+                // channels are enveloped in parallel off the GL thread, event names are set by the pipeline
+                signalDrawPipeline.prepare(signalDrawData, eventsDrawData, inSamples, inFrameCount, inEventIndices,
+                        inEventNames, inEventCount, drawStartIndex, drawEndIndex, drawSurfaceWidth,
+                        appendedFrameCount, awaitSignalDrawData());
             }
         } catch (Exception e) {
+            discontinueSignal();
             LOGE(TAG, e.getMessage());
             FirebaseCrashlytics.getInstance().recordException(e);
         }
 
-        // only process events if threshold is off
-        if (!isSignalAveraging()) {
-            int indexBase = inEventCount - eventsDrawData.eventCount;
-            if (indexBase >= 0) {
-                if (eventsDrawData.eventCount >= 0) {
-                    System.arraycopy(inEventNames, indexBase, eventsDrawData.eventNames, 0, eventsDrawData.eventCount);
-                }
-            }
-        }
-
         saveAveragingTriggerEventName(inEventNames, inEventCount);
         //benchmark.end();
     }
@@ -27,16 +27,16 @@ public class GlFft {
     private static final int TIME_AXIS_NOTCH_COUNT = (TIME_AXIS_VALUES.length - 1) * 10 + 1; // 61 notch
 
     private static final float FREQ_AXIS_VALUES_X_OFFSET = AXIS_NOTCH_SIZE_10 + AXIS_VALUE_X_OFFSET;
-    private static final String[] FREQ_AXIS_VALUES = new String[] { "0", "10", "20", "30" };
-    private static final String[] FREQ_AXIS_VALUES_ZOOMED =
-        new String[] { "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14" };
-    private static final int FREQ_AXIS_NOTCH_COUNT = (FREQ_AXIS_VALUES.length - 1) * 10 + 3; // 33 notches
-    private static final int FREQ_AXIS_NOTCH_COUNT_ZOOMED = (FREQ_AXIS_VALUES_ZOOMED.length - 1) * 10 + 3; // 143 notch
-    private static final float FREQ_AXIS_NOTCH_ZOOM_SWITCH_SCALE =
-        FREQ_AXIS_NOTCH_COUNT * 10f / FREQ_AXIS_NOTCH_COUNT_ZOOMED;
+    // Values are drawn every power of 10 Hz for which at least this many values fit the visible frequency range
+    // (10 Hz values switch to 1 Hz values when zooming in on 0-32 Hz spectrogram)
+    private static final float FREQ_AXIS_MIN_VALUE_SPAN = 1.38f;
+    // Number of notches between two values
+    private static final int FREQ_AXIS_NOTCHES_PER_VALUE = 10;
 
     private FloatBuffer timeAxisValuesVFB;
     private FloatBuffer freqAxisValuesVFB;
+    private String[] freqAxisValues = new String[0];
+    private float freqAxisValueStep;
 
     private GlSpectrogram glSpectrogram;
     private GlRectangleMask glRectangleMask;
@@ -91,7 +91,7 @@ public class GlFft {
 
         // draw frequency axis
         gl.glPushMatrix();
-        drawFrequencyAxis(gl, h, fft.scaleY);
+        drawFrequencyAxis(gl, h, fft.scaleY, fft.maxFrequency);
         gl.glPopMatrix();
 
         gl.glDisable(GL10.GL_STENCIL_TEST);
@@ -153,15 +153,16 @@ public class GlFft {
         gl.glDisable(GL10.GL_TEXTURE_2D);
     }
 
-    private void drawFrequencyAxis(GL10 gl, float h, float scaleY) {
-        final int notchCount =
-            scaleY < FREQ_AXIS_NOTCH_ZOOM_SWITCH_SCALE ? FREQ_AXIS_NOTCH_COUNT : FREQ_AXIS_NOTCH_COUNT_ZOOMED;
-        final String[] notchValues =
-            scaleY < FREQ_AXIS_NOTCH_ZOOM_SWITCH_SCALE ? FREQ_AXIS_VALUES : FREQ_AXIS_VALUES_ZOOMED;
-        if (scaleY >= FREQ_AXIS_NOTCH_ZOOM_SWITCH_SCALE) scaleY /= FREQ_AXIS_NOTCH_ZOOM_SWITCH_SCALE;
-        final float valueStep = h / (notchCount - 1) * scaleY;
-        //final float[] valuesVertices = new float[notchCount * 4];
-        //final float[] values = new float[notchValues.length];
+    private void drawFrequencyAxis(GL10 gl, float h, float scaleY, float maxFrequency) {
+        if (maxFrequency <= 0f) return;
+
+        // top of the spectrogram is at max frequency, zooming in shows only the lower part of it
+        final float visibleFrequency = maxFrequency / scaleY;
+        final float frequencyStep = (float) Math.max(1d,
+            Math.pow(10d, Math.floor(Math.log10(visibleFrequency / FREQ_AXIS_MIN_VALUE_SPAN))));
+        final String[] notchValues = getFrequencyAxisValues(frequencyStep, visibleFrequency);
+        final int notchCount = (int) (visibleFrequency / frequencyStep * FREQ_AXIS_NOTCHES_PER_VALUE) + 1;
+        final float valueStep = h * frequencyStep / (visibleFrequency * FREQ_AXIS_NOTCHES_PER_VALUE);
         final float drawMarginYScaled = drawMarginY;
         int vertexCounter = 0, valueCounter = 0;
 
@@ -174,7 +175,7 @@ public class GlFft {
             if (value < h) {
                 valuesVertices[vertexCounter++] = 0f;
                 valuesVertices[vertexCounter++] = value;
-                if (i % 10 == 0) {
+                if (i % FREQ_AXIS_NOTCHES_PER_VALUE == 0) {
                     valuesVertices[vertexCounter++] = AXIS_NOTCH_SIZE_10;
 
                     values[valueCounter++] = value; // save y value so we can draw scale numbers later
@@ -211,4 +212,18 @@ public class GlFft {
         gl.glDisable(GL10.GL_BLEND);
         gl.glDisable(GL10.GL_TEXTURE_2D);
     }
+
+    // Returns frequency axis values that are frequencyStep apart and cover the visible frequency range. Values are
+    // only recreated when the step changes or when they don't cover the range.
+    private String[] getFrequencyAxisValues(float frequencyStep, float visibleFrequency) {
+        final int valueCount = (int) (visibleFrequency / frequencyStep) + 1;
+        if (frequencyStep != freqAxisValueStep || freqAxisValues.length < valueCount) {
+            freqAxisValueStep = frequencyStep;
+            freqAxisValues = new String[valueCount];
+            for (int i = 0; i < valueCount; i++) {
+                freqAxisValues[i] = String.valueOf((long) (i * frequencyStep));
+            }
+        }
+        return freqAxisValues;
+    }
 }
@@ -3,6 +3,7 @@ package com.backyardbrains.dsp;
 import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.backyardbrains.utils.JniUtils;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
@@ -149,6 +150,21 @@ public abstract class AbstractSignalSource implements SignalSource {
      */
     public abstract void processIncomingData(@NonNull SignalData outData, byte[] inData, int inDataLength);
 
+    /**
+     * Called by {@link Processor} to run incoming byte data through the native processing pipeline previously set up
+     * for the specified {@link SignalData}. By default data is converted by {@link #processIncomingData(SignalData,
+     * byte[], int)} and the rest of the pipeline is run afterwards. Sources which signal can be decoded natively
+     * should pass incoming data straight to the pipeline so whole batch is processed within a single native call.
+     * <p>
+     * This method is called from background thread so implementation should not communicate with UI thread
+     * directly.
+     */
+    public void processIncomingDataInPipeline(@NonNull SignalData outData, byte[] inData, int inDataLength,
+            boolean signalAveraging) {
+        processIncomingData(outData, inData, inDataLength);
+        JniUtils.processPipeline(JniUtils.PIPELINE_DECODER_NONE, 0, inData, 0, null, signalAveraging);
+    }
+
     /**
      * Returns type of the sample source. One of {@link SignalSource.Type} constants.
      */
@@ -1,6 +1,15 @@
 package com.backyardbrains.dsp;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
 /**
+ * Data holder class that holds FFT windows after processing.
+ * <p>
+ * When created as direct, windows are held in a single pre-allocated direct buffer ({@code maxWindowCount} rows of
+ * {@code maxWindowSize} floats) instead of {@link #fft} arrays so native code can write them in place without copying.
+ *
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
 public class FftData {
@@ -9,16 +18,30 @@ public class FftData {
     public int maxWindowSize;
 
     public float[][] fft;
+    public FloatBuffer directFft;
+    public boolean direct;
     public int windowCount;
     public int windowSize;
 
     public FftData(int maxWindowCount, int maxWindowSize) {
+        this(maxWindowCount, maxWindowSize, false);
+    }
+
+    public FftData(int maxWindowCount, int maxWindowSize, boolean direct) {
         this.maxWindowCount = maxWindowCount;
         this.maxWindowSize = maxWindowSize;
+        this.direct = direct;
 
-        fft = new float[maxWindowCount][];
-        for (int i = 0; i < maxWindowCount; i++) {
-            fft[i] = new float[maxWindowSize];
+        if (direct) {
+            fft = new float[0][];
+            directFft = ByteBuffer.allocateDirect(maxWindowCount * maxWindowSize * 4)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        } else {
+            fft = new float[maxWindowCount][];
+            for (int i = 0; i < maxWindowCount; i++) {
+                fft[i] = new float[maxWindowSize];
+            }
         }
         windowCount = 0;
         windowSize = 0;
@@ -1,35 +1,59 @@
 package com.backyardbrains.dsp;
 
-import android.util.Log;
-import android.util.Pair;
 import androidx.annotation.NonNull;
 import com.backyardbrains.drawing.FftDrawBuffer;
 import com.backyardbrains.drawing.MultichannelSignalDrawBuffer;
 import com.backyardbrains.utils.AudioUtils;
-import com.backyardbrains.utils.CircularFloatArrayBuffer;
-import com.backyardbrains.utils.CircularShortBuffer;
 import com.backyardbrains.utils.EventUtils;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Buffer through which processing thread hands processed samples, averaged samples, events and FFT data over to the
+ * renderers.
+ * <p/>
+ * Processing thread writes into a {@link ProcessingSnapshot} that no one else can see and then publishes it by
+ * swapping it with the previously published one. Reader (GL thread) picks up the newest published snapshot by swapping
+ * it with the one it read last. That way neither of the threads ever waits for the other one, and reader always sees
+ * samples, events and FFT data that were added together.
+ *
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
 public class ProcessingBuffer {
 
-    // Lock used when reading/writing samples and events
+    // Lock used when writing samples and events (reader never takes it)
     private static final Object lock = new Object();
 
     private static ProcessingBuffer INSTANCE;
 
-    // Circular buffer array that holds incoming samples by channel
-    private CircularShortBuffer[] sampleBuffers;
-    // Circular buffers that holds averaged incoming samples by channel
-    private CircularShortBuffer[] averagedSamplesBuffers;
+    //
+    // Written only by the processing thread (under the lock)
+    //
+
+    // Snapshot that's last been published and that can be picked up by the reader
+    private final AtomicReference<ProcessingSnapshot> published;
+    // Snapshot that processing thread currently writes to
+    private ProcessingSnapshot back;
+    // Snapshot that processing thread published last (used to bring the back snapshot up to date)
+    private ProcessingSnapshot last;
+    // Sequence number of the last published snapshot
+    private long sequence;
+    // Incremented every time buffers are reset or cleared
+    private int epoch;
+    // Number of sample channels
+    private int channelCount;
+    // Number of averaged sample channels
+    private int averagedChannelCount;
     // Size of the sample buffer
     private int sampleBufferSize = SignalProcessor.DEFAULT_PROCESSED_SAMPLES_PER_CHANNEL_COUNT;
-    // Temp buffer used to copy buffered samples to draw buffer
-    private short[] samples = new short[SignalProcessor.MAX_PROCESSED_SAMPLES_COUNT];
+    // Size of the averaged samples buffer
+    private int averagedSampleBufferSize = SignalProcessor.DEFAULT_PROCESSED_AVERAGED_SAMPLES_PER_CHANNEL_COUNT;
+    // Number of FFT windows held by the buffer (number of spectrogram columns shown at once)
+    private int fftWindowCount = SignalProcessor.FFT_WINDOW_COUNT;
+    // Size of a single FFT window (number of spectrogram bins)
+    private int fftWindowSize = SignalProcessor.FFT_WINDOW_SIZE;
+    // Frequency of the highest FFT window bin
+    private float fftMaxFrequency = SignalProcessor.FFT_MAX_FREQUENCY;
     // Array of processed event indices
     private final int[] eventIndices;
     // Array of processed event indices
@@ -38,23 +62,44 @@ public class ProcessingBuffer {
     private final String[] eventNames;
     // Number of processed events
     private int eventCount;
-    // Index of the sample that was processed last (used only during playback)
-    private long lastSampleIndex;
 
-    // Buffer for the FFT data
-    private CircularFloatArrayBuffer fftBuffer = new CircularFloatArrayBuffer(500, 500);
-    // Temp buffer used to copy buffered fft data to draw buffer (500x500 is enough for any sample rate we use)
-    private float[][] fft = new float[500][500];
+    //
+    // Accessed only by the reader
+    //
+
+    // Snapshot that reader currently reads from
+    private ProcessingSnapshot front;
+    // Epoch of the snapshot reader read last
+    private int readEpoch;
+    // Total number of samples per channel already copied by the reader
+    private long[] readSampleTotals;
+    // Total number of averaged samples per channel already copied by the reader
+    private long[] readAveragedSampleTotals;
+    // Total number of FFT windows already copied by the reader
+    private long readFftTotal;
+    // Number of frames the last copy appended to the signal draw buffer, -1 if channels didn't get the same number
+    private int copiedFrameCount = -1;
+    // Temp buffer used to copy buffered samples to draw buffer
+    private short[] samples = new short[SignalProcessor.MAX_PROCESSED_SAMPLES_COUNT];
+    // Temp buffer used to copy buffered fft data to draw buffer
+    private float[][] fft = new float[SignalProcessor.FFT_WINDOW_COUNT][SignalProcessor.FFT_WINDOW_SIZE];
 
     // Private constructor through which we create singleton instance
     private ProcessingBuffer() {
-        createSampleBuffers(AudioUtils.DEFAULT_CHANNEL_COUNT);
-        createAveragedSamplesBuffer(AudioUtils.DEFAULT_CHANNEL_COUNT);
+        channelCount = AudioUtils.DEFAULT_CHANNEL_COUNT;
+        averagedChannelCount = AudioUtils.DEFAULT_CHANNEL_COUNT;
         eventIndices = new int[EventUtils.MAX_EVENT_COUNT];
         manualEventIndices = new ArrayList<>();
         eventNames = new String[EventUtils.MAX_EVENT_COUNT];
         eventCount = 0;
-        lastSampleIndex = 0;
+
+        last = createSnapshot();
+        published = new AtomicReference<>(last);
+        back = createSnapshot();
+        front = createSnapshot();
+        readEpoch = front.epoch;
+        readSampleTotals = new long[front.getChannelCount()];
+        readAveragedSampleTotals = new long[front.getAveragedChannelCount()];
     }
 
     /**
@@ -74,65 +119,96 @@ public class ProcessingBuffer {
     //======================================================================
 
     /**
-     * Copies as many samples, averaged samples, event indices, event names and FFT data accompanying the sample data
-     * currently in the buffer as available to the specified {@code signalDrawBuffer}, {@code averagedSignalDrawBuffer},
-     * {@code eventIndices}, {@code eventNames} and @{code fftDrawBuffer}.
+     * Copies samples, averaged samples and FFT data that have been added since the last call to this method, as well
+     * as event indices and event names accompanying the sample data currently in the buffer, to the specified {@code
+     * signalDrawBuffer}, {@code averagedSignalDrawBuffer}, {@code eventIndices}, {@code eventNames} and @{code
+     * fftDrawBuffer}.
+     * <p/>
+     * This method never blocks the processing thread, but it should always be called from the same thread.
      *
      * @return Number of copied events.
      */
     public int copy(@NonNull MultichannelSignalDrawBuffer signalDrawBuffer,
         @NonNull MultichannelSignalDrawBuffer averagedSignalDrawBuffer, @NonNull int[] eventIndices,
         @NonNull String[] eventNames, @NonNull FftDrawBuffer fftDrawBuffer) {
-        synchronized (lock) {
-            // copy samples
-            if (sampleBuffers != null) {
-                for (int i = 0; i < sampleBuffers.length; i++) {
-                    if (sampleBuffers[i] != null) {
-                        int count = sampleBuffers[i].get(samples);
-                        if (count > 0) signalDrawBuffer.add(i, samples, count);
-                    }
-                }
-            }
-            // copy averaged samples
-            if (averagedSamplesBuffers != null) {
-                for (int i = 0; i < averagedSamplesBuffers.length; i++) {
-                    if (averagedSamplesBuffers[i] != null) {
-                        int count = averagedSamplesBuffers[i].get(samples);
-                        if (count > 0) averagedSignalDrawBuffer.add(i, samples, count);
-                    }
-                }
-            }
-            // copy events
-            System.arraycopy(this.eventIndices, 0, eventIndices, 0, eventCount);
-            System.arraycopy(this.eventNames, 0, eventNames, 0, eventCount);
-            // copy fft data
-            if (fftBuffer != null) {
-                int count = fftBuffer.get(fft);
-                if (count > 0) fftDrawBuffer.add(fft, count);
+        final ProcessingSnapshot snapshot = acquireSnapshot();
+
+        // copy samples
+        copiedFrameCount = snapshot.getChannelCount() == signalDrawBuffer.getChannelCount() ? 0 : -1;
+        for (int i = 0; i < snapshot.getChannelCount(); i++) {
+            int count = snapshot.copySamples(i, readSampleTotals[i], samples);
+            readSampleTotals[i] = snapshot.getSampleTotal(i);
+            if (count > 0) signalDrawBuffer.add(i, samples, count);
+            if (i == 0 && copiedFrameCount == 0) {
+                copiedFrameCount = count;
+            } else if (count != copiedFrameCount) {
+                copiedFrameCount = -1;
             }
+        }
+        // copy averaged samples
+        for (int i = 0; i < snapshot.getAveragedChannelCount(); i++) {
+            int count = snapshot.copyAveragedSamples(i, readAveragedSampleTotals[i], samples);
+            readAveragedSampleTotals[i] = snapshot.getAveragedSampleTotal(i);
+            if (count > 0) averagedSignalDrawBuffer.add(i, samples, count);
+        }
+        // copy fft data
+        if (fft.length != snapshot.getFftWindowCount() || fft[0].length != snapshot.getFftWindowSize()) {
+            fft = new float[snapshot.getFftWindowCount()][snapshot.getFftWindowSize()];
+        }
+        fftDrawBuffer.resize(snapshot.getFftWindowCount(), snapshot.getFftWindowSize());
+        int count = snapshot.copyFft(readFftTotal, fft);
+        readFftTotal = snapshot.getFftTotal();
+        if (count > 0) fftDrawBuffer.add(fft, count);
 
-            return eventCount;
+        // copy events
+        return snapshot.copyEvents(eventIndices, eventNames);
+    }
+
+    /**
+     * Returns the most recently published snapshot of the buffer without blocking the processing thread. Returned
+     * snapshot stays unchanged until the next call to this method so this method should always be called from the
+     * same thread.
+     */
+    @NonNull ProcessingSnapshot acquireSnapshot() {
+        if (published.get().sequence > front.sequence) front = published.getAndSet(front);
+
+        // buffers have been reset or cleared since the last read, start over
+        if (front.epoch != readEpoch) {
+            readEpoch = front.epoch;
+            readSampleTotals = new long[front.getChannelCount()];
+            readAveragedSampleTotals = new long[front.getAveragedChannelCount()];
+            readFftTotal = 0;
         }
+
+        return front;
     }
 
     /**
-     * Adds specified {@code signalData}, {@code averagedSamples} and {@code fftData} to the buffer.
+     * Adds specified {@code signalData}, {@code averagedSamples} and {@code fftData} to the buffer and publishes them
+     * to the reader.
      */
     void add(@NonNull SignalData signalData, @NonNull SignalData averagedSamples, @NonNull FftData fftData) {
         synchronized (lock) {
-            // add samples to signal ring buffer
-            if (sampleBuffers != null && sampleBuffers.length == signalData.samples.length) {
+            final ProcessingSnapshot snapshot = prepareSnapshot();
+
+            // add samples to signal rings
+            if (snapshot.getChannelCount() == signalData.samples.length) {
                 for (int i = 0; i < signalData.samples.length; i++) {
-                    if (sampleBuffers[i] != null) {
-                        sampleBuffers[i].put(signalData.samples[i], 0, signalData.sampleCounts[i]);
+                    if (signalData.direct) {
+                        snapshot.putSamples(i, signalData.directSamples[i], signalData.sampleCounts[i]);
+                    } else {
+                        snapshot.putSamples(i, signalData.samples[i], signalData.sampleCounts[i]);
                     }
                 }
             }
-            // add samples to averaged signal ring buffer
-            if (averagedSamplesBuffers != null && averagedSamplesBuffers.length == averagedSamples.samples.length) {
+            // add samples to averaged signal rings
+            if (snapshot.getAveragedChannelCount() == averagedSamples.samples.length) {
                 for (int i = 0; i < averagedSamples.samples.length; i++) {
-                    if (averagedSamplesBuffers[i] != null) {
-                        averagedSamplesBuffers[i].put(averagedSamples.samples[i], 0, averagedSamples.sampleCounts[i]);
+                    if (averagedSamples.direct) {
+                        snapshot.putAveragedSamples(i, averagedSamples.directSamples[i],
+                                averagedSamples.sampleCounts[i]);
+                    } else {
+                        snapshot.putAveragedSamples(i, averagedSamples.samples[i], averagedSamples.sampleCounts[i]);
                     }
                 }
             }
@@ -162,99 +238,130 @@ public class ProcessingBuffer {
             }
             eventCount = eventCount - removeIndices + signalData.eventCount+ manualEventIndices.size();
             manualEventIndices.clear();
+            System.arraycopy(eventIndices, 0, snapshot.eventIndices, 0, eventCount);
+            System.arraycopy(eventNames, 0, snapshot.eventNames, 0, eventCount);
+            snapshot.eventCount = eventCount;
             // save last sample index (playhead)
-            lastSampleIndex = signalData.lastSampleIndex;
+            snapshot.lastSampleIndex = signalData.lastSampleIndex;
+
+            // add fft data to fft ring
+            if (fftData.direct) {
+                snapshot.putFft(fftData.directFft, fftData.windowCount, fftData.maxWindowSize);
+            } else {
+                snapshot.putFft(fftData.fft, fftData.windowCount);
+            }
 
-            // add fft data to buffer
-            if (fftBuffer != null) fftBuffer.put(fftData.fft, 0, fftData.windowCount);
+            publish(snapshot);
         }
     }
 
     public void addManualEvent(int event){
-        manualEventIndices.add(event);
+        synchronized (lock) {
+            manualEventIndices.add(event);
+        }
     }
 
     /**
      * Resets sample buffers.
      */
     void resetAllSampleBuffers(int channelCount, int visibleChannelCount) {
-        // reset sample buffer
-        clearBuffers();
-        createSampleBuffers(channelCount);
-        // reset averaged samples buffer
-        clearAveragedSamplesBuffer();
-        createAveragedSamplesBuffer(visibleChannelCount);
+        synchronized (lock) {
+            // reset sample buffer
+            eventCount = 0;
+            this.channelCount = channelCount;
+            sampleBufferSize = SignalProcessor.getProcessedSamplesPerChannelCount();
+            // reset averaged samples buffer
+            averagedChannelCount = visibleChannelCount;
+            averagedSampleBufferSize = SignalProcessor.getProcessedAveragedSamplesPerChannelCount();
+            publishEmptySnapshot();
+        }
     }
 
     /**
      * Resets averaged samples buffer.
      */
     void resetAveragedSamplesBuffer(int visibleChannelCount) {
-        clearAveragedSamplesBuffer();
-        createAveragedSamplesBuffer(visibleChannelCount);
+        synchronized (lock) {
+            averagedChannelCount = visibleChannelCount;
+            averagedSampleBufferSize = SignalProcessor.getProcessedAveragedSamplesPerChannelCount();
+            publishEmptySnapshot();
+        }
+    }
+
+    /**
+     * Resets FFT buffer so it holds {@code windowCount} windows of {@code windowSize} values each, with the highest
+     * value of each window representing {@code maxFrequency}.
+     */
+    void resetFftBuffer(int windowCount, int windowSize, float maxFrequency) {
+        synchronized (lock) {
+            fftWindowCount = windowCount;
+            fftWindowSize = windowSize;
+            fftMaxFrequency = maxFrequency;
+            publishEmptySnapshot();
+        }
     }
 
     /**
      * Clears sample buffer, averaged samples buffers, events collections and resets last read byte position.
      */
     void clearAllBuffers() {
-        clearBuffers();
-        clearAveragedSamplesBuffer();
+        synchronized (lock) {
+            eventCount = 0;
+            publishEmptySnapshot();
+        }
+    }
+
+    /**
+     * Returns number of frames the last call to {@link #copy} appended to the end of the signal draw buffer, or
+     * {@code -1} if channels of the draw buffer haven't been moved by the same number of frames. Should be called from
+     * the same thread as {@link #copy}.
+     */
+    public int getCopiedFrameCount() {
+        return copiedFrameCount;
     }
 
     /**
      * Returns index of the last sample in the buffer. By default the value is {@code 0}, and is set only when
-     * processing samples during playback.
+     * processing samples during playback. Should be called from the same thread as {@link #copy}.
      */
     public long getLastSampleIndex() {
-        return lastSampleIndex;
+        return front.lastSampleIndex;
     }
 
-    // Creates sample data buffers
-    private void createSampleBuffers(int channelCount) {
-        synchronized (lock) {
-            sampleBuffers = new CircularShortBuffer[channelCount];
-            sampleBufferSize = SignalProcessor.getProcessedSamplesPerChannelCount();
-            for (int i = 0; i < channelCount; i++) {
-                sampleBuffers[i] = new CircularShortBuffer(sampleBufferSize);
-            }
-            //fftBuffer = new CircularFloatArrayBuffer(SignalProcessor.getProcessedFftWindowCount(),
-            //    SignalProcessor.getProcessedFftWindowSize());
-        }
+    /**
+     * Returns frequency of the highest value of each FFT window. Should be called from the same thread as
+     * {@link #copy}.
+     */
+    public float getFftMaxFrequency() {
+        return front.getFftMaxFrequency();
     }
 
-    // Clears the sample data ring buffer, events collections and resets last read byte position.
-    private void clearBuffers() {
-        synchronized (lock) {
-            if (sampleBuffers != null) {
-                for (CircularShortBuffer sb : sampleBuffers) {
-                    if (sb != null) sb.clear();
-                }
-            }
-            eventCount = 0;
-            lastSampleIndex = 0;
-            fftBuffer.clear();
-        }
+    // Creates new snapshot with current buffer dimensions
+    private ProcessingSnapshot createSnapshot() {
+        return new ProcessingSnapshot(epoch, channelCount, sampleBufferSize, averagedChannelCount,
+                averagedSampleBufferSize, fftWindowCount, fftWindowSize, fftMaxFrequency,
+                EventUtils.MAX_EVENT_COUNT);
     }
 
-    // Creates averaged samples data buffers
-    private void createAveragedSamplesBuffer(int channelCount) {
-        synchronized (lock) {
-            averagedSamplesBuffers = new CircularShortBuffer[channelCount];
-            for (int i = 0; i < channelCount; i++) {
-                averagedSamplesBuffers[i] = new CircularShortBuffer(SignalProcessor.getProcessedAveragedSamplesPerChannelCount());
-            }
-        }
+    // Returns the back snapshot brought up to date with the last published one
+    private ProcessingSnapshot prepareSnapshot() {
+        // back snapshot was created before the last reset, it has to be recreated
+        if (back.epoch != epoch) back = createSnapshot();
+        if (last.epoch == epoch) back.catchUp(last);
+
+        return back;
     }
 
-    // Clears the averaged samples data ring buffers.
-    private void clearAveragedSamplesBuffer() {
-        synchronized (lock) {
-            if (averagedSamplesBuffers != null) {
-                for (CircularShortBuffer sb : averagedSamplesBuffers) {
-                    if (sb != null) sb.clear();
-                }
-            }
-        }
+    // Publishes specified snapshot to the reader and takes over the previously published one
+    private void publish(@NonNull ProcessingSnapshot snapshot) {
+        snapshot.sequence = ++sequence;
+        last = snapshot;
+        back = published.getAndSet(snapshot);
+    }
+
+    // Starts new epoch by publishing an empty snapshot with current buffer dimensions
+    private void publishEmptySnapshot() {
+        epoch++;
+        publish(createSnapshot());
     }
 }
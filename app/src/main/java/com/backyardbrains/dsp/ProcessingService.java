@@ -59,6 +59,7 @@ import com.backyardbrains.events.UsbDeviceConnectionEvent;
 import com.backyardbrains.events.UsbPermissionEvent;
 import com.backyardbrains.events.UsbSignalSourceDisconnectEvent;
 import com.backyardbrains.filters.BandFilter;
+import com.backyardbrains.filters.FilterChain;
 import com.backyardbrains.filters.NotchFilter;
 import com.backyardbrains.ui.MainActivity;
 import com.backyardbrains.utils.ApacheCommonsLang3Utils;
@@ -66,6 +67,7 @@ import com.backyardbrains.utils.AudioUtils;
 import com.backyardbrains.utils.ExpansionBoardType;
 import com.backyardbrains.utils.HumanSpikerBoardState;
 import com.backyardbrains.utils.JniUtils;
+import com.backyardbrains.utils.PrefUtils;
 import com.backyardbrains.utils.SignalAveragingTriggerType;
 import com.backyardbrains.utils.SpikerBoxHardwareType;
 import com.backyardbrains.utils.ViewUtils;
@@ -424,6 +426,40 @@ public class ProcessingService extends Service implements SignalProcessor.OnProc
         FILTERS.setNotchFilter(filter);
     }
 
+    /**
+     * Returns user defined filter chain that replaces band and notch filters, or {@code null} if it's not set.
+     */
+    @Nullable public FilterChain getFilterChain() {
+        return signalProcessor.getFilterChain();
+    }
+
+    /**
+     * Sets user defined filter chain that replaces band and notch filters while it's set. Chain is swapped in
+     * mid-stream, before the next batch of samples is filtered. Passing {@code null} clears the chain.
+     *
+     * @return Whether the chain has been set. Chain is rejected if it can't be designed for the current sample rate or
+     * if it's too expensive to keep up with it.
+     */
+    public boolean setFilterChain(@Nullable FilterChain filterChain) {
+        return signalProcessor.setFilterChain(filterChain);
+    }
+
+    /**
+     * Returns configuration of the spectrogram computed while FFT processing is on.
+     */
+    @NonNull public SpectrogramConfig getSpectrogramConfig() {
+        return signalProcessor.getSpectrogramConfig();
+    }
+
+    /**
+     * Sets configuration of the spectrogram computed while FFT processing is on, e.g.
+     * {@link SpectrogramConfig#FULL_BAND} to show all the frequencies of EEG signal. Spectrogram starts over with the
+     * next batch of samples.
+     */
+    public void setSpectrogramConfig(@NonNull SpectrogramConfig spectrogramConfig) {
+        signalProcessor.setSpectrogramConfig(spectrogramConfig);
+    }
+
     private void updateSignalProcessorBoardType(@SpikerBoxHardwareType int boardType) {
         signalProcessor.setBoardType(boardType);
     }
@@ -943,7 +979,8 @@ public class ProcessingService extends Service implements SignalProcessor.OnProc
         LOGD(TAG, "startRecording()");
         try {
             if (!isRecording()) {
-                recorder.startRecording(signalProcessor.getSampleRate(), signalProcessor.getVisibleChannelCount());
+                recorder.startRecording(signalProcessor.getSampleRate(), signalProcessor.getVisibleChannelCount(),
+                    PrefUtils.getLosslessRecording(getApplicationContext()));
             }
 
             // post that recording of audio has started
@@ -0,0 +1,328 @@
+package com.backyardbrains.dsp;
+
+import androidx.annotation.NonNull;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Holds the latest window of processed samples, averaged samples, events and FFT data as published by
+ * {@link ProcessingBuffer}. Samples and FFT windows are kept in rings sized to the processing window and are
+ * accompanied by the total number of values ever written so reader can pick up only the data it hasn't seen yet.
+ * <p/>
+ * Snapshot is only modified by the processing thread while it's not published. Once published it's not modified until
+ * it's handed back to the processing thread, so readers can access it without any locking.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public final class ProcessingSnapshot {
+
+    // Incremented every time processing buffers are reset or cleared
+    final int epoch;
+    // Sequence number under which snapshot was published. Reader checks it on the published snapshot which the
+    // processing thread might already be taking back and republishing, so it needs to be volatile
+    volatile long sequence;
+
+    // Sample rings by channel
+    final short[][] samples;
+    // Total number of samples ever written to each of the sample rings
+    final long[] sampleTotals;
+    // Averaged sample rings by channel
+    final short[][] averagedSamples;
+    // Total number of samples ever written to each of the averaged sample rings
+    final long[] averagedSampleTotals;
+    // FFT window ring
+    final float[][] fft;
+    // Total number of FFT windows ever written to the ring
+    long fftTotal;
+    // Number of values in a single FFT window
+    final int fftWindowSize;
+    // Frequency of the highest value of each FFT window
+    final float fftMaxFrequency;
+
+    // Event indices within the sample window
+    final int[] eventIndices;
+    // Event names
+    final String[] eventNames;
+    // Number of events within the sample window
+    int eventCount;
+    // Index of the sample that was processed last (used only during playback)
+    long lastSampleIndex;
+
+    ProcessingSnapshot(int epoch, int channelCount, int sampleCount, int averagedChannelCount,
+            int averagedSampleCount, int fftWindowCount, int fftWindowSize, float fftMaxFrequency, int maxEventCount) {
+        this.epoch = epoch;
+        samples = new short[channelCount][sampleCount];
+        sampleTotals = new long[channelCount];
+        averagedSamples = new short[averagedChannelCount][averagedSampleCount];
+        averagedSampleTotals = new long[averagedChannelCount];
+        fft = new float[fftWindowCount][fftWindowSize];
+        this.fftWindowSize = fftWindowSize;
+        this.fftMaxFrequency = fftMaxFrequency;
+        eventIndices = new int[maxEventCount];
+        eventNames = new String[maxEventCount];
+    }
+
+    /**
+     * Returns epoch of this snapshot. Epoch changes whenever processing buffers are reset or cleared in which case
+     * totals start from {@code 0}.
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns sequence number under which this snapshot was published.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns number of sample channels.
+     */
+    public int getChannelCount() {
+        return samples.length;
+    }
+
+    /**
+     * Returns number of averaged sample channels.
+     */
+    public int getAveragedChannelCount() {
+        return averagedSamples.length;
+    }
+
+    /**
+     * Returns total number of samples ever written to the specified {@code channel}.
+     */
+    public long getSampleTotal(int channel) {
+        return sampleTotals[channel];
+    }
+
+    /**
+     * Returns total number of averaged samples ever written to the specified {@code channel}.
+     */
+    public long getAveragedSampleTotal(int channel) {
+        return averagedSampleTotals[channel];
+    }
+
+    /**
+     * Returns number of windows the FFT ring holds.
+     */
+    public int getFftWindowCount() {
+        return fft.length;
+    }
+
+    /**
+     * Returns number of values in a single FFT window.
+     */
+    public int getFftWindowSize() {
+        return fftWindowSize;
+    }
+
+    /**
+     * Returns frequency of the highest value of each FFT window.
+     */
+    public float getFftMaxFrequency() {
+        return fftMaxFrequency;
+    }
+
+    /**
+     * Returns total number of FFT windows ever written.
+     */
+    public long getFftTotal() {
+        return fftTotal;
+    }
+
+    /**
+     * Returns number of events within the sample window.
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Returns index of the last processed sample. Set only during playback.
+     */
+    public long getLastSampleIndex() {
+        return lastSampleIndex;
+    }
+
+    /**
+     * Copies samples of the specified {@code channel} written after the first {@code from} samples to {@code out}.
+     * If there are more new samples than the ring or {@code out} can hold only the most recent ones are copied.
+     *
+     * @return number of copied samples
+     */
+    public int copySamples(int channel, long from, @NonNull short[] out) {
+        return copy(samples[channel], sampleTotals[channel], from, out);
+    }
+
+    /**
+     * Copies averaged samples of the specified {@code channel} written after the first {@code from} samples to {@code
+     * out}. If there are more new samples than the ring or {@code out} can hold only the most recent ones are copied.
+     *
+     * @return number of copied samples
+     */
+    public int copyAveragedSamples(int channel, long from, @NonNull short[] out) {
+        return copy(averagedSamples[channel], averagedSampleTotals[channel], from, out);
+    }
+
+    /**
+     * Copies FFT windows written after the first {@code from} windows to {@code out}. If there are more new windows
+     * than the ring or {@code out} can hold only the most recent ones are copied.
+     *
+     * @return number of copied windows
+     */
+    public int copyFft(long from, @NonNull float[][] out) {
+        final int capacity = fft.length;
+        final int count = (int) Math.min(Math.min(fftTotal - from, capacity), out.length);
+        if (count <= 0) return 0;
+
+        long position = fftTotal - count;
+        for (int i = 0; i < count; i++, position++) {
+            final float[] window = fft[(int) (position % capacity)];
+            System.arraycopy(window, 0, out[i], 0, Math.min(window.length, out[i].length));
+        }
+        return count;
+    }
+
+    /**
+     * Copies events within the sample window to {@code eventIndices} and {@code eventNames}.
+     *
+     * @return number of copied events
+     */
+    public int copyEvents(@NonNull int[] eventIndices, @NonNull String[] eventNames) {
+        final int count = Math.min(eventCount, Math.min(eventIndices.length, eventNames.length));
+        System.arraycopy(this.eventIndices, 0, eventIndices, 0, count);
+        System.arraycopy(this.eventNames, 0, eventNames, 0, count);
+        return count;
+    }
+
+    // Brings this snapshot up to date with the specified, more recent, snapshot by copying only the data this one
+    // is missing
+    void catchUp(@NonNull ProcessingSnapshot source) {
+        for (int i = 0; i < samples.length; i++) {
+            catchUp(samples[i], sampleTotals[i], source.samples[i], source.sampleTotals[i]);
+            sampleTotals[i] = source.sampleTotals[i];
+        }
+        for (int i = 0; i < averagedSamples.length; i++) {
+            catchUp(averagedSamples[i], averagedSampleTotals[i], source.averagedSamples[i],
+                    source.averagedSampleTotals[i]);
+            averagedSampleTotals[i] = source.averagedSampleTotals[i];
+        }
+        final int capacity = fft.length;
+        for (long position = Math.max(fftTotal, source.fftTotal - capacity); position < source.fftTotal;
+                position++) {
+            final int index = (int) (position % capacity);
+            System.arraycopy(source.fft[index], 0, fft[index], 0, fft[index].length);
+        }
+        fftTotal = source.fftTotal;
+    }
+
+    // Appends specified number of samples from the heap array to the channel's ring
+    void putSamples(int channel, @NonNull short[] src, int length) {
+        sampleTotals[channel] = put(samples[channel], sampleTotals[channel], src, length);
+    }
+
+    // Appends specified number of samples from the direct buffer to the channel's ring
+    void putSamples(int channel, @NonNull ShortBuffer src, int length) {
+        sampleTotals[channel] = put(samples[channel], sampleTotals[channel], src, length);
+    }
+
+    // Appends specified number of averaged samples from the heap array to the channel's ring
+    void putAveragedSamples(int channel, @NonNull short[] src, int length) {
+        averagedSampleTotals[channel] = put(averagedSamples[channel], averagedSampleTotals[channel], src, length);
+    }
+
+    // Appends specified number of averaged samples from the direct buffer to the channel's ring
+    void putAveragedSamples(int channel, @NonNull ShortBuffer src, int length) {
+        averagedSampleTotals[channel] = put(averagedSamples[channel], averagedSampleTotals[channel], src, length);
+    }
+
+    // Appends specified number of FFT windows from the heap array to the ring
+    void putFft(@NonNull float[][] src, int windowCount) {
+        final int capacity = fft.length;
+        for (int i = Math.max(0, windowCount - capacity); i < windowCount; i++) {
+            final float[] window = fft[(int) (fftTotal % capacity)];
+            System.arraycopy(src[i], 0, window, 0, Math.min(src[i].length, window.length));
+            fftTotal++;
+        }
+    }
+
+    // Appends specified number of FFT windows from the direct buffer, in which windows are stored one after another
+    // every windowStride floats, to the ring
+    void putFft(@NonNull FloatBuffer src, int windowCount, int windowStride) {
+        final int capacity = fft.length;
+        for (int i = Math.max(0, windowCount - capacity); i < windowCount; i++) {
+            final float[] window = fft[(int) (fftTotal % capacity)];
+            src.position(i * windowStride);
+            src.get(window, 0, Math.min(windowStride, window.length));
+            fftTotal++;
+        }
+        src.rewind();
+    }
+
+    // Copies ring values written after the first "from" values to "out" and returns number of copied values
+    private static int copy(short[] ring, long total, long from, short[] out) {
+        final int capacity = ring.length;
+        final int count = (int) Math.min(Math.min(total - from, capacity), out.length);
+        if (count <= 0) return 0;
+
+        final int start = (int) ((total - count) % capacity);
+        final int count1 = Math.min(count, capacity - start);
+        System.arraycopy(ring, start, out, 0, count1);
+        // ring end reached, continue from the beginning
+        if (count1 < count) System.arraycopy(ring, 0, out, count1, count - count1);
+        return count;
+    }
+
+    // Copies the values "ring" is missing from the equally sized "source" ring
+    private static void catchUp(short[] ring, long total, short[] source, long sourceTotal) {
+        final int capacity = ring.length;
+        if (capacity == 0) return;
+
+        final long from = Math.max(total, sourceTotal - capacity);
+        final int count = (int) (sourceTotal - from);
+        if (count <= 0) return;
+
+        final int start = (int) (from % capacity);
+        final int count1 = Math.min(count, capacity - start);
+        System.arraycopy(source, start, ring, start, count1);
+        // ring end reached, continue from the beginning
+        if (count1 < count) System.arraycopy(source, 0, ring, 0, count - count1);
+    }
+
+    // Appends "length" values from "src" to the ring and returns the new total
+    private static long put(short[] ring, long total, short[] src, int length) {
+        final int capacity = ring.length;
+        if (capacity == 0 || length <= 0) return total;
+
+        // only the most recent values fit the ring
+        final int skip = Math.max(0, length - capacity);
+        final int count = length - skip;
+        final int start = (int) ((total + skip) % capacity);
+        final int count1 = Math.min(count, capacity - start);
+        System.arraycopy(src, skip, ring, start, count1);
+        // ring end reached, continue from the beginning
+        if (count1 < count) System.arraycopy(src, skip + count1, ring, 0, count - count1);
+        return total + length;
+    }
+
+    // Appends "length" values from "src" to the ring and returns the new total
+    private static long put(short[] ring, long total, ShortBuffer src, int length) {
+        final int capacity = ring.length;
+        if (capacity == 0 || length <= 0) return total;
+
+        // only the most recent values fit the ring
+        final int skip = Math.max(0, length - capacity);
+        final int count = length - skip;
+        final int start = (int) ((total + skip) % capacity);
+        final int count1 = Math.min(count, capacity - start);
+        src.position(skip);
+        src.get(ring, start, count1);
+        // ring end reached, continue from the beginning
+        if (count1 < count) src.get(ring, 0, count - count1);
+        src.rewind();
+        return total + length;
+    }
+}
@@ -2,9 +2,15 @@ package com.backyardbrains.dsp;
 
 import androidx.annotation.NonNull;
 import com.backyardbrains.utils.EventUtils;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 
 /**
  * Data holder class that hold samples, events and last sample index after processing.
+ * <p>
+ * When created as direct, samples are held in pre-allocated direct buffers (one per channel) instead of {@link
+ * #samples} arrays so native code can read and write them in place without copying.
  *
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
@@ -17,6 +23,8 @@ public class SignalData {
     public int bitsPerSample;
 
     public short[][] samples;
+    public ShortBuffer[] directSamples;
+    public boolean direct;
     public int[] sampleCounts;
     public int[] eventIndices;
     public String[] eventNames;
@@ -24,13 +32,26 @@ public class SignalData {
     public long lastSampleIndex = -1;
 
     public SignalData(int channelCount, int maxSamplesPerChannel, int bitsPerSample) {
+        this(channelCount, maxSamplesPerChannel, bitsPerSample, false);
+    }
+
+    public SignalData(int channelCount, int maxSamplesPerChannel, int bitsPerSample, boolean direct) {
         this.channelCount = channelCount;
         this.maxSamplesPerChannel = maxSamplesPerChannel;
         this.bitsPerSample = bitsPerSample;
+        this.direct = direct;
 
         this.samples = new short[channelCount][];
+        if (direct) this.directSamples = new ShortBuffer[channelCount];
         for (int i = 0; i < channelCount; i++) {
-            this.samples[i] = new short[maxSamplesPerChannel];
+            if (direct) {
+                this.samples[i] = new short[0];
+                this.directSamples[i] = ByteBuffer.allocateDirect(maxSamplesPerChannel * 2)
+                        .order(ByteOrder.nativeOrder())
+                        .asShortBuffer();
+            } else {
+                this.samples[i] = new short[maxSamplesPerChannel];
+            }
         }
         this.sampleCounts = new int[channelCount];
         this.eventIndices = new int[EVENT_BUFFER_SIZE];
@@ -46,6 +67,7 @@ public class SignalData {
         for (int i = 0; i < channelCount; i++) {
             if (signalConfiguration.isChannelVisible(i)) {
                 signalData.samples[counter] = samples[i];
+                if (direct && signalData.direct) signalData.directSamples[counter] = directSamples[i];
                 signalData.sampleCounts[counter++] = sampleCounts[i];
             }
         }
@@ -5,17 +5,21 @@ import androidx.annotation.Nullable;
 
 import com.backyardbrains.dsp.audio.PlaybackSignalSource;
 import com.backyardbrains.dsp.usb.AbstractUsbSignalSource;
+import com.backyardbrains.filters.FilterChain;
 import com.backyardbrains.utils.AudioUtils;
+import com.backyardbrains.utils.Benchmark;
+import com.backyardbrains.utils.BlockingCircularByteBuffer;
 import com.backyardbrains.utils.ExpansionBoardType;
+import com.backyardbrains.utils.JniCounters;
 import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.SignalAveragingTriggerType;
 import com.backyardbrains.utils.SpikerBoxHardwareType;
 
 import java.util.concurrent.atomic.AtomicBoolean;
-
-import org.greenrobot.essentials.io.CircularByteBuffer;
+import java.util.concurrent.locks.LockSupport;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGW;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
 import android.util.Log;
@@ -36,24 +40,16 @@ public class SignalProcessor implements SignalSource.Processor {
     private static final float MAX_THRESHOLD_PROCESSING_TIME = 2.4f; // 2.4 seconds
     // Maximum time that should be processed when processing FFT
     private static final float MAX_FFT_PROCESSING_TIME = 6f;
-    // We only look at approx. 30% of the fft data cause we only want to analyze low frequency
-    private static final int FFT_30HZ_LENGTH = 32; // ~30%
-    // Percent of overlap between to consecutive FFT windows
-    private static final int FFT_WINDOW_OVERLAP_PERCENT = 99;
-    // Length of a single FFT window in seconds
-    private static final float FFT_WINDOW_TIME_LENGTH = 4f; // 2^2
-    // Sample rate that is used when processing FFT
-    private static final int FFT_SAMPLE_RATE = 128; // 2^7
-    // Number of samples in a single FFT window
-    private static final int FFT_WINDOW_SAMPLE_COUNT = (int) (FFT_WINDOW_TIME_LENGTH * FFT_SAMPLE_RATE); // 2^9
-    // Number of samples between two FFT windows
-    private static final int FFT_WINDOW_SAMPLE_DIFF_COUNT =
-            (int) (FFT_WINDOW_SAMPLE_COUNT * (1.0f - (FFT_WINDOW_OVERLAP_PERCENT / 100.0f)));
-    // Number of FFT windows needed to render 6s of signal
-    public static final int FFT_WINDOW_COUNT =
-            (int) ((MAX_AUDIO_PROCESSING_TIME * FFT_SAMPLE_RATE) / FFT_WINDOW_SAMPLE_DIFF_COUNT);
-    // Size of of a single FFT
-    public static final int FFT_WINDOW_SIZE = (int) (FFT_30HZ_LENGTH * FFT_WINDOW_TIME_LENGTH); // 32 / (128 / 512)
+    // Amount of incoming signal that needs to be buffered before processing thread is woken up
+    private static final float PROCESSING_WAKE_UP_TIME = .01f; // 10 ms
+    // Max time processing thread waits for the wake up amount of signal to be buffered
+    private static final long PROCESSING_MAX_WAIT_TIME_MS = 20; // 20 ms
+    // Whether incoming data should be processed by the native pipeline within a single native call
+    private static final boolean PROCESS_IN_PIPELINE = true;
+    // Whether batch processing time should be measured and logged (flip PROCESS_IN_PIPELINE to compare)
+    private static final boolean BENCHMARK_PROCESSING = false;
+    // Max share of real time user defined filter chain can take to filter all the channels
+    private static final float MAX_FILTER_CHAIN_LOAD = .25f;
 
     // Default sample rate
     public static final int DEFAULT_SAMPLE_RATE = AudioUtils.DEFAULT_SAMPLE_RATE;
@@ -68,16 +64,20 @@ public class SignalProcessor implements SignalSource.Processor {
     public static final int DEFAULT_PROCESSED_AVERAGED_SAMPLES_PER_CHANNEL_COUNT =
             (int) (MAX_THRESHOLD_PROCESSING_TIME * DEFAULT_SAMPLE_RATE);
 
-    // Max number of samples in a single FFT window achievable
-    private static final int MAX_FFT_WINDOW_SAMPLE_COUNT = (int) (FFT_WINDOW_TIME_LENGTH * DEFAULT_SAMPLE_RATE);
-    // Max number of samples between two FFT windows achievable
-    private static final int MAX_FFT_WINDOW_SAMPLE_DIFF_COUNT =
-            (int) (MAX_FFT_WINDOW_SAMPLE_COUNT * (1.0f - (FFT_WINDOW_OVERLAP_PERCENT / 100.0f)));
+    // Layout of the default spectrogram at default sample rate
+    private static final SpectrogramConfig.Layout DEFAULT_SPECTROGRAM_LAYOUT =
+            SpectrogramConfig.DEFAULT.layout(DEFAULT_SAMPLE_RATE, MAX_FFT_PROCESSING_TIME);
+    // Number of FFT windows needed to render 6s of signal with default spectrogram
+    public static final int FFT_WINDOW_COUNT = DEFAULT_SPECTROGRAM_LAYOUT.columnCount;
+    // Size of of a single FFT with default spectrogram
+    public static final int FFT_WINDOW_SIZE = DEFAULT_SPECTROGRAM_LAYOUT.binCount;
+    // Frequency of the highest FFT value with default spectrogram
+    public static final float FFT_MAX_FREQUENCY = DEFAULT_SPECTROGRAM_LAYOUT.maxFrequency;
+
     // Max number of samples that can be processed at any given moment
-    // 153 FFT windows of 4s * 44100Hz * 8 channels
+    // 6s of FFT windows preceded by the longest window (4s) * 44100Hz * 8 channels
     public static final int MAX_PROCESSED_SAMPLES_COUNT =
-            (FFT_WINDOW_COUNT * MAX_FFT_WINDOW_SAMPLE_DIFF_COUNT + MAX_FFT_WINDOW_SAMPLE_COUNT
-                    - MAX_FFT_WINDOW_SAMPLE_DIFF_COUNT) * 8;
+            (int) ((MAX_FFT_PROCESSING_TIME + SpectrogramConfig.MAX_WINDOW_TIME) * DEFAULT_SAMPLE_RATE) * 8;
 
     private static int processedSamplesPerChannelCount = DEFAULT_PROCESSED_SAMPLES_PER_CHANNEL_COUNT;
     private static int processedAveragedSamplesPerChannelCount = DEFAULT_PROCESSED_AVERAGED_SAMPLES_PER_CHANNEL_COUNT;
@@ -108,10 +108,15 @@ public class SignalProcessor implements SignalSource.Processor {
         @Override
         public void run() {
             while (working.get()) {
-                if (!paused.get()) {
-                    int length = ringBuffer.get(buffer);
-                    if (length > 0) processData(buffer, length);
+                if (paused.get()) {
+                    // park until processing is resumed or stopped
+                    LockSupport.park(this);
+                    continue;
                 }
+
+                // parks until enough data is buffered so we don't spin while waiting
+                int length = ringBuffer.take(buffer);
+                if (length > 0) processData(buffer, length);
             }
         }
     }
@@ -126,8 +131,8 @@ public class SignalProcessor implements SignalSource.Processor {
     AtomicBoolean paused = new AtomicBoolean();
     // Ring buffer that holds raw signal data
     @SuppressWarnings("WeakerAccess")
-    final CircularByteBuffer ringBuffer =
-            new CircularByteBuffer(MAX_PROCESSED_SAMPLES_COUNT * 2);
+    final BlockingCircularByteBuffer ringBuffer =
+            new BlockingCircularByteBuffer(MAX_PROCESSED_SAMPLES_COUNT * 2);
     // Holds raw data during processing
     @SuppressWarnings("WeakerAccess")
     final byte[] buffer = new byte[MAX_PROCESSED_SAMPLES_COUNT * 2];
@@ -137,17 +142,25 @@ public class SignalProcessor implements SignalSource.Processor {
     // Holds signal data after processing raw signal together with processed events
     private SignalData signalData =
             new SignalData(AudioUtils.DEFAULT_CHANNEL_COUNT, DEFAULT_PROCESSED_SAMPLES_PER_CHANNEL_COUNT,
-                    AudioUtils.DEFAULT_BITS_PER_SAMPLE);
+                    AudioUtils.DEFAULT_BITS_PER_SAMPLE, true);
     // Holds processed signal data of only visible channels
     private SignalData visibleSignalData =
             new SignalData(AudioUtils.DEFAULT_CHANNEL_COUNT, DEFAULT_PROCESSED_SAMPLES_PER_CHANNEL_COUNT,
-                    AudioUtils.DEFAULT_BITS_PER_SAMPLE);
+                    AudioUtils.DEFAULT_BITS_PER_SAMPLE, true);
     // Holds processed signal data of only visible channels after averaging
     private SignalData averagedSignalData =
             new SignalData(AudioUtils.DEFAULT_CHANNEL_COUNT, DEFAULT_PROCESSED_AVERAGED_SAMPLES_PER_CHANNEL_COUNT,
-                    AudioUtils.DEFAULT_BITS_PER_SAMPLE);
+                    AudioUtils.DEFAULT_BITS_PER_SAMPLE, true);
     // Holds processed signal data after FFT processing
-    private FftData fft = new FftData(FFT_WINDOW_COUNT, FFT_WINDOW_SIZE);
+    private FftData fft = new FftData(FFT_WINDOW_COUNT, FFT_WINDOW_SIZE, true);
+
+    // Signal data native processing pipeline is currently set up for
+    private SignalData pipelineSignalData;
+    private SignalData pipelineVisibleSignalData;
+    private SignalData pipelineAveragedSignalData;
+    private FftData pipelineFft;
+    // Whether native processing pipeline is set up for the current signal data
+    private boolean pipelineReady;
 
     // Reference to the singleton buffer for storing data after processing
     private final ProcessingBuffer processingBuffer;
@@ -158,6 +171,14 @@ public class SignalProcessor implements SignalSource.Processor {
     // Incoming signal source
     private AbstractSignalSource signalSource;
 
+    // User defined filter chain that replaces band and notch filters, null if not set
+    private FilterChain filterChain;
+
+    // Configuration of the spectrogram computed when FFT processing is on
+    private SpectrogramConfig spectrogramConfig = SpectrogramConfig.DEFAULT;
+    // Layout of the spectrogram for the current sample rate
+    private SpectrogramConfig.Layout spectrogramLayout = DEFAULT_SPECTROGRAM_LAYOUT;
+
     private final AbstractUsbSignalSource.OnSpikerBoxHardwareTypeDetectionListener spikerBoxDetectionListener =
             hardwareType -> {
                 if (hardwareType == SpikerBoxHardwareType.HHIBOX||hardwareType == SpikerBoxHardwareType.HUMAN_PRO ||hardwareType == SpikerBoxHardwareType.NEURON_PRO || hardwareType == SpikerBoxHardwareType.MUSCLE_PRO) {
@@ -187,6 +208,8 @@ public class SignalProcessor implements SignalSource.Processor {
         processingThread = new ProcessingThread();
         processingBuffer = ProcessingBuffer.get();
         signalConfiguration = SignalConfiguration.get();
+
+        updateWakeUpThreshold();
     }
 
     /**
@@ -208,6 +231,8 @@ public class SignalProcessor implements SignalSource.Processor {
     @Override
     public void onSampleRateChanged(int sampleRate) {
         synchronized (lock) {
+            // lay out spectrogram for the new sample rate
+            applySpectrogramConfig(sampleRate);
             // calculate max number of processed and drawn samples
             calculateMaxNumberOfProcessedSamples(sampleRate);
             calculateMaxNumberOfDrawnSamples(sampleRate, signalConfiguration.isSignalAveraging(),
@@ -220,8 +245,14 @@ public class SignalProcessor implements SignalSource.Processor {
             processingBuffer.resetAllSampleBuffers(signalConfiguration.getChannelCount(),
                     signalConfiguration.getVisibleChannelCount());
         }
-        // pass sample rate to native code
-        JniUtils.setSampleRate(sampleRate);
+        // update amount of data processing thread waits for
+        updateWakeUpThreshold();
+        synchronized (lock) {
+            // pass sample rate to native code
+            JniUtils.setSampleRate(sampleRate);
+            // native code drops the filter chain when sample rate changes so it needs to be redesigned
+            reapplyFilterChain();
+        }
     }
 
     /**
@@ -242,14 +273,21 @@ public class SignalProcessor implements SignalSource.Processor {
             processingBuffer.resetAllSampleBuffers(channelCount, visibleChannelCount);
 
             // reset buffers
-            signalData = new SignalData(channelCount, processedSamplesPerChannelCount, bitsPerSample);
-            visibleSignalData = new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample);
+            signalData = new SignalData(channelCount, processedSamplesPerChannelCount, bitsPerSample, true);
+            visibleSignalData =
+                    new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample, true);
             averagedSignalData =
-                    new SignalData(visibleChannelCount, processedAveragedSamplesPerChannelCount, bitsPerSample);
+                    new SignalData(visibleChannelCount, processedAveragedSamplesPerChannelCount, bitsPerSample, true);
         }
+        // update amount of data processing thread waits for
+        updateWakeUpThreshold();
 
-        // pass channel count to native code
-        JniUtils.setChannelCount(channelCount);
+        synchronized (lock) {
+            // pass channel count to native code
+            JniUtils.setChannelCount(channelCount);
+            // more channels take more time to filter
+            reapplyFilterChain();
+        }
     }
 
     /**
@@ -265,11 +303,14 @@ public class SignalProcessor implements SignalSource.Processor {
         final int visibleChannelCount = signalConfiguration.getVisibleChannelCount();
 
         // reset buffers
-        signalData =
-                new SignalData(signalConfiguration.getChannelCount(), processedSamplesPerChannelCount, bitsPerSample);
-        visibleSignalData = new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample);
+        signalData = new SignalData(signalConfiguration.getChannelCount(), processedSamplesPerChannelCount,
+                bitsPerSample, true);
+        visibleSignalData =
+                new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample, true);
         averagedSignalData =
-                new SignalData(visibleChannelCount, processedAveragedSamplesPerChannelCount, bitsPerSample);
+                new SignalData(visibleChannelCount, processedAveragedSamplesPerChannelCount, bitsPerSample, true);
+        // update amount of data processing thread waits for
+        updateWakeUpThreshold();
 
         // pass bits per sample to native code
         JniUtils.setBitsPerSample(bitsPerSample);
@@ -347,9 +388,10 @@ public class SignalProcessor implements SignalSource.Processor {
             // reset processing buffer
             processingBuffer.resetAveragedSamplesBuffer(visibleChannelCount);
 
-            visibleSignalData = new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample);
+            visibleSignalData =
+                    new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample, true);
             averagedSignalData =
-                    new SignalData(visibleChannelCount, processedAveragedSamplesPerChannelCount, bitsPerSample);
+                    new SignalData(visibleChannelCount, processedAveragedSamplesPerChannelCount, bitsPerSample, true);
         }
     }
 
@@ -368,9 +410,10 @@ public class SignalProcessor implements SignalSource.Processor {
             processingBuffer.resetAveragedSamplesBuffer(visibleChannelCount);
 
             // reset buffer
-            visibleSignalData = new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample);
+            visibleSignalData =
+                    new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample, true);
             averagedSignalData =
-                    new SignalData(visibleChannelCount, processedAveragedSamplesPerChannelCount, bitsPerSample);
+                    new SignalData(visibleChannelCount, processedAveragedSamplesPerChannelCount, bitsPerSample, true);
         }
     }
 
@@ -392,9 +435,10 @@ public class SignalProcessor implements SignalSource.Processor {
             processingBuffer.resetAveragedSamplesBuffer(visibleChannelCount);
 
             // reset buffers
-            visibleSignalData = new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample);
+            visibleSignalData =
+                    new SignalData(visibleChannelCount, processedSamplesPerChannelCount, bitsPerSample, true);
             averagedSignalData =
-                    new SignalData(visibleChannelCount, processedAveragedSamplesPerChannelCount, bitsPerSample);
+                    new SignalData(visibleChannelCount, processedAveragedSamplesPerChannelCount, bitsPerSample, true);
         }
     }
 
@@ -508,6 +552,67 @@ public class SignalProcessor implements SignalSource.Processor {
         }
     }
 
+    /**
+     * Returns user defined filter chain that replaces band and notch filters, or {@code null} if it's not set.
+     */
+    @Nullable FilterChain getFilterChain() {
+        synchronized (lock) {
+            return filterChain;
+        }
+    }
+
+    /**
+     * Sets user defined filter chain that replaces band and notch filters. Chain is designed for the current sample
+     * rate and swapped in before the next batch of samples is filtered. Chain is rejected if it can't be designed for
+     * the current sample rate or if filtering all the channels would take more than {@link #MAX_FILTER_CHAIN_LOAD} of
+     * real time. Passing {@code null} clears the chain.
+     *
+     * @return Whether the chain has been set.
+     */
+    boolean setFilterChain(@Nullable FilterChain filterChain) {
+        LOGD(TAG, "setFilterChain(" + filterChain + ")");
+
+        synchronized (lock) {
+            this.filterChain = filterChain;
+            if (filterChain != null) return applyFilterChain();
+
+            JniUtils.setFilterChain(null);
+            return true;
+        }
+    }
+
+    /**
+     * Returns configuration of the spectrogram computed when FFT processing is on.
+     */
+    @NonNull SpectrogramConfig getSpectrogramConfig() {
+        synchronized (lock) {
+            return spectrogramConfig;
+        }
+    }
+
+    /**
+     * Sets configuration of the spectrogram computed when FFT processing is on. Spectrogram is laid out for the
+     * current sample rate and starts over with the next batch of samples.
+     */
+    void setSpectrogramConfig(@NonNull SpectrogramConfig spectrogramConfig) {
+        LOGD(TAG, "setSpectrogramConfig(" + spectrogramConfig + ")");
+
+        final boolean processedSamplesCountChanged;
+        synchronized (lock) {
+            if (this.spectrogramConfig.equals(spectrogramConfig)) return;
+
+            this.spectrogramConfig = spectrogramConfig;
+            applySpectrogramConfig(signalConfiguration.getSampleRate());
+
+            // played back signal needs to hold enough samples to compute the whole spectrogram when sought
+            final int processedSamplesCount = processedSamplesPerChannelCount;
+            calculateMaxNumberOfProcessedSamples(signalConfiguration.getSampleRate());
+            processedSamplesCountChanged = processedSamplesCount != processedSamplesPerChannelCount;
+        }
+        // signal buffers need to be recreated to hold the new number of processed samples
+        if (processedSamplesCountChanged) onChannelCountChanged(signalConfiguration.getChannelCount());
+    }
+
     /**
      * A data source that will provide data to data processor and notify it when different events occur.
      */
@@ -560,6 +665,8 @@ public class SignalProcessor implements SignalSource.Processor {
      */
     void pause() {
         paused.set(true);
+        // wake up processing thread so it can park until resumed
+        ringBuffer.wakeUp();
     }
 
     /**
@@ -567,6 +674,7 @@ public class SignalProcessor implements SignalSource.Processor {
      */
     void resume() {
         paused.set(false);
+        if (processingThread != null) LockSupport.unpark(processingThread);
     }
 
     /**
@@ -574,38 +682,75 @@ public class SignalProcessor implements SignalSource.Processor {
      */
     void stop() {
         working.set(false);
-        if (processingThread != null) processingThread = null;
+        // wake up processing thread so it can finish
+        ringBuffer.wakeUp();
+        if (processingThread != null) {
+            LockSupport.unpark(processingThread);
+            processingThread = null;
+        }
+        synchronized (lock) {
+            // release references held by native pipeline, processing thread doesn't process any more data once it
+            // gets the lock
+            JniUtils.releasePipeline();
+            pipelineSignalData = null;
+            pipelineVisibleSignalData = null;
+            pipelineAveragedSignalData = null;
+            pipelineFft = null;
+            pipelineReady = false;
+        }
     }
 
-    //private final Benchmark benchmark =
-    //    new Benchmark("FFT_PROCESSING").warmUp(200).sessions(10).measuresPerSession(200).logBySession(false);
+    // Counts bytes copied between java and native memory and native allocations while processing is benchmarked
+    private final JniCounters jniCounters = BENCHMARK_PROCESSING ? new JniCounters() : null;
+    // Measures processing time of a single batch, only created when processing is benchmarked
+    private final Benchmark benchmark = BENCHMARK_PROCESSING ?
+            new Benchmark(PROCESS_IN_PIPELINE ? "PROCESSING_PIPELINE" : "PROCESSING_PER_STEP").warmUp(200)
+                    .sessions(10)
+                    .measuresPerSession(200)
+                    .logBySession(false)
+                    .listener(() -> jniCounters.sampleAndLog()) : null;
 
     @SuppressWarnings("WeakerAccess")
     void processData(@NonNull byte[] buffer, int length) {
         try {
 
             synchronized (lock) {
-                // process incoming signal
-                //benchmark.start();
-                signalSource.processIncomingData(signalData, buffer, length);
-                //benchmark.end();
-
-                if (visibleSignalData.channelCount > 0) { // only configure channels if there is at least one visible
-                    final boolean signalAveraging = signalConfiguration.isSignalAveraging();
-                    // configure channels of processed signal
-                    signalData.copyReconfigured(visibleSignalData, signalConfiguration);
-                    // average processed signal
-                    JniUtils.processThreshold(averagedSignalData, visibleSignalData, signalAveraging);
-                    //benchmark.start();
-                    if (!signalAveraging) JniUtils.processFft(fft, visibleSignalData);
-                    //benchmark.end();
+                // processing could have been stopped while this thread waited for the lock, pipeline is then released
+                // and shouldn't be set up again
+                if (!working.get()) return;
+
+                if (BENCHMARK_PROCESSING) benchmark.start();
+
+                final boolean signalAveraging = signalConfiguration.isSignalAveraging();
+                if (PROCESS_IN_PIPELINE && preparePipeline()) {
+                    // decode, configure, average and analyze incoming signal within a single native call
+                    signalSource.processIncomingDataInPipeline(signalData, buffer, length, signalAveraging);
 
                     // forward received samples to Processing Service
-                    if (listener != null) listener.onDataProcessed(visibleSignalData);
+                    if (visibleSignalData.channelCount > 0 && listener != null) {
+                        listener.onDataProcessed(visibleSignalData);
+                    }
+                } else {
+                    // process incoming signal
+                    signalSource.processIncomingData(signalData, buffer, length);
+
+                    // only configure channels if there is at least one visible
+                    if (visibleSignalData.channelCount > 0) {
+                        // configure channels of processed signal
+                        signalData.copyReconfigured(visibleSignalData, signalConfiguration);
+                        // average processed signal
+                        JniUtils.processThreshold(averagedSignalData, visibleSignalData, signalAveraging);
+                        if (!signalAveraging) JniUtils.processFft(fft, visibleSignalData);
+
+                        // forward received samples to Processing Service
+                        if (listener != null) listener.onDataProcessed(visibleSignalData);
+                    }
                 }
 
                 // add to buffer
                 processingBuffer.add(signalData, averagedSignalData, fft);
+
+                if (BENCHMARK_PROCESSING) benchmark.end();
             }
         }catch (Exception e){
 
@@ -613,6 +758,85 @@ public class SignalProcessor implements SignalSource.Processor {
 
     }
 
+    // Applies filter chain again if it's set, after sample rate or channel count has changed
+    private void reapplyFilterChain() {
+        synchronized (lock) {
+            if (filterChain != null) applyFilterChain();
+        }
+    }
+
+    // Designs filter chain for the current sample rate and passes it to native code if it fits into the time budget,
+    // otherwise drops it. Returns whether the chain has been applied. Needs to be called while holding the lock.
+    private boolean applyFilterChain() {
+        final int sampleRate = signalConfiguration.getSampleRate();
+        final int channelCount = signalConfiguration.getChannelCount();
+        if (!filterChain.isSupported(sampleRate)) {
+            LOGW(TAG, "Filter chain can't be designed for sample rate " + sampleRate + " and will be dropped");
+            filterChain = null;
+            JniUtils.setFilterChain(null);
+            return false;
+        }
+
+        final float[] coefficients = filterChain.design(sampleRate);
+        final float load = JniUtils.measureFilterLoad(coefficients, sampleRate, channelCount);
+        if (load > MAX_FILTER_CHAIN_LOAD) {
+            LOGW(TAG, "Filter chain takes " + load + " of real time for " + channelCount + " channels at "
+                    + sampleRate + " Hz and will be dropped");
+            filterChain = null;
+            JniUtils.setFilterChain(null);
+            return false;
+        }
+
+        JniUtils.setFilterChain(coefficients);
+        return true;
+    }
+
+    // Lays out the spectrogram for specified sample rate, passes the layout to native code and resizes FFT buffers
+    private void applySpectrogramConfig(int sampleRate) {
+        // keep the previous layout until sample rate is known
+        if (sampleRate <= 0) return;
+
+        spectrogramLayout = spectrogramConfig.layout(sampleRate, MAX_FFT_PROCESSING_TIME);
+        LOGD(TAG, "Spectrogram computes " + spectrogramLayout.columnsPerSecond + " columns/s of "
+                + spectrogramLayout.binCount + " bins up to " + spectrogramLayout.maxFrequency + " Hz");
+
+        JniUtils.setSpectrogramLayout(spectrogramLayout.decimation, spectrogramLayout.windowSampleCount,
+                spectrogramLayout.hopSampleCount, spectrogramConfig.getWindowFunction(),
+                spectrogramLayout.fftBinCount, spectrogramLayout.binCount);
+        if (fft.maxWindowCount != spectrogramLayout.columnCount
+                || fft.maxWindowSize != spectrogramLayout.binCount) {
+            fft = new FftData(spectrogramLayout.columnCount, spectrogramLayout.binCount, true);
+        }
+        processingBuffer.resetFftBuffer(spectrogramLayout.columnCount, spectrogramLayout.binCount,
+                spectrogramLayout.maxFrequency);
+    }
+
+    // Sets up native processing pipeline if signal data has been replaced since the pipeline was last set up.
+    // Returns whether pipeline can be used for processing.
+    private boolean preparePipeline() {
+        if (pipelineSignalData != signalData || pipelineVisibleSignalData != visibleSignalData
+                || pipelineAveragedSignalData != averagedSignalData || pipelineFft != fft) {
+            pipelineSignalData = signalData;
+            pipelineVisibleSignalData = visibleSignalData;
+            pipelineAveragedSignalData = averagedSignalData;
+            pipelineFft = fft;
+
+            // visible channels share samples and events with all channels so pipeline only needs to update counts
+            signalData.copyReconfigured(visibleSignalData, signalConfiguration);
+
+            final int channelCount = signalConfiguration.getChannelCount();
+            final int[] visibleChannels = new int[visibleSignalData.channelCount];
+            int counter = 0;
+            for (int i = 0; i < channelCount && counter < visibleChannels.length; i++) {
+                if (signalConfiguration.isChannelVisible(i)) visibleChannels[counter++] = i;
+            }
+            pipelineReady = channelCount == signalData.channelCount && counter == visibleChannels.length
+                    && JniUtils.setupPipeline(signalData, visibleSignalData, averagedSignalData, fft, visibleChannels);
+        }
+
+        return pipelineReady;
+    }
+
     // Set max number of samples that can bEe processed in normal processing, in threshold and in fft
     private void calculateMaxNumberOfProcessedSamples(int sampleRate) {
         processedSamplesPerChannelCount = (int) (MAX_AUDIO_PROCESSING_TIME * sampleRate);
@@ -621,15 +845,21 @@ public class SignalProcessor implements SignalSource.Processor {
             if (signalSource.isUsb()) {
                 processedSamplesPerChannelCount = (int) (MAX_SAMPLE_STREAM_PROCESSING_TIME * sampleRate);
             } else if (signalSource.isFile()) {
-                int windowSampleCount = (int) (FFT_WINDOW_TIME_LENGTH * sampleRate);
-                int windowSampleDiffCount = (int) (windowSampleCount * (1.0f - (FFT_WINDOW_OVERLAP_PERCENT / 100.0f)));
+                // when sought, spectrogram of the whole view is computed from the processed samples
                 processedSamplesPerChannelCount =
-                        FFT_WINDOW_COUNT * windowSampleDiffCount + windowSampleCount - windowSampleDiffCount;
+                        Math.max(processedSamplesPerChannelCount, spectrogramLayout.seekSampleCount);
                 processedAveragedSamplesPerChannelCount = (int) (MAX_THRESHOLD_PROCESSING_TIME * sampleRate);
             }
         }
     }
 
+    // Sets number of bytes that need to be received before processing thread is woken up
+    private void updateWakeUpThreshold() {
+        final int bytesPerSecond = signalConfiguration.getSampleRate() * signalConfiguration.getChannelCount()
+                * signalConfiguration.getBitsPerSample() / 8;
+        ringBuffer.setWakeUpThreshold((int) (bytesPerSecond * PROCESSING_WAKE_UP_TIME), PROCESSING_MAX_WAIT_TIME_MS);
+    }
+
     private void calculateMaxNumberOfDrawnSamples(int sampleRate, boolean signalAveraging, boolean fftProcessing) {
         final float time;
         if (signalAveraging) {
@@ -0,0 +1,263 @@
+package com.backyardbrains.dsp;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+
+/**
+ * Configuration of the spectrogram that's computed from the selected channel when FFT processing is on. Spectrogram is
+ * a short-time Fourier transform computed incrementally, as the signal comes in: signal is decimated so that the
+ * highest shown frequency stays within the lower half of the decimated band, every column is computed from a window of
+ * {@link #getWindowTime()} seconds weighted by the window function, and columns are {@link #getHopTime()} seconds
+ * apart. FFT bins up to {@link #getMaxFrequency()} are max-pooled into at most {@link #getResolution()} bins per
+ * column.
+ * <p/>
+ * Actual number of samples of the window, hop and all the other values that depend on the sample rate are described
+ * by the {@link Layout} computed for the sample rate of the signal.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpectrogramConfig {
+
+    /**
+     * Window functions columns can be weighted with.
+     */
+    @Retention(RetentionPolicy.SOURCE) @IntDef({
+        WindowFunction.RECTANGULAR, WindowFunction.HANN, WindowFunction.HAMMING, WindowFunction.BLACKMAN
+    }) public @interface WindowFunction {
+        int RECTANGULAR = 0;
+        int HANN = 1;
+        int HAMMING = 2;
+        int BLACKMAN = 3;
+    }
+
+    /**
+     * Max frequency that shows all the frequencies up to the Nyquist frequency of the signal.
+     */
+    public static final float NYQUIST = Float.POSITIVE_INFINITY;
+    /**
+     * Max length of a single window in seconds, processing buffers are sized to hold the longest window.
+     */
+    public static final float MAX_WINDOW_TIME = 4f;
+    /**
+     * Max number of bins of a single column.
+     */
+    public static final int MAX_RESOLUTION = 256;
+    /**
+     * Max number of values in the whole spectrogram, spectrogram is drawn as a mesh which vertices are indexed with
+     * {@code short} indices.
+     */
+    public static final int MAX_VALUE_COUNT = Short.MAX_VALUE + 1;
+
+    /**
+     * 4 s windows, 40 ms apart, showing up to 32 Hz with 128 bins, same as the spectrogram always used to be computed.
+     */
+    public static final SpectrogramConfig LOW_FREQUENCY =
+        new SpectrogramConfig(4f, .04f, WindowFunction.RECTANGULAR, 32f, 128);
+    /**
+     * 100 ms Hann windows, 25 ms apart, showing all the frequencies up to the Nyquist frequency with 128 bins.
+     */
+    public static final SpectrogramConfig FULL_BAND =
+        new SpectrogramConfig(.1f, .025f, WindowFunction.HANN, NYQUIST, 128);
+    /**
+     * Configuration spectrogram is computed with by default.
+     */
+    public static final SpectrogramConfig DEFAULT = LOW_FREQUENCY;
+
+    /**
+     * Number of samples, bins and columns of the spectrogram for the specific sample rate.
+     */
+    public static final class Layout {
+        /**
+         * Only every {@code decimation}-th sample is passed to FFT.
+         */
+        public final int decimation;
+        /**
+         * Number of decimated samples in a single window, always a power of 2.
+         */
+        public final int windowSampleCount;
+        /**
+         * Number of decimated samples between two consecutive columns.
+         */
+        public final int hopSampleCount;
+        /**
+         * Number of the lowest FFT bins that are shown.
+         */
+        public final int fftBinCount;
+        /**
+         * Number of bins of a single column into which shown FFT bins are pooled.
+         */
+        public final int binCount;
+        /**
+         * Number of columns needed to show the whole view.
+         */
+        public final int columnCount;
+        /**
+         * Number of samples needed to compute all the columns of the view from scratch.
+         */
+        public final int seekSampleCount;
+        /**
+         * Frequency of the highest shown FFT bin.
+         */
+        public final float maxFrequency;
+        /**
+         * Number of columns computed per second of the signal.
+         */
+        public final float columnsPerSecond;
+
+        Layout(int decimation, int windowSampleCount, int hopSampleCount, int fftBinCount, int binCount,
+            int columnCount, float maxFrequency, float columnsPerSecond) {
+            this.decimation = decimation;
+            this.windowSampleCount = windowSampleCount;
+            this.hopSampleCount = hopSampleCount;
+            this.fftBinCount = fftBinCount;
+            this.binCount = binCount;
+            this.columnCount = columnCount;
+            this.seekSampleCount = ((columnCount - 1) * hopSampleCount + windowSampleCount) * decimation;
+            this.maxFrequency = maxFrequency;
+            this.columnsPerSecond = columnsPerSecond;
+        }
+    }
+
+    private final float windowTime;
+    private final float hopTime;
+    private final @WindowFunction int windowFunction;
+    private final float maxFrequency;
+    private final int resolution;
+
+    /**
+     * Creates spectrogram configuration.
+     *
+     * @param windowTime Length of a single window in seconds, rounded to the closest power of 2 number of samples.
+     * @param hopTime Time between two consecutive columns in seconds. It's prolonged if all the columns of the view
+     * wouldn't fit into {@link #MAX_VALUE_COUNT} values.
+     * @param windowFunction Window function columns are weighted with.
+     * @param maxFrequency Highest shown frequency, {@link #NYQUIST} to show all the frequencies.
+     * @param resolution Max number of bins of a single column.
+     * @throws IllegalArgumentException if any of the parameters is out of range.
+     */
+    public SpectrogramConfig(float windowTime, float hopTime, @WindowFunction int windowFunction, float maxFrequency,
+        int resolution) {
+        if (!(windowTime > 0f) || windowTime > MAX_WINDOW_TIME) {
+            throw new IllegalArgumentException(
+                "Window time needs to be positive and up to " + MAX_WINDOW_TIME + " s, was " + windowTime);
+        }
+        if (!(hopTime > 0f) || hopTime > windowTime) {
+            throw new IllegalArgumentException(
+                "Hop time needs to be positive and up to window time " + windowTime + " s, was " + hopTime);
+        }
+        if (windowFunction < WindowFunction.RECTANGULAR || windowFunction > WindowFunction.BLACKMAN) {
+            throw new IllegalArgumentException("Unknown window function " + windowFunction);
+        }
+        if (!(maxFrequency > 0f)) {
+            throw new IllegalArgumentException("Max frequency needs to be positive, was " + maxFrequency);
+        }
+        if (resolution < 1 || resolution > MAX_RESOLUTION) {
+            throw new IllegalArgumentException(
+                "Resolution needs to be between 1 and " + MAX_RESOLUTION + ", was " + resolution);
+        }
+
+        this.windowTime = windowTime;
+        this.hopTime = hopTime;
+        this.windowFunction = windowFunction;
+        this.maxFrequency = maxFrequency;
+        this.resolution = resolution;
+    }
+
+    /**
+     * Returns length of a single window in seconds.
+     */
+    public float getWindowTime() {
+        return windowTime;
+    }
+
+    /**
+     * Returns time between two consecutive columns in seconds.
+     */
+    public float getHopTime() {
+        return hopTime;
+    }
+
+    /**
+     * Returns window function columns are weighted with.
+     */
+    public @WindowFunction int getWindowFunction() {
+        return windowFunction;
+    }
+
+    /**
+     * Returns highest shown frequency, {@link #NYQUIST} if all the frequencies are shown.
+     */
+    public float getMaxFrequency() {
+        return maxFrequency;
+    }
+
+    /**
+     * Returns max number of bins of a single column.
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Computes layout of the spectrogram for the signal sampled at specified {@code sampleRate} that's shown in the
+     * view {@code viewTime} seconds long.
+     *
+     * @throws IllegalArgumentException if {@code sampleRate} is not positive.
+     */
+    @NonNull public Layout layout(int sampleRate, float viewTime) {
+        if (sampleRate <= 0) throw new IllegalArgumentException("Sample rate needs to be positive, was " + sampleRate);
+
+        final float nyquist = sampleRate * .5f;
+        final float shownFrequency = Math.min(maxFrequency, nyquist);
+        // decimated sample rate is kept at 4 times the highest shown frequency (128 Hz for 32 Hz)
+        final int decimation = Math.max(1, (int) (sampleRate / (4f * shownFrequency)));
+        final float decimatedRate = (float) sampleRate / decimation;
+
+        // FFT needs power of 2 number of samples, but window can't get longer than the longest window
+        final int maxWindowSampleCount = Integer.highestOneBit(Math.max(2, (int) (MAX_WINDOW_TIME * decimatedRate)));
+        final int windowSampleCount = Math.min(closestPowerOf2((int) (windowTime * decimatedRate)),
+            maxWindowSampleCount);
+        final int fftBinCount = Math.min(windowSampleCount / 2 + 1,
+            (int) (shownFrequency * windowSampleCount / decimatedRate) + 1);
+        final int binCount = Math.min(resolution, fftBinCount);
+
+        // hop is prolonged if needed so that the whole view fits into the mesh
+        final float viewSampleCount = viewTime * sampleRate / decimation;
+        final int maxColumnCount = Math.max(1, MAX_VALUE_COUNT / binCount);
+        int hopSampleCount = Math.max(1, Math.round(hopTime * decimatedRate));
+        hopSampleCount = Math.max(hopSampleCount, (int) Math.ceil(viewSampleCount / maxColumnCount));
+        hopSampleCount = Math.min(hopSampleCount, windowSampleCount);
+        final int columnCount = Math.max(1, Math.min((int) (viewSampleCount / hopSampleCount), maxColumnCount));
+
+        return new Layout(decimation, windowSampleCount, hopSampleCount, fftBinCount, binCount, columnCount,
+            (fftBinCount - 1) * decimatedRate / windowSampleCount, decimatedRate / hopSampleCount);
+    }
+
+    @Override public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final SpectrogramConfig that = (SpectrogramConfig) o;
+
+        return windowTime == that.windowTime && hopTime == that.hopTime && windowFunction == that.windowFunction
+            && maxFrequency == that.maxFrequency && resolution == that.resolution;
+    }
+
+    @Override public int hashCode() {
+        return Arrays.hashCode(new Object[] { windowTime, hopTime, windowFunction, maxFrequency, resolution });
+    }
+
+    @Override public String toString() {
+        return "SpectrogramConfig{windowTime=" + windowTime + ", hopTime=" + hopTime + ", windowFunction="
+            + windowFunction + ", maxFrequency=" + maxFrequency + ", resolution=" + resolution + "}";
+    }
+
+    // Returns power of 2 closest to the specified value
+    private static int closestPowerOf2(int value) {
+        final int lower = Integer.highestOneBit(Math.max(2, value));
+        return value - lower < lower * 2 - value ? lower : lower * 2;
+    }
+}
@@ -14,6 +14,22 @@ public interface AudioFile {
      */
     String getAbsolutePath();
 
+    /**
+     * Returns absolute path to a 16-bit PCM WAV file that holds audio of this file so it can be read by the native
+     * analysis code. That's the file itself for WAV files, while compressed files are decoded first, so this method
+     * should not be called on the main thread. Every call needs to be followed by {@link #releaseWavPath()} once the
+     * returned file is no longer read.
+     *
+     * @throws IOException if file couldn't be decoded
+     */
+    String getWavPath() throws IOException;
+
+    /**
+     * Releases WAV file which path was returned by {@link #getWavPath()}. Decoded files can't be deleted until they are
+     * released.
+     */
+    void releaseWavPath();
+
     /**
      * Audio mime type.
      */
@@ -79,6 +95,15 @@ public interface AudioFile {
      */
     int read(byte[] b, int off, int len) throws IOException;
 
+    /**
+     * Reads up to {@code len} bytes of audio data starting from the specified {@code position} and copies them to the
+     * specified {@code b} array starting from the specified {@code off}. Current file pointer is not changed. Returns
+     * number of read bytes or {@code -1} if {@code position} is at the end of the file.
+     *
+     * @throws IOException
+     */
+    int read(long position, byte[] b, int off, int len) throws IOException;
+
     /**
      * Returns current file pointer.
      *
@@ -7,6 +7,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.collection.ArraySet;
 import com.backyardbrains.utils.AudioUtils;
+import com.backyardbrains.utils.RecordingUtils;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -18,6 +19,7 @@ import java.util.Set;
 public abstract class BaseAudioFile implements AudioFile {
 
     private static final String WAV_EXT = ".wav";
+    private static final String LOSSLESS_EXT = RecordingUtils.BYB_LOSSLESS_RECORDING_EXT;
     private static final Set<String> WAV_MIME_TYPES = new ArraySet<>();
 
     static {
@@ -59,6 +61,18 @@ public abstract class BaseAudioFile implements AudioFile {
         }
     }
 
+    BaseAudioFile(@NonNull String absolutePath, @NonNull String mimeType, int channelCount, int sampleRate,
+        int bitsPerSample, long frameCount) {
+        this.absolutePath = absolutePath;
+        this.mimeType = mimeType;
+        this.channelCount = channelCount;
+        this.sampleRate = sampleRate;
+        this.bitsPerSample = bitsPerSample;
+        this.sampleCount = frameCount;
+        this.byteCount = frameCount * channelCount * bitsPerSample / 8;
+        this.lengthInSeconds = (float) frameCount / sampleRate;
+    }
+
     @Nullable public static AudioFile create(@NonNull File file) {
         final MediaExtractor extractor = new MediaExtractor();
         try (FileInputStream source = new FileInputStream(file)) {
@@ -75,6 +89,9 @@ public abstract class BaseAudioFile implements AudioFile {
         if (file.exists()) {
             final String absolutePath = file.getAbsolutePath();
             final String ext = absolutePath.substring(absolutePath.lastIndexOf("."));
+            // lossless recordings are not recognized by the media extractor
+            if (LOSSLESS_EXT.equalsIgnoreCase(ext)) return LosslessAudioFile.open(file);
+
             extractor.setDataSource(source.getFD());
 
             if (extractor.getTrackCount() != 1) {
@@ -90,7 +107,9 @@ public abstract class BaseAudioFile implements AudioFile {
                 }
 
                 if (WAV_EXT.equalsIgnoreCase(ext) && WAV_MIME_TYPES.contains(mime)) {
-                    return new WavAudioFile(file, extractor);
+                    // data of files that fit into a single memory mapping is read directly from memory
+                    return MappedWavAudioFile.canMap(file) ? new MappedWavAudioFile(file, extractor)
+                        : new WavAudioFile(file, extractor);
                 } else {
                     return new SimpleAudioFile(absolutePath, extractor);
                 }
@@ -104,6 +123,14 @@ public abstract class BaseAudioFile implements AudioFile {
         return absolutePath;
     }
 
+    @Override public String getWavPath() throws IOException {
+        return absolutePath;
+    }
+
+    @Override public void releaseWavPath() {
+        // file itself is returned so there's nothing to release
+    }
+
     @Override public String mimeType() {
         return mimeType;
     }
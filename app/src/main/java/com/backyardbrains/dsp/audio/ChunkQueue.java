@@ -0,0 +1,163 @@
+package com.backyardbrains.dsp.audio;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue that hands audio data from the processing thread to a single consumer thread through a fixed pool of
+ * byte chunks, so nothing is allocated while data is passed.
+ * <p/>
+ * Producer never blocks: data is copied into free chunks and if there's not enough free chunks for all of the offered
+ * data the whole batch is dropped and counted, so consumer never gets a part of a batch. Consumer parks in
+ * {@link #take()} while the queue is empty.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+class ChunkQueue {
+
+    /**
+     * Single chunk of queued data.
+     */
+    static class Chunk {
+        final byte[] data;
+        // Number of valid bytes in the data array
+        int size;
+        // Flags passed together with the data
+        int flags;
+        // Set if chunk only marks position in the queue
+        final CountDownLatch marker;
+
+        Chunk(int size) {
+            this.data = new byte[size];
+            this.marker = null;
+        }
+
+        Chunk(@Nullable CountDownLatch marker) {
+            this.data = new byte[0];
+            this.marker = marker;
+        }
+    }
+
+    // Chunk that stops the consumer
+    private static final Chunk STOP = new Chunk((CountDownLatch) null);
+
+    private final ArrayBlockingQueue<Chunk> free;
+    private final ArrayBlockingQueue<Chunk> filled;
+    private final int chunkSize;
+
+    // Max number of chunks that were waiting to be consumed at once
+    private volatile int maxDepth;
+    // Number of bytes that were dropped because all the chunks were in use
+    private volatile long droppedByteCount;
+
+    ChunkQueue(int chunkCount, int chunkSize) {
+        this.chunkSize = chunkSize;
+        free = new ArrayBlockingQueue<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) free.offer(new Chunk(chunkSize));
+        // leave room for the markers
+        filled = new ArrayBlockingQueue<>(chunkCount + 2);
+    }
+
+    /**
+     * Copies {@code len} bytes from the specified {@code b} array into the queue together with specified
+     * {@code flags}. Should be called from a single producer thread. Returns {@code len} if the data was queued, or
+     * {@code 0} if there's not enough free chunks for all of it, in which case none of it is queued.
+     */
+    int offer(@NonNull byte[] b, int len, int flags) {
+        // only the consumer takes chunks out of the queue, and it can only release them, so free chunks can't run out
+        // once they are counted
+        if (free.size() < (len + chunkSize - 1) / chunkSize) {
+            droppedByteCount += len;
+            return 0;
+        }
+
+        int off = 0;
+        while (off < len) {
+            final Chunk chunk = free.poll();
+            if (chunk == null) break;
+
+            chunk.size = Math.min(len - off, chunk.data.length);
+            chunk.flags = flags;
+            System.arraycopy(b, off, chunk.data, 0, chunk.size);
+            filled.offer(chunk);
+            off += chunk.size;
+        }
+
+        final int depth = filled.size();
+        if (depth > maxDepth) maxDepth = depth;
+
+        return off;
+    }
+
+    /**
+     * Waits for the next chunk of data and returns it, or {@code null} if the queue is stopped. Returned chunk needs to
+     * be passed to {@link #release(Chunk)} once it's consumed. Should be called from a single consumer thread.
+     */
+    @Nullable Chunk take() throws InterruptedException {
+        while (true) {
+            final Chunk chunk = filled.take();
+            if (chunk == STOP) return null;
+            if (chunk.marker != null) {
+                chunk.marker.countDown();
+                continue;
+            }
+
+            return chunk;
+        }
+    }
+
+    /**
+     * Returns specified {@code chunk} to the pool.
+     */
+    void release(@NonNull Chunk chunk) {
+        free.offer(chunk);
+    }
+
+    /**
+     * Waits at most {@code timeoutMillis} for the consumer to take all the chunks that are currently queued. Returns
+     * {@code true} if it did.
+     */
+    boolean drain(long timeoutMillis) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        return filled.offer(new Chunk(latch)) && latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes {@link #take()} return {@code null} once all the chunks that are currently queued are consumed.
+     */
+    void stop() {
+        filled.offer(STOP);
+    }
+
+    /**
+     * Returns number of chunks that are waiting to be consumed.
+     */
+    int getDepth() {
+        return filled.size();
+    }
+
+    /**
+     * Returns max number of chunks that were waiting to be consumed at once since the last reset.
+     */
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns number of bytes that were dropped since the last reset because all the chunks were in use.
+     */
+    long getDroppedByteCount() {
+        return droppedByteCount;
+    }
+
+    /**
+     * Resets max depth and dropped byte count.
+     */
+    void resetMetrics() {
+        maxDepth = 0;
+        droppedByteCount = 0;
+    }
+}
@@ -0,0 +1,454 @@
+package com.backyardbrains.dsp.audio;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Multi-resolution min/max envelope of a 16-bit recording. For every channel it holds max and min sample of every block
+ * of 2^k frames, for every level k from {@link #BASE_LEVEL} up to the level with a single block for the whole
+ * recording. Envelope of any range of frames is read from the level closest to the requested number of frames per
+ * bucket, so the cost of the read depends only on the number of buckets and not on the length of the recording.
+ * <p/>
+ * Envelope is saved in a sidecar file together with the length and modification time of the recording, so it's rebuilt
+ * if the recording changes. It's built by the {@link Recorder} while recording or on the first
+ * {@link #open(File, File)}.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class EnvelopeIndex {
+
+    // Finest level of the envelope, every block of the finest level holds 2^BASE_LEVEL frames
+    static final int BASE_LEVEL = 6;
+
+    // Number of frames in a single block of the finest level
+    private static final int BASE_BLOCK_FRAME_COUNT = 1 << BASE_LEVEL;
+    // Identifies the envelope file ("BYBE")
+    private static final int MAGIC = 0x45425942;
+    private static final int VERSION = 1;
+    // Size of the envelope file header in bytes
+    private static final int HEADER_SIZE = 40;
+    // Number of bytes read from the recording at once while building the envelope
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * Collects max and min samples of the finest level while 16-bit samples are being added and saves the whole
+     * envelope once all samples are added. Blocks of the finest level are appended to the temp envelope file as they
+     * fill up, and coarser levels are built from the file when envelope is saved, so memory used by the builder
+     * doesn't grow with the length of the recording. Samples can be added from one thread and saved from another.
+     */
+    public static class Builder {
+
+        // Number of blocks of the finest level that are kept in memory before they are appended to the file, also
+        // number of blocks that are merged at once while coarser levels are built
+        private static final int BUFFERED_BLOCK_COUNT = 4096;
+
+        private final int channelCount;
+        private final File indexFile;
+        private final File tmpFile;
+        // Max and min samples of every channel for the last blocks of the finest level that are not in the file yet
+        private final short[] blocks;
+        private final ByteBuffer bb;
+
+        private RandomAccessFile raf;
+        // Number of blocks of the finest level that are in the file
+        private long savedBlockCount;
+        // Number of started blocks that are not in the file yet
+        private int blockCount;
+        // Number of frames added to the last started block
+        private int blockFrameCount;
+        // Channel of the next added sample
+        private int channel;
+        // Number of added frames
+        private long frameCount;
+
+        public Builder(int channelCount, @NonNull File indexFile) {
+            this.channelCount = channelCount;
+            this.indexFile = indexFile;
+            // envelope is written to a temp file first so an incomplete file is never read
+            this.tmpFile = new File(indexFile.getPath() + ".tmp");
+            this.blocks = new short[channelCount * 2 * BUFFERED_BLOCK_COUNT];
+            this.bb = ByteBuffer.allocate(blocks.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Adds {@code sampleCount} interleaved samples. Samples of a single frame can be split between two calls.
+         *
+         * @throws IOException if blocks of the finest level couldn't be appended to the temp envelope file
+         */
+        public synchronized void add(@NonNull short[] samples, int sampleCount) throws IOException {
+            int offset = (blockCount - 1) * channelCount * 2;
+            for (int i = 0; i < sampleCount; i++) {
+                if (channel == 0 && blockFrameCount == 0) offset = startBlock();
+
+                addSample(offset, samples[i]);
+            }
+        }
+
+        /**
+         * Adds {@code byteCount} bytes of interleaved little-endian samples, the way they are written to the
+         * recording. Samples of a single frame can be split between two calls, but bytes of a single sample can't.
+         *
+         * @throws IOException if blocks of the finest level couldn't be appended to the temp envelope file
+         */
+        public synchronized void add(@NonNull byte[] bytes, int byteCount) throws IOException {
+            int offset = (blockCount - 1) * channelCount * 2;
+            for (int i = 0; i + 1 < byteCount; i += 2) {
+                if (channel == 0 && blockFrameCount == 0) offset = startBlock();
+
+                addSample(offset, (short) ((bytes[i] & 0xff) | bytes[i + 1] << 8));
+            }
+        }
+
+        /**
+         * Saves the envelope of all added samples to the index file. If {@code audioFile} holds less frames than were
+         * added, as specified by {@code audioFrameCount}, only frames that made it to the file are taken into
+         * account.
+         *
+         * @throws IOException if envelope couldn't be saved
+         */
+        public synchronized void save(@NonNull File audioFile, long audioFrameCount) throws IOException {
+            save(Math.max(0, Math.min(frameCount, audioFrameCount)), audioFile.length(), audioFile.lastModified());
+        }
+
+        /**
+         * Deletes the temp envelope file if envelope wasn't saved.
+         */
+        public synchronized void discard() {
+            close();
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+        }
+
+        // Saves the envelope of the first frameCount added frames, together with the length and modification time of
+        // the recording, to the index file
+        synchronized void save(long frameCount, long sourceLength, long sourceLastModified) throws IOException {
+            final int levelCount = getLevelCount(frameCount);
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(sourceLength)
+                .putLong(sourceLastModified)
+                .putLong(frameCount)
+                .putInt(channelCount)
+                .putInt(BASE_LEVEL)
+                .flip();
+
+            try {
+                flush();
+                final FileChannel fc = raf.getChannel();
+                write(fc, header, 0);
+
+                // every level is built from the previous one and appended to the file
+                final long blockSize = channelCount * 4;
+                long levelPosition = HEADER_SIZE;
+                long levelBlockCount = getBlockCount(frameCount, BASE_LEVEL);
+                for (int i = 1; i < levelCount; i++) {
+                    final long nextLevelPosition = levelPosition + levelBlockCount * blockSize;
+                    for (long j = 0; j < levelBlockCount; j += BUFFERED_BLOCK_COUNT) {
+                        final int len = (int) Math.min(BUFFERED_BLOCK_COUNT, levelBlockCount - j);
+                        read(fc, levelPosition + j * blockSize, len * channelCount * 2);
+                        write(fc, nextLevel(len), nextLevelPosition + j / 2 * blockSize);
+                    }
+                    levelPosition = nextLevelPosition;
+                    levelBlockCount = getBlockCount(frameCount, BASE_LEVEL + i);
+                }
+                // blocks of the frames that didn't make it to the recording are dropped
+                fc.truncate(levelPosition + levelBlockCount * blockSize);
+            } finally {
+                close();
+            }
+            if (!tmpFile.renameTo(indexFile)) {
+                //noinspection ResultOfMethodCallIgnored
+                tmpFile.delete();
+                throw new IOException("Could not save envelope file " + indexFile.getAbsolutePath());
+            }
+        }
+
+        // Adds sample of the current channel to the block at specified offset
+        private void addSample(int offset, short sample) {
+            if (sample > blocks[offset + channel * 2]) blocks[offset + channel * 2] = sample;
+            if (sample < blocks[offset + channel * 2 + 1]) blocks[offset + channel * 2 + 1] = sample;
+
+            if (++channel == channelCount) {
+                channel = 0;
+                frameCount++;
+                if (++blockFrameCount == BASE_BLOCK_FRAME_COUNT) blockFrameCount = 0;
+            }
+        }
+
+        // Starts new block of the finest level and returns its offset
+        private int startBlock() throws IOException {
+            if (blockCount == BUFFERED_BLOCK_COUNT) flush();
+
+            final int offset = blockCount * channelCount * 2;
+            for (int i = 0; i < channelCount; i++) {
+                blocks[offset + i * 2] = Short.MIN_VALUE;
+                blocks[offset + i * 2 + 1] = Short.MAX_VALUE;
+            }
+            blockCount++;
+            return offset;
+        }
+
+        // Appends all the started blocks to the file
+        private void flush() throws IOException {
+            if (raf == null) {
+                raf = new RandomAccessFile(tmpFile, "rw");
+                raf.setLength(HEADER_SIZE);
+            }
+
+            bb.clear();
+            bb.asShortBuffer().put(blocks, 0, blockCount * channelCount * 2);
+            bb.limit(blockCount * channelCount * 4);
+            write(raf.getChannel(), bb, HEADER_SIZE + savedBlockCount * channelCount * 4);
+            savedBlockCount += blockCount;
+            blockCount = 0;
+        }
+
+        // Reads specified number of samples at specified position of the file into the buffer
+        private void read(@NonNull FileChannel fc, long position, int sampleCount) throws IOException {
+            bb.clear();
+            bb.limit(sampleCount * 2);
+            while (bb.hasRemaining()) {
+                if (fc.read(bb, position + bb.position()) < 0) throw new EOFException();
+            }
+            bb.flip();
+        }
+
+        // Writes remaining bytes of specified buffer to specified position of the file
+        private static void write(@NonNull FileChannel fc, @NonNull ByteBuffer buffer, long position)
+            throws IOException {
+            long p = position;
+            while (buffer.hasRemaining()) p += fc.write(buffer, p);
+        }
+
+        // Merges every two consecutive blocks out of specified number of blocks in the buffer into a single block of
+        // the next level, merged blocks replace the first half of the buffer
+        private ByteBuffer nextLevel(int blockCount) {
+            final int blockSize = channelCount * 4;
+            for (int i = 0; i < blockCount; i += 2) {
+                final int offset = i * blockSize;
+                final int nextOffset = i / 2 * blockSize;
+                for (int j = 0; j < blockSize; j += 4) {
+                    short max = bb.getShort(offset + j);
+                    short min = bb.getShort(offset + j + 2);
+                    if (i + 1 < blockCount) {
+                        max = (short) Math.max(max, bb.getShort(offset + blockSize + j));
+                        min = (short) Math.min(min, bb.getShort(offset + blockSize + j + 2));
+                    }
+                    bb.putShort(nextOffset + j, max);
+                    bb.putShort(nextOffset + j + 2, min);
+                }
+            }
+            bb.position(0);
+            bb.limit((blockCount + 1) / 2 * blockSize);
+            return bb;
+        }
+
+        // Closes the temp envelope file
+        private void close() {
+            if (raf == null) return;
+
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+            raf = null;
+        }
+    }
+
+    private final int channelCount;
+    private final long frameCount;
+    private final int levelCount;
+    // Max and min samples of all levels, one level after another
+    private final ShortBuffer data;
+    // Index of the first sample of every level within data
+    private final int[] levelOffsets;
+
+    private EnvelopeIndex(@NonNull ShortBuffer data, int channelCount, long frameCount) {
+        this.data = data;
+        this.channelCount = channelCount;
+        this.frameCount = frameCount;
+        this.levelCount = getLevelCount(frameCount);
+        this.levelOffsets = new int[levelCount];
+        for (int i = 1; i < levelCount; i++) {
+            levelOffsets[i] =
+                levelOffsets[i - 1] + (int) getBlockCount(frameCount, BASE_LEVEL + i - 1) * channelCount * 2;
+        }
+    }
+
+    /**
+     * Returns envelope of the specified 16-bit {@code audioFile}. Envelope is loaded from the {@code indexFile} if
+     * it's up to date, otherwise it's built by reading the whole recording and saved to the {@code indexFile} first,
+     * so this method should not be called on the main thread. Returns {@code null} if recording isn't a 16-bit WAV
+     * or lossless file.
+     *
+     * @throws IOException if recording or envelope couldn't be read or envelope couldn't be saved
+     */
+    @Nullable public static EnvelopeIndex open(@NonNull File audioFile, @NonNull File indexFile) throws IOException {
+        final EnvelopeIndex envelopeIndex = load(audioFile, indexFile);
+        if (envelopeIndex != null) return envelopeIndex;
+
+        final AudioFile af = BaseAudioFile.create(audioFile);
+        if (af == null) return null;
+
+        final Builder builder;
+        try {
+            if (!(af instanceof WavAudioFile || af instanceof LosslessAudioFile) || af.bitsPerSample() != 16) {
+                return null;
+            }
+
+            builder = new Builder(af.channelCount(), indexFile);
+            try {
+                final byte[] bytes = new byte[READ_BUFFER_SIZE];
+                int read;
+                while ((read = readSamples(af, bytes)) > 0) builder.add(bytes, read);
+            } catch (IOException e) {
+                builder.discard();
+                throw e;
+            }
+        } finally {
+            af.close();
+        }
+        // all read frames are in the file
+        try {
+            builder.save(audioFile, Long.MAX_VALUE);
+        } finally {
+            builder.discard();
+        }
+
+        return load(audioFile, indexFile);
+    }
+
+    /**
+     * Returns envelope saved in the specified {@code indexFile} if it's the envelope of the current version of the
+     * specified {@code audioFile}, {@code null} otherwise.
+     *
+     * @throws IOException if envelope couldn't be read
+     */
+    @Nullable public static EnvelopeIndex load(@NonNull File audioFile, @NonNull File indexFile) throws IOException {
+        if (!indexFile.exists()) return null;
+
+        final EnvelopeIndex envelopeIndex = load(indexFile, audioFile.length(), audioFile.lastModified());
+        if (envelopeIndex == null) {
+            //noinspection ResultOfMethodCallIgnored
+            indexFile.delete();
+        }
+        return envelopeIndex;
+    }
+
+    // Returns envelope saved in the specified indexFile if it belongs to the recording of specified length and
+    // modification time, null otherwise
+    @Nullable static EnvelopeIndex load(@NonNull File indexFile, long sourceLength, long sourceLastModified)
+        throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r"); FileChannel fc = raf.getChannel()) {
+            if (fc.size() < HEADER_SIZE || fc.size() > Integer.MAX_VALUE) return null;
+
+            final ByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()).order(ByteOrder.LITTLE_ENDIAN);
+            if (bb.getInt() != MAGIC || bb.getInt() != VERSION) return null;
+            if (bb.getLong() != sourceLength || bb.getLong() != sourceLastModified) return null;
+            final long frameCount = bb.getLong();
+            final int channelCount = bb.getInt();
+            if (bb.getInt() != BASE_LEVEL || frameCount < 0 || channelCount <= 0) return null;
+
+            long size = 0;
+            for (int i = 0; i < getLevelCount(frameCount); i++) {
+                size += getBlockCount(frameCount, BASE_LEVEL + i) * channelCount * 2;
+            }
+            if (fc.size() != HEADER_SIZE + size * 2) return null;
+
+            return new EnvelopeIndex(bb.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer(), channelCount,
+                frameCount);
+        }
+    }
+
+    /**
+     * Returns number of channels of the recording.
+     */
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Returns number of frames of the recording.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Splits frames of the specified {@code channel} between {@code fromFrame} (inclusive) and {@code toFrame}
+     * (exclusive) into {@code bucketCount} buckets and saves max and min sample of every bucket to the {@code out}
+     * array. Frames outside of the recording are treated as zeros. Buckets are read from the level with blocks closest
+     * to, but not larger than, the bucket so a bucket can include a few frames from its neighbours. Returns number of
+     * saved samples, which is twice the number of buckets.
+     */
+    public int envelope(int channel, long fromFrame, long toFrame, int bucketCount, @NonNull short[] out) {
+        if (bucketCount <= 0 || toFrame <= fromFrame) return 0;
+
+        final int level = getLevel((toFrame - fromFrame) / bucketCount);
+        final int levelIndex = level - BASE_LEVEL;
+        final int frameSize = channelCount * 2;
+        final double framesPerBucket = (double) (toFrame - fromFrame) / bucketCount;
+        for (int i = 0; i < bucketCount; i++) {
+            final long bucketStart = fromFrame + (long) (i * framesPerBucket);
+            final long bucketEnd = Math.max(bucketStart + 1, fromFrame + (long) ((i + 1) * framesPerBucket));
+
+            short max = Short.MIN_VALUE, min = Short.MAX_VALUE;
+            if (bucketStart < 0 || bucketEnd > frameCount) max = min = 0;
+            if (levelIndex >= 0 && bucketEnd > 0 && bucketStart < frameCount) {
+                final long firstBlock = Math.max(0, bucketStart) >> level;
+                final long lastBlock = (Math.min(frameCount, bucketEnd) - 1) >> level;
+                int offset = levelOffsets[levelIndex] + (int) firstBlock * frameSize + channel * 2;
+                for (long j = firstBlock; j <= lastBlock; j++, offset += frameSize) {
+                    if (data.get(offset) > max) max = data.get(offset);
+                    if (data.get(offset + 1) < min) min = data.get(offset + 1);
+                }
+            }
+            out[i * 2] = max;
+            out[i * 2 + 1] = min;
+        }
+
+        return bucketCount * 2;
+    }
+
+    // Returns level with the largest blocks that are not larger than specified number of frames
+    int getLevel(long framesPerBucket) {
+        int level = BASE_LEVEL;
+        while (level - BASE_LEVEL < levelCount - 1 && 1L << (level + 1) <= framesPerBucket) level++;
+        return levelCount > 0 ? level : BASE_LEVEL - 1;
+    }
+
+    // Returns number of levels of the envelope of the recording with specified number of frames
+    private static int getLevelCount(long frameCount) {
+        if (frameCount <= 0) return 0;
+
+        int levelCount = 1;
+        while (getBlockCount(frameCount, BASE_LEVEL + levelCount - 1) > 1) levelCount++;
+        return levelCount;
+    }
+
+    // Returns number of blocks of the level that hold specified number of frames
+    private static long getBlockCount(long frameCount, int level) {
+        return (frameCount + (1L << level) - 1) >> level;
+    }
+
+    // Reads even number of bytes so no sample is split between two reads
+    private static int readSamples(@NonNull AudioFile af, @NonNull byte[] b) throws IOException {
+        int read = af.read(b, 0, b.length);
+        if (read <= 0) return read;
+        while (read % 2 != 0) {
+            final int r = af.read(b, read, b.length - read);
+            if (r <= 0) return read - 1;
+            read += r;
+        }
+        return read;
+    }
+}
@@ -0,0 +1,268 @@
+package com.backyardbrains.dsp.audio;
+
+import android.media.AudioFormat;
+import androidx.annotation.NonNull;
+import com.backyardbrains.utils.RecordingUtils;
+import com.backyardbrains.utils.WavUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link AudioFile} compressed with the lossless recording format written by {@link LosslessWriter}. Audio data is
+ * read as if it was a 16-bit PCM file, so positions and lengths are the ones of the decoded data.
+ * <p/>
+ * File starts with a header followed by blocks of {@link LosslessCodec} encoded frames, each prefixed with its
+ * length and frame count, and ends with a seek table that holds positions of all the blocks. Every block except the
+ * last one holds the same number of frames so block that holds any frame is found directly. If the seek table is
+ * missing, because recording was interrupted, blocks are found by skipping from one to the next.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class LosslessAudioFile extends BaseAudioFile {
+
+    /**
+     * Lossless audio mime type.
+     */
+    public static final String MIME_TYPE = "audio/x-byb-lossless";
+
+    // "BYBL"
+    static final int MAGIC = 0x4C425942;
+    static final int VERSION = 1;
+    // Magic, version, sample rate, channel count, bits per sample, block size, frame count and seek table position
+    static final int HEADER_SIZE = 40;
+    // Length of the encoded data and number of frames
+    static final int BLOCK_HEADER_SIZE = 8;
+    static final int BITS_PER_SAMPLE = 16;
+    // Max number of frames in a single block
+    static final int MAX_BLOCK_SIZE = 65536;
+
+    // Number of unreleased paths of every decoded file, files that are still read are not deleted when other recording
+    // is decoded. Guarded by LosslessAudioFile.class
+    private static final Map<File, Integer> DECODED_FILE_USES = new HashMap<>();
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int blockSize;
+    private final int frameSize;
+    private final long frameCount;
+    // Positions of all the blocks in the file
+    private final long[] blockPositions;
+
+    private final LosslessCodec codec;
+    private final LosslessCodec.BitReader reader = new LosslessCodec.BitReader();
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private byte[] encoded = new byte[0];
+    private final short[] samples;
+    // Decoded samples of the last read block as little-endian bytes
+    private final byte[] decoded;
+    private int decodedBlock = -1;
+    private int decodedByteCount;
+    private long filePointer;
+
+    private LosslessAudioFile(@NonNull File file, @NonNull RandomAccessFile raf, @NonNull ByteBuffer header)
+        throws IOException {
+        super(file.getAbsolutePath(), MIME_TYPE, header.getInt(12), header.getInt(8), header.getInt(16),
+            header.getLong(24));
+
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.blockSize = header.getInt(20);
+        this.frameSize = channelCount() * BITS_PER_SAMPLE / 8;
+        this.frameCount = header.getLong(24);
+        this.blockPositions = readBlockPositions(header.getLong(32));
+
+        codec = new LosslessCodec(channelCount(), blockSize);
+        samples = new short[blockSize * channelCount()];
+        decoded = new byte[blockSize * frameSize];
+    }
+
+    /**
+     * Opens specified lossless {@code file} for reading.
+     *
+     * @throws IOException if file can't be opened or it's not a lossless audio file
+     */
+    @NonNull static LosslessAudioFile open(@NonNull File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (raf.getChannel().read(header, header.position()) < 0) throw new IOException("File is too short");
+            }
+            if (header.getInt(0) != MAGIC) throw new IOException("Not a lossless audio file");
+            if (header.getInt(4) != VERSION) throw new IOException("Unsupported version: " + header.getInt(4));
+            if (header.getInt(12) <= 0) throw new IOException("Wrong channel count: " + header.getInt(12));
+            if (header.getInt(16) != BITS_PER_SAMPLE) throw new IOException("Wrong bits per sample");
+            if (header.getInt(20) <= 0 || header.getInt(20) > MAX_BLOCK_SIZE) {
+                throw new IOException("Wrong block size: " + header.getInt(20));
+            }
+            if (header.getLong(24) < 0) throw new IOException("Wrong frame count: " + header.getLong(24));
+
+            return new LosslessAudioFile(file, raf, header);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns path to the WAV file with the decoded audio data. Decoded file is kept in the cache directory, and only
+     * for the last decoded recording and the recordings which decoded files are still read, so it's decoded again only
+     * if recording changed in the meantime.
+     */
+    @Override public String getWavPath() throws IOException {
+        // analyses of the same recording can request decoded file at the same time
+        synchronized (LosslessAudioFile.class) {
+            final File wavFile = decode();
+            final Integer uses = DECODED_FILE_USES.get(wavFile);
+            DECODED_FILE_USES.put(wavFile, uses != null ? uses + 1 : 1);
+            return wavFile.getAbsolutePath();
+        }
+    }
+
+    @Override public void releaseWavPath() {
+        synchronized (LosslessAudioFile.class) {
+            final File wavFile = RecordingUtils.getDecodedRecordingFile(new File(getAbsolutePath()));
+            final Integer uses = DECODED_FILE_USES.get(wavFile);
+            if (uses == null) return;
+
+            if (uses > 1) {
+                DECODED_FILE_USES.put(wavFile, uses - 1);
+            } else {
+                DECODED_FILE_USES.remove(wavFile);
+            }
+        }
+    }
+
+    // Decodes the whole file to a WAV file in the cache directory, unless it's already decoded, and returns it
+    private File decode() throws IOException {
+        final File file = new File(getAbsolutePath());
+        final File wavFile = RecordingUtils.getDecodedRecordingFile(file);
+        if (wavFile.exists() && wavFile.length() == WavUtils.HEADER_SIZE + length()
+            && wavFile.lastModified() >= file.lastModified()) {
+            return wavFile;
+        }
+
+        RecordingUtils.clearDecodedRecordings(DECODED_FILE_USES.keySet());
+        final File tmpFile = new File(wavFile.getPath() + ".tmp");
+        final WavWriter writer = new WavWriter(tmpFile, sampleRate(), channelCount(), AudioFormat.ENCODING_PCM_16BIT,
+            Long.MAX_VALUE, 0);
+        try {
+            final byte[] buffer = new byte[blockSize * frameSize];
+            int read;
+            for (long position = 0; (read = read(position, buffer, 0, buffer.length)) > 0; position += read) {
+                writer.write(buffer, 0, read);
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmpFile.renameTo(wavFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+            throw new IOException("Could not save decoded file " + wavFile.getAbsolutePath());
+        }
+
+        return wavFile;
+    }
+
+    @Override public void close() throws IOException {
+        raf.close();
+    }
+
+    @Override public synchronized void seek(long position) {
+        filePointer = Math.max(0, Math.min(position, length()));
+    }
+
+    @Override public synchronized int read(byte[] b, int off, int len) throws IOException {
+        final int read = read(filePointer, b, off, len);
+        if (read > 0) filePointer += read;
+        return read;
+    }
+
+    @Override public synchronized int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position >= length()) return len > 0 ? -1 : 0;
+
+        int total = 0;
+        while (total < len && position < length()) {
+            final int block = (int) (position / frameSize / blockSize);
+            decodeBlock(block);
+
+            final int blockOffset = (int) (position - (long) block * blockSize * frameSize);
+            final int count = Math.min(len - total, decodedByteCount - blockOffset);
+            if (count <= 0) break;
+            System.arraycopy(decoded, blockOffset, b, off + total, count);
+            total += count;
+            position += count;
+        }
+
+        return total;
+    }
+
+    @Override public synchronized long getFilePointer() {
+        return filePointer;
+    }
+
+    // Decodes block with specified index unless it's already decoded
+    private void decodeBlock(int block) throws IOException {
+        if (block == decodedBlock) return;
+
+        final long position = blockPositions[block];
+        blockHeader.clear();
+        readFully(blockHeader, position);
+        final int length = blockHeader.getInt(0);
+        final int blockFrameCount = blockHeader.getInt(4);
+        if (length < 0 || blockFrameCount < 0 || blockFrameCount > blockSize) {
+            throw new IOException("Corrupted block " + block);
+        }
+
+        if (encoded.length < length) encoded = new byte[length];
+        readFully(ByteBuffer.wrap(encoded, 0, length), position + BLOCK_HEADER_SIZE);
+        reader.reset(encoded, 0, length);
+        codec.decode(reader, blockFrameCount, samples);
+
+        final int sampleCount = blockFrameCount * channelCount();
+        for (int i = 0, j = 0; i < sampleCount; i++) {
+            decoded[j++] = (byte) samples[i];
+            decoded[j++] = (byte) (samples[i] >> 8);
+        }
+        decodedByteCount = sampleCount * 2;
+        decodedBlock = block;
+    }
+
+    // Returns positions of all the blocks, read from the seek table at specified position or found by skipping through
+    // the blocks if there's no seek table
+    private long[] readBlockPositions(long seekTablePosition) throws IOException {
+        final int blockCount = (int) ((frameCount + blockSize - 1) / blockSize);
+        final long[] positions = new long[blockCount];
+
+        if (seekTablePosition > 0) {
+            final ByteBuffer table = ByteBuffer.allocate(4 + blockCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(table, seekTablePosition);
+            if (table.getInt(0) != blockCount) throw new IOException("Wrong seek table");
+            for (int i = 0; i < blockCount; i++) positions[i] = table.getLong(4 + i * 8);
+        } else {
+            final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long position = HEADER_SIZE;
+            for (int i = 0; i < blockCount; i++) {
+                positions[i] = position;
+                header.clear();
+                readFully(header, position);
+                position += BLOCK_HEADER_SIZE + header.getInt(0);
+            }
+        }
+
+        return positions;
+    }
+
+    // Fills specified buffer with bytes read from the specified position
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of file");
+        }
+    }
+}
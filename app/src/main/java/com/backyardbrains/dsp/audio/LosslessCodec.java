@@ -0,0 +1,589 @@
+package com.backyardbrains.dsp.audio;
+
+import androidx.annotation.NonNull;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Encodes and decodes blocks of 16-bit samples of the lossless recording format.
+ * <p/>
+ * Every channel of the block is encoded separately, in the same way FLAC does it. Channel that holds the same sample
+ * is stored as a single value. Otherwise samples are predicted from the previous ones, by one of the fixed polynomial
+ * predictors of order 0 to 4 or by a linear predictor which coefficients are computed for the block, whichever is
+ * expected to produce fewer bits, and prediction residuals are Rice coded in partitions that each have their own Rice
+ * parameter. Partitions that can't be Rice coded efficiently are stored as raw values.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+final class LosslessCodec {
+
+    private static final int METHOD_BITS = 2;
+    private static final int METHOD_CONSTANT = 0;
+    private static final int METHOD_VERBATIM = 1;
+    private static final int METHOD_FIXED = 2;
+    private static final int METHOD_LPC = 3;
+
+    private static final int MAX_FIXED_ORDER = 4;
+    // Order of the linear predictor
+    private static final int LPC_ORDER = 8;
+    // Number of bits of the quantized linear predictor coefficients, including the sign
+    private static final int LPC_PRECISION = 12;
+    private static final int LPC_SHIFT_BITS = 5;
+
+    private static final int PARTITION_ORDER_BITS = 4;
+    private static final int MAX_PARTITION_ORDER = 8;
+    // Partitions are not split below this number of residuals
+    private static final int MIN_PARTITION_SIZE = 32;
+    private static final int RICE_PARAMETER_BITS = 5;
+    // Rice parameter value which marks partition with raw residuals
+    private static final int RICE_ESCAPE = (1 << RICE_PARAMETER_BITS) - 1;
+    private static final int RAW_BITS_BITS = 5;
+
+    private final int channelCount;
+    private final int maxFrameCount;
+
+    // Samples and residuals of the channel that's currently encoded
+    private final int[] samples;
+    private final int[] residuals;
+    private final int[] bestResiduals;
+    // Sums of the zigzag encoded residuals for partitions of max order
+    private final long[] partitionSums = new long[1 << MAX_PARTITION_ORDER];
+    private final int[] coefficients = new int[LPC_ORDER];
+    // Windowed samples of the current channel used to compute linear predictor
+    private final double[] windowed;
+    private final double[] autocorrelation = new double[LPC_ORDER + 1];
+    private final double[] lpc = new double[LPC_ORDER];
+    private final double[] lpcTmp = new double[LPC_ORDER];
+
+    LosslessCodec(int channelCount, int maxFrameCount) {
+        this.channelCount = channelCount;
+        this.maxFrameCount = maxFrameCount;
+        samples = new int[maxFrameCount];
+        residuals = new int[maxFrameCount];
+        bestResiduals = new int[maxFrameCount];
+        windowed = new double[maxFrameCount];
+    }
+
+    /**
+     * Encodes {@code frameCount} frames of specified interleaved {@code in} samples into specified {@code out} writer.
+     */
+    void encode(@NonNull short[] in, int frameCount, @NonNull BitWriter out) {
+        if (frameCount > maxFrameCount) throw new IllegalArgumentException("Block is too long: " + frameCount);
+
+        for (int ch = 0; ch < channelCount; ch++) {
+            boolean constant = true;
+            for (int i = 0, j = ch; i < frameCount; i++, j += channelCount) {
+                samples[i] = in[j];
+                if (samples[i] != samples[0]) constant = false;
+            }
+
+            if (constant) {
+                out.write(METHOD_CONSTANT, METHOD_BITS);
+                out.write(frameCount > 0 ? samples[0] : 0, 16);
+                continue;
+            }
+
+            encodeChannel(frameCount, out);
+        }
+        out.alignToByte();
+    }
+
+    /**
+     * Decodes {@code frameCount} frames from specified {@code in} reader into specified {@code out} array as
+     * interleaved samples.
+     *
+     * @throws IOException if encoded data is corrupted
+     */
+    void decode(@NonNull BitReader in, int frameCount, @NonNull short[] out) throws IOException {
+        if (frameCount > maxFrameCount) throw new IOException("Block is too long: " + frameCount);
+
+        for (int ch = 0; ch < channelCount; ch++) {
+            final int method = in.read(METHOD_BITS);
+            switch (method) {
+                case METHOD_CONSTANT:
+                    final short value = (short) in.readSigned(16);
+                    for (int i = 0, j = ch; i < frameCount; i++, j += channelCount) out[j] = value;
+                    break;
+                case METHOD_VERBATIM:
+                    for (int i = 0, j = ch; i < frameCount; i++, j += channelCount) out[j] = (short) in.readSigned(16);
+                    break;
+                case METHOD_FIXED:
+                    decodeFixed(in, frameCount, ch, out);
+                    break;
+                default:
+                    decodeLpc(in, frameCount, ch, out);
+                    break;
+            }
+        }
+        in.alignToByte();
+    }
+
+    // Encodes frameCount samples of the current channel using the predictor that produces the fewest bits
+    private void encodeChannel(int frameCount, BitWriter out) {
+        final long verbatimBits = 16L * frameCount;
+
+        // predictors are compared by the estimated number of bits of their Rice coded residuals
+        int bestOrder = 0;
+        long bestBits = Long.MAX_VALUE;
+        for (int order = 0; order <= Math.min(MAX_FIXED_ORDER, frameCount); order++) {
+            computeFixedResiduals(order, frameCount, residuals);
+            final long bits = estimateBits(residuals, order, frameCount) + 16L * order;
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestOrder = order;
+                System.arraycopy(residuals, order, bestResiduals, order, frameCount - order);
+            }
+        }
+
+        int shift = -1;
+        if (frameCount > 4 * LPC_ORDER && (shift = computeLpc(frameCount)) >= 0) {
+            computeLpcResiduals(shift, frameCount, residuals);
+            final long bits = estimateBits(residuals, LPC_ORDER, frameCount) + 16L * LPC_ORDER
+                + (long) LPC_PRECISION * LPC_ORDER + LPC_SHIFT_BITS;
+            if (bits < Math.min(bestBits, verbatimBits)) {
+                out.write(METHOD_LPC, METHOD_BITS);
+                out.write(shift, LPC_SHIFT_BITS);
+                for (int i = 0; i < LPC_ORDER; i++) out.write(coefficients[i], LPC_PRECISION);
+                for (int i = 0; i < LPC_ORDER; i++) out.write(samples[i], 16);
+                writeResiduals(residuals, LPC_ORDER, frameCount, out);
+                return;
+            }
+        }
+
+        if (bestBits >= verbatimBits) {
+            out.write(METHOD_VERBATIM, METHOD_BITS);
+            for (int i = 0; i < frameCount; i++) out.write(samples[i], 16);
+            return;
+        }
+
+        out.write(METHOD_FIXED, METHOD_BITS);
+        out.write(bestOrder, 3);
+        for (int i = 0; i < bestOrder; i++) out.write(samples[i], 16);
+        writeResiduals(bestResiduals, bestOrder, frameCount, out);
+    }
+
+    // Computes residuals of the fixed polynomial predictor of specified order
+    private void computeFixedResiduals(int order, int frameCount, int[] out) {
+        final int[] x = samples;
+        switch (order) {
+            case 0:
+                System.arraycopy(x, 0, out, 0, frameCount);
+                break;
+            case 1:
+                for (int i = 1; i < frameCount; i++) out[i] = x[i] - x[i - 1];
+                break;
+            case 2:
+                for (int i = 2; i < frameCount; i++) out[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                break;
+            case 3:
+                for (int i = 3; i < frameCount; i++) out[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                break;
+            default:
+                for (int i = 4; i < frameCount; i++) {
+                    out[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                }
+                break;
+        }
+    }
+
+    // Computes quantized coefficients of the linear predictor for the current channel and returns their shift, or -1
+    // if predictor can't be computed
+    private int computeLpc(int frameCount) {
+        // autocorrelation of the mean-free signal multiplied by Welch window
+        double mean = 0;
+        for (int i = 0; i < frameCount; i++) mean += samples[i];
+        mean /= frameCount;
+        final double half = (frameCount - 1) / 2.0;
+        for (int i = 0; i < frameCount; i++) {
+            final double d = (i - half) / (half + 1);
+            windowed[i] = (samples[i] - mean) * (1 - d * d);
+        }
+        for (int lag = 0; lag <= LPC_ORDER; lag++) {
+            double sum = 0;
+            for (int i = lag; i < frameCount; i++) sum += windowed[i] * windowed[i - lag];
+            autocorrelation[lag] = sum;
+        }
+        if (autocorrelation[0] == 0) return -1;
+
+        // Levinson-Durbin recursion
+        double error = autocorrelation[0] * (1 + 1e-9);
+        Arrays.fill(lpc, 0);
+        for (int i = 0; i < LPC_ORDER; i++) {
+            double acc = autocorrelation[i + 1];
+            for (int j = 0; j < i; j++) acc -= lpc[j] * autocorrelation[i - j];
+            final double k = acc / error;
+            System.arraycopy(lpc, 0, lpcTmp, 0, i);
+            for (int j = 0; j < i; j++) lpc[j] = lpcTmp[j] - k * lpcTmp[i - 1 - j];
+            lpc[i] = k;
+            error *= 1 - k * k;
+            if (error <= 0) return -1;
+        }
+
+        // quantize so the largest coefficient fits into the precision
+        double max = 0;
+        for (int i = 0; i < LPC_ORDER; i++) max = Math.max(max, Math.abs(lpc[i]));
+        if (max == 0 || Double.isNaN(max) || Double.isInfinite(max)) return -1;
+        final int maxCoefficient = (1 << (LPC_PRECISION - 1)) - 1;
+        int shift = (int) Math.floor(Math.log(maxCoefficient / max) / Math.log(2));
+        shift = Math.max(0, Math.min((1 << LPC_SHIFT_BITS) - 1, shift));
+        // error feedback keeps the quantization error from accumulating
+        double carry = 0;
+        for (int i = 0; i < LPC_ORDER; i++) {
+            carry += lpc[i] * (1 << shift);
+            final long q = Math.round(carry);
+            coefficients[i] = (int) Math.max(-maxCoefficient - 1, Math.min(maxCoefficient, q));
+            carry -= coefficients[i];
+        }
+
+        return shift;
+    }
+
+    // Computes residuals of the linear predictor with current coefficients and specified shift
+    private void computeLpcResiduals(int shift, int frameCount, int[] out) {
+        final int[] x = samples;
+        final int[] c = coefficients;
+        for (int i = LPC_ORDER; i < frameCount; i++) {
+            long sum = 0;
+            for (int j = 0; j < LPC_ORDER; j++) sum += (long) c[j] * x[i - 1 - j];
+            out[i] = x[i] - (int) (sum >> shift);
+        }
+    }
+
+    // Returns estimated number of bits needed to Rice code residuals starting at specified warm-up sample
+    private long estimateBits(int[] residuals, int warmUp, int frameCount) {
+        final int count = frameCount - warmUp;
+        if (count <= 0) return 0;
+
+        long sum = 0;
+        for (int i = warmUp; i < frameCount; i++) sum += zigzag(residuals[i]);
+        final int k = riceParameter(sum, count);
+        return PARTITION_ORDER_BITS + RICE_PARAMETER_BITS + (long) count * (k + 1) + (sum >> k);
+    }
+
+    // Writes residuals starting at specified warm-up sample, choosing the partition order that produces fewest bits
+    private void writeResiduals(int[] residuals, int warmUp, int frameCount, BitWriter out) {
+        final int count = frameCount - warmUp;
+
+        // sums of partitions of max order that still have enough residuals, merged for every lower order
+        int maxOrder = 0;
+        while (maxOrder < MAX_PARTITION_ORDER && (count >> (maxOrder + 1)) >= MIN_PARTITION_SIZE) maxOrder++;
+        final int maxPartitionCount = 1 << maxOrder;
+        Arrays.fill(partitionSums, 0, maxPartitionCount, 0);
+        for (int p = 0; p < maxPartitionCount; p++) {
+            final int start = warmUp + partitionStart(p, maxPartitionCount, count);
+            final int end = warmUp + partitionStart(p + 1, maxPartitionCount, count);
+            long sum = 0;
+            for (int i = start; i < end; i++) sum += zigzag(residuals[i]);
+            partitionSums[p] = sum;
+        }
+
+        int bestOrder = 0;
+        long bestBits = Long.MAX_VALUE;
+        for (int order = maxOrder; order >= 0; order--) {
+            final int partitionCount = 1 << order;
+            final int step = maxPartitionCount / partitionCount;
+            long bits = 0;
+            for (int p = 0; p < partitionCount; p++) {
+                long sum = 0;
+                for (int i = p * step; i < (p + 1) * step; i++) sum += partitionSums[i];
+                final int size =
+                    partitionStart(p + 1, partitionCount, count) - partitionStart(p, partitionCount, count);
+                final int k = riceParameter(sum, size);
+                bits += RICE_PARAMETER_BITS + (long) size * (k + 1) + (sum >> k);
+            }
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestOrder = order;
+            }
+        }
+
+        out.write(bestOrder, PARTITION_ORDER_BITS);
+        final int partitionCount = 1 << bestOrder;
+        for (int p = 0; p < partitionCount; p++) {
+            final int start = warmUp + partitionStart(p, partitionCount, count);
+            final int end = warmUp + partitionStart(p + 1, partitionCount, count);
+            writePartition(residuals, start, end, out);
+        }
+    }
+
+    // Rice codes single partition of residuals, or writes them as raw values if that takes fewer bits
+    private static void writePartition(int[] residuals, int start, int end, BitWriter out) {
+        long sum = 0;
+        int maxMagnitude = 0;
+        for (int i = start; i < end; i++) {
+            final int u = zigzag(residuals[i]);
+            sum += u;
+            maxMagnitude |= u;
+        }
+        final int size = end - start;
+        final int k = riceParameter(sum, size);
+        // raw values hold zigzag encoded residuals
+        final int rawBits = 32 - Integer.numberOfLeadingZeros(maxMagnitude);
+        long riceBits = (long) size * (k + 1);
+        for (int i = start; i < end; i++) riceBits += zigzag(residuals[i]) >>> k;
+
+        if (riceBits > (long) size * rawBits + RAW_BITS_BITS) {
+            out.write(RICE_ESCAPE, RICE_PARAMETER_BITS);
+            out.write(rawBits, RAW_BITS_BITS);
+            if (rawBits > 0) for (int i = start; i < end; i++) out.write(zigzag(residuals[i]), rawBits);
+            return;
+        }
+
+        out.write(k, RICE_PARAMETER_BITS);
+        for (int i = start; i < end; i++) {
+            final int u = zigzag(residuals[i]);
+            out.writeUnary(u >>> k);
+            if (k > 0) out.write(u, k);
+        }
+    }
+
+    // Decodes channel predicted by fixed polynomial predictor
+    private void decodeFixed(BitReader in, int frameCount, int ch, short[] out) throws IOException {
+        final int order = in.read(3);
+        if (order > MAX_FIXED_ORDER || order > frameCount) throw new IOException("Wrong predictor order: " + order);
+
+        final int[] x = samples;
+        for (int i = 0; i < order; i++) x[i] = in.readSigned(16);
+        readResiduals(in, order, frameCount, x);
+        switch (order) {
+            case 0:
+                break;
+            case 1:
+                for (int i = 1; i < frameCount; i++) x[i] += x[i - 1];
+                break;
+            case 2:
+                for (int i = 2; i < frameCount; i++) x[i] += 2 * x[i - 1] - x[i - 2];
+                break;
+            case 3:
+                for (int i = 3; i < frameCount; i++) x[i] += 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+                break;
+            default:
+                for (int i = 4; i < frameCount; i++) x[i] += 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+                break;
+        }
+        for (int i = 0, j = ch; i < frameCount; i++, j += channelCount) out[j] = (short) x[i];
+    }
+
+    // Decodes channel predicted by linear predictor
+    private void decodeLpc(BitReader in, int frameCount, int ch, short[] out) throws IOException {
+        if (frameCount < LPC_ORDER) throw new IOException("Block is too short for linear predictor: " + frameCount);
+
+        final int shift = in.read(LPC_SHIFT_BITS);
+        final int[] c = coefficients;
+        for (int i = 0; i < LPC_ORDER; i++) c[i] = in.readSigned(LPC_PRECISION);
+        final int[] x = samples;
+        for (int i = 0; i < LPC_ORDER; i++) x[i] = in.readSigned(16);
+        readResiduals(in, LPC_ORDER, frameCount, x);
+        for (int i = LPC_ORDER; i < frameCount; i++) {
+            long sum = 0;
+            for (int j = 0; j < LPC_ORDER; j++) sum += (long) c[j] * x[i - 1 - j];
+            x[i] += (int) (sum >> shift);
+        }
+        for (int i = 0, j = ch; i < frameCount; i++, j += channelCount) out[j] = (short) x[i];
+    }
+
+    // Reads residuals into specified array starting at specified warm-up sample
+    private static void readResiduals(BitReader in, int warmUp, int frameCount, int[] out) throws IOException {
+        final int count = frameCount - warmUp;
+        final int partitionCount = 1 << in.read(PARTITION_ORDER_BITS);
+        if (partitionCount > 1 << MAX_PARTITION_ORDER) throw new IOException("Wrong partition count");
+
+        for (int p = 0; p < partitionCount; p++) {
+            final int start = warmUp + partitionStart(p, partitionCount, count);
+            final int end = warmUp + partitionStart(p + 1, partitionCount, count);
+            final int k = in.read(RICE_PARAMETER_BITS);
+            if (k == RICE_ESCAPE) {
+                final int rawBits = in.read(RAW_BITS_BITS);
+                for (int i = start; i < end; i++) out[i] = unzigzag(in.read(rawBits));
+            } else {
+                for (int i = start; i < end; i++) {
+                    final int q = in.readUnary();
+                    out[i] = unzigzag((q << k) | in.read(k));
+                }
+            }
+        }
+    }
+
+    // Returns index of the first residual of specified partition
+    private static int partitionStart(int partition, int partitionCount, int count) {
+        return (int) ((long) count * partition / partitionCount);
+    }
+
+    // Returns Rice parameter for the residuals with specified sum of zigzag encoded values
+    private static int riceParameter(long sum, int count) {
+        if (count == 0 || sum < count) return 0;
+        final long mean = sum / count;
+        return Math.min(RICE_ESCAPE - 1, 63 - Long.numberOfLeadingZeros(mean));
+    }
+
+    // Maps signed value to unsigned so values with small magnitude stay small
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes values of specified number of bits into a growing byte array, most significant bit first.
+     */
+    static final class BitWriter {
+
+        private byte[] bytes;
+        private int position;
+        private long cache;
+        private int cachedBits;
+
+        BitWriter(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        /**
+         * Returns array that holds written bytes.
+         */
+        byte[] bytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns number of written bytes, not counting the bits that don't fill the whole byte.
+         */
+        int size() {
+            return position;
+        }
+
+        /**
+         * Clears all written bytes.
+         */
+        void reset() {
+            position = 0;
+            cache = 0;
+            cachedBits = 0;
+        }
+
+        /**
+         * Writes {@code bitCount} lowest bits of specified {@code value}. {@code bitCount} can't be larger than 32.
+         */
+        void write(int value, int bitCount) {
+            if (bitCount == 0) return;
+
+            cache = (cache << bitCount) | (value & (0xffffffffL >>> (32 - bitCount)));
+            cachedBits += bitCount;
+            if (cachedBits >= 32) flush();
+        }
+
+        /**
+         * Writes specified {@code value} as that many zeros followed by a one.
+         */
+        void writeUnary(int value) {
+            while (value >= 32) {
+                write(0, 32);
+                value -= 32;
+            }
+            write(1, value + 1);
+        }
+
+        /**
+         * Pads written bits with zeros to the whole byte.
+         */
+        void alignToByte() {
+            if ((cachedBits & 7) != 0) write(0, 8 - (cachedBits & 7));
+            flush();
+        }
+
+        // Moves whole cached bytes to the array
+        private void flush() {
+            if (position + 8 > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, 16));
+            while (cachedBits >= 8) {
+                cachedBits -= 8;
+                bytes[position++] = (byte) (cache >>> cachedBits);
+            }
+        }
+    }
+
+    /**
+     * Reads values of specified number of bits from a byte array, most significant bit first.
+     */
+    static final class BitReader {
+
+        private byte[] bytes;
+        private int position;
+        private int end;
+        // Bits that are read from the array but not consumed, aligned to the most significant bit
+        private long cache;
+        private int cachedBits;
+
+        /**
+         * Starts reading {@code length} bytes of specified {@code bytes} array starting at {@code offset}.
+         */
+        void reset(@NonNull byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.end = offset + length;
+            cache = 0;
+            cachedBits = 0;
+        }
+
+        /**
+         * Reads unsigned value of specified {@code bitCount} bits. {@code bitCount} can't be larger than 32.
+         */
+        int read(int bitCount) throws IOException {
+            if (bitCount == 0) return 0;
+            if (cachedBits < bitCount) {
+                refill();
+                if (cachedBits < bitCount) throw new IOException("Unexpected end of block");
+            }
+
+            final int value = (int) (cache >>> (64 - bitCount));
+            cache <<= bitCount;
+            cachedBits -= bitCount;
+            return value;
+        }
+
+        /**
+         * Reads signed value of specified {@code bitCount} bits.
+         */
+        int readSigned(int bitCount) throws IOException {
+            final int shift = 32 - bitCount;
+            return (read(bitCount) << shift) >> shift;
+        }
+
+        /**
+         * Reads number of zeros before the next one.
+         */
+        int readUnary() throws IOException {
+            int value = 0;
+            while (true) {
+                if (cachedBits == 0) refill();
+                final int zeros = Long.numberOfLeadingZeros(cache);
+                if (zeros < cachedBits) {
+                    cache <<= zeros + 1;
+                    cachedBits -= zeros + 1;
+                    return value + zeros;
+                }
+                value += cachedBits;
+                cache = 0;
+                cachedBits = 0;
+            }
+        }
+
+        /**
+         * Skips the bits that don't fill the whole byte.
+         */
+        void alignToByte() {
+            final int skip = cachedBits & 7;
+            cache <<= skip;
+            cachedBits -= skip;
+        }
+
+        // Fills the cache with as many whole bytes as it can hold
+        private void refill() throws IOException {
+            if (position >= end && cachedBits == 0) throw new IOException("Unexpected end of block");
+            while (cachedBits <= 56 && position < end) {
+                cache |= (bytes[position++] & 0xffL) << (56 - cachedBits);
+                cachedBits += 8;
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.backyardbrains.dsp.audio;
+
+import androidx.annotation.NonNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Writes 16-bit audio data to a lossless compressed file while it's being recorded. Data is collected into blocks of
+ * fixed number of frames and every full block is encoded with {@link LosslessCodec} and appended to the file. Frame
+ * count in the header is rewritten every time specified number of bytes is written, so everything up to the last
+ * commit can be read by {@link LosslessAudioFile} even if the app is killed while recording. Seek table is written
+ * when writer is closed.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class LosslessWriter implements RecordingWriter {
+
+    /**
+     * Default number of frames in a single block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    // Size of the buffer that collects encoded blocks before they are written to the file
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int sampleRate;
+    private final int channelCount;
+    private final int blockSize;
+    private final long commitInterval;
+
+    private final LosslessCodec codec;
+    private final LosslessCodec.BitWriter bitWriter;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    // Samples of the block that's currently collected
+    private final short[] samples;
+    private int sampleCount;
+    // Low byte of the sample that was split between two writes, or -1 if there is none
+    private int carry = -1;
+
+    // Position in the file of the first byte in the buffer
+    private long bufferPosition = LosslessAudioFile.HEADER_SIZE;
+    private long[] blockPositions = new long[64];
+    private int blockCount;
+    // Number of frames in all the encoded blocks
+    private long encodedFrameCount;
+    // Number of audio data bytes written so far
+    private long byteCount;
+    // Number of audio data bytes written before the last commit
+    private long committedByteCount;
+    private boolean closed;
+
+    /**
+     * Creates writer that writes data to specified {@code file} in blocks of {@link #DEFAULT_BLOCK_SIZE} frames and
+     * commits the header every time {@code commitInterval} bytes of data is written.
+     *
+     * @throws IOException if file cannot be opened or written to
+     */
+    public LosslessWriter(@NonNull File file, int sampleRate, int channelCount, long commitInterval)
+        throws IOException {
+        this(file, sampleRate, channelCount, commitInterval, DEFAULT_BLOCK_SIZE);
+    }
+
+    LosslessWriter(@NonNull File file, int sampleRate, int channelCount, long commitInterval, int blockSize)
+        throws IOException {
+        if (blockSize <= 0 || blockSize > LosslessAudioFile.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Wrong block size: " + blockSize);
+        }
+
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.blockSize = blockSize;
+        this.commitInterval = Math.max(1, commitInterval);
+
+        codec = new LosslessCodec(channelCount, blockSize);
+        // verbatim block with some room for the method bits is the largest possible block
+        bitWriter = new LosslessCodec.BitWriter(blockSize * channelCount * 2 + channelCount + 8);
+        samples = new short[blockSize * channelCount];
+
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            channel = raf.getChannel();
+            writeHeader(0);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns number of audio data bytes written so far, including the ones that are not encoded yet.
+     */
+    @Override public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Appends {@code len} bytes of 16-bit little-endian audio data from specified {@code b} array starting at
+     * {@code off}.
+     *
+     * @throws IOException if writer is closed or data cannot be written
+     */
+    @Override public synchronized void write(@NonNull byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("Writer is closed");
+
+        final int end = off + len;
+        while (off < end) {
+            if (carry < 0) {
+                carry = b[off++] & 0xFF;
+                continue;
+            }
+            samples[sampleCount++] = (short) ((b[off++] << 8) | carry);
+            carry = -1;
+
+            if (sampleCount == samples.length) encodeBlock(blockSize);
+        }
+        byteCount += len;
+
+        if (byteCount - committedByteCount >= commitInterval) commit();
+    }
+
+    /**
+     * Writes all encoded blocks to the file and updates the header so it describes them. Data that doesn't fill the
+     * whole block stays in memory until the block is full or writer is closed.
+     *
+     * @throws IOException if writer is closed or data cannot be written
+     */
+    public synchronized void commit() throws IOException {
+        if (closed) throw new IOException("Writer is closed");
+
+        flush();
+        writeHeader(0);
+        committedByteCount = byteCount;
+    }
+
+    /**
+     * Encodes the remaining whole frames, writes the seek table and closes the file.
+     */
+    @Override public synchronized void close() throws IOException {
+        if (closed) return;
+
+        try {
+            final int frameCount = sampleCount / channelCount;
+            if (frameCount > 0) encodeBlock(frameCount);
+            flush();
+
+            final long seekTablePosition = bufferPosition;
+            final ByteBuffer table = ByteBuffer.allocate(4 + blockCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+            table.putInt(blockCount);
+            for (int i = 0; i < blockCount; i++) table.putLong(blockPositions[i]);
+            table.flip();
+            while (table.hasRemaining()) channel.write(table, seekTablePosition + table.position());
+
+            writeHeader(seekTablePosition);
+        } finally {
+            closed = true;
+            raf.close();
+        }
+    }
+
+    // Encodes first frameCount frames of the collected samples and appends them to the buffer
+    private void encodeBlock(int frameCount) throws IOException {
+        bitWriter.reset();
+        codec.encode(samples, frameCount, bitWriter);
+        final int length = bitWriter.size();
+
+        if (buffer.remaining() < LosslessAudioFile.BLOCK_HEADER_SIZE + length) flush();
+        if (blockCount == blockPositions.length) blockPositions = Arrays.copyOf(blockPositions, blockCount * 2);
+        blockPositions[blockCount++] = bufferPosition + buffer.position();
+
+        buffer.putInt(length).putInt(frameCount);
+        // block can be larger than the buffer if it holds a lot of channels
+        if (buffer.remaining() >= length) {
+            buffer.put(bitWriter.bytes(), 0, length);
+        } else {
+            flush();
+            final ByteBuffer block = ByteBuffer.wrap(bitWriter.bytes(), 0, length);
+            while (block.hasRemaining()) channel.write(block, bufferPosition + block.position());
+            bufferPosition += length;
+        }
+        encodedFrameCount += frameCount;
+
+        // move samples that were not encoded to the start
+        final int encodedSampleCount = frameCount * channelCount;
+        System.arraycopy(samples, encodedSampleCount, samples, 0, sampleCount - encodedSampleCount);
+        sampleCount -= encodedSampleCount;
+    }
+
+    // Writes buffered bytes to the file
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer, bufferPosition + buffer.position());
+        bufferPosition += buffer.limit();
+        buffer.clear();
+    }
+
+    // Writes header that describes all the encoded blocks and the seek table at specified position
+    private void writeHeader(long seekTablePosition) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(LosslessAudioFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LosslessAudioFile.MAGIC)
+            .putInt(LosslessAudioFile.VERSION)
+            .putInt(sampleRate)
+            .putInt(channelCount)
+            .putInt(LosslessAudioFile.BITS_PER_SAMPLE)
+            .putInt(blockSize)
+            .putLong(encodedFrameCount)
+            .putLong(seekTablePosition);
+        header.flip();
+        while (header.hasRemaining()) channel.write(header, header.position());
+    }
+}
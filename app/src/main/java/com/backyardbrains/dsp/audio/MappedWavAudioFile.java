@@ -0,0 +1,142 @@
+package com.backyardbrains.dsp.audio;
+
+import android.media.MediaExtractor;
+import androidx.annotation.NonNull;
+import com.backyardbrains.utils.WavUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link WavAudioFile} which audio data is read from the data chunk mapped into memory. Reads at specified position
+ * don't move the file pointer and don't lock, so they can be done from any thread, and any range of samples can be
+ * viewed as a read-only {@link ShortBuffer} or {@link FloatBuffer} without copying.
+ * <p/>
+ * Data chunk is mapped on first read so creating the file just to check its format or length costs nothing.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class MappedWavAudioFile extends WavAudioFile {
+
+    // Max number of bytes that can be mapped into a single buffer
+    private static final long MAX_MAPPED_BYTE_COUNT = Integer.MAX_VALUE;
+
+    private final File file;
+
+    // Mapped data chunk, null until first read
+    private volatile ByteBuffer data;
+    private volatile boolean closed;
+    // Current file pointer, relative to the start of the data chunk
+    private volatile long position;
+
+    MappedWavAudioFile(@NonNull File file, @NonNull MediaExtractor extractor) throws IOException {
+        super(file, extractor);
+
+        this.file = file;
+    }
+
+    /**
+     * Whether data chunk of the specified {@code file} is small enough to be mapped into memory.
+     */
+    static boolean canMap(@NonNull File file) {
+        return file.length() - WavUtils.HEADER_SIZE <= MAX_MAPPED_BYTE_COUNT;
+    }
+
+    @Override public void close() throws IOException {
+        closed = true;
+        data = null;
+        super.close();
+    }
+
+    @Override public void seek(long offset) {
+        position = Math.max(0, Math.min(offset + WavUtils.HEADER_SIZE, length() - 1) - WavUtils.HEADER_SIZE);
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException {
+        final long position = this.position;
+        final int read = read(position, b, off, len);
+        if (read > 0) this.position = position + read;
+        return read;
+    }
+
+    @Override public int read(long position, byte[] b, int off, int len) throws IOException {
+        final ByteBuffer data = getData();
+        if (position >= data.limit()) return len > 0 ? -1 : 0;
+
+        final int count = (int) Math.min(len, data.limit() - position);
+        final ByteBuffer view = data.duplicate();
+        view.position((int) position);
+        view.get(b, off, count);
+        return count;
+    }
+
+    @Override public long getFilePointer() {
+        return position;
+    }
+
+    /**
+     * Returns read-only view of {@code len} bytes of audio data starting from specified {@code position}. View is
+     * shorter if there's less data left.
+     *
+     * @throws IOException
+     */
+    @NonNull public ByteBuffer slice(long position, int len) throws IOException {
+        final ByteBuffer data = getData();
+        final int start = (int) Math.min(Math.max(0, position), data.limit());
+        final ByteBuffer view = data.duplicate();
+        view.position(start);
+        view.limit((int) Math.min(data.limit(), start + (long) len));
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns read-only view of {@code sampleCount} interleaved 16-bit samples starting from sample at specified
+     * {@code sampleIndex}. View is shorter if there's less samples left.
+     *
+     * @throws IOException
+     * @throws IllegalStateException if samples are not 16-bit
+     */
+    @NonNull public ShortBuffer asShortBuffer(long sampleIndex, int sampleCount) throws IOException {
+        if (bitsPerSample() != 16) throw new IllegalStateException("Samples are not 16-bit");
+
+        return slice(sampleIndex * 2, sampleCount * 2).asShortBuffer();
+    }
+
+    /**
+     * Returns read-only view of {@code sampleCount} interleaved 32-bit float samples starting from sample at specified
+     * {@code sampleIndex}. View is shorter if there's less samples left.
+     *
+     * @throws IOException
+     * @throws IllegalStateException if samples are not 32-bit
+     */
+    @NonNull public FloatBuffer asFloatBuffer(long sampleIndex, int sampleCount) throws IOException {
+        if (bitsPerSample() != 32) throw new IllegalStateException("Samples are not 32-bit");
+
+        return slice(sampleIndex * 4, sampleCount * 4).asFloatBuffer();
+    }
+
+    // Maps data chunk of the file if it's not already mapped and returns it
+    private ByteBuffer getData() throws IOException {
+        ByteBuffer data = this.data;
+        if (data != null) return data;
+
+        synchronized (this) {
+            if (closed) throw new IOException("File is closed");
+            if (this.data == null) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel fc = raf.getChannel()) {
+                    final long size = Math.max(0, fc.size() - WavUtils.HEADER_SIZE);
+                    if (size > MAX_MAPPED_BYTE_COUNT) throw new IOException("File is too large to be mapped");
+
+                    this.data = fc.map(FileChannel.MapMode.READ_ONLY, WavUtils.HEADER_SIZE, size)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+            return this.data;
+        }
+    }
+}
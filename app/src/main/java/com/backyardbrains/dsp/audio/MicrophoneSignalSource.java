@@ -168,6 +168,13 @@ public class MicrophoneSignalSource extends AbstractSignalSource {
         //benchmark.end();
     }
 
+    @Override
+    public void processIncomingDataInPipeline(@NonNull SignalData outData, byte[] inData, int inDataLength,
+            boolean signalAveraging) {
+        JniUtils.processPipeline(JniUtils.PIPELINE_DECODER_MICROPHONE, 0, inData, inDataLength, null,
+                signalAveraging);
+    }
+
     @Override
     public int getType() {
         return Type.MICROPHONE;
@@ -18,6 +18,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -235,11 +236,11 @@ public class PlaybackSignalSource extends AbstractSignalSource {
                 // buffer needs to be initialized
                 if (buffer == null) return;
 
-                // number of bytes actually read during single read
-                if (raf.read(buffer) > 0) {
-                    if (zerosPrependCount < 0) {
-                        BufferUtils.shiftRight(buffer, (int) Math.abs(zerosPrependCount));
-                    }
+                // at the beginning of the file data is read after the zeros that need to be prepended
+                final int prependByteCount = (int) Math.max(0, -zerosPrependCount);
+                final int len = bufferSize - prependByteCount;
+                if (len == 0 || raf.read(buffer, prependByteCount, len) > 0) {
+                    if (prependByteCount > 0) Arrays.fill(buffer, 0, prependByteCount, (byte) 0);
 
                     // number of samples to prepend
                     samplesToPrepend.set(
@@ -30,16 +30,13 @@ import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.RecordingUtils;
 import com.google.firebase.crashlytics.FirebaseCrashlytics;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
-import org.greenrobot.essentials.io.CircularByteBuffer;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
@@ -57,6 +54,18 @@ public class Recorder {
         private static final int BUFFER_SIZE_IN_SAMPLES =
             AudioUtils.DEFAULT_SAMPLE_RATE * BUFFER_SIZE_IN_SEC;
         private static final int BUFFER_SIZE_IN_BYTES = BUFFER_SIZE_IN_SAMPLES * 2;
+        // Chunks of the queue that passes samples to the writing thread, ~6 seconds of 44.1 kHz stereo signal
+        private static final int CHUNK_COUNT = 256;
+        private static final int CHUNK_SIZE = 4096;
+        // Flags that tell whether queued samples should be recorded and/or played back
+        private static final int FLAG_RECORD = 1;
+        private static final int FLAG_PLAY = 2;
+        // Id of the recording queued samples belong to is passed in the flags above the record and play flags
+        private static final int RECORDING_ID_SHIFT = 2;
+        // Max time to wait for queued samples to be written to the recorded file once recording is stopped
+        private static final long DRAIN_TIMEOUT_MILLIS = 5000;
+        // How often is header of the recorded file updated so the file can be opened if recording is interrupted
+        private static final int HEADER_COMMIT_INTERVAL_IN_SEC = 2;
 
         private final ByteBuffer bb;
 
@@ -69,14 +78,22 @@ public class Recorder {
             // always record 16 bits per sample
 
         private File audioFile;
-        private OutputStream outputStream;
+        // Guards the writer and the envelope builder which are closed by the thread that stops recording, while this
+        // thread might still write samples to them if they weren't drained in time
+        private final Object writerLock = new Object();
+        private RecordingWriter writer;
+        // Id of the current recording, samples of the previous recordings that are still queued are not written
+        private volatile int recordingId;
+        // Number of frames passed for recording, kept in memory so events can be positioned without reading file length
+        private volatile long recordedFrameCount;
         private File eventsFile;
-        private AudioTrack audioTrack;
+        // Collects envelope of the written samples so recording can be zoomed out without reading it again
+        private EnvelopeIndex.Builder envelopeBuilder;
+        private volatile AudioTrack audioTrack;
         private StringBuffer eventsFileContent =
             new StringBuffer(EVENT_MARKERS_FILE_HEADER_CONTENT);
         private List<Pair<Integer, String>> events = new ArrayList<>();
-        private CircularByteBuffer buffer = new CircularByteBuffer(BUFFER_SIZE_IN_BYTES);
-        private byte[] byteBuffer = new byte[BUFFER_SIZE_IN_BYTES];
+        private final ChunkQueue queue = new ChunkQueue(CHUNK_COUNT, CHUNK_SIZE);
         private short[] samples = new short[BUFFER_SIZE_IN_SAMPLES];
 
         WriteThread() {
@@ -86,37 +103,65 @@ public class Recorder {
 
         @Override public void run() {
             try {
-                while (working.get()) {
+                ChunkQueue.Chunk chunk;
+                // thread is parked while there are no samples to write
+                while ((chunk = queue.take()) != null) {
                     try {
-                        int size = buffer.get(byteBuffer);
-                        if (size > 0) {
-                            if (recording.get()) outputStream.write(byteBuffer, 0, size);
-                            if (playing.get()) audioTrack.write(byteBuffer, 0, size);
+                        if ((chunk.flags & FLAG_RECORD) != 0) {
+                            synchronized (writerLock) {
+                                if (writer != null && chunk.flags >>> RECORDING_ID_SHIFT == recordingId) {
+                                    writer.write(chunk.data, 0, chunk.size);
+                                    addToEnvelope(chunk);
+                                }
+                            }
                         }
-                    } catch (IOException e) {
-                        throw new IllegalStateException("Could not write sample to file", e);
+                        // audio track can be released while chunk is written
+                        final AudioTrack track = audioTrack;
+                        if ((chunk.flags & FLAG_PLAY) != 0 && playing.get() && track != null) {
+                            track.write(chunk.data, 0, chunk.size);
+                        }
+                    } catch (IOException | IllegalStateException e) {
+                        FirebaseCrashlytics.getInstance().recordException(e);
+                    } finally {
+                        queue.release(chunk);
                     }
                 }
-            } catch (IllegalStateException e) {
-                FirebaseCrashlytics.getInstance().recordException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
 
-        void startRecording(int sampleRate, int visibleChannelCount) throws IOException {
+        void startRecording(int sampleRate, int visibleChannelCount, boolean lossless) throws IOException {
             this.sampleRate = sampleRate;
             this.channelCount = visibleChannelCount;
 
             // create recording file
-            audioFile = RecordingUtils.createRecordingFile();
-            // and stream to write samples to
+            audioFile = RecordingUtils.createRecordingFile(lossless);
+            // and writer to write samples to
+            final long commitInterval =
+                (long) HEADER_COMMIT_INTERVAL_IN_SEC * sampleRate * channelCount * bitsPerSample / 8;
+            final RecordingWriter newWriter;
             try {
-                outputStream = new FileOutputStream(audioFile);
-            } catch (FileNotFoundException e) {
+                if (lossless) {
+                    newWriter = new LosslessWriter(audioFile, sampleRate, channelCount, commitInterval);
+                } else {
+                    newWriter = new WavWriter(audioFile, sampleRate, channelCount, AudioUtils.DEFAULT_ENCODING,
+                        commitInterval, 0);
+                }
+            } catch (IOException e) {
                 FirebaseCrashlytics.getInstance().recordException(e);
                 throw new IOException(
-                    "Could not build OutputStream from audio file: " + audioFile.getAbsolutePath(),
+                    "Could not build writer from audio file: " + audioFile.getAbsolutePath(),
                     e);
             }
+            synchronized (writerLock) {
+                writer = newWriter;
+                envelopeBuilder =
+                    new EnvelopeIndex.Builder(channelCount, RecordingUtils.getEnvelopeFile(audioFile));
+                recordingId++;
+            }
+            recordedFrameCount = 0;
+            queue.resetMetrics();
             // create events file
             eventsFile = RecordingUtils.createEventsFile(audioFile);
             events.clear();
@@ -132,6 +177,17 @@ public class Recorder {
             // stop
             recording.set(false);
 
+            // wait for the queued samples to be written, samples that aren't written in time are dropped
+            try {
+                if (!queue.drain(DRAIN_TIMEOUT_MILLIS)) {
+                    FirebaseCrashlytics.getInstance().log("Recorder queue wasn't drained in time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            LOGD(TAG, "Recording stopped, max queue depth: " + queue.getMaxDepth() + ", dropped samples: "
+                + getDroppedSampleCount());
+
             // close the stream and save the recorded file
             saveFiles();
         }
@@ -164,29 +220,31 @@ public class Recorder {
          */
         void writeData(@NonNull SignalData signalData) {
             if (working.get()) {
-                int frameCount = 0;
                 boolean isRecording = recording.get();
 
                 // we need to save current recording length before writing the actual samples
-                if (isRecording) {
-                    frameCount = (int) AudioUtils.getFrameCount(audioFile.length(), channelCount,
-                        bitsPerSample);
-                }
+                int frameCount = (int) recordedFrameCount;
 
                 // save samples to buffer as bytes
+                // whole batch is either queued or dropped, so recorded file always holds whole frames
+                boolean queued = false;
                 if (isRecording || playing.get()) {
                     int sampleCount = JniUtils.interleaveSignal(samples, signalData);
                     bb.asShortBuffer().put(samples, 0, sampleCount);
-                    buffer.put(bb.array(), 0, sampleCount * 2);
+                    queued = queue.offer(bb.array(), sampleCount * 2,
+                        (isRecording ? FLAG_RECORD : 0) | (playing.get() ? FLAG_PLAY : 0)
+                            | recordingId << RECORDING_ID_SHIFT) > 0;
+                    // recording length only follows the samples that are actually written
+                    if (isRecording && queued) recordedFrameCount += sampleCount / channelCount;
                 }
 
-                // save events
+                // save events, events of the dropped samples are placed where the samples are missing
                 if (isRecording) {
                     String event;
                     for (int i = 0; i < signalData.eventCount; i++) {
                         event = signalData.eventNames[i];
                         if (event != null) {
-                            events.add(new Pair<>(frameCount + signalData.eventIndices[i], event));
+                            events.add(new Pair<>(frameCount + (queued ? signalData.eventIndices[i] : 0), event));
                         }
                     }
                 }
@@ -196,34 +254,89 @@ public class Recorder {
         public void addManualEvent(int event){
             boolean isRecording = recording.get();
             if (isRecording) {
-                int frameCount = (int) AudioUtils.getFrameCount(audioFile.length(), channelCount,
-                    bitsPerSample);
-                events.add(new Pair<>(frameCount + event, String.valueOf(event)));
+                events.add(new Pair<>((int) recordedFrameCount + event, String.valueOf(event)));
             }
         }
 
         /**
-         * Returns current length of the recorded file.
+         * Returns current length of the recorded audio.
          *
-         * @return Length of the recorded file in bytes.
+         * @return Length of the recorded audio in bytes.
          */
         long getCurrentLength() {
-            return audioFile != null ? audioFile.length() : 0;
+            return recordedFrameCount * channelCount * bitsPerSample / 8;
+        }
+
+        /**
+         * Returns number of chunks of samples that are waiting to be written.
+         */
+        int getQueueDepth() {
+            return queue.getDepth();
+        }
+
+        /**
+         * Returns max number of chunks of samples that were waiting to be written since the recording started.
+         */
+        int getMaxQueueDepth() {
+            return queue.getMaxDepth();
+        }
+
+        /**
+         * Returns number of samples that were dropped since the recording started because writing was too slow.
+         */
+        long getDroppedSampleCount() {
+            return queue.getDroppedByteCount() / 2;
+        }
+
+        /**
+         * Stops the thread once all the queued samples are written.
+         */
+        void quit() {
+            queue.stop();
         }
 
         // Closes the audio stream and saves the audio file to storage
         private void saveFiles() {
+            EnvelopeIndex.Builder builder = null;
             try {
-                if (outputStream != null) {
-                    outputStream.flush();
-                    outputStream.close();
-                }
-                if (audioFile != null) {
-                    WavAudioFile.save(audioFile, channelCount, sampleRate, AudioUtils.DEFAULT_ENCODING);
+                // closing the writer commits the header of the recorded file, samples that are still queued are
+                // dropped once it's closed
+                final long byteCount;
+                synchronized (writerLock) {
+                    if (writer == null) return;
+
+                    builder = envelopeBuilder;
+                    envelopeBuilder = null;
+                    try {
+                        writer.close();
+                        byteCount = writer.getByteCount();
+                    } finally {
+                        writer = null;
+                    }
                 }
                 if (events.size() > 0) saveEventFile();
+                // envelope is saved last because it needs the final length and modification time of the recording
+                if (audioFile != null && builder != null) {
+                    builder.save(audioFile, byteCount / (channelCount * bitsPerSample / 8));
+                }
+            } catch (IOException e) {
+                FirebaseCrashlytics.getInstance().recordException(e);
+            } finally {
+                if (builder != null) builder.discard();
+            }
+        }
+
+        // Adds written samples to the envelope. If envelope can't be built it's dropped, recording without envelope
+        // gets one once it's opened
+        private void addToEnvelope(@NonNull ChunkQueue.Chunk chunk) {
+            if (envelopeBuilder == null) return;
+
+            try {
+                envelopeBuilder.add(chunk.data, chunk.size);
             } catch (IOException e) {
                 FirebaseCrashlytics.getInstance().recordException(e);
+                envelopeBuilder.discard();
+                envelopeBuilder = null;
             }
         }
 
@@ -288,7 +401,17 @@ public class Recorder {
      * @throws IOException
      */
     public void startRecording(int sampleRate, int visibleChannelCount) throws IOException {
-        writeThread.startRecording(sampleRate, visibleChannelCount);
+        startRecording(sampleRate, visibleChannelCount, false);
+    }
+
+    /**
+     * Starts recording incoming signal. If {@code lossless} is {@code true} signal is recorded to a lossless
+     * compressed file, otherwise to a WAV file.
+     *
+     * @throws IOException
+     */
+    public void startRecording(int sampleRate, int visibleChannelCount, boolean lossless) throws IOException {
+        writeThread.startRecording(sampleRate, visibleChannelCount, lossless);
     }
 
     public void addManualEvent(int event){
@@ -337,6 +460,28 @@ public class Recorder {
         return writeThread != null ? writeThread.getCurrentLength() : 0;
     }
 
+    /**
+     * Returns number of chunks of samples that are waiting to be written.
+     */
+    public int getQueueDepth() {
+        return writeThread != null ? writeThread.getQueueDepth() : 0;
+    }
+
+    /**
+     * Returns max number of chunks of samples that were waiting to be written since the recording started.
+     */
+    public int getMaxQueueDepth() {
+        return writeThread != null ? writeThread.getMaxQueueDepth() : 0;
+    }
+
+    /**
+     * Returns number of samples that were dropped since the recording started because they couldn't be written in
+     * time.
+     */
+    public long getDroppedSampleCount() {
+        return writeThread != null ? writeThread.getDroppedSampleCount() : 0;
+    }
+
     /**
      * Requests the recording to stop.
      */
@@ -344,6 +489,7 @@ public class Recorder {
         writeThread.stopRecording();
         writeThread.stopPlayback();
         working.set(false);
+        writeThread.quit();
         writeThread = null;
     }
 }
@@ -0,0 +1,26 @@
+package com.backyardbrains.dsp.audio;
+
+import androidx.annotation.NonNull;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes audio data to the file while it's being recorded.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public interface RecordingWriter extends Closeable {
+
+    /**
+     * Appends {@code len} bytes of 16-bit little-endian interleaved samples from specified {@code b} array starting at
+     * {@code off}.
+     *
+     * @throws IOException if writer is closed or data cannot be written
+     */
+    void write(@NonNull byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Returns number of audio data bytes written so far.
+     */
+    long getByteCount();
+}
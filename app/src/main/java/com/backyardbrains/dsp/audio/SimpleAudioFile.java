@@ -26,6 +26,11 @@ public class SimpleAudioFile extends BaseAudioFile {
             "read(b, off, len) is not supported for M4A audio files.");
     }
 
+    @Override public int read(long position, byte[] b, int off, int len) {
+        throw new UnsupportedOperationException(
+            "read(position, b, off, len) is not supported for M4A audio files.");
+    }
+
     @Override public long getFilePointer() {
         throw new UnsupportedOperationException(
             "getFilePointer() is not supported for M4A audio files.");
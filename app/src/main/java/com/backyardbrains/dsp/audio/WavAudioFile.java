@@ -8,6 +8,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
@@ -70,6 +72,19 @@ public class WavAudioFile extends BaseAudioFile {
         }
     }
 
+    @Override public int read(long position, byte[] b, int off, int len) throws IOException {
+        // channel reads at specified position don't move the file pointer so there's no need to lock
+        final FileChannel channel = raf.getChannel();
+        int total = 0;
+        while (total < len) {
+            final int read =
+                channel.read(ByteBuffer.wrap(b, off + total, len - total), position + WavUtils.HEADER_SIZE + total);
+            if (read <= 0) break;
+            total += read;
+        }
+        return total == 0 && len > 0 ? -1 : total;
+    }
+
     @Override public long getFilePointer() throws IOException {
         synchronized (raf) {
             return raf.getFilePointer() - WavUtils.HEADER_SIZE;
@@ -0,0 +1,174 @@
+package com.backyardbrains.dsp.audio;
+
+import androidx.annotation.NonNull;
+import com.backyardbrains.utils.WavUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes audio data to a WAV file while it's being recorded. Number of written bytes is kept in memory so it doesn't
+ * need to be read from the file system, data is written through a {@link FileChannel} in large blocks aligned to the
+ * size of the write buffer, and RIFF and data chunk sizes in the header are rewritten every time specified number of
+ * bytes is written, so the file is always a valid WAV file that holds everything up to the last commit, even if the
+ * app is killed while recording.
+ * <p/>
+ * File can optionally be preallocated in steps of specified size, and is truncated to the length of the written data
+ * when writer is closed.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class WavWriter implements RecordingWriter {
+
+    /**
+     * Default size of the write buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int sampleRate;
+    private final int channelCount;
+    private final int encoding;
+    private final long commitInterval;
+    private final long preallocationSize;
+
+    // Position in the file of the first byte in the buffer, always a multiple of the buffer size
+    private long bufferPosition;
+    // Number of bytes at the start of the buffer that are already written to the file
+    private int bufferFlushed;
+    // Number of audio data bytes written so far
+    private long byteCount;
+    // Number of audio data bytes described by the header in the file
+    private long committedByteCount;
+    // Current length of the file including preallocated space
+    private long allocatedLength;
+    private boolean closed;
+
+    /**
+     * Creates writer that writes data to specified {@code file} through the buffer of {@link #DEFAULT_BUFFER_SIZE},
+     * commits the header every time {@code commitInterval} bytes of data is written and preallocates the file in
+     * steps of {@code preallocationSize} bytes. If {@code preallocationSize} is {@code 0} file is not preallocated.
+     *
+     * @throws IOException if file cannot be opened or written to
+     */
+    public WavWriter(@NonNull File file, int sampleRate, int channelCount, int encoding, long commitInterval,
+        long preallocationSize) throws IOException {
+        this(file, sampleRate, channelCount, encoding, commitInterval, preallocationSize, DEFAULT_BUFFER_SIZE);
+    }
+
+    WavWriter(@NonNull File file, int sampleRate, int channelCount, int encoding, long commitInterval,
+        long preallocationSize, int bufferSize) throws IOException {
+        if (bufferSize < WavUtils.HEADER_SIZE) throw new IllegalArgumentException("Buffer is smaller than header");
+
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.encoding = encoding;
+        this.commitInterval = Math.max(1, commitInterval);
+        this.preallocationSize = Math.max(0, preallocationSize);
+
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            channel = raf.getChannel();
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+            // header occupies the start of the first block and is written with it
+            buffer.put(header(0));
+            commit();
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns number of audio data bytes written so far, including the ones that are still buffered.
+     */
+    @Override public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Appends {@code len} bytes of audio data from specified {@code b} array starting at {@code off}.
+     *
+     * @throws IOException if writer is closed or data cannot be written
+     */
+    @Override public synchronized void write(@NonNull byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("Writer is closed");
+
+        while (len > 0) {
+            final int count = Math.min(len, buffer.remaining());
+            buffer.put(b, off, count);
+            off += count;
+            len -= count;
+            byteCount += count;
+
+            // write out every block as soon as it's full
+            if (!buffer.hasRemaining()) {
+                flush();
+                bufferPosition += buffer.capacity();
+                bufferFlushed = 0;
+                buffer.clear();
+            }
+        }
+
+        if (byteCount - committedByteCount >= commitInterval) commit();
+    }
+
+    /**
+     * Writes all buffered data to the file and updates the header so it describes all the data written so far.
+     *
+     * @throws IOException if writer is closed or data cannot be written
+     */
+    public synchronized void commit() throws IOException {
+        if (closed) throw new IOException("Writer is closed");
+
+        flush();
+        final ByteBuffer header = ByteBuffer.wrap(header(byteCount));
+        while (header.hasRemaining()) channel.write(header, header.position());
+        committedByteCount = byteCount;
+    }
+
+    /**
+     * Commits all the written data and closes the file, truncating space that was preallocated but not used.
+     */
+    @Override public synchronized void close() throws IOException {
+        if (closed) return;
+
+        try {
+            commit();
+            if (allocatedLength > WavUtils.HEADER_SIZE + byteCount) raf.setLength(WavUtils.HEADER_SIZE + byteCount);
+        } finally {
+            closed = true;
+            raf.close();
+        }
+    }
+
+    // Writes buffered bytes that haven't been written yet to the file
+    private void flush() throws IOException {
+        final int end = buffer.position();
+        if (end == bufferFlushed) return;
+
+        // extend the file before writing past its current length
+        final long endPosition = bufferPosition + end;
+        if (preallocationSize > 0 && endPosition > allocatedLength) {
+            allocatedLength = (endPosition + preallocationSize - 1) / preallocationSize * preallocationSize;
+            raf.setLength(allocatedLength);
+        } else if (endPosition > allocatedLength) {
+            allocatedLength = endPosition;
+        }
+
+        final ByteBuffer block = buffer.duplicate();
+        block.position(bufferFlushed).limit(end);
+        while (block.hasRemaining()) channel.write(block, bufferPosition + block.position());
+        bufferFlushed = end;
+    }
+
+    // Returns WAV header for the file that holds specified number of audio data bytes
+    private byte[] header(long dataByteCount) {
+        return WavUtils.writeHeader(WavUtils.HEADER_SIZE + dataByteCount, sampleRate, channelCount, encoding);
+    }
+}
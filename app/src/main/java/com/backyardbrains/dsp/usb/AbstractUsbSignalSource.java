@@ -326,6 +326,16 @@ public abstract class AbstractUsbSignalSource extends AbstractSignalSource imple
         //benchmark.end();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void processIncomingDataInPipeline(@NonNull SignalData outData, byte[] inData, int inDataLength,
+            boolean signalAveraging) {
+        JniUtils.processPipeline(JniUtils.PIPELINE_DECODER_SAMPLE_STREAM, hardwareType, inData, inDataLength, this,
+                signalAveraging);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -3,16 +3,29 @@ package com.backyardbrains.events;
 import com.backyardbrains.analysis.AnalysisType;
 
 /**
+ * Posted once analysis is finished, and periodically while it's still running to report its progress.
+ *
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
 public class AnalysisDoneEvent {
 
     private final boolean success;
     private final @AnalysisType int type;
+    private final boolean inProgress;
+    private final float progress;
 
     public AnalysisDoneEvent(boolean success, @AnalysisType int type) {
         this.success = success;
         this.type = type;
+        this.inProgress = false;
+        this.progress = 1f;
+    }
+
+    public AnalysisDoneEvent(@AnalysisType int type, float progress) {
+        this.success = false;
+        this.type = type;
+        this.inProgress = true;
+        this.progress = progress;
     }
 
     public boolean isSuccess() {
@@ -22,4 +35,18 @@ public class AnalysisDoneEvent {
     public @AnalysisType int getType() {
         return type;
     }
+
+    /**
+     * Whether analysis is still running and event only reports its progress.
+     */
+    public boolean isInProgress() {
+        return inProgress;
+    }
+
+    /**
+     * Returns progress of the analysis, between {@code 0} and {@code 1}.
+     */
+    public float getProgress() {
+        return progress;
+    }
 }
@@ -0,0 +1,320 @@
+package com.backyardbrains.filters;
+
+import androidx.annotation.NonNull;
+import java.util.Arrays;
+
+/**
+ * User defined chain of filters that are applied to the incoming signal instead of the band and notch filters. Chain
+ * is made of stages (Butterworth and Chebyshev type I low and high pass filters of order up to {@link #MAX_ORDER},
+ * notch filters and comb notch filters that remove the fundamental frequency and its harmonics) and is designed as a
+ * cascade of second-order sections (biquads) for the sample rate of the signal that's being filtered.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class FilterChain {
+
+    /**
+     * Max number of second-order sections in the chain, same as the max number of sections of the native cascade.
+     */
+    public static final int MAX_SECTION_COUNT = 32;
+    /**
+     * Max order of low and high pass filters.
+     */
+    public static final int MAX_ORDER = 8;
+    /**
+     * Number of coefficients of a single second-order section: b0, b1, b2, a1, a2.
+     */
+    public static final int COEFFICIENT_COUNT = 5;
+
+    /**
+     * Single stage of the filter chain.
+     */
+    public static final class Stage {
+
+        static final int TYPE_BUTTERWORTH_LOW_PASS = 0;
+        static final int TYPE_BUTTERWORTH_HIGH_PASS = 1;
+        static final int TYPE_CHEBYSHEV_LOW_PASS = 2;
+        static final int TYPE_CHEBYSHEV_HIGH_PASS = 3;
+        static final int TYPE_NOTCH = 4;
+        static final int TYPE_COMB_NOTCH = 5;
+
+        final int type;
+        // Cut-off frequency of low and high pass filters, center frequency of notch and fundamental of comb notch
+        final float frequency;
+        // Order of low and high pass filters, number of notched harmonics (including the fundamental) of comb notch
+        final int order;
+        // Passband ripple of Chebyshev filters in dB
+        final float ripple;
+        // Quality factor of notch filters, for comb notch quality of the fundamental
+        final float q;
+
+        private Stage(int type, float frequency, int order, float ripple, float q) {
+            this.type = type;
+            this.frequency = frequency;
+            this.order = order;
+            this.ripple = ripple;
+            this.q = q;
+        }
+
+        /**
+         * Creates Butterworth low pass filter of specified {@code order} with specified {@code cutOff} frequency.
+         */
+        public static Stage butterworthLowPass(int order, float cutOff) {
+            validateOrder(order);
+            validateFrequency(cutOff);
+            return new Stage(TYPE_BUTTERWORTH_LOW_PASS, cutOff, order, 0f, 0f);
+        }
+
+        /**
+         * Creates Butterworth high pass filter of specified {@code order} with specified {@code cutOff} frequency.
+         */
+        public static Stage butterworthHighPass(int order, float cutOff) {
+            validateOrder(order);
+            validateFrequency(cutOff);
+            return new Stage(TYPE_BUTTERWORTH_HIGH_PASS, cutOff, order, 0f, 0f);
+        }
+
+        /**
+         * Creates Chebyshev type I low pass filter of specified {@code order} with specified passband {@code ripple}
+         * (in dB) and passband edge at specified {@code cutOff} frequency.
+         */
+        public static Stage chebyshevLowPass(int order, float cutOff, float ripple) {
+            validateOrder(order);
+            validateFrequency(cutOff);
+            validateRipple(ripple);
+            return new Stage(TYPE_CHEBYSHEV_LOW_PASS, cutOff, order, ripple, 0f);
+        }
+
+        /**
+         * Creates Chebyshev type I high pass filter of specified {@code order} with specified passband {@code ripple}
+         * (in dB) and passband edge at specified {@code cutOff} frequency.
+         */
+        public static Stage chebyshevHighPass(int order, float cutOff, float ripple) {
+            validateOrder(order);
+            validateFrequency(cutOff);
+            validateRipple(ripple);
+            return new Stage(TYPE_CHEBYSHEV_HIGH_PASS, cutOff, order, ripple, 0f);
+        }
+
+        /**
+         * Creates notch filter with specified {@code center} frequency and quality factor {@code q}.
+         */
+        public static Stage notch(float center, float q) {
+            validateFrequency(center);
+            validateQ(q);
+            return new Stage(TYPE_NOTCH, center, 2, 0f, q);
+        }
+
+        /**
+         * Creates comb of notch filters that remove specified {@code fundamental} frequency and first
+         * {@code harmonicCount} multiples of it, including the fundamental. Every notch has the same bandwidth, so
+         * quality factor of the fundamental is {@code q} and quality factor of the k-th harmonic is {@code k * q}.
+         * Harmonics that are above the Nyquist frequency of the signal are skipped.
+         */
+        public static Stage combNotch(float fundamental, int harmonicCount, float q) {
+            validateFrequency(fundamental);
+            validateQ(q);
+            if (harmonicCount < 1 || harmonicCount > MAX_SECTION_COUNT) {
+                throw new IllegalArgumentException(
+                    "Harmonic count needs to be between 1 and " + MAX_SECTION_COUNT + ", was " + harmonicCount);
+            }
+            return new Stage(TYPE_COMB_NOTCH, fundamental, harmonicCount, 0f, q);
+        }
+
+        // Returns max number of second-order sections this stage can be designed with
+        int getMaxSectionCount() {
+            switch (type) {
+                case TYPE_NOTCH:
+                    return 1;
+                case TYPE_COMB_NOTCH:
+                    return order;
+                default:
+                    return (order + 1) / 2;
+            }
+        }
+
+        // Returns whether the stage can be designed for the specified sample rate
+        boolean isSupported(float sampleRate) {
+            return frequency < sampleRate / 2f;
+        }
+
+        // Designs second-order sections of this stage for specified sample rate and appends their coefficients
+        // to specified array starting at specified section, returns number of appended sections
+        int design(float sampleRate, float[] sos, int section) {
+            switch (type) {
+                case TYPE_BUTTERWORTH_LOW_PASS:
+                case TYPE_CHEBYSHEV_LOW_PASS:
+                    return designPass(sampleRate, true, sos, section);
+                case TYPE_BUTTERWORTH_HIGH_PASS:
+                case TYPE_CHEBYSHEV_HIGH_PASS:
+                    return designPass(sampleRate, false, sos, section);
+                case TYPE_NOTCH:
+                    designNotch(frequency, q, sampleRate, sos, section);
+                    return 1;
+                case TYPE_COMB_NOTCH:
+                    int count = 0;
+                    for (int k = 1; k <= order && k * frequency < sampleRate / 2f; k++) {
+                        designNotch(k * frequency, k * q, sampleRate, sos, section + count++);
+                    }
+                    return count;
+                default:
+                    return 0;
+            }
+        }
+
+        // Designs low or high pass filter from the analog prototype with cut-off at 1 rad/s using bilinear transform
+        private int designPass(float sampleRate, boolean lowPass, float[] sos, int section) {
+            final boolean chebyshev = type == TYPE_CHEBYSHEV_LOW_PASS || type == TYPE_CHEBYSHEV_HIGH_PASS;
+            // Butterworth poles lie on the unit circle, Chebyshev poles on the ellipse squeezed by the ripple
+            double sinhMu = 1d, coshMu = 1d;
+            if (chebyshev) {
+                final double epsilon = Math.sqrt(Math.pow(10d, ripple / 10d) - 1d);
+                final double x = 1d / epsilon;
+                final double mu = Math.log(x + Math.sqrt(x * x + 1d)) / order;
+                sinhMu = Math.sinh(mu);
+                coshMu = Math.cosh(mu);
+            }
+            // pre-warped cut-off frequency
+            final double warped = Math.tan(Math.PI * frequency / sampleRate);
+
+            int count = 0;
+            for (int k = 0; k < order / 2; k++) {
+                final double theta = (2 * k + 1) * Math.PI / (2 * order);
+                final double re = sinhMu * Math.sin(theta);
+                final double im = coshMu * Math.cos(theta);
+                final double w0 = Math.sqrt(re * re + im * im);
+                final double q = w0 / (2d * re);
+                final double K = lowPass ? w0 * warped : warped / w0;
+                final double norm = 1d / (1d + K / q + K * K);
+                final int i = (section + count++) * COEFFICIENT_COUNT;
+                sos[i] = (float) (lowPass ? K * K * norm : norm);
+                sos[i + 1] = lowPass ? 2f * sos[i] : -2f * sos[i];
+                sos[i + 2] = sos[i];
+                sos[i + 3] = (float) (2d * (K * K - 1d) * norm);
+                sos[i + 4] = (float) ((1d - K / q + K * K) * norm);
+            }
+            if (order % 2 == 1) {
+                // single real pole
+                final double K = lowPass ? sinhMu * warped : warped / sinhMu;
+                final double norm = 1d / (1d + K);
+                final int i = (section + count++) * COEFFICIENT_COUNT;
+                sos[i] = (float) (lowPass ? K * norm : norm);
+                sos[i + 1] = lowPass ? sos[i] : -sos[i];
+                sos[i + 2] = 0f;
+                sos[i + 3] = (float) ((K - 1d) * norm);
+                sos[i + 4] = 0f;
+            } else if (chebyshev) {
+                // even order Chebyshev filters start the passband at the bottom of the ripple
+                final float gain = (float) Math.pow(10d, -ripple / 20d);
+                final int i = section * COEFFICIENT_COUNT;
+                sos[i] *= gain;
+                sos[i + 1] *= gain;
+                sos[i + 2] *= gain;
+            }
+
+            return count;
+        }
+
+        // Designs single notch filter (RBJ Audio EQ Cookbook)
+        private static void designNotch(float center, float q, float sampleRate, float[] sos, int section) {
+            final double w0 = 2d * Math.PI * center / sampleRate;
+            final double alpha = Math.sin(w0) / (2d * q);
+            final double norm = 1d / (1d + alpha);
+            final int i = section * COEFFICIENT_COUNT;
+            sos[i] = (float) norm;
+            sos[i + 1] = (float) (-2d * Math.cos(w0) * norm);
+            sos[i + 2] = sos[i];
+            sos[i + 3] = sos[i + 1];
+            sos[i + 4] = (float) ((1d - alpha) * norm);
+        }
+
+        private static void validateOrder(int order) {
+            if (order < 1 || order > MAX_ORDER) {
+                throw new IllegalArgumentException("Order needs to be between 1 and " + MAX_ORDER + ", was " + order);
+            }
+        }
+
+        private static void validateFrequency(float frequency) {
+            if (!(frequency > 0f)) {
+                throw new IllegalArgumentException("Frequency needs to be positive, was " + frequency);
+            }
+        }
+
+        private static void validateRipple(float ripple) {
+            if (!(ripple > 0f)) throw new IllegalArgumentException("Ripple needs to be positive, was " + ripple);
+        }
+
+        private static void validateQ(float q) {
+            if (!(q > 0f)) throw new IllegalArgumentException("Quality factor needs to be positive, was " + q);
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            final Stage that = (Stage) o;
+
+            return type == that.type && frequency == that.frequency && order == that.order && ripple == that.ripple
+                && q == that.q;
+        }
+
+        @Override public int hashCode() {
+            return Arrays.hashCode(new Object[] { type, frequency, order, ripple, q });
+        }
+    }
+
+    private final Stage[] stages;
+
+    public FilterChain(@NonNull Stage... stages) {
+        int sectionCount = 0;
+        for (Stage stage : stages) sectionCount += stage.getMaxSectionCount();
+        if (sectionCount > MAX_SECTION_COUNT) {
+            throw new IllegalArgumentException(
+                "Filter chain can have up to " + MAX_SECTION_COUNT + " sections, was " + sectionCount);
+        }
+
+        this.stages = stages.clone();
+    }
+
+    /**
+     * Returns whether all the stages of the chain can be designed for the specified {@code sampleRate}, meaning that
+     * all the frequencies are below the Nyquist frequency.
+     */
+    public boolean isSupported(float sampleRate) {
+        for (Stage stage : stages) {
+            if (!stage.isSupported(sampleRate)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Designs the chain for the specified {@code sampleRate} and returns coefficients of all the second-order sections
+     * of the chain, {@link #COEFFICIENT_COUNT} coefficients per section (b0, b1, b2, a1, a2).
+     *
+     * @throws IllegalArgumentException if the chain is not supported for the specified sample rate.
+     */
+    public float[] design(float sampleRate) {
+        if (!isSupported(sampleRate)) {
+            throw new IllegalArgumentException("Filter chain is not supported for sample rate " + sampleRate);
+        }
+
+        final float[] sos = new float[MAX_SECTION_COUNT * COEFFICIENT_COUNT];
+        int sectionCount = 0;
+        for (Stage stage : stages) sectionCount += stage.design(sampleRate, sos, sectionCount);
+
+        return Arrays.copyOf(sos, sectionCount * COEFFICIENT_COUNT);
+    }
+
+    @Override public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        final FilterChain that = (FilterChain) o;
+
+        return Arrays.equals(stages, that.stages);
+    }
+
+    @Override public int hashCode() {
+        return Arrays.hashCode(stages);
+    }
+}
@@ -129,6 +129,9 @@ public class AnalysisFragment extends BaseFragment {
 
     @SuppressWarnings("unused") @Subscribe(threadMode = ThreadMode.MAIN)
     public void onAnalysisDoneEvent(AnalysisDoneEvent event) {
+        // only finished analyses are rendered
+        if (event.isInProgress()) return;
+
         LOGD(TAG, "Analysis of audio file finished. Success - " + event.isSuccess());
         // if everything is OK set render and request GL surface render
         if (event.isSuccess()) setRenderer(event.getType());
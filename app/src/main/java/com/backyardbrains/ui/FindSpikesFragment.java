@@ -15,6 +15,7 @@ import butterknife.Unbinder;
 import com.afollestad.materialdialogs.GravityEnum;
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.backyardbrains.R;
+import com.backyardbrains.analysis.AnalysisType;
 import com.backyardbrains.drawing.BaseWaveformRenderer;
 import com.backyardbrains.drawing.Colors;
 import com.backyardbrains.drawing.FindSpikesRenderer;
@@ -42,6 +43,7 @@ public class FindSpikesFragment extends PlaybackScopeFragment {
     private static final List<String> CHANNEL_NAMES = new ArrayList<>();
 
     @BindView(R.id.ll_finding_spikes_progress) ViewGroup llFindingSpikesProgress;
+    @BindView(R.id.tv_finding_spikes_progress) TextView tvFindingSpikesProgress;
     @BindView(R.id.tv_select_channel) TextView tvSelectChannel;
     @BindView(R.id.ibtn_remove_threshold) ImageButton ibtnRemoveThreshold;
     @BindViews({ R.id.threshold0, R.id.threshold1, R.id.threshold2 }) List<ImageButton> thresholdButtons;
@@ -173,6 +175,14 @@ public class FindSpikesFragment extends PlaybackScopeFragment {
 
     @SuppressWarnings("unused") @Subscribe(threadMode = ThreadMode.MAIN)
     public void onAnalysisDoneEvent(AnalysisDoneEvent event) {
+        if (event.isInProgress()) {
+            if (event.getType() == AnalysisType.FIND_SPIKES) {
+                tvFindingSpikesProgress.setText(
+                    getString(R.string.label_finding_spikes_progress, (int) (event.getProgress() * 100)));
+            }
+            return;
+        }
+
         LOGD(TAG, "Analysis of audio file finished. Success - " + event.isSuccess());
         if (event.isSuccess() && getAnalysisManager() != null) {
             getAnalysisManager().spikesAnalysisExists(filePath, true, (analysis, trainCount) -> {
@@ -207,7 +207,7 @@ public class RecordingDetailsFragment extends BaseFragment {
                 return false;
             }
             final File newFile =
-                new File(oldFile.getParent(), newFilename + RecordingUtils.BYB_RECORDING_EXT);
+                new File(oldFile.getParent(), newFilename + RecordingUtils.getFileExtension(oldFile));
             // validate if file with specified name already exists
             if (!newFile.exists()) {
                 // get events file before renaming
@@ -21,6 +21,7 @@ import com.backyardbrains.BuildConfig;
 import com.backyardbrains.R;
 import com.backyardbrains.dsp.audio.AudioFile;
 import com.backyardbrains.dsp.audio.BaseAudioFile;
+import com.backyardbrains.dsp.audio.LosslessAudioFile;
 import com.backyardbrains.dsp.audio.WavAudioFile;
 import com.backyardbrains.events.OpenRecordingAnalysisEvent;
 import com.backyardbrains.events.OpenRecordingDetailsEvent;
@@ -149,7 +150,7 @@ public class RecordingOptionsFragment extends BaseOptionsFragment
         final String[] optionLabels = getResources().getStringArray(R.array.options_recording);
         final List<OptionItem> options = new ArrayList<>();
         final AudioFile af = BaseAudioFile.create(new File(filePath));
-        if (af instanceof WavAudioFile) {
+        if (af instanceof WavAudioFile || af instanceof LosslessAudioFile) {
             options.add(new OptionItem(RecordingOption.ID_DETAILS.value(), optionLabels[0], true));
             options.add(new OptionItem(RecordingOption.ID_PLAY.value(), optionLabels[1], true));
             options.add(new OptionItem(RecordingOption.ID_ANALYSIS.value(), optionLabels[2], true));
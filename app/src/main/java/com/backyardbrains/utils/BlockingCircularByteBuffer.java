@@ -0,0 +1,222 @@
+package com.backyardbrains.utils;
+
+import androidx.annotation.NonNull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.greenrobot.essentials.io.CircularByteBuffer;
+
+/**
+ * A circular byte buffer (also called ring buffer) for a single producer and a single consumer thread. Producer puts
+ * bytes through non-blocking put methods while consumer can either poll the buffer through non-blocking get methods or
+ * call {@link #take(byte[])} which parks the consumer thread until enough bytes are available.
+ * <p/>
+ * Consumer is woken up as soon as number of available bytes reaches the wake up threshold or when the max wait time
+ * elapses, whichever comes first. This way consumer doesn't need to spin on the buffer while waiting for new data.
+ * <p/>
+ * This class is thread-safe only when there is at most one producer and one consumer thread at any given time.
+ * <p/>
+ * The class is written in reference to greenrobot's {@link CircularByteBuffer} class.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class BlockingCircularByteBuffer {
+
+    private final byte[] buffer;
+    private final int capacity;
+
+    // Total number of bytes ever put into the buffer (written only by producer)
+    private volatile long putCount;
+    // Total number of bytes ever taken from the buffer (written only by consumer)
+    private volatile long getCount;
+
+    // Consumer thread that's currently parked waiting for data
+    private volatile Thread waiter;
+    // Whether parked consumer should be woken up regardless of number of available bytes
+    private volatile boolean wakeUpRequested;
+
+    // Number of bytes that need to be available before parked consumer is woken up
+    private volatile int wakeUpThreshold = 1;
+    // Max time (in nanoseconds) consumer is parked if the wake up threshold is not reached, 0 means no limit
+    private volatile long maxWaitNanos;
+
+    public BlockingCircularByteBuffer() {
+        this(8192);
+    }
+
+    public BlockingCircularByteBuffer(int capacity) {
+        this.capacity = capacity;
+        buffer = new byte[this.capacity];
+    }
+
+    /**
+     * Sets number of bytes that need to be available before parked consumer is woken up and max time consumer will be
+     * parked if that number is not reached. If {@code maxWaitMs} is {@code 0} consumer is parked until threshold is
+     * reached or until {@link #wakeUp()} is called.
+     */
+    public void setWakeUpThreshold(int byteCount, long maxWaitMs) {
+        wakeUpThreshold = Math.max(1, Math.min(byteCount, capacity));
+        maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+
+        // threshold might have been lowered so let's check whether consumer should continue
+        wakeUpIfThresholdReached();
+    }
+
+    /**
+     * Returns number of bytes that need to be available before parked consumer is woken up.
+     */
+    public int getWakeUpThreshold() {
+        return wakeUpThreshold;
+    }
+
+    /**
+     * Clears all data from the buffer. Should only be called from the consumer thread.
+     */
+    public void clear() {
+        getCount = putCount;
+    }
+
+    /**
+     * Gets as many of the requested bytes as available from this buffer.
+     *
+     * @return number of bytes actually got from this buffer (0 if no bytes are available)
+     */
+    public int get(byte[] dst) {
+        return get(dst, 0, dst.length);
+    }
+
+    /**
+     * Gets as many of the requested bytes as available from this buffer.
+     *
+     * @return number of bytes actually got from this buffer (0 if no bytes are available)
+     */
+    public int get(byte[] dst, int off, int len) {
+        final long start = getCount;
+        final int count = (int) Math.min(putCount - start, len);
+        if (count <= 0) return 0;
+
+        final int idxGet = (int) (start % capacity);
+        final int count1 = Math.min(count, capacity - idxGet);
+        System.arraycopy(buffer, idxGet, dst, off, count1);
+        // array end reached, continue from the beginning
+        if (count1 < count) System.arraycopy(buffer, 0, dst, off + count1, count - count1);
+
+        // publish read position so producer can reuse the space
+        getCount = start + count;
+        return count;
+    }
+
+    /**
+     * Gets as many of the requested bytes as available from this buffer, but parks the calling thread until number of
+     * available bytes reaches the wake up threshold, until max wait time elapses or until {@link #wakeUp()} is called.
+     *
+     * @return number of bytes actually got from this buffer (0 if no bytes are available)
+     */
+    public int take(byte[] dst) {
+        return take(dst, 0, dst.length);
+    }
+
+    /**
+     * Gets as many of the requested bytes as available from this buffer, but parks the calling thread until number of
+     * available bytes reaches the wake up threshold, until max wait time elapses or until {@link #wakeUp()} is called.
+     *
+     * @return number of bytes actually got from this buffer (0 if no bytes are available)
+     */
+    public int take(byte[] dst, int off, int len) {
+        await();
+        return get(dst, off, len);
+    }
+
+    /**
+     * Puts as many of the given bytes as possible into this buffer.
+     *
+     * @return number of bytes actually put into this buffer (0 if the buffer is full)
+     */
+    public int put(byte[] src) {
+        return put(src, 0, src.length);
+    }
+
+    /**
+     * Puts as many of the given bytes as possible into this buffer and wakes up parked consumer if wake up threshold
+     * has been reached.
+     *
+     * @return number of bytes actually put into this buffer (0 if the buffer is full)
+     */
+    public int put(byte[] src, int off, int len) {
+        final long start = putCount;
+        final int count = (int) Math.min(capacity - (start - getCount), len);
+        if (count <= 0) return 0;
+
+        final int idxPut = (int) (start % capacity);
+        final int count1 = Math.min(count, capacity - idxPut);
+        System.arraycopy(src, off, buffer, idxPut, count1);
+        // array end reached, continue from the beginning
+        if (count1 < count) System.arraycopy(src, off + count1, buffer, 0, count - count1);
+
+        // publish written bytes to the consumer
+        putCount = start + count;
+
+        wakeUpIfThresholdReached();
+
+        return count;
+    }
+
+    /**
+     * Wakes up parked consumer regardless of the number of available bytes.
+     */
+    public void wakeUp() {
+        wakeUpRequested = true;
+        final Thread t = waiter;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    /**
+     * The capacity (size) is the maximum of bytes that can be stored inside this buffer.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of bytes available and can be get without additional puts.
+     */
+    public int available() {
+        return (int) (putCount - getCount);
+    }
+
+    /**
+     * Returns the number of free bytes available that can still be put without additional gets.
+     */
+    public int free() {
+        return capacity - available();
+    }
+
+    // Parks calling thread until wake up threshold is reached, max wait time elapses or wake up is requested
+    private void await() {
+        if (available() >= wakeUpThreshold) return;
+
+        final long waitNanos = maxWaitNanos;
+        final long deadline = System.nanoTime() + waitNanos;
+        waiter = Thread.currentThread();
+        try {
+            // availability is re-checked after publishing the waiter so we can't miss producer's wake up call
+            while (!wakeUpRequested && available() < wakeUpThreshold && !Thread.currentThread().isInterrupted()) {
+                if (waitNanos > 0) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        } finally {
+            waiter = null;
+            wakeUpRequested = false;
+        }
+    }
+
+    // Unparks consumer if it's waiting and enough bytes are available
+    private void wakeUpIfThresholdReached() {
+        final Thread t = waiter;
+        if (t != null && available() >= wakeUpThreshold) LockSupport.unpark(t);
+    }
+}
@@ -1,5 +1,6 @@
 package com.backyardbrains.utils;
 
+import java.nio.FloatBuffer;
 import org.greenrobot.essentials.io.CircularByteBuffer;
 
 /**
@@ -15,7 +16,7 @@ import org.greenrobot.essentials.io.CircularByteBuffer;
  *
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
-public class CircularFloatArrayBuffer {
+public class CircularFloatArrayBuffer implements FloatArrayRingBuffer {
     private final float[][] buffer;
     private final int wCapacity;
 
@@ -35,7 +36,7 @@ public class CircularFloatArrayBuffer {
     /**
      * Clears all data from the buffer.
      */
-    public synchronized void clear() {
+    @Override public synchronized void clear() {
         idxGet = idxPut = available = 0;
     }
 
@@ -44,7 +45,7 @@ public class CircularFloatArrayBuffer {
      *
      * @return number of float arrays actually got from this buffer (0 if no float arrays are available)
      */
-    public int get(float[][] dst) {
+    @Override public int get(float[][] dst) {
         return get(dst, 0, dst.length);
     }
 
@@ -53,7 +54,7 @@ public class CircularFloatArrayBuffer {
      *
      * @return number of float arrays actually got from this buffer (0 if no float arrays are available)
      */
-    public synchronized int get(float[][] dst, int off, int len) {
+    @Override public synchronized int get(float[][] dst, int off, int len) {
         if (available == 0) return 0;
 
         // limit is last index to read + 1
@@ -82,7 +83,7 @@ public class CircularFloatArrayBuffer {
      *
      * @return number of float arrays actually put into this buffer (0 if the buffer is full)
      */
-    public synchronized int put(float[][] src, int off, int wLen) {
+    @Override public synchronized int put(float[][] src, int off, int wLen) {
         if (available == wCapacity) return 0;
 
         // limit is last index to put + 1
@@ -106,6 +107,37 @@ public class CircularFloatArrayBuffer {
         return count;
     }
 
+    /**
+     * Puts as many of the first {@code wLen} arrays of the given {@code src} buffer as possible into this buffer.
+     * Arrays are expected to be laid out one after another in the {@code src} buffer, each {@code hStride} floats
+     * long. Position of the {@code src} buffer is not preserved.
+     *
+     * @return number of arrays actually put into this buffer (0 if the buffer is full)
+     */
+    @Override public synchronized int put(FloatBuffer src, int wLen, int hStride) {
+        if (available == wCapacity) return 0;
+
+        // limit is last index to put + 1
+        int limit = idxPut < idxGet ? idxGet : wCapacity;
+        int count = Math.min(limit - idxPut, wLen);
+        copy(src, 0, hStride, buffer, idxPut, count);
+        idxPut += count;
+
+        if (idxPut == wCapacity) {
+            // Array end reached, check if we have more
+            int count2 = Math.min(wLen - count, idxGet);
+            if (count2 > 0) {
+                copy(src, count, hStride, buffer, 0, count2);
+                idxPut = count2;
+                count += count2;
+            } else {
+                idxPut = 0;
+            }
+        }
+        available += count;
+        return count;
+    }
+
     private void copy(float[][] src, int srcPos, float[][] dst, int dstPos, int wLength) {
         int dstCounter = 0;
         for (int i = srcPos; i < srcPos + wLength; i++) {
@@ -114,4 +146,11 @@ public class CircularFloatArrayBuffer {
             dstCounter++;
         }
     }
-}
\ No newline at end of file
+
+    private void copy(FloatBuffer src, int srcPos, int hStride, float[][] dst, int dstPos, int wLength) {
+        for (int i = 0; i < wLength; i++) {
+            src.position((srcPos + i) * hStride);
+            src.get(dst[dstPos + i], 0, Math.min(hStride, dst[dstPos + i].length));
+        }
+    }
+}
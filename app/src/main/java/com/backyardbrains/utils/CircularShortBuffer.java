@@ -1,5 +1,6 @@
 package com.backyardbrains.utils;
 
+import java.nio.ShortBuffer;
 import org.greenrobot.essentials.io.CircularByteBuffer;
 
 /**
@@ -15,7 +16,7 @@ import org.greenrobot.essentials.io.CircularByteBuffer;
  *
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
-public class CircularShortBuffer {
+public class CircularShortBuffer implements ShortRingBuffer {
     private final short[] buffer;
     private final int capacity;
 
@@ -35,14 +36,14 @@ public class CircularShortBuffer {
     /**
      * Clears all data from the buffer.
      */
-    public synchronized void clear() {
+    @Override public synchronized void clear() {
         idxGet = idxPut = available = 0;
     }
 
     /**
      * Gets a single short return or -1 if no data is available.
      */
-    public synchronized short get() {
+    @Override public synchronized short get() {
         if (available == 0) {
             return -1;
         }
@@ -57,7 +58,7 @@ public class CircularShortBuffer {
      *
      * @return number of shorts actually got from this buffer (0 if no shorts are available)
      */
-    public int get(short[] dst) {
+    @Override public int get(short[] dst) {
         return get(dst, 0, dst.length);
     }
 
@@ -66,7 +67,7 @@ public class CircularShortBuffer {
      *
      * @return number of shorts actually got from this buffer (0 if no shorts are available)
      */
-    public synchronized int get(short[] dst, int off, int len) {
+    @Override public synchronized int get(short[] dst, int off, int len) {
         if (available == 0) {
             return 0;
         }
@@ -97,7 +98,7 @@ public class CircularShortBuffer {
      *
      * @return true if the short was put, or false if the buffer is full
      */
-    public synchronized boolean put(short value) {
+    @Override public synchronized boolean put(short value) {
         if (available == capacity) {
             return false;
         }
@@ -112,7 +113,7 @@ public class CircularShortBuffer {
      *
      * @return number of shorts actually put into this buffer (0 if the buffer is full)
      */
-    public int put(short[] src) {
+    @Override public int put(short[] src) {
         return put(src, 0, src.length);
     }
 
@@ -121,7 +122,7 @@ public class CircularShortBuffer {
      *
      * @return number of shorts actually put into this buffer (0 if the buffer is full)
      */
-    public synchronized int put(short[] src, int off, int len) {
+    @Override public synchronized int put(short[] src, int off, int len) {
         if (available == capacity) {
             return 0;
         }
@@ -147,10 +148,43 @@ public class CircularShortBuffer {
         return count;
     }
 
+    /**
+     * Puts as many of the first {@code len} shorts of the given {@code src} buffer (starting at index 0) as possible
+     * into this buffer. Position of the {@code src} buffer is not preserved.
+     *
+     * @return number of shorts actually put into this buffer (0 if the buffer is full)
+     */
+    @Override public synchronized int put(ShortBuffer src, int len) {
+        if (available == capacity) {
+            return 0;
+        }
+
+        src.position(0);
+        // limit is last index to put + 1
+        int limit = idxPut < idxGet ? idxGet : capacity;
+        int count = Math.min(limit - idxPut, len);
+        src.get(buffer, idxPut, count);
+        idxPut += count;
+
+        if (idxPut == capacity) {
+            // Array end reached, check if we have more
+            int count2 = Math.min(len - count, idxGet);
+            if (count2 > 0) {
+                src.get(buffer, 0, count2);
+                idxPut = count2;
+                count += count2;
+            } else {
+                idxPut = 0;
+            }
+        }
+        available += count;
+        return count;
+    }
+
     /**
      * Return the first short a <b>get</b> would return or -1 if no data is available.
      */
-    public synchronized short peek() {
+    @Override public synchronized short peek() {
         return available > 0 ? buffer[idxGet] : -1;
     }
 
@@ -159,7 +193,7 @@ public class CircularShortBuffer {
      *
      * @return number of shorts actually skipped from this buffer (0 if no shorts are available)
      */
-    public synchronized int skip(int count) {
+    @Override public synchronized int skip(int count) {
         if (count > available) {
             count = available;
         }
@@ -171,21 +205,21 @@ public class CircularShortBuffer {
     /**
      * The capacity (size) is the maximum of shorts that can be stored inside this buffer.
      */
-    public int capacity() {
+    @Override public int capacity() {
         return capacity;
     }
 
     /**
      * Returns the number of shorts available and can be get without additional puts.
      */
-    public synchronized int available() {
+    @Override public synchronized int available() {
         return available;
     }
 
     /**
      * Returns the number of free shorts available that can still be put without additional gets.
      */
-    public synchronized int free() {
+    @Override public synchronized int free() {
         return capacity - available;
     }
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+package com.backyardbrains.utils;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A circular float array buffer (also called ring buffer) that allows putting and getting float arrays in a FIFO way.
+ * <p/>
+ * Implemented by {@link CircularFloatArrayBuffer}, which can be shared by any number of threads, and by {@link
+ * SpscCircularFloatArrayBuffer}, which is faster but can only be used by a single producer and a single consumer
+ * thread.
+ * <p/>
+ * Implementations may round requested number of arrays up, {@link SpscCircularFloatArrayBuffer} rounds it up to the
+ * nearest power of two so positions can be wrapped with a mask, so the buffer can hold more arrays than requested.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public interface FloatArrayRingBuffer {
+
+    /**
+     * Clears all data from the buffer.
+     */
+    void clear();
+
+    /**
+     * Gets as many of the requested float arrays as available from this buffer.
+     *
+     * @return number of float arrays actually got from this buffer (0 if no float arrays are available)
+     */
+    int get(float[][] dst);
+
+    /**
+     * Gets as many of the requested float  arrays as available from this buffer.
+     *
+     * @return number of float arrays actually got from this buffer (0 if no float arrays are available)
+     */
+    int get(float[][] dst, int off, int len);
+
+    /**
+     * Puts as many of the given float arrays as possible into this buffer.
+     *
+     * @return number of float arrays actually put into this buffer (0 if the buffer is full)
+     */
+    int put(float[][] src, int off, int wLen);
+
+    /**
+     * Puts as many of the first {@code wLen} arrays of the given {@code src} buffer as possible into this buffer.
+     * Arrays are expected to be laid out one after another in the {@code src} buffer, each {@code hStride} floats
+     * long. Position of the {@code src} buffer is not preserved.
+     *
+     * @return number of arrays actually put into this buffer (0 if the buffer is full)
+     */
+    int put(FloatBuffer src, int wLen, int hStride);
+}
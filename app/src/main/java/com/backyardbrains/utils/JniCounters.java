@@ -0,0 +1,79 @@
+package com.backyardbrains.utils;
+
+import android.os.SystemClock;
+import java.util.Locale;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Samples counters exposed by the native signal processing code and calculates number of bytes copied between java and
+ * native memory and number of native allocations per second since the previous sample.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class JniCounters {
+
+    private static final String TAG = makeLogTag(JniCounters.class);
+
+    // Time (in milliseconds) when counters were last sampled
+    private long lastSampleTime;
+    // Number of bytes copied per second calculated during last sampling
+    private float copiedBytesPerSecond;
+    // Number of allocations per second calculated during last sampling
+    private float allocationsPerSecond;
+
+    public JniCounters() {
+        reset();
+    }
+
+    /**
+     * Resets native counters and starts new measuring period.
+     */
+    public void reset() {
+        JniUtils.resetCounters();
+        lastSampleTime = SystemClock.elapsedRealtime();
+        copiedBytesPerSecond = 0;
+        allocationsPerSecond = 0;
+    }
+
+    /**
+     * Calculates number of copied bytes and allocations per second since the last call to this method or to
+     * {@link #reset()} and resets native counters.
+     */
+    public void sample() {
+        final long copiedBytes = JniUtils.getCopiedByteCount();
+        final long allocations = JniUtils.getAllocationCount();
+        JniUtils.resetCounters();
+
+        final long now = SystemClock.elapsedRealtime();
+        final float seconds = Math.max(now - lastSampleTime, 1) / 1000f;
+        lastSampleTime = now;
+
+        copiedBytesPerSecond = copiedBytes / seconds;
+        allocationsPerSecond = allocations / seconds;
+    }
+
+    /**
+     * Returns number of bytes copied per second calculated during last sampling.
+     */
+    public float getCopiedBytesPerSecond() {
+        return copiedBytesPerSecond;
+    }
+
+    /**
+     * Returns number of native allocations per second calculated during last sampling.
+     */
+    public float getAllocationsPerSecond() {
+        return allocationsPerSecond;
+    }
+
+    /**
+     * Samples the counters and logs the results.
+     */
+    public void sampleAndLog() {
+        sample();
+        LOGD(TAG, String.format(Locale.US, "Copied bytes: %.0f/s, allocations: %.1f/s", copiedBytesPerSecond,
+                allocationsPerSecond));
+    }
+}
@@ -7,13 +7,25 @@ import com.backyardbrains.drawing.SpikesDrawData;
 import com.backyardbrains.dsp.FftData;
 import com.backyardbrains.dsp.SignalData;
 import com.backyardbrains.dsp.usb.AbstractUsbSignalSource;
-import com.backyardbrains.vo.SpikeIndexValue;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
 public class JniUtils {
 
+    /**
+     * Signal is decoded into pipeline's signal data before the pipeline is run.
+     */
+    public static final int PIPELINE_DECODER_NONE = 0;
+    /**
+     * Incoming bytes are decoded as SpikerBox sample stream.
+     */
+    public static final int PIPELINE_DECODER_SAMPLE_STREAM = 1;
+    /**
+     * Incoming bytes are decoded as microphone signal.
+     */
+    public static final int PIPELINE_DECODER_MICROPHONE = 2;
+
     public static native String helloTest();
 
     public static native void testPassByRef(short[] test);
@@ -39,6 +51,20 @@ public class JniUtils {
 
     public static native void setNotchFilter(float centerFreq);
 
+    /**
+     * Sets chain of second-order sections, 5 coefficients per section (b0, b1, b2, a1, a2), that replaces band and
+     * notch filters while it's set. Chain is cleared whenever sample rate changes. Passing {@code null} clears the
+     * chain.
+     */
+    public static native void setFilterChain(float[] coefficients);
+
+    /**
+     * Filters 100 ms of synthetic signal with {@code channelCount} channels sampled at {@code sampleRate} through the
+     * chain of second-order sections described by specified {@code coefficients} and returns the share of real time
+     * filtering takes.
+     */
+    public static native float measureFilterLoad(float[] coefficients, float sampleRate, int channelCount);
+
     public static native void processSampleStream(int hardwareType, SignalData out, byte[] data, int length,
                                                   AbstractUsbSignalSource sampleSource);
 
@@ -69,13 +95,74 @@ public class JniUtils {
 
     public static native void processThreshold(SignalData out, SignalData in, boolean averageSamples);
 
+    /**
+     * Sets layout of the spectrogram computed by {@link #processFft(FftData, SignalData)}, as computed by
+     * {@link com.backyardbrains.dsp.SpectrogramConfig#layout(int, float)} for the current sample rate.
+     * {@code windowFunction} is one of {@link com.backyardbrains.dsp.SpectrogramConfig.WindowFunction} constants.
+     */
+    public static native void setSpectrogramLayout(int decimation, int windowSampleCount, int hopSampleCount,
+                                                   int windowFunction, int fftBinCount, int binCount);
+
     public static native void resetFftNormalization();
 
     public static native void processFft(FftData out, SignalData in);
 
-    public static native void prepareForSignalDrawing(SignalDrawData outSignal, EventsDrawData outEvents,
-                                                      short[][] inSignal, int inFrameCount, int[] inEventIndices, int inEventCount, int drawStartIndex,
-                                                      int drawEndIndex, int drawSurfaceWidth);
+    /**
+     * Returns total number of bytes copied between java and native memory by the signal processing methods since the
+     * last call to {@link #resetCounters()}.
+     */
+    public static native long getCopiedByteCount();
+
+    /**
+     * Returns total number of native allocations made by the signal processing methods since the last call to
+     * {@link #resetCounters()}.
+     */
+    public static native long getAllocationCount();
+
+    /**
+     * Resets copied bytes and native allocations counters.
+     */
+    public static native void resetCounters();
+
+    /**
+     * Sets up native processing pipeline for the specified signal data. All of the passed data needs to be direct.
+     * Visible signal data is expected to share samples and events with {@code signalData} and {@code visibleChannels}
+     * holds indices of the visible channels. Needs to be called whenever any of the passed objects is replaced.
+     *
+     * @return {@code true} if pipeline has been successfully set up, {@code false} otherwise
+     */
+    public static native boolean setupPipeline(SignalData signalData, SignalData visibleSignalData,
+                                               SignalData averagedSignalData, FftData fftData, int[] visibleChannels);
+
+    /**
+     * Releases all the references held by native processing pipeline.
+     */
+    public static native void releasePipeline();
+
+    /**
+     * Runs the whole processing pipeline within a single call: decodes incoming bytes with the specified {@code
+     * decoder} (one of {@code PIPELINE_DECODER_*} constants), configures visible channels and then either averages
+     * the signal or passes it to FFT analysis depending on {@code signalAveraging}.
+     */
+    public static native void processPipeline(int decoder, int hardwareType, byte[] inBytes, int length,
+                                              Object sampleSource, boolean signalAveraging);
+
+    /**
+     * Envelopes samples of a single channel for drawing and returns number of values written to {@code outSamples}.
+     * Every channel keeps its own envelope so different channels can be prepared on different threads at the same
+     * time. {@code appendedFrameCount} is number of frames appended to the end of {@code inSamples} since the channel
+     * was last prepared, or a negative number if {@code inSamples} doesn't continue previously passed samples.
+     */
+    public static native int prepareForChannelDrawing(float[] outSamples, short[] inSamples, int inFrameCount,
+                                                      int channel, int drawStartIndex, int drawEndIndex,
+                                                      int drawSurfaceWidth, int appendedFrameCount);
+
+    /**
+     * Moves events to the positions of the enveloped samples they fall into and returns number of positions written
+     * to {@code outEventIndices}.
+     */
+    public static native int prepareForEventsDrawing(float[] outEventIndices, int[] inEventIndices, int inEventCount,
+                                                     int drawStartIndex, int drawEndIndex, int drawSurfaceWidth);
 
     public static native void prepareForThresholdDrawing(SignalDrawData outSignal, EventsDrawData outEvents,
                                                          short[][] inSignal, int inFrameCount, int[] inEventIndices, int inEventCount, int drawStartIndex,
@@ -84,7 +171,8 @@ public class JniUtils {
     public static native void prepareForFftDrawing(FftDrawData out, float[][] in, int drawStartIndex, int drawEndIndex,
                                                    float drawWidthMax, int drawSurfaceWidth, int drawSurfaceHeight, float fftScaleFactor);
 
-    public static native void prepareForSpikesDrawing(SpikesDrawData out, SpikeIndexValue[] in, float[] colorInRange,
+    public static native void prepareForSpikesDrawing(SpikesDrawData out, float[] spikeValues, int[] spikeIndices,
+                                                      int spikeCount, float[] colorInRange,
                                                       float[] colorOutOfRange, int rangeStart, int rangeEnd, int sampleStartIndex, int sampleEndIndex,
                                                       int drawStartIndex, int drawEndIndex, int samplesToDraw, int drawSurfaceWidth);
 
@@ -95,11 +183,32 @@ public class JniUtils {
     public static native void eventTriggeredAverageAnalysis(String filePath, String eventsFilePath, String[] events,
                                                             int eventCount, float[][][] averages, float[][][] normAverages, float[][] normMcAverages, float[][] normMcTop,
                                                             float[][] normMcBottom, float[][] minMax, int channelCount, int frameCount, boolean removeNoiseIntervals,
-                                                            String confidenceIntervalsEvent);
+                                                            String confidenceIntervalsEvent, long token);
+
+    /**
+     * Receives spikes found by {@link #findSpikes(String, boolean, boolean, SpikeSink, int[], short[], int[], float[],
+     * long)}.
+     */
+    public interface SpikeSink {
+        /**
+         * Invoked every time arrays passed to the spike analysis are filled or analysis is finished. First {@code
+         * count} elements of the arrays hold the new spikes and arrays are reused once this method returns. Throwing
+         * an exception stops the analysis.
+         */
+        void onSpikes(int count);
+    }
 
-    public static native int[][] findSpikes(String filePath, short[][] valuesPos, int[][] indicesPos,
-                                            float[][] timesPos, short[][] valuesNeg, int[][] indicesNeg, float[][] timesNeg, int channelCount,
-                                            int maxSpikes);
+    /**
+     * Finds spikes within the audio file located at {@code filePath}. Instead of collecting all the spikes before
+     * returning them, spikes are passed to the {@code sink} in chunks of {@code channels.length} spikes, so memory
+     * consumption doesn't depend on the length of the file. If {@code singlePass} is {@code true} spike thresholds
+     * are estimated while spikes are being found so file is read only once, otherwise file is read once to find the
+     * thresholds and once more to find the spikes. If {@code parallel} is {@code true} spikes are searched for on all
+     * available cores. Sink is always invoked on the calling thread and found spikes don't depend on {@code parallel}.
+     * Analysis stops without passing remaining spikes to the sink once the analysis {@code token} is cancelled.
+     */
+    public static native void findSpikes(String filePath, boolean singlePass, boolean parallel, SpikeSink sink,
+                                         int[] channels, short[] values, int[] indices, float[] times, long token);
 
     public static native void autocorrelationAnalysis(float[][] spikeTrains, int spikeTrainCount, int[] spikeCounts,
                                                       int[][] analysis, int analysisBinCount);
@@ -111,8 +220,21 @@ public class JniUtils {
                                                        int[][] analysis, int analysisCount, int binCount);
 
     public static native void averageSpikeAnalysis(String filePath, int[][] trains, int trainCount, int[] spikeCounts,
-                                                   float[][] averageSpike, float[][] normAverageSpike, float[][] normTopStdLine, float[][] normBottomStdLine,
-                                                   int batchSpikeCount);
+                                                   int[] channels, float[][] averageSpike, float[][] normAverageSpike, float[][] normTopStdLine, float[][] normBottomStdLine,
+                                                   int batchSpikeCount, boolean sequential, long token);
+
+    /**
+     * Creates native analysis token that's passed to the long running analyses so they can report progress and be
+     * cancelled. Token needs to be released with {@link #releaseAnalysisToken(long)} once analysis is finished. Passing
+     * {@code 0} to the analyses instead of the token means analysis can't be cancelled.
+     */
+    public static native long createAnalysisToken();
+
+    public static native void cancelAnalysisToken(long token);
+
+    public static native float getAnalysisTokenProgress(long token);
+
+    public static native void releaseAnalysisToken(long token);
 
     static {
         System.loadLibrary("byb-lib");
@@ -147,4 +147,19 @@ public class PrefUtils {
     public static void setBpmSound(@NonNull Context context, boolean bpmSound) {
         getSharedPreferences(context).edit().putBoolean(PREF_NAME_PREFIX + PREF_BOOL_BPM_SOUND, bpmSound).apply();
     }
+
+    /**
+     * Boolean indicating whether signal should be recorded to a lossless compressed file instead of a WAV file.
+     */
+    private static final String PREF_BOOL_LOSSLESS_RECORDING = "lossless_recording";
+
+    public static boolean getLosslessRecording(@NonNull Context context) {
+        return getSharedPreferences(context).getBoolean(PREF_NAME_PREFIX + PREF_BOOL_LOSSLESS_RECORDING, false);
+    }
+
+    public static void setLosslessRecording(@NonNull Context context, boolean losslessRecording) {
+        getSharedPreferences(context).edit()
+            .putBoolean(PREF_NAME_PREFIX + PREF_BOOL_LOSSLESS_RECORDING, losslessRecording)
+            .apply();
+    }
 }
@@ -5,6 +5,7 @@ import android.os.Environment;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import java.io.File;
+import java.util.Collection;
 import java.util.Date;
 
 /**
@@ -14,6 +15,8 @@ public class RecordingUtils {
 
     // BYB audio file extension
     public static final String BYB_RECORDING_EXT = ".wav";
+    // BYB lossless compressed audio file extension
+    public static final String BYB_LOSSLESS_RECORDING_EXT = ".bybl";
 
     // Holds BYB recordings directory.
     private static File BYB_DIRECTORY;
@@ -31,12 +34,26 @@ public class RecordingUtils {
     private static final String BYB_EVENTS_NAME_SUFFIX = "-events";
     // BYB events file extension
     private static final String BYB_EVENTS_EXT = ".txt";
+    // Holds envelopes of the BYB recordings
+    private static File BYB_ENVELOPES_DIRECTORY;
+    // Name of the folder with recording envelopes within the cache directory
+    private static final String BYB_ENVELOPES_DIRECTORY_NAME = "envelopes";
+    // BYB envelope file extension
+    private static final String BYB_ENVELOPE_EXT = ".env";
+    // Holds WAV files decoded from the compressed BYB recordings
+    private static File BYB_DECODED_DIRECTORY;
+    // Name of the folder with decoded recordings within the cache directory
+    private static final String BYB_DECODED_DIRECTORY_NAME = "decoded";
 
 
     public static void setMainDirectory(Context context){
         BYB_DIRECTORY = new File(
             context.getExternalFilesDir(BYB_DIRECTORY_NAME) + File.separator);
         BYB_DIRECTORY.mkdir();
+        BYB_ENVELOPES_DIRECTORY = new File(context.getCacheDir(), BYB_ENVELOPES_DIRECTORY_NAME);
+        BYB_ENVELOPES_DIRECTORY.mkdir();
+        BYB_DECODED_DIRECTORY = new File(context.getCacheDir(), BYB_DECODED_DIRECTORY_NAME);
+        BYB_DECODED_DIRECTORY.mkdir();
     }
 
     /**
@@ -47,12 +64,14 @@ public class RecordingUtils {
     }
 
     /**
-     * Creates and returns new {@link File} for recording.
+     * Creates and returns new {@link File} for recording. If {@code lossless} is {@code true} file will have the
+     * extension of the lossless compressed recordings, otherwise WAV extension.
      */
-    @NonNull public static File createRecordingFile() {
+    @NonNull public static File createRecordingFile(boolean lossless) {
         return new File(BYB_DIRECTORY,
             BYB_RECORDING_NAME_PREFIX + DateUtils.format_yyyy_MM_dd_HH_mm_ss(
-                new Date(System.currentTimeMillis())) + BYB_RECORDING_EXT);
+                new Date(System.currentTimeMillis())) + (lossless ? BYB_LOSSLESS_RECORDING_EXT
+                : BYB_RECORDING_EXT));
     }
 
     /**
@@ -113,6 +132,43 @@ public class RecordingUtils {
         return f.exists() ? f : null;
     }
 
+    /**
+     * Returns {@link File} that holds envelope of the specified audio {@code file}. Envelopes are kept in the cache
+     * directory so they don't show up among the recordings and are rebuilt if they get cleared.
+     */
+    @NonNull public static File getEnvelopeFile(@NonNull File file) {
+        return new File(BYB_ENVELOPES_DIRECTORY, file.getName() + BYB_ENVELOPE_EXT);
+    }
+
+    /**
+     * Returns {@link File} that holds WAV file decoded from the specified compressed audio {@code file}.
+     */
+    @NonNull public static File getDecodedRecordingFile(@NonNull File file) {
+        return new File(BYB_DECODED_DIRECTORY, getFileNameWithoutExtension(file) + BYB_RECORDING_EXT);
+    }
+
+    /**
+     * Deletes all WAV files decoded from the compressed recordings except the specified {@code inUse} files which are
+     * still being read.
+     */
+    public static void clearDecodedRecordings(@NonNull Collection<File> inUse) {
+        final File[] files = BYB_DECODED_DIRECTORY.listFiles();
+        if (files == null) return;
+
+        for (File f : files) {
+            //noinspection ResultOfMethodCallIgnored
+            if (!inUse.contains(f)) f.delete();
+        }
+    }
+
+    /**
+     * Returns extension of the specified {@code file}, including the dot, or empty string if file has no extension.
+     */
+    @NonNull public static String getFileExtension(@NonNull File file) {
+        final int extIndex = file.getName().lastIndexOf('.');
+        return extIndex < 0 ? "" : file.getName().substring(extIndex);
+    }
+
     /**
      * Returns name of the specified {@code file} without the file extension.
      */
@@ -0,0 +1,99 @@
+package com.backyardbrains.utils;
+
+import java.nio.ShortBuffer;
+
+/**
+ * A circular short buffer (also called ring buffer) that allows putting and getting shorts in a FIFO way.
+ * <p/>
+ * Implemented by {@link CircularShortBuffer}, which can be shared by any number of threads, and by {@link
+ * SpscCircularShortBuffer}, which is faster but can only be used by a single producer and a single consumer thread.
+ * <p/>
+ * Implementations may round requested capacity up, {@link SpscCircularShortBuffer} rounds it up to the nearest power
+ * of two so positions can be wrapped with a mask. Code that relies on the buffer getting full at a specific number of
+ * shorts, or that sizes its own arrays by the requested capacity, should check {@link #capacity()} instead.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public interface ShortRingBuffer {
+
+    /**
+     * Clears all data from the buffer.
+     */
+    void clear();
+
+    /**
+     * Gets a single short return or -1 if no data is available.
+     */
+    short get();
+
+    /**
+     * Gets as many of the requested shorts as available from this buffer.
+     *
+     * @return number of shorts actually got from this buffer (0 if no shorts are available)
+     */
+    int get(short[] dst);
+
+    /**
+     * Gets as many of the requested shorts as available from this buffer.
+     *
+     * @return number of shorts actually got from this buffer (0 if no shorts are available)
+     */
+    int get(short[] dst, int off, int len);
+
+    /**
+     * Puts a single short if the buffer is not yet full.
+     *
+     * @return true if the short was put, or false if the buffer is full
+     */
+    boolean put(short value);
+
+    /**
+     * Puts as many of the given shorts as possible into this buffer.
+     *
+     * @return number of shorts actually put into this buffer (0 if the buffer is full)
+     */
+    int put(short[] src);
+
+    /**
+     * Puts as many of the given shorts as possible into this buffer.
+     *
+     * @return number of shorts actually put into this buffer (0 if the buffer is full)
+     */
+    int put(short[] src, int off, int len);
+
+    /**
+     * Puts as many of the first {@code len} shorts of the given {@code src} buffer (starting at index 0) as possible
+     * into this buffer. Position of the {@code src} buffer is not preserved.
+     *
+     * @return number of shorts actually put into this buffer (0 if the buffer is full)
+     */
+    int put(ShortBuffer src, int len);
+
+    /**
+     * Return the first short a <b>get</b> would return or -1 if no data is available.
+     */
+    short peek();
+
+    /**
+     * Skips the given count of shorts, but at most the currently available count.
+     *
+     * @return number of shorts actually skipped from this buffer (0 if no shorts are available)
+     */
+    int skip(int count);
+
+    /**
+     * The capacity (size) is the maximum of shorts that can be stored inside this buffer. It can be larger than the
+     * capacity that was requested when the buffer was created.
+     */
+    int capacity();
+
+    /**
+     * Returns the number of shorts available and can be get without additional puts.
+     */
+    int available();
+
+    /**
+     * Returns the number of free shorts available that can still be put without additional gets.
+     */
+    int free();
+}
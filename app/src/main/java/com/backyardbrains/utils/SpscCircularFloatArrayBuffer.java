@@ -0,0 +1,141 @@
+package com.backyardbrains.utils;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import org.greenrobot.essentials.io.CircularByteBuffer;
+
+/**
+ * A circular float array buffer (also called ring buffer) for a single producer and a single consumer thread. None of
+ * the put&get methods ever takes a monitor. Producer and consumer only publish their positions to each other through
+ * ordered writes and re-read the other side's position only when the cached one isn't enough to complete the request.
+ * <p/>
+ * Number of arrays the buffer can hold is always rounded up to the nearest power of two so positions can be wrapped
+ * with a mask.
+ * <p/>
+ * All put&get methods are non-blocking.
+ * <p/>
+ * This class is thread-safe only when there is at most one producer and one consumer thread at any given time. Put
+ * methods should only be called from the producer thread, get and clear methods only from the consumer thread.
+ * <p/>
+ * The class is written in reference to greenrobot's {@link CircularByteBuffer} class.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpscCircularFloatArrayBuffer implements FloatArrayRingBuffer {
+
+    private static final AtomicLongFieldUpdater<SpscCircularFloatArrayBuffer> PUT_COUNT =
+            AtomicLongFieldUpdater.newUpdater(SpscCircularFloatArrayBuffer.class, "putCount");
+    private static final AtomicLongFieldUpdater<SpscCircularFloatArrayBuffer> GET_COUNT =
+            AtomicLongFieldUpdater.newUpdater(SpscCircularFloatArrayBuffer.class, "getCount");
+
+    private final float[][] buffer;
+    private final int wCapacity;
+    private final int mask;
+
+    // Total number of arrays ever put into the buffer (written only by producer)
+    private volatile long putCount;
+    // Total number of arrays ever got from the buffer (written only by consumer)
+    private volatile long getCount;
+    // Last value of getCount seen by producer
+    private long producerGetCount;
+    // Last value of putCount seen by consumer
+    private long consumerPutCount;
+
+    public SpscCircularFloatArrayBuffer() {
+        this(8192, 8192);
+    }
+
+    public SpscCircularFloatArrayBuffer(int wCapacity, int hCapacity) {
+        this.wCapacity = SpscCircularShortBuffer.nextPowerOfTwo(wCapacity);
+        mask = this.wCapacity - 1;
+        buffer = new float[this.wCapacity][hCapacity];
+    }
+
+    /**
+     * Clears all data from the buffer. Should only be called from the consumer thread.
+     */
+    @Override public void clear() {
+        GET_COUNT.lazySet(this, consumerPutCount = putCount);
+    }
+
+    /**
+     * Gets as many of the requested float arrays as available from this buffer.
+     *
+     * @return number of float arrays actually got from this buffer (0 if no float arrays are available)
+     */
+    @Override public int get(float[][] dst) {
+        return get(dst, 0, dst.length);
+    }
+
+    /**
+     * Gets as many of the requested float arrays as available from this buffer.
+     *
+     * @return number of float arrays actually got from this buffer (0 if no float arrays are available)
+     */
+    @Override public int get(float[][] dst, int off, int len) {
+        final long start = getCount;
+        // re-read producer's position only if the cached one can't satisfy the request
+        if (consumerPutCount - start < len) consumerPutCount = putCount;
+        final int count = (int) Math.min(consumerPutCount - start, len);
+        if (count <= 0) return 0;
+
+        for (int i = 0; i < count; i++) {
+            final float[] src = buffer[(int) (start + i) & mask];
+            System.arraycopy(src, 0, dst[off + i], 0, Math.min(src.length, dst[off + i].length));
+        }
+
+        // publish read position so producer can reuse the space
+        GET_COUNT.lazySet(this, start + count);
+        return count;
+    }
+
+    /**
+     * Puts as many of the given float arrays as possible into this buffer.
+     *
+     * @return number of float arrays actually put into this buffer (0 if the buffer is full)
+     */
+    @Override public int put(float[][] src, int off, int wLen) {
+        final long start = putCount;
+        final int count = reserve(start, wLen);
+        if (count <= 0) return 0;
+
+        for (int i = 0; i < count; i++) {
+            final float[] dst = buffer[(int) (start + i) & mask];
+            System.arraycopy(src[off + i], 0, dst, 0, Math.min(src[off + i].length, dst.length));
+        }
+
+        // publish written arrays to the consumer
+        PUT_COUNT.lazySet(this, start + count);
+        return count;
+    }
+
+    /**
+     * Puts as many of the first {@code wLen} arrays of the given {@code src} buffer as possible into this buffer.
+     * Arrays are expected to be laid out one after another in the {@code src} buffer, each {@code hStride} floats
+     * long. Position of the {@code src} buffer is not preserved.
+     *
+     * @return number of arrays actually put into this buffer (0 if the buffer is full)
+     */
+    @Override public int put(FloatBuffer src, int wLen, int hStride) {
+        final long start = putCount;
+        final int count = reserve(start, wLen);
+        if (count <= 0) return 0;
+
+        for (int i = 0; i < count; i++) {
+            final float[] dst = buffer[(int) (start + i) & mask];
+            src.position(i * hStride);
+            src.get(dst, 0, Math.min(hStride, dst.length));
+        }
+
+        // publish written arrays to the consumer
+        PUT_COUNT.lazySet(this, start + count);
+        return count;
+    }
+
+    // Returns how many of the requested arrays can be put starting at the specified position
+    private int reserve(long start, int len) {
+        // re-read consumer's position only if the cached one doesn't leave enough space
+        if (wCapacity - (start - producerGetCount) < len) producerGetCount = getCount;
+        return (int) Math.min(wCapacity - (start - producerGetCount), len);
+    }
+}
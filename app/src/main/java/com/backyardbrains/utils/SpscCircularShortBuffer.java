@@ -0,0 +1,235 @@
+package com.backyardbrains.utils;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import org.greenrobot.essentials.io.CircularByteBuffer;
+
+/**
+ * A circular short buffer (also called ring buffer) for a single producer and a single consumer thread. None of the
+ * put&get methods ever takes a monitor. Producer and consumer only publish their positions to each other through
+ * ordered writes and re-read the other side's position only when the cached one isn't enough to complete the request.
+ * <p/>
+ * Capacity is always rounded up to the nearest power of two so positions can be wrapped with a mask.
+ * <p/>
+ * All put&get methods are non-blocking.
+ * <p/>
+ * This class is thread-safe only when there is at most one producer and one consumer thread at any given time. Put
+ * methods should only be called from the producer thread, get, peek, skip and clear methods only from the consumer
+ * thread.
+ * <p/>
+ * The class is written in reference to greenrobot's {@link CircularByteBuffer} class.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpscCircularShortBuffer implements ShortRingBuffer {
+
+    private static final AtomicLongFieldUpdater<SpscCircularShortBuffer> PUT_COUNT =
+            AtomicLongFieldUpdater.newUpdater(SpscCircularShortBuffer.class, "putCount");
+    private static final AtomicLongFieldUpdater<SpscCircularShortBuffer> GET_COUNT =
+            AtomicLongFieldUpdater.newUpdater(SpscCircularShortBuffer.class, "getCount");
+
+    private final short[] buffer;
+    private final int capacity;
+    private final int mask;
+
+    // Total number of shorts ever put into the buffer (written only by producer)
+    private volatile long putCount;
+    // Total number of shorts ever got from the buffer (written only by consumer)
+    private volatile long getCount;
+    // Last value of getCount seen by producer
+    private long producerGetCount;
+    // Last value of putCount seen by consumer
+    private long consumerPutCount;
+
+    public SpscCircularShortBuffer() {
+        this(8192);
+    }
+
+    public SpscCircularShortBuffer(int capacity) {
+        this.capacity = nextPowerOfTwo(capacity);
+        mask = this.capacity - 1;
+        buffer = new short[this.capacity];
+    }
+
+    /**
+     * Clears all data from the buffer. Should only be called from the consumer thread.
+     */
+    @Override public void clear() {
+        GET_COUNT.lazySet(this, consumerPutCount = putCount);
+    }
+
+    /**
+     * Gets a single short return or -1 if no data is available.
+     */
+    @Override public short get() {
+        final long start = getCount;
+        if (start == consumerPutCount && start == (consumerPutCount = putCount)) return -1;
+
+        final short value = buffer[(int) start & mask];
+        GET_COUNT.lazySet(this, start + 1);
+        return value;
+    }
+
+    /**
+     * Gets as many of the requested shorts as available from this buffer.
+     *
+     * @return number of shorts actually got from this buffer (0 if no shorts are available)
+     */
+    @Override public int get(short[] dst) {
+        return get(dst, 0, dst.length);
+    }
+
+    /**
+     * Gets as many of the requested shorts as available from this buffer.
+     *
+     * @return number of shorts actually got from this buffer (0 if no shorts are available)
+     */
+    @Override public int get(short[] dst, int off, int len) {
+        final long start = getCount;
+        // re-read producer's position only if the cached one can't satisfy the request
+        if (consumerPutCount - start < len) consumerPutCount = putCount;
+        final int count = (int) Math.min(consumerPutCount - start, len);
+        if (count <= 0) return 0;
+
+        final int idxGet = (int) start & mask;
+        final int count1 = Math.min(count, capacity - idxGet);
+        System.arraycopy(buffer, idxGet, dst, off, count1);
+        // array end reached, continue from the beginning
+        if (count1 < count) System.arraycopy(buffer, 0, dst, off + count1, count - count1);
+
+        // publish read position so producer can reuse the space
+        GET_COUNT.lazySet(this, start + count);
+        return count;
+    }
+
+    /**
+     * Puts a single short if the buffer is not yet full.
+     *
+     * @return true if the short was put, or false if the buffer is full
+     */
+    @Override public boolean put(short value) {
+        final long start = putCount;
+        if (start - producerGetCount == capacity && start - (producerGetCount = getCount) == capacity) return false;
+
+        buffer[(int) start & mask] = value;
+        PUT_COUNT.lazySet(this, start + 1);
+        return true;
+    }
+
+    /**
+     * Puts as many of the given shorts as possible into this buffer.
+     *
+     * @return number of shorts actually put into this buffer (0 if the buffer is full)
+     */
+    @Override public int put(short[] src) {
+        return put(src, 0, src.length);
+    }
+
+    /**
+     * Puts as many of the given shorts as possible into this buffer.
+     *
+     * @return number of shorts actually put into this buffer (0 if the buffer is full)
+     */
+    @Override public int put(short[] src, int off, int len) {
+        final long start = putCount;
+        final int count = reserve(start, len);
+        if (count <= 0) return 0;
+
+        final int idxPut = (int) start & mask;
+        final int count1 = Math.min(count, capacity - idxPut);
+        System.arraycopy(src, off, buffer, idxPut, count1);
+        // array end reached, continue from the beginning
+        if (count1 < count) System.arraycopy(src, off + count1, buffer, 0, count - count1);
+
+        // publish written shorts to the consumer
+        PUT_COUNT.lazySet(this, start + count);
+        return count;
+    }
+
+    /**
+     * Puts as many of the first {@code len} shorts of the given {@code src} buffer (starting at index 0) as possible
+     * into this buffer. Position of the {@code src} buffer is not preserved.
+     *
+     * @return number of shorts actually put into this buffer (0 if the buffer is full)
+     */
+    @Override public int put(ShortBuffer src, int len) {
+        final long start = putCount;
+        final int count = reserve(start, len);
+        if (count <= 0) return 0;
+
+        src.position(0);
+        final int idxPut = (int) start & mask;
+        final int count1 = Math.min(count, capacity - idxPut);
+        src.get(buffer, idxPut, count1);
+        // array end reached, continue from the beginning
+        if (count1 < count) src.get(buffer, 0, count - count1);
+
+        // publish written shorts to the consumer
+        PUT_COUNT.lazySet(this, start + count);
+        return count;
+    }
+
+    /**
+     * Return the first short a <b>get</b> would return or -1 if no data is available.
+     */
+    @Override public short peek() {
+        final long start = getCount;
+        if (start == consumerPutCount && start == (consumerPutCount = putCount)) return -1;
+
+        return buffer[(int) start & mask];
+    }
+
+    /**
+     * Skips the given count of shorts, but at most the currently available count.
+     *
+     * @return number of shorts actually skipped from this buffer (0 if no shorts are available)
+     */
+    @Override public int skip(int count) {
+        final long start = getCount;
+        if (consumerPutCount - start < count) consumerPutCount = putCount;
+        count = (int) Math.min(consumerPutCount - start, count);
+        if (count <= 0) return 0;
+
+        GET_COUNT.lazySet(this, start + count);
+        return count;
+    }
+
+    /**
+     * The capacity (size) is the maximum of shorts that can be stored inside this buffer. It's always a power of two.
+     */
+    @Override public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of shorts available and can be get without additional puts.
+     */
+    @Override public int available() {
+        // read position is read first so the result can never be negative
+        final long start = getCount;
+        return (int) (putCount - start);
+    }
+
+    /**
+     * Returns the number of free shorts available that can still be put without additional gets.
+     */
+    @Override public int free() {
+        return capacity - available();
+    }
+
+    // Returns how many of the requested shorts can be put starting at the specified position
+    private int reserve(long start, int len) {
+        // re-read consumer's position only if the cached one doesn't leave enough space
+        if (capacity - (start - producerGetCount) < len) producerGetCount = getCount;
+        return (int) Math.min(capacity - (start - producerGetCount), len);
+    }
+
+    // Returns the smallest power of two that's greater than or equal to the specified value
+    static int nextPowerOfTwo(int value) {
+        if (value <= 1) return 1;
+
+        final int highestOneBit = Integer.highestOneBit(value - 1);
+        if (highestOneBit >= 1 << 30) throw new IllegalArgumentException("Capacity is too large: " + value);
+        return highestOneBit << 1;
+    }
+}
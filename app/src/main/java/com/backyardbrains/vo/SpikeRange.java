@@ -0,0 +1,25 @@
+package com.backyardbrains.vo;
+
+/**
+ * Reusable holder of values and indices of the spikes within a sample range. Arrays only grow so the same instance
+ * can be filled on every frame without allocating.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeRange {
+
+    public float[] values = new float[0];
+    public int[] indices = new int[0];
+    public int count;
+
+    /**
+     * Makes sure arrays can hold at least {@code capacity} spikes and resets the count.
+     */
+    public void reset(int capacity) {
+        if (values.length < capacity) {
+            values = new float[capacity];
+            indices = new int[capacity];
+        }
+        count = 0;
+    }
+}
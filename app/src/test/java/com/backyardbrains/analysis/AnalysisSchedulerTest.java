@@ -0,0 +1,216 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.utils.LogUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link AnalysisScheduler}.
+ */
+public class AnalysisSchedulerTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    // Params of the processed analyses in the order they were processed
+    private final List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+    // Results delivered to the listeners
+    private final List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+    // Metrics reported by the scheduler, every entry is {type, queue wait, run time, cancelled}
+    private final List<long[]> metrics = Collections.synchronizedList(new ArrayList<>());
+
+    @Before public void setUp() {
+        LogUtils.LOGGING_ENABLED = false;
+    }
+
+    @Test public void sameRequestsAreCoalesced() throws InterruptedException {
+        final AnalysisScheduler scheduler = createScheduler(null);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        submitAndAwaitStart(scheduler, new TestAnalysis("a", AnalysisType.ISI, release, done), 1);
+        scheduler.submit(new TestAnalysis("b", AnalysisType.ISI, null, done), true, 2);
+        scheduler.submit(new TestAnalysis("b", AnalysisType.ISI, null, done), true, 2);
+        release.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        awaitMetrics(2);
+        assertEquals(Arrays.asList(1, 2), processed);
+        assertEquals(Arrays.asList(1, 2), delivered);
+    }
+
+    @Test public void latestRequestWins() throws InterruptedException {
+        final AnalysisScheduler scheduler = createScheduler(null);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        // running analysis is cancelled, and so is the waiting one
+        final TestAnalysis running = new TestAnalysis("a", AnalysisType.AVERAGE_SPIKE, release, null);
+        submitAndAwaitStart(scheduler, running, 1);
+        scheduler.submit(new TestAnalysis("a", AnalysisType.AVERAGE_SPIKE, null, null), true, 2);
+        scheduler.submit(new TestAnalysis("a", AnalysisType.AVERAGE_SPIKE, null, done), true, 3);
+        assertTrue(running.isCancelled());
+        release.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        awaitMetrics(3);
+        assertEquals(Arrays.asList(1, 3), processed);
+        assertEquals(Collections.singletonList(3), delivered);
+        int cancelled = 0;
+        for (long[] m : metrics) {
+            assertEquals(AnalysisType.AVERAGE_SPIKE, m[0]);
+            if (m[3] != 0) cancelled++;
+        }
+        assertEquals(2, cancelled);
+    }
+
+    @Test public void latestRequestWaitsForCancelledRunToExit() throws InterruptedException {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(2, null);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final TestAnalysis running = new TestAnalysis("a", AnalysisType.FIND_SPIKES, release, null);
+        submitAndAwaitStart(scheduler, running, 1);
+        // there's a free thread, but cancelled run could still be saving its results
+        final TestAnalysis latest = new TestAnalysis("a", AnalysisType.FIND_SPIKES, null, done);
+        scheduler.submit(latest, true, 2);
+        assertTrue(running.isCancelled());
+        assertFalse(latest.started.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1, 2), processed);
+        assertEquals(Collections.singletonList(2), delivered);
+    }
+
+    @Test public void visibleAndNewerRequestsRunFirst() throws InterruptedException {
+        final AnalysisScheduler scheduler = createScheduler(null);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(4);
+        submitAndAwaitStart(scheduler, new TestAnalysis("a", AnalysisType.FIND_SPIKES, release, done), 0);
+        scheduler.submit(new TestAnalysis("a", AnalysisType.ISI, null, done), false, 1);
+        scheduler.submit(new TestAnalysis("a", AnalysisType.AUTOCORRELATION, null, done), true, 2);
+        // previous visible request goes to the background, but it's newer than the first background one
+        scheduler.submit(new TestAnalysis("a", AnalysisType.CROSS_CORRELATION, null, done), true, 3);
+        release.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 3, 2, 1), processed);
+    }
+
+    @Test public void cancelledFileIsNotDelivered() throws InterruptedException {
+        final AnalysisScheduler scheduler = createScheduler(null);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        submitAndAwaitStart(scheduler, new TestAnalysis("a", AnalysisType.ISI, release, null), 1);
+        scheduler.submit(new TestAnalysis("a", AnalysisType.AUTOCORRELATION, null, null), true, 2);
+        scheduler.submit(new TestAnalysis("b", AnalysisType.ISI, null, done), true, 3);
+        scheduler.cancel("a");
+        release.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        awaitMetrics(3);
+        assertEquals(Arrays.asList(1, 3), processed);
+        assertEquals(Collections.singletonList(3), delivered);
+    }
+
+    @Test public void metricsAndProgressAreReported() throws InterruptedException {
+        final List<Float> progress = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch reported = new CountDownLatch(1);
+        final AnalysisScheduler scheduler = createScheduler((filePath, type, p) -> {
+            assertEquals("a", filePath);
+            assertEquals(AnalysisType.EVENT_TRIGGERED_AVERAGE, type);
+            progress.add(p);
+            reported.countDown();
+        });
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        submitAndAwaitStart(scheduler, new TestAnalysis("a", AnalysisType.EVENT_TRIGGERED_AVERAGE, release, done),
+            1);
+        scheduler.submit(new TestAnalysis("b", AnalysisType.ISI, null, done), true, 2);
+
+        // running analysis reports half of the work done
+        assertTrue(reported.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(.5f, progress.get(0), 0f);
+        Thread.sleep(50);
+        release.countDown();
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        awaitMetrics(2);
+        final long[] first = metrics.get(0);
+        final long[] second = metrics.get(1);
+        assertEquals(AnalysisType.EVENT_TRIGGERED_AVERAGE, first[0]);
+        assertTrue(first[2] >= 50);
+        assertEquals(0, first[3]);
+        // second analysis waited for the first one
+        assertEquals(AnalysisType.ISI, second[0]);
+        assertTrue(second[1] >= 50);
+        assertEquals(0, second[3]);
+    }
+
+    // Creates scheduler that runs one analysis at a time so the order is predictable
+    private AnalysisScheduler createScheduler(@Nullable AnalysisScheduler.ProgressListener progressListener) {
+        final AnalysisScheduler scheduler = new AnalysisScheduler(1, progressListener);
+        scheduler.setMetricsListener(
+            (type, queueWaitMillis, runMillis, cancelled) -> metrics.add(
+                new long[] { type, queueWaitMillis, runMillis, cancelled ? 1 : 0 }));
+        return scheduler;
+    }
+
+    // Submits specified analysis and waits until it starts running
+    private static void submitAndAwaitStart(@NonNull AnalysisScheduler scheduler, @NonNull TestAnalysis analysis,
+        int param) throws InterruptedException {
+        scheduler.submit(analysis, true, param);
+        assertTrue(analysis.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    // Metrics of the analysis are reported right before the result is delivered so we need to wait for them
+    private void awaitMetrics(int count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (metrics.size() < count && System.currentTimeMillis() < end) Thread.sleep(5);
+        assertEquals(count, metrics.size());
+    }
+
+    /**
+     * Analysis that returns its param and, if there's a release latch, waits for it while reporting half of the work
+     * done.
+     */
+    private class TestAnalysis extends BaseAnalysis<Integer, Integer> {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        TestAnalysis(@NonNull String filePath, @AnalysisType int type, @Nullable CountDownLatch release,
+            @Nullable CountDownLatch done) {
+            super(filePath, type, new AnalysisListener<Integer>() {
+                @Override public void onAnalysisDone(@NonNull String filePath, @Nullable Integer results) {
+                    delivered.add(results);
+                    if (done != null) done.countDown();
+                }
+
+                @Override public void onAnalysisFailed(@NonNull String filePath) {
+                    assertFalse("Analysis failed", true);
+                }
+            });
+            this.release = release;
+        }
+
+        @Nullable @Override protected Integer process(@Nullable Integer param) throws Exception {
+            processed.add(param);
+            started.countDown();
+            if (release != null) {
+                getToken().setProgress(.5f);
+                assertTrue(release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            }
+            return param;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.backyardbrains.analysis;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.backyardbrains.db.entity.Train;
+import com.backyardbrains.db.source.SpikeStore;
+import com.backyardbrains.utils.LogUtils;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link SpikeHistogramCache}.
+ *
+ * Histograms calculated from scratch by the cache calculator, which mirrors the native analyses, are compared against
+ * histograms that the cache updates incrementally while train thresholds move.
+ */
+public class SpikeHistogramCacheTest {
+
+    private static final long ANALYSIS_ID = 3;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int SPIKES_PER_CHANNEL = 4000;
+    private static final float SAMPLE_RATE = 10000f;
+
+    private File dir;
+    private SpikeStore store;
+    private int calculationCount;
+
+    @Before public void setUp() throws IOException {
+        LogUtils.LOGGING_ENABLED = false;
+
+        dir = File.createTempFile("histograms", "");
+        assertTrue(dir.delete());
+        store = new SpikeStore(dir);
+
+        final Random random = new Random(11);
+        final int count = CHANNEL_COUNT * SPIKES_PER_CHANNEL;
+        final int[] channels = new int[count];
+        final short[] values = new short[count];
+        final int[] indices = new int[count];
+        final float[] times = new float[count];
+        int i = 0;
+        for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+            int index = 0;
+            for (int j = 0; j < SPIKES_PER_CHANNEL; j++) {
+                // spikes are close enough for the analysis windows to hold many of them, some at the same sample
+                index += random.nextInt(60);
+                channels[i] = channel;
+                values[i] = (short) (1 + random.nextInt(1000));
+                indices[i] = index;
+                times[i] = index / SAMPLE_RATE;
+                i++;
+            }
+        }
+        final SpikeStore.Writer writer = store.createWriter(ANALYSIS_ID);
+        writer.append(channels, values, indices, times, count);
+        writer.commit();
+    }
+
+    @After public void tearDown() {
+        store.delete(ANALYSIS_ID);
+        assertTrue(dir.delete());
+    }
+
+    @Test public void unchangedTrainsAreReturnedFromMemoryAndDisk() {
+        final Train[] trains = { train(1, 0, 100, 600), train(2, 1, 300, 1000) };
+
+        final int[][] isi = createCache().getIsi(trains);
+        assertEquals(1, calculationCount);
+        int total = 0;
+        for (int count : isi[0]) total += count;
+        assertTrue(total > 0);
+
+        final SpikeHistogramCache cache = createCache();
+        assertArrayEquals(isi, cache.getIsi(trains));
+        assertArrayEquals(isi, cache.getIsi(trains));
+        final int[][] crossCorrelation = cache.getCrossCorrelation(trains);
+        assertArrayEquals(crossCorrelation, createCache().getCrossCorrelation(trains));
+        assertEquals(2, calculationCount);
+    }
+
+    @Test public void movedThresholdsAreUpdatedIncrementally() {
+        final Train[] trains = { train(1, 0, 100, 600), train(2, 1, 300, 1000), train(3, 0, 500, 900) };
+        final SpikeHistogramCache cache = createCache();
+        cache.getIsi(trains);
+        cache.getAutocorrelation(trains);
+        cache.getCrossCorrelation(trains);
+        assertEquals(3, calculationCount);
+
+        final Random random = new Random(5);
+        for (int step = 0; step < 20; step++) {
+            // every step moves one or two thresholds a bit, in both directions
+            final Train train = trains[random.nextInt(trains.length)];
+            train.setLowerThreshold(Math.max(1, train.getLowerThreshold() + random.nextInt(61) - 30));
+            if (step % 3 == 0) {
+                train.setUpperThreshold(Math.min(1000, train.getUpperThreshold() + random.nextInt(61) - 30));
+            }
+
+            assertArrayEquals(calculate(SpikeHistograms.SelfHistogram.ISI, trains), cache.getIsi(trains));
+            assertArrayEquals(calculate(SpikeHistograms.SelfHistogram.AUTOCORRELATION, trains),
+                cache.getAutocorrelation(trains));
+            assertArrayEquals(calculate(SpikeHistograms.SelfHistogram.CROSS_CORRELATION, trains),
+                cache.getCrossCorrelation(trains));
+        }
+        // only the reference calculations above were done from scratch
+        assertEquals(3 + 20 * 3, calculationCount);
+
+        // updates were saved so new cache returns them without calculating
+        assertArrayEquals(cache.getCrossCorrelation(trains), createCache().getCrossCorrelation(trains));
+        assertEquals(3 + 20 * 3, calculationCount);
+    }
+
+    @Test public void trainsWithSingleSpikeAreUpdatedIncrementally() {
+        final Train[] trains = { train(1, 0, 100, 600), train(2, 1, 300, 1000) };
+        final SpikeHistogramCache cache = createCache();
+        cache.getCrossCorrelation(trains);
+
+        // narrow second train down to a single spike, which native analysis leaves empty, and widen it again in small
+        // steps, first step changes most of the spikes so it's calculated from scratch and the rest is updated
+        final int value = createChannelValue(1);
+        for (int upperThreshold = value; upperThreshold <= value + 60; upperThreshold += 20) {
+            trains[1].setLowerThreshold(value);
+            trains[1].setUpperThreshold(upperThreshold);
+            final int[][] expected = calculate(SpikeHistograms.SelfHistogram.CROSS_CORRELATION, trains);
+            final int calculations = calculationCount;
+            assertArrayEquals(expected, cache.getCrossCorrelation(trains));
+            assertEquals(calculations + (upperThreshold == value ? 1 : 0), calculationCount);
+        }
+    }
+
+    private SpikeHistogramCache createCache() {
+        return new SpikeHistogramCache(new SpikeHistogramCache.Loader() {
+            @Nullable @Override public SpikeStore.Channel loadChannel(long analysisId, int channel) {
+                return store.getChannel(analysisId, channel);
+            }
+
+            @NonNull @Override public File getCacheFile(long analysisId, @NonNull String name) {
+                return store.getAnalysisFile(analysisId, name);
+            }
+        }, createCalculator());
+    }
+
+    // Calculates histograms of specified type from scratch through a new cache that can't save them
+    private int[][] calculate(SpikeHistograms.SelfHistogram type, Train[] trains) {
+        final File missing = store.getAnalysisFile(ANALYSIS_ID, "missing");
+        final SpikeHistogramCache cache = new SpikeHistogramCache(new SpikeHistogramCache.Loader() {
+            @Nullable @Override public SpikeStore.Channel loadChannel(long analysisId, int channel) {
+                return store.getChannel(analysisId, channel);
+            }
+
+            @NonNull @Override public File getCacheFile(long analysisId, @NonNull String name) {
+                return new File(missing, name);
+            }
+        }, createCalculator());
+        switch (type) {
+            case ISI:
+                return cache.getIsi(trains);
+            case AUTOCORRELATION:
+                return cache.getAutocorrelation(trains);
+            default:
+                return cache.getCrossCorrelation(trains);
+        }
+    }
+
+    private SpikeHistogramCache.Calculator createCalculator() {
+        return new SpikeHistogramCache.Calculator() {
+            @NonNull @Override public int[][] isi(@NonNull float[][] trains) {
+                calculationCount++;
+                return isiReference(trains);
+            }
+
+            @NonNull @Override public int[][] autocorrelation(@NonNull float[][] trains) {
+                calculationCount++;
+                return autocorrelationReference(trains);
+            }
+
+            @NonNull @Override public int[][] crossCorrelation(@NonNull float[][] trains) {
+                calculationCount++;
+                return crossCorrelationReference(trains);
+            }
+        };
+    }
+
+    // Returns value of the first spike of specified channel
+    private int createChannelValue(int channel) {
+        final SpikeStore.Channel spikes = store.getChannel(ANALYSIS_ID, channel);
+        assertTrue(spikes != null && spikes.size() > 0);
+        // make sure value is unique within the channel so the train holds a single spike
+        final int size = spikes.size();
+        for (int i = 0; i < size; i++) {
+            int count = 0;
+            for (int j = 0; j < size; j++) if (spikes.getValue(j) == spikes.getValue(i)) count++;
+            if (count == 1) return spikes.getValue(i);
+        }
+        throw new AssertionError("No unique value in channel " + channel);
+    }
+
+    private static Train train(long id, int channel, int lowerThreshold, int upperThreshold) {
+        final Train train = new Train(ANALYSIS_ID, channel, (int) id, 0, lowerThreshold, upperThreshold, true);
+        train.setId(id);
+        return train;
+    }
+
+    // Same as IsiAnalysis::process()
+    private static int[][] isiReference(float[][] trains) {
+        final int binCount = SpikeHistograms.ISI_BIN_COUNT;
+        final int[][] result = new int[trains.length][binCount];
+        for (int i = 0; i < trains.length; i++) {
+            for (int j = 1; j < trains[i].length; j++) {
+                final int bin = SpikeHistograms.isiBin(trains[i][j] - trains[i][j - 1]);
+                if (bin >= 0) result[i][bin]++;
+            }
+        }
+        return result;
+    }
+
+    // Same as AutocorrelationAnalysis::process()
+    private static int[][] autocorrelationReference(float[][] trains) {
+        final int binCount = SpikeHistograms.AUTOCORRELATION_BIN_COUNT;
+        final int[][] result = new int[trains.length][binCount];
+        for (int i = 0; i < trains.length; i++) {
+            for (int j = 0; j < trains[i].length; j++) {
+                for (int k = 0; k < trains[i].length; k++) {
+                    final int bin = SpikeHistograms.autocorrelationBin(trains[i][j] - trains[i][k], binCount);
+                    if (bin >= 0) result[i][bin]++;
+                }
+            }
+        }
+        return result;
+    }
+
+    // Same as CrossCorrelationAnalysis::process()
+    private static int[][] crossCorrelationReference(float[][] trains) {
+        final int binCount = SpikeHistograms.CROSS_CORRELATION_BIN_COUNT;
+        final int[][] result = new int[trains.length * trains.length][binCount];
+        for (int i = 0; i < trains.length; i++) {
+            for (int j = 0; j < trains.length; j++) {
+                if (trains[i].length <= 1 || trains[j].length <= 1) continue;
+
+                for (float first : trains[i]) {
+                    for (float second : trains[j]) {
+                        final int bin = SpikeHistograms.crossCorrelationBin(first - second, binCount);
+                        if (bin >= 0) result[i * trains.length + j][bin]++;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,81 @@
+package com.backyardbrains.analysis;
+
+import com.backyardbrains.vo.SpikeIndexValue;
+import com.backyardbrains.vo.SpikeRange;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Local unit test for {@link SpikeRangeCache}.
+ */
+public class SpikeRangeCacheTest {
+
+    private int channelLoadCount;
+    private int trainLoadCount;
+    private SpikeRangeCache cache;
+
+    @Before public void setUp() {
+        cache = new SpikeRangeCache(new SpikeRangeCache.Loader() {
+            @Override public SpikeIndexValue[] loadChannelSpikes(long analysisId, int channel) {
+                channelLoadCount++;
+                // spikes at every 10th sample with value equal to the index plus channel
+                final SpikeIndexValue[] spikes = new SpikeIndexValue[100];
+                for (int i = 0; i < spikes.length; i++) spikes[i] = new SpikeIndexValue(i * 10 + channel, i * 10);
+                return spikes;
+            }
+
+            @Override public SpikeIndexValue[] loadTrainSpikes(long trainId, int channel) {
+                trainLoadCount++;
+                return trainId == 1 ? new SpikeIndexValue[] {
+                    new SpikeIndexValue(5, 50), new SpikeIndexValue(7, 70)
+                } : null;
+            }
+        });
+    }
+
+    @Test public void rangeIsInclusiveAndLoadedOnce() {
+        final SpikeRange out = new SpikeRange();
+        cache.getSpikesForRange(1, 0, 15, 50, out);
+        assertEquals(4, out.count);
+        assertArrayEquals(new int[] { 20, 30, 40, 50 }, Arrays.copyOf(out.indices, out.count));
+
+        final int[] buffer = out.indices;
+        cache.getSpikesForRange(1, 0, 20, 40, out);
+        assertEquals(3, out.count);
+        assertSame(buffer, out.indices);
+
+        cache.getSpikesForRange(1, 0, 2000, 3000, out);
+        assertEquals(0, out.count);
+        assertEquals(1, channelLoadCount);
+
+        cache.getSpikesForRange(1, 1, 0, Integer.MAX_VALUE, out);
+        assertEquals(100, out.count);
+        assertEquals(991f, out.values[99], 0f);
+        assertEquals(2, channelLoadCount);
+
+        // switching analysis drops cached channels
+        cache.getSpikesForRange(2, 0, 0, 10, out);
+        cache.getSpikesForRange(1, 0, 0, 10, out);
+        assertEquals(4, channelLoadCount);
+    }
+
+    @Test public void trainsAreReloadedAfterInvalidation() {
+        final SpikeRange out = new SpikeRange();
+        cache.getSpikesByTrainForRange(1, 0, 0, 60, out);
+        assertEquals(1, out.count);
+        cache.getSpikesByTrainForRange(2, 0, 0, 60, out);
+        assertEquals(0, out.count);
+        cache.getSpikesByTrainForRange(1, 0, 0, 100, out);
+        assertEquals(2, out.count);
+        assertEquals(2, trainLoadCount);
+
+        cache.invalidateTrains();
+        cache.getSpikesByTrainForRange(1, 0, 0, 100, out);
+        assertEquals(3, trainLoadCount);
+    }
+}
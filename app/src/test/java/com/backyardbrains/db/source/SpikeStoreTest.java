@@ -0,0 +1,191 @@
+package com.backyardbrains.db.source;
+
+import com.backyardbrains.vo.SpikeIndexValue;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link SpikeStore}.
+ *
+ * Spikes are appended the way native analysis passes them, each channel and polarity at a time in batches that don't
+ * respect channel boundaries, except the last batch which is appended in reverse order to force additional runs.
+ * Results of the store queries are compared against a brute force scan of the appended spikes.
+ */
+public class SpikeStoreTest {
+
+    private static final long ANALYSIS_ID = 7;
+    private static final int CHANNEL_COUNT = 3;
+    private static final int SPIKES_PER_SERIES = 5000;
+    private static final int BATCH_SIZE = 1000;
+    private static final float SAMPLE_RATE = 10000f;
+
+    private File dir;
+    private SpikeStore store;
+
+    // All appended spikes
+    private int[] channels;
+    private short[] values;
+    private int[] indices;
+    private float[] times;
+
+    @Before public void setUp() throws IOException {
+        dir = File.createTempFile("spikes", "");
+        assertTrue(dir.delete());
+        store = new SpikeStore(dir);
+
+        final Random random = new Random(42);
+        final int count = CHANNEL_COUNT * 2 * SPIKES_PER_SERIES;
+        channels = new int[count];
+        values = new short[count];
+        indices = new int[count];
+        times = new float[count];
+        int i = 0;
+        for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+            for (int sign = 1; sign >= -1; sign -= 2) {
+                int index = 0;
+                for (int j = 0; j < SPIKES_PER_SERIES; j++) {
+                    index += 1 + random.nextInt(50);
+                    channels[i] = channel;
+                    values[i] = (short) (sign * (1 + random.nextInt(10000)));
+                    indices[i] = index;
+                    times[i] = index / SAMPLE_RATE;
+                    i++;
+                }
+            }
+        }
+    }
+
+    @After public void tearDown() {
+        store.delete(ANALYSIS_ID);
+        assertTrue(dir.delete());
+    }
+
+    @Test public void channelSpikesAreSortedAndComplete() throws IOException {
+        write();
+
+        for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+            final SpikeStore.Channel spikes = store.getChannel(ANALYSIS_ID, channel);
+            assertNotNull(spikes);
+            assertEquals(SPIKES_PER_SERIES * 2, spikes.size());
+            long sum = 0;
+            for (int i = 0; i < spikes.size(); i++) {
+                if (i > 0) assertTrue(spikes.getIndex(i - 1) <= spikes.getIndex(i));
+                assertEquals(spikes.getIndex(i) / SAMPLE_RATE, spikes.getTime(i), 0f);
+                sum += spikes.getValue(i);
+            }
+            long expectedSum = 0;
+            for (int i = 0; i < channels.length; i++) if (channels[i] == channel) expectedSum += values[i];
+            assertEquals(expectedSum, sum);
+        }
+        assertNull(store.getChannel(ANALYSIS_ID, CHANNEL_COUNT));
+    }
+
+    @Test public void rangeQueriesMatchScan() throws IOException {
+        write();
+
+        final Random random = new Random(7);
+        for (int q = 0; q < 200; q++) {
+            final int channel = random.nextInt(CHANNEL_COUNT);
+            final int start = random.nextInt(100000);
+            final int end = start + random.nextInt(20000);
+            final SpikeStore.Channel spikes = store.getChannel(ANALYSIS_ID, channel);
+            assertNotNull(spikes);
+            final SpikeIndexValue[] result = spikes.slice(start, end);
+            assertEquals(count(channel, start, end, Short.MIN_VALUE, Short.MAX_VALUE), result.length);
+            for (SpikeIndexValue spike : result) assertTrue(spike.index >= start && spike.index <= end);
+        }
+    }
+
+    @Test public void trainSpikesMatchThresholds() throws IOException {
+        write();
+
+        final SpikeStore.TrainSpikes train = store.getTrain(1, ANALYSIS_ID, 1, 2000, 6000);
+        assertNotNull(train);
+        assertEquals(count(1, 0, Integer.MAX_VALUE, 2000, 6000), train.size());
+        assertEquals(train.size(), train.getIndices().length);
+        assertEquals(train.size(), train.getTimes().length);
+        assertEquals(count(1, 1000, 50000, 2000, 6000), train.slice(1000, 50000).length);
+        for (SpikeIndexValue spike : train.slice(0, Integer.MAX_VALUE)) {
+            assertTrue(spike.value >= 2000 && spike.value <= 6000);
+        }
+
+        // same thresholds return cached bitmap, changed ones recalculate it
+        assertSame(train, store.getTrain(1, ANALYSIS_ID, 1, 2000, 6000));
+        final SpikeStore.TrainSpikes negative = store.getTrain(1, ANALYSIS_ID, 1, -6000, -2000);
+        assertNotNull(negative);
+        assertEquals(count(1, 0, Integer.MAX_VALUE, -6000, -2000), negative.size());
+        assertSame(negative, store.getCachedTrain(1));
+        store.invalidateTrain(1);
+        assertNull(store.getCachedTrain(1));
+    }
+
+    @Test public void abortedAndDeletedSpikesAreNotVisible() throws IOException {
+        final SpikeStore.Writer writer = store.createWriter(ANALYSIS_ID);
+        writer.append(channels, values, indices, times, channels.length);
+        writer.abort();
+        assertFalse(store.exists(ANALYSIS_ID));
+        assertNull(store.getChannel(ANALYSIS_ID, 0));
+
+        write();
+        assertTrue(store.exists(ANALYSIS_ID));
+        store.delete(ANALYSIS_ID);
+        assertFalse(store.exists(ANALYSIS_ID));
+        assertNull(store.getChannel(ANALYSIS_ID, 0));
+    }
+
+    // Appends all the spikes in batches, last batch goes in reverse order one spike at a time
+    private void write() throws IOException {
+        final SpikeStore.Writer writer = store.createWriter(ANALYSIS_ID);
+        final int reversedFrom = channels.length - BATCH_SIZE;
+        for (int from = 0; from < reversedFrom; from += BATCH_SIZE) {
+            final int count = Math.min(BATCH_SIZE, reversedFrom - from);
+            writer.append(copy(channels, from, count), copy(values, from, count), copy(indices, from, count),
+                copy(times, from, count), count);
+        }
+        for (int i = channels.length - 1; i >= reversedFrom; i--) {
+            writer.append(new int[] { channels[i] }, new short[] { values[i] }, new int[] { indices[i] },
+                new float[] { times[i] }, 1);
+        }
+        writer.commit();
+    }
+
+    private int count(int channel, int start, int end, int lower, int upper) {
+        int count = 0;
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] == channel && indices[i] >= start && indices[i] <= end && values[i] >= lower
+                && values[i] <= upper) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int[] copy(int[] array, int from, int count) {
+        final int[] result = new int[count];
+        System.arraycopy(array, from, result, 0, count);
+        return result;
+    }
+
+    private static short[] copy(short[] array, int from, int count) {
+        final short[] result = new short[count];
+        System.arraycopy(array, from, result, 0, count);
+        return result;
+    }
+
+    private static float[] copy(float[] array, int from, int count) {
+        final float[] result = new float[count];
+        System.arraycopy(array, from, result, 0, count);
+        return result;
+    }
+}
@@ -0,0 +1,281 @@
+package com.backyardbrains.drawing;
+
+import androidx.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link SignalDrawPipeline}. Channels are prepared by a simple java preparer that takes min and
+ * max of every bucket of samples, so the pipeline can be checked without native code and without GL context.
+ */
+public class SignalDrawPipelineTest {
+
+    private static final int CHANNEL_COUNT = 6;
+    private static final int FRAME_COUNT = 12000;
+    private static final int SURFACE_WIDTH = 500;
+    private static final int MAX_SAMPLES_PER_CHANNEL = SURFACE_WIDTH * 8;
+
+    private SignalDrawPipeline pipeline;
+
+    @After public void tearDown() {
+        if (pipeline != null) pipeline.shutdown();
+    }
+
+    @Test public void awaitedFrameMatchesSerialPreparation() {
+        final BucketPreparer preparer = new BucketPreparer();
+        pipeline = new SignalDrawPipeline(CHANNEL_COUNT, preparer);
+        final short[][] samples = createSamples(0);
+        final int[] eventIndices = { 100, 6000, 11990 };
+        final String[] eventNames = { "a", "b", "c" };
+        final SignalDrawData signal = new SignalDrawData(CHANNEL_COUNT, MAX_SAMPLES_PER_CHANNEL);
+        final EventsDrawData events = new EventsDrawData(10);
+
+        // only the drawn part of the signal is handed over
+        for (int drawStartIndex : new int[] { 0, 3000 }) {
+            assertTrue(pipeline.prepare(signal, events, samples, FRAME_COUNT, eventIndices, eventNames, 3,
+                drawStartIndex, FRAME_COUNT, SURFACE_WIDTH, -1, true));
+
+            for (int i = 0; i < CHANNEL_COUNT; i++) {
+                final float[] expected = new float[MAX_SAMPLES_PER_CHANNEL];
+                final int count = preparer.prepareChannel(i, expected, samples[i], FRAME_COUNT, drawStartIndex,
+                    FRAME_COUNT, SURFACE_WIDTH, -1);
+                assertEquals(count, signal.sampleCounts[i]);
+                for (int j = 0; j < count; j++) assertEquals(expected[j], signal.samples[i][j], 0f);
+            }
+            final float[] expected = new float[10];
+            final int count =
+                preparer.prepareEvents(expected, eventIndices, 3, drawStartIndex, FRAME_COUNT, SURFACE_WIDTH);
+            assertEquals(count, events.eventCount);
+            for (int j = 0; j < count; j++) assertEquals(expected[j], events.eventIndices[j], 0f);
+            // names of the events that are not drawn are dropped
+            assertEquals(eventNames[3 - count], events.eventNames[0]);
+        }
+    }
+
+    @Test public void channelsArePreparedInParallel() {
+        final CountDownLatch allChannelsStarted = new CountDownLatch(CHANNEL_COUNT);
+        final BucketPreparer preparer = new BucketPreparer() {
+            @Override public int prepareChannel(int channel, @NonNull float[] outSamples, @NonNull short[] inSamples,
+                int inFrameCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth, int appendedFrameCount) {
+                allChannelsStarted.countDown();
+                try {
+                    // channel is prepared only once all the other channels are being prepared as well
+                    if (!allChannelsStarted.await(5, TimeUnit.SECONDS)) return 0;
+                } catch (InterruptedException e) {
+                    return 0;
+                }
+                return super.prepareChannel(channel, outSamples, inSamples, inFrameCount, drawStartIndex,
+                    drawEndIndex, drawSurfaceWidth, appendedFrameCount);
+            }
+        };
+        pipeline = new SignalDrawPipeline(CHANNEL_COUNT, preparer);
+        final SignalDrawData signal = new SignalDrawData(CHANNEL_COUNT, MAX_SAMPLES_PER_CHANNEL);
+
+        assertTrue(pipeline.prepare(signal, new EventsDrawData(0), createSamples(0), FRAME_COUNT, new int[0],
+            new String[0], 0, 0, FRAME_COUNT, SURFACE_WIDTH, -1, true));
+        for (int i = 0; i < CHANNEL_COUNT; i++) assertTrue(signal.sampleCounts[i] > 0);
+        assertEquals(CHANNEL_COUNT, preparer.threadNames.size());
+    }
+
+    @Test public void drawingNeverWaitsAndFramesAreNotTorn() throws Exception {
+        final SlowPreparer preparer = new SlowPreparer(20);
+        pipeline = new SignalDrawPipeline(CHANNEL_COUNT, preparer);
+        final SignalDrawData signal = new SignalDrawData(CHANNEL_COUNT, MAX_SAMPLES_PER_CHANNEL);
+        final EventsDrawData events = new EventsDrawData(0);
+
+        long maxPrepareTime = 0;
+        int drawnFrameCount = 0;
+        float lastValue = -1;
+        for (int frame = 1; frame <= 200; frame++) {
+            final short[][] samples = createSamples(frame);
+            final long start = System.nanoTime();
+            final boolean prepared = pipeline.prepare(signal, events, samples, FRAME_COUNT, new int[0],
+                new String[0], 0, 0, FRAME_COUNT, SURFACE_WIDTH, 10, false);
+            maxPrepareTime = Math.max(maxPrepareTime, System.nanoTime() - start);
+            if (prepared) {
+                drawnFrameCount++;
+                // all channels come from the same handed over frame, and frames never go back
+                final float value = signal.samples[0][1];
+                for (int i = 0; i < CHANNEL_COUNT; i++) assertEquals(value, signal.samples[i][1], 0f);
+                assertTrue(value >= lastValue);
+                lastValue = value;
+            }
+            Thread.sleep(2);
+        }
+
+        assertTrue(drawnFrameCount > 0);
+        // slow preparation is never waited for
+        assertTrue(maxPrepareTime < TimeUnit.MILLISECONDS.toNanos(15));
+        // most frames are skipped while preparation is running
+        assertTrue(preparer.appendedFrameCounts.size() < 100);
+    }
+
+    @Test public void appendedFramesAreAccumulatedWhileSignalIsBeingPrepared() throws Exception {
+        final SlowPreparer preparer = new SlowPreparer(50);
+        pipeline = new SignalDrawPipeline(1, preparer);
+        final SignalDrawData signal = new SignalDrawData(1, MAX_SAMPLES_PER_CHANNEL);
+        final EventsDrawData events = new EventsDrawData(0);
+        final short[][] samples = new short[1][FRAME_COUNT];
+
+        int totalAppended = 0;
+        for (int frame = 0; frame < 30; frame++) {
+            // signal restarts in the middle
+            final int appended = frame == 0 || frame == 15 ? -1 : frame;
+            if (frame > 15) totalAppended += appended;
+            pipeline.prepare(signal, events, samples, FRAME_COUNT, new int[0], new String[0], 0, 0, FRAME_COUNT,
+                SURFACE_WIDTH, appended, frame == 29);
+            Thread.sleep(5);
+        }
+
+        final List<Integer> appendedFrameCounts = new ArrayList<>(preparer.appendedFrameCounts);
+        assertEquals(-1, (int) appendedFrameCounts.get(0));
+        // frames appended after restart are accounted for once the restart is handed over
+        int restart = appendedFrameCounts.lastIndexOf(-1);
+        assertTrue(restart > 0);
+        int sum = 0;
+        for (int i = restart + 1; i < appendedFrameCounts.size(); i++) sum += appendedFrameCounts.get(i);
+        assertTrue(sum <= totalAppended);
+        assertFalse(appendedFrameCounts.size() == 30);
+    }
+
+    @Test public void failedPreparationRestartsSignal() {
+        final BucketPreparer preparer = new BucketPreparer() {
+            @Override public int prepareChannel(int channel, @NonNull float[] outSamples, @NonNull short[] inSamples,
+                int inFrameCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth, int appendedFrameCount) {
+                appendedFrameCounts.add(appendedFrameCount);
+                if (appendedFrameCounts.size() == 2) throw new IllegalStateException();
+                return super.prepareChannel(channel, outSamples, inSamples, inFrameCount, drawStartIndex,
+                    drawEndIndex, drawSurfaceWidth, appendedFrameCount);
+            }
+        };
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        pipeline = new SignalDrawPipeline(1, preparer, (part, e) -> errors.add(part));
+        final SignalDrawData signal = new SignalDrawData(1, MAX_SAMPLES_PER_CHANNEL);
+        final EventsDrawData events = new EventsDrawData(0);
+        final short[][] samples = createSamples(0);
+
+        for (int frame = 0; frame < 3; frame++) {
+            pipeline.prepare(signal, events, samples, FRAME_COUNT, new int[0], new String[0], 0, 0, FRAME_COUNT,
+                SURFACE_WIDTH, frame == 0 ? -1 : 10, true);
+        }
+
+        // frame after the failed one doesn't continue it
+        assertArrayEquals(new Object[] { -1, 10, -1 }, preparer.appendedFrameCounts.toArray());
+        assertEquals(Collections.singletonList("channel 0"), errors);
+    }
+
+    @Test public void failedFrameIsNotPublished() {
+        final BucketPreparer preparer = new BucketPreparer() {
+            int calls;
+
+            @Override public int prepareEvents(@NonNull float[] outEventIndices, @NonNull int[] inEventIndices,
+                int inEventCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth) {
+                if (calls++ == 0) throw new IllegalStateException();
+                return super.prepareEvents(outEventIndices, inEventIndices, inEventCount, drawStartIndex,
+                    drawEndIndex, drawSurfaceWidth);
+            }
+        };
+        final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        pipeline = new SignalDrawPipeline(CHANNEL_COUNT, preparer, (part, e) -> errors.add(part));
+        final SignalDrawData signal = new SignalDrawData(CHANNEL_COUNT, MAX_SAMPLES_PER_CHANNEL);
+        final EventsDrawData events = new EventsDrawData(1);
+        final short[][] samples = createSamples(0);
+
+        // nothing has been prepared yet so there's nothing to copy
+        assertFalse(pipeline.prepare(signal, events, samples, FRAME_COUNT, new int[] { 10 }, new String[] { "a" }, 1,
+            0, FRAME_COUNT, SURFACE_WIDTH, -1, true));
+        assertEquals(Collections.singletonList("events"), errors);
+
+        assertTrue(pipeline.prepare(signal, events, samples, FRAME_COUNT, new int[] { 10 }, new String[] { "a" }, 1,
+            0, FRAME_COUNT, SURFACE_WIDTH, 0, true));
+        assertEquals(1, events.eventCount);
+        assertEquals(1, errors.size());
+    }
+
+    // Creates samples of all the channels that are equal to the specified value
+    private static short[][] createSamples(int value) {
+        final short[][] samples = new short[CHANNEL_COUNT][FRAME_COUNT];
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            for (int j = 0; j < FRAME_COUNT; j++) {
+                samples[i][j] = (short) (value == 0 ? (j * 31 + i * 7) % 2000 - 1000 : value);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Saves min and max of every two pixels of the surface.
+     */
+    private static class BucketPreparer implements SignalDrawPipeline.Preparer {
+
+        final List<String> threadNames = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> appendedFrameCounts = Collections.synchronizedList(new ArrayList<>());
+
+        @Override public int prepareChannel(int channel, @NonNull float[] outSamples, @NonNull short[] inSamples,
+            int inFrameCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth, int appendedFrameCount) {
+            if (!threadNames.contains(Thread.currentThread().getName())) {
+                threadNames.add(Thread.currentThread().getName());
+            }
+            final int bucketSize = Math.max(1, (drawEndIndex - drawStartIndex) / drawSurfaceWidth * 2);
+            int count = 0;
+            for (int i = drawStartIndex; i + bucketSize <= drawEndIndex && count + 4 <= outSamples.length;
+                i += bucketSize) {
+                short min = Short.MAX_VALUE, max = Short.MIN_VALUE;
+                for (int j = i; j < i + bucketSize; j++) {
+                    min = (short) Math.min(min, inSamples[j]);
+                    max = (short) Math.max(max, inSamples[j]);
+                }
+                outSamples[count++] = count;
+                outSamples[count++] = max;
+                outSamples[count++] = count;
+                outSamples[count++] = min;
+            }
+            return count;
+        }
+
+        @Override public int prepareEvents(@NonNull float[] outEventIndices, @NonNull int[] inEventIndices,
+            int inEventCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth) {
+            int count = 0;
+            for (int i = 0; i < inEventCount; i++) {
+                if (inEventIndices[i] >= drawStartIndex && inEventIndices[i] < drawEndIndex) {
+                    outEventIndices[count++] = (inEventIndices[i] - drawStartIndex) * drawSurfaceWidth
+                        / (float) (drawEndIndex - drawStartIndex);
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Takes specified time to prepare every channel and records appended frame counts of the first channel.
+     */
+    private static class SlowPreparer extends BucketPreparer {
+
+        private final long delayMillis;
+
+        SlowPreparer(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override public int prepareChannel(int channel, @NonNull float[] outSamples, @NonNull short[] inSamples,
+            int inFrameCount, int drawStartIndex, int drawEndIndex, int drawSurfaceWidth, int appendedFrameCount) {
+            if (channel == 0) appendedFrameCounts.add(appendedFrameCount);
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException ignored) {
+            }
+            return super.prepareChannel(channel, outSamples, inSamples, inFrameCount, drawStartIndex, drawEndIndex,
+                drawSurfaceWidth, appendedFrameCount);
+        }
+    }
+}
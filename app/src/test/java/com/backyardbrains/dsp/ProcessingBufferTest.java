@@ -0,0 +1,178 @@
+package com.backyardbrains.dsp;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit and stress test for {@link ProcessingBuffer}.
+ *
+ * Stress test adds 10 ms batches of 2 channel signal, together with an FFT window and an event every 10th batch, from
+ * one thread while the other one keeps picking up the published snapshots and occasionally holds on to one for a
+ * while. Every value written by the processing thread is derived from the number of samples written so far, so any
+ * snapshot that mixes data from different batches is detected.
+ */
+public class ProcessingBufferTest {
+
+    private static final int CHANNEL_COUNT = 2;
+    private static final int BATCH_SIZE = SignalProcessor.DEFAULT_SAMPLE_RATE / 100;
+    private static final int BATCH_COUNT = 3000;
+    private static final int EVENT_BATCH_INTERVAL = 10;
+    private static final long READER_HOLD_TIME_MS = 50;
+    private static final int WARM_UP_BATCH_COUNT = 100;
+
+    private ProcessingBuffer buffer;
+
+    @Before public void setUp() {
+        buffer = ProcessingBuffer.get();
+        buffer.resetAllSampleBuffers(CHANNEL_COUNT, CHANNEL_COUNT);
+    }
+
+    @Test public void readerGetsOnlyNewSamples() {
+        final SignalData signalData = new SignalData(CHANNEL_COUNT, BATCH_SIZE, 16);
+        final SignalData averaged = new SignalData(CHANNEL_COUNT, BATCH_SIZE, 16);
+        final FftData fftData = new FftData(1, SignalProcessor.FFT_WINDOW_SIZE);
+        final short[] out = new short[BATCH_SIZE * 3];
+
+        fill(signalData, averaged, fftData, 0);
+        buffer.add(signalData, averaged, fftData);
+        fill(signalData, averaged, fftData, 1);
+        buffer.add(signalData, averaged, fftData);
+
+        ProcessingSnapshot snapshot = buffer.acquireSnapshot();
+        assertEquals(BATCH_SIZE * 2, snapshot.copySamples(1, 0, out));
+        for (int i = 0; i < BATCH_SIZE * 2; i++) assertEquals(value(i, 1), out[i]);
+        assertEquals(BATCH_SIZE, snapshot.copySamples(0, BATCH_SIZE, out));
+        assertEquals(value(BATCH_SIZE, 0), out[0]);
+        assertEquals(2, snapshot.getFftTotal());
+        assertEquals(1, snapshot.getEventCount());
+
+        // nothing new was published so reader keeps the same snapshot
+        assertTrue(snapshot == buffer.acquireSnapshot());
+
+        // clearing starts new epoch with empty buffers
+        buffer.clearAllBuffers();
+        snapshot = buffer.acquireSnapshot();
+        assertEquals(0, snapshot.getSampleTotal(0));
+        assertEquals(0, snapshot.getEventCount());
+    }
+
+    @Test public void concurrentAddAndReadProducesNoTornFramesAndNoWriterStalls() throws Exception {
+        final AtomicBoolean working = new AtomicBoolean(true);
+        final AtomicReference<Throwable> readerError = new AtomicReference<>();
+        final int[] readCount = new int[1];
+
+        final Thread reader = new Thread(() -> {
+            final short[] out = new short[SignalProcessor.MAX_PROCESSED_SAMPLES_COUNT];
+            final long[] readTotals = new long[CHANNEL_COUNT];
+            long lastSequence = -1;
+            try {
+                while (working.get()) {
+                    final ProcessingSnapshot snapshot = buffer.acquireSnapshot();
+                    assertTrue(snapshot.getSequence() >= lastSequence);
+                    if (snapshot.getSequence() == lastSequence) continue;
+                    lastSequence = snapshot.getSequence();
+
+                    verify(snapshot, out, readTotals);
+                    readCount[0]++;
+
+                    // hold on to the snapshot as a slow frame would and make sure nobody touched it in the meantime
+                    if (readCount[0] % 10 == 0) {
+                        final long sequence = snapshot.getSequence();
+                        final long total = snapshot.getSampleTotal(0);
+                        Thread.sleep(READER_HOLD_TIME_MS);
+                        assertEquals(sequence, snapshot.getSequence());
+                        assertEquals(total, snapshot.getSampleTotal(0));
+                        verify(snapshot, out, null);
+                    }
+                }
+            } catch (Throwable t) {
+                readerError.set(t);
+            }
+        });
+        reader.start();
+
+        final SignalData signalData = new SignalData(CHANNEL_COUNT, BATCH_SIZE, 16);
+        final SignalData averaged = new SignalData(CHANNEL_COUNT, BATCH_SIZE, 16);
+        final FftData fftData = new FftData(1, SignalProcessor.FFT_WINDOW_SIZE);
+        long maxAddTime = 0;
+        for (int i = 0; i < BATCH_COUNT && readerError.get() == null; i++) {
+            fill(signalData, averaged, fftData, i);
+            final long start = System.nanoTime();
+            buffer.add(signalData, averaged, fftData);
+            final long addTime = System.nanoTime() - start;
+            if (i >= WARM_UP_BATCH_COUNT) maxAddTime = Math.max(maxAddTime, addTime);
+            if (i % 10 == 0) Thread.sleep(1);
+        }
+        working.set(false);
+        reader.join();
+
+        assertNull(readerError.get());
+        assertTrue(readCount[0] > 0);
+        System.out.println(String.format("Snapshots read: %d, max add time: %.2f ms", readCount[0],
+            maxAddTime / 1000000f));
+        // writer must never wait for the reader that holds on to the snapshot
+        assertTrue(maxAddTime < READER_HOLD_TIME_MS * 1000000L);
+    }
+
+    // Checks that all the data within the snapshot belongs to the same batch and, if readTotals is passed, that
+    // samples reader hasn't seen yet continue right where the previous read stopped
+    private static void verify(ProcessingSnapshot snapshot, short[] out, long[] readTotals) {
+        final long total = snapshot.getSampleTotal(0);
+        final long batchCount = total / BATCH_SIZE;
+        assertEquals(0, total % BATCH_SIZE);
+        assertEquals(batchCount, snapshot.getFftTotal());
+        assertEquals(total, snapshot.getLastSampleIndex());
+
+        for (int c = 0; c < CHANNEL_COUNT; c++) {
+            assertEquals(total, snapshot.getSampleTotal(c));
+            assertEquals(total, snapshot.getAveragedSampleTotal(c));
+
+            final long from = readTotals != null ? readTotals[c] : Math.max(0, total - 1);
+            final int count = snapshot.copySamples(c, from, out);
+            for (int i = 0; i < count; i++) assertEquals(value(total - count + i, c), out[i]);
+            if (readTotals != null) readTotals[c] = total;
+        }
+
+        if (batchCount > 0) {
+            final float[][] fft = new float[1][SignalProcessor.FFT_WINDOW_SIZE];
+            assertEquals(1, snapshot.copyFft(batchCount - 1, fft));
+            assertEquals(batchCount - 1, fft[0][0], 0);
+
+            final int[] eventIndices = new int[snapshot.getEventCount()];
+            final String[] eventNames = new String[snapshot.getEventCount()];
+            assertEquals(eventIndices.length, snapshot.copyEvents(eventIndices, eventNames));
+            final long lastEventBatch = (batchCount - 1) / EVENT_BATCH_INTERVAL * EVENT_BATCH_INTERVAL;
+            assertEquals(String.valueOf(lastEventBatch), eventNames[eventNames.length - 1]);
+        }
+    }
+
+    // Fills signal, averaged signal and FFT data for the specified batch
+    private static void fill(SignalData signalData, SignalData averaged, FftData fftData, int batch) {
+        for (int c = 0; c < CHANNEL_COUNT; c++) {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                signalData.samples[c][i] = averaged.samples[c][i] = value((long) batch * BATCH_SIZE + i, c);
+            }
+            signalData.sampleCounts[c] = averaged.sampleCounts[c] = BATCH_SIZE;
+        }
+        signalData.eventCount = 0;
+        if (batch % EVENT_BATCH_INTERVAL == 0) {
+            signalData.eventIndices[0] = 0;
+            signalData.eventNames[0] = String.valueOf(batch);
+            signalData.eventCount = 1;
+        }
+        signalData.lastSampleIndex = (long) (batch + 1) * BATCH_SIZE;
+        fftData.fft[0][0] = batch;
+        fftData.windowCount = 1;
+    }
+
+    // Returns sample value at the specified position of the specified channel
+    private static short value(long position, int channel) {
+        return (short) (position + channel * 1000);
+    }
+}
@@ -0,0 +1,87 @@
+package com.backyardbrains.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit test for {@link SpectrogramConfig}. Checks that layouts keep the spectrogram within the mesh and that the
+ * default configuration is laid out the same way spectrogram has always been computed.
+ */
+public class SpectrogramConfigTest {
+
+    private static final float VIEW_TIME = 6f;
+
+    @Test public void defaultLayoutMatchesLegacySpectrogram() {
+        // 4 s window of 512 samples at ~128 Hz with 99% overlap, showing 0-32 Hz in 128 bins
+        final SpectrogramConfig.Layout layout = SpectrogramConfig.DEFAULT.layout(44100, VIEW_TIME);
+        assertEquals(344, layout.decimation);
+        assertEquals(512, layout.windowSampleCount);
+        assertEquals(5, layout.hopSampleCount);
+        assertEquals(128, layout.fftBinCount);
+        assertEquals(128, layout.binCount);
+        assertEquals(153, layout.columnCount);
+        assertEquals((152 * 5 + 512) * 344, layout.seekSampleCount);
+        assertEquals(32f, layout.maxFrequency, .5f);
+    }
+
+    @Test public void fullBandLayoutShowsFrequenciesUpToNyquist() {
+        final SpectrogramConfig.Layout layout = SpectrogramConfig.FULL_BAND.layout(10000, VIEW_TIME);
+        assertEquals(1, layout.decimation);
+        assertEquals(1024, layout.windowSampleCount);
+        assertEquals(250, layout.hopSampleCount);
+        assertEquals(513, layout.fftBinCount);
+        assertEquals(128, layout.binCount);
+        assertEquals(240, layout.columnCount);
+        assertEquals(5000f, layout.maxFrequency, 0f);
+        assertEquals(40f, layout.columnsPerSecond, 0f);
+    }
+
+    @Test public void layoutFitsIntoMesh() {
+        final int[] sampleRates = { 1000, 5000, 10000, 22050, 44100 };
+        final SpectrogramConfig[] configs = {
+            SpectrogramConfig.DEFAULT, SpectrogramConfig.FULL_BAND,
+            new SpectrogramConfig(.01f, .001f, SpectrogramConfig.WindowFunction.HAMMING, SpectrogramConfig.NYQUIST,
+                SpectrogramConfig.MAX_RESOLUTION),
+            new SpectrogramConfig(SpectrogramConfig.MAX_WINDOW_TIME, .01f, SpectrogramConfig.WindowFunction.BLACKMAN,
+                300f, 64)
+        };
+        for (SpectrogramConfig config : configs) {
+            for (int sampleRate : sampleRates) {
+                final SpectrogramConfig.Layout layout = config.layout(sampleRate, VIEW_TIME);
+                final String message = config + " at " + sampleRate + " Hz";
+                assertEquals(message, 0, layout.windowSampleCount & (layout.windowSampleCount - 1));
+                assertTrue(message, layout.hopSampleCount >= 1 && layout.hopSampleCount <= layout.windowSampleCount);
+                assertTrue(message, layout.binCount <= layout.fftBinCount);
+                assertTrue(message, layout.fftBinCount <= layout.windowSampleCount / 2 + 1);
+                assertTrue(message, layout.columnCount * layout.binCount <= SpectrogramConfig.MAX_VALUE_COUNT);
+                assertTrue(message, layout.maxFrequency <= sampleRate / 2f);
+                // whole spectrogram can always be computed from the processed samples
+                assertTrue(message, layout.seekSampleCount
+                    <= (VIEW_TIME + SpectrogramConfig.MAX_WINDOW_TIME) * sampleRate);
+            }
+        }
+    }
+
+    @Test public void invalidConfigurationIsRejected() {
+        assertRejected(0f, .04f, SpectrogramConfig.WindowFunction.HANN, 32f, 128);
+        assertRejected(SpectrogramConfig.MAX_WINDOW_TIME * 2, .04f, SpectrogramConfig.WindowFunction.HANN, 32f, 128);
+        assertRejected(1f, 2f, SpectrogramConfig.WindowFunction.HANN, 32f, 128);
+        assertRejected(1f, .04f, 4, 32f, 128);
+        assertRejected(1f, .04f, SpectrogramConfig.WindowFunction.HANN, 0f, 128);
+        assertRejected(1f, .04f, SpectrogramConfig.WindowFunction.HANN, 32f, 0);
+        assertRejected(1f, .04f, SpectrogramConfig.WindowFunction.HANN, 32f, SpectrogramConfig.MAX_RESOLUTION + 1);
+    }
+
+    private static void assertRejected(float windowTime, float hopTime, int windowFunction, float maxFrequency,
+        int resolution) {
+        try {
+            //noinspection WrongConstant
+            new SpectrogramConfig(windowTime, hopTime, windowFunction, maxFrequency, resolution);
+            fail("Configuration should've been rejected");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.backyardbrains.dsp.audio;
+
+import android.media.AudioFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit and stress test for {@link ChunkQueue}.
+ *
+ * Stress tests pass signal from a producer thread at the rate at which it's produced by the processing thread, in
+ * batches of the size of a microphone buffer for 44.1 kHz stereo signal and of the size of a USB packet for 10 kHz 6
+ * channel signal. Consumer thread writes it to a WAV file the same way {@link Recorder} does. Every byte needs to
+ * reach the file and consumer thread should only use CPU while it writes.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class ChunkQueueTest {
+
+    private static final int CHUNK_COUNT = 256;
+    private static final int CHUNK_SIZE = 4096;
+    private static final long STRESS_DURATION_MILLIS = 2000;
+    private static final long IDLE_DURATION_MILLIS = 1000;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void noSamplesAreLostAt44kHzStereo() throws Exception {
+        stress(44100, 2, 2048);
+    }
+
+    @Test public void noSamplesAreLostAt10kHz6Channels() throws Exception {
+        stress(10000, 6, 120);
+    }
+
+    @Test public void consumerIsParkedWhileIdle() throws Exception {
+        final ChunkQueue queue = new ChunkQueue(CHUNK_COUNT, CHUNK_SIZE);
+        final Thread consumer = new Thread(() -> {
+            try {
+                ChunkQueue.Chunk chunk;
+                while ((chunk = queue.take()) != null) queue.release(chunk);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        consumer.start();
+
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Thread.sleep(100);
+        final long cpuStart = bean.getThreadCpuTime(consumer.getId());
+        Thread.sleep(IDLE_DURATION_MILLIS);
+        final long cpu = bean.getThreadCpuTime(consumer.getId()) - cpuStart;
+        log("Idle consumer CPU time: %.3f ms in %d ms", cpu / 1e6, IDLE_DURATION_MILLIS);
+        assertTrue(cpu < TimeUnit.MILLISECONDS.toNanos(IDLE_DURATION_MILLIS) / 100);
+
+        queue.stop();
+        consumer.join(1000);
+        assertFalse(consumer.isAlive());
+    }
+
+    @Test public void overflowIsDroppedAndCounted() throws Exception {
+        final ChunkQueue queue = new ChunkQueue(4, 100);
+        final byte[] b = new byte[250];
+
+        assertEquals(250, queue.offer(b, 250, 0));
+        assertEquals(3, queue.getDepth());
+        // only one chunk is left so the whole batch is dropped
+        assertEquals(0, queue.offer(b, 250, 0));
+        assertEquals(3, queue.getDepth());
+        assertEquals(3, queue.getMaxDepth());
+        assertEquals(250, queue.getDroppedByteCount());
+        // but a batch that fits into it is queued
+        assertEquals(100, queue.offer(b, 100, 0));
+        assertEquals(4, queue.getMaxDepth());
+
+        // released chunks can be reused
+        final ChunkQueue.Chunk chunk = queue.take();
+        assertEquals(100, chunk.size);
+        queue.release(chunk);
+        assertEquals(50, queue.offer(b, 50, 3));
+
+        queue.resetMetrics();
+        assertEquals(0, queue.getMaxDepth());
+        assertEquals(0, queue.getDroppedByteCount());
+    }
+
+    @Test public void drainWaitsForQueuedChunks() throws Exception {
+        final ChunkQueue queue = new ChunkQueue(4, 100);
+        queue.offer(new byte[300], 300, 1);
+        // there is no consumer
+        assertFalse(queue.drain(50));
+
+        final int[] consumed = new int[1];
+        final Thread consumer = new Thread(() -> {
+            try {
+                ChunkQueue.Chunk chunk;
+                while ((chunk = queue.take()) != null) {
+                    Thread.sleep(20);
+                    consumed[0] += chunk.size;
+                    queue.release(chunk);
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+        consumer.start();
+        assertTrue(queue.drain(1000));
+        assertEquals(300, consumed[0]);
+
+        queue.stop();
+        consumer.join(1000);
+        assertFalse(consumer.isAlive());
+    }
+
+    @Test public void stopLetsQueuedChunksBeConsumed() throws Exception {
+        final ChunkQueue queue = new ChunkQueue(4, 100);
+        queue.offer(new byte[100], 100, 2);
+        queue.stop();
+
+        final ChunkQueue.Chunk chunk = queue.take();
+        assertEquals(2, chunk.flags);
+        queue.release(chunk);
+        assertNull(queue.take());
+    }
+
+    // Passes specified signal in batches of specified size, at the rate it would be produced, and checks that all of
+    // it reaches the file
+    private void stress(int sampleRate, int channelCount, int batchSize) throws Exception {
+        final File file = folder.newFile();
+        final ChunkQueue queue = new ChunkQueue(CHUNK_COUNT, CHUNK_SIZE);
+        final WavWriter writer = new WavWriter(file, sampleRate, channelCount, AudioFormat.ENCODING_PCM_16BIT,
+            2L * sampleRate * channelCount * 2, 0);
+        final IOException[] error = new IOException[1];
+        final Thread consumer = new Thread(() -> {
+            try {
+                ChunkQueue.Chunk chunk;
+                while ((chunk = queue.take()) != null) {
+                    try {
+                        writer.write(chunk.data, 0, chunk.size);
+                    } catch (IOException e) {
+                        error[0] = e;
+                    } finally {
+                        queue.release(chunk);
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+        consumer.start();
+
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        final long cpuStart = bean.getThreadCpuTime(consumer.getId());
+
+        final long bytesPerSecond = (long) sampleRate * channelCount * 2;
+        final long totalByteCount = bytesPerSecond * STRESS_DURATION_MILLIS / 1000;
+        final byte[] batch = new byte[batchSize];
+        final long start = System.nanoTime();
+        long produced = 0;
+        while (produced < totalByteCount) {
+            // wait until next batch is "received"
+            final long due = start + (produced + batchSize) * 1000000000L / bytesPerSecond;
+            while (System.nanoTime() < due) LockSupport.parkNanos(due - System.nanoTime());
+
+            final int len = (int) Math.min(batchSize, totalByteCount - produced);
+            for (int i = 0; i < len; i++) batch[i] = (byte) ((produced + i) * 31 + 7);
+            assertEquals(len, queue.offer(batch, len, 0));
+            produced += len;
+        }
+        assertTrue(queue.drain(1000));
+        final long cpu = bean.getThreadCpuTime(consumer.getId()) - cpuStart;
+        queue.stop();
+        consumer.join(1000);
+        writer.close();
+
+        log("%d Hz, %d channels: max depth %d chunks, dropped %d bytes, consumer CPU %.1f ms in %d ms", sampleRate,
+            channelCount, queue.getMaxDepth(), queue.getDroppedByteCount(), cpu / 1e6, STRESS_DURATION_MILLIS);
+        assertNull(error[0]);
+        assertEquals(0, queue.getDroppedByteCount());
+        assertTrue(cpu < TimeUnit.MILLISECONDS.toNanos(STRESS_DURATION_MILLIS) / 2);
+
+        // every produced byte is in the file
+        final byte[] data = new byte[(int) totalByteCount];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            assertEquals(44 + totalByteCount, raf.length());
+            raf.seek(44);
+            raf.readFully(data);
+        }
+        for (int i = 0; i < data.length; i++) assertEquals("Byte " + i, (byte) (i * 31 + 7), data[i]);
+    }
+
+    private static void log(String format, Object... args) {
+        System.out.println(String.format(Locale.US, format, args));
+    }
+}
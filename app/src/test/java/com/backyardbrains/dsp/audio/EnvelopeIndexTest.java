@@ -0,0 +1,257 @@
+package com.backyardbrains.dsp.audio;
+
+import com.backyardbrains.utils.LogUtils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test and benchmark for {@link EnvelopeIndex}.
+ *
+ * Envelopes of random ranges, including the ones that reach outside of the recording, are compared with max and min
+ * samples of the same blocks taken directly from the samples. Benchmark reads envelopes of a 10 minute and a 160 minute
+ * long recording for a 2000 pixel wide screen and checks that reading doesn't get slower with the length of the
+ * recording.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class EnvelopeIndexTest {
+
+    private static final int SAMPLE_RATE = 10000;
+    private static final int BUCKET_COUNT = 1000;
+    private static final int BENCHMARK_QUERY_COUNT = 2000;
+    private static final int BENCHMARK_WARM_UP_COUNT = 2000;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before public void setUp() {
+        LogUtils.LOGGING_ENABLED = false;
+    }
+
+    @Test public void envelopeHoldsMaxAndMinOfEveryBucket() throws IOException {
+        final int channelCount = 3;
+        final int frameCount = 1000003;
+        final short[] samples = createSamples(channelCount, frameCount, 3);
+        final EnvelopeIndex envelopeIndex = build(samples, channelCount, frameCount, 4);
+        assertEquals(channelCount, envelopeIndex.getChannelCount());
+        assertEquals(frameCount, envelopeIndex.getFrameCount());
+
+        final Random random = new Random(5);
+        final short[] out = new short[BUCKET_COUNT * 2];
+        for (int i = 0; i < 500; i++) {
+            final int bucketCount = 1 + random.nextInt(BUCKET_COUNT);
+            final long width = 1 + (long) (Math.pow(random.nextDouble(), 3) * frameCount * 1.2);
+            final long from = (long) ((random.nextDouble() * 1.2 - .1) * frameCount);
+            final int channel = random.nextInt(channelCount);
+            assertEquals(bucketCount * 2, envelopeIndex.envelope(channel, from, from + width, bucketCount, out));
+
+            final int level = envelopeIndex.getLevel(width / bucketCount);
+            final double framesPerBucket = (double) width / bucketCount;
+            for (int j = 0; j < bucketCount; j++) {
+                final long start = from + (long) (j * framesPerBucket);
+                final long end = Math.max(start + 1, from + (long) ((j + 1) * framesPerBucket));
+
+                // frames outside of the recording are zeros
+                final boolean outside = start < 0 || end > frameCount;
+
+                // exact max and min of the bucket need to be within the envelope
+                final short[] exact = maxAndMin(samples, channelCount, frameCount, channel, start, end, outside);
+                assertTrue(out[j * 2] >= exact[0] && out[j * 2 + 1] <= exact[1]);
+
+                // envelope holds max and min of the blocks that overlap with the bucket
+                final long blockSize = 1L << level;
+                final boolean overlaps = end > 0 && start < frameCount;
+                final short[] expected = maxAndMin(samples, channelCount, frameCount, channel,
+                    Math.max(0, start) / blockSize * blockSize,
+                    overlaps ? (end + blockSize - 1) / blockSize * blockSize : 0, outside);
+                assertEquals("Max of bucket " + j, expected[0], out[j * 2]);
+                assertEquals("Min of bucket " + j, expected[1], out[j * 2 + 1]);
+            }
+        }
+    }
+
+    @Test public void levelMatchesBucketSize() throws IOException {
+        final EnvelopeIndex envelopeIndex = build(createSamples(1, 1 << 20, 7), 1, 1 << 20, 1000);
+
+        assertEquals(EnvelopeIndex.BASE_LEVEL, envelopeIndex.getLevel(1));
+        assertEquals(EnvelopeIndex.BASE_LEVEL, envelopeIndex.getLevel((1 << (EnvelopeIndex.BASE_LEVEL + 1)) - 1));
+        assertEquals(EnvelopeIndex.BASE_LEVEL + 1, envelopeIndex.getLevel(1 << (EnvelopeIndex.BASE_LEVEL + 1)));
+        assertEquals(12, envelopeIndex.getLevel(5000));
+        // top level holds single block for the whole recording
+        assertEquals(20, envelopeIndex.getLevel(Long.MAX_VALUE));
+    }
+
+    @Test public void staleEnvelopeIsNotLoaded() throws IOException {
+        final File file = folder.newFile();
+        final EnvelopeIndex.Builder builder = new EnvelopeIndex.Builder(2, file);
+        builder.add(createSamples(2, 1000, 11), 2000);
+        builder.save(1000, 4044, 1234);
+
+        assertNotNull(EnvelopeIndex.load(file, 4044, 1234));
+        assertNull(EnvelopeIndex.load(file, 4046, 1234));
+        assertNull(EnvelopeIndex.load(file, 4044, 1235));
+    }
+
+    @Test public void envelopeOfEmptyRecordingIsZero() throws IOException {
+        final File file = folder.newFile();
+        new EnvelopeIndex.Builder(2, file).save(0, 44, 0);
+        final EnvelopeIndex envelopeIndex = EnvelopeIndex.load(file, 44, 0);
+        assertNotNull(envelopeIndex);
+
+        final short[] out = new short[20];
+        Arrays.fill(out, (short) 1);
+        assertEquals(20, envelopeIndex.envelope(1, -100, 100, 10, out));
+        for (short sample : out) assertEquals(0, sample);
+    }
+
+    @Test public void writtenBytesGiveSameEnvelopeAsSamples() throws IOException {
+        final int channelCount = 3;
+        final int frameCount = 300001;
+        final short[] samples = createSamples(channelCount, frameCount, 13);
+        final EnvelopeIndex expected = build(samples, channelCount, frameCount, 1000);
+
+        // samples are written as little-endian bytes, chunks split frames but never samples
+        final byte[] bytes = new byte[samples.length * 2];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(samples);
+        final File file = folder.newFile();
+        final EnvelopeIndex.Builder builder = new EnvelopeIndex.Builder(channelCount, file);
+        final byte[] chunk = new byte[4096];
+        for (int i = 0; i < bytes.length; i += chunk.length) {
+            final int len = Math.min(chunk.length, bytes.length - i);
+            System.arraycopy(bytes, i, chunk, 0, len);
+            builder.add(chunk, len);
+        }
+        // frames that didn't make it to the recording are left out
+        builder.save(frameCount - 1, 1, 1);
+        final EnvelopeIndex envelopeIndex = EnvelopeIndex.load(file, 1, 1);
+        assertNotNull(envelopeIndex);
+        assertEquals(frameCount - 1, envelopeIndex.getFrameCount());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        final short[] out = new short[BUCKET_COUNT * 2];
+        final short[] expectedOut = new short[BUCKET_COUNT * 2];
+        for (int i = 0; i < channelCount; i++) {
+            for (int bucketCount = 1; bucketCount <= BUCKET_COUNT; bucketCount *= 10) {
+                envelopeIndex.envelope(i, 0, frameCount - 1, bucketCount, out);
+                expected.envelope(i, 0, frameCount - 1, bucketCount, expectedOut);
+                assertArrayEquals(expectedOut, out);
+            }
+        }
+    }
+
+    @Test public void envelopeCostDoesNotDependOnRecordingLength() throws IOException {
+        final int channelCount = 2;
+        final EnvelopeIndex shortRecording = buildLong(channelCount, 10 * 60 * SAMPLE_RATE);
+        final EnvelopeIndex longRecording = buildLong(channelCount, 160 * 60 * SAMPLE_RATE);
+
+        final long[] shortWhole = benchmark(shortRecording, shortRecording.getFrameCount());
+        final long[] longWhole = benchmark(longRecording, longRecording.getFrameCount());
+        final long[] shortMinute = benchmark(shortRecording, 60 * SAMPLE_RATE);
+        final long[] longMinute = benchmark(longRecording, 60 * SAMPLE_RATE);
+
+        log("whole 10 min recording", shortWhole);
+        log("whole 160 min recording", longWhole);
+        log("1 min of 10 min recording", shortMinute);
+        log("1 min of 160 min recording", longMinute);
+
+        // 16 times longer recording, allow for the noise of the shared machines
+        assertTrue(longWhole[0] < shortWhole[0] * 4);
+        assertTrue(longMinute[0] < shortMinute[0] * 4);
+    }
+
+    // Builds the envelope of the specified samples, adding them in random chunks
+    private EnvelopeIndex build(short[] samples, int channelCount, int frameCount, int maxChunkSize)
+        throws IOException {
+        final Random random = new Random(frameCount);
+        final File file = folder.newFile();
+        final EnvelopeIndex.Builder builder = new EnvelopeIndex.Builder(channelCount, file);
+        final short[] chunk = new short[maxChunkSize];
+        for (int i = 0; i < samples.length; ) {
+            final int len = Math.min(samples.length - i, 1 + random.nextInt(maxChunkSize));
+            System.arraycopy(samples, i, chunk, 0, len);
+            builder.add(chunk, len);
+            i += len;
+        }
+
+        builder.save(frameCount, 44 + frameCount * channelCount * 2L, 1);
+        final EnvelopeIndex envelopeIndex = EnvelopeIndex.load(file, 44 + frameCount * channelCount * 2L, 1);
+        assertNotNull(envelopeIndex);
+        return envelopeIndex;
+    }
+
+    // Builds the envelope of a long recording one second at a time, without holding all the samples
+    private EnvelopeIndex buildLong(int channelCount, int frameCount) throws IOException {
+        final File file = folder.newFile();
+        final EnvelopeIndex.Builder builder = new EnvelopeIndex.Builder(channelCount, file);
+        final short[] second = createSamples(channelCount, SAMPLE_RATE, frameCount);
+        for (int i = 0; i < frameCount / SAMPLE_RATE; i++) builder.add(second, second.length);
+
+        builder.save(frameCount, 44 + frameCount * channelCount * 2L, 1);
+        final EnvelopeIndex envelopeIndex = EnvelopeIndex.load(file, 44 + frameCount * channelCount * 2L, 1);
+        assertNotNull(envelopeIndex);
+        return envelopeIndex;
+    }
+
+    // Returns median and 95th percentile of the durations of reading envelopes of random windows of specified width
+    private static long[] benchmark(EnvelopeIndex envelopeIndex, long width) {
+        final Random random = new Random(width);
+        final short[] out = new short[BUCKET_COUNT * 2];
+        final long[] durations = new long[BENCHMARK_QUERY_COUNT];
+        for (int i = 0; i < BENCHMARK_WARM_UP_COUNT + BENCHMARK_QUERY_COUNT; i++) {
+            final long from = (long) (random.nextDouble() * (envelopeIndex.getFrameCount() - width));
+            final long start = System.nanoTime();
+            for (int j = 0; j < envelopeIndex.getChannelCount(); j++) {
+                envelopeIndex.envelope(j, from, from + width, BUCKET_COUNT, out);
+            }
+            if (i >= BENCHMARK_WARM_UP_COUNT) durations[i - BENCHMARK_WARM_UP_COUNT] = System.nanoTime() - start;
+        }
+        Arrays.sort(durations);
+        return new long[] { durations[durations.length / 2], durations[durations.length * 95 / 100] };
+    }
+
+    private static void log(String name, long[] durations) {
+        System.out.println(
+            String.format(Locale.US, "%s: median %.3f ms, p95 %.3f ms", name, durations[0] / 1e6, durations[1] / 1e6));
+    }
+
+    // Creates slow sine wave with noise for every channel
+    private static short[] createSamples(int channelCount, int frameCount, long seed) {
+        final Random random = new Random(seed);
+        final short[] samples = new short[frameCount * channelCount];
+        for (int i = 0; i < frameCount; i++) {
+            for (int j = 0; j < channelCount; j++) {
+                final double value = Math.sin(i * (j + 1) * 2 * Math.PI / 48000) * 20000 + random.nextGaussian() * 3000;
+                samples[i * channelCount + j] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            }
+        }
+        return samples;
+    }
+
+    // Returns max and min sample of the channel between start and end frame within the recording, including zero if
+    // specified
+    private static short[] maxAndMin(short[] samples, int channelCount, int frameCount, int channel, long start,
+        long end, boolean includeZero) {
+        short max = includeZero ? 0 : Short.MIN_VALUE, min = includeZero ? 0 : Short.MAX_VALUE;
+        for (long i = Math.max(0, start); i < Math.min(frameCount, end); i++) {
+            final short sample = samples[(int) i * channelCount + channel];
+            if (sample > max) max = sample;
+            if (sample < min) min = sample;
+        }
+        return new short[] { max, min };
+    }
+}
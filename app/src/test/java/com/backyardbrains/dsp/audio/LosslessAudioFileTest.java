@@ -0,0 +1,219 @@
+package com.backyardbrains.dsp.audio;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link LosslessWriter} and {@link LosslessAudioFile}.
+ *
+ * Synthetic signals that resemble the ones recorded with the SpikerBoxes (EMG bursts, spikes on top of noise, slow
+ * EEG rhythms and channels that don't change at all) are written in chunks of random size, including odd ones that
+ * split samples, and decoded data needs to be identical to the written one.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class LosslessAudioFileTest {
+
+    private static final int SAMPLE_RATE = 10000;
+    private static final int BLOCK_SIZE = 1024;
+    private static final int COMMIT_INTERVAL = 20000;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void decodedDataIsIdenticalToWrittenData() throws IOException {
+        for (int channelCount : new int[] { 1, 2, 6 }) {
+            final byte[] data = createData(SAMPLE_RATE * 10 + 123, channelCount, 7);
+            final File file = write(data, channelCount, true);
+
+            final LosslessAudioFile af = LosslessAudioFile.open(file);
+            try {
+                assertEquals(SAMPLE_RATE, af.sampleRate());
+                assertEquals(channelCount, af.channelCount());
+                assertEquals(16, af.bitsPerSample());
+                assertEquals(data.length, af.length());
+                assertArrayEquals(data, readAll(af));
+            } finally {
+                af.close();
+            }
+            log("%d channels: compression ratio %.2f", channelCount, data.length / (double) file.length());
+        }
+    }
+
+    @Test public void randomReadsMatchWrittenData() throws IOException {
+        final int channelCount = 2;
+        final byte[] data = createData(SAMPLE_RATE * 5, channelCount, 11);
+        final File file = write(data, channelCount, true);
+
+        final Random random = new Random(5);
+        final LosslessAudioFile af = LosslessAudioFile.open(file);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                final int position = random.nextInt(data.length);
+                final int len = 1 + random.nextInt(3 * BLOCK_SIZE * channelCount * 2);
+                final byte[] b = new byte[len];
+                final int read = af.read(position, b, 0, len);
+                assertEquals(Math.min(len, data.length - position), read);
+                assertArrayEquals(Arrays.copyOfRange(data, position, position + read), Arrays.copyOf(b, read));
+            }
+
+            // sequential reads continue from the last seek position
+            af.seek(1001);
+            final byte[] b = new byte[5000];
+            assertEquals(5000, af.read(b, 0, b.length));
+            assertEquals(6001, af.getFilePointer());
+            assertArrayEquals(Arrays.copyOfRange(data, 1001, 6001), b);
+            af.seek(data.length);
+            assertEquals(-1, af.read(b, 0, b.length));
+        } finally {
+            af.close();
+        }
+    }
+
+    @Test public void interruptedRecordingIsReadableUpToLastCommit() throws IOException {
+        final int channelCount = 3;
+        final byte[] data = createData(SAMPLE_RATE * 3, channelCount, 13);
+        // writer is never closed, as if app was killed while recording
+        final File file = write(data, channelCount, false);
+
+        final LosslessAudioFile af = LosslessAudioFile.open(file);
+        try {
+            final long length = af.length();
+            // only whole blocks are committed
+            assertTrue(length > 0);
+            assertTrue(length > data.length - COMMIT_INTERVAL - BLOCK_SIZE * channelCount * 2);
+            assertEquals(0, length % (BLOCK_SIZE * channelCount * 2));
+            assertArrayEquals(Arrays.copyOf(data, (int) length), readAll(af));
+        } finally {
+            af.close();
+        }
+    }
+
+    @Test public void emptyRecordingIsReadable() throws IOException {
+        final File file = folder.newFile();
+        new LosslessWriter(file, SAMPLE_RATE, 2, COMMIT_INTERVAL, BLOCK_SIZE).close();
+
+        final LosslessAudioFile af = LosslessAudioFile.open(file);
+        try {
+            assertEquals(0, af.length());
+            assertEquals(-1, af.read(0, new byte[10], 0, 10));
+        } finally {
+            af.close();
+        }
+    }
+
+    @Test(expected = IOException.class) public void writingToClosedWriterFails() throws IOException {
+        final LosslessWriter writer = new LosslessWriter(folder.newFile(), SAMPLE_RATE, 1, COMMIT_INTERVAL);
+        writer.close();
+        writer.write(new byte[2], 0, 2);
+    }
+
+    @Test(expected = IOException.class) public void openingOtherFileFails() throws IOException {
+        final File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[100]);
+        }
+        LosslessAudioFile.open(file).close();
+    }
+
+    @Test public void throughput() throws IOException {
+        final int channelCount = 2;
+        final byte[] data = createData(SAMPLE_RATE * 60, channelCount, 17);
+
+        // warm up
+        write(data, channelCount, true);
+
+        long start = System.nanoTime();
+        final File file = write(data, channelCount, true);
+        final double encodeSeconds = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        final LosslessAudioFile af = LosslessAudioFile.open(file);
+        try {
+            readAll(af);
+        } finally {
+            af.close();
+        }
+        final double decodeSeconds = (System.nanoTime() - start) / 1e9;
+
+        log("Encoding %.1f MB/s, decoding %.1f MB/s, compression ratio %.2f", data.length / encodeSeconds / 1e6,
+            data.length / decodeSeconds / 1e6, data.length / (double) file.length());
+    }
+
+    // Writes specified data in chunks of random size and returns the written file
+    private File write(byte[] data, int channelCount, boolean close) throws IOException {
+        final File file = folder.newFile();
+        final LosslessWriter writer = new LosslessWriter(file, SAMPLE_RATE, channelCount, COMMIT_INTERVAL, BLOCK_SIZE);
+        final Random random = new Random(3);
+        for (int i = 0; i < data.length; ) {
+            final int len = Math.min(data.length - i, 1 + random.nextInt(5000));
+            writer.write(data, i, len);
+            i += len;
+            assertEquals(i, writer.getByteCount());
+        }
+        if (close) writer.close();
+
+        return file;
+    }
+
+    // Reads all the audio data from specified file
+    private static byte[] readAll(AudioFile af) throws IOException {
+        final byte[] data = new byte[(int) af.length()];
+        int read;
+        for (int position = 0; position < data.length; position += read) {
+            read = af.read(position, data, position, Math.min(4321, data.length - position));
+            if (read <= 0) break;
+        }
+        return data;
+    }
+
+    // Creates 16-bit little-endian signal with a different kind of signal in every channel
+    private static byte[] createData(int frameCount, int channelCount, long seed) {
+        final Random random = new Random(seed);
+        final ByteBuffer bb = ByteBuffer.allocate(frameCount * channelCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frameCount; i++) {
+            final double t = i / (double) SAMPLE_RATE;
+            for (int ch = 0; ch < channelCount; ch++) {
+                double value;
+                switch (ch % 4) {
+                    case 0:
+                        // EMG: noise bursts that come and go with muscle contractions
+                        value = random.nextGaussian() * (Math.sin(2 * Math.PI * .5 * t) > 0 ? 4000 : 150);
+                        break;
+                    case 1:
+                        // spikes on top of noise
+                        value = random.nextGaussian() * 300 + (i % 397 < 10 ? -9000 * Math.sin(Math.PI * (i % 397) / 10)
+                            : 0);
+                        break;
+                    case 2:
+                        // EEG: alpha rhythm with some line noise
+                        value = 2000 * Math.sin(2 * Math.PI * 10 * t) + 300 * Math.sin(2 * Math.PI * 50 * t)
+                            + random.nextGaussian() * 50;
+                        break;
+                    default:
+                        // disconnected channel
+                        value = 0;
+                        break;
+                }
+                bb.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value))));
+            }
+        }
+        return bb.array();
+    }
+
+    private static void log(String format, Object... args) {
+        System.out.println(String.format(Locale.US, format, args));
+    }
+}
@@ -0,0 +1,127 @@
+package com.backyardbrains.dsp.audio;
+
+import android.media.AudioFormat;
+import com.backyardbrains.utils.WavUtils;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test for {@link WavWriter}.
+ *
+ * Data is written in chunks of random size that cross the write buffer boundaries, and file is checked to be a valid
+ * WAV file that holds all the committed data after every header commit, not only after writer is closed.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class WavWriterTest {
+
+    private static final int SAMPLE_RATE = 10000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int BUFFER_SIZE = 4096;
+    private static final int COMMIT_INTERVAL = 10000;
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test public void fileIsValidAfterEveryCommit() throws IOException {
+        final File file = folder.newFile();
+        final byte[] data = createData(100003);
+        final WavWriter writer = new WavWriter(file, SAMPLE_RATE, CHANNEL_COUNT, AudioFormat.ENCODING_PCM_16BIT,
+            COMMIT_INTERVAL, 0, BUFFER_SIZE);
+
+        // newly created file is a valid empty WAV file
+        assertEquals(WavUtils.HEADER_SIZE, file.length());
+        assertEquals(0, readDataSize(file));
+
+        final Random random = new Random(3);
+        long committed = 0;
+        for (int i = 0; i < data.length; ) {
+            final int len = Math.min(data.length - i, 1 + random.nextInt(3 * BUFFER_SIZE));
+            writer.write(data, i, len);
+            i += len;
+            assertEquals(i, writer.getByteCount());
+
+            final long dataSize = readDataSize(file);
+            if (dataSize != committed) {
+                // header is committed once enough data is written and describes all of it
+                assertTrue(dataSize - committed >= COMMIT_INTERVAL);
+                assertEquals(i, dataSize);
+                assertArrayEquals(Arrays.copyOf(data, i), readData(file, i));
+                committed = dataSize;
+            }
+            assertTrue(i - committed < COMMIT_INTERVAL);
+        }
+        writer.close();
+
+        assertEquals(WavUtils.HEADER_SIZE + data.length, file.length());
+        assertEquals(data.length, readDataSize(file));
+        assertArrayEquals(data, readData(file, data.length));
+    }
+
+    @Test public void preallocatedFileIsTruncatedOnClose() throws IOException {
+        final File file = folder.newFile();
+        final byte[] data = createData(50001);
+        final WavWriter writer = new WavWriter(file, SAMPLE_RATE, CHANNEL_COUNT, AudioFormat.ENCODING_PCM_16BIT,
+            COMMIT_INTERVAL, 64 * 1024, BUFFER_SIZE);
+        writer.write(data, 0, data.length);
+        writer.commit();
+
+        // file is preallocated but header holds only written data
+        assertEquals(64 * 1024, file.length());
+        assertEquals(data.length, readDataSize(file));
+
+        writer.close();
+        assertEquals(WavUtils.HEADER_SIZE + data.length, file.length());
+        assertArrayEquals(data, readData(file, data.length));
+    }
+
+    @Test(expected = IOException.class) public void writingToClosedWriterFails() throws IOException {
+        final WavWriter writer =
+            new WavWriter(folder.newFile(), SAMPLE_RATE, CHANNEL_COUNT, AudioFormat.ENCODING_PCM_16BIT,
+                COMMIT_INTERVAL, 0);
+        writer.close();
+        writer.write(new byte[4], 0, 4);
+    }
+
+    // Creates random data of specified length
+    private static byte[] createData(int length) {
+        final byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    // Reads header of the specified WAV file and returns its data size
+    private static long readDataSize(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            final WavUtils.WavHeader header = WavUtils.readHeader(in);
+            assertEquals(CHANNEL_COUNT, header.getChannelCount());
+            assertEquals(SAMPLE_RATE, header.getSampleRate());
+            assertEquals(16, header.getBitsPerSample());
+            return header.getDataSize();
+        } catch (IOException e) {
+            // empty data chunk is reported as wrong data size
+            if (e.getMessage().startsWith("Wrong data size: 0")) return 0;
+            throw e;
+        }
+    }
+
+    // Reads specified number of bytes from the data chunk of the specified WAV file
+    private static byte[] readData(File file, int length) throws IOException {
+        final byte[] data = new byte[length];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(WavUtils.HEADER_SIZE);
+            raf.readFully(data);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,160 @@
+package com.backyardbrains.filters;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Local unit test for {@link FilterChain}. Checks frequency response of the designed second-order sections, evaluated
+ * from the same float coefficients that are passed to the native cascade.
+ */
+public class FilterChainTest {
+
+    private static final float SAMPLE_RATE = 10000f;
+    private static final float CUT_OFF = 500f;
+    private static final float RIPPLE = 1f;
+
+    @Test public void butterworthLowPassIsHalfPowerAtCutOff() {
+        for (int order = 1; order <= FilterChain.MAX_ORDER; order++) {
+            final float[] sos =
+                new FilterChain(FilterChain.Stage.butterworthLowPass(order, CUT_OFF)).design(SAMPLE_RATE);
+            assertEquals((order + 1) / 2, sos.length / FilterChain.COEFFICIENT_COUNT);
+            assertStable(sos);
+            assertEquals(0d, gain(sos, 0d), .01d);
+            assertEquals(-3.01d, gain(sos, CUT_OFF), .05d);
+            // roughly 6 dB per octave per order
+            assertTrue(gain(sos, 4 * CUT_OFF) < -11d * order);
+        }
+    }
+
+    @Test public void butterworthHighPassIsHalfPowerAtCutOff() {
+        for (int order = 1; order <= FilterChain.MAX_ORDER; order++) {
+            final float[] sos =
+                new FilterChain(FilterChain.Stage.butterworthHighPass(order, CUT_OFF)).design(SAMPLE_RATE);
+            assertStable(sos);
+            assertEquals(0d, gain(sos, SAMPLE_RATE / 2d), .01d);
+            assertEquals(-3.01d, gain(sos, CUT_OFF), .05d);
+            assertTrue(gain(sos, CUT_OFF / 4) < -11d * order);
+        }
+    }
+
+    @Test public void chebyshevPassbandStaysWithinRipple() {
+        for (int order = 1; order <= FilterChain.MAX_ORDER; order++) {
+            final float[] lowPass =
+                new FilterChain(FilterChain.Stage.chebyshevLowPass(order, CUT_OFF, RIPPLE)).design(SAMPLE_RATE);
+            final float[] highPass =
+                new FilterChain(FilterChain.Stage.chebyshevHighPass(order, CUT_OFF, RIPPLE)).design(SAMPLE_RATE);
+            assertStable(lowPass);
+            assertStable(highPass);
+            for (int i = 0; i < 100; i++) {
+                final double lowPassGain = gain(lowPass, CUT_OFF * i / 100d);
+                assertTrue(lowPassGain <= .01d && lowPassGain >= -RIPPLE - .01d);
+                final double highPassGain = gain(highPass, CUT_OFF + (SAMPLE_RATE / 2d - CUT_OFF) * i / 100d);
+                assertTrue(highPassGain <= .01d && highPassGain >= -RIPPLE - .01d);
+            }
+            // passband ends at the bottom of the ripple
+            assertEquals(-RIPPLE, gain(lowPass, CUT_OFF), .05d);
+            assertEquals(-RIPPLE, gain(highPass, CUT_OFF), .05d);
+        }
+    }
+
+    @Test public void chebyshevRollsOffFasterThanButterworth() {
+        // Chebyshev passband ends at -1 dB instead of -3 dB so second order filters don't differ enough an octave away
+        for (int order = 3; order <= FilterChain.MAX_ORDER; order++) {
+            final float[] chebyshev =
+                new FilterChain(FilterChain.Stage.chebyshevLowPass(order, CUT_OFF, RIPPLE)).design(SAMPLE_RATE);
+            final float[] butterworth =
+                new FilterChain(FilterChain.Stage.butterworthLowPass(order, CUT_OFF)).design(SAMPLE_RATE);
+            assertTrue(gain(chebyshev, 2 * CUT_OFF) < gain(butterworth, 2 * CUT_OFF));
+        }
+    }
+
+    @Test public void notchRemovesOnlyCenterFrequency() {
+        final float[] sos = new FilterChain(FilterChain.Stage.notch(60f, 4f)).design(SAMPLE_RATE);
+        assertStable(sos);
+        assertTrue(gain(sos, 60d) < -60d);
+        assertEquals(0d, gain(sos, 0d), .01d);
+        assertEquals(0d, gain(sos, 1000d), .1d);
+    }
+
+    @Test public void combNotchRemovesHarmonicsBelowNyquist() {
+        final FilterChain chain = new FilterChain(FilterChain.Stage.combNotch(60f, 10, 4f));
+        final float[] sos = chain.design(SAMPLE_RATE);
+        assertEquals(10, sos.length / FilterChain.COEFFICIENT_COUNT);
+        assertStable(sos);
+        for (int k = 1; k <= 10; k++) assertTrue(gain(sos, 60d * k) < -40d);
+        // every notch has the same bandwidth so signal between harmonics passes
+        assertEquals(0d, gain(sos, 1000d), 1d);
+
+        // only harmonics below 250 Hz fit
+        assertEquals(4, chain.design(500f).length / FilterChain.COEFFICIENT_COUNT);
+    }
+
+    @Test public void stagesAreChained() {
+        final FilterChain chain = new FilterChain(FilterChain.Stage.butterworthHighPass(4, 70f),
+            FilterChain.Stage.chebyshevLowPass(5, 2500f, .5f), FilterChain.Stage.combNotch(60f, 3, 2f));
+        final float[] sos = chain.design(SAMPLE_RATE);
+        assertEquals(2 + 3 + 3, sos.length / FilterChain.COEFFICIENT_COUNT);
+        assertTrue(gain(sos, 10d) < -40d);
+        assertTrue(gain(sos, 5000d) < -40d);
+        assertTrue(gain(sos, 120d) < -40d);
+        assertEquals(0d, gain(sos, 1000d), .6d);
+    }
+
+    @Test public void unsupportedChainsAreRejected() {
+        final FilterChain chain = new FilterChain(FilterChain.Stage.butterworthLowPass(2, 6000f));
+        assertFalse(chain.isSupported(SAMPLE_RATE));
+        assertTrue(chain.isSupported(44100f));
+        try {
+            chain.design(SAMPLE_RATE);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        try {
+            FilterChain.Stage.butterworthLowPass(FilterChain.MAX_ORDER + 1, CUT_OFF);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        final FilterChain.Stage stage = FilterChain.Stage.butterworthLowPass(FilterChain.MAX_ORDER, CUT_OFF);
+        try {
+            new FilterChain(stage, stage, stage, stage, stage, stage, stage, stage, stage);
+            fail();
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test public void chainsWithSameStagesAreEqual() {
+        assertEquals(new FilterChain(FilterChain.Stage.notch(50f, 2f), FilterChain.Stage.butterworthLowPass(3, 1f)),
+            new FilterChain(FilterChain.Stage.notch(50f, 2f), FilterChain.Stage.butterworthLowPass(3, 1f)));
+        assertFalse(new FilterChain(FilterChain.Stage.notch(50f, 2f)).equals(
+            new FilterChain(FilterChain.Stage.notch(60f, 2f))));
+    }
+
+    // Returns gain of the cascade at specified frequency in dB
+    private static double gain(float[] sos, double frequency) {
+        final double w = 2d * Math.PI * frequency / SAMPLE_RATE;
+        double magnitude = 1d;
+        for (int i = 0; i < sos.length; i += FilterChain.COEFFICIENT_COUNT) {
+            // H(z) at z = e^jw
+            final double numRe = sos[i] + sos[i + 1] * Math.cos(w) + sos[i + 2] * Math.cos(2 * w);
+            final double numIm = -sos[i + 1] * Math.sin(w) - sos[i + 2] * Math.sin(2 * w);
+            final double denRe = 1d + sos[i + 3] * Math.cos(w) + sos[i + 4] * Math.cos(2 * w);
+            final double denIm = -sos[i + 3] * Math.sin(w) - sos[i + 4] * Math.sin(2 * w);
+            magnitude *= Math.hypot(numRe, numIm) / Math.hypot(denRe, denIm);
+        }
+        return 20d * Math.log10(magnitude);
+    }
+
+    // Poles of every section need to be inside the unit circle
+    private static void assertStable(float[] sos) {
+        for (int i = 0; i < sos.length; i += FilterChain.COEFFICIENT_COUNT) {
+            final float a1 = sos[i + 3], a2 = sos[i + 4];
+            assertTrue(Math.abs(a2) < 1f && Math.abs(a1) < 1f + a2);
+        }
+    }
+}
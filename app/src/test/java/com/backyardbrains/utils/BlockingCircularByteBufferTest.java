@@ -0,0 +1,162 @@
+package com.backyardbrains.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.greenrobot.essentials.io.CircularByteBuffer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test and benchmark for {@link BlockingCircularByteBuffer}.
+ *
+ * Benchmark simulates a signal source that delivers 10 kHz, 2 channel, 16-bit signal in 10 ms batches and reports
+ * CPU time consumer thread spent per second of processed signal, both for the blocking buffer and for the busy loop
+ * over greenrobot's {@link CircularByteBuffer} that was used previously.
+ */
+public class BlockingCircularByteBufferTest {
+
+    private static final int SAMPLE_RATE = 10000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int BYTES_PER_SECOND = SAMPLE_RATE * CHANNEL_COUNT * 2;
+    private static final int BATCH_TIME_MS = 10;
+    private static final int BATCH_SIZE = BYTES_PER_SECOND * BATCH_TIME_MS / 1000;
+    private static final int SIGNAL_TIME_S = 2;
+
+    @Test public void bytesAreReceivedInOrder() throws Exception {
+        final BlockingCircularByteBuffer ringBuffer = new BlockingCircularByteBuffer(1000);
+        ringBuffer.setWakeUpThreshold(100, 5);
+        final int total = 1000000;
+
+        final Thread producer = new Thread(() -> {
+            final byte[] src = new byte[97];
+            int counter = 0;
+            while (counter < total) {
+                int len = Math.min(src.length, total - counter);
+                for (int i = 0; i < len; i++) src[i] = (byte) (counter + i);
+                int put = ringBuffer.put(src, 0, len);
+                counter += put;
+                if (put == 0) Thread.yield();
+            }
+        });
+        producer.start();
+
+        final byte[] dst = new byte[333];
+        int counter = 0;
+        while (counter < total) {
+            int len = ringBuffer.take(dst);
+            for (int i = 0; i < len; i++) assertEquals((byte) (counter + i), dst[i]);
+            counter += len;
+        }
+        producer.join();
+
+        assertEquals(0, ringBuffer.available());
+    }
+
+    @Test public void takeWaitsForThresholdOrTimeout() {
+        final BlockingCircularByteBuffer ringBuffer = new BlockingCircularByteBuffer(1000);
+        ringBuffer.setWakeUpThreshold(100, 50);
+        ringBuffer.put(new byte[10]);
+
+        long start = System.nanoTime();
+        assertEquals(10, ringBuffer.take(new byte[1000]));
+        assertTrue(System.nanoTime() - start >= 40_000_000L);
+
+        ringBuffer.put(new byte[100]);
+        start = System.nanoTime();
+        assertEquals(100, ringBuffer.take(new byte[1000]));
+        assertTrue(System.nanoTime() - start < 40_000_000L);
+    }
+
+    @Test public void wakeUpReleasesParkedConsumer() throws Exception {
+        final BlockingCircularByteBuffer ringBuffer = new BlockingCircularByteBuffer(1000);
+        ringBuffer.setWakeUpThreshold(100, 0);
+
+        final Thread consumer = new Thread(() -> ringBuffer.take(new byte[1000]));
+        consumer.start();
+        Thread.sleep(50);
+        ringBuffer.wakeUp();
+        consumer.join(1000);
+
+        assertTrue(!consumer.isAlive());
+    }
+
+    @Test public void benchmarkCpuTimePerProcessedSecond() throws Exception {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!bean.isCurrentThreadCpuTimeSupported()) return;
+
+        final float busy = measureBusyLoop(bean);
+        final float blocking = measureBlocking(bean);
+
+        System.out.println(String.format("Busy loop:     %.2f ms CPU per second of signal", busy));
+        System.out.println(String.format("Blocking take: %.2f ms CPU per second of signal", blocking));
+    }
+
+    // Returns CPU time (ms) consumer spent per second of signal when spinning on greenrobot's buffer
+    private float measureBusyLoop(ThreadMXBean bean) throws Exception {
+        final CircularByteBuffer ringBuffer = new CircularByteBuffer(BYTES_PER_SECOND);
+        final AtomicBoolean working = new AtomicBoolean(true);
+        final long[] consumed = new long[1];
+        final long[] cpuTime = new long[1];
+
+        final Thread consumer = new Thread(() -> {
+            final byte[] dst = new byte[BYTES_PER_SECOND];
+            final long start = bean.getCurrentThreadCpuTime();
+            while (working.get()) {
+                consumed[0] += ringBuffer.get(dst);
+            }
+            consumed[0] += ringBuffer.get(dst);
+            cpuTime[0] = bean.getCurrentThreadCpuTime() - start;
+        });
+        consumer.start();
+        produce(buffer -> ringBuffer.put(buffer, 0, buffer.length));
+        working.set(false);
+        consumer.join();
+
+        assertEquals((long) BYTES_PER_SECOND * SIGNAL_TIME_S, consumed[0]);
+        return cpuTime[0] / 1000000f / SIGNAL_TIME_S;
+    }
+
+    // Returns CPU time (ms) consumer spent per second of signal when parking on blocking buffer
+    private float measureBlocking(ThreadMXBean bean) throws Exception {
+        final BlockingCircularByteBuffer ringBuffer = new BlockingCircularByteBuffer(BYTES_PER_SECOND);
+        ringBuffer.setWakeUpThreshold(BATCH_SIZE, 20);
+        final AtomicBoolean working = new AtomicBoolean(true);
+        final long[] consumed = new long[1];
+        final long[] cpuTime = new long[1];
+
+        final Thread consumer = new Thread(() -> {
+            final byte[] dst = new byte[BYTES_PER_SECOND];
+            final long start = bean.getCurrentThreadCpuTime();
+            while (working.get()) {
+                consumed[0] += ringBuffer.take(dst);
+            }
+            consumed[0] += ringBuffer.get(dst);
+            cpuTime[0] = bean.getCurrentThreadCpuTime() - start;
+        });
+        consumer.start();
+        produce(buffer -> ringBuffer.put(buffer, 0, buffer.length));
+        working.set(false);
+        ringBuffer.wakeUp();
+        consumer.join();
+
+        assertEquals((long) BYTES_PER_SECOND * SIGNAL_TIME_S, consumed[0]);
+        return cpuTime[0] / 1000000f / SIGNAL_TIME_S;
+    }
+
+    private interface Sink {
+        void put(byte[] buffer);
+    }
+
+    // Simulates signal source by delivering batches of data in real time
+    private void produce(Sink sink) throws InterruptedException {
+        final byte[] batch = new byte[BATCH_SIZE];
+        final int batchCount = SIGNAL_TIME_S * 1000 / BATCH_TIME_MS;
+        for (int i = 0; i < batchCount; i++) {
+            sink.put(batch);
+            Thread.sleep(BATCH_TIME_MS);
+        }
+    }
+}
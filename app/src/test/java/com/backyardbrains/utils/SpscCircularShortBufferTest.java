@@ -0,0 +1,209 @@
+package com.backyardbrains.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit test and benchmark for {@link SpscCircularShortBuffer} and {@link SpscCircularFloatArrayBuffer}.
+ *
+ * Benchmark streams 10 ms batches of 44.1 kHz signal through 1, 2, 4 and 8 per-channel ring buffers from a producer
+ * to a consumer thread and reports throughput and put/get latency percentiles, both for the lock-free buffer and for
+ * the synchronized {@link CircularShortBuffer}.
+ */
+public class SpscCircularShortBufferTest {
+
+    private static final int BATCH_SIZE = 441;
+    private static final int BENCHMARK_BUFFER_SIZE = 8192;
+    private static final int BENCHMARK_SAMPLE_COUNT = 1000000;
+    private static final int[] BENCHMARK_CHANNEL_COUNTS = { 1, 2, 4, 8 };
+
+    @Test public void capacityIsRoundedUpToPowerOfTwo() {
+        assertEquals(1, new SpscCircularShortBuffer(1).capacity());
+        assertEquals(8, new SpscCircularShortBuffer(5).capacity());
+        assertEquals(8, new SpscCircularShortBuffer(8).capacity());
+        assertEquals(16384, new SpscCircularShortBuffer(10000).capacity());
+    }
+
+    @Test public void singleShortOperations() {
+        final ShortRingBuffer ringBuffer = new SpscCircularShortBuffer(4);
+        assertEquals(-1, ringBuffer.get());
+        assertEquals(-1, ringBuffer.peek());
+        for (short i = 0; i < 4; i++) assertTrue(ringBuffer.put(i));
+        assertFalse(ringBuffer.put((short) 4));
+        assertEquals(0, ringBuffer.free());
+        assertEquals(0, ringBuffer.peek());
+        assertEquals(0, ringBuffer.get());
+        assertEquals(2, ringBuffer.skip(2));
+        assertEquals(3, ringBuffer.get());
+        assertEquals(0, ringBuffer.available());
+        assertEquals(0, ringBuffer.skip(1));
+    }
+
+    @Test public void bulkOperationsWrapAround() {
+        final ShortRingBuffer ringBuffer = new SpscCircularShortBuffer(8);
+        final short[] dst = new short[8];
+        assertEquals(6, ringBuffer.put(new short[] { 1, 2, 3, 4, 5, 6 }));
+        assertEquals(4, ringBuffer.get(dst, 0, 4));
+        // only 6 free slots left, 2 of them before the array end
+        assertEquals(6, ringBuffer.put(new short[] { 7, 8, 9, 10, 11, 12, 13 }));
+        assertEquals(8, ringBuffer.get(dst));
+        assertTrue(Arrays.equals(new short[] { 5, 6, 7, 8, 9, 10, 11, 12 }, dst));
+
+        final ShortBuffer src = ByteBuffer.allocateDirect(20).order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (short i = 0; i < 10; i++) src.put(i, (short) (100 + i));
+        assertEquals(8, ringBuffer.put(src, 10));
+        assertEquals(8, ringBuffer.get(dst));
+        assertEquals(100, dst[0]);
+        assertEquals(107, dst[7]);
+
+        ringBuffer.put(new short[3]);
+        ringBuffer.clear();
+        assertEquals(0, ringBuffer.available());
+    }
+
+    @Test public void shortsAreReceivedInOrder() throws Exception {
+        final ShortRingBuffer ringBuffer = new SpscCircularShortBuffer(1000);
+        final int total = 1000000;
+
+        final Thread producer = new Thread(() -> {
+            final short[] src = new short[97];
+            int counter = 0;
+            while (counter < total) {
+                int len = Math.min(src.length, total - counter);
+                for (int i = 0; i < len; i++) src[i] = (short) (counter + i);
+                int put = ringBuffer.put(src, 0, len);
+                counter += put;
+                if (put == 0) Thread.yield();
+            }
+        });
+        producer.start();
+
+        final short[] dst = new short[333];
+        int counter = 0;
+        while (counter < total) {
+            int len = ringBuffer.get(dst);
+            for (int i = 0; i < len; i++) assertEquals((short) (counter + i), dst[i]);
+            counter += len;
+            if (len == 0) Thread.yield();
+        }
+        producer.join();
+
+        assertEquals(0, ringBuffer.available());
+    }
+
+    @Test public void floatArraysAreReceivedInOrder() throws Exception {
+        final FloatArrayRingBuffer ringBuffer = new SpscCircularFloatArrayBuffer(100, 4);
+        final int total = 100000;
+
+        final Thread producer = new Thread(() -> {
+            final FloatBuffer src = ByteBuffer.allocateDirect(7 * 4 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            int counter = 0;
+            while (counter < total) {
+                int len = Math.min(7, total - counter);
+                for (int i = 0; i < len; i++) src.put(i * 4, counter + i);
+                int put = ringBuffer.put(src, len, 4);
+                counter += put;
+                if (put == 0) Thread.yield();
+            }
+        });
+        producer.start();
+
+        final float[][] dst = new float[33][4];
+        int counter = 0;
+        while (counter < total) {
+            int len = ringBuffer.get(dst);
+            for (int i = 0; i < len; i++) assertEquals(counter + i, dst[i][0], 0);
+            counter += len;
+            if (len == 0) Thread.yield();
+        }
+        producer.join();
+    }
+
+    @Test public void benchmarkThroughputAndLatency() throws Exception {
+        // warm up both implementations
+        measure(false, 2, BENCHMARK_SAMPLE_COUNT / 4);
+        measure(true, 2, BENCHMARK_SAMPLE_COUNT / 4);
+
+        for (int channelCount : BENCHMARK_CHANNEL_COUNTS) {
+            System.out.println(measure(false, channelCount, BENCHMARK_SAMPLE_COUNT));
+            System.out.println(measure(true, channelCount, BENCHMARK_SAMPLE_COUNT));
+        }
+    }
+
+    // Streams specified number of samples per channel through the buffers and returns formatted results
+    private String measure(boolean spsc, int channelCount, int sampleCount) throws Exception {
+        final ShortRingBuffer[] ringBuffers = new ShortRingBuffer[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            ringBuffers[i] = spsc ? new SpscCircularShortBuffer(BENCHMARK_BUFFER_SIZE)
+                : new CircularShortBuffer(BENCHMARK_BUFFER_SIZE);
+        }
+        final int batchCount = sampleCount / BATCH_SIZE;
+        final long[] putTimes = new long[batchCount * channelCount];
+        final long[] getTimes = new long[batchCount * channelCount];
+        final int[] getCount = new int[1];
+
+        final Thread consumer = new Thread(() -> {
+            final short[] dst = new short[BATCH_SIZE];
+            final int[] received = new int[channelCount];
+            int done = 0;
+            while (done < channelCount) {
+                done = 0;
+                for (int i = 0; i < channelCount; i++) {
+                    if (received[i] == batchCount * BATCH_SIZE) {
+                        done++;
+                        continue;
+                    }
+                    final long start = System.nanoTime();
+                    final int count = ringBuffers[i].get(dst);
+                    if (count > 0 && getCount[0] < getTimes.length) getTimes[getCount[0]++] = System.nanoTime() - start;
+                    received[i] += count;
+                }
+            }
+        });
+
+        final short[] src = new short[BATCH_SIZE];
+        final long start = System.nanoTime();
+        consumer.start();
+        int putCount = 0;
+        for (int b = 0; b < batchCount; b++) {
+            for (int i = 0; i < channelCount; i++) {
+                int off = 0;
+                while (off < BATCH_SIZE) {
+                    final long putStart = System.nanoTime();
+                    final int count = ringBuffers[i].put(src, off, BATCH_SIZE - off);
+                    if (count > 0) {
+                        if (off == 0) putTimes[putCount++] = System.nanoTime() - putStart;
+                        off += count;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        }
+        consumer.join();
+        final long elapsed = System.nanoTime() - start;
+
+        final float samplesPerSecond = (float) batchCount * BATCH_SIZE * channelCount / (elapsed / 1e9f);
+        return String.format("%-23s %d ch: %6.1f M samples/s, put p50/p99/p99.9: %s, get p50/p99/p99.9: %s",
+            spsc ? "SpscCircularShortBuffer" : "CircularShortBuffer", channelCount, samplesPerSecond / 1e6f,
+            percentiles(putTimes, putCount), percentiles(getTimes, getCount[0]));
+    }
+
+    // Returns formatted 50th, 99th and 99.9th percentiles (in microseconds) of the first count values
+    private static String percentiles(long[] values, int count) {
+        if (count == 0) return "n/a";
+
+        final long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return String.format("%.2f/%.2f/%.2f us", sorted[count / 2] / 1000f, sorted[(int) (count * .99)] / 1000f,
+            sorted[(int) (count * .999)] / 1000f);
+    }
+}